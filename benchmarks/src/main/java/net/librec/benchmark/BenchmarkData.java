@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.recommender.RecommenderContext;
+import net.librec.similarity.RecommenderSimilarity;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.ReflectionUtil;
+
+/**
+ * The bundled data sets and recommender settings the benchmarks run on.
+ * <p>
+ * The data is read from the directory of the system property 'librec.benchmark.data.dir', by default the
+ * {@code data} directory of the working directory, so run the benchmarks from the root of the project.
+ * The input path within it is 'librec.benchmark.input.path', by default the FilmTrust ratings.
+ */
+final class BenchmarkData {
+
+    static final String DATA_DIR = System.getProperty("librec.benchmark.data.dir", "data");
+
+    static final String INPUT_PATH = System.getProperty("librec.benchmark.input.path", "filmtrust/rating");
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * A configuration of the bundled data with the test settings of a recommender, training quietly.
+     *
+     * @param resource the test properties of the recommender within the core resources, or null
+     * @return the configuration
+     */
+    static Configuration configuration(String resource) {
+        Configuration conf = new Configuration();
+        if (resource != null) {
+            conf.addResource(new Configuration.Resource(resource));
+        }
+        conf.set("dfs.data.dir", DATA_DIR);
+        conf.set("data.input.path", INPUT_PATH);
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.format", "text");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.random.seed", "1");
+        conf.set("rec.recommender.verbose", "false");
+        return conf;
+    }
+
+    /**
+     * The test properties of the recommenders the benchmarks train.
+     *
+     * @param recommender short name of the recommender
+     * @return the resource of its test properties
+     */
+    static String recommenderResource(String recommender) {
+        switch (recommender) {
+            case "biasedmf":
+                return "rec/cf/rating/biasedmf-test.properties";
+            case "itemknn":
+                return "rec/cf/itemknn-testranking.properties";
+            case "bpr":
+            case "wrmf":
+            case "slim":
+                return "rec/cf/ranking/" + recommender + "-test.properties";
+            default:
+                throw new IllegalArgumentException("no benchmark settings for the recommender " + recommender);
+        }
+    }
+
+    /**
+     * Build the data model of the configuration and move it to its first fold.
+     *
+     * @param conf configuration of the data
+     * @return the data model
+     * @throws LibrecException if the data can not be read
+     */
+    static DataModel buildDataModel(Configuration conf) throws LibrecException {
+        DataFrame.clearInnerMapping();
+        Randoms.seed(conf.getLong("rec.random.seed"));
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        dataModel.nextFold();
+        return dataModel;
+    }
+
+    /**
+     * The context of a recommender on the data model, with the similarities its configuration asks for.
+     *
+     * @param conf      configuration of the recommender
+     * @param dataModel data model at the fold to train on
+     * @return the context
+     * @throws ClassNotFoundException if the similarity class is unknown
+     */
+    @SuppressWarnings("unchecked")
+    static RecommenderContext context(Configuration conf, DataModel dataModel) throws ClassNotFoundException {
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
+        if (similarityKeys != null) {
+            for (int i = 0; i < similarityKeys.length; i++) {
+                RecommenderSimilarity similarity = ReflectionUtil.newInstance(
+                        (Class<RecommenderSimilarity>) DriverClassUtil.getClass(conf.get("rec.similarity.class")), conf);
+                conf.set("rec.recommender.similarity.key", similarityKeys[i]);
+                similarity.buildSimilarityMatrix(dataModel);
+                if (i == 0) {
+                    context.setSimilarity(similarity);
+                }
+                context.addSimilarities(similarityKeys[i], similarity);
+            }
+        }
+        return context;
+    }
+}
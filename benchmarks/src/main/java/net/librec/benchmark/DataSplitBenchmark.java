@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.convertor.TextDataConvertor;
+import net.librec.data.splitter.KCVDataSplitter;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the bundled data: parsing it with the {@link TextDataConvertor}
+ * and moving the {@link KCVDataSplitter} to its next fold.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar DataSplitBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataSplitBenchmark {
+
+    @Param({"5"})
+    public int numFolds;
+
+    private Configuration conf;
+
+    private String[] inputDataPath;
+
+    private TextDataConvertor dataConvertor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        conf = BenchmarkData.configuration(null);
+        conf.set("data.model.splitter", "kcv");
+        conf.set("data.splitter.cv.number", String.valueOf(numFolds));
+        String[] inputPaths = conf.get("data.input.path").trim().split(":");
+        inputDataPath = new String[inputPaths.length];
+        for (int i = 0; i < inputPaths.length; i++) {
+            inputDataPath[i] = conf.get("dfs.data.dir") + "/" + inputPaths[i];
+        }
+        dataConvertor = convert();
+    }
+
+    @Benchmark
+    public TextDataConvertor convert() throws IOException {
+        DataFrame.clearInnerMapping();
+        TextDataConvertor convertor = new TextDataConvertor(conf.get("data.column.format"), inputDataPath, conf.get("data.convert.sep", "[\t;, ]"));
+        convertor.processData();
+        return convertor;
+    }
+
+    @Benchmark
+    public SequentialAccessSparseMatrix nextFold(Folds folds) {
+        folds.splitter.nextFold();
+        return folds.splitter.getTrainData();
+    }
+
+    /**
+     * A splitter of the parsed data at the start of its folds, split anew for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class Folds {
+        private KCVDataSplitter splitter;
+
+        @Setup(Level.Invocation)
+        public void split(DataSplitBenchmark data) throws LibrecException {
+            Randoms.seed(1L);
+            splitter = new KCVDataSplitter(data.dataConvertor, data.conf);
+            splitter.splitData();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.model.ArffDataModel;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.Vector;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.cf.rating.FMSGDRecommender;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the factorization machine kernels with the sparse vector path they replaced:
+ * prediction of single entries, prediction of a whole tensor and one SGD epoch.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar FactorizationMachineBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FactorizationMachineBenchmark {
+
+    @Param({"2000"})
+    public int numUsers;
+
+    @Param({"1000"})
+    public int numItems;
+
+    @Param({"50000"})
+    public int numRatings;
+
+    @Param({"10", "50"})
+    public int numFactors;
+
+    private File dataDir;
+
+    private BenchmarkFM recommender;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, LibrecException {
+        dataDir = Files.createTempDirectory("librec-fm").toFile();
+        Random random = new Random(1);
+        try (PrintWriter writer = new PrintWriter(new File(dataDir, "fm.arff"), "UTF-8")) {
+            writer.println("@RELATION fm");
+            writer.println("@ATTRIBUTE user STRING");
+            writer.println("@ATTRIBUTE item STRING");
+            writer.println("@ATTRIBUTE day {0,1,2,3,4,5,6}");
+            writer.println("@ATTRIBUTE rating NUMERIC");
+            writer.println("@DATA");
+            for (int index = 0; index < numRatings; index++) {
+                writer.println(random.nextInt(numUsers) + "," + random.nextInt(numItems) + ","
+                        + random.nextInt(7) + "," + (1 + random.nextInt(5)));
+            }
+        }
+
+        Configuration conf = new Configuration();
+        conf.set("dfs.data.dir", dataDir.getAbsolutePath());
+        conf.set("data.input.path", "fm.arff");
+        conf.set("data.model.format", "arff");
+        conf.set("data.convertor.format", "arff");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.random.seed", "1");
+        conf.set("rec.recommender.isranking", "false");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.iterator.learnRate", "0.001");
+        conf.set("rec.iterator.maximum", "1");
+        conf.set("rec.factor.number", String.valueOf(numFactors));
+
+        ArffDataModel dataModel = new ArffDataModel(conf);
+        dataModel.buildDataModel();
+        dataModel.nextFold();
+        recommender = new BenchmarkFM();
+        recommender.prepare(new RecommenderContext(conf, dataModel));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dataDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dataDir.delete();
+    }
+
+    @Benchmark
+    public void predictEntriesLegacy(Blackhole blackhole) throws LibrecException {
+        recommender.predictEntriesLegacy(blackhole);
+    }
+
+    @Benchmark
+    public void predictEntries(Blackhole blackhole) throws LibrecException {
+        recommender.predictEntries(blackhole);
+    }
+
+    @Benchmark
+    public double[] predictTensor() {
+        return recommender.predictTensor();
+    }
+
+    @Benchmark
+    public double trainEpochLegacy() throws LibrecException {
+        return recommender.trainEpochLegacy();
+    }
+
+    @Benchmark
+    public double trainEpoch() throws LibrecException {
+        return recommender.trainEpoch();
+    }
+
+    /**
+     * FMSGD with the protected kernels exposed to the benchmark.
+     */
+    static class BenchmarkFM extends FMSGDRecommender {
+
+        private double learningRate;
+
+        void prepare(RecommenderContext context) throws LibrecException {
+            this.context = context;
+            setup();
+            learningRate = conf.getDouble("rec.iterator.learnRate");
+        }
+
+        void predictEntriesLegacy(Blackhole blackhole) throws LibrecException {
+            int[] keys = new int[numDimensions];
+            for (int index = 0; index < n; index++) {
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    keys[dim] = trainTensor.key(dim, index);
+                }
+                blackhole.consume(predict(tenserKeysToFeatureVector(keys)));
+            }
+        }
+
+        void predictEntries(Blackhole blackhole) throws LibrecException {
+            int[] keys = new int[numDimensions];
+            for (int index = 0; index < n; index++) {
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    keys[dim] = trainTensor.key(dim, index);
+                }
+                blackhole.consume(predict(keys));
+            }
+        }
+
+        double[] predictTensor() {
+            return predict(trainTensor);
+        }
+
+        /**
+         * One epoch of the SGD update as it was written against sparse appender vectors,
+         * recomputing the sum over the other features for every factor.
+         */
+        double trainEpochLegacy() throws LibrecException {
+            double epochLoss = 0.0;
+            int[] keys = new int[numDimensions];
+            for (int index = 0; index < n; index++) {
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    keys[dim] = trainTensor.key(dim, index);
+                }
+                SequentialSparseVector x = tenserKeysToFeatureVector(keys);
+                double err = predict(x) - trainRatings[index];
+                epochLoss += err * err;
+
+                w0 += -learningRate * (err + regW0 * w0);
+                for (Vector.VectorEntry ve : x) {
+                    int l = ve.index();
+                    double oldWl = W.get(l);
+                    W.plus(l, -learningRate * (err + regW * oldWl));
+                }
+                for (int f = 0; f < k; f++) {
+                    for (Vector.VectorEntry ve : x) {
+                        int l = ve.index();
+                        double oldVlf = V.get(l, f);
+                        double hVlf = 0;
+                        for (Vector.VectorEntry other : x) {
+                            if (other.index() != l) {
+                                hVlf += V.get(other.index(), f);
+                            }
+                        }
+                        V.plus(l, f, -learningRate * (err * hVlf + regF * oldVlf));
+                    }
+                }
+            }
+            return epochLoss;
+        }
+
+        /**
+         * One epoch of the SGD update on the flat appender indices with cached factor sums.
+         */
+        double trainEpoch() {
+            double epochLoss = 0.0;
+            double[] weights = W.getValues();
+            double[][] factors = V.getValues();
+            double[] factorSums = new double[k];
+            for (int index = 0; index < n; index++) {
+                int from = index * numDimensions;
+                double err = predict(trainFeatureIndices, from, factorSums) - trainRatings[index];
+                epochLoss += err * err;
+
+                w0 += -learningRate * (err + regW0 * w0);
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    int l = trainFeatureIndices[from + dim];
+                    weights[l] += -learningRate * (err + regW * weights[l]);
+                    double[] factorsOfL = factors[l];
+                    for (int f = 0; f < k; f++) {
+                        double oldVlf = factorsOfL[f];
+                        factorsOfL[f] += -learningRate * (err * (factorSums[f] - oldVlf) + regF * oldVlf);
+                    }
+                }
+            }
+            return epochLoss;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.ReflectionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MatrixRecommender#recommendRank()} of trained recommenders over all users of the bundled data,
+ * the step every ranking evaluation and every saved ranking runs.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar RecommendRankBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecommendRankBenchmark {
+
+    @Param({"biasedmf", "bpr", "itemknn"})
+    public String recommenderName;
+
+    @Param({"10", "50"})
+    public int topN;
+
+    private MatrixRecommender recommender;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws LibrecException, ClassNotFoundException {
+        Configuration conf = BenchmarkData.configuration(BenchmarkData.recommenderResource(recommenderName));
+        conf.set("rec.recommender.isranking", "true");
+        conf.set("rec.recommender.ranking.topn", String.valueOf(topN));
+        conf.set("rec.iterator.maximum", "5");
+        DataModel dataModel = BenchmarkData.buildDataModel(conf);
+        recommender = ReflectionUtil.newInstance((Class<MatrixRecommender>) DriverClassUtil.getClass(recommenderName), conf);
+        recommender.train(BenchmarkData.context(conf, dataModel));
+    }
+
+    @Benchmark
+    public RecommendedList recommendRank() throws LibrecException {
+        return recommender.recommendRank();
+    }
+}
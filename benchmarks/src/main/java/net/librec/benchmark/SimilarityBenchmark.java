@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.similarity.RecommenderSimilarity;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.ReflectionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code buildSimilarityMatrix} of every similarity class between the users and between the items of the bundled data.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar SimilarityBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimilarityBenchmark {
+
+    @Param({"bcos", "cos", "cpc", "dice", "exjaccard", "jaccard", "krcc", "msd", "msesim", "pcc"})
+    public String similarity;
+
+    @Param({"user", "item"})
+    public String similarityKey;
+
+    private DataModel dataModel;
+
+    private Class<RecommenderSimilarity> similarityClass;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws LibrecException, ClassNotFoundException {
+        Configuration conf = BenchmarkData.configuration(null);
+        conf.set("rec.recommender.similarity.key", similarityKey);
+        dataModel = BenchmarkData.buildDataModel(conf);
+        similarityClass = (Class<RecommenderSimilarity>) DriverClassUtil.getClass(similarity);
+    }
+
+    @Benchmark
+    public RecommenderSimilarity buildSimilarityMatrix() {
+        RecommenderSimilarity recommenderSimilarity = ReflectionUtil.newInstance(similarityClass, dataModel.getContext().getConf());
+        recommenderSimilarity.buildSimilarityMatrix(dataModel);
+        return recommenderSimilarity;
+    }
+}
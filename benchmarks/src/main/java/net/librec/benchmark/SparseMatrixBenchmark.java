@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of a {@link SequentialAccessSparseMatrix} from a table and its {@code reshape},
+ * which the splitters run for every train and test matrix of every fold.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar SparseMatrixBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SparseMatrixBenchmark {
+
+    @Param({"2000"})
+    public int numUsers;
+
+    @Param({"1000"})
+    public int numItems;
+
+    @Param({"50000", "200000"})
+    public int numRatings;
+
+    /**
+     * share of the entries set to zero before a reshape, the test share of a split
+     */
+    @Param({"0.2"})
+    public double zeroRatio;
+
+    private Table<Integer, Integer, Double> table;
+
+    private SequentialAccessSparseMatrix matrix;
+
+    private SequentialAccessSparseMatrix matrixWithZeros;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        table = HashBasedTable.create();
+        while (table.size() < numRatings) {
+            table.put(random.nextInt(numUsers), random.nextInt(numItems), 1.0 + random.nextInt(5));
+        }
+        matrix = new SequentialAccessSparseMatrix(numUsers, numItems, table);
+    }
+
+    @Setup(Level.Invocation)
+    public void setZeros() {
+        matrixWithZeros = matrix.clone();
+        Random random = new Random(2);
+        for (MatrixEntry matrixEntry : matrixWithZeros) {
+            if (random.nextDouble() < zeroRatio) {
+                matrixWithZeros.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
+            }
+        }
+    }
+
+    @Benchmark
+    public SequentialAccessSparseMatrix construct() {
+        return new SequentialAccessSparseMatrix(numUsers, numItems, table);
+    }
+
+    @Benchmark
+    public SequentialAccessSparseMatrix copy() {
+        return matrix.clone();
+    }
+
+    @Benchmark
+    public SequentialAccessSparseMatrix reshape() {
+        matrixWithZeros.reshape();
+        return matrixWithZeros;
+    }
+}
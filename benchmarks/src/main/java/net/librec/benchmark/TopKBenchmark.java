@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.recommender.item.KeyValue;
+import net.librec.util.Lists;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the top k items of one user: {@link Lists#sortKeyValueListTopK} on boxed key values
+ * against {@link Lists#sortTopKByScore} on a primitive score array.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar TopKBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopKBenchmark {
+
+    @Param({"2000", "100000"})
+    public int numItems;
+
+    @Param({"10", "100"})
+    public int k;
+
+    private List<KeyValue<Integer, Double>> itemScores;
+
+    private double[] scores;
+
+    private int[] excludedKeys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        scores = new double[numItems];
+        itemScores = new ArrayList<>(numItems);
+        for (int item = 0; item < numItems; item++) {
+            scores[item] = random.nextDouble();
+            itemScores.add(new KeyValue<>(item, scores[item]));
+        }
+        excludedKeys = new int[0];
+    }
+
+    @Benchmark
+    public List<KeyValue<Integer, Double>> sortKeyValueListTopK() {
+        return Lists.sortKeyValueListTopK(itemScores, true, k);
+    }
+
+    @Benchmark
+    public List<KeyValue<Integer, Double>> sortTopKByScore() {
+        return Lists.sortTopKByScore(scores, excludedKeys, 0, k);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.benchmark;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.ReflectionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One training epoch of BiasedMF, BPR, WRMF and SLIM with their test settings on the bundled data.
+ * <p>
+ * The recommender is set up and trained for one epoch once per trial, every invocation then runs
+ * {@code trainModel} with a single iteration, continuing from the current model.
+ * <p>
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar TrainingEpochBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrainingEpochBenchmark {
+
+    @Param({"biasedmf", "bpr", "wrmf", "slim"})
+    public String recommenderName;
+
+    private AbstractRecommender recommender;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws LibrecException, ClassNotFoundException {
+        Configuration conf = BenchmarkData.configuration(BenchmarkData.recommenderResource(recommenderName));
+        conf.set("rec.iterator.maximum", "1");
+        conf.set("rec.recommender.earlystop", "false");
+        DataModel dataModel = BenchmarkData.buildDataModel(conf);
+        recommender = ReflectionUtil.newInstance((Class<AbstractRecommender>) DriverClassUtil.getClass(recommenderName), conf);
+        recommender.train(BenchmarkData.context(conf, dataModel));
+    }
+
+    @Benchmark
+    public AbstractRecommender trainEpoch() throws LibrecException {
+        recommender.trainModel();
+        return recommender;
+    }
+}
@@ -4,6 +4,7 @@ import net.librec.conf.ConfigurationParser;
 import net.librec.conf.HybridConfiguration;
 import net.librec.job.HybridRecommenderJob;
 import net.librec.job.RecommenderJob;
+import net.librec.job.SweepRunner;
 import org.apache.commons.cli.MissingArgumentException;
 
 import java.io.IOException;
@@ -14,8 +15,10 @@ import java.io.IOException;
 public class Main {
     static final String FILE_PATH_USER = "conf/hybridConfigs/1.userknn-test.properties";
     static final String FILE_PATH_ITEM = "conf/hybridConfigs/2.itemknn-test.properties";
-    public static void main(String[] args) throws LibrecException, IOException, ClassNotFoundException, MissingArgumentException {
-        if (args.length == 1) {
+    public static void main(String[] args) throws LibrecException, IOException, ClassNotFoundException, MissingArgumentException, InterruptedException {
+        if (args.length == 2 && args[0].equals("-sweep")) {
+            new SweepRunner(args[1]).run();
+        } else if (args.length == 1) {
             run(args[0]);
         } else {
             System.out.println("Starting HybridRecommender:");
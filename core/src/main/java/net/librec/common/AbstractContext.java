@@ -18,6 +18,7 @@
 package net.librec.common;
 
 import net.librec.conf.Configuration;
+import net.librec.job.progress.ProgressReporter;
 
 /**
  * Abstract Context
@@ -28,6 +29,8 @@ public class AbstractContext implements LibrecContext {
 
     protected Configuration conf;
 
+    protected ProgressReporter progressReporter;
+
     /*
      * (non-Javadoc)
      * 
@@ -48,4 +51,18 @@ public class AbstractContext implements LibrecContext {
         this.conf = conf;
     }
 
+    /**
+     * @return the reporter of the progress of the job, or null if the job reports none
+     */
+    public ProgressReporter getProgressReporter() {
+        return progressReporter;
+    }
+
+    /**
+     * @param progressReporter the reporter of the progress of the job
+     */
+    public void setProgressReporter(ProgressReporter progressReporter) {
+        this.progressReporter = progressReporter;
+    }
+
 }
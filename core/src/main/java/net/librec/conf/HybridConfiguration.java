@@ -72,4 +72,8 @@ public class HybridConfiguration extends Configuration{
     public String get(String s) {
         return properties.get(s);
     }
+
+    public void set(String s, String value) {
+        properties.put(s, value);
+    }
 }
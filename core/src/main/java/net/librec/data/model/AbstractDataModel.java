@@ -21,6 +21,8 @@ import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configured;
 import net.librec.data.*;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
 import net.librec.math.structure.DataFrame;
 import net.librec.math.structure.DataSet;
 import net.librec.util.DriverClassUtil;
@@ -131,14 +133,21 @@ public abstract class AbstractDataModel extends Configured implements DataModel
     @Override
     public void buildDataModel() throws LibrecException {
         context = new DataContext(conf);
+        MetricRegistry metrics = MetricRegistry.of(conf);
         if (!conf.getBoolean("data.convert.read.ready")) {
+            Timer.Context timing = metrics.timer("data.convert").time();
             buildConvert();
+            timing.stop();
             LOG.info("Transform data to Convertor successfully!");
             conf.setBoolean("data.convert.read.ready", true);
         }
+        Timer.Context timing = metrics.timer("data.split").time();
         buildSplitter();
+        timing.stop();
         if (StringUtils.isNotBlank(conf.get("data.appender.class")) && !conf.getBoolean("data.appender.read.ready")) {
+            timing = metrics.timer("data.feature").time();
             buildFeature();
+            timing.stop();
             LOG.info("Transform data to Feature successfully!");
             conf.setBoolean("data.appender.read.ready", true);
         }
@@ -152,7 +161,10 @@ public abstract class AbstractDataModel extends Configured implements DataModel
     @Override
     public boolean hasNextFold(){
         // where or not has next fold( decided by Splitter
-        return dataSplitter.nextFold();
+        Timer.Context timing = MetricRegistry.of(conf).timer("data.split.fold").time();
+        boolean hasNextFold = dataSplitter.nextFold();
+        timing.stop();
+        return hasNextFold;
     }
 
     @Override
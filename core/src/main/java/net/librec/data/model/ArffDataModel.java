@@ -24,12 +24,12 @@ import net.librec.conf.Configured;
 import net.librec.data.DataModel;
 import net.librec.data.convertor.ArffDataConvertor;
 import net.librec.math.structure.DataSet;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.SparseTensor;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * A <tt>ArffDataModel</tt> represents a data access class
@@ -89,29 +89,27 @@ public class ArffDataModel extends AbstractDataModel implements DataModel {
             SparseTensor totalTensor = dataConvertor.getSparseTensor();
             // SparseMatrix trainMatrix = dataSplitter.getTrainData();
             SequentialAccessSparseMatrix testMatrix = dataSplitter.getTestData();
-            // construct train/test tensor from test sparse matrix
-            SparseTensor trainTensor = totalTensor.clone();
-            int[] dimensions = trainTensor.dimensions();
-            SparseTensor testTensor = new SparseTensor(dimensions);
-            testTensor.setUserDimension(trainTensor.getUserDimension());
-            testTensor.setItemDimension(trainTensor.getItemDimension());
-
-            for (MatrixEntry me : testMatrix) {
-                int u = me.row();
-                int i = me.column();
-
-                List<Integer> indices = totalTensor.getIndices(u, i);
-
-                for (int index : indices) {
-                    int[] keys = totalTensor.keys(index);
-                    try {
-                        testTensor.set(totalTensor.value(index), keys);
-                        trainTensor.remove(keys);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+            // construct train/test tensor from test sparse matrix, in one pass over the entries
+            int[] dimensions = totalTensor.dimensions();
+            int userDimension = totalTensor.getUserDimension();
+            int itemDimension = totalTensor.getItemDimension();
+            SparseTensor.Builder trainBuilder = new SparseTensor.Builder(dimensions)
+                    .setUserDimension(userDimension).setItemDimension(itemDimension);
+            SparseTensor.Builder testBuilder = new SparseTensor.Builder(dimensions)
+                    .setUserDimension(userDimension).setItemDimension(itemDimension);
+
+            for (int index = 0; index < totalTensor.size(); index++) {
+                int u = totalTensor.key(userDimension, index);
+                int i = totalTensor.key(itemDimension, index);
+                boolean isTest = false;
+                if (u < testMatrix.rowSize()) {
+                    SequentialSparseVector testRow = testMatrix.row(u);
+                    isTest = Arrays.binarySearch(testRow.getIndices(), 0, testRow.getNumEntries(), i) >= 0;
                 }
+                (isTest ? testBuilder : trainBuilder).add(totalTensor.value(index), totalTensor.keys(index));
             }
+            SparseTensor trainTensor = trainBuilder.build();
+            SparseTensor testTensor = testBuilder.build();
             trainDataSet = trainTensor;
             testDataSet = testTensor;
         }
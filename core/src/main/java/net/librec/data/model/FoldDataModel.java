@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.model;
+
+import com.google.common.collect.BiMap;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataContext;
+import net.librec.data.DataConvertor;
+import net.librec.data.DataModel;
+import net.librec.data.DataSplitter;
+import net.librec.data.splitter.KCVDataSplitter;
+import net.librec.data.splitter.LOOCVDataSplitter;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.DataSet;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A <tt>FoldDataModel</tt> is a read-only snapshot of a built data model at one of its folds.
+ * <p>
+ * Folds of one data model can be handed to several jobs at once: every snapshot keeps its own
+ * train, test and validation sets, the matrices of the splitter at that fold and the id mappings
+ * the data was loaded with, so neither later folds nor a reset of the {@code DataFrame} mappings
+ * change what a job sees.
+ */
+public class FoldDataModel extends AbstractDataModel {
+
+    private final boolean crossValidation;
+
+    private final DataSet datetimeDataSet;
+
+    private final BiMap<String, Integer> userMappingData;
+
+    private final BiMap<String, Integer> itemMappingData;
+
+    /**
+     * Snapshot the current fold of the given data model.
+     *
+     * @param dataModel a built data model, moved to the fold to snapshot by {@link DataModel#nextFold()}
+     */
+    public FoldDataModel(AbstractDataModel dataModel) {
+        this.conf = dataModel.getConf();
+        this.context = dataModel.getContext();
+        this.dataConvertor = dataModel.getDataConvertor();
+        this.dataAppender = dataModel.getDataAppender();
+        this.trainDataSet = dataModel.getTrainDataSet();
+        this.testDataSet = dataModel.getTestDataSet();
+        this.validDataSet = dataModel.getValidDataSet();
+        DataSplitter splitter = dataModel.getDataSplitter();
+        this.dataSplitter = splitter == null ? null
+                : new FoldDataSplitter(splitter.getTrainData(), splitter.getTestData(), splitter.getValidData());
+        this.crossValidation = splitter instanceof KCVDataSplitter || splitter instanceof LOOCVDataSplitter;
+        // data without a datetime column, e.g. read as UIR, has no datetime data set to snapshot
+        DataFrame data = dataConvertor == null ? null : dataConvertor.getMatrix();
+        this.datetimeDataSet = data != null && data.getHeader().contains("datetime") ? dataModel.getDatetimeDataSet() : null;
+        this.userMappingData = dataModel.getUserMappingData();
+        this.itemMappingData = dataModel.getItemMappingData();
+    }
+
+    private FoldDataModel(FoldDataModel fold, Configuration conf) {
+        this.conf = conf;
+        this.context = new DataContext(conf);
+        this.dataConvertor = fold.dataConvertor;
+        this.dataAppender = fold.dataAppender;
+        this.trainDataSet = fold.trainDataSet;
+        this.testDataSet = fold.testDataSet;
+        this.validDataSet = fold.validDataSet;
+        this.dataSplitter = fold.dataSplitter;
+        this.crossValidation = fold.crossValidation;
+        this.datetimeDataSet = fold.datetimeDataSet;
+        this.userMappingData = fold.userMappingData;
+        this.itemMappingData = fold.itemMappingData;
+    }
+
+    /**
+     * A view of the snapshot for another configuration with the same data properties, sharing its data.
+     * Similarities read their settings from the context of the data model, so every recommender
+     * needs a view with its own configuration.
+     *
+     * @param conf configuration of the recommender using the view
+     * @return the view of the snapshot
+     */
+    public FoldDataModel withConf(Configuration conf) {
+        return new FoldDataModel(this, conf);
+    }
+
+    /**
+     * Move the given data model through all of its folds and snapshot each of them.
+     *
+     * @param dataModel a built data model that has not been moved to its first fold yet
+     * @return the snapshots in fold order
+     */
+    public static List<DataModel> snapshotFolds(AbstractDataModel dataModel) {
+        List<DataModel> folds = new ArrayList<>();
+        while (dataModel.hasNextFold()) {
+            dataModel.nextFold();
+            folds.add(new FoldDataModel(dataModel));
+        }
+        return folds;
+    }
+
+    /**
+     * Whether the snapshot belongs to a cross validation, the case the jobs average their results over folds.
+     *
+     * @return true if the data model was split by a cross validation splitter
+     */
+    public boolean isCrossValidation() {
+        return crossValidation;
+    }
+
+    @Override
+    protected void buildConvert() throws LibrecException {
+    }
+
+    @Override
+    public void buildDataModel() throws LibrecException {
+    }
+
+    @Override
+    public boolean hasNextFold() {
+        return false;
+    }
+
+    @Override
+    public void nextFold() {
+    }
+
+    @Override
+    public DataSet getDatetimeDataSet() {
+        return datetimeDataSet;
+    }
+
+    @Override
+    public BiMap<String, Integer> getUserMappingData() {
+        return userMappingData;
+    }
+
+    @Override
+    public BiMap<String, Integer> getItemMappingData() {
+        return itemMappingData;
+    }
+
+    @Override
+    public DataConvertor getDataConvertor() {
+        return dataConvertor;
+    }
+
+    /**
+     * Splitter of a snapshot, returning the matrices of its fold.
+     */
+    private static class FoldDataSplitter implements DataSplitter {
+        private final SequentialAccessSparseMatrix trainMatrix;
+        private final SequentialAccessSparseMatrix testMatrix;
+        private final SequentialAccessSparseMatrix validMatrix;
+
+        FoldDataSplitter(SequentialAccessSparseMatrix trainMatrix, SequentialAccessSparseMatrix testMatrix,
+                         SequentialAccessSparseMatrix validMatrix) {
+            this.trainMatrix = trainMatrix;
+            this.testMatrix = testMatrix;
+            this.validMatrix = validMatrix;
+        }
+
+        @Override
+        public void splitData() throws LibrecException {
+        }
+
+        @Override
+        public void setDataConvertor(DataConvertor dataConvertor) {
+        }
+
+        @Override
+        public SequentialAccessSparseMatrix getTrainData() {
+            return trainMatrix;
+        }
+
+        @Override
+        public SequentialAccessSparseMatrix getTestData() {
+            return testMatrix;
+        }
+
+        @Override
+        public SequentialAccessSparseMatrix getValidData() {
+            return validMatrix;
+        }
+
+        @Override
+        public boolean nextFold() {
+            return false;
+        }
+    }
+}
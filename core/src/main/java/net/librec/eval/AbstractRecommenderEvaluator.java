@@ -18,6 +18,8 @@
 package net.librec.eval;
 
 import net.librec.conf.Configuration;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.ContextKeyValueEntry;
@@ -49,9 +51,14 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      * all similarity maps
      */
     protected Map<String, RecommenderSimilarity> similarities;
+    /**
+     * statistics of the evaluated fold, null if not available
+     */
+    protected EvalStatistics evalStatistics;
 
     /**
      * Evaluate on the recommender context with the recommended list.
+     * The evaluation statistics are computed from the data model of the context.
      *
      * @param context          the recommender context
      * @param recommendedList  the list of recommended items
@@ -59,6 +66,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      */
     public double evaluate(RecommenderContext context, RecommendedList groundTruthList, RecommendedList recommendedList) {
         conf = context.getConf();
+        evalStatistics = context.getDataModel() != null ? EvalStatistics.compute(context.getDataModel()) : null;
         String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
         if (similarityKeys != null && similarityKeys.length > 0) {
             similarityMatrix = context.getSimilarity().getSimilarityMatrix();
@@ -69,6 +77,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
 
     public double evaluate(EvalContext evalContext){
         conf = evalContext.getConf();
+        evalStatistics = evalContext.getEvalStatistics();
 
         if (evalContext.getSimilarityMatrix() != null){
             similarityMatrix = evalContext.getSimilarityMatrix();
@@ -81,7 +90,10 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
         if (evalContext.getDebugMode()){
             check(evalContext.getGroundTruthList(), evalContext.getRecommendedList());
         }
-        return evaluate(evalContext.getGroundTruthList(), evalContext.getRecommendedList());
+        Timer.Context timing = MetricRegistry.of(conf).timer("evaluate." + getClass().getSimpleName()).time();
+        double value = evaluate(evalContext.getGroundTruthList(), evalContext.getRecommendedList());
+        timing.stop();
+        return value;
     }
 
     /**
@@ -107,7 +119,26 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      * @return evaluate result
      */
     public double evaluateIndependently(Configuration conf, RecommendedList groundTruthList, RecommendedList recommendedList){
+        return evaluateIndependently(conf, null, groundTruthList, recommendedList);
+    }
+
+    /**
+     * Evaluate independently on the test set with the the list of recommended items.
+     *
+     * @param conf
+     *            the configuration fo the evaluator
+     * @param evalStatistics
+     *            the statistics of the evaluated fold, may be null
+     * @param groundTruthList
+     *            the given test set ground truth List
+     * @param recommendedList
+     *            the list of recommended items
+     * @return evaluate result
+     */
+    public double evaluateIndependently(Configuration conf, EvalStatistics evalStatistics,
+                                        RecommendedList groundTruthList, RecommendedList recommendedList){
         this.conf = conf;
+        this.evalStatistics = evalStatistics;
         this.topN = conf != null ? conf.getInt("rec.recommender.ranking.topn", -1): -1;
         RecommendedList[] lists = groundTruthList.joinTransform(recommendedList, topN);
         return evaluate(lists[0], lists[1]);
@@ -132,6 +163,33 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
         return conf;
     }
 
+    /**
+     * Return the number of items, from the evaluation statistics if available or else from rec.eval.item.num.
+     *
+     * @return the number of items
+     */
+    protected int getNumItems() {
+        return evalStatistics != null ? evalStatistics.getNumItems() : conf.getInt("rec.eval.item.num");
+    }
+
+    /**
+     * Return the number of items not rated by every user in the training data, from the evaluation statistics.
+     *
+     * @return the number of dropped items of every user, null if not available
+     */
+    protected int[] getNumDroppedItems() {
+        return evalStatistics != null ? evalStatistics.getNumDroppedItems() : null;
+    }
+
+    /**
+     * Return the number of users of every item in the training and test data, from the evaluation statistics.
+     *
+     * @return the number of users of every item, null if not available
+     */
+    protected int[] getItemPurchaseCounts() {
+        return evalStatistics != null ? evalStatistics.getItemPurchaseCounts() : null;
+    }
+
     //change from original
     protected void check(RecommendedList groundTruthList, RecommendedList recommendedList){
         Iterator recommendedEntryIter = recommendedList.iterator();
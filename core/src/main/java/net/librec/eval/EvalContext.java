@@ -2,7 +2,10 @@ package net.librec.eval;
 
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
 import net.librec.math.structure.*;
+import net.librec.recommender.AbstractRecommender;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.TensorRecommender;
 import net.librec.recommender.item.KeyValue;
@@ -24,6 +27,7 @@ public class EvalContext {
     private Map<String, RecommenderSimilarity> similarities = null;
     private Configuration conf;
     private Recommender recommender;
+    private EvalStatistics evalStatistics;
     //change from original
     private boolean debugMode = false;
 
@@ -45,12 +49,17 @@ public class EvalContext {
     public EvalContext(Configuration conf, Recommender recommender, DataSet testDataset) throws LibrecException {
         this.conf = conf;
         this.recommender = recommender;
+        if (recommender instanceof AbstractRecommender) {
+            this.evalStatistics = ((AbstractRecommender) recommender).getEvalStatistics();
+        }
         boolean isRanking = conf.getBoolean("rec.recommender.isranking");
+        Timer.Context timing = MetricRegistry.of(conf).timer(isRanking ? "recommend.rank" : "recommend.rating").time();
         if (isRanking){
             recommendedList = recommender.recommendRank();
         } else {
             recommendedList = recommender.recommendRating(testDataset);
         }
+        timing.stop();
         this.groundTruthList = getGroundTruthListFromDataSet(testDataset);
     }
 
@@ -148,6 +157,14 @@ public class EvalContext {
         return conf;
     }
 
+    public EvalStatistics getEvalStatistics() {
+        return evalStatistics;
+    }
+
+    public void setEvalStatistics(EvalStatistics evalStatistics) {
+        this.evalStatistics = evalStatistics;
+    }
+
     public void setConf(Configuration conf) {
         this.conf = conf;
     }
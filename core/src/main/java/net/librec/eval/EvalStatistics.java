@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.data.DataModel;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+/**
+ * Statistics of the training and test data of a fold needed by some evaluators, computed once by the
+ * recommender and handed to the evaluators through the {@link EvalContext}.
+ */
+public class EvalStatistics {
+    /**
+     * entry[u]: number of items not rated by user u in the training data, for AUCEvaluator
+     */
+    private final int[] numDroppedItems;
+
+    /**
+     * maximum number of test items of a user, for the ideal DCG
+     */
+    private final int maxNumTestItems;
+
+    /**
+     * number of items, for EntropyEvaluator and CoverageEvaluator
+     */
+    private final int numItems;
+
+    /**
+     * entry[i]: number of users of item i in the training and test data, for NoveltyEvaluator
+     */
+    private final int[] itemPurchaseCounts;
+
+    /**
+     * @param numDroppedItems    number of items not rated by every user in the training data
+     * @param maxNumTestItems    maximum number of test items of a user
+     * @param numItems           number of items
+     * @param itemPurchaseCounts number of users of every item in the training and test data
+     */
+    public EvalStatistics(int[] numDroppedItems, int maxNumTestItems, int numItems, int[] itemPurchaseCounts) {
+        this.numDroppedItems = numDroppedItems;
+        this.maxNumTestItems = maxNumTestItems;
+        this.numItems = numItems;
+        this.itemPurchaseCounts = itemPurchaseCounts;
+    }
+
+    /**
+     * Compute the statistics of a fold given as user-item matrices.
+     *
+     * @param trainMatrix training matrix
+     * @param testMatrix  test matrix
+     * @return the statistics of the fold
+     */
+    public static EvalStatistics compute(SequentialAccessSparseMatrix trainMatrix, SequentialAccessSparseMatrix testMatrix) {
+        int numUsers = trainMatrix.rowSize();
+        int numItems = trainMatrix.columnSize();
+
+        int[] numDroppedItems = new int[numUsers];
+        int maxNumTestItems = 0;
+        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
+            numDroppedItems[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
+            maxNumTestItems = Math.max(maxNumTestItems, testMatrix.row(userIdx).getNumEntries());
+        }
+
+        int[] itemPurchaseCounts = new int[numItems];
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            itemPurchaseCounts[matrixEntry.column()]++;
+        }
+        for (MatrixEntry matrixEntry : testMatrix) {
+            itemPurchaseCounts[matrixEntry.column()]++;
+        }
+
+        return new EvalStatistics(numDroppedItems, maxNumTestItems, testMatrix.columnSize(), itemPurchaseCounts);
+    }
+
+    /**
+     * Compute the statistics of the current fold of a data model.
+     *
+     * @param dataModel data model
+     * @return the statistics of the fold, or null if its data sets are not user-item matrices
+     */
+    public static EvalStatistics compute(DataModel dataModel) {
+        if (dataModel.getTrainDataSet() instanceof SequentialAccessSparseMatrix
+                && dataModel.getTestDataSet() instanceof SequentialAccessSparseMatrix) {
+            return compute((SequentialAccessSparseMatrix) dataModel.getTrainDataSet(),
+                    (SequentialAccessSparseMatrix) dataModel.getTestDataSet());
+        }
+        return null;
+    }
+
+    /**
+     * @return entry[u]: number of items not rated by user u in the training data
+     */
+    public int[] getNumDroppedItems() {
+        return numDroppedItems;
+    }
+
+    /**
+     * @return maximum number of test items of a user
+     */
+    public int getMaxNumTestItems() {
+        return maxNumTestItems;
+    }
+
+    /**
+     * @return number of items
+     */
+    public int getNumItems() {
+        return numItems;
+    }
+
+    /**
+     * @return entry[i]: number of users of item i in the training and test data
+     */
+    public int[] getItemPurchaseCounts() {
+        return itemPurchaseCounts;
+    }
+}
@@ -7,7 +7,6 @@ import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.SparseTensor;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.Recommender;
-import net.librec.recommender.TensorRecommender;
 import net.librec.recommender.hybrid.AbstractHybridRecommender;
 import net.librec.recommender.item.RecommendedList;
 import net.librec.similarity.RecommenderSimilarity;
@@ -48,7 +47,8 @@ public class HybridEvalContext extends EvalContext {
         if (this.getRecommender() instanceof AbstractHybridRecommender) {
             hybridRecommender = (AbstractHybridRecommender) this.getRecommender();
             if (hybridRecommender.getHybridConf().getBoolean("data.model.sync", false)) {
-                if (hybridRecommender.getRecommenders().get(0) instanceof TensorRecommender) {
+                // members may be cached predictions, so the type of the data decides
+                if (dataset instanceof SparseTensor) {
                     return getGroundTruthListFromSparseTensor((SparseTensor) dataset);
                 } else {
                     return getGroundTruthListFromSparseMatrix((SequentialAccessSparseMatrix) dataset);
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * CoverageEvaluator
+ *
+ * Catalog coverage: the fraction of all items that appear in at least one
+ * recommendation list at the given cutoff position.
+ *
+ * Look at Section '4.2.3 Item space coverage' of article:
+ *
+ * Javari, Amin, and Mahdi Jalili. "A probabilistic model to resolve diversity–accuracy challenge of recommendation systems." Knowledge and Information Systems 44.3 (2015): 609-627.
+ *
+ * The number of items is taken from the evaluation statistics, as in the EntropyEvaluator.
+ */
+public class CoverageEvaluator extends AbstractRecommenderEvaluator {
+
+    /**
+     * Evaluate on the test set with the list of recommended items.
+     *
+     * @param groundTruthList
+     *            the given test set
+     * @param recommendedList
+     *            the list of recommended items
+     * @return evaluate result
+     */
+    @Override
+    public double evaluate(RecommendedList groundTruthList, RecommendedList recommendedList) {
+
+        int numUsers = groundTruthList.size();
+        int numItems = getNumItems();
+        if (numItems <= 0) {
+            return 0.0d;
+        }
+
+        // concurrent writers only ever store true, so no synchronization is needed
+        boolean[] recommended = new boolean[numItems];
+        IntStream.range(0, numUsers).parallel().forEach(contextIdx -> {
+            List<KeyValue<Integer, Double>> recoList = recommendedList.getKeyValueListByContext(contextIdx);
+            int topK = this.topN <= recoList.size() ? this.topN : recoList.size();
+            for (int recoIdx = 0; recoIdx < topK; recoIdx++) {
+                recommended[recoList.get(recoIdx).getKey()] = true;
+            }
+        });
+
+        int numCoveredItems = 0;
+        for (boolean covered : recommended) {
+            if (covered) {
+                numCoveredItems++;
+            }
+        }
+        return ((double) numCoveredItems) / numItems;
+    }
+}
@@ -18,16 +18,23 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
-import net.librec.math.structure.SymmMatrix;
+import net.librec.math.structure.CompactSymmMatrix;
 import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedList;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * DiversityEvaluator, average dissimilarity of all pairs of items in the
  * recommended list at a specific cutoff position. Reference: Avoiding monotony:
  * improving the diversity of recommendation lists, ReSys, 2008
+ * <p>
+ * The pairwise similarities are read from the primitive
+ * {@link CompactSymmMatrix} of the item similarity and the contexts are
+ * evaluated in parallel. For every list position only the similarities to
+ * earlier positions are added, so each unordered pair is visited once.
  *
  * @author Keqiang Wang
  */
@@ -43,35 +50,91 @@ public class DiversityEvaluator extends AbstractRecommenderEvaluator {
      * @return evaluate result
      */
     public double evaluate(RecommendedList groundTruthList, RecommendedList recommendedList) {
+        if (similarities == null || !similarities.containsKey("item")) {
+            return 0.0d;
+        }
 
-        double totalDiversity = 0.0;
+        CompactSymmMatrix itemSimilarity = similarities.get("item").getCompactSimilarityMatrix();
         int numContext = groundTruthList.size();
-        int nonZeroContext = 0;
+        int numItems = itemSimilarity.getDim();
+
+        // position of an item in the list currently evaluated by this thread, -1 if absent
+        ThreadLocal<int[]> itemPositions = ThreadLocal.withInitial(() -> {
+            int[] positions = new int[numItems];
+            Arrays.fill(positions, -1);
+            return positions;
+        });
 
-        if (similarities.containsKey("item")) {
-            SymmMatrix itemSimilarity = similarities.get("item").getSimilarityMatrix();
-            for (int contextIdx = 0; contextIdx < numContext; ++contextIdx) {
-                List<KeyValue<Integer, Double>> recommendArrayListByContext= recommendedList.getKeyValueListByContext(contextIdx);
-                if (recommendArrayListByContext.size() > 1) {
-                    // calculate the sum of dissimilarities for each pair of items per user
-                    double totalDisSimilarityPerContext = 0.0;
-                    int topK = this.topN <= recommendArrayListByContext.size() ? this.topN : recommendArrayListByContext.size();
-                    for (int indexOut = 0; indexOut < topK; ++indexOut) {
-                        for (int indexIn = 0; indexIn < topK; ++indexIn) {
-                            if (indexOut == indexIn) {
-                                continue;
-                            }
-                            int keyOut = recommendArrayListByContext.get(indexOut).getKey();
-                            int keyIn = recommendArrayListByContext.get(indexIn).getKey();
-                            totalDisSimilarityPerContext += 1.0 - itemSimilarity.get(keyOut, keyIn);
-                        }
-                    }
-                    totalDiversity += totalDisSimilarityPerContext / (topK * (topK - 1));
-                    nonZeroContext++;
+        double[] diversityByContext = new double[numContext];
+        boolean[] nonZeroByContext = new boolean[numContext];
+        IntStream.range(0, numContext).parallel().forEach(contextIdx -> {
+            List<KeyValue<Integer, Double>> recommendArrayListByContext = recommendedList.getKeyValueListByContext(contextIdx);
+            int topK = this.topN <= recommendArrayListByContext.size() ? this.topN : recommendArrayListByContext.size();
+            if (topK > 1) {
+                int[] positions = itemPositions.get();
+                int[] keys = new int[topK];
+                double totalSimilarityPerContext = 0.0;
+                for (int position = 0; position < topK; ++position) {
+                    int key = recommendArrayListByContext.get(position).getKey();
+                    keys[position] = key;
+                    totalSimilarityPerContext += similarityToPrefix(itemSimilarity, positions, keys, key, position);
+                    positions[key] = position;
+                }
+                for (int key : keys) {
+                    positions[key] = -1;
                 }
+
+                // every unordered pair contributes twice to the sum over ordered pairs
+                double numOrderedPairs = (double) topK * (topK - 1);
+                diversityByContext[contextIdx] = (numOrderedPairs - 2.0 * totalSimilarityPerContext) / numOrderedPairs;
+                nonZeroByContext[contextIdx] = true;
+            }
+        });
+
+        double totalDiversity = 0.0;
+        int nonZeroContext = 0;
+        for (int contextIdx = 0; contextIdx < numContext; ++contextIdx) {
+            if (nonZeroByContext[contextIdx]) {
+                totalDiversity += diversityByContext[contextIdx];
+                nonZeroContext++;
             }
         }
 
         return nonZeroContext > 0 ? totalDiversity / nonZeroContext : 0.0d;
     }
+
+    /**
+     * Sum of the similarities between the item at the given position and all
+     * items before it. Either the similarity row of the item is scanned against
+     * the position map, or the earlier items are looked up by binary search,
+     * whichever touches fewer entries.
+     *
+     * @param itemSimilarity item similarity matrix
+     * @param positions      position of each item of the prefix, -1 otherwise
+     * @param keys           items of the prefix
+     * @param key            current item
+     * @param position       position of the current item
+     * @return sum of similarities to the prefix
+     */
+    private double similarityToPrefix(CompactSymmMatrix itemSimilarity, int[] positions, int[] keys, int key, int position) {
+        int rowStart = itemSimilarity.rowStart(key);
+        int rowEnd = itemSimilarity.rowEnd(key);
+        int rowLength = rowEnd - rowStart;
+        double sum = 0.0;
+        if (rowLength <= position * (32 - Integer.numberOfLeadingZeros(rowLength))) {
+            for (int entry = rowStart; entry < rowEnd; ++entry) {
+                int otherPosition = positions[itemSimilarity.columnAt(entry)];
+                if (otherPosition >= 0 && otherPosition < position) {
+                    sum += itemSimilarity.valueAt(entry);
+                }
+            }
+        } else {
+            for (int otherPosition = 0; otherPosition < position; ++otherPosition) {
+                if (keys[otherPosition] != key) {
+                    sum += itemSimilarity.get(key, keys[otherPosition]);
+                }
+            }
+        }
+        return sum;
+    }
 }
@@ -60,7 +60,7 @@ public class EntropyEvaluator extends AbstractRecommenderEvaluator {
     public double evaluate(RecommendedList groundTruthList, RecommendedList recommendedList) {
 
         int numUsers = groundTruthList.size();
-        int numItems = conf.getInt("rec.eval.item.num");
+        int numItems = getNumItems();
 
         // First collect item counts needed for estimating probabilities of the items
         // We want to calculate the probability of each item to be in the recommendation list.
@@ -17,11 +17,13 @@
  */
 package net.librec.eval.ranking;
 
+import net.librec.common.LibrecRuntimeException;
 import net.librec.eval.AbstractRecommenderEvaluator;
 import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * NoveltyEvaluator
@@ -64,24 +66,43 @@ public class NoveltyEvaluator extends AbstractRecommenderEvaluator {
         int numUsers = groundTruthList.size();
 
         // First collect item counts needed for estimating probabilities of the items
-        int[] itemCounts = conf.getInts("rec.eval.item.purchase.num");
+        int[] itemCounts = getItemPurchaseCounts();
+        if (itemCounts == null) {
+            throw new LibrecRuntimeException("Novelty needs the evaluation statistics of the recommender.");
+        }
+        double[] selfInformation = getSelfInformation(itemCounts, numUsers);
 
-        double sumInformation = 0;
-        for (int contextIdx = 0; contextIdx < numUsers; contextIdx++) {
+        double sumInformation = IntStream.range(0, numUsers).parallel().mapToDouble(contextIdx -> {
             List<KeyValue<Integer, Double>> recoList = recommendedList.getKeyValueListByContext(contextIdx);
             int topK = this.topN <= recoList.size() ? this.topN : recoList.size();
+            double contextInformation = 0;
             for (int recoIdx = 0; recoIdx < topK; recoIdx++) {
-                int itemIdx = recoList.get(recoIdx).getKey();
-                int count = itemCounts[itemIdx];
-                if (count>0) {
-                    double estmProbability = ((double)count)/numUsers;
-                    double selfInformation = -Math.log(estmProbability);
-                    sumInformation += selfInformation;
-                }
+                contextInformation += selfInformation[recoList.get(recoIdx).getKey()];
             }
-        }
+            return contextInformation;
+        }).sum();
         return sumInformation/(numUsers * Math.log(2));
     }
 
+    /**
+     * Self-information of every item, computed once per evaluation instead of
+     * once per recommended entry. Items never purchased carry no information.
+     *
+     * @param itemCounts number of purchases of each item
+     * @param numUsers   number of users
+     * @return self-information of each item in nats
+     */
+    protected static double[] getSelfInformation(int[] itemCounts, int numUsers) {
+        double[] selfInformation = new double[itemCounts.length];
+        double logNumUsers = Math.log(numUsers);
+        for (int itemIdx = 0; itemIdx < itemCounts.length; itemIdx++) {
+            int count = itemCounts[itemIdx];
+            if (count > 0) {
+                selfInformation[itemIdx] = logNumUsers - Math.log(count);
+            }
+        }
+        return selfInformation;
+    }
+
 
 }
\ No newline at end of file
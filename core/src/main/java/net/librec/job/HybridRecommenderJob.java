@@ -4,19 +4,20 @@ import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.conf.HybridConfiguration;
 import net.librec.data.DataModel;
-import net.librec.data.DataSplitter;
-import net.librec.data.splitter.KCVDataSplitter;
-import net.librec.data.splitter.LOOCVDataSplitter;
 import net.librec.eval.EvalContext;
 import net.librec.eval.HybridEvalContext;
 import net.librec.eval.Measure;
 import net.librec.eval.RecommenderEvaluator;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
+import net.librec.job.progress.JobCancelledException;
 import net.librec.math.algorithm.Randoms;
 import net.librec.recommender.AbstractRecommender;
 import net.librec.recommender.HybridContext;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.hybrid.AbstractHybridRecommender;
+import net.librec.recommender.hybrid.MemberModelCache;
 import net.librec.recommender.hybrid.WeightedHybridRecommender;
 import net.librec.recommender.item.RecommendedItem;
 import net.librec.similarity.RecommenderSimilarity;
@@ -36,6 +37,12 @@ public class HybridRecommenderJob extends RecommenderJob {
     private ArrayList<DataModel> dataModels;
     private ArrayList<RecommenderContext> contexts;
     private AbstractHybridRecommender hybridRecommender;
+    private List<List<DataModel>> memberFolds;
+    private TrainedMemberCache memberCache;
+    private List<List<String>> memberKeys;
+    private MemberModelCache modelCache;
+    private String[] similarityDigests;
+    private MetricRegistry metrics = MetricRegistry.DISABLED;
 
     public HybridRecommenderJob(HybridConfiguration hybridConfiguration) throws LibrecException, IOException, ClassNotFoundException {
         super(new Configuration());
@@ -44,6 +51,43 @@ public class HybridRecommenderJob extends RecommenderJob {
         initalizeComponents();
     }
 
+    /**
+     * Creates a synchronized hybrid job on folds of already built data models, e.g. shared with other jobs of a sweep.
+     * If a member cache is given, each member is trained once per fold for all jobs training it on the same data,
+     * the members being keyed as in the {@link MemberModelCache} so the member cache sits in front of it.
+     *
+     * @param hybridConfiguration hybrid configuration with 'data.model.sync' set
+     * @param memberFolds         the folds of the data model of each member, in fold order
+     * @param memberCache         cache of the trained members, or null to train the members of this job only
+     * @throws LibrecException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public HybridRecommenderJob(HybridConfiguration hybridConfiguration, List<List<DataModel>> memberFolds,
+                                TrainedMemberCache memberCache) throws LibrecException, IOException, ClassNotFoundException {
+        super(new Configuration());
+        hybridConfig = hybridConfiguration;
+        assert (hybridConfig.getConfigs().size() > 1 && hybridConfig.getBoolean("data.model.sync"));
+        this.memberFolds = memberFolds;
+        this.memberCache = memberCache;
+        dataModels = new ArrayList<>();
+        for (List<DataModel> folds : memberFolds) {
+            dataModels.add(folds.get(0));
+        }
+        initalizeComponents();
+        if (memberCache != null) {
+            memberKeys = new ArrayList<>();
+            for (int fold = 0; fold < memberFolds.get(0).size(); fold++) {
+                List<String> keys = new ArrayList<>(memberFolds.size());
+                for (int i = 0; i < memberFolds.size(); i++) {
+                    String similarityDigest = similarityDigest(i, memberFolds.get(i).get(similarityFold(fold)));
+                    keys.add(memberKey(i, memberFolds.get(i).get(fold), similarityDigest));
+                }
+                memberKeys.add(keys);
+            }
+        }
+    }
+
     /**
      * initializes all components necessary for the execution of the hybrid job
      *
@@ -57,9 +101,23 @@ public class HybridRecommenderJob extends RecommenderJob {
             Randoms.seed(seed);
         }
         //setJobId(JobUtil.generateNewJobId());
-        initHybridRecommender();
-        initializeDataModels();
-        initHybridContext();
+        metrics = MetricRegistry.open(hybridConfig, hybridConfig.get("rec.hybrid.class"));
+        for (Configuration conf : hybridConfig.getConfigs()) {
+            metrics.attach(conf);
+        }
+        try {
+            if (hybridConfig.getBoolean("data.model.sync")) {
+                modelCache = MemberModelCache.fromConfiguration(hybridConfig);
+            }
+            initHybridRecommender();
+            Timer.Context timing = metrics.timer("job.data").time();
+            initializeDataModels();
+            timing.stop();
+            initHybridContext();
+        } catch (Exception e) {
+            metrics.close();
+            throw e;
+        }
     }
 
     /**
@@ -79,15 +137,239 @@ public class HybridRecommenderJob extends RecommenderJob {
      * @throws ClassNotFoundException
      */
     public void runJob() throws LibrecException, IOException, ClassNotFoundException {
+        int runState = JobStatus.FAILED;
+        hybridContext.setProgressReporter(getProgressReporter());
+        startProgress();
+        try {
+            executeHybridJob();
+            runState = JobStatus.SUCCEEDED;
+        } catch (JobCancelledException e) {
+            runState = JobStatus.KILLED;
+            throw e;
+        } finally {
+            finishProgress(runState);
+            metrics.close();
+        }
+    }
+
+    private void executeHybridJob() throws LibrecException, IOException, ClassNotFoundException {
         assert (sameFolds());
         cvEvalResults = new HashMap<>();
+        if (memberFolds != null) {
+            runPreparedFolds();
+            return;
+        }
+        int numFolds = getNumFolds(dataModels.get(0), hybridConfig.getConfigs().get(0));
+        int fold = 0;
         while (haveNextFolds()) {
+            enterFold(fold++, numFolds);
+            metrics.counter("job.folds").inc();
             nextDataModel();
             nextSimilarities();
             trainHybridRecommender();
             evaluateHybrid(hybridRecommender);
         }
         printCVAverageResult();
+        recommendAndSave();
+    }
+
+    /**
+     * Executes the job on the prepared folds, taking the trained members from the member cache if there is one.
+     * Members shared with other jobs are locked while this job predicts with them.
+     *
+     * @throws LibrecException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void runPreparedFolds() throws LibrecException, IOException, ClassNotFoundException {
+        int numFolds = memberFolds.get(0).size();
+        List<String> foldKeys = Collections.emptyList();
+        for (int fold = 0; fold < numFolds; fold++) {
+            for (int i = 0; i < dataModels.size(); i++) {
+                dataModels.set(i, memberFolds.get(i).get(fold));
+            }
+            hybridContext.setDataModelList(dataModels);
+            enterFold(fold, numFolds);
+            metrics.counter("job.folds").inc();
+            if (memberCache == null) {
+                nextSimilarities();
+                trainHybridRecommender();
+                evaluateHybrid(hybridRecommender);
+                continue;
+            }
+            foldKeys = getCachedMemberKeys(fold);
+            trainCachedMembers(fold);
+            memberCache.lock(foldKeys);
+            try {
+                evaluateHybrid(hybridRecommender);
+            } finally {
+                memberCache.unlock(foldKeys);
+            }
+            if (fold < numFolds - 1) {
+                memberCache.release(foldKeys);
+            }
+        }
+        printCVAverageResult();
+        if (memberCache == null) {
+            recommendAndSave();
+            return;
+        }
+        memberCache.lock(foldKeys);
+        try {
+            recommendAndSave();
+        } finally {
+            memberCache.unlock(foldKeys);
+            memberCache.release(foldKeys);
+        }
+    }
+
+    /**
+     * sets the trained members of the given fold, training those no other job has trained yet,
+     * members whose data can not be digested are trained for this job only
+     *
+     * @param fold index of the fold
+     * @throws LibrecException
+     */
+    private void trainCachedMembers(int fold) throws LibrecException {
+        enterPhase("train");
+        Timer.Context timing = metrics.timer("job.train").time();
+        List<String> keys = memberKeys.get(fold);
+        ArrayList<AbstractRecommender> members = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            final int memberIndex = i;
+            String key = keys.get(i);
+            members.add(key == null ? trainMember(memberIndex, fold, null)
+                    : memberCache.get(key, () -> trainMember(memberIndex, fold, key)));
+        }
+        hybridRecommender.setRecommenders(members);
+        timing.stop();
+    }
+
+    /**
+     * trains a new instance of a member on the given fold
+     *
+     * @param memberIndex index of the member
+     * @param fold        index of the fold to train on
+     * @param key         key of the member at the fold, or null
+     * @return the trained member
+     * @throws LibrecException
+     */
+    private AbstractRecommender trainMember(int memberIndex, int fold, String key) throws LibrecException {
+        Configuration conf = hybridConfig.getConfigs().get(memberIndex);
+        RecommenderContext similarityContext = new RecommenderContext(conf);
+        enterPhase("similarity");
+        generateSimilarity(similarityContext, conf, memberFolds.get(memberIndex).get(similarityFold(fold)));
+        RecommenderContext context = new RecommenderContext(conf, memberFolds.get(memberIndex).get(fold), similarityContext.getSimilarity());
+        context.setProgressReporter(getProgressReporter());
+        enterPhase("train");
+        return trainMember(context, memberIndex, key);
+    }
+
+    /**
+     * trains a new instance of a member with the given context,
+     * or loads its predictions from the member model cache if the same member was trained on the same data before
+     *
+     * @param context     context to train the member with
+     * @param memberIndex index of the member
+     * @param key         key of the member within the member model cache, or null to train it without the cache
+     * @return the trained member
+     * @throws LibrecException
+     */
+    @SuppressWarnings("unchecked")
+    private AbstractRecommender trainMember(RecommenderContext context, int memberIndex, String key) throws LibrecException {
+        Configuration conf = hybridConfig.getConfigs().get(memberIndex);
+        AbstractRecommender member;
+        try {
+            member = ReflectionUtil.newInstance((Class<AbstractRecommender>) getRecommenderClass(conf));
+        } catch (ClassNotFoundException | IOException e) {
+            throw new LibrecException(e);
+        }
+        if (key == null || modelCache == null) {
+            member.train(context);
+            return member;
+        }
+        AbstractRecommender cachedMember = modelCache.load(key, context);
+        if (cachedMember != null) {
+            metrics.counter("hybrid.member.cache.hit").inc();
+            metrics.counter("hybrid.member." + memberIndex + ".cache.hit").inc();
+            return cachedMember;
+        }
+        metrics.counter("hybrid.member.cache.miss").inc();
+        metrics.counter("hybrid.member." + memberIndex + ".cache.miss").inc();
+        member.train(context);
+        return modelCache.store(key, member, context, hybridConfig.getBoolean("rec.recommender.isranking"));
+    }
+
+    /**
+     * similarities are built on the first fold only if 'rec.calcSimilarities.once' is set
+     *
+     * @param fold index of the fold
+     * @return index of the fold the similarities of the given fold are built on
+     */
+    private int similarityFold(int fold) {
+        return hybridConfig.getBoolean("rec.calcSimilarities.once", false) ? 0 : fold;
+    }
+
+    /**
+     * key of a member within both the member cache of a sweep and the member model cache
+     *
+     * @param memberIndex      index of the member
+     * @param dataModel        data model at the fold of the member
+     * @param similarityDigest digest of the data the similarities of the member are built on, or null
+     * @return the key, or null if the data of the member can not be digested
+     */
+    private String memberKey(int memberIndex, DataModel dataModel, String similarityDigest) {
+        return MemberModelCache.key(hybridConfig.getConfigs().get(memberIndex), dataModel, similarityDigest,
+                hybridConfig.getBoolean("rec.recommender.isranking"));
+    }
+
+    /**
+     * @param memberIndex         index of the member
+     * @param similarityDataModel data model at the fold the similarities of the member are built on
+     * @return digest of the train data of the similarities, or null if the member builds no similarities
+     */
+    private String similarityDigest(int memberIndex, DataModel similarityDataModel) {
+        Configuration conf = hybridConfig.getConfigs().get(memberIndex);
+        String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
+        if (similarityKeys == null || similarityKeys.length == 0 || getSimilarityClass(conf) == null) {
+            return null;
+        }
+        return MemberModelCache.digest(similarityDataModel.getDataSplitter().getTrainData());
+    }
+
+    /**
+     * @param fold index of the fold
+     * @return the cache key of each member trained at the given fold, leaving out the members trained for this job only
+     */
+    private List<String> getCachedMemberKeys(int fold) {
+        List<String> keys = new ArrayList<>(memberKeys.get(fold));
+        keys.removeIf(Objects::isNull);
+        return keys;
+    }
+
+    /**
+     * @return the cache keys of all members this job trains or takes from the member cache, one per use
+     */
+    public List<String> getCachedMemberKeys() {
+        List<String> keys = new ArrayList<>();
+        if (memberCache != null) {
+            for (int fold = 0; fold < memberFolds.get(0).size(); fold++) {
+                keys.addAll(getCachedMemberKeys(fold));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * recommends with the hybrid recommender trained on the last fold and saves the recommendations
+     *
+     * @throws LibrecException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void recommendAndSave() throws LibrecException, IOException, ClassNotFoundException {
+        enterPhase("recommend");
+        Timer.Context timing = metrics.timer("job.recommend").time();
         boolean isRanking = hybridConfig.getBoolean("rec.recommender.isranking");
         List<RecommendedItem> recommendedList = null;
         if (isRanking) {
@@ -96,10 +378,16 @@ public class HybridRecommenderJob extends RecommenderJob {
             recommendedList = hybridRecommender.getRecommendedList(hybridRecommender.recommendRating(hybridRecommender.getCommonTestDataSet()));
         }
         recommendedList = filterResult(recommendedList);
+        timing.stop();
+        enterPhase("save");
+        timing = metrics.timer("job.save").time();
         saveResult(recommendedList);
+        timing.stop();
     }
 
     private void evaluateHybrid(AbstractHybridRecommender hybridRecommender) throws LibrecException {
+        enterPhase("evaluate");
+        Timer.Context timing = metrics.timer("job.evaluate").time();
         EvalContext evalContext = new HybridEvalContext(hybridConfig, hybridRecommender, hybridRecommender.getCommonTestDataSet());
         evaluatedMap = new HashMap<>();
         boolean isRanking = hybridConfig.getBoolean("rec.recommender.isranking");
@@ -122,6 +410,7 @@ public class HybridRecommenderJob extends RecommenderJob {
                 evaluatedMap.put(measureValue, evaluatedValue);
             }
         }
+        timing.stop();
         if (evaluatedMap.size() > 0) {
             for (Map.Entry<Measure.MeasureValue, Double> entry : evaluatedMap.entrySet()) {
                 String evalName = null;
@@ -142,21 +431,17 @@ public class HybridRecommenderJob extends RecommenderJob {
     }
 
     private void collectCVResults(String _evalName, double _value) {
-        DataSplitter splitter = dataModels.get(0).getDataSplitter();
-        if (splitter != null && (splitter instanceof KCVDataSplitter || splitter instanceof LOOCVDataSplitter)) {
-            if (cvEvalResults.containsKey(_evalName)) {
-                cvEvalResults.get(_evalName).add(_value);
-            } else {
-                List<Double> newList = new ArrayList<>();
-                newList.add(_value);
-                cvEvalResults.put(_evalName, newList);
-            }
+        if (cvEvalResults.containsKey(_evalName)) {
+            cvEvalResults.get(_evalName).add(_value);
+        } else {
+            List<Double> newList = new ArrayList<>();
+            newList.add(_value);
+            cvEvalResults.put(_evalName, newList);
         }
     }
 
     private void printCVAverageResult() {
-        DataSplitter splitter = dataModels.get(0).getDataSplitter();
-        if (splitter != null && (splitter instanceof KCVDataSplitter || splitter instanceof LOOCVDataSplitter)) {
+        if (isCrossValidation(dataModels.get(0))) {
             LOG.info("Average Evaluation Result of Cross Validation:");
             for (Map.Entry<String, List<Double>> entry : cvEvalResults.entrySet()) {
                 String evalName = entry.getKey();
@@ -177,7 +462,20 @@ public class HybridRecommenderJob extends RecommenderJob {
      * @throws LibrecException
      */
     private void trainHybridRecommender() throws LibrecException {
-        hybridRecommender.trainModel();
+        enterPhase("train");
+        Timer.Context timing = metrics.timer("job.train").time();
+        if (modelCache == null) {
+            hybridRecommender.trainModel();
+        } else {
+            ArrayList<AbstractRecommender> members = new ArrayList<>(dataModels.size());
+            for (int i = 0; i < dataModels.size(); i++) {
+                String similarityDigest = similarityDigests == null ? null : similarityDigests[i];
+                RecommenderContext context = hybridContext.getContextFor(i);
+                members.add(trainMember(context, i, memberKey(i, context.getDataModel(), similarityDigest)));
+            }
+            hybridRecommender.setRecommenders(members);
+        }
+        timing.stop();
     }
 
     /**
@@ -330,14 +628,21 @@ public class HybridRecommenderJob extends RecommenderJob {
         //this is the case if "rec.calcSimilarities.once" is set to 'false'
         if (hybridContext.getSimilarityList().size() == 0 || !hybridConfig.getBoolean("rec.calcSimilarities.once", false)) {
             System.out.println("HybridRecommenderJob.nextSimilarities");
+            enterPhase("similarity");
+            Timer.Context timing = metrics.timer("job.similarity").time();
             contexts = hybridContext.getContexts();
             ArrayList<RecommenderSimilarity> similarities = new ArrayList<>();
+            similarityDigests = new String[contexts.size()];
             for (int i = 0; i < contexts.size(); i++) {
                 contexts.get(i).setDataModel(dataModels.get(i));
-                generateSimilarity(contexts.get(i));
+                generateSimilarity(contexts.get(i), hybridConfig.getConfigs().get(i), dataModels.get(i));
                 similarities.add(contexts.get(i).getSimilarity());
+                if (modelCache != null) {
+                    similarityDigests[i] = similarityDigest(i, dataModels.get(i));
+                }
             }
             hybridContext.setSimilarityList(similarities);
+            timing.stop();
         }
     }
 
@@ -356,21 +661,21 @@ public class HybridRecommenderJob extends RecommenderJob {
     }
 
     /**
-     * Generates the similarity matrices for the given data model for each recommender
+     * Generates the similarity matrices of a recommender for the given data model
      *
-     * @param context
+     * @param context   context of the recommender
+     * @param conf      configuration of the recommender
+     * @param dataModel data model to build the similarities on
      */
-    private void generateSimilarity(RecommenderContext context) {
+    private void generateSimilarity(RecommenderContext context, Configuration conf, DataModel dataModel) {
         context.resetSimilarities();
-        int index = contexts.indexOf(context);
-        Configuration conf = hybridConfig.getConfigs().get(index);
         String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
         if (similarityKeys != null && similarityKeys.length > 0) {
             for (int i = 0; i < similarityKeys.length; i++) {
                 if (getSimilarityClass(conf) != null) {
                     RecommenderSimilarity similarity = ReflectionUtil.newInstance(getSimilarityClass(conf), conf);
                     conf.set("rec.recommender.similarity.key", similarityKeys[i]);
-                    similarity.buildSimilarityMatrix(dataModels.get(index));
+                    similarity.buildSimilarityMatrix(dataModel);
                     if (i == 0) {
                         context.setSimilarity(similarity);
                     }
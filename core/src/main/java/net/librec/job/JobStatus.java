@@ -26,15 +26,22 @@ public class JobStatus {
     public static final int SUCCEEDED = 2;
     public static final int FAILED = 3;
     public static final int PREP = 4;
+    public static final int KILLED = 5;
 
     private static final String UNKNOWN = "UNKNOWN";
-    private static final String[] RUNSTATES = {UNKNOWN, "RUNNING", "SUCCEEDED", "FAILED", "PREP"};
+    private static final String[] RUNSTATES = {UNKNOWN, "RUNNING", "SUCCEEDED", "FAILED", "PREP", "KILLED"};
 
-    private String jobId;
-    private String jobStage;
-    private float progress;
-    private long startTime;
-    private long finishTime;
+    private volatile String jobId;
+    private volatile String jobStage;
+    private volatile float progress;
+    private volatile long startTime;
+    private volatile long finishTime;
+    private volatile int runState = PREP;
+    private volatile int fold;
+    private volatile int numFolds;
+    private volatile int iteration;
+    private volatile int maxIterations;
+    private volatile double loss = Double.NaN;
 
     /**
      * Helper method to get human-readable state of the job.
@@ -118,4 +125,117 @@ public class JobStatus {
     public void setFinishTime(long finishTime) {
         this.finishTime = finishTime;
     }
+
+    /**
+     * @return the runState, one of RUNNING, SUCCEEDED, FAILED and PREP
+     */
+    public int getRunState() {
+        return runState;
+    }
+
+    /**
+     * @param runState the runState to set
+     */
+    public void setRunState(int runState) {
+        this.runState = runState;
+    }
+
+    /**
+     * @return the current fold, counted from 1, or 0 before the first fold
+     */
+    public int getFold() {
+        return fold;
+    }
+
+    /**
+     * Start training on the given fold, resetting the iteration and loss of the previous one.
+     *
+     * @param fold     the fold to set, counted from 1
+     * @param numFolds the number of folds of the job
+     */
+    public void setFold(int fold, int numFolds) {
+        this.fold = fold;
+        this.numFolds = numFolds;
+        this.iteration = 0;
+        this.loss = Double.NaN;
+    }
+
+    /**
+     * @return the number of folds of the job
+     */
+    public int getNumFolds() {
+        return numFolds;
+    }
+
+    /**
+     * @return the current training iteration
+     */
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * @param iteration the iteration to set
+     */
+    public void setIteration(int iteration) {
+        this.iteration = iteration;
+    }
+
+    /**
+     * @return the maximum number of training iterations, or 0 if unknown
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @param maxIterations the maxIterations to set
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return the training loss of the current iteration, or NaN if none is known
+     */
+    public double getLoss() {
+        return loss;
+    }
+
+    /**
+     * @param loss the loss to set
+     */
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * Set the progress of the whole job from the training progress within the current fold.
+     *
+     * @param foldProgress the fraction of the current fold trained, between 0 and 1
+     */
+    public void setTrainingProgress(double foldProgress) {
+        int folds = Math.max(numFolds, 1);
+        int doneFolds = Math.min(Math.max(fold - 1, 0), folds - 1);
+        foldProgress = Math.min(Math.max(foldProgress, 0.0), 1.0);
+        this.progress = (float) ((doneFolds + foldProgress) / folds);
+    }
+
+    /**
+     * Estimate the remaining time of the job from its elapsed time and progress.
+     *
+     * @param now the current time in milliseconds
+     * @return the estimated remaining time in milliseconds, or -1 if it cannot be estimated yet
+     */
+    public long getEstimatedRemainingTime(long now) {
+        float currentProgress = progress;
+        if (startTime <= 0L || currentProgress <= 0.0f) {
+            return -1L;
+        }
+        if (currentProgress >= 1.0f) {
+            return 0L;
+        }
+        long elapsed = now - startTime;
+        return (long) (elapsed * (1.0 - currentProgress) / currentProgress);
+    }
 }
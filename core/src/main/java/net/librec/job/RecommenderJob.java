@@ -21,6 +21,7 @@ import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
 import net.librec.data.DataSplitter;
+import net.librec.data.model.FoldDataModel;
 import net.librec.data.splitter.KCVDataSplitter;
 import net.librec.data.splitter.LOOCVDataSplitter;
 import net.librec.eval.EvalContext;
@@ -28,6 +29,10 @@ import net.librec.eval.Measure;
 import net.librec.eval.Measure.MeasureValue;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.filter.RecommendedFilter;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
+import net.librec.job.progress.JobCancelledException;
+import net.librec.job.progress.ProgressReporter;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SymmMatrix;
@@ -47,6 +52,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * RecommenderJob
@@ -69,6 +75,10 @@ public class RecommenderJob {
 
     private Recommender recommender;
 
+    private List<DataModel> dataModelFolds;
+
+    private ProgressReporter progressReporter;
+
     public RecommenderJob(Configuration conf) {
         this.conf = conf;
         Long seed = conf.getLong("rec.random.seed");
@@ -78,6 +88,17 @@ public class RecommenderJob {
         setJobId(JobUtil.generateNewJobId());
     }
 
+    /**
+     * Create a job on folds of an already built data model, e.g. shared with other jobs of a sweep.
+     *
+     * @param conf           configuration of the job
+     * @param dataModelFolds the folds to train and evaluate on, in fold order
+     */
+    public RecommenderJob(Configuration conf, List<DataModel> dataModelFolds) {
+        this(conf);
+        this.dataModelFolds = dataModelFolds;
+    }
+
     /**
      * run Job
      *
@@ -86,7 +107,94 @@ public class RecommenderJob {
      * @throws IOException            If an I/O error occurs.
      */
     public void runJob() throws LibrecException, ClassNotFoundException, IOException {
-        executeRecommenderJob();
+        MetricRegistry metrics = MetricRegistry.open(conf, conf.get("rec.recommender.class"));
+        int runState = JobStatus.FAILED;
+        startProgress();
+        try {
+            executeRecommenderJob();
+            runState = JobStatus.SUCCEEDED;
+        } catch (JobCancelledException e) {
+            runState = JobStatus.KILLED;
+            throw e;
+        } finally {
+            finishProgress(runState);
+            metrics.close();
+        }
+    }
+
+    /**
+     * Report the progress of the job to the given reporter, whose status is updated at each phase
+     * and training iteration. Cancelling the reporter stops the job with a {@link JobCancelledException}
+     * at the next phase or iteration.
+     *
+     * @param progressReporter reporter of the progress of the job
+     */
+    public void setProgressReporter(ProgressReporter progressReporter) {
+        this.progressReporter = progressReporter;
+    }
+
+    /**
+     * @return the reporter of the progress of the job, or null if the job reports none
+     */
+    public ProgressReporter getProgressReporter() {
+        return progressReporter;
+    }
+
+    /**
+     * Mark the job as running in the status of the progress reporter.
+     */
+    void startProgress() {
+        if (progressReporter != null) {
+            JobStatus jobStatus = progressReporter.getJobStatus();
+            jobStatus.setJobId(conf.get("rec.job.id"));
+            jobStatus.setStartTime(System.currentTimeMillis());
+            jobStatus.setProgress(0.0f);
+            jobStatus.setRunState(JobStatus.RUNNING);
+            progressReporter.checkCancelled();
+        }
+    }
+
+    /**
+     * Enter the given phase of the job, stopping here if the job was cancelled.
+     *
+     * @param phase name of the phase
+     */
+    void enterPhase(String phase) {
+        if (progressReporter != null) {
+            progressReporter.getJobStatus().setJobStage(phase);
+            progressReporter.checkCancelled();
+        }
+    }
+
+    /**
+     * Enter the given fold of the job, stopping here if the job was cancelled.
+     *
+     * @param fold     index of the fold
+     * @param numFolds number of folds of the job, or 0 if unknown
+     */
+    void enterFold(int fold, int numFolds) {
+        if (progressReporter != null) {
+            JobStatus jobStatus = progressReporter.getJobStatus();
+            jobStatus.setFold(fold + 1, numFolds);
+            jobStatus.setTrainingProgress(0.0);
+            progressReporter.checkCancelled();
+        }
+    }
+
+    /**
+     * Mark the job as finished in the status of the progress reporter.
+     *
+     * @param runState the final state of the job
+     */
+    void finishProgress(int runState) {
+        if (progressReporter != null) {
+            JobStatus jobStatus = progressReporter.getJobStatus();
+            if (runState == JobStatus.SUCCEEDED) {
+                jobStatus.setProgress(1.0f);
+            }
+            jobStatus.setFinishTime(System.currentTimeMillis());
+            jobStatus.setRunState(runState);
+        }
     }
 
 //    /**
@@ -119,18 +227,39 @@ public class RecommenderJob {
      */
     @SuppressWarnings("unchecked")
     private void executeRecommenderJob() throws ClassNotFoundException, LibrecException, IOException {
-        generateDataModel();
+        MetricRegistry metrics = MetricRegistry.of(conf);
+        if (dataModelFolds == null) {
+            enterPhase("data");
+            Timer.Context timing = metrics.timer("job.data").time();
+            generateDataModel();
+            timing.stop();
+        }
         recommender = ReflectionUtil.newInstance((Class<Recommender>) getRecommenderClass(), conf);
         RecommenderContext context = new RecommenderContext(conf);
+        context.setProgressReporter(progressReporter);
         cvEvalResults = new HashMap<>();
-        while(dataModel.hasNextFold()) {
-            dataModel.nextFold();
+        int numFolds = dataModelFolds != null ? dataModelFolds.size() : getNumFolds(dataModel, conf);
+        int fold = 0;
+        while (nextFold(fold)) {
+            enterFold(fold++, numFolds);
+            metrics.counter("job.folds").inc();
             context.setDataModel(dataModel);
+            enterPhase("similarity");
+            Timer.Context timing = metrics.timer("job.similarity").time();
             generateSimilarity(context);
+            timing.stop();
+            enterPhase("train");
+            timing = metrics.timer("job.train").time();
             recommender.train(context);
+            timing.stop();
+            enterPhase("evaluate");
+            timing = metrics.timer("job.evaluate").time();
             executeEvaluator(recommender, context);
+            timing.stop();
         }
         printCVAverageResult();
+        enterPhase("recommend");
+        Timer.Context timing = metrics.timer("job.recommend").time();
         boolean isRanking = conf.getBoolean("rec.recommender.isranking");
         List<RecommendedItem> recommendedList = null;
         if (isRanking){
@@ -139,7 +268,32 @@ public class RecommenderJob {
             recommendedList = recommender.getRecommendedList(recommender.recommendRating(context.getDataModel().getTestDataSet()));
         }
         recommendedList = filterResult(recommendedList);
+        timing.stop();
+        enterPhase("save");
+        timing = metrics.timer("job.save").time();
         saveResult(recommendedList);
+        timing.stop();
+    }
+
+    /**
+     * Move the data model to the given fold, either by its splitter or to the prepared fold.
+     *
+     * @param fold index of the fold
+     * @return true if the fold exists
+     */
+    private boolean nextFold(int fold) {
+        if (dataModelFolds != null) {
+            if (fold >= dataModelFolds.size()) {
+                return false;
+            }
+            dataModel = dataModelFolds.get(fold);
+            return true;
+        }
+        if (!dataModel.hasNextFold()) {
+            return false;
+        }
+        dataModel.nextFold();
+        return true;
     }
 
     /**
@@ -284,7 +438,7 @@ public class RecommenderJob {
             // make output path
             String algoSimpleName = DriverClassUtil.getDriverName(getRecommenderClass());
             String outputPath = conf.get("dfs.result.dir") + "/" + conf.get("data.input.path") + "-" + algoSimpleName + "-output/" + algoSimpleName;
-            if (null != dataModel && (dataModel.getDataSplitter() instanceof KCVDataSplitter || dataModel.getDataSplitter() instanceof LOOCVDataSplitter) && null != conf.getInt("data.splitter.cv.index")) {
+            if (null != dataModel && isCrossValidation(dataModel) && null != conf.getInt("data.splitter.cv.index")) {
                 outputPath = outputPath + "-" + String.valueOf(conf.getInt("data.splitter.cv.index"));
             }
             LOG.info("Result path is " + outputPath);
@@ -310,8 +464,7 @@ public class RecommenderJob {
      * Print the average evaluate results when using cross validation.
      */
     private void printCVAverageResult() {
-        DataSplitter splitter = dataModel.getDataSplitter();
-        if (splitter != null && (splitter instanceof KCVDataSplitter || splitter instanceof LOOCVDataSplitter)) {
+        if (isCrossValidation(dataModel)) {
             LOG.info("Average Evaluation Result of Cross Validation:");
             for (Map.Entry<String, List<Double>> entry : cvEvalResults.entrySet()) {
                 String evalName = entry.getKey();
@@ -333,16 +486,60 @@ public class RecommenderJob {
      * @param evalValue value of the evaluate result
      */
     private void collectCVResults(String evalName, Double evalValue) {
+        if (cvEvalResults.containsKey(evalName)) {
+            cvEvalResults.get(evalName).add(evalValue);
+        } else {
+            List<Double> newList = new ArrayList<>();
+            newList.add(evalValue);
+            cvEvalResults.put(evalName, newList);
+        }
+    }
+
+    /**
+     * Whether the data model is split by cross validation, the case the results are averaged over folds.
+     *
+     * @param dataModel data model of the job
+     * @return true if the data model is split by a cross validation splitter
+     */
+    static boolean isCrossValidation(DataModel dataModel) {
+        if (dataModel instanceof FoldDataModel) {
+            return ((FoldDataModel) dataModel).isCrossValidation();
+        }
         DataSplitter splitter = dataModel.getDataSplitter();
-        if (splitter != null && (splitter instanceof KCVDataSplitter || splitter instanceof LOOCVDataSplitter)) {
-            if (cvEvalResults.containsKey(evalName)) {
-                cvEvalResults.get(evalName).add(evalValue);
-            } else {
-                List<Double> newList = new ArrayList<>();
-                newList.add(evalValue);
-                cvEvalResults.put(evalName, newList);
+        return splitter instanceof KCVDataSplitter || splitter instanceof LOOCVDataSplitter;
+    }
+
+    /**
+     * The number of folds a data model is split into.
+     *
+     * @param dataModel data model of the job
+     * @param conf      configuration of the data model
+     * @return the number of folds, or 0 if unknown before splitting
+     */
+    static int getNumFolds(DataModel dataModel, Configuration conf) {
+        if (dataModel.getDataSplitter() instanceof KCVDataSplitter) {
+            return conf.getInt("data.splitter.cv.number", 5);
+        }
+        return isCrossValidation(dataModel) ? 0 : 1;
+    }
+
+    /**
+     * Get the results of the evaluators run by the job, averaged over the folds.
+     *
+     * @return the evaluator names and their average values
+     */
+    public Map<String, Double> getEvaluationResults() {
+        Map<String, Double> results = new TreeMap<>();
+        if (cvEvalResults != null) {
+            for (Map.Entry<String, List<Double>> entry : cvEvalResults.entrySet()) {
+                double sum = 0.0;
+                for (double value : entry.getValue()) {
+                    sum += value;
+                }
+                results.put(entry.getKey(), sum / entry.getValue().size());
             }
         }
+        return results;
     }
 
     private void setJobId(String jobId) {
@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.conf.ConfigurationParser;
+import net.librec.conf.Configured;
+import net.librec.conf.HybridConfiguration;
+import net.librec.data.DataModel;
+import net.librec.data.model.AbstractDataModel;
+import net.librec.data.model.FoldDataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.FileUtil;
+import net.librec.util.ReflectionUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the configurations of a run manifest within one JVM.
+ * <p>
+ * A manifest lists one configuration file per line, the way the hybrid starter scripts do; lines starting
+ * with '#' or '//' are comments. Configurations whose path contains "hybrid" are run as
+ * {@link HybridRecommenderJob}, the others as {@link RecommenderJob}. Lines of the form {@code key=value}
+ * set up the sweep itself:
+ * <ul>
+ * <li>{@code sweep.thread.count}: number of jobs run at once, at most the number of processors by default</li>
+ * <li>{@code sweep.job.memory}: heap in MB a job needs, limiting the number of jobs run at once, 2048 by default</li>
+ * <li>{@code sweep.result.path}: tab separated file the evaluation results are appended to</li>
+ * </ul>
+ * <p>
+ * Runs reading the same input files form a group. The data models of a group are built one after another
+ * before its jobs start, so every split sees the random state and the id mappings it would see in a JVM
+ * of its own. Runs with the same data configuration and an explicit seed share the folds of one data model,
+ * and synchronized hybrid runs with an explicit seed share their trained members through a
+ * {@link TrainedMemberCache}, e.g. runs only differing in their hybrid weights train each member once.
+ * Members are keyed by their configuration and the digest of their data as in the
+ * {@link net.librec.recommender.hybrid.MemberModelCache}, which the member cache sits in front of.
+ * <p>
+ * Jobs of a group run concurrently. Every job of a seeded run draws from a {@link Randoms} generator of its
+ * own, starting from the random state the split of its data model left, so it trains as a separate launch
+ * would whatever runs beside it. Random numbers drawn on the worker threads of a multi-threaded recommender
+ * still come from the shared generator, as they do in a separate launch.
+ */
+public class SweepRunner {
+    private static final Log LOG = LogFactory.getLog(SweepRunner.class);
+
+    private static final String RESULT_HEADER = "run\tstatus\telapsed_ms\tmeasure\tvalue";
+
+    private final List<String> runPaths = new ArrayList<>();
+
+    private final Map<String, String> settings = new HashMap<>();
+
+    private final TrainedMemberCache memberCache = new TrainedMemberCache();
+
+    private final Map<String, SharedFolds> sharedFolds = new HashMap<>();
+
+    private PrintWriter resultWriter;
+
+    /**
+     * A run of the manifest and the job prepared for it.
+     */
+    static class Run {
+        private final String path;
+        private Configuration conf;
+        private HybridConfiguration hybridConf;
+        private RecommenderJob job;
+        private Random generator;
+
+        private Run(String path) {
+            this.path = path;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        private boolean isHybrid() {
+            return path.contains("hybrid");
+        }
+
+        /**
+         * @return the configurations the data of the run is built from
+         */
+        private List<Configuration> dataConfigs() {
+            return isHybrid() ? hybridConf.getConfigs() : Collections.singletonList(conf);
+        }
+    }
+
+    /**
+     * The folds of a data model and the random state its split left.
+     */
+    private static class SharedFolds {
+        private final List<DataModel> folds;
+        private final byte[] generator;
+
+        private SharedFolds(List<DataModel> folds, byte[] generator) {
+            this.folds = folds;
+            this.generator = generator;
+        }
+    }
+
+    /**
+     * Create a runner for the given run manifest.
+     *
+     * @param manifestPath path of the manifest
+     * @throws IOException if the manifest can not be read
+     */
+    public SweepRunner(String manifestPath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestPath), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("//")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                if (separator > 0 && line.startsWith("sweep.")) {
+                    settings.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+                } else {
+                    runPaths.add(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the configuration paths of the manifest, in manifest order
+     */
+    List<String> getRunPaths() {
+        return runPaths;
+    }
+
+    /**
+     * @return the sweep settings of the manifest
+     */
+    Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Run all configurations of the manifest, appending their results to the result file.
+     *
+     * @throws IOException          if the result file can not be written
+     * @throws InterruptedException if interrupted while waiting for the jobs
+     */
+    public void run() throws IOException, InterruptedException {
+        String resultPath = settings.getOrDefault("sweep.result.path",
+                "results/sweep-" + new SimpleDateFormat("yyyy-MM-dd-HHmmss").format(new Date()) + ".tsv");
+        File resultFile = new File(resultPath);
+        if (resultFile.getAbsoluteFile().getParentFile() != null) {
+            resultFile.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        boolean writeHeader = !resultFile.exists() || resultFile.length() == 0;
+        resultWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(resultFile, true), StandardCharsets.UTF_8));
+        if (writeHeader) {
+            resultWriter.println(RESULT_HEADER);
+            resultWriter.flush();
+        }
+
+        int numThreads = getNumThreads();
+        LOG.info("Running " + runPaths.size() + " configurations with " + numThreads + " threads, results go to " + resultPath);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (List<Run> group : groupRuns()) {
+                runGroup(group, executor);
+            }
+        } finally {
+            executor.shutdownNow();
+            resultWriter.close();
+        }
+    }
+
+    /**
+     * @return the number of jobs run at once, bounded by the processors and by the heap each job needs
+     */
+    private int getNumThreads() {
+        int numThreads = Integer.parseInt(settings.getOrDefault("sweep.thread.count",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long jobMemory = Long.parseLong(settings.getOrDefault("sweep.job.memory", "2048")) * FileUtil.ONE_MB;
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if (jobMemory > 0 && maxMemory != Long.MAX_VALUE) {
+            numThreads = (int) Math.min(numThreads, maxMemory / jobMemory);
+        }
+        return Math.max(1, numThreads);
+    }
+
+    /**
+     * Parse the configurations and group the runs by the input files they read, in the order they read them.
+     *
+     * @return the groups of runs
+     */
+    Collection<List<Run>> groupRuns() {
+        Map<String, List<Run>> groups = new LinkedHashMap<>();
+        for (String path : runPaths) {
+            Run run = new Run(path);
+            try {
+                if (run.isHybrid()) {
+                    run.hybridConf = new HybridConfiguration(path);
+                } else {
+                    run.conf = new Configuration();
+                    ConfigurationParser.parse(path, run.conf);
+                }
+            } catch (Exception e) {
+                fail(run, 0L, e);
+                continue;
+            }
+            Set<String> inputFiles = new LinkedHashSet<>();
+            for (Configuration dataConf : run.dataConfigs()) {
+                for (String inputPath : dataConf.get(Configured.CONF_DATA_INPUT_PATH, "").trim().split(":")) {
+                    inputFiles.add(dataConf.get(Configured.CONF_DFS_DATA_DIR) + "/" + inputPath);
+                }
+            }
+            groups.computeIfAbsent(inputFiles.toString(), key -> new ArrayList<>()).add(run);
+        }
+        return groups.values();
+    }
+
+    /**
+     * Build the data of a group one run after another, then run its jobs on the pool.
+     *
+     * @param group    runs reading the same input files
+     * @param executor pool to run the jobs on
+     * @throws InterruptedException if interrupted while waiting for the jobs
+     */
+    private void runGroup(List<Run> group, ExecutorService executor) throws InterruptedException {
+        List<Run> prepared = new ArrayList<>();
+        for (Run run : group) {
+            long start = System.currentTimeMillis();
+            try {
+                run.job = prepareJob(run);
+                prepared.add(run);
+            } catch (Exception e) {
+                fail(run, System.currentTimeMillis() - start, e);
+            }
+        }
+        List<Future<?>> jobs = new ArrayList<>();
+        for (Run run : prepared) {
+            jobs.add(executor.submit(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    LOG.info("Starting " + run.path);
+                    // the job reseeded on creation, train on the random state after the split instead
+                    Randoms.setThreadGenerator(run.generator);
+                    run.job.runJob();
+                    writeResults(run, System.currentTimeMillis() - start, run.job.getEvaluationResults());
+                } catch (Exception e) {
+                    fail(run, System.currentTimeMillis() - start, e);
+                } finally {
+                    Randoms.setThreadGenerator(null);
+                    run.job = null;
+                    run.generator = null;
+                }
+            }));
+        }
+        for (Future<?> job : jobs) {
+            try {
+                job.get();
+            } catch (ExecutionException e) {
+                LOG.error("Sweep job failed", e.getCause());
+            }
+        }
+        sharedFolds.clear();
+        memberCache.clear();
+        DataFrame.clearInnerMapping();
+    }
+
+    /**
+     * Create the job of a run with its data built or taken from another run of the group.
+     *
+     * @param run run to prepare
+     * @return the job of the run
+     * @throws Exception if the data or the job can not be built
+     */
+    private RecommenderJob prepareJob(Run run) throws Exception {
+        if (!run.isHybrid()) {
+            Long seed = run.conf.getLong("rec.random.seed");
+            List<DataModel> folds = seed == null ? buildFolds(run.conf) : getSharedFolds(run, run.conf, seed);
+            return new RecommenderJob(run.conf, folds);
+        }
+        HybridConfiguration hybridConf = run.hybridConf;
+        Long seed = hybridConf.getLong("rec.random.seed");
+        if (!hybridConf.getBoolean("data.model.sync")) {
+            // members of unsynchronized runs are built on the random state the previous member left
+            if (seed != null) {
+                run.generator = new Random(seed);
+            }
+            return new HybridRecommenderJob(hybridConf);
+        }
+        boolean shared = seed != null;
+        if (!shared) {
+            seed = new Random().nextLong();
+        }
+        List<List<DataModel>> memberFolds = new ArrayList<>();
+        for (Configuration memberConf : hybridConf.getConfigs()) {
+            if (shared) {
+                memberFolds.add(getSharedFolds(run, memberConf, seed));
+            } else {
+                Randoms.seed(seed);
+                memberFolds.add(buildFolds(memberConf));
+            }
+        }
+        HybridRecommenderJob job = new HybridRecommenderJob(hybridConf, memberFolds, shared ? memberCache : null);
+        for (String key : job.getCachedMemberKeys()) {
+            memberCache.register(key);
+        }
+        return job;
+    }
+
+    /**
+     * Get the folds of the data model for the given configuration and seed, building it on first use.
+     * The folds are returned as views with the given configuration, and the run is set to train on
+     * the random state the split left.
+     *
+     * @param run  run the folds are taken for
+     * @param conf configuration of the data model
+     * @param seed random seed the data model is split with
+     * @return the folds of the data model
+     * @throws Exception if the data model can not be built
+     */
+    private List<DataModel> getSharedFolds(Run run, Configuration conf, long seed) throws Exception {
+        String key = dataKey(conf) + "#seed=" + seed;
+        SharedFolds shared = sharedFolds.get(key);
+        if (shared == null) {
+            Randoms.seed(seed);
+            List<DataModel> folds = buildFolds(conf);
+            shared = new SharedFolds(folds, saveGenerator(Randoms.getGenerator()));
+            sharedFolds.put(key, shared);
+        } else {
+            LOG.info("Sharing the data model of " + conf.get(Configured.CONF_DATA_INPUT_PATH));
+        }
+        run.generator = restoreGenerator(shared.generator);
+        List<DataModel> views = new ArrayList<>(shared.folds.size());
+        for (DataModel fold : shared.folds) {
+            views.add(((FoldDataModel) fold).withConf(conf));
+        }
+        return views;
+    }
+
+    /**
+     * Save the state of a random generator.
+     *
+     * @param generator the generator
+     * @return the serialized generator
+     * @throws IOException if the generator can not be serialized
+     */
+    private static byte[] saveGenerator(Random generator) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(generator);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restore a random generator saved by {@link #saveGenerator(Random)}, each call returning a new copy.
+     *
+     * @param generator the serialized generator
+     * @return a generator in the saved state
+     * @throws IOException            if the generator can not be read
+     * @throws ClassNotFoundException if the class of the generator can not be found
+     */
+    private static Random restoreGenerator(byte[] generator) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(generator))) {
+            return (Random) in.readObject();
+        }
+    }
+
+    /**
+     * Build the data model of the given configuration on the current random state and snapshot its folds.
+     *
+     * @param conf configuration of the data model
+     * @return the folds of the data model
+     * @throws Exception if the data model can not be built
+     */
+    @SuppressWarnings("unchecked")
+    private List<DataModel> buildFolds(Configuration conf) throws Exception {
+        DataModel dataModel = ReflectionUtil.newInstance((Class<DataModel>) DriverClassUtil.getClass(conf.get("data.model.format")), conf);
+        if (!(dataModel instanceof AbstractDataModel)) {
+            throw new LibrecException("data model " + dataModel.getClass().getName() + " can not be shared");
+        }
+        dataModel.buildDataModel();
+        return FoldDataModel.snapshotFolds((AbstractDataModel) dataModel);
+    }
+
+    /**
+     * The properties of a configuration a data model depends on, in key order.
+     * Properties the jobs set while running are left out.
+     *
+     * @param conf configuration
+     * @return key of the data configuration
+     */
+    private static String dataKey(Configuration conf) {
+        Map<String, String> properties = new TreeMap<>();
+        for (Map.Entry<String, String> entry : conf) {
+            String name = entry.getKey();
+            if ((name.startsWith("data.") || name.equals(Configured.CONF_DFS_DATA_DIR)) && !name.endsWith(".read.ready")
+                    && !name.equals("data.hybrid.configs.path") && !name.equals("data.model.sync")) {
+                properties.put(name, entry.getValue());
+            }
+        }
+        return properties.toString();
+    }
+
+    private void fail(Run run, long elapsed, Exception e) {
+        LOG.error("Run " + run.path + " failed", e);
+        writeLine(run.path + "\tfailed\t" + elapsed + "\t" + String.valueOf(e).replaceAll("\\s+", " ") + "\t");
+    }
+
+    private void writeResults(Run run, long elapsed, Map<String, Double> results) {
+        if (results.isEmpty()) {
+            writeLine(run.path + "\tok\t" + elapsed + "\t\t");
+        }
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            writeLine(run.path + "\tok\t" + elapsed + "\t" + result.getKey() + "\t" + result.getValue());
+        }
+    }
+
+    private synchronized void writeLine(String line) {
+        resultWriter.println(line);
+        resultWriter.flush();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: SweepRunner <run manifest>");
+            System.exit(1);
+        }
+        new SweepRunner(args[0]).run();
+    }
+}
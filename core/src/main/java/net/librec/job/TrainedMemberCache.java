@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job;
+
+import net.librec.common.LibrecException;
+import net.librec.recommender.AbstractRecommender;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Trained members of hybrid jobs, shared between the jobs of a sweep.
+ * <p>
+ * A member is keyed as in the {@link net.librec.recommender.hybrid.MemberModelCache}, by its configuration and
+ * the digest of the data it was trained on, so the jobs load from and store to that cache on a miss. The first job asking
+ * for a key trains the member, jobs asking for it meanwhile wait for that training instead of repeating it.
+ * Every job registers the keys it is going to use up front and releases each use when it is done with it,
+ * so a member is dropped as soon as no job of the sweep needs it any more.
+ * <p>
+ * Recommenders are not safe to predict concurrently, so jobs lock the members they predict with
+ * through {@link #lock(Collection)} while evaluating.
+ */
+public class TrainedMemberCache {
+
+    /**
+     * Trains the member of a key.
+     */
+    public interface Trainer {
+        AbstractRecommender train() throws LibrecException;
+    }
+
+    private static class Entry {
+        private final CompletableFuture<AbstractRecommender> member = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final ReentrantLock lock = new ReentrantLock();
+        private int uses;
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private synchronized Entry entry(String key) {
+        return entries.computeIfAbsent(key, k -> new Entry());
+    }
+
+    /**
+     * Register one future use of a key.
+     *
+     * @param key key of the member
+     */
+    public synchronized void register(String key) {
+        entry(key).uses++;
+    }
+
+    /**
+     * Release one use of a key, dropping the member after its last registered use.
+     *
+     * @param key key of the member
+     */
+    public synchronized void release(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && --entry.uses <= 0) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Release one use of each of the given keys.
+     *
+     * @param keys keys of the members
+     */
+    public void release(Collection<String> keys) {
+        for (String key : keys) {
+            release(key);
+        }
+    }
+
+    /**
+     * Get the member of a key, training it in the calling thread if no other job did or does.
+     *
+     * @param key     key of the member
+     * @param trainer trains the member
+     * @return the trained member
+     * @throws LibrecException if the training failed, in this or in the training job
+     */
+    public AbstractRecommender get(String key, Trainer trainer) throws LibrecException {
+        Entry entry = entry(key);
+        if (entry.started.compareAndSet(false, true)) {
+            try {
+                entry.member.complete(trainer.train());
+            } catch (LibrecException | RuntimeException e) {
+                entry.member.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return entry.member.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw new LibrecException("training of the member " + key + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Lock the members of the given keys, in key order so that jobs sharing members cannot deadlock.
+     *
+     * @param keys keys of the members
+     */
+    public void lock(Collection<String> keys) {
+        for (String key : new TreeSet<>(keys)) {
+            entry(key).lock.lock();
+        }
+    }
+
+    /**
+     * Unlock the members locked by {@link #lock(Collection)}.
+     *
+     * @param keys keys of the members
+     */
+    public void unlock(Collection<String> keys) {
+        for (String key : new TreeSet<>(keys).descendingSet()) {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(key);
+            }
+            if (entry != null && entry.lock.isHeldByCurrentThread()) {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drop all members, whether or not their uses were released.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
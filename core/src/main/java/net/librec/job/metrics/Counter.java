@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A <tt>Counter</tt> counts events, e.g. the folds of a job or the hits of a cache.
+ */
+public class Counter {
+    static final Counter DISABLED = new Counter(false);
+
+    private final LongAdder count;
+
+    Counter(boolean enabled) {
+        count = enabled ? new LongAdder() : null;
+    }
+
+    public void inc() {
+        inc(1L);
+    }
+
+    public void inc(long n) {
+        if (count != null) {
+            count.add(n);
+        }
+    }
+
+    public long getCount() {
+        return count == null ? 0L : count.sum();
+    }
+}
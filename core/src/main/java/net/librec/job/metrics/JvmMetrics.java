@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Readings of the JVM the timers and the gauges of a {@link MetricRegistry} are made of.
+ */
+final class JvmMetrics {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * the HotSpot extension counting the bytes allocated by a thread, or null if the JVM has none
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocations();
+
+    private JvmMetrics() {
+    }
+
+    private static com.sun.management.ThreadMXBean allocations() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or 0 if the JVM does not count them
+     */
+    static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0L : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return the number of garbage collections of all collectors so far
+     */
+    static long gcCount() {
+        long count = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return the milliseconds spent in garbage collections of all collectors so far
+     */
+    static long gcMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    static long heapUsed() {
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    static long heapMax() {
+        return MEMORY.getHeapMemoryUsage().getMax();
+    }
+
+    static int threadCount() {
+        return THREADS.getThreadCount();
+    }
+}
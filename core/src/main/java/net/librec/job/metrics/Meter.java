@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+/**
+ * A <tt>Meter</tt> counts the events of a phase and relates them to the time the phase ran,
+ * e.g. the training iterations per second of training.
+ */
+public class Meter {
+    static final Meter DISABLED = new Meter(Counter.DISABLED, Timer.DISABLED);
+
+    private final Counter counter;
+    private final Timer timer;
+
+    Meter(Counter counter, Timer timer) {
+        this.counter = counter;
+        this.timer = timer;
+    }
+
+    public void mark() {
+        counter.inc(1L);
+    }
+
+    public void mark(long n) {
+        counter.inc(n);
+    }
+
+    public long getCount() {
+        return counter.getCount();
+    }
+
+    /**
+     * @return the events per second of the time measured by the timer of the phase, 0 before the phase ran
+     */
+    public double getRate() {
+        long nanos = timer.getTotalNanos();
+        return nanos == 0L ? 0.0 : counter.getCount() * 1e9 / nanos;
+    }
+}
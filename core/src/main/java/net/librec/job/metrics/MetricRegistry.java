@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import net.librec.conf.Configuration;
+import net.librec.util.FileUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A <tt>MetricRegistry</tt> holds the timers, counters, meters and gauges of one job.
+ * <p>
+ * A job opens its registry if 'rec.metrics.enabled' is set and attaches it to the configurations it runs with,
+ * the data models, similarities, recommenders and evaluators of the job then find it by {@link #of(Configuration)}.
+ * Without an open registry they get the disabled registry, whose metrics are shared instances doing nothing.
+ * <p>
+ * When the job closes the registry, a JSON summary is written to the directory 'rec.metrics.output.path',
+ * by default the 'metrics' directory of 'dfs.result.dir'. If 'rec.metrics.http.port' is set,
+ * the open registries are served as JSON at {@code http://localhost:<port>/metrics} while their jobs run.
+ */
+public class MetricRegistry {
+    private static final Log LOG = LogFactory.getLog(MetricRegistry.class);
+
+    public static final String CONF_ENABLED = "rec.metrics.enabled";
+    public static final String CONF_OUTPUT_PATH = "rec.metrics.output.path";
+    public static final String CONF_HTTP_PORT = "rec.metrics.http.port";
+
+    /**
+     * id of the open registry of the job a configuration belongs to, set by the job
+     */
+    public static final String CONF_REGISTRY = "rec.metrics.registry";
+
+    /**
+     * the registry of jobs without metrics
+     */
+    public static final MetricRegistry DISABLED = new MetricRegistry(null, null, null, 0);
+
+    private static final ConcurrentMap<String, MetricRegistry> OPEN_REGISTRIES = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger REGISTRY_COUNT = new AtomicInteger();
+
+    private final String id;
+    private final String name;
+    private final String outputPath;
+    private final int httpPort;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Meter> meters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+    private MetricRegistry(String id, String name, String outputPath, int httpPort) {
+        this.id = id;
+        this.name = name;
+        this.outputPath = outputPath;
+        this.httpPort = httpPort;
+        if (isEnabled()) {
+            gauge("jvm.heap.used.bytes", JvmMetrics::heapUsed);
+            gauge("jvm.heap.max.bytes", JvmMetrics::heapMax);
+            gauge("jvm.gc.count", JvmMetrics::gcCount);
+            gauge("jvm.gc.time.ms", JvmMetrics::gcMillis);
+            gauge("jvm.threads", JvmMetrics::threadCount);
+        }
+    }
+
+    /**
+     * Open the registry of a job if the configuration enables metrics, and attach it to the configuration.
+     *
+     * @param conf configuration of the job
+     * @param name name of the job in the exported metrics, e.g. its recommender
+     * @return the open registry, or the disabled registry
+     */
+    public static MetricRegistry open(Configuration conf, String name) {
+        if (!conf.getBoolean(CONF_ENABLED, false)) {
+            return DISABLED;
+        }
+        String id = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + "_" + REGISTRY_COUNT.incrementAndGet();
+        String outputPath = conf.get(CONF_OUTPUT_PATH, conf.get("dfs.result.dir", "result") + "/metrics");
+        MetricRegistry registry = new MetricRegistry(id, name, outputPath, conf.getInt(CONF_HTTP_PORT, 0));
+        OPEN_REGISTRIES.put(id, registry);
+        registry.attach(conf);
+        if (registry.httpPort > 0) {
+            MetricsHttpServer.publish(registry.httpPort, registry);
+        }
+        return registry;
+    }
+
+    /**
+     * Find the open registry of the job the given configuration is attached to.
+     *
+     * @param conf configuration of a job or of a member of a hybrid job
+     * @return the registry of the job, or the disabled registry
+     */
+    public static MetricRegistry of(Configuration conf) {
+        String id = conf == null ? null : conf.get(CONF_REGISTRY);
+        if (id == null) {
+            return DISABLED;
+        }
+        MetricRegistry registry = OPEN_REGISTRIES.get(id);
+        return registry == null ? DISABLED : registry;
+    }
+
+    /**
+     * Attach the registry to another configuration of its job, e.g. of a member of a hybrid.
+     *
+     * @param conf configuration to attach to
+     */
+    public void attach(Configuration conf) {
+        if (isEnabled()) {
+            conf.set(CONF_REGISTRY, id);
+        }
+    }
+
+    /**
+     * Close the registry at the end of its job and write its summary.
+     * The metrics are not essential to the job, failing to export them is logged only.
+     */
+    public void close() {
+        if (!isEnabled() || OPEN_REGISTRIES.remove(id) == null) {
+            return;
+        }
+        if (httpPort > 0) {
+            MetricsHttpServer.withdraw(httpPort, this);
+        }
+        String filePath = outputPath + "/" + name.replaceAll("[^\\w.-]", "_") + "-" + id + ".json";
+        try {
+            FileUtil.writeString(filePath, toJson());
+            LOG.info("Metrics path is " + filePath);
+        } catch (Exception e) {
+            LOG.warn("Cannot write the metrics to " + filePath, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return id != null;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Timer timer(String name) {
+        return isEnabled() ? timers.computeIfAbsent(name, key -> new Timer(true)) : Timer.DISABLED;
+    }
+
+    public Counter counter(String name) {
+        return isEnabled() ? counters.computeIfAbsent(name, key -> new Counter(true)) : Counter.DISABLED;
+    }
+
+    /**
+     * @param name      name of the meter
+     * @param timerName name of the timer of the phase the events happen in
+     * @return the meter
+     */
+    public Meter meter(String name, String timerName) {
+        return isEnabled() ? meters.computeIfAbsent(name, key -> new Meter(new Counter(true), timer(timerName))) : Meter.DISABLED;
+    }
+
+    public void gauge(String name, Gauge gauge) {
+        if (isEnabled()) {
+            gauges.put(name, gauge);
+        }
+    }
+
+    /**
+     * @return the current values of all metrics as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"id\": ").append(quote(id)).append(",\n");
+        json.append("  \"name\": ").append(quote(name)).append(",\n");
+        json.append("  \"start\": ").append(quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startMillis)))).append(",\n");
+        json.append("  \"elapsedMs\": ").append((System.nanoTime() - startNanos) / 1000000L).append(",\n");
+
+        json.append("  \"timers\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            long count = timer.getCount();
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": {")
+                    .append("\"count\": ").append(count)
+                    .append(", \"totalMs\": ").append(millis(timer.getTotalNanos()))
+                    .append(", \"meanMs\": ").append(count == 0L ? 0.0 : millis(timer.getTotalNanos() / count))
+                    .append(", \"maxMs\": ").append(millis(timer.getMaxNanos()))
+                    .append(", \"allocatedBytes\": ").append(timer.getAllocatedBytes())
+                    .append(", \"gcCount\": ").append(timer.getGcCount())
+                    .append(", \"gcTimeMs\": ").append(timer.getGcMillis())
+                    .append("}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ").append(entry.getValue().getCount());
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"meters\": {");
+        separator = "\n";
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": {")
+                    .append("\"count\": ").append(entry.getValue().getCount())
+                    .append(", \"perSecond\": ").append(number(entry.getValue().getRate()))
+                    .append("}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"gauges\": {");
+        separator = "\n";
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ").append(number(entry.getValue().getValue()));
+            separator = ",\n";
+        }
+        json.append("\n  }\n}");
+        return json.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
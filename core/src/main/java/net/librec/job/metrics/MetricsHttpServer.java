@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Serves the open registries of all jobs publishing to a port as a JSON array at {@code /metrics}.
+ * <p>
+ * The server listens on the loopback address only and stops when the last of its registries is withdrawn,
+ * so it does not keep the JVM running after the jobs.
+ */
+final class MetricsHttpServer {
+    private static final Log LOG = LogFactory.getLog(MetricsHttpServer.class);
+
+    private static final Map<Integer, MetricsHttpServer> SERVERS = new HashMap<>();
+
+    private final HttpServer server;
+    private final Set<MetricRegistry> registries = new CopyOnWriteArraySet<>();
+
+    private MetricsHttpServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        LOG.info("Metrics are served at http://localhost:" + port + "/metrics");
+    }
+
+    static synchronized void publish(int port, MetricRegistry registry) {
+        MetricsHttpServer server = SERVERS.get(port);
+        if (server == null) {
+            try {
+                server = new MetricsHttpServer(port);
+            } catch (IOException e) {
+                LOG.warn("Cannot serve the metrics at port " + port, e);
+                return;
+            }
+            SERVERS.put(port, server);
+        }
+        server.registries.add(registry);
+    }
+
+    static synchronized void withdraw(int port, MetricRegistry registry) {
+        MetricsHttpServer server = SERVERS.get(port);
+        if (server != null && server.registries.remove(registry) && server.registries.isEmpty()) {
+            server.server.stop(0);
+            SERVERS.remove(port);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder json = new StringBuilder("[");
+            String separator = "\n";
+            for (MetricRegistry registry : registries) {
+                json.append(separator).append(registry.toJson());
+                separator = ",\n";
+            }
+            byte[] body = json.append("\n]\n").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A <tt>Timer</tt> measures the runs of a phase: how often it ran, how long it took,
+ * the bytes the timing thread allocated and the garbage collections during the runs.
+ * <p>
+ * Allocations are counted for the thread starting and stopping the timing only, work the phase hands
+ * to other threads is not included. Garbage collections are counted for the whole JVM.
+ */
+public class Timer {
+    static final Timer DISABLED = new Timer(false);
+
+    private static final Context DISABLED_CONTEXT = new Context(DISABLED);
+
+    private final boolean enabled;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder gcCount = new LongAdder();
+    private final LongAdder gcMillis = new LongAdder();
+
+    Timer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start a run of the phase.
+     *
+     * @return the timing of the run, to stop when the phase is done
+     */
+    public Context time() {
+        return enabled ? new Context(this) : DISABLED_CONTEXT;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public long getGcCount() {
+        return gcCount.sum();
+    }
+
+    public long getGcMillis() {
+        return gcMillis.sum();
+    }
+
+    private void update(long nanos, long allocated, long collections, long collectionMillis) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        allocatedBytes.add(allocated);
+        gcCount.add(collections);
+        gcMillis.add(collectionMillis);
+    }
+
+    /**
+     * The timing of one run of a phase.
+     */
+    public static class Context {
+        private final Timer timer;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+        private final long startGcCount;
+        private final long startGcMillis;
+
+        private Context(Timer timer) {
+            this.timer = timer;
+            if (timer.enabled) {
+                startGcCount = JvmMetrics.gcCount();
+                startGcMillis = JvmMetrics.gcMillis();
+                startAllocatedBytes = JvmMetrics.allocatedBytes();
+                startNanos = System.nanoTime();
+            } else {
+                startNanos = startAllocatedBytes = startGcCount = startGcMillis = 0L;
+            }
+        }
+
+        /**
+         * Stop the run and add it to its timer.
+         *
+         * @return the duration of the run in nanoseconds, 0 if metrics are disabled
+         */
+        public long stop() {
+            if (!timer.enabled) {
+                return 0L;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            timer.update(nanos, JvmMetrics.allocatedBytes() - startAllocatedBytes,
+                    JvmMetrics.gcCount() - startGcCount, JvmMetrics.gcMillis() - startGcMillis);
+            return nanos;
+        }
+    }
+}
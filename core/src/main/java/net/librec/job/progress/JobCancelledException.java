@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.progress;
+
+import net.librec.common.LibrecRuntimeException;
+
+/**
+ * Thrown out of a job whose {@link ProgressReporter} was cancelled,
+ * at the next point the job checks for cancellation.
+ */
+public class JobCancelledException extends LibrecRuntimeException {
+
+    private static final long serialVersionUID = -2374120384529715466L;
+
+    /**
+     * Constructs a new exception with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public JobCancelledException(String message) {
+        super(message);
+    }
+}
@@ -35,6 +35,7 @@ public abstract class ProgressReporter implements Progressable, Runnable {
     private Object lock = new Object();
     private AtomicBoolean taskDone = new AtomicBoolean(false);
     private AtomicBoolean progressFlag = new AtomicBoolean(false);
+    private AtomicBoolean cancelled = new AtomicBoolean(false);
 
     /*
      * (non-Javadoc)
@@ -51,7 +52,7 @@ public abstract class ProgressReporter implements Progressable, Runnable {
                     if (taskDone.get()) {
                         break;
                     }
-                    lock.wait(PROGRESS_INTERVAL);
+                    lock.wait(getProgressInterval());
                     sendProgress = true;
                 }
                 if (sendProgress) {
@@ -79,6 +80,49 @@ public abstract class ProgressReporter implements Progressable, Runnable {
         return taskDone.getAndSet(false);
     }
 
+    /**
+     * @return the interval in milliseconds between two reports of the progress
+     */
+    protected long getProgressInterval() {
+        return PROGRESS_INTERVAL;
+    }
+
+    /**
+     * Stop reporting the progress, ending {@link #run()}.
+     */
+    public void finish() {
+        synchronized (lock) {
+            taskDone.set(true);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Request the job reporting to this reporter to stop.
+     * The job stops at the next point it checks for cancellation.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * @return true if the job was requested to stop
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Check for cancellation of the job.
+     *
+     * @throws JobCancelledException if the job was requested to stop
+     */
+    public void checkCancelled() {
+        if (cancelled.get()) {
+            throw new JobCancelledException("Job " + jobStatus.getJobId() + " cancelled during " + jobStatus.getJobStage());
+        }
+    }
+
     /**
      * @return the jobStatus
      */
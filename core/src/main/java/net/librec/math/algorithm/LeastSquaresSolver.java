@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.algorithm;
+
+import java.util.stream.IntStream;
+
+/**
+ * Solver of the small symmetric linear systems of alternating least squares.
+ * <p>
+ * Systems are stored row-major in flat {@code size * size} arrays. Every thread gets its own scratch buffers,
+ * so the rows of a factor matrix can be solved in parallel without allocation. Two methods are supported:
+ * <ul>
+ * <li>{@code cholesky}: exact solve by Cholesky decomposition, falling back to Gaussian elimination with
+ * partial pivoting if the system is not positive definite;</li>
+ * <li>{@code cg}: a few conjugate gradient steps warm started from the current factors, see Takacs et al.,
+ * Applications of the conjugate gradient method for implicit feedback collaborative filtering, RecSys 2011.
+ * Systems can then be given as a {@link LinearOperator} and need not be built at all.</li>
+ * </ul>
+ */
+public class LeastSquaresSolver {
+
+    /**
+     * solving methods
+     */
+    public enum Method {
+        CHOLESKY, CG
+    }
+
+    /**
+     * Product of a symmetric positive definite matrix with a vector.
+     */
+    public interface LinearOperator {
+        /**
+         * @param x      input vector
+         * @param result output, the product with x
+         */
+        void times(double[] x, double[] result);
+    }
+
+    private final int size;
+    private final Method method;
+    private final int cgIterations;
+
+    /**
+     * per-thread system matrix, right-hand side and Cholesky factor
+     */
+    private final ThreadLocal<double[]> matrixBuffer, vectorBuffer, factorBuffer;
+
+    /**
+     * per-thread residual, search direction and product vectors
+     */
+    private final ThreadLocal<double[][]> workBuffer;
+
+    /**
+     * @param size         number of unknowns
+     * @param method       solving method, {@code cholesky} or {@code cg}
+     * @param cgIterations number of conjugate gradient steps per solve
+     */
+    public LeastSquaresSolver(int size, String method, int cgIterations) {
+        this.size = size;
+        this.method = Method.valueOf(method.toUpperCase());
+        this.cgIterations = Math.max(1, cgIterations);
+        matrixBuffer = ThreadLocal.withInitial(() -> new double[size * size]);
+        vectorBuffer = ThreadLocal.withInitial(() -> new double[size]);
+        factorBuffer = ThreadLocal.withInitial(() -> new double[size * size]);
+        workBuffer = ThreadLocal.withInitial(() -> new double[3][size]);
+    }
+
+    /**
+     * @return true if systems are solved by conjugate gradient
+     */
+    public boolean isConjugateGradient() {
+        return method == Method.CG;
+    }
+
+    /**
+     * @return the system matrix buffer of the current thread, size * size
+     */
+    public double[] matrix() {
+        return matrixBuffer.get();
+    }
+
+    /**
+     * @return the right-hand side buffer of the current thread, length size
+     */
+    public double[] vector() {
+        return vectorBuffer.get();
+    }
+
+    /**
+     * Compute the weighted Gram matrix sum_r w_r x_r x_r^T of the rows of a factor matrix, in parallel.
+     *
+     * @param factors factor rows
+     * @param weights row weights, or null for unit weights
+     * @return the Gram matrix, size * size
+     */
+    public double[] gram(double[][] factors, double[] weights) {
+        int numRows = factors.length;
+        int numChunks = Math.min(numRows, 4 * Runtime.getRuntime().availableProcessors());
+        if (numChunks == 0) {
+            return new double[size * size];
+        }
+        double[] gram = IntStream.range(0, numChunks).parallel().mapToObj(chunk -> {
+            double[] partial = new double[size * size];
+            for (int row = chunk; row < numRows; row += numChunks) {
+                addOuter(partial, factors[row], weights == null ? 1.0d : weights[row]);
+            }
+            return partial;
+        }).reduce((left, right) -> {
+            for (int index = 0; index < left.length; index++) {
+                left[index] += right[index];
+            }
+            return left;
+        }).get();
+        symmetrize(gram);
+        return gram;
+    }
+
+    /**
+     * Add the rank-one update w x x^T to the upper triangle of a system matrix.
+     * Call {@link #symmetrize(double[])} once all updates are added.
+     *
+     * @param matrix system matrix, size * size
+     * @param x      vector
+     * @param weight weight of the update
+     */
+    public void addOuter(double[] matrix, double[] x, double weight) {
+        for (int row = 0; row < size; row++) {
+            double value = weight * x[row];
+            if (value == 0.0d) {
+                continue;
+            }
+            int offset = row * size;
+            for (int column = row; column < size; column++) {
+                matrix[offset + column] += value * x[column];
+            }
+        }
+    }
+
+    /**
+     * Copy the upper triangle of a system matrix to its lower triangle.
+     *
+     * @param matrix system matrix, size * size
+     */
+    public void symmetrize(double[] matrix) {
+        for (int row = 1; row < size; row++) {
+            for (int column = 0; column < row; column++) {
+                matrix[row * size + column] = matrix[column * size + row];
+            }
+        }
+    }
+
+    /**
+     * Solve {@code matrix * x = b} with the configured method. The matrix and b are left unchanged.
+     * Conjugate gradient starts from the values in x.
+     *
+     * @param matrix symmetric system matrix, size * size
+     * @param b      right-hand side
+     * @param x      output, the solution; input, the initial guess of conjugate gradient
+     * @return false if the system is singular, x is then unchanged
+     */
+    public boolean solve(double[] matrix, double[] b, double[] x) {
+        if (method == Method.CG) {
+            return solve((input, result) -> times(matrix, input, result), b, x);
+        }
+        double[] work = workBuffer.get()[0];
+        if (cholesky(matrix, b, x, work)) {
+            return true;
+        }
+        return eliminate(matrix, b, x);
+    }
+
+    /**
+     * Run the configured number of conjugate gradient steps on {@code operator * x = b}, starting from x.
+     *
+     * @param operator symmetric positive definite operator
+     * @param b        right-hand side
+     * @param x        input, the initial guess; output, the solution
+     * @return true
+     */
+    public boolean solve(LinearOperator operator, double[] b, double[] x) {
+        double[][] work = workBuffer.get();
+        double[] residual = work[0], direction = work[1], product = work[2];
+
+        // r = b - A x, p = r
+        operator.times(x, product);
+        double residualNorm = 0.0d;
+        for (int index = 0; index < size; index++) {
+            residual[index] = b[index] - product[index];
+            direction[index] = residual[index];
+            residualNorm += residual[index] * residual[index];
+        }
+
+        for (int step = 0; step < cgIterations && residualNorm > 0.0d; step++) {
+            operator.times(direction, product);
+            double curvature = 0.0d;
+            for (int index = 0; index < size; index++) {
+                curvature += direction[index] * product[index];
+            }
+            if (curvature <= 0.0d) {
+                break;
+            }
+            double alpha = residualNorm / curvature;
+            double newResidualNorm = 0.0d;
+            for (int index = 0; index < size; index++) {
+                x[index] += alpha * direction[index];
+                residual[index] -= alpha * product[index];
+                newResidualNorm += residual[index] * residual[index];
+            }
+            double beta = newResidualNorm / residualNorm;
+            for (int index = 0; index < size; index++) {
+                direction[index] = residual[index] + beta * direction[index];
+            }
+            residualNorm = newResidualNorm;
+        }
+        return true;
+    }
+
+    /**
+     * Solve by the Cholesky decomposition matrix = L L^T.
+     *
+     * @return false if the matrix is not positive definite
+     */
+    private boolean cholesky(double[] matrix, double[] b, double[] x, double[] y) {
+        double[] lower = factorBuffer.get();
+        for (int row = 0; row < size; row++) {
+            int rowOffset = row * size;
+            for (int column = 0; column <= row; column++) {
+                int columnOffset = column * size;
+                double sum = matrix[rowOffset + column];
+                for (int inner = 0; inner < column; inner++) {
+                    sum -= lower[rowOffset + inner] * lower[columnOffset + inner];
+                }
+                if (row == column) {
+                    if (!(sum > 0.0d)) {
+                        return false;
+                    }
+                    lower[rowOffset + row] = Math.sqrt(sum);
+                } else {
+                    lower[rowOffset + column] = sum / lower[columnOffset + column];
+                }
+            }
+        }
+
+        // L y = b, then L^T x = y
+        for (int row = 0; row < size; row++) {
+            double sum = b[row];
+            for (int column = 0; column < row; column++) {
+                sum -= lower[row * size + column] * y[column];
+            }
+            y[row] = sum / lower[row * size + row];
+        }
+        for (int row = size - 1; row >= 0; row--) {
+            double sum = y[row];
+            for (int column = row + 1; column < size; column++) {
+                sum -= lower[column * size + row] * x[column];
+            }
+            x[row] = sum / lower[row * size + row];
+        }
+        return true;
+    }
+
+    /**
+     * Solve by Gaussian elimination with partial pivoting.
+     *
+     * @return false if the matrix is singular
+     */
+    private boolean eliminate(double[] matrix, double[] b, double[] x) {
+        double[] copy = factorBuffer.get();
+        double[] rhs = workBuffer.get()[1];
+        System.arraycopy(matrix, 0, copy, 0, size * size);
+        System.arraycopy(b, 0, rhs, 0, size);
+
+        for (int pivotRow = 0; pivotRow < size; pivotRow++) {
+            int pivot = pivotRow;
+            double magnitude = Math.abs(copy[pivotRow * size + pivotRow]);
+            for (int row = pivotRow + 1; row < size; row++) {
+                double candidate = Math.abs(copy[row * size + pivotRow]);
+                if (candidate > magnitude) {
+                    magnitude = candidate;
+                    pivot = row;
+                }
+            }
+            if (magnitude == 0.0d) {
+                return false;
+            }
+            if (pivot != pivotRow) {
+                for (int column = pivotRow; column < size; column++) {
+                    double temp = copy[pivotRow * size + column];
+                    copy[pivotRow * size + column] = copy[pivot * size + column];
+                    copy[pivot * size + column] = temp;
+                }
+                double temp = rhs[pivotRow];
+                rhs[pivotRow] = rhs[pivot];
+                rhs[pivot] = temp;
+            }
+            double diagonal = copy[pivotRow * size + pivotRow];
+            for (int row = pivotRow + 1; row < size; row++) {
+                double factor = copy[row * size + pivotRow] / diagonal;
+                if (factor == 0.0d) {
+                    continue;
+                }
+                for (int column = pivotRow; column < size; column++) {
+                    copy[row * size + column] -= factor * copy[pivotRow * size + column];
+                }
+                rhs[row] -= factor * rhs[pivotRow];
+            }
+        }
+
+        for (int row = size - 1; row >= 0; row--) {
+            double sum = rhs[row];
+            for (int column = row + 1; column < size; column++) {
+                sum -= copy[row * size + column] * x[column];
+            }
+            x[row] = sum / copy[row * size + row];
+        }
+        return true;
+    }
+
+    /**
+     * Dense product of a system matrix with a vector.
+     *
+     * @param matrix system matrix, size * size
+     * @param x      vector
+     * @param result output, matrix * x
+     */
+    public void times(double[] matrix, double[] x, double[] result) {
+        for (int row = 0; row < size; row++) {
+            int offset = row * size;
+            double sum = 0.0d;
+            for (int column = 0; column < size; column++) {
+                sum += matrix[offset + column] * x[column];
+            }
+            result[row] = sum;
+        }
+    }
+}
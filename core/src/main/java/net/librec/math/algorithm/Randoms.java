@@ -23,14 +23,29 @@ import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.VectorBasedDenseVector;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Random numbers drawn from one shared generator, or from a generator of the current thread if one is set by
+ * {@link #setThreadGenerator(Random)}, e.g. for jobs running side by side that must not draw from each other's
+ * sequence.
+ *
  * @author Guo Guibing and Keqiang Wang
  */
 public class Randoms {
     private static Random r = new Random(System.currentTimeMillis());
 
-    private static List<Object> _tempList = new ArrayList<>();
+    /**
+     * generators of the threads drawing from their own
+     */
+    private static final ThreadLocal<Random> threadGenerators = new ThreadLocal<>();
+
+    /**
+     * number of threads with a generator of their own, the thread-local lookup is skipped while zero
+     */
+    private static final AtomicInteger numThreadGenerators = new AtomicInteger();
+
+    private static final ThreadLocal<List<Object>> _tempList = ThreadLocal.withInitial(ArrayList::new);
 
     /**
      * Random generate an integer in [0, range)
@@ -43,7 +58,53 @@ public class Randoms {
     }
 
     public static void seed(long seed) {
-        r = new Random(seed);
+        setGenerator(new Random(seed));
+    }
+
+    /**
+     * @return the generator of all random numbers drawn here by the current thread, e.g. to save its state
+     */
+    public static Random getGenerator() {
+        if (numThreadGenerators.get() > 0) {
+            Random generator = threadGenerators.get();
+            if (generator != null) {
+                return generator;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Draw all further random numbers from the given generator, e.g. one saved before. Only the generator of
+     * the current thread is replaced if it has one.
+     *
+     * @param generator the generator to draw from
+     */
+    public static void setGenerator(Random generator) {
+        if (numThreadGenerators.get() > 0 && threadGenerators.get() != null) {
+            threadGenerators.set(generator);
+        } else {
+            r = generator;
+        }
+    }
+
+    /**
+     * Draw the random numbers of the current thread from a generator of its own instead of the shared one.
+     * Seeding or setting the generator then only affects the current thread. Threads started by the current
+     * thread, e.g. of parallel streams, still draw from the shared generator.
+     *
+     * @param generator generator of the current thread, null to draw from the shared generator again
+     */
+    public static void setThreadGenerator(Random generator) {
+        boolean hadGenerator = threadGenerators.get() != null;
+        if (generator == null) {
+            threadGenerators.remove();
+        } else {
+            threadGenerators.set(generator);
+        }
+        if (hadGenerator != (generator != null)) {
+            numThreadGenerators.addAndGet(hadGenerator ? -1 : 1);
+        }
     }
 
     /**
@@ -54,7 +115,7 @@ public class Randoms {
      * @return an integer random generated in [min, max)
      */
     public static int uniform(int min, int max) {
-        return min + r.nextInt(max - min);
+        return min + getGenerator().nextInt(max - min);
     }
 
     /**
@@ -126,7 +187,7 @@ public class Randoms {
      * @return Random (uniformly distributed) double in [min, max)
      */
     public static double uniform(double min, double max) {
-        return min + (max - min) * r.nextDouble();
+        return min + (max - min) * getGenerator().nextDouble();
     }
 
     /**
@@ -156,7 +217,7 @@ public class Randoms {
      * @return a real number from a Gaussian distribution with given mean and stddev
      */
     public static double gaussian(double mu, double sigma) {
-        return mu + sigma * r.nextGaussian();
+        return mu + sigma * getGenerator().nextGaussian();
     }
 
     /**
@@ -181,18 +242,18 @@ public class Randoms {
         if (alpha < 1.0) {
             b = 1.0 + 0.36788794412 * alpha; // Step 1
             while (true) {
-                double p = b * r.nextDouble();
+                double p = b * getGenerator().nextDouble();
                 // Step 2. Case gds <= 1
                 if (p <= 1.0) {
                     gds = Math.exp(Math.log(p) / alpha);
-                    if (Math.log(r.nextDouble()) <= -gds) {
+                    if (Math.log(getGenerator().nextDouble()) <= -gds) {
                         return gds / rate;
                     }
                 }
                 // Step 3. Case gds > 1
                 else {
                     gds = -Math.log((b - p) / alpha);
-                    if (Math.log(r.nextDouble()) <= ((alpha - 1.0) * Math.log(gds))) {
+                    if (Math.log(getGenerator().nextDouble()) <= ((alpha - 1.0) * Math.log(gds))) {
                         return gds / rate;
                     }
                 }
@@ -217,8 +278,8 @@ public class Randoms {
             double v1;
 
             do {
-                v1 = 2.0 * r.nextDouble() - 1.0;
-                double v2 = 2.0 * r.nextDouble() - 1.0;
+                v1 = 2.0 * getGenerator().nextDouble() - 1.0;
+                double v2 = 2.0 * getGenerator().nextDouble() - 1.0;
                 v12 = v1 * v1 + v2 * v2;
             } while (v12 > 1.0);
 
@@ -230,7 +291,7 @@ public class Randoms {
                 return gds / rate;
             }
 
-            double u = r.nextDouble();
+            double u = getGenerator().nextDouble();
             if (d * u <= t * t * t) { // Squeeze acceptance
                 return gds / rate;
             }
@@ -317,8 +378,8 @@ public class Randoms {
                 double sign_u;
                 double e;
                 do { // Step 9. Rejection of t
-                    e = -Math.log(r.nextDouble());
-                    u = r.nextDouble();
+                    e = -Math.log(getGenerator().nextDouble());
+                    u = getGenerator().nextDouble();
                     u = u + u - 1.0;
                     sign_u = (u > 0) ? 1.0 : -1.0;
                     t = b + (e * si) * sign_u;
@@ -520,14 +581,14 @@ public class Randoms {
     public static int nextInt(int min, int max, int... exceptions) {
         int next;
         while (true) {
-            next = min + r.nextInt(max - min);
+            next = min + getGenerator().nextInt(max - min);
             if (exceptions != null && exceptions.length > 0 && Arrays.binarySearch(exceptions, next) >= 0) {
                 continue;
             }
-            if (_tempList.contains(next))
+            if (_tempList.get().contains(next))
                 continue;
             else {
-                _tempList.add(next);
+                _tempList.get().add(next);
                 break;
             }
         }
@@ -562,7 +623,7 @@ public class Randoms {
     }
 
     public static void clearCache() {
-        _tempList.clear();
+        _tempList.get().clear();
     }
 
     /**
@@ -620,7 +681,7 @@ public class Randoms {
         Set<Integer> ints = new HashSet();
 
         while (true) {
-            int rand = min + r.nextInt(max - min);
+            int rand = min + getGenerator().nextInt(max - min);
             ints.add(rand);
 
             if (ints.size() >= length)
@@ -648,7 +709,7 @@ public class Randoms {
         int sum = 0;
         for (int i = 0; i < pros.length; i++) {
             //avoid zero
-            pros[i] = r.nextInt(size) + 1;
+            pros[i] = getGenerator().nextInt(size) + 1;
             sum += pros[i];
         }
 
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import com.google.common.collect.Table;
+import it.unimi.dsi.fastutil.Arrays;
+
+import java.util.stream.IntStream;
+
+/**
+ * Read-only, primitive copy of a {@link SymmMatrix}.
+ * <p>
+ * Both triangles are stored in compressed sparse row layout with the column
+ * indices of every row sorted ascending, so a row can be scanned without
+ * boxing and a single cell is found by binary search.
+ */
+public class CompactSymmMatrix {
+
+    /**
+     * matrix dimension
+     */
+    private final int dim;
+
+    /**
+     * start position of each row, length dim + 1
+     */
+    private final int[] rowPtr;
+
+    /**
+     * column index of each stored entry, sorted within a row
+     */
+    private final int[] colIdx;
+
+    /**
+     * value of each stored entry
+     */
+    private final double[] values;
+
+    /**
+     * Construct a compact copy of the given symmetric matrix.
+     *
+     * @param symmMatrix a given symmetric matrix
+     */
+    public CompactSymmMatrix(SymmMatrix symmMatrix) {
+        dim = symmMatrix.getDim();
+        Table<Integer, Integer, Double> data = symmMatrix.getData();
+
+        int[] rowCounts = new int[dim + 1];
+        for (Table.Cell<Integer, Integer, Double> cell : data.cellSet()) {
+            int row = cell.getRowKey();
+            int col = cell.getColumnKey();
+            rowCounts[row + 1]++;
+            if (row != col) {
+                rowCounts[col + 1]++;
+            }
+        }
+        rowPtr = new int[dim + 1];
+        for (int row = 0; row < dim; row++) {
+            rowPtr[row + 1] = rowPtr[row] + rowCounts[row + 1];
+        }
+
+        colIdx = new int[rowPtr[dim]];
+        values = new double[rowPtr[dim]];
+        int[] fill = new int[dim];
+        System.arraycopy(rowPtr, 0, fill, 0, dim);
+        for (Table.Cell<Integer, Integer, Double> cell : data.cellSet()) {
+            int row = cell.getRowKey();
+            int col = cell.getColumnKey();
+            double val = cell.getValue();
+            colIdx[fill[row]] = col;
+            values[fill[row]++] = val;
+            if (row != col) {
+                colIdx[fill[col]] = row;
+                values[fill[col]++] = val;
+            }
+        }
+
+        IntStream.range(0, dim).parallel().forEach(this::sortRow);
+    }
+
+    /**
+     * Sort a row by column index, keeping values aligned.
+     *
+     * @param row row index
+     */
+    private void sortRow(int row) {
+        Arrays.quickSort(rowPtr[row], rowPtr[row + 1],
+                (left, right) -> Integer.compare(colIdx[left], colIdx[right]),
+                (left, right) -> {
+                    int swapCol = colIdx[left];
+                    colIdx[left] = colIdx[right];
+                    colIdx[right] = swapCol;
+                    double swapVal = values[left];
+                    values[left] = values[right];
+                    values[right] = swapVal;
+                });
+    }
+
+    /**
+     * Get a value at entry (row, col)
+     *
+     * @param row row index
+     * @param col column index
+     * @return value at entry (row, col), 0 if absent
+     */
+    public double get(int row, int col) {
+        int low = rowPtr[row], high = rowPtr[row + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midCol = colIdx[mid];
+            if (midCol < col) {
+                low = mid + 1;
+            } else if (midCol > col) {
+                high = mid - 1;
+            } else {
+                return values[mid];
+            }
+        }
+        return 0.0d;
+    }
+
+    /**
+     * @param row row index
+     * @return the position of the first entry of the row
+     */
+    public int rowStart(int row) {
+        return rowPtr[row];
+    }
+
+    /**
+     * @param row row index
+     * @return the position after the last entry of the row
+     */
+    public int rowEnd(int row) {
+        return rowPtr[row + 1];
+    }
+
+    /**
+     * @param position entry position
+     * @return column index at the given position
+     */
+    public int columnAt(int position) {
+        return colIdx[position];
+    }
+
+    /**
+     * @param position entry position
+     * @return value at the given position
+     */
+    public double valueAt(int position) {
+        return values[position];
+    }
+
+    /**
+     * @return the dim
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * @return the number of stored entries, counting both triangles
+     */
+    public int getNumEntries() {
+        return colIdx.length;
+    }
+}
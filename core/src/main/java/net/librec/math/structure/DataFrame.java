@@ -30,6 +30,7 @@ import net.librec.math.structure.DataFrameIndex;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Data Structure: DataFrame
@@ -323,13 +324,11 @@ public class DataFrame implements Serializable, DataSet{
      * @return SparseTensor
      */
     public SparseTensor toSparseTensor(int[] indicesColumn, int valueColumn){
-        List<Double> rating = new ArrayList<>();
-        List<Integer>[] nDKeys = (List<Integer>[]) new List<?>[indicesColumn.length];
+        int[][] nDKeys = new int[indicesColumn.length][];
         int[] dims = new int[indicesColumn.length];
         int userDimension = -1;
         int itemDimension = -1;
         for (int d = 0; d < indicesColumn.length ; d ++){
-            nDKeys[d] = new ArrayList<>(getData().get(indicesColumn[d]).size());
             dims[d] = getInnerMapping(header.get(indicesColumn[d])).size();
 
             if (Objects.equals(header.get(indicesColumn[d]), "user")){
@@ -340,15 +339,25 @@ public class DataFrame implements Serializable, DataSet{
             }
         }
 
-        for (int d = 0; d<indicesColumn.length; d++){
-            for (Object s: getData().get(indicesColumn[d])){
-                nDKeys[d].add((Integer)s);
+        // unbox every column into a primitive array, one column per task
+        int numEntries = size();
+        double[] rating = new double[numEntries];
+        IntStream.rangeClosed(0, indicesColumn.length).parallel().forEach(d -> {
+            if (d < indicesColumn.length) {
+                nDKeys[d] = new int[numEntries];
+                List<Object> column = getData().get(indicesColumn[d]);
+                for (int index = 0; index < numEntries; index++) {
+                    nDKeys[d][index] = (Integer) column.get(index);
+                }
+            } else if (valueColumn >= 0) {
+                List<Object> column = getData().get(valueColumn);
+                for (int index = 0; index < numEntries; index++) {
+                    rating[index] = (Double) column.get(index);
+                }
+            } else {
+                Arrays.fill(rating, 1.0d);
             }
-        }
-
-        for (Object s: getData().get(valueColumn)){
-            rating.add((Double) s);
-        }
+        });
 
         SparseTensor tensor = new SparseTensor(dims, nDKeys, rating);
         if (userDimension != -1){
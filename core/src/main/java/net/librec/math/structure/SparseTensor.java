@@ -18,21 +18,29 @@
 package net.librec.math.structure;
 
 import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Table;
-import net.librec.math.algorithm.Randoms;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Data Structure: Sparse Tensor <br>
  * <p>
  * For easy documentation, here we use {@code (keys, value)} to indicate each entry of a tensor, and {@code index} is
- * used to indicate the position in which the entry is stored in the lists.
+ * used to indicate the position in which the entry is stored in the arrays.
+ * </p>
+ * <p>
+ * The keys of every dimension and the values are stored in primitive arrays, and the entries are kept sorted
+ * lexicographically by their keys, so an entry or all entries sharing leading keys are found by binary search. For
+ * the other access paths, every dimension d can be indexed by a compressed sparse fiber (CSF) index: the entries
+ * ordered by their key in d and then by the remaining keys, with a pointer to the first entry of every key of d.
+ * The indices are built on demand and dropped when entries are inserted or removed. Inserting or removing a single
+ * entry shifts the arrays, so tensors of many entries are built with a {@link Builder}.
  * </p>
  * <Strong>Reference:</strong> Kolda and Bader, <strong>Tensor Decompositions and Applications</strong>, SIAM REVIEW,
  * Vol. 51, No. 3, pp. 455–500
@@ -48,10 +56,10 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     private class TensorIterator implements Iterator<TensorEntry> {
 
         private int index = 0;
-        private SparseTensorEntry entry = new SparseTensorEntry();
+        private SparseTensorEntry entry = new SparseTensorEntry(this);
 
         public boolean hasNext() {
-            return index < values.size();
+            return index < size;
         }
 
         public TensorEntry next() {
@@ -68,36 +76,38 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
 
         private int index = -1;
 
+        /**
+         * iterator visiting the entry, stepped back when the entry is removed
+         */
+        private final TensorIterator iterator;
+
+        public SparseTensorEntry(TensorIterator iterator) {
+            this.iterator = iterator;
+        }
+
         public SparseTensorEntry update(int index) {
             this.index = index;
             return this;
         }
 
         public int key(int d) {
-            return ndKeys[d].get(index);
+            return ndKeys[d][index];
         }
 
         public double get() {
-            return values.get(index);
+            return values[index];
         }
 
         public void set(double value) {
-            values.set(index, value);
+            values[index] = value;
         }
 
         /**
          * remove the current entry
          */
         public void remove() {
-            for (int d = 0; d < numDimensions; d++) {
-
-                // update indices if necessary
-                if (isIndexed(d))
-                    keyIndices[d].remove(key(d), index);
-
-                ndKeys[d].remove(index);
-            }
-            values.remove(index);
+            removeAt(index);
+            iterator.index--;
         }
 
         public String toString() {
@@ -111,12 +121,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         }
 
         public int[] keys() {
-            int[] res = new int[numDimensions];
-            for (int d = 0; d < numDimensions; d++) {
-                res[d] = key(d);
-            }
-
-            return res;
+            return SparseTensor.this.keys(index);
         }
 
     }
@@ -132,30 +137,25 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public int[] dimensions;
 
     /**
-     * n-dimensional array, n-dimensional keys, length = data cardinality
+     * ndKeys[d][index]: key in dimension d of an entry, entries sorted lexicographically by their keys
      */
-    public List<Integer>[] ndKeys;
+    private int[][] ndKeys;
 
     /**
-     * data values, length  =  data cardinality
+     * data values of the entries
      */
-    public List<Double> values;
+    private double[] values;
 
     /**
-     * the index of each dimension, each multimap = {key, {pos1, pos2, ...}}, something like inverted index
+     * number of entries
      */
-    private Multimap<Integer, Integer>[] keyIndices;
+    private int size;
 
     /**
-     * the indexed dimension list in keyIndices
+     * CSF index of every dimension d, null if not built: entries fiberPositions[d][fiberPointers[d][k]] ~
+     * fiberPositions[d][fiberPointers[d][k + 1] - 1] have key k in d, in the order of their remaining keys
      */
-    private List<Integer> indexedDimensions; // indexed dimensions
-
-    /**
-     * the indexed dimension set in keyIndices
-     */
-    private Set<Integer> indexedDimensionsSet;// indexed dimensionsSet
-
+    private transient int[][] fiberPointers, fiberPositions;
 
     /**
      * user and item dimension in this tensor
@@ -168,7 +168,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @param dims dimensions of a tensor
      */
     public SparseTensor(int... dims) {
-        this(dims, null, null);
+        this(dims, new int[dims.length][0], new double[0]);
     }
 
     /**
@@ -178,46 +178,62 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @param nds  n-dimensional keys
      * @param vals entry values
      */
-    @SuppressWarnings("unchecked")
     public SparseTensor(int[] dims, List<Integer>[] nds, List<Double> vals) {
+        this(dims, toArrays(dims.length, nds, vals), toArray(vals));
+    }
+
+    /**
+     * Construct a sparse tensor from arrays of keys and values, which are taken over and sorted in parallel. Entries
+     * of equal keys keep their order.
+     *
+     * @param dims dimensions of a tensor
+     * @param nds  nds[d][index]: key in dimension d of every entry
+     * @param vals entry values
+     */
+    public SparseTensor(int[] dims, int[][] nds, double[] vals) {
         if (dims.length < 3)
             throw new Error("The dimension of a tensor cannot be smaller than 3!");
 
         numDimensions = dims.length;
-        dimensions = new int[numDimensions];
-
-        ndKeys = (List<Integer>[]) new List<?>[numDimensions];
-        keyIndices = (Multimap<Integer, Integer>[]) new Multimap<?, ?>[numDimensions];
+        dimensions = Arrays.copyOf(dims, numDimensions);
+        ndKeys = nds;
+        values = vals;
+        size = vals.length;
+        sortEntries();
+        clearIndices();
+    }
 
-        for (int d = 0; d < numDimensions; d++) {
-            dimensions[d] = dims[d];
-            ndKeys[d] = nds == null ? new ArrayList<Integer>() : new ArrayList<Integer>(nds[d]);
-            keyIndices[d] = HashMultimap.create();
-            //System.out.println(keyIndices[d]);
+    @SuppressWarnings("unchecked")
+    private static int[][] toArrays(int numDimensions, List<Integer>[] nds, List<Double> vals) {
+        int numEntries = vals == null ? 0 : vals.size();
+        int[][] keys = new int[numDimensions][numEntries];
+        if (nds != null) {
+            for (int d = 0; d < numDimensions; d++) {
+                for (int index = 0; index < numEntries; index++) {
+                    keys[d][index] = nds[d].get(index);
+                }
+            }
         }
+        return keys;
+    }
 
-        values = vals == null ? new ArrayList<Double>() : new ArrayList<Double>(vals);
-        indexedDimensions = new ArrayList<Integer>(numDimensions);
-        indexedDimensionsSet = new HashSet<Integer>((int) (numDimensions / 0.7));
+    private static double[] toArray(List<Double> vals) {
+        double[] values = new double[vals == null ? 0 : vals.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = vals.get(index);
+        }
+        return values;
     }
 
     /**
      * make a deep clone
      */
     public SparseTensor clone() {
-        SparseTensor res = new SparseTensor(dimensions);
-
-        // copy indices and values
+        int[][] keys = new int[numDimensions][];
         for (int d = 0; d < numDimensions; d++) {
-            res.ndKeys[d].addAll(this.ndKeys[d]);
-            res.keyIndices[d].putAll(this.keyIndices[d]);
+            keys[d] = Arrays.copyOf(ndKeys[d], size);
         }
-
-        res.values.addAll(this.values);
-
-        // copy indexed array
-        res.indexedDimensions.addAll(this.indexedDimensions);
-        res.indexedDimensionsSet.addAll(this.indexedDimensionsSet);
+        SparseTensor res = new SparseTensor(dimensions, keys, Arrays.copyOf(values, size));
 
         // others
         res.userDimension = userDimension;
@@ -234,15 +250,15 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @throws Exception if error occurs during adding
      */
     public void add(double val, int... keys) throws Exception {
+        checkKeys(keys);
+        int index = lowerBound(keys, numDimensions, 0, size);
 
-        int index = findIndex(keys);
-
-        if (index >= 0) {
+        if (index < size && compareTo(index, keys, numDimensions) == 0) {
             // if keys exist: update value
-            values.set(index, values.get(index) + val);
+            values[index] += val;
         } else {
             // if keys do not exist: plus a new entry
-            set(val, keys);
+            insertAt(index, val, keys);
         }
     }
 
@@ -254,27 +270,17 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @throws Exception if error occurs during setting
      */
     public void set(double val, int... keys) throws Exception {
-        int index = findIndex(keys);
+        checkKeys(keys);
+        int index = lowerBound(keys, numDimensions, 0, size);
 
         // if i-entry exists, set it a new value
-        if (index >= 0) {
-            values.set(index, val);
+        if (index < size && compareTo(index, keys, numDimensions) == 0) {
+            values[index] = val;
             return;
         }
 
         // otherwise insert a new entry
-        for (int d = 0; d < numDimensions; d++) {
-            ndKeys[d].add(keys[d]);
-
-            // update indices if necessary
-            if (isIndexed(d)) {
-                keyIndices[d].put(keys[d], ndKeys[d].size() - 1);
-
-                // other keys' indices do not change
-            }
-        }
-        values.add(val);
-
+        insertAt(index, val, keys);
     }
 
     /**
@@ -291,16 +297,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if (index < 0)
             return false;
 
-        for (int d = 0; d < numDimensions; d++) {
-            ndKeys[d].remove(index);
-
-            // update indices if necessary
-            if (isIndexed(d)) {
-                buildIndex(d); // re-build indices
-            }
-        }
-        values.remove(index);
-
+        removeAt(index);
         return true;
     }
 
@@ -313,11 +310,31 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      */
     public List<Integer> getIndices(int user, int item) {
         List<Integer> res = new ArrayList<Integer>();
+        if (user >= fiberPointers(userDimension).length - 1) {
+            return res;
+        }
 
-        Collection<Integer> indices = getIndex(userDimension, user);
-        for (int index : indices) {
-            if (key(itemDimension, index) == item) {
-                res.add(index);
+        int start = fiberPointers[userDimension][user], end = fiberPointers[userDimension][user + 1];
+        int[] positions = fiberPositions[userDimension];
+        if (itemDimension == firstRemainingDimension(userDimension)) {
+            // the entries of the user are ordered by item
+            int low = start, high = end;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ndKeys[itemDimension][positions[middle]] < item) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int position = low; position < end && ndKeys[itemDimension][positions[position]] == item; position++) {
+                res.add(positions[position]);
+            }
+        } else {
+            for (int position = start; position < end; position++) {
+                if (ndKeys[itemDimension][positions[position]] == item) {
+                    res.add(positions[position]);
+                }
             }
         }
 
@@ -331,36 +348,25 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @throws Exception if error occurs during getting
      */
     public List<Integer> getTargetKeyFromSubKey(Integer[] subKey) throws Exception {
-        List<Integer> res = new ArrayList<Integer>();
         if (subKey.length != numDimensions - 1)
             throw new Exception("The given input does not match with the subKey dimension!");
         // if no data exists
-        if (values.size() == 0)
+        if (size == 0)
             return null;
 
-        // if no indexed dimension exists
-        if (indexedDimensions.size() == 0)
-            buildIndex(0);
-
-        // retrieve from the first indexed dimension
-        int d = indexedDimensions.get(0);
-
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(subKey[d]);
-        if (indices == null || indices.size() == 0)
+        // the entries sharing the leading keys are contiguous
+        int[] prefix = new int[subKey.length];
+        for (int d = 0; d < prefix.length; d++) {
+            prefix[d] = subKey[d];
+        }
+        int start = lowerBound(prefix, prefix.length, 0, size);
+        int end = upperBound(prefix, prefix.length, start, size);
+        if (start == end)
             return null;
 
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0; dd < numDimensions - 1; dd++) {
-                if (subKey[dd] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found)
-                res.add(ndKeys[numDimensions - 1].get(index));
+        List<Integer> res = new ArrayList<Integer>(end - start);
+        for (int index = start; index < end; index++) {
+            res.add(ndKeys[numDimensions - 1][index]);
         }
 
         return res;
@@ -368,48 +374,21 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
 
 
     /**
-     * find the inner index of a given keys by the first indexed dimension index, i.e., indexedDimensions.get(0)
+     * find the inner index of a given keys by binary search
      *
      * @param keys a given keys
      * @throws Exception if error occurs during finding
      */
     private int findIndex(int... keys) throws Exception {
+        checkKeys(keys);
+
+        int index = lowerBound(keys, numDimensions, 0, size);
+        return index < size && compareTo(index, keys, numDimensions) == 0 ? index : -1;
+    }
 
+    private void checkKeys(int[] keys) throws Exception {
         if (keys.length != numDimensions)
             throw new Exception("The given input does not match with the tensor dimension!");
-
-        // if no data exists
-        if (values.size() == 0)
-            return -1;
-
-        // if no indexed dimension exists
-        if (indexedDimensions.size() == 0)
-            buildIndex(0);
-
-        // retrieve from the first indexed dimension
-        int d = indexedDimensions.get(0);
-
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(keys[d]);
-        if (indices == null || indices.size() == 0)
-            return -1;
-
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0; dd < numDimensions; dd++) {
-                if (keys[dd] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found)
-                return index;
-        }
-
-        // if not found
-        return -1;
-
     }
 
     /**
@@ -424,41 +403,22 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if ((keys.length != numDimensions - 1) || size() < 1)
             throw new Error("The input indices do not match the fiber specification!");
 
-        // find an indexed dimension for searching indices
-        int d = -1;
-        if ((indexedDimensions.size() == 0) || (indexedDimensionsSet.contains(dim) && indexedDimensionsSet.size() == 1)) {
-            d = (dim != 0 ? 0 : 1);
-            buildIndex(d);
-        } else {
-            for (int dd : indexedDimensions) {
-                if (dd != dim) {
-                    d = dd;
-                    break;
-                }
-            }
-        }
-
         RandomAccessSparseVector res = new RandomAccessSparseVector(dimensions[dim]);
 
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(keys[d < dim ? d : d - 1]);
-        if (indices == null || indices.size() == 0)
-            return res;
-
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0, ndi = 0; dd < numDimensions; dd++) {
+        // the fixed keys in dimension order
+        int[] fixed = new int[numDimensions];
+        for (int d = 0, ndi = 0; d < numDimensions; d++) {
+            fixed[d] = d == dim ? -1 : keys[ndi++];
+        }
 
-                if (dd == dim)
-                    continue;
+        // search the CSF index of a fixed dimension
+        int d = dim != 0 ? 0 : 1;
+        if (fixed[d] >= fiberPointers(d).length - 1)
+            return res;
 
-                if (keys[ndi++] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found) {
+        for (int position = fiberPointers[d][fixed[d]]; position < fiberPointers[d][fixed[d] + 1]; position++) {
+            int index = fiberPositions[d][position];
+            if (matches(index, fixed, dim)) {
                 res.set(key(dim, index), value(index));
             }
         }
@@ -484,7 +444,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return whether a dimension d is indexed
      */
     public boolean isIndexed(int d) {
-        return indexedDimensionsSet.contains(d);
+        return fiberPositions[d] != null;
     }
 
     /**
@@ -504,13 +464,11 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return whether a tensor is diagonal
      */
     public boolean isDiagonal() {
-        for (TensorEntry te : this) {
-            double val = te.get();
-            if (val != 0) {
-                int i = te.key(0);
+        for (int index = 0; index < size; index++) {
+            if (values[index] != 0) {
+                int i = ndKeys[0][index];
                 for (int d = 0; d < numDimensions; d++) {
-                    int j = te.key(d);
-                    if (i != j)
+                    if (i != ndKeys[d][index])
                         return false;
                 }
             }
@@ -530,60 +488,35 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         assert keys.length == this.numDimensions;
 
         int index = findIndex(keys);
-        return index < 0 ? 0 : values.get(index);
+        return index < 0 ? 0 : values[index];
     }
 
     /**
-     * Shuffle a sparse tensor
-     */
-    public void shuffle() {
-        int len = size();
-        for (int i = 0; i < len; i++) {
-            // target index
-            int j = i + Randoms.uniform(len - i);
-
-            // swap values
-            double temp = values.get(i);
-            values.set(i, values.get(j));
-            values.set(j, temp);
-
-            // swap keys
-            for (int d = 0; d < numDimensions; d++) {
-                int ikey = key(d, i);
-                int jkey = key(d, j);
-                ndKeys[d].set(i, jkey);
-                ndKeys[d].set(j, ikey);
-
-                // update indices
-                if (isIndexed(d)) {
-                    keyIndices[d].remove(jkey, j);
-                    keyIndices[d].put(jkey, i);
-
-                    keyIndices[d].remove(ikey, i);
-                    keyIndices[d].put(ikey, j);
-                }
-
-            }
-
-        }
-    }
-
-    /**
-     * build index at dimensions nd
+     * build the CSF indices of dimensions
      *
      * @param dims dimensions to be indexed
      */
     public void buildIndex(int... dims) {
         for (int d : dims) {
-            keyIndices[d].clear();
-            for (int index = 0; index < ndKeys[d].size(); index++) {
-                keyIndices[d].put(key(d, index), index);
+            // a stable counting sort of the sorted entries by their key in d
+            int numKeys = dimensions[d];
+            for (int index = 0; index < size; index++) {
+                numKeys = Math.max(numKeys, ndKeys[d][index] + 1);
             }
-
-            if (!indexedDimensionsSet.contains(d)) {
-                indexedDimensions.add(d);
-                indexedDimensionsSet.add(d);
+            int[] pointers = new int[numKeys + 1];
+            for (int index = 0; index < size; index++) {
+                pointers[ndKeys[d][index] + 1]++;
+            }
+            for (int key = 0; key < numKeys; key++) {
+                pointers[key + 1] += pointers[key];
+            }
+            int[] positions = new int[size];
+            int[] fill = Arrays.copyOf(pointers, numKeys);
+            for (int index = 0; index < size; index++) {
+                positions[fill[ndKeys[d][index]]++] = index;
             }
+            fiberPositions[d] = positions;
+            fiberPointers[d] = pointers;
         }
     }
 
@@ -604,10 +537,21 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return indices (positions) of a key in dimension d
      */
     public Collection<Integer> getIndex(int d, int key) {
-        if (!isIndexed(d))
-            buildIndex(d);
+        return IntArrayList.wrap(positions(d, key));
+    }
 
-        return keyIndices[d].get(key);
+    /**
+     * Return the indices (positions) of the entries of a key in dimension d, in the order of their other keys.
+     *
+     * @param d   dimension
+     * @param key key value
+     * @return indices (positions) of a key in dimension d
+     */
+    public int[] positions(int d, int key) {
+        if (key < 0 || key >= fiberPointers(d).length - 1)
+            return new int[0];
+
+        return Arrays.copyOfRange(fiberPositions[d], fiberPointers[d][key], fiberPointers[d][key + 1]);
     }
 
     /**
@@ -619,7 +563,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public int[] keys(int index) {
         int[] res = new int[numDimensions];
         for (int d = 0; d < numDimensions; d++) {
-            res[d] = key(d, index);
+            res[d] = ndKeys[d][index];
         }
 
         return res;
@@ -633,7 +577,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return key in the position {@code index} of dimension {@code d}
      */
     public int key(int d, int index) {
-        return ndKeys[d].get(index);
+        return ndKeys[d][index];
     }
 
     /**
@@ -643,7 +587,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return value in a given index
      */
     public double value(int index) {
-        return values.get(index);
+        return values[index];
     }
 
     /**
@@ -655,13 +599,10 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return keys in a target dimension {@code td} related with a key in dimension {@code sd}
      */
     public List<Integer> getRelevantKeys(int sd, int key, int td) {
-        Collection<Integer> indices = getIndex(sd, key);
-        List<Integer> res = null;
-        if (indices != null) {
-            res = new ArrayList<Integer>();
-            for (int index : indices) {
-                res.add(key(td, index));
-            }
+        int[] indices = positions(sd, key);
+        List<Integer> res = new ArrayList<Integer>(indices.length);
+        for (int index : indices) {
+            res.add(ndKeys[td][index]);
         }
 
         return res;
@@ -671,7 +612,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return number of entries of the tensor
      */
     public int size() {
-        return values.size();
+        return size;
     }
 
     /**
@@ -687,73 +628,31 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if (otherKeys.length != numDimensions - 2)
             throw new Error("The input dimensions do not match the tensor specification!");
 
-        // find an indexed array to search
+        // the fixed keys in dimension order
+        int[] fixed = new int[numDimensions];
         int d = -1;
-        boolean cond1 = indexedDimensions.size() == 0;
-        boolean cond2 = (indexedDimensionsSet.contains(rowDim) || indexedDimensionsSet.contains(colDim))
-                && indexedDimensions.size() == 1;
-        boolean cond3 = indexedDimensionsSet.contains(rowDim) && indexedDimensionsSet.contains(colDim)
-                && indexedDimensions.size() == 2;
-        if (cond1 || cond2 || cond3) {
-            for (d = 0; d < numDimensions; d++) {
-                if (d != rowDim && d != colDim)
-                    break;
-            }
-            buildIndex(d);
-        } else {
-            for (int dd : indexedDimensions) {
-                if (dd != rowDim && dd != colDim) {
-                    d = dd;
-                    break;
-                }
-            }
-        }
-
-        // get search key
-        int key = -1;
         for (int dim = 0, i = 0; dim < numDimensions; dim++) {
-            if (dim == rowDim || dim == colDim)
+            if (dim == rowDim || dim == colDim) {
+                fixed[dim] = -1;
                 continue;
-
-            if (dim == d) {
-                key = otherKeys[i];
-                break;
             }
-            i++;
+            fixed[dim] = otherKeys[i++];
+            if (d < 0) {
+                d = dim;
+            }
         }
 
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(key);
-        if (indices == null || indices.size() == 0)
+        // search the CSF index of the first fixed dimension
+        if (fixed[d] >= fiberPointers(d).length - 1 || fiberPointers[d][fixed[d]] == fiberPointers[d][fixed[d] + 1])
             return null;
 
         Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0, j = 0; dd < numDimensions; dd++) {
-
-                if (dd == rowDim || dd == colDim)
-                    continue;
-
-                if (otherKeys[j++] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found) {
-                int row = ndKeys[rowDim].get(index);
-                int col = ndKeys[colDim].get(index);
-                double val = values.get(index);
-
-                dataTable.put(row, col, val);
+        for (int position = fiberPointers[d][fixed[d]]; position < fiberPointers[d][fixed[d] + 1]; position++) {
+            int index = fiberPositions[d][position];
+            if (matches(index, fixed, -1)) {
+                dataTable.put(ndKeys[rowDim][index], ndKeys[colDim][index], values[index]);
             }
         }
-//        System.out.println(dimensions[rowDim]+" "+dimensions[colDim]+" "+dataTable.cardinality());
-//        if(dataTable.cardinality()==0){
-//            System.exit(0);
-//        }
 
         return new SequentialAccessSparseMatrix(dimensions[rowDim], dimensions[colDim], dataTable);
     }
@@ -773,16 +672,14 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         }
 
         Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        for (TensorEntry te : this) {
-            int[] keys = te.keys();
-
-            int i = keys[n];
+        for (int index = 0; index < size; index++) {
+            int i = ndKeys[n][index];
             int j = 0;
             for (int k = 0; k < numDimensions; k++) {
                 if (k == n)
                     continue;
 
-                int ik = keys[k];
+                int ik = ndKeys[k][index];
                 int jk = 1;
                 for (int m = 0; m < k; m++) {
                     if (m == n)
@@ -793,7 +690,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
                 j += ik * jk;
             }
 
-            dataTable.put(i, j, te.get());
+            dataTable.put(i, j, values[index]);
         }
 
         return new SequentialAccessSparseMatrix(numRows, numCols, dataTable);
@@ -817,24 +714,17 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
             dims[i] = i == dim ? mat.rowSize() : dimensions[i];
         }
 
-        SparseTensor res = new SparseTensor(dims);
-
-        for (TensorEntry te : this) {
-            double val = te.get();
-            int[] keys = te.keys();
-
-            int i = keys[dim];
+        Builder builder = new Builder(dims);
+        for (int index = 0; index < size; index++) {
+            int[] ks = keys(index);
+            int i = ks[dim];
             for (int j = 0; j < mat.rowSize(); j++) {
-
-                int[] ks = new int[numDimensions];
-                for (int k = 0; k < ks.length; k++)
-                    ks[k] = k == dim ? j : keys[k];
-
-                res.add(val * mat.get(j, i), ks);
+                ks[dim] = j;
+                builder.add(values[index] * mat.get(j, i), ks);
             }
         }
 
-        return res;
+        return builder.build().sumDuplicates();
     }
 
     /**
@@ -855,42 +745,70 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
             dims[i] = i == dim ? 1 : dimensions[i];
         }
 
-        SparseTensor res = new SparseTensor(dims);
-
-        for (TensorEntry te : this) {
-            double val = te.get();
-            int[] keys = te.keys();
-
-            int i = keys[dim];
-
-            int[] ks = new int[numDimensions];
-            for (int k = 0; k < ks.length; k++)
-                ks[k] = k == dim ? 1 : keys[k];
-
-            res.add(val * vec.get(i), ks);
+        Builder builder = new Builder(dims);
+        for (int index = 0; index < size; index++) {
+            int[] ks = keys(index);
+            int i = ks[dim];
+            ks[dim] = 1;
+            builder.add(values[index] * vec.get(i), ks);
         }
 
-        return res;
+        return builder.build().sumDuplicates();
     }
 
     /**
      * retrieve a rating matrix from the tensor. Warning: it assumes there is at most one entry for each (user, item)
-     * pair.
+     * pair, otherwise the last one in key order is kept.
      *
      * @return a sparse rating matrix
      */
     public SequentialAccessSparseMatrix rateMatrix() {
+        return projection(userDimension, itemDimension);
+    }
 
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (TensorEntry te : this) {
-            int u = te.key(userDimension);
-            int i = te.key(itemDimension);
-
-            dataTable.put(u, i, te.get());
-        }
+    /**
+     * Project the entries of the tensor onto two dimensions, building the rows of the matrix directly from the CSF
+     * index of the row dimension. Of several entries of a (row, column) pair, the last one in key order is kept.
+     *
+     * @param rowDim row dimension
+     * @param colDim column dimension
+     * @return a sparse matrix
+     */
+    public SequentialAccessSparseMatrix projection(int rowDim, int colDim) {
+        int numRows = dimensions[rowDim], numCols = dimensions[colDim];
+        int[] pointers = fiberPointers(rowDim);
+        int[] positions = fiberPositions[rowDim];
+        boolean columnsSorted = colDim == firstRemainingDimension(rowDim);
+        VectorBasedSequentialSparseVector[] rowVectors = new VectorBasedSequentialSparseVector[numRows];
+        IntStream.range(0, numRows).parallel().forEach(row -> {
+            int start = row + 1 < pointers.length ? pointers[row] : 0;
+            int end = row + 1 < pointers.length ? pointers[row + 1] : 0;
+            int[] order = Arrays.copyOfRange(positions, start, end);
+            if (!columnsSorted) {
+                // stable by position, so the last entry of a column stays last
+                IntArrays.quickSort(order, (left, right) -> {
+                    int compare = Integer.compare(ndKeys[colDim][left], ndKeys[colDim][right]);
+                    return compare != 0 ? compare : Integer.compare(left, right);
+                });
+            }
+            int[] columns = new int[order.length];
+            double[] rowValues = new double[order.length];
+            int numEntries = 0;
+            for (int index : order) {
+                int column = ndKeys[colDim][index];
+                if (numEntries > 0 && columns[numEntries - 1] == column) {
+                    rowValues[numEntries - 1] = values[index];
+                } else {
+                    columns[numEntries] = column;
+                    rowValues[numEntries] = values[index];
+                    numEntries++;
+                }
+            }
+            rowVectors[row] = new VectorBasedSequentialSparseVector(numCols, Arrays.copyOf(columns, numEntries),
+                    Arrays.copyOf(rowValues, numEntries));
+        });
 
-        return new SequentialAccessSparseMatrix(dimensions[userDimension], dimensions[itemDimension], dataTable);
+        return new SequentialAccessSparseMatrix(new RowSequentialAccessSparseMatrix(numRows, numCols, rowVectors, true), true);
     }
 
     public Iterator<TensorEntry> iterator() {
@@ -903,8 +821,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public double norm() {
         double res = 0;
 
-        for (double val : values) {
-            res += val * val;
+        for (int index = 0; index < size; index++) {
+            res += values[index] * values[index];
         }
 
         return Math.sqrt(res);
@@ -916,8 +834,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public double mean() {
         double res = 0;
 
-        for (double val : values) {
-            res += val;
+        for (int index = 0; index < size; index++) {
+            res += values[index];
         }
 
         return res / size();
@@ -933,11 +851,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
             throw new Exception("The dimensions of two sparse tensors do not match!");
 
         double res = 0;
-        for (TensorEntry te : this) {
-            double v1 = te.get();
-            double v2 = st.get(te.keys());
-
-            res += v1 * v2;
+        for (int index = 0; index < size; index++) {
+            res += values[index] * st.get(keys(index));
         }
         return res;
     }
@@ -1000,7 +915,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("N-Dimension: ").append(numDimensions).append(", Size: ").append(size()).append("\n");
-        for (int index = 0; index < values.size(); index++) {
+        for (int index = 0; index < size; index++) {
             for (int d = 0; d < numDimensions; d++) {
                 sb.append(key(d, index)).append("\t");
             }
@@ -1010,6 +925,264 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         return sb.toString();
     }
 
+    /**
+     * @param d dimension
+     * @return the pointers of the CSF index of dimension d, built if needed
+     */
+    private int[] fiberPointers(int d) {
+        if (fiberPointers == null) {
+            clearIndices();
+        }
+        if (fiberPointers[d] == null) {
+            buildIndex(d);
+        }
+        return fiberPointers[d];
+    }
+
+    private void clearIndices() {
+        fiberPointers = new int[numDimensions][];
+        fiberPositions = new int[numDimensions][];
+    }
+
+    /**
+     * @param d dimension
+     * @return the dimension following d in the order of the remaining keys of its CSF index
+     */
+    private int firstRemainingDimension(int d) {
+        return d != 0 ? 0 : 1;
+    }
+
+    /**
+     * @return whether the entry has every fixed key, keys -1 and dimension skip are not checked
+     */
+    private boolean matches(int index, int[] fixed, int skip) {
+        for (int d = 0; d < numDimensions; d++) {
+            if (d != skip && fixed[d] >= 0 && ndKeys[d][index] != fixed[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the leading keys of an entry with the given keys.
+     */
+    private int compareTo(int index, int[] keys, int length) {
+        for (int d = 0; d < length; d++) {
+            int compare = Integer.compare(ndKeys[d][index], keys[d]);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the first index in [from, to) whose leading keys are not less than the given keys
+     */
+    private int lowerBound(int[] keys, int length, int from, int to) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareTo(middle, keys, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first index in [from, to) whose leading keys are greater than the given keys
+     */
+    private int upperBound(int[] keys, int length, int from, int to) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareTo(middle, keys, length) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sort the entries lexicographically by their keys, entries of equal keys keep their order.
+     */
+    private void sortEntries() {
+        boolean sorted = true;
+        for (int index = 1; index < size && sorted; index++) {
+            sorted = compareEntries(index - 1, index) <= 0;
+        }
+        if (sorted) {
+            return;
+        }
+
+        int[] order = new int[size];
+        for (int index = 0; index < size; index++) {
+            order[index] = index;
+        }
+        IntArrays.parallelQuickSort(order, (left, right) -> {
+            int compare = compareEntries(left, right);
+            return compare != 0 ? compare : Integer.compare(left, right);
+        });
+        for (int d = 0; d < numDimensions; d++) {
+            int[] keys = new int[size];
+            for (int index = 0; index < size; index++) {
+                keys[index] = ndKeys[d][order[index]];
+            }
+            ndKeys[d] = keys;
+        }
+        double[] sortedValues = new double[size];
+        for (int index = 0; index < size; index++) {
+            sortedValues[index] = values[order[index]];
+        }
+        values = sortedValues;
+    }
+
+    private int compareEntries(int index, int other) {
+        for (int d = 0; d < numDimensions; d++) {
+            int compare = Integer.compare(ndKeys[d][index], ndKeys[d][other]);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Merge the entries of equal keys into one entry of their summed value.
+     *
+     * @return this
+     */
+    private SparseTensor sumDuplicates() {
+        int numEntries = 0;
+        for (int index = 0; index < size; index++) {
+            if (numEntries > 0 && compareEntries(numEntries - 1, index) == 0) {
+                values[numEntries - 1] += values[index];
+            } else {
+                for (int d = 0; d < numDimensions; d++) {
+                    ndKeys[d][numEntries] = ndKeys[d][index];
+                }
+                values[numEntries] = values[index];
+                numEntries++;
+            }
+        }
+        size = numEntries;
+        clearIndices();
+        return this;
+    }
+
+    private void insertAt(int index, double val, int[] keys) {
+        if (size == values.length) {
+            int capacity = Math.max(16, 2 * size);
+            for (int d = 0; d < numDimensions; d++) {
+                ndKeys[d] = Arrays.copyOf(ndKeys[d], capacity);
+            }
+            values = Arrays.copyOf(values, capacity);
+        }
+        for (int d = 0; d < numDimensions; d++) {
+            System.arraycopy(ndKeys[d], index, ndKeys[d], index + 1, size - index);
+            ndKeys[d][index] = keys[d];
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = val;
+        size++;
+        clearIndices();
+    }
+
+    private void removeAt(int index) {
+        for (int d = 0; d < numDimensions; d++) {
+            System.arraycopy(ndKeys[d], index + 1, ndKeys[d], index, size - index - 1);
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        clearIndices();
+    }
+
+    /**
+     * Collects the entries of a tensor in primitive arrays; {@link #build()} sorts them once, in parallel.
+     */
+    public static class Builder {
+        private final int[] dimensions;
+        private int[][] keys;
+        private double[] values;
+        private int size;
+        private int userDimension, itemDimension;
+
+        /**
+         * @param dims dimensions of the tensor
+         */
+        public Builder(int... dims) {
+            dimensions = Arrays.copyOf(dims, dims.length);
+            keys = new int[dims.length][16];
+            values = new double[16];
+        }
+
+        /**
+         * @param userDimension user dimension of the tensor
+         * @return this
+         */
+        public Builder setUserDimension(int userDimension) {
+            this.userDimension = userDimension;
+            return this;
+        }
+
+        /**
+         * @param itemDimension item dimension of the tensor
+         * @return this
+         */
+        public Builder setItemDimension(int itemDimension) {
+            this.itemDimension = itemDimension;
+            return this;
+        }
+
+        /**
+         * Append an entry, entries of equal keys are all kept.
+         *
+         * @param val  entry value
+         * @param ks   n-dimensional keys
+         * @return this
+         */
+        public Builder add(double val, int... ks) {
+            if (size == values.length) {
+                for (int d = 0; d < keys.length; d++) {
+                    keys[d] = Arrays.copyOf(keys[d], 2 * size);
+                }
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            for (int d = 0; d < keys.length; d++) {
+                keys[d][size] = ks[d];
+            }
+            values[size++] = val;
+            return this;
+        }
+
+        /**
+         * @return number of entries appended
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the tensor of the entries appended
+         */
+        public SparseTensor build() {
+            int[][] ndKeys = new int[keys.length][];
+            for (int d = 0; d < keys.length; d++) {
+                ndKeys[d] = Arrays.copyOf(keys[d], size);
+            }
+            SparseTensor tensor = new SparseTensor(dimensions, ndKeys, Arrays.copyOf(values, size));
+            tensor.setUserDimension(userDimension);
+            tensor.setItemDimension(itemDimension);
+            return tensor;
+        }
+    }
+
     /**
      * Usage demonstration
      *
@@ -1110,11 +1283,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         for (TensorEntry te : st) {
             te.set(te.get() + 0.588);
         }
-        LOG.debug(String.format("Before shuffle: {}", st));
-
-        // shuffle
-        st.shuffle();
-        LOG.debug(String.format("After shuffle: {}", st));
+        LOG.debug(String.format("After update: {}", st));
 
         // new tensor: example given by the reference paper in (2.1)
         st = new SparseTensor(3, 4, 2);
@@ -21,7 +21,15 @@ import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvalStatistics;
+import net.librec.job.JobStatus;
+import net.librec.job.metrics.Meter;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
 import net.librec.job.progress.ProgressBar;
+import net.librec.job.progress.ProgressReporter;
+import net.librec.math.structure.DataSet;
+import net.librec.recommender.checkpoint.TrainingCheckpointer;
 import net.librec.recommender.item.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -70,7 +78,7 @@ public abstract class AbstractRecommender implements Recommender {
     /**
      * verbose
      */
-    protected static boolean verbose = true;
+    protected boolean verbose = true;
 
     /**
      * objective loss
@@ -92,6 +100,32 @@ public abstract class AbstractRecommender implements Recommender {
      */
     protected ProgressBar progressBar;
 
+    /**
+     * statistics of the current fold needed by the evaluators, computed in setup
+     */
+    protected EvalStatistics evalStatistics;
+
+    /**
+     * metrics of the job training the recommender
+     */
+    protected MetricRegistry metrics = MetricRegistry.DISABLED;
+
+    /**
+     * training iterations and the training samples they pass over, marked when checking for convergence
+     */
+    private Meter iterationMeter, sampleMeter;
+    private transient long numTrainSamples;
+
+    /**
+     * reporter of the progress of the job training the recommender, or null
+     */
+    private ProgressReporter progressReporter;
+
+    /**
+     * checkpoints of the training, or null if not enabled
+     */
+    private TrainingCheckpointer checkpointer;
+
     /**
      * user Mapping Data
      */
@@ -142,9 +176,42 @@ public abstract class AbstractRecommender implements Recommender {
      */
     public void train(RecommenderContext context) throws LibrecException {
         this.context = context;
+        metrics = MetricRegistry.of(context.getConf());
+        iterationMeter = metrics.meter("train.iterations", "train.model");
+        sampleMeter = metrics.meter("train.samples", "train.model");
+        progressReporter = context.getProgressReporter();
+        if (progressReporter != null) {
+            progressReporter.checkCancelled();
+        }
+        Timer.Context timing = metrics.timer("train.setup").time();
         setup();
+        timing.stop();
         LOG.info("Job Setup completed.");
-        trainModel();
+        if (progressReporter != null) {
+            JobStatus jobStatus = progressReporter.getJobStatus();
+            jobStatus.setMaxIterations(conf.getInt("rec.iterator.maximum", 0));
+            jobStatus.setIteration(0);
+            jobStatus.setLoss(Double.NaN);
+            progressReporter.checkCancelled();
+        }
+        DataSet trainDataSet = metrics.isEnabled() ? getDataModel().getTrainDataSet() : null;
+        numTrainSamples = trainDataSet == null ? 0L : trainDataSet.size();
+        timing = metrics.timer("train.model").time();
+        boolean completed = false;
+        try {
+            trainModel();
+            completed = true;
+        } finally {
+            if (checkpointer != null) {
+                if (completed) {
+                    checkpointer.complete();
+                } else {
+                    checkpointer.close();
+                }
+                checkpointer = null;
+            }
+        }
+        timing.stop();
         LOG.info("Job Train completed.");
         cleanup();
     }
@@ -205,6 +272,15 @@ public abstract class AbstractRecommender implements Recommender {
         return context.getDataModel();
     }
 
+    /**
+     * get the statistics of the current fold needed by the evaluators
+     *
+     * @return evaluation statistics, or null if not computed by this recommender
+     */
+    public EvalStatistics getEvalStatistics() {
+        return evalStatistics;
+    }
+
     /**
      * get Recommended List
      *
@@ -247,8 +323,22 @@ public abstract class AbstractRecommender implements Recommender {
      * @throws LibrecException if error occurs
      */
     protected boolean isConverged(int iter) throws LibrecException {
+        if (iterationMeter != null) {
+            iterationMeter.mark();
+            sampleMeter.mark(numTrainSamples);
+        }
         float delta_loss = (float) (lastLoss - loss);
 
+        if (progressReporter != null) {
+            JobStatus jobStatus = progressReporter.getJobStatus();
+            jobStatus.setIteration(iter);
+            jobStatus.setLoss(loss);
+            if (jobStatus.getMaxIterations() > 0) {
+                jobStatus.setTrainingProgress((double) iter / jobStatus.getMaxIterations());
+            }
+            progressReporter.checkCancelled();
+        }
+
         // print out debug info
         if (verbose) {
             String recName = getClass().getSimpleName();
@@ -266,7 +356,42 @@ public abstract class AbstractRecommender implements Recommender {
         return Math.abs(delta_loss) < 1e-5;
     }
 
+    /**
+     * Resume the training from its checkpoint if checkpoints are enabled, called by iterative recommenders
+     * before their first iteration. The state fields of the recommender are set to the checkpoint, see
+     * {@link TrainingCheckpointer}.
+     *
+     * @param firstIteration first iteration of a training from scratch
+     * @return the iteration to continue with
+     */
+    protected int restoreCheckpoint(int firstIteration) {
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+        checkpointer = TrainingCheckpointer.fromConfiguration(this, conf, getDataModel(), metrics);
+        return checkpointer == null ? firstIteration : checkpointer.restore(firstIteration);
+    }
+
+    /**
+     * Checkpoint the training if a checkpoint is due and stop it if the job was cancelled, called by
+     * iterative recommenders at the start of every iteration, when the state fields are consistent.
+     *
+     * @param iteration iteration about to start
+     */
+    protected void saveCheckpoint(int iteration) {
+        if (checkpointer != null) {
+            checkpointer.save(iteration);
+        }
+        if (progressReporter != null) {
+            progressReporter.checkCancelled();
+        }
+    }
+
     public void updateProgress(int currentPoint) {
+        if (progressReporter != null) {
+            progressReporter.getJobStatus().setTrainingProgress(currentPoint / 100.0);
+            progressReporter.checkCancelled();
+        }
         if (verbose) {
             conf.setInt("train.current.progress", currentPoint);
             progressBar.showBarByPoint(conf.getInt("train.current.progress"));
@@ -17,13 +17,20 @@
  */
 package net.librec.recommender;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleAVLTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleSortedMap;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
+import net.librec.recommender.item.RecommendedList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Factorization Machine Recommender
@@ -77,6 +84,37 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
      */
     protected int numFactors;
 
+    /**
+     * offset of every tensor dimension in the appender vector
+     */
+    protected int[] featureOffsets;
+
+    /**
+     * appender indices of all training entries, numDimensions consecutive indices per entry.
+     * Appender vectors are one-hot, so the indices fully describe them.
+     */
+    protected int[] trainFeatureIndices;
+
+    /**
+     * ratings of all training entries, aligned with trainFeatureIndices
+     */
+    protected double[] trainRatings;
+
+    /**
+     * per-thread appender indices for predictions from tensor keys
+     */
+    private ThreadLocal<int[]> featureBuffer;
+
+    /**
+     * per-thread factor sums for predictions from tensor keys
+     */
+    private ThreadLocal<double[]> factorSumBuffer;
+
+    /**
+     * context features of the ranking for users without training entries, built on first use
+     */
+    private volatile Int2DoubleSortedMap globalContextFeatures;
+
 
     /**
      * setup
@@ -88,12 +126,30 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         super.setup();
 
         // initialize the parameters of FM
+        p = 0;
+        featureOffsets = new int[trainTensor.numDimensions];
         for (int dim = 0; dim < trainTensor.numDimensions; dim++) {
+            featureOffsets[dim] = p;
             p += trainTensor.dimensions[dim]; // set the size of appender vectors
         }
         n = trainTensor.size(); // set the number of ratings
         numFactors = k = conf.getInt("rec.factor.number");
 
+        trainFeatureIndices = new int[n * numDimensions];
+        trainRatings = new double[n];
+        for (int dim = 0; dim < numDimensions; dim++) {
+            int offset = featureOffsets[dim];
+            for (int index = 0; index < n; index++) {
+                trainFeatureIndices[index * numDimensions + dim] = offset + trainTensor.key(dim, index);
+            }
+        }
+        for (int index = 0; index < n; index++) {
+            trainRatings[index] = trainTensor.value(index);
+        }
+
+        featureBuffer = ThreadLocal.withInitial(() -> new int[numDimensions]);
+        factorSumBuffer = ThreadLocal.withInitial(() -> new double[k]);
+
         // init all weight with zero
         w0 = 0;
         W = new VectorBasedDenseVector(p);
@@ -145,6 +201,64 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         return res;
     }
 
+    /**
+     * Predict the rating of a one-hot appender vector given by its active indices
+     * {@code featureIndices[from, from + numDimensions)}.
+     * <p>
+     * The 2-way interaction uses the O(k·n) identity
+     * sum_{i<j} &lt;v_i, v_j&gt; = 1/2 sum_f ((sum_i v_if)^2 - sum_i v_if^2).
+     * The per-factor sums sum_i v_if are left in {@code factorSums}, so the gradient of
+     * v_lf is {@code factorSums[f] - v_lf} without another pass over the features.
+     *
+     * @param featureIndices appender indices
+     * @param from           position of the first index of the entry
+     * @param factorSums     output, per-factor sums of the active features, length k
+     * @return predicted rating
+     */
+    protected double predict(int[] featureIndices, int from, double[] factorSums) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        double res = w0;
+        double sumOfSquares = 0;
+        Arrays.fill(factorSums, 0, k, 0.0d);
+        for (int dim = 0; dim < numDimensions; dim++) {
+            int l = featureIndices[from + dim];
+            res += weights[l];
+            double[] factorsOfL = factors[l];
+            for (int f = 0; f < k; f++) {
+                double vlf = factorsOfL[f];
+                factorSums[f] += vlf;
+                sumOfSquares += vlf * vlf;
+            }
+        }
+
+        double squaredSums = 0;
+        for (int f = 0; f < k; f++) {
+            squaredSums += factorSums[f] * factorSums[f];
+        }
+        return res + (squaredSums - sumOfSquares) / 2;
+    }
+
+    /**
+     * Predict the ratings of all entries of a tensor in parallel.
+     *
+     * @param tensor the tensor whose entries are predicted
+     * @return predicted ratings, aligned with the entry indices of the tensor
+     */
+    protected double[] predict(SparseTensor tensor) {
+        int size = tensor.size();
+        double[] predictions = new double[size];
+        IntStream.range(0, size).parallel().forEach(index -> {
+            int[] featureIndices = featureBuffer.get();
+            for (int dim = 0; dim < numDimensions; dim++) {
+                featureIndices[dim] = featureOffsets[dim] + tensor.key(dim, index);
+            }
+            predictions[index] = predict(featureIndices, 0, factorSumBuffer.get());
+        });
+        return predictions;
+    }
+
     /**
      * Predict the rating given a sparse appender vector.
      * if {@code bound} is true,The predicted rating value will be
@@ -202,9 +316,176 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         return new VectorBasedSequentialSparseVector(capacity, mapVector);
     }
 
+    /**
+     * Fill the appender indices of a tensor entry into a reusable buffer.
+     *
+     * @param tensorKeys     the given keys of a tensor entry
+     * @param featureIndices output, appender indices, length numDimensions
+     */
+    protected void tensorKeysToFeatureIndices(int[] tensorKeys, int[] featureIndices) {
+        for (int dim = 0; dim < numDimensions; dim++) {
+            featureIndices[dim] = featureOffsets[dim] + tensorKeys[dim];
+        }
+    }
+
     @Override
     protected double predict(int[] keys) throws LibrecException {
-        VectorBasedSequentialSparseVector featureVec = tenserKeysToFeatureVector(keys);
-        return predict(featureVec);
+        int[] featureIndices = featureBuffer.get();
+        tensorKeysToFeatureIndices(keys, featureIndices);
+        return predict(featureIndices, 0, factorSumBuffer.get());
+    }
+
+    /**
+     * The context of a user in the ranking: every context feature of the user's training entries, valued by its
+     * frequency among them, so that the values of a context dimension sum to one. A user without training entries
+     * gets the frequencies over all training entries.
+     *
+     * @param userIdx user index
+     * @return appender index and value of every context feature, in ascending appender index
+     */
+    protected Int2DoubleSortedMap userContextFeatures(int userIdx) {
+        int[] positions = userIdx < dimensions[userDimension] ? trainTensor.positions(userDimension, userIdx) : new int[0];
+        if (positions.length == 0) {
+            if (globalContextFeatures == null) {
+                int[] allPositions = new int[trainTensor.size()];
+                for (int index = 0; index < allPositions.length; index++) {
+                    allPositions[index] = index;
+                }
+                globalContextFeatures = contextFeatures(allPositions);
+            }
+            return globalContextFeatures;
+        }
+        return contextFeatures(positions);
+    }
+
+    private Int2DoubleSortedMap contextFeatures(int[] positions) {
+        Int2DoubleAVLTreeMap features = new Int2DoubleAVLTreeMap();
+        for (int dim = 0; dim < numDimensions; dim++) {
+            if (dim == userDimension || dim == itemDimension) {
+                continue;
+            }
+            for (int index : positions) {
+                features.addTo(featureOffsets[dim] + trainTensor.key(dim, index), 1.0d / positions.length);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * The part of the ranking prediction of a user that does not depend on the item. With the user feature and the
+     * user's context features x_c fixed, the FM prediction for item i is b + w_i + sum_f s_f v_if, where
+     * s_f = v_uf + sum_c x_c v_cf and b is the prediction without the item. A user beyond the training tensor has
+     * no user feature.
+     *
+     * @param userIdx    user index
+     * @param factorSums output, s_f, length k
+     * @return b
+     */
+    protected double predictUserPart(int userIdx, double[] factorSums) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        double res = w0;
+        double sumOfSquares = 0;
+        Arrays.fill(factorSums, 0, k, 0.0d);
+        if (userIdx < dimensions[userDimension]) {
+            int userFeature = featureOffsets[userDimension] + userIdx;
+            res += weights[userFeature];
+            System.arraycopy(factors[userFeature], 0, factorSums, 0, k);
+            for (int f = 0; f < k; f++) {
+                sumOfSquares += factorSums[f] * factorSums[f];
+            }
+        }
+        for (Int2DoubleMap.Entry feature : userContextFeatures(userIdx).int2DoubleEntrySet()) {
+            int c = feature.getIntKey();
+            double xc = feature.getDoubleValue();
+            res += xc * weights[c];
+            double[] factorsOfC = factors[c];
+            for (int f = 0; f < k; f++) {
+                factorSums[f] += xc * factorsOfC[f];
+                sumOfSquares += xc * xc * factorsOfC[f] * factorsOfC[f];
+            }
+        }
+
+        double squaredSums = 0;
+        for (int f = 0; f < k; f++) {
+            squaredSums += factorSums[f] * factorSums[f];
+        }
+        return res + (squaredSums - sumOfSquares) / 2;
+    }
+
+    /**
+     * Predict the ranking scores of all items for a user, computing the user part once and adding every item in
+     * O(k), see {@link #predictUserPart(int, double[])}.
+     *
+     * @param userIdx user index
+     * @param scores  output, the score of every item, length numItems
+     */
+    @Override
+    protected void predictItems(int userIdx, double[] scores) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double[] factorSums = factorSumBuffer.get();
+        double userPart = predictUserPart(userIdx, factorSums);
+
+        int itemOffset = featureOffsets[itemDimension];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            double[] factorsOfI = factors[itemOffset + itemIdx];
+            double score = userPart + weights[itemOffset + itemIdx];
+            for (int f = 0; f < k; f++) {
+                score += factorSums[f] * factorsOfI[f];
+            }
+            scores[itemIdx] = score;
+        }
+    }
+
+    /**
+     * Predict the ranking score of an item for a user in the user's context, see {@link #predictUserPart(int, double[])}.
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return predicted ranking score
+     */
+    @Override
+    protected double predict(int userIdx, int itemIdx) throws LibrecException {
+        double[] factorSums = factorSumBuffer.get();
+        int itemFeature = featureOffsets[itemDimension] + itemIdx;
+        double res = predictUserPart(userIdx, factorSums) + W.getValues()[itemFeature];
+        double[] factorsOfI = V.getValues()[itemFeature];
+        for (int f = 0; f < k; f++) {
+            res += factorSums[f] * factorsOfI[f];
+        }
+        return res;
+    }
+
+    /**
+     * recommend
+     * * predict the ratings in the test data, all entries in one parallel batch
+     *
+     * @return predictive rating matrix
+     * @throws LibrecException if error occurs during recommending
+     */
+    @Override
+    public RecommendedList recommendRating(DataSet predictDataSet) throws LibrecException {
+        testTensor = (SparseTensor) predictDataSet;
+        double[] predictions = predict(testTensor);
+
+        RecommendedList recommendedList = new RecommendedList(numUsers);
+        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
+            recommendedList.addList(new ArrayList<>());
+        }
+        for (int index = 0; index < predictions.length; index++) {
+            double predictRating = predictions[index];
+            if (predictRating > maxRate) {
+                predictRating = maxRate;
+            } else if (predictRating < minRate) {
+                predictRating = minRate;
+            }
+            if (Double.isNaN(predictRating)) {
+                predictRating = globalMean;
+            }
+            recommendedList.add(testTensor.key(userDimension, index), testTensor.key(itemDimension, index), predictRating);
+        }
+        return recommendedList;
     }
 }
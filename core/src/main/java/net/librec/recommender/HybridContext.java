@@ -54,9 +54,10 @@ public class HybridContext extends AbstractContext {
     }
 
     public RecommenderContext getContextFor(int _index){
-        if(this.configurations.size()==1)
-            return new RecommenderContext(conf, dataModelList.get(_index), similarityList.get(_index));
-        return new RecommenderContext(this.configurations.get(_index), dataModelList.get(_index), similarityList.get(_index));
+        Configuration configuration = this.configurations.size() == 1 ? conf : this.configurations.get(_index);
+        RecommenderContext context = new RecommenderContext(configuration, dataModelList.get(_index), similarityList.get(_index));
+        context.setProgressReporter(progressReporter);
+        return context;
     }
 
     public void setSimilarityList(List<RecommenderSimilarity> _list){
@@ -86,7 +87,9 @@ public class HybridContext extends AbstractContext {
     public ArrayList<RecommenderContext> getContexts() {
         ArrayList<RecommenderContext> arr = new ArrayList<>(configurations.size());
         for (Configuration configuration : configurations) {
-            arr.add(new RecommenderContext(configuration));
+            RecommenderContext context = new RecommenderContext(configuration);
+            context.setProgressReporter(progressReporter);
+            arr.add(context);
         }
         return arr;
     }
@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Co-occurrence counts of item pairs, where the items rated by a user form a transaction.
+ * <p>
+ * The counts are the sparse product X^T X of the binary user-item matrix with itself, computed row by row: for every
+ * item, the items of its users are accumulated in a dense per-thread buffer. Blocks of items are counted in parallel
+ * and the result is stored in compressed sparse rows of primitive arrays, the support of an item on the diagonal.
+ * Association rules derived from the counts are kept in the same compact layout, see {@link Rules}.
+ */
+public class ItemCooccurrence {
+
+    /**
+     * Score of the association rule antecedent =&gt; consequent.
+     */
+    public interface RuleScore {
+        /**
+         * @param antecedent antecedent item
+         * @param consequent consequent item
+         * @param count      number of users of both items
+         * @return score of the rule, rules scored zero or less are dropped
+         */
+        double score(int antecedent, int consequent, int count);
+    }
+
+    /**
+     * number of items counted per task
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    private final int numItems;
+
+    /**
+     * items of every user and users of every item, sorted
+     */
+    private final int[] userPointers, userItems, itemPointers, itemUsers;
+
+    /**
+     * co-occurring items of every item, sorted, and their counts
+     */
+    private final int[] pairPointers, pairItems, pairCounts;
+
+    /**
+     * Count the co-occurrences of all item pairs of a training matrix.
+     *
+     * @param trainMatrix user-item training matrix
+     * @param numThreads  number of counting threads
+     */
+    public ItemCooccurrence(SequentialAccessSparseMatrix trainMatrix, int numThreads) {
+        int numUsers = trainMatrix.rowSize();
+        numItems = trainMatrix.columnSize();
+
+        // transactions in both directions, entries are iterated user by user in item order
+        userPointers = new int[numUsers + 1];
+        itemPointers = new int[numItems + 1];
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            userPointers[matrixEntry.row() + 1]++;
+            itemPointers[matrixEntry.column() + 1]++;
+        }
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            userPointers[userIdx + 1] += userPointers[userIdx];
+        }
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            itemPointers[itemIdx + 1] += itemPointers[itemIdx];
+        }
+        userItems = new int[userPointers[numUsers]];
+        itemUsers = new int[itemPointers[numItems]];
+        int[] itemFill = Arrays.copyOf(itemPointers, numItems);
+        int position = 0;
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            userItems[position++] = matrixEntry.column();
+            itemUsers[itemFill[matrixEntry.column()]++] = matrixEntry.row();
+        }
+
+        // X^T X row by row, blocks of items in parallel
+        int[][] rowItems = new int[numItems][];
+        int[][] rowCounts = new int[numItems][];
+        int numBlocks = (numItems + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int threads = Math.max(1, numThreads);
+        IntStream.range(0, threads).parallel().forEach(thread -> {
+            int[] accumulator = new int[numItems];
+            int[] touched = new int[numItems];
+            for (int block = thread; block < numBlocks; block += threads) {
+                int blockEnd = Math.min(numItems, (block + 1) * BLOCK_SIZE);
+                for (int itemIdx = block * BLOCK_SIZE; itemIdx < blockEnd; itemIdx++) {
+                    int numTouched = 0;
+                    for (int userPosition = itemPointers[itemIdx]; userPosition < itemPointers[itemIdx + 1]; userPosition++) {
+                        int userIdx = itemUsers[userPosition];
+                        for (int itemPosition = userPointers[userIdx]; itemPosition < userPointers[userIdx + 1]; itemPosition++) {
+                            int otherIdx = userItems[itemPosition];
+                            if (accumulator[otherIdx]++ == 0) {
+                                touched[numTouched++] = otherIdx;
+                            }
+                        }
+                    }
+                    Arrays.sort(touched, 0, numTouched);
+                    int[] items = Arrays.copyOf(touched, numTouched);
+                    int[] counts = new int[numTouched];
+                    for (int touchedIdx = 0; touchedIdx < numTouched; touchedIdx++) {
+                        counts[touchedIdx] = accumulator[items[touchedIdx]];
+                        accumulator[items[touchedIdx]] = 0;
+                    }
+                    rowItems[itemIdx] = items;
+                    rowCounts[itemIdx] = counts;
+                }
+            }
+        });
+
+        pairPointers = new int[numItems + 1];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            pairPointers[itemIdx + 1] = pairPointers[itemIdx] + rowItems[itemIdx].length;
+        }
+        pairItems = new int[pairPointers[numItems]];
+        pairCounts = new int[pairPointers[numItems]];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            System.arraycopy(rowItems[itemIdx], 0, pairItems, pairPointers[itemIdx], rowItems[itemIdx].length);
+            System.arraycopy(rowCounts[itemIdx], 0, pairCounts, pairPointers[itemIdx], rowCounts[itemIdx].length);
+        }
+    }
+
+    /**
+     * @return number of items
+     */
+    public int getNumItems() {
+        return numItems;
+    }
+
+    /**
+     * @return number of co-occurring item pairs, in both orders and with the diagonal
+     */
+    public int getNumPairs() {
+        return pairItems.length;
+    }
+
+    /**
+     * @param itemIdx item
+     * @return number of users of the item
+     */
+    public int getSupport(int itemIdx) {
+        return itemPointers[itemIdx + 1] - itemPointers[itemIdx];
+    }
+
+    /**
+     * @param itemIdx  item
+     * @param otherIdx other item
+     * @return number of users of both items
+     */
+    public int getCount(int itemIdx, int otherIdx) {
+        int position = Arrays.binarySearch(pairItems, pairPointers[itemIdx], pairPointers[itemIdx + 1], otherIdx);
+        return position >= 0 ? pairCounts[position] : 0;
+    }
+
+    /**
+     * @param itemIdx  item
+     * @param otherIdx other item
+     * @param thirdIdx third item
+     * @return number of users of all three items
+     */
+    public int getCount(int itemIdx, int otherIdx, int thirdIdx) {
+        int first = itemPointers[itemIdx], firstEnd = itemPointers[itemIdx + 1];
+        int second = itemPointers[otherIdx], secondEnd = itemPointers[otherIdx + 1];
+        int third = itemPointers[thirdIdx], thirdEnd = itemPointers[thirdIdx + 1];
+        int count = 0;
+        while (first < firstEnd && second < secondEnd && third < thirdEnd) {
+            int user = Math.max(itemUsers[first], Math.max(itemUsers[second], itemUsers[third]));
+            if (itemUsers[first] == user && itemUsers[second] == user && itemUsers[third] == user) {
+                count++;
+                first++;
+                second++;
+                third++;
+                continue;
+            }
+            while (first < firstEnd && itemUsers[first] < user) {
+                first++;
+            }
+            while (second < secondEnd && itemUsers[second] < user) {
+                second++;
+            }
+            while (third < thirdEnd && itemUsers[third] < user) {
+                third++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Derive the association rules of every consequent item from the counts.
+     *
+     * @param score       score of a rule
+     * @param topK        number of best rules kept per consequent, all if not positive
+     * @param includeSelf whether to score the rules item =&gt; item
+     * @param numThreads  number of threads
+     * @return the rules, grouped by consequent in descending order of score
+     */
+    public Rules rules(RuleScore score, int topK, boolean includeSelf, int numThreads) {
+        int[][] antecedents = new int[numItems][];
+        double[][] scores = new double[numItems][];
+        int threads = Math.max(1, numThreads);
+        IntStream.range(0, threads).parallel().forEach(thread -> {
+            int[] candidates = new int[numItems];
+            double[] candidateScores = new double[numItems];
+            for (int consequent = thread; consequent < numItems; consequent += threads) {
+                // counts are symmetric: row consequent lists the antecedents
+                int numCandidates = 0;
+                for (int position = pairPointers[consequent]; position < pairPointers[consequent + 1]; position++) {
+                    int antecedent = pairItems[position];
+                    if (antecedent == consequent && !includeSelf) {
+                        continue;
+                    }
+                    double value = score.score(antecedent, consequent, pairCounts[position]);
+                    if (value > 0.0d) {
+                        candidates[numCandidates] = antecedent;
+                        candidateScores[antecedent] = value;
+                        numCandidates++;
+                    }
+                }
+                IntArrays.quickSort(candidates, 0, numCandidates, (left, right) -> {
+                    int order = Double.compare(candidateScores[right], candidateScores[left]);
+                    return order != 0 ? order : Integer.compare(left, right);
+                });
+                int size = topK > 0 ? Math.min(topK, numCandidates) : numCandidates;
+                antecedents[consequent] = Arrays.copyOf(candidates, size);
+                scores[consequent] = new double[size];
+                for (int position = 0; position < size; position++) {
+                    scores[consequent][position] = candidateScores[candidates[position]];
+                }
+            }
+        });
+        return new Rules(antecedents, scores);
+    }
+
+    /**
+     * Association rules antecedent =&gt; consequent with their scores, stored by consequent in compressed sparse rows.
+     */
+    public static class Rules {
+        private final int[] pointers, antecedents;
+        private final double[] scores;
+
+        /**
+         * @param antecedents antecedents of every consequent
+         * @param scores      scores of the rules of every consequent
+         */
+        public Rules(int[][] antecedents, double[][] scores) {
+            int numItems = antecedents.length;
+            pointers = new int[numItems + 1];
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                pointers[itemIdx + 1] = pointers[itemIdx] + antecedents[itemIdx].length;
+            }
+            this.antecedents = new int[pointers[numItems]];
+            this.scores = new double[pointers[numItems]];
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                System.arraycopy(antecedents[itemIdx], 0, this.antecedents, pointers[itemIdx], antecedents[itemIdx].length);
+                System.arraycopy(scores[itemIdx], 0, this.scores, pointers[itemIdx], scores[itemIdx].length);
+            }
+        }
+
+        /**
+         * @return number of consequent items
+         */
+        public int getNumItems() {
+            return pointers.length - 1;
+        }
+
+        /**
+         * @return number of rules
+         */
+        public int size() {
+            return antecedents.length;
+        }
+
+        /**
+         * @param consequent consequent item
+         * @return position of the first rule of the consequent
+         */
+        public int start(int consequent) {
+            return pointers[consequent];
+        }
+
+        /**
+         * @param consequent consequent item
+         * @return position after the last rule of the consequent
+         */
+        public int end(int consequent) {
+            return pointers[consequent + 1];
+        }
+
+        /**
+         * @param position position of a rule
+         * @return antecedent of the rule
+         */
+        public int antecedent(int position) {
+            return antecedents[position];
+        }
+
+        /**
+         * @param position position of a rule
+         * @return score of the rule
+         */
+        public double score(int position) {
+            return scores[position];
+        }
+    }
+}
@@ -70,7 +70,8 @@ public abstract class MatrixProbabilisticGraphicalRecommender extends MatrixReco
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             // E-step: infer parameters
             eStep();
 
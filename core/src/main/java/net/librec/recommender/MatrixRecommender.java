@@ -19,6 +19,7 @@ package net.librec.recommender;
 
 import net.librec.common.LibrecException;
 import net.librec.data.structure.*;
+import net.librec.eval.EvalStatistics;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -76,7 +77,7 @@ public abstract class MatrixRecommender extends AbstractRecommender {
     /**
      * a list of rating scales
      */
-    protected static List<Double> ratingScale;
+    protected List<Double> ratingScale;
 
 
     /**
@@ -106,24 +107,8 @@ public abstract class MatrixRecommender extends AbstractRecommender {
         }
         globalMean = trainMatrix.mean();
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
-        int maxNumTestItemsByUser = 0; //for idcg
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
-            int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
-            maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
-        }
-
-        int[] itemPurchasedCount = new int[numItems]; // for NoveltyEvaluator
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemPurchasedCount[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
-                    + testMatrix.column(itemIdx).getNumEntries();
-        }
-
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
-        conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser); //for nDCGEvaluator
-        conf.setInt("rec.eval.item.num", testMatrix.columnSize()); // for EntropyEvaluator
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount); // for NoveltyEvaluator
+        // for AUCEvaluator, NoveltyEvaluator and EntropyEvaluator
+        evalStatistics = EvalStatistics.compute(trainMatrix, testMatrix);
     }
 
     /**
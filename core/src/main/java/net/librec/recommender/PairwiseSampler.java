@@ -0,0 +1,458 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.conf.Configuration;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.Vector;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Training engine shared by the pairwise ranking recommenders (BPR and its variants).
+ * <p>
+ * The rated items of every user are kept in a sorted compressed sparse row layout, so positives are drawn by
+ * position and negatives are rejected by binary search. An epoch is split over {@code rec.thread.count} threads,
+ * each with its own random stream; the threads update the shared model without locking (Hogwild).
+ * <p>
+ * Negatives are drawn according to {@code rec.sampler.negative}:
+ * <ul>
+ * <li>{@code uniform} (default): uniformly from the unrated items;</li>
+ * <li>{@code popularity}: proportional to popularity^{@code rec.sampler.negative.popularity.exponent};</li>
+ * <li>{@code adaptive}: the highest scored of {@code rec.sampler.negative.candidates} uniform candidates,
+ * given an {@link ItemScorer}.</li>
+ * </ul>
+ */
+public class PairwiseSampler {
+    private static final Log LOG = LogFactory.getLog(PairwiseSampler.class);
+
+    /**
+     * negative sampling strategies
+     */
+    public enum NegativeSampling {
+        UNIFORM, POPULARITY, ADAPTIVE
+    }
+
+    /**
+     * Update of a model from one sample.
+     */
+    public interface SampleUpdate {
+        /**
+         * @param sampleIdx index of the sample in the epoch
+         * @param random    random stream of the current thread
+         * @return loss of the sample
+         */
+        double update(int sampleIdx, SplittableRandom random);
+    }
+
+    /**
+     * Current score of an item for a user, used by adaptive negative sampling.
+     */
+    public interface ItemScorer {
+        double score(int userIdx, int itemIdx);
+    }
+
+    private final int numUsers, numItems;
+
+    /**
+     * rated items of every user, sorted ascending
+     */
+    private final int[] userItemPtr, userItems;
+
+    /**
+     * users who rated every item, aligned with user positions in {@code userItems}
+     */
+    private final int[] itemUserPtr, itemUsers;
+
+    /**
+     * user of every position in {@code userItems}
+     */
+    private final int[] entryUsers;
+
+    /**
+     * users with at least one rated and one sampleable unrated item
+     */
+    private int[] sampleUsers;
+
+    private final int numThreads;
+    private final boolean verbose;
+
+    private NegativeSampling negativeSampling;
+    private final double popularityExponent;
+    private final int numCandidates;
+    private AliasTable popularityTable;
+    private ItemScorer itemScorer;
+
+    private double samplesPerSecond;
+
+    /**
+     * Build the sampler from the training matrix and the sampling options in the configuration.
+     *
+     * @param trainMatrix training matrix
+     * @param conf        configuration
+     */
+    public PairwiseSampler(SequentialAccessSparseMatrix trainMatrix, Configuration conf) {
+        numUsers = trainMatrix.rowSize();
+        numItems = trainMatrix.columnSize();
+        numThreads = Math.max(1, conf.getInt("rec.thread.count", 1));
+        verbose = conf.getBoolean("rec.recommender.verbose", true);
+        popularityExponent = conf.getDouble("rec.sampler.negative.popularity.exponent", 1.0);
+        numCandidates = Math.max(1, conf.getInt("rec.sampler.negative.candidates", 5));
+
+        userItemPtr = new int[numUsers + 1];
+        itemUserPtr = new int[numItems + 1];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int count = 0;
+            for (Vector.VectorEntry ve : trainMatrix.row(userIdx)) {
+                itemUserPtr[ve.index() + 1]++;
+                count++;
+            }
+            userItemPtr[userIdx + 1] = userItemPtr[userIdx] + count;
+        }
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            itemUserPtr[itemIdx + 1] += itemUserPtr[itemIdx];
+        }
+
+        int numEntries = userItemPtr[numUsers];
+        userItems = new int[numEntries];
+        entryUsers = new int[numEntries];
+        itemUsers = new int[numEntries];
+        int[] itemFill = Arrays.copyOf(itemUserPtr, numItems);
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int position = userItemPtr[userIdx];
+            for (Vector.VectorEntry ve : trainMatrix.row(userIdx)) {
+                userItems[position] = ve.index();
+                entryUsers[position++] = userIdx;
+                itemUsers[itemFill[ve.index()]++] = userIdx;
+            }
+            Arrays.sort(userItems, userItemPtr[userIdx], userItemPtr[userIdx + 1]);
+        }
+
+        setNegativeSampling(NegativeSampling.valueOf(conf.get("rec.sampler.negative", "uniform").toUpperCase()));
+    }
+
+    /**
+     * Set the negative sampling strategy, overriding the configuration.
+     *
+     * @param negativeSampling negative sampling strategy
+     * @return this sampler
+     */
+    public PairwiseSampler setNegativeSampling(NegativeSampling negativeSampling) {
+        this.negativeSampling = negativeSampling;
+
+        boolean[] sampleable = new boolean[numItems];
+        int numSampleable = 0;
+        if (negativeSampling == NegativeSampling.POPULARITY) {
+            double[] weights = new double[numItems];
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                int popularity = itemUserPtr[itemIdx + 1] - itemUserPtr[itemIdx];
+                if (popularity > 0) {
+                    weights[itemIdx] = Math.pow(popularity, popularityExponent);
+                    sampleable[itemIdx] = true;
+                    numSampleable++;
+                }
+            }
+            popularityTable = new AliasTable(weights);
+        } else {
+            Arrays.fill(sampleable, true);
+            numSampleable = numItems;
+        }
+
+        // a user can be sampled if it rated something and left a sampleable item unrated
+        int[] users = new int[numUsers];
+        int numSampleUsers = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int ratedSampleable = 0;
+            for (int position = userItemPtr[userIdx]; position < userItemPtr[userIdx + 1]; position++) {
+                if (sampleable[userItems[position]]) {
+                    ratedSampleable++;
+                }
+            }
+            if (userItemPtr[userIdx + 1] > userItemPtr[userIdx] && ratedSampleable < numSampleable) {
+                users[numSampleUsers++] = userIdx;
+            }
+        }
+        sampleUsers = Arrays.copyOf(users, numSampleUsers);
+        return this;
+    }
+
+    /**
+     * Set the scorer used by adaptive negative sampling.
+     *
+     * @param itemScorer item scorer
+     * @return this sampler
+     */
+    public PairwiseSampler setItemScorer(ItemScorer itemScorer) {
+        this.itemScorer = itemScorer;
+        return this;
+    }
+
+    /**
+     * Run one epoch of {@code numSamples} updates, split over the threads.
+     *
+     * @param numSamples number of updates
+     * @param update     update of the model from one sample
+     * @return the summed loss of all samples
+     */
+    public double runEpoch(int numSamples, SampleUpdate update) {
+        long[] seeds = new long[numThreads];
+        for (int thread = 0; thread < numThreads; thread++) {
+            seeds[thread] = ((long) Randoms.uniform(Integer.MAX_VALUE) << 31) ^ Randoms.uniform(Integer.MAX_VALUE);
+        }
+
+        long startTime = System.nanoTime();
+        double loss = IntStream.range(0, numThreads).parallel().mapToDouble(thread -> {
+            SplittableRandom random = new SplittableRandom(seeds[thread]);
+            double threadLoss = 0.0d;
+            for (int sampleIdx = thread; sampleIdx < numSamples; sampleIdx += numThreads) {
+                threadLoss += update.update(sampleIdx, random);
+            }
+            return threadLoss;
+        }).sum();
+        double seconds = Math.max(System.nanoTime() - startTime, 1L) / 1e9;
+
+        samplesPerSecond = numSamples / seconds;
+        if (verbose) {
+            LOG.info(String.format("%d samples on %d threads in %.3f s, %.0f samples/sec",
+                    numSamples, numThreads, seconds, samplesPerSecond));
+        }
+        return loss;
+    }
+
+    /**
+     * @return throughput of the last epoch
+     */
+    public double getSamplesPerSecond() {
+        return samplesPerSecond;
+    }
+
+    /**
+     * @return number of threads of an epoch
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Draw a user uniformly from the users with both rated and unrated items.
+     *
+     * @param random random stream
+     * @return user index
+     */
+    public int sampleUser(SplittableRandom random) {
+        if (sampleUsers.length == 0) {
+            throw new IllegalStateException("No user has both rated and unrated items to sample from.");
+        }
+        return sampleUsers[random.nextInt(sampleUsers.length)];
+    }
+
+    /**
+     * Draw a rating uniformly, i.e. a user in proportion to the number of its ratings.
+     *
+     * @param random random stream
+     * @return position of the rating, see {@link #userAt(int)} and {@link #itemAt(int)}
+     */
+    public int sampleEntry(SplittableRandom random) {
+        return random.nextInt(userItems.length);
+    }
+
+    /**
+     * Draw a rated item of a user uniformly.
+     *
+     * @param userIdx user index
+     * @param random  random stream
+     * @return item index
+     */
+    public int samplePositive(int userIdx, SplittableRandom random) {
+        int start = userItemPtr[userIdx];
+        return userItems[start + random.nextInt(userItemPtr[userIdx + 1] - start)];
+    }
+
+    /**
+     * Draw an unrated item of a user with the configured strategy.
+     *
+     * @param userIdx user index
+     * @param random  random stream
+     * @return item index
+     */
+    public int sampleNegative(int userIdx, SplittableRandom random) {
+        switch (negativeSampling) {
+            case POPULARITY:
+                int negItemIdx;
+                do {
+                    negItemIdx = popularityTable.sample(random);
+                } while (isRated(userIdx, negItemIdx));
+                return negItemIdx;
+            case ADAPTIVE:
+                if (itemScorer != null) {
+                    int bestItemIdx = sampleUniformNegative(userIdx, random);
+                    double bestScore = itemScorer.score(userIdx, bestItemIdx);
+                    for (int candidate = 1; candidate < numCandidates; candidate++) {
+                        int itemIdx = sampleUniformNegative(userIdx, random);
+                        double score = itemScorer.score(userIdx, itemIdx);
+                        if (score > bestScore) {
+                            bestItemIdx = itemIdx;
+                            bestScore = score;
+                        }
+                    }
+                    return bestItemIdx;
+                }
+                return sampleUniformNegative(userIdx, random);
+            default:
+                return sampleUniformNegative(userIdx, random);
+        }
+    }
+
+    private int sampleUniformNegative(int userIdx, SplittableRandom random) {
+        int negItemIdx;
+        do {
+            negItemIdx = random.nextInt(numItems);
+        } while (isRated(userIdx, negItemIdx));
+        return negItemIdx;
+    }
+
+    /**
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return true if the user rated the item
+     */
+    public boolean isRated(int userIdx, int itemIdx) {
+        return Arrays.binarySearch(userItems, userItemPtr[userIdx], userItemPtr[userIdx + 1], itemIdx) >= 0;
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the position of the first rated item of the user
+     */
+    public int userStart(int userIdx) {
+        return userItemPtr[userIdx];
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the position after the last rated item of the user
+     */
+    public int userEnd(int userIdx) {
+        return userItemPtr[userIdx + 1];
+    }
+
+    /**
+     * @param position rating position
+     * @return item of the rating
+     */
+    public int itemAt(int position) {
+        return userItems[position];
+    }
+
+    /**
+     * @param position rating position
+     * @return user of the rating
+     */
+    public int userAt(int position) {
+        return entryUsers[position];
+    }
+
+    /**
+     * @param itemIdx item index
+     * @return the position of the first user who rated the item
+     */
+    public int itemStart(int itemIdx) {
+        return itemUserPtr[itemIdx];
+    }
+
+    /**
+     * @param itemIdx item index
+     * @return the position after the last user who rated the item
+     */
+    public int itemEnd(int itemIdx) {
+        return itemUserPtr[itemIdx + 1];
+    }
+
+    /**
+     * @param position position in the item layout
+     * @return user at the position
+     */
+    public int raterAt(int position) {
+        return itemUsers[position];
+    }
+
+    /**
+     * Walker's alias table: draws an index in proportion to its weight in constant time.
+     */
+    public static class AliasTable {
+        private final double[] probabilities;
+        private final int[] aliases;
+
+        /**
+         * @param weights non-negative weights, not all zero
+         */
+        public AliasTable(double[] weights) {
+            int size = weights.length;
+            probabilities = new double[size];
+            aliases = new int[size];
+
+            double sum = 0.0d;
+            for (double weight : weights) {
+                sum += weight;
+            }
+            double[] scaled = new double[size];
+            int[] small = new int[size], large = new int[size];
+            int numSmall = 0, numLarge = 0;
+            for (int index = 0; index < size; index++) {
+                scaled[index] = weights[index] * size / sum;
+                if (scaled[index] < 1.0d) {
+                    small[numSmall++] = index;
+                } else {
+                    large[numLarge++] = index;
+                }
+            }
+            while (numSmall > 0 && numLarge > 0) {
+                int less = small[--numSmall], more = large[--numLarge];
+                probabilities[less] = scaled[less];
+                aliases[less] = more;
+                scaled[more] = scaled[more] + scaled[less] - 1.0d;
+                if (scaled[more] < 1.0d) {
+                    small[numSmall++] = more;
+                } else {
+                    large[numLarge++] = more;
+                }
+            }
+            while (numLarge > 0) {
+                probabilities[large[--numLarge]] = 1.0d;
+            }
+            // left over only through rounding
+            while (numSmall > 0) {
+                probabilities[small[--numSmall]] = 1.0d;
+            }
+        }
+
+        /**
+         * @param random random stream
+         * @return an index drawn in proportion to its weight
+         */
+        public int sample(SplittableRandom random) {
+            int index = random.nextInt(probabilities.length);
+            return random.nextDouble() < probabilities[index] ? index : aliases[index];
+        }
+    }
+}
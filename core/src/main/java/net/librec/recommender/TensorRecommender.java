@@ -19,16 +19,18 @@ package net.librec.recommender;
 
 import net.librec.common.LibrecException;
 import net.librec.data.structure.*;
+import net.librec.eval.EvalStatistics;
 import net.librec.job.progress.ProgressBar;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.SparseTensor;
 import net.librec.math.structure.TensorEntry;
-import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedList;
+import net.librec.util.Lists;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Tensor Recommender
@@ -171,30 +173,8 @@ public abstract class TensorRecommender extends AbstractRecommender {
             progressBar = new ProgressBar(100, 100);
         }
 
-
-
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
-        int maxNumTestItemsByUser = 0; //for idcg
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
-            int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
-            maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
-        }
-
-        int[] itemPurchasedCount = new int[numItems]; // for NoveltyEvaluator
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemPurchasedCount[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
-                    + testMatrix.column(itemIdx).getNumEntries();
-        }
-
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
-        conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser); //for nDCGEvaluator
-        conf.setInt("rec.eval.item.num", testMatrix.columnSize()); // for EntropyEvaluator
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount); // for NoveltyEvaluator
-
-        /**
-         * if you want to use and AUCEvaluator and nDCGEvaluator, please set rec.eval.auc.dropped.num arrays and rec.eval.key.test.max.num value like as AbstractRecommender.
-         */
+        // for AUCEvaluator, NoveltyEvaluator and EntropyEvaluator
+        evalStatistics = EvalStatistics.compute(trainMatrix, testMatrix);
     }
 
     /**
@@ -231,37 +211,30 @@ public abstract class TensorRecommender extends AbstractRecommender {
     public RecommendedList recommendRank(LibrecDataList<AbstractBaseDataEntry> dataList) throws LibrecException {
         int numDataEntries = dataList.size();
         RecommendedList recommendedList = new RecommendedList(numUsers);
-        List<Integer> contextList = new ArrayList<>();
         for (int contextIdx = 0; contextIdx < numDataEntries; ++contextIdx) {
-            contextList.add(contextIdx);
             recommendedList.addList(new ArrayList<>());
         }
 
-        contextList.parallelStream().forEach((Integer contextIdx) -> {
+        // the user fibers are read by all threads, build them once up front
+        if (!trainTensor.isIndexed(userDimension)) {
+            trainTensor.buildIndex(userDimension);
+        }
+
+        ThreadLocal<double[]> scoresBuffer = ThreadLocal.withInitial(() -> new double[numItems]);
+        IntStream.range(0, numDataEntries).parallel().forEach(contextIdx -> {
             BaseRankingDataEntry baseRankingDataEntry = (BaseRankingDataEntry) dataList.getDataEntry(contextIdx);
             int userIdx = baseRankingDataEntry.getUserId();
 
-            int[] items = trainMatrix.row(userIdx).getIndices();
-            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>();
-            for (int itemIdx = 0, trainItemIndex = 0; itemIdx < numItems; ++itemIdx) {
-                if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
-                    trainItemIndex++;
-                    continue;
-                }
-
-                double predictRating = 0;
-                try {
-                    predictRating = predict(userIdx, itemIdx);
-                } catch (LibrecException e) {
-                    e.printStackTrace();
-                }
-                if (Double.isNaN(predictRating)) {
-                    continue;
-                }
-                itemValueList.add(new KeyValue<>(itemIdx, predictRating));
+            double[] scores = scoresBuffer.get();
+            try {
+                predictItems(userIdx, scores);
+            } catch (LibrecException e) {
+                e.printStackTrace();
+                return;
             }
-            recommendedList.setList(contextIdx, itemValueList);
-            recommendedList.topNRankByIndex(contextIdx, topN);
+            SequentialSparseVector trainItems = trainMatrix.row(userIdx);
+            recommendedList.setList(contextIdx, Lists.sortTopKByScore(scores, trainItems.getIndices(),
+                    trainItems.getNumEntries(), topN));
         });
 
         if (recommendedList.size() == 0) {
@@ -271,6 +244,23 @@ public abstract class TensorRecommender extends AbstractRecommender {
         return recommendedList;
     }
 
+    /**
+     * Predict the ranking scores of all items for a user. Scores of the items the user rated in training are
+     * ignored, and NaN marks an item that cannot be scored.
+     * <p>
+     * The default calls {@link #predict(int, int)} for every item; recommenders whose prediction splits into a user
+     * part and an item part override it to compute the user part once.
+     *
+     * @param userIdx user index
+     * @param scores  output, the score of every item, length numItems
+     * @throws LibrecException if error occurs during predicting
+     */
+    protected void predictItems(int userIdx, double[] scores) throws LibrecException {
+        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
+            scores[itemIdx] = predict(userIdx, itemIdx);
+        }
+    }
+
     /**
      * recommend
      * * predict the ratings in the test data
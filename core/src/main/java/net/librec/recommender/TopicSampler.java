@@ -0,0 +1,752 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.conf.Configuration;
+import net.librec.math.algorithm.Randoms;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Collapsed Gibbs sampler of the topic assignments of LDA style models, where each token of a document is
+ * drawn from a document-topic and a topic-word distribution with Dirichlet priors alpha and beta.
+ * <p>
+ * Counts are kept as the lists of non-zero topics of every document and word with their counts, so memory grows
+ * with the number of non-zero counts rather than with rows times topics, and the buffers are reused across
+ * sweeps. Three sampling methods are supported:
+ * <ul>
+ * <li>{@code dense}: the full conditional is evaluated for every topic, O(K) per token;</li>
+ * <li>{@code sparse}: exact sampling from the smoothing, document and word buckets of the conditional,
+ * visiting only non-zero counts, see Yao et al., Efficient methods for topic model inference on streaming
+ * document collections, KDD 2009;</li>
+ * <li>{@code alias}: Metropolis-Hastings steps alternating a word proposal drawn from per-word alias tables,
+ * rebuilt before every sweep, and a document proposal, O(1) amortized per token, see Yuan et al., LightLDA:
+ * big topic models on modest computer clusters, WWW 2015.</li>
+ * </ul>
+ * If {@code rec.thread.count} is greater than one, documents are split into partitions swept in parallel. The
+ * partitions read the topic-word counts of the previous sweep, shared and left unchanged during the sweep, and
+ * record their own changes as sparse deltas merged into the shared counts after every sweep, see Newman et al.,
+ * Distributed algorithms for topic models, JMLR 2009.
+ */
+public class TopicSampler {
+
+    /**
+     * sampling methods
+     */
+    public enum Method {
+        DENSE, SPARSE, ALIAS
+    }
+
+    private final int numDocs, numWords, numTopics;
+
+    /**
+     * word of every token, tokens grouped by document
+     */
+    private final int[] tokenWords;
+
+    /**
+     * tokens of document d are docStart[d] ~ docStart[d + 1] - 1
+     */
+    private final int[] docStart;
+
+    /**
+     * topic assignment of every token
+     */
+    private final int[] assignments;
+
+    /**
+     * Dirichlet hyper-parameters, shared with the caller which may update them between sweeps
+     */
+    private final double[] alpha, beta;
+
+    /**
+     * document-topic and topic-word counts
+     */
+    private final SparseCounts docTopics, wordTopics;
+
+    /**
+     * number of tokens assigned to every topic
+     */
+    private final int[] topicCounts;
+
+    private final Method method;
+    private final int mhSteps;
+    private final Partition[] partitions;
+
+    /**
+     * stale word proposals of the alias method and their alias tables, numWords * numTopics
+     */
+    private double[] wordProposals, aliasProbabilities;
+    private int[] aliasIndices;
+    private PairwiseSampler.AliasTable alphaTable;
+
+    /**
+     * per-thread scratch of alias table construction
+     */
+    private final ThreadLocal<double[]> aliasBuffer;
+    private final ThreadLocal<int[]> aliasStack;
+
+    /**
+     * Initialize the topic assignments uniformly at random.
+     *
+     * @param numDocs    number of documents
+     * @param numWords   number of words
+     * @param numTopics  number of topics
+     * @param tokenDocs  document of every token, non-decreasing
+     * @param tokenWords word of every token
+     * @param alpha      document-topic prior, length numTopics
+     * @param beta       topic-word prior, length numWords
+     * @param conf       configuration
+     */
+    public TopicSampler(int numDocs, int numWords, int numTopics, int[] tokenDocs, int[] tokenWords,
+                        double[] alpha, double[] beta, Configuration conf) {
+        this.numDocs = numDocs;
+        this.numWords = numWords;
+        this.numTopics = numTopics;
+        this.tokenWords = tokenWords;
+        this.alpha = alpha;
+        this.beta = beta;
+        method = Method.valueOf(conf.get("rec.pgm.sampler", "sparse").toUpperCase());
+        mhSteps = Math.max(1, conf.getInt("rec.pgm.sampler.mh.steps", 2));
+
+        int numTokens = tokenWords.length;
+        docStart = new int[numDocs + 1];
+        for (int tokenIdx = 0; tokenIdx < numTokens; tokenIdx++) {
+            if (tokenIdx > 0 && tokenDocs[tokenIdx] < tokenDocs[tokenIdx - 1]) {
+                throw new IllegalArgumentException("tokens must be grouped by document");
+            }
+            docStart[tokenDocs[tokenIdx] + 1]++;
+        }
+        for (int docIdx = 0; docIdx < numDocs; docIdx++) {
+            docStart[docIdx + 1] += docStart[docIdx];
+        }
+
+        docTopics = new SparseCounts(numDocs, numTopics);
+        wordTopics = new SparseCounts(numWords, numTopics);
+        topicCounts = new int[numTopics];
+        assignments = new int[numTokens];
+        for (int tokenIdx = 0; tokenIdx < numTokens; tokenIdx++) {
+            int topicIdx = Randoms.uniform(numTopics);
+            assignments[tokenIdx] = topicIdx;
+            docTopics.add(tokenDocs[tokenIdx], topicIdx, 1);
+            wordTopics.add(tokenWords[tokenIdx], topicIdx, 1);
+            topicCounts[topicIdx]++;
+        }
+
+        // partitions of about the same number of tokens
+        int numThreads = Math.max(1, Math.min(conf.getInt("rec.thread.count", 1), numDocs));
+        partitions = new Partition[numThreads];
+        if (numThreads == 1) {
+            partitions[0] = new Partition(0, numDocs, null, null);
+        } else {
+            int docFrom = 0;
+            for (int partitionIdx = 0; partitionIdx < numThreads; partitionIdx++) {
+                int docTo = docFrom;
+                long tokenTo = (long) numTokens * (partitionIdx + 1) / numThreads;
+                while (docTo < numDocs && (docStart[docTo] < tokenTo || partitionIdx == numThreads - 1)) {
+                    docTo++;
+                }
+                partitions[partitionIdx] = new Partition(docFrom, docTo,
+                        new SparseCounts(numWords, numTopics), new int[numTopics]);
+                docFrom = docTo;
+            }
+        }
+
+        aliasBuffer = ThreadLocal.withInitial(() -> new double[numTopics]);
+        aliasStack = ThreadLocal.withInitial(() -> new int[numTopics]);
+        if (method == Method.ALIAS) {
+            wordProposals = new double[numWords * numTopics];
+            aliasProbabilities = new double[numWords * numTopics];
+            aliasIndices = new int[numWords * numTopics];
+        }
+    }
+
+    /**
+     * Resample the topic of every token once.
+     */
+    public void sweep() {
+        double sumAlpha = 0.0d, sumBeta = 0.0d;
+        for (double value : alpha) {
+            sumAlpha += value;
+        }
+        for (double value : beta) {
+            sumBeta += value;
+        }
+        if (method == Method.ALIAS) {
+            buildProposals(sumBeta);
+        }
+
+        long[] seeds = new long[partitions.length];
+        for (int partitionIdx = 0; partitionIdx < partitions.length; partitionIdx++) {
+            seeds[partitionIdx] = ((long) Randoms.uniform(Integer.MAX_VALUE) << 31) ^ Randoms.uniform(Integer.MAX_VALUE);
+        }
+        if (partitions.length == 1) {
+            partitions[0].sweep(new SplittableRandom(seeds[0]), sumAlpha, sumBeta);
+            return;
+        }
+
+        final double finalSumAlpha = sumAlpha, finalSumBeta = sumBeta;
+        IntStream.range(0, partitions.length).parallel().forEach(partitionIdx ->
+                partitions[partitionIdx].sweep(new SplittableRandom(seeds[partitionIdx]), finalSumAlpha, finalSumBeta));
+
+        // merge the changes of every partition into the shared counts
+        for (Partition partition : partitions) {
+            SparseCounts wordDeltas = partition.wordDeltas;
+            for (int wordIdx = 0; wordIdx < numWords; wordIdx++) {
+                for (int position = 0; position < wordDeltas.sizes[wordIdx]; position++) {
+                    wordTopics.add(wordIdx, wordDeltas.topics[wordIdx][position], wordDeltas.counts[wordIdx][position]);
+                }
+            }
+            wordDeltas.clear();
+            for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                topicCounts[topicIdx] += partition.topicDeltas[topicIdx];
+            }
+            Arrays.fill(partition.topicDeltas, 0);
+        }
+    }
+
+    /**
+     * Build the word proposals (n_wk + beta_w) / (n_k + sum beta) of the alias method from the current counts.
+     */
+    private void buildProposals(double sumBeta) {
+        alphaTable = new PairwiseSampler.AliasTable(alpha);
+        IntStream.range(0, numWords).parallel().forEach(wordIdx -> {
+            int offset = wordIdx * numTopics;
+            for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                wordProposals[offset + topicIdx] = beta[wordIdx] / (topicCounts[topicIdx] + sumBeta);
+            }
+            for (int position = 0; position < wordTopics.sizes[wordIdx]; position++) {
+                int topicIdx = wordTopics.topics[wordIdx][position];
+                wordProposals[offset + topicIdx] += wordTopics.counts[wordIdx][position] / (topicCounts[topicIdx] + sumBeta);
+            }
+            buildAliasTable(offset);
+        });
+    }
+
+    /**
+     * Walker's alias table of the word proposal at the given offset, built in place.
+     */
+    private void buildAliasTable(int offset) {
+        double[] scaled = aliasBuffer.get();
+        int[] stack = aliasStack.get();
+        double sum = 0.0d;
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            sum += wordProposals[offset + topicIdx];
+        }
+        int numSmall = 0, numLarge = 0;
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            scaled[topicIdx] = wordProposals[offset + topicIdx] * numTopics / sum;
+            aliasProbabilities[offset + topicIdx] = 1.0d;
+            aliasIndices[offset + topicIdx] = topicIdx;
+        }
+        // stack of the entries below one from the front, of the others from the back
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            if (scaled[topicIdx] < 1.0d) {
+                stack[numSmall++] = topicIdx;
+            } else {
+                stack[numTopics - 1 - numLarge++] = topicIdx;
+            }
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int less = stack[--numSmall], more = stack[numTopics - numLarge];
+            aliasProbabilities[offset + less] = scaled[less];
+            aliasIndices[offset + less] = more;
+            scaled[more] += scaled[less] - 1.0d;
+            if (scaled[more] < 1.0d) {
+                numLarge--;
+                stack[numSmall++] = more;
+            }
+        }
+    }
+
+    /**
+     * @param docIdx   document
+     * @param topicIdx topic
+     * @return number of tokens of the document assigned to the topic
+     */
+    public int getDocTopicCount(int docIdx, int topicIdx) {
+        return docTopics.get(docIdx, topicIdx);
+    }
+
+    /**
+     * @param wordIdx  word
+     * @param topicIdx topic
+     * @return number of tokens of the word assigned to the topic
+     */
+    public int getWordTopicCount(int wordIdx, int topicIdx) {
+        return wordTopics.get(wordIdx, topicIdx);
+    }
+
+    /**
+     * @param topicIdx topic
+     * @return number of tokens assigned to the topic
+     */
+    public int getTopicCount(int topicIdx) {
+        return topicCounts[topicIdx];
+    }
+
+    /**
+     * @param docIdx document
+     * @return number of tokens of the document
+     */
+    public int getDocLength(int docIdx) {
+        return docStart[docIdx + 1] - docStart[docIdx];
+    }
+
+    /**
+     * @param tokenIdx token, in the order given to the constructor
+     * @return topic assigned to the token
+     */
+    public int getAssignment(int tokenIdx) {
+        return assignments[tokenIdx];
+    }
+
+    /**
+     * @return number of partitions swept in parallel
+     */
+    public int getNumThreads() {
+        return partitions.length;
+    }
+
+    /**
+     * Draw an index in proportion to unnormalized weights by the cumulative method.
+     * The weights are replaced by their prefix sums.
+     *
+     * @param weights non-negative weights
+     * @param length  number of weights to use
+     * @param uniform uniform random number in [0, 1)
+     * @return the sampled index
+     */
+    public static int sample(double[] weights, int length, double uniform) {
+        for (int index = 1; index < length; index++) {
+            weights[index] += weights[index - 1];
+        }
+        double rand = uniform * weights[length - 1];
+        for (int index = 0; index < length - 1; index++) {
+            if (rand < weights[index]) {
+                return index;
+            }
+        }
+        return length - 1;
+    }
+
+    /**
+     * Documents docFrom ~ docTo - 1, sampled against the shared topic-word counts plus their own changes.
+     */
+    private class Partition {
+        private final int docFrom, docTo;
+
+        /**
+         * changes of the topic-word and topic counts during the sweep, or null if the partition is the only one
+         * and updates the shared counts in place
+         */
+        private final SparseCounts wordDeltas;
+        private final int[] topicDeltas;
+
+        /**
+         * 1 / (n_k + sum beta), the per-topic coefficients (n_dk + alpha_k) / (n_k + sum beta) of the current
+         * document, and the bucket weights of the current token
+         */
+        private final double[] inverses, coefficients, weights;
+
+        /**
+         * topic counts of the current document, its non-zero topics and the position of every topic among them,
+         * written back to the sparse counts when the document is done
+         */
+        private final int[] docCounts, docTopicList, docPositions;
+        private int docSize;
+
+        /**
+         * non-zero topics and counts of the current word, merged from the shared counts and the deltas,
+         * the deltas of the current word by topic and the counts of the current word of the alias method by topic,
+         * both zero between tokens
+         */
+        private final int[] wordTopicBuffer, wordCountBuffer, pendingDeltas, wordCounts;
+        private int[] rowTopics, rowCounts;
+
+        /**
+         * sum_k alpha_k / (n_k + sum beta) and sum_k n_dk / (n_k + sum beta) of the current document
+         */
+        private double smoothingSum, docSum;
+
+        private Partition(int docFrom, int docTo, SparseCounts wordDeltas, int[] topicDeltas) {
+            this.docFrom = docFrom;
+            this.docTo = docTo;
+            this.wordDeltas = wordDeltas;
+            this.topicDeltas = topicDeltas;
+            inverses = new double[numTopics];
+            coefficients = new double[numTopics];
+            weights = new double[numTopics];
+            docCounts = new int[numTopics];
+            docTopicList = new int[numTopics];
+            docPositions = new int[numTopics];
+            wordTopicBuffer = wordDeltas == null ? null : new int[numTopics];
+            wordCountBuffer = wordDeltas == null ? null : new int[numTopics];
+            pendingDeltas = wordDeltas == null ? null : new int[numTopics];
+            wordCounts = method == Method.ALIAS ? new int[numTopics] : null;
+        }
+
+        private int topicCount(int topicIdx) {
+            return topicDeltas == null ? topicCounts[topicIdx] : topicCounts[topicIdx] + topicDeltas[topicIdx];
+        }
+
+        /**
+         * Point rowTopics and rowCounts to the non-zero topic counts of a word as seen by this partition.
+         *
+         * @return number of non-zero topics of the word
+         */
+        private int loadWord(int wordIdx) {
+            int size = wordTopics.sizes[wordIdx];
+            if (wordDeltas == null) {
+                rowTopics = wordTopics.topics[wordIdx];
+                rowCounts = wordTopics.counts[wordIdx];
+                return size;
+            }
+            int[] deltaTopics = wordDeltas.topics[wordIdx], deltaCounts = wordDeltas.counts[wordIdx];
+            int deltaSize = wordDeltas.sizes[wordIdx];
+            for (int position = 0; position < deltaSize; position++) {
+                pendingDeltas[deltaTopics[position]] = deltaCounts[position];
+            }
+            if (deltaSize == 0) {
+                rowTopics = wordTopics.topics[wordIdx];
+                rowCounts = wordTopics.counts[wordIdx];
+                return size;
+            }
+            int numNonZero = 0;
+            for (int position = 0; position < size; position++) {
+                int topicIdx = wordTopics.topics[wordIdx][position];
+                int count = wordTopics.counts[wordIdx][position] + pendingDeltas[topicIdx];
+                pendingDeltas[topicIdx] = 0;
+                if (count > 0) {
+                    wordTopicBuffer[numNonZero] = topicIdx;
+                    wordCountBuffer[numNonZero++] = count;
+                }
+            }
+            // the remaining deltas are of topics the shared counts do not have, hence positive
+            for (int position = 0; position < deltaSize; position++) {
+                int topicIdx = deltaTopics[position];
+                if (pendingDeltas[topicIdx] != 0) {
+                    wordTopicBuffer[numNonZero] = topicIdx;
+                    wordCountBuffer[numNonZero++] = pendingDeltas[topicIdx];
+                    pendingDeltas[topicIdx] = 0;
+                }
+            }
+            rowTopics = wordTopicBuffer;
+            rowCounts = wordCountBuffer;
+            return numNonZero;
+        }
+
+        private void sweep(SplittableRandom random, double sumAlpha, double sumBeta) {
+            smoothingSum = 0.0d;
+            for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                inverses[topicIdx] = 1.0d / (topicCount(topicIdx) + sumBeta);
+                coefficients[topicIdx] = alpha[topicIdx] * inverses[topicIdx];
+                smoothingSum += coefficients[topicIdx];
+            }
+
+            for (int docIdx = docFrom; docIdx < docTo; docIdx++) {
+                docSize = docTopics.sizes[docIdx];
+                docSum = 0.0d;
+                for (int position = 0; position < docSize; position++) {
+                    int topicIdx = docTopics.topics[docIdx][position];
+                    int docCount = docTopics.counts[docIdx][position];
+                    docCounts[topicIdx] = docCount;
+                    docTopicList[position] = topicIdx;
+                    docPositions[topicIdx] = position;
+                    docSum += docCount * inverses[topicIdx];
+                    coefficients[topicIdx] = (docCount + alpha[topicIdx]) * inverses[topicIdx];
+                }
+
+                for (int tokenIdx = docStart[docIdx]; tokenIdx < docStart[docIdx + 1]; tokenIdx++) {
+                    int wordIdx = tokenWords[tokenIdx];
+                    int oldTopic = assignments[tokenIdx];
+
+                    update(wordIdx, oldTopic, -1, sumBeta);
+                    int newTopic;
+                    switch (method) {
+                        case DENSE:
+                            newTopic = sampleDense(random, wordIdx);
+                            break;
+                        case ALIAS:
+                            newTopic = sampleAlias(random, docIdx, wordIdx, tokenIdx, oldTopic, sumAlpha);
+                            break;
+                        default:
+                            newTopic = sampleSparse(random, wordIdx);
+                    }
+                    update(wordIdx, newTopic, 1, sumBeta);
+                    assignments[tokenIdx] = newTopic;
+                }
+
+                docTopics.set(docIdx, docTopicList, docCounts, docSize);
+                for (int position = 0; position < docSize; position++) {
+                    int topicIdx = docTopicList[position];
+                    docCounts[topicIdx] = 0;
+                    coefficients[topicIdx] = alpha[topicIdx] * inverses[topicIdx];
+                }
+            }
+        }
+
+        /**
+         * Add a token of the word in the document to the counts of a topic, or remove it if delta is -1.
+         */
+        private void update(int wordIdx, int topicIdx, int delta, double sumBeta) {
+            int docCount = docCounts[topicIdx];
+            smoothingSum -= alpha[topicIdx] * inverses[topicIdx];
+            docSum -= docCount * inverses[topicIdx];
+
+            docCount += delta;
+            docCounts[topicIdx] = docCount;
+            if (docCount == 0) {
+                int last = docTopicList[--docSize];
+                docTopicList[docPositions[topicIdx]] = last;
+                docPositions[last] = docPositions[topicIdx];
+            } else if (docCount == delta) {
+                docPositions[topicIdx] = docSize;
+                docTopicList[docSize++] = topicIdx;
+            }
+
+            if (wordDeltas == null) {
+                wordTopics.add(wordIdx, topicIdx, delta);
+                topicCounts[topicIdx] += delta;
+            } else {
+                wordDeltas.add(wordIdx, topicIdx, delta);
+                topicDeltas[topicIdx] += delta;
+            }
+
+            inverses[topicIdx] = 1.0d / (topicCount(topicIdx) + sumBeta);
+            coefficients[topicIdx] = (docCount + alpha[topicIdx]) * inverses[topicIdx];
+            smoothingSum += alpha[topicIdx] * inverses[topicIdx];
+            docSum += docCount * inverses[topicIdx];
+        }
+
+        /**
+         * @return the unnormalized full conditional of a topic, the current token excluded from the counts
+         * and its word loaded into wordCounts
+         */
+        private double conditional(int wordIdx, int topicIdx) {
+            return coefficients[topicIdx] * (wordCounts[topicIdx] + beta[wordIdx]);
+        }
+
+        private int sampleDense(SplittableRandom random, int wordIdx) {
+            for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                weights[topicIdx] = coefficients[topicIdx] * beta[wordIdx];
+            }
+            int wordSize = loadWord(wordIdx);
+            for (int position = 0; position < wordSize; position++) {
+                weights[rowTopics[position]] += coefficients[rowTopics[position]] * rowCounts[position];
+            }
+            return sample(weights, numTopics, random.nextDouble());
+        }
+
+        private int sampleSparse(SplittableRandom random, int wordIdx) {
+            double wordBeta = beta[wordIdx];
+
+            // word bucket: sum_k n_wk (n_dk + alpha_k) / (n_k + sum beta) over the non-zero n_wk
+            int wordSize = loadWord(wordIdx);
+            double wordSum = 0.0d;
+            for (int position = 0; position < wordSize; position++) {
+                wordSum += rowCounts[position] * coefficients[rowTopics[position]];
+                weights[position] = wordSum;
+            }
+            double docBucket = Math.max(wordBeta * docSum, 0.0d);
+            double smoothingBucket = wordBeta * smoothingSum;
+
+            double rand = random.nextDouble() * (wordSum + docBucket + smoothingBucket);
+            if (rand < wordSum) {
+                for (int position = 0; position < wordSize - 1; position++) {
+                    if (rand < weights[position]) {
+                        return rowTopics[position];
+                    }
+                }
+                return rowTopics[wordSize - 1];
+            }
+            rand -= wordSum;
+
+            // document bucket: beta_w sum_k n_dk / (n_k + sum beta) over the non-zero n_dk
+            if (rand < docBucket && docSize > 0) {
+                rand /= wordBeta;
+                for (int position = 0; position < docSize - 1; position++) {
+                    int topicIdx = docTopicList[position];
+                    rand -= docCounts[topicIdx] * inverses[topicIdx];
+                    if (rand < 0.0d) {
+                        return topicIdx;
+                    }
+                }
+                return docTopicList[docSize - 1];
+            }
+            rand = Math.max(rand - docBucket, 0.0d);
+
+            // smoothing bucket: beta_w sum_k alpha_k / (n_k + sum beta)
+            rand /= wordBeta;
+            for (int topicIdx = 0; topicIdx < numTopics - 1; topicIdx++) {
+                rand -= alpha[topicIdx] * inverses[topicIdx];
+                if (rand < 0.0d) {
+                    return topicIdx;
+                }
+            }
+            return numTopics - 1;
+        }
+
+        private int sampleAlias(SplittableRandom random, int docIdx, int wordIdx, int tokenIdx, int oldTopic,
+                                double sumAlpha) {
+            int wordOffset = wordIdx * numTopics;
+            int docFirst = docStart[docIdx], docLength = docStart[docIdx + 1] - docFirst;
+            int wordSize = loadWord(wordIdx);
+            for (int position = 0; position < wordSize; position++) {
+                wordCounts[rowTopics[position]] = rowCounts[position];
+            }
+            int topicIdx = oldTopic;
+            double current = conditional(wordIdx, topicIdx);
+
+            for (int step = 0; step < mhSteps; step++) {
+                // word proposal q(k) ~ stale (n_wk + beta_w) / (n_k + sum beta)
+                int proposal = random.nextInt(numTopics);
+                if (random.nextDouble() >= aliasProbabilities[wordOffset + proposal]) {
+                    proposal = aliasIndices[wordOffset + proposal];
+                }
+                if (proposal != topicIdx) {
+                    double candidate = conditional(wordIdx, proposal);
+                    double ratio = candidate * wordProposals[wordOffset + topicIdx]
+                            / (current * wordProposals[wordOffset + proposal]);
+                    if (ratio >= 1.0d || random.nextDouble() < ratio) {
+                        topicIdx = proposal;
+                        current = candidate;
+                    }
+                }
+
+                // document proposal q(k) ~ n_dk + alpha_k, counting the current token at its old topic
+                if (random.nextDouble() * (docLength + sumAlpha) < docLength) {
+                    proposal = assignments[docFirst + random.nextInt(docLength)];
+                } else {
+                    proposal = alphaTable.sample(random);
+                }
+                if (proposal != topicIdx) {
+                    double candidate = conditional(wordIdx, proposal);
+                    double ratio = candidate * (docCounts[topicIdx] + (topicIdx == oldTopic ? 1 : 0) + alpha[topicIdx])
+                            / (current * (docCounts[proposal] + (proposal == oldTopic ? 1 : 0) + alpha[proposal]));
+                    if (ratio >= 1.0d || random.nextDouble() < ratio) {
+                        topicIdx = proposal;
+                        current = candidate;
+                    }
+                }
+            }
+            for (int position = 0; position < wordSize; position++) {
+                wordCounts[rowTopics[position]] = 0;
+            }
+            return topicIdx;
+        }
+    }
+
+    /**
+     * Integer counts of rows over topics, kept as the list of non-zero topics of every row with their counts.
+     * The lists grow on demand up to the number of topics.
+     */
+    private static class SparseCounts {
+        private static final int[] EMPTY = new int[0];
+
+        private final int numTopics;
+
+        /**
+         * topics[row][p]: the p-th non-zero topic of the row; counts[row][p]: its count
+         */
+        private final int[][] topics, counts;
+
+        /**
+         * number of non-zero topics of every row
+         */
+        private final int[] sizes;
+
+        private SparseCounts(int numRows, int numTopics) {
+            this.numTopics = numTopics;
+            topics = new int[numRows][];
+            counts = new int[numRows][];
+            Arrays.fill(topics, EMPTY);
+            Arrays.fill(counts, EMPTY);
+            sizes = new int[numRows];
+        }
+
+        private int position(int row, int topicIdx) {
+            int[] rowTopics = topics[row];
+            for (int position = 0; position < sizes[row]; position++) {
+                if (rowTopics[position] == topicIdx) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        private int get(int row, int topicIdx) {
+            int position = position(row, topicIdx);
+            return position < 0 ? 0 : counts[row][position];
+        }
+
+        /**
+         * @return the new count
+         */
+        private int add(int row, int topicIdx, int delta) {
+            int position = position(row, topicIdx);
+            if (position >= 0) {
+                int count = counts[row][position] += delta;
+                if (count == 0) {
+                    int last = --sizes[row];
+                    topics[row][position] = topics[row][last];
+                    counts[row][position] = counts[row][last];
+                }
+                return count;
+            } else if (delta != 0) {
+                int size = sizes[row];
+                if (size == topics[row].length) {
+                    int capacity = Math.min(numTopics, Math.max(4, 2 * size));
+                    topics[row] = Arrays.copyOf(topics[row], capacity);
+                    counts[row] = Arrays.copyOf(counts[row], capacity);
+                }
+                topics[row][size] = topicIdx;
+                counts[row][size] = delta;
+                sizes[row]++;
+            }
+            return delta;
+        }
+
+        /**
+         * Replace the non-zero counts of a row.
+         *
+         * @param row         the row
+         * @param rowTopics   the non-zero topics
+         * @param topicCounts count of every topic, indexed by topic
+         * @param size        number of non-zero topics
+         */
+        private void set(int row, int[] rowTopics, int[] topicCounts, int size) {
+            if (size > topics[row].length) {
+                int capacity = Math.min(numTopics, Math.max(size, 2 * topics[row].length));
+                topics[row] = new int[capacity];
+                counts[row] = new int[capacity];
+            }
+            for (int position = 0; position < size; position++) {
+                topics[row][position] = rowTopics[position];
+                counts[row][position] = topicCounts[rowTopics[position]];
+            }
+            sizes[row] = size;
+        }
+
+        private void clear() {
+            Arrays.fill(sizes, 0);
+        }
+    }
+}
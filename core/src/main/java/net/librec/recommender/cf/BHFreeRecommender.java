@@ -26,6 +26,7 @@ import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
+import net.librec.recommender.TopicSampler;
 
 /**
  * Barbieri et al., <strong>Balancing Prediction and Recommendation Accuracy: Hierarchical Latent Factors for Preference
@@ -147,6 +148,8 @@ public class BHFreeRecommender extends MatrixProbabilisticGraphicalRecommender {
 
     @Override
     protected void eStep() {
+        // joint distribution of the user and item topics, row-major
+        double[] topicPairProbs = new double[numUserTopics * numItemTopics];
         for (MatrixEntry me : trainMatrix) {
             int u = me.row();
             int i = me.column();
@@ -163,55 +166,21 @@ public class BHFreeRecommender extends MatrixProbabilisticGraphicalRecommender {
             userTopicItemTopicRatingNum[k][l][r]--;
             userTopicItemTopicItemNum[k][l][i]--;
 
-            DenseMatrix userTopicItemTopicProbs = new DenseMatrix(numUserTopics, numItemTopics);
-            double sum = 0;
             for (int z = 0; z < numUserTopics; z++) {
+                double v1 = (userTopicNum.get(u, z) + initAlpha) / (userNum.get(u) + numUserTopics * initAlpha);
                 for (int w = 0; w < numItemTopics; w++) {
-                    double v1 = (userTopicNum.get(u, k) + initAlpha) / (userNum.get(u) + numUserTopics * initAlpha);
-                    double v2 = (userTopicItemTopicNum.get(k, l) + initBeta) / (uTopicNum.get(k) + numItemTopics * initBeta);
-                    double v3 = (userTopicItemTopicRatingNum[k][l][r] + initGamma) / (userTopicItemTopicNum.get(k, l) + numRatingLevels * initGamma);
-                    double v4 = (userTopicItemTopicItemNum[k][l][i] + initSigma) / (userTopicItemTopicNum.get(k, l) + numItems * initSigma);
-
-                    double val = v1 * v2 * v3 * v4;
-                    userTopicItemTopicProbs.set(z, w, val);
-                    sum += val;
-                }
-            }
-
-            // normalization
-            final double tmpSum = sum;
-            userTopicItemTopicProbs.assign(((row, column, value) -> value * (1.0 / tmpSum)));
-
-            // resample k
-            double[] userTopicProbs = new double[numUserTopics];
-            for (int z = 0; z < numUserTopics; z++) {
-                userTopicProbs[z] = userTopicItemTopicProbs.row(z).sum();
-            }
-            for (int z = 1; z < numUserTopics; z++) {
-                userTopicProbs[z] += userTopicProbs[z - 1];
-            }
+                    double v2 = (userTopicItemTopicNum.get(z, w) + initBeta) / (uTopicNum.get(z) + numItemTopics * initBeta);
+                    double v3 = (userTopicItemTopicRatingNum[z][w][r] + initGamma) / (userTopicItemTopicNum.get(z, w) + numRatingLevels * initGamma);
+                    double v4 = (userTopicItemTopicItemNum[z][w][i] + initSigma) / (userTopicItemTopicNum.get(z, w) + numItems * initSigma);
 
-            double rand = Randoms.uniform();
-            for (k = 0; k < numUserTopics - 1; k++) {
-                if (rand < userTopicProbs[k])
-                    break;
-            }
-
-            // resample item topic
-            double[] itemTopicProbs = new double[numItemTopics];
-            for (int w = 0; w < numItemTopics; w++) {
-                itemTopicProbs[w] = userTopicItemTopicProbs.column(w).sum();
-            }
-
-            for (int w = 1; w < numItemTopics; w++) {
-                itemTopicProbs[w] += itemTopicProbs[w - 1];
+                    topicPairProbs[z * numItemTopics + w] = v1 * v2 * v3 * v4;
+                }
             }
 
-            rand = Randoms.uniform();
-            for (l = 0; l < numItemTopics - 1; l++) {
-                if (rand < itemTopicProbs[l])
-                    break;
-            }
+            // resample the user's topic k and the item's topic l jointly
+            int topicPair = TopicSampler.sample(topicPairProbs, topicPairProbs.length, Randoms.uniform());
+            k = topicPair / numItemTopics;
+            l = topicPair % numItemTopics;
 
             // add statistic
             userTopicNum.plus(u, k, 1);
@@ -27,6 +27,7 @@ import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
+import net.librec.recommender.TopicSampler;
 
 import static net.librec.math.algorithm.Gamma.digamma;
 
@@ -181,6 +182,7 @@ public class BUCMRecommender extends MatrixProbabilisticGraphicalRecommender {
         double sumGamma = gamma.sum();
 
         // collapse Gibbs sampling
+        double[] p = new double[numTopics];
         for (MatrixEntry me : trainMatrix) {
             int u = me.row();
             int i = me.column();
@@ -201,8 +203,6 @@ public class BUCMRecommender extends MatrixProbabilisticGraphicalRecommender {
             topicItemRatingNum[t][i][r]--;
 
             // do multinomial sampling via cumulative method:
-            double[] p = new double[numTopics];
-
             double v1, v2, v3;
             for (int k = 0; k < numTopics; k++) {
 
@@ -213,17 +213,8 @@ public class BUCMRecommender extends MatrixProbabilisticGraphicalRecommender {
                 p[k] = v1 * v2 * v3;
             }
 
-            // cumulate multinomial parameters
-            for (int k = 1; k < numTopics; k++) {
-                p[k] += p[k - 1];
-            }
-
             // scaled sample because of unnormalized p[], randomly sampled a new topic t
-            double rand = Randoms.uniform() * p[numTopics - 1];
-            for (t = 0; t < numTopics; t++) {
-                if (rand < p[t])
-                    break;
-            }
+            t = TopicSampler.sample(p, numTopics, Randoms.uniform());
 
             // new topic t
             topics.put(u, i, t);
@@ -17,19 +17,15 @@
  */
 package net.librec.recommender.cf.ranking;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.algorithm.Stats;
-import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.recommender.MatrixFactorizationRecommender;
-import net.librec.util.Lists;
-import org.apache.commons.lang.ArrayUtils;
+import net.librec.recommender.PairwiseSampler;
 
-import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static net.librec.math.algorithm.Maths.logistic;
 
@@ -38,6 +34,9 @@ import static net.librec.math.algorithm.Maths.logistic;
  * <p>
  * Rendle and Freudenthaler, <strong>Improving pairwise learning for item recommendation from implicit
  * feedback</strong>, WSDM 2014.
+ * <p>
+ * The per-factor item rankings are rebuilt every |I|log|I| samples counted over all threads, and swapped in
+ * as a whole so that concurrent samplers always see a complete ranking.
  *
  * @author guoguibing and Keqiang Wang
  */
@@ -50,11 +49,23 @@ public class AoBPRRecommender extends MatrixFactorizationRecommender {
      */
     private int lambdaItem;
 
-    private double[] var;
-    private int[][] factorRanking;
-    private double[] RankingPro;
+    private volatile double[] var;
+    private volatile int[][] factorRanking;
 
-    private List<Set<Integer>> userItemsSet;
+    /**
+     * alias table of the geometric distribution over ranks
+     */
+    private PairwiseSampler.AliasTable rankingTable;
+
+    /**
+     * sampler of (user, positive item) pairs
+     */
+    protected PairwiseSampler sampler;
+
+    /**
+     * per-thread distribution p(f|c) over factors
+     */
+    private ThreadLocal<double[]> factorProbBuffer;
 
     @Override
     protected void setup() throws LibrecException {
@@ -67,103 +78,94 @@ public class AoBPRRecommender extends MatrixFactorizationRecommender {
         var = new double[numFactors];
         factorRanking = new int[numFactors][numItems];
 
-        RankingPro = new double[numItems];
-        double sum = 0;
+        double[] rankingPro = new double[numItems];
         for (int i = 0; i < numItems; i++) {
-            RankingPro[i] = Math.exp(-(i + 1) / lambdaItem);
-            sum += RankingPro[i];
-        }
-        for (int i = 0; i < numItems; i++) {
-            RankingPro[i] /= sum;
+            rankingPro[i] = Math.exp(-(i + 1) / lambdaItem);
         }
+        rankingTable = new PairwiseSampler.AliasTable(rankingPro);
+
+        sampler = new PairwiseSampler(trainMatrix, conf);
+        factorProbBuffer = ThreadLocal.withInitial(() -> new double[numFactors]);
     }
 
     @Override
     public void trainModel() throws LibrecException {
-        userItemsSet = getUserItemsSet(trainMatrix);
-        List<Integer>[] dataLists = getTrainList(trainMatrix);
-        List<Integer> userTrainList = dataLists[0];
-        List<Integer> itemTrainList = dataLists[1];
-        int countIter = 0;
-
+        AtomicLong countIter = new AtomicLong();
         int maxSample = trainMatrix.size();
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
 
         for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0d;
-            for (int s = 0; s < maxSample; s++) {
+            float rate = learnRate;
+            loss = sampler.runEpoch(maxSample, (sampleIdx, random) -> {
                 //update Ranking every |I|log|I|
-                if (countIter % loopNumber == 0) {
+                if (countIter.getAndIncrement() % loopNumber == 0) {
                     updateRankingInFactor();
-                    countIter = 0;
                 }
-                countIter++;
 
                 // randomly draw (u, i, j)
                 int userIdx, posItemIdx, negItemIdx;
-                while (true) {
-                    int dataIdx = Randoms.uniform(numRates);
-                    userIdx = userTrainList.get(dataIdx);
-                    Set<Integer> itemSet = userItemsSet.get(userIdx);
-                    if (itemSet.size() == 0 || itemSet.size() == numItems)
-                        continue;
-
-                    posItemIdx = itemTrainList.get(dataIdx);
-
-                    do {
-                        //randoms get a r by exp(-r/lamda)
-                        int randomNegItemIndex = 0;
-                        do {
-                            randomNegItemIndex = Randoms.discrete(RankingPro);
-                        } while (randomNegItemIndex > numItems);
-
-                        //randoms get a f by p(f|c)
-                        double[] pfc = new double[numFactors];
-                        double sumfc = 0;
-                        for (int pfcFactprIdx = 0; pfcFactprIdx < numFactors; pfcFactprIdx++) {
-                            double tempAbsValue = Math.abs(userFactors.get(userIdx, pfcFactprIdx));
-                            sumfc += tempAbsValue * var[pfcFactprIdx];
-                            pfc[pfcFactprIdx] = tempAbsValue * var[pfcFactprIdx];
-                        }
-                        //normalization
-                        for (int pfcFactprIdx = 0; pfcFactprIdx < numFactors; pfcFactprIdx++) {
-                            pfc[pfcFactprIdx] /= sumfc;
-                        }
-                        int factorIdx = Randoms.discrete(pfc);
-
-                        //get the r-1 in f item
-                        if (userFactors.get(userIdx, factorIdx) > 0) {
-                            negItemIdx = factorRanking[factorIdx][randomNegItemIndex];
-                        } else {
-                            negItemIdx = factorRanking[factorIdx][numItems - randomNegItemIndex - 1];
-                        }
-                    } while (itemSet.contains(negItemIdx));
-
-                    break;
-                }
+                int dataIdx;
+                do {
+                    dataIdx = sampler.sampleEntry(random);
+                    userIdx = sampler.userAt(dataIdx);
+                } while (sampler.userEnd(userIdx) - sampler.userStart(userIdx) == numItems);
+                posItemIdx = sampler.itemAt(dataIdx);
+
+                double[] userFactor = userFactorValues[userIdx];
+                double[] pfc = factorProbBuffer.get();
+                do {
+                    //randoms get a r by exp(-r/lamda)
+                    int randomNegItemIndex = rankingTable.sample(random);
+
+                    //randoms get a f by p(f|c)
+                    double[] factorVar = var;
+                    double sumfc = 0;
+                    for (int pfcFactorIdx = 0; pfcFactorIdx < numFactors; pfcFactorIdx++) {
+                        pfc[pfcFactorIdx] = Math.abs(userFactor[pfcFactorIdx]) * factorVar[pfcFactorIdx];
+                        sumfc += pfc[pfcFactorIdx];
+                    }
+                    int factorIdx = 0;
+                    double rand = random.nextDouble() * sumfc;
+                    while (factorIdx < numFactors - 1 && (rand -= pfc[factorIdx]) >= 0) {
+                        factorIdx++;
+                    }
+
+                    //get the r-1 in f item
+                    int[] ranking = factorRanking[factorIdx];
+                    if (userFactor[factorIdx] > 0) {
+                        negItemIdx = ranking[randomNegItemIndex];
+                    } else {
+                        negItemIdx = ranking[numItems - randomNegItemIndex - 1];
+                    }
+                } while (sampler.isRated(userIdx, negItemIdx));
+
+                double[] posItemFactor = itemFactorValues[posItemIdx];
+                double[] negItemFactor = itemFactorValues[negItemIdx];
 
                 // update parameters
-                double posPredictRating = predict(userIdx, posItemIdx);
-                double negPredictRating = predict(userIdx, negItemIdx);
-                double diffValue = posPredictRating - negPredictRating;
+                double diffValue = 0.0d;
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    diffValue += userFactor[factorIdx] * (posItemFactor[factorIdx] - negItemFactor[factorIdx]);
+                }
 
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
+                double sampleLoss = -Math.log(Maths.logistic(diffValue));
 
                 double deriValue = logistic(-diffValue);
 
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                    double userFactorValue = userFactor[factorIdx];
+                    double posItemFactorValue = posItemFactor[factorIdx];
+                    double negItemFactorValue = negItemFactor[factorIdx];
 
-                    userFactors.plus(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                    itemFactors.plus(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
-                    itemFactors.plus(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
+                    userFactor[factorIdx] += rate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue);
+                    posItemFactor[factorIdx] += rate * (deriValue * userFactorValue - regItem * posItemFactorValue);
+                    negItemFactor[factorIdx] += rate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue);
 
-                    loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
+                    sampleLoss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
                 }
-            }
+                return sampleLoss;
+            });
 
             if (isConverged(iter) && earlyStop) {
                 break;
@@ -172,52 +174,28 @@ public class AoBPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
-
-    public List<Map.Entry<Integer, Double>> sortByDenseVectorValue(DenseVector vector) {
-        List<Map.Entry<Integer, Double>> sortList = new ArrayList<>();
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            sortList.add(new AbstractMap.SimpleImmutableEntry(itemIdx, vector.get(itemIdx)));
-        }
-        Lists.sortList(sortList, true);
-        return sortList;
-    }
-
+    /**
+     * Rank the items of every factor by descending factor value and compute the variance of every factor.
+     */
     public void updateRankingInFactor() {
+        double[][] itemFactorValues = itemFactors.getValues();
+        int[][] newRanking = new int[numFactors][];
+        double[] newVar = new double[numFactors];
+        double[] valueList = new double[numItems];
         //echo for each factors
         for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-            // VectorBasedDenseVector factorVector = itemFactors.column(factorIdx).clone();
-            DenseVector factorVector = itemFactors.column(factorIdx).clone();
-            List<Map.Entry<Integer, Double>> sort = sortByDenseVectorValue(factorVector);
-            double[] valueList = new double[numItems];
             for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                factorRanking[factorIdx][itemIdx] = sort.get(itemIdx).getKey();
-                valueList[itemIdx] = sort.get(itemIdx).getValue();
+                valueList[itemIdx] = itemFactorValues[itemIdx][factorIdx];
             }
-            //get
-            var[factorIdx] = Stats.variance(valueList);
-        }
-    }
-
-    private List<Set<Integer>> getUserItemsSet(SequentialAccessSparseMatrix sparseMatrix) {
-        List<Set<Integer>> userItemsSet = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            int[] itemIndexes = sparseMatrix.row(userIdx).getIndices();
-            Integer[] inputBoxed = ArrayUtils.toObject(itemIndexes);
-            List<Integer> itemList = Arrays.asList(inputBoxed);
-            userItemsSet.add(new HashSet(itemList));
-        }
-        return userItemsSet;
-    }
-
-    private List<Integer>[] getTrainList(SequentialAccessSparseMatrix sparseMatrix) {
-        List<Integer> userTrainList = new ArrayList<>(), itemTrainList = new ArrayList<>();
-        for (MatrixEntry matrixEntry : sparseMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
-
-            userTrainList.add(userIdx);
-            itemTrainList.add(itemIdx);
+            int[] ranking = new int[numItems];
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                ranking[itemIdx] = itemIdx;
+            }
+            IntArrays.quickSort(ranking, (itemIdx, otherItemIdx) -> Double.compare(valueList[otherItemIdx], valueList[itemIdx]));
+            newRanking[factorIdx] = ranking;
+            newVar[factorIdx] = Stats.variance(valueList);
         }
-        return new List[]{userTrainList, itemTrainList};
+        var = newVar;
+        factorRanking = newRanking;
     }
 }
@@ -17,80 +17,75 @@
  */
 package net.librec.recommender.cf.ranking;
 
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.recommender.MatrixFactorizationRecommender;
-import org.apache.commons.lang.ArrayUtils;
-
-import java.util.*;
+import net.librec.recommender.PairwiseSampler;
 
 /**
  * Rendle et al., <strong>BPR: Bayesian Personalized Ranking from Implicit Feedback</strong>, UAI 2009.
+ * <p>
+ * Triples are drawn and applied by a {@link PairwiseSampler}, on {@code rec.thread.count} threads.
  *
  * @author GuoGuibing and Keqiang Wang
  */
 @ModelData({"isRanking", "bpr", "userFactors", "itemFactors"})
 public class BPRRecommender extends MatrixFactorizationRecommender {
 
+    /**
+     * sampler of (user, positive item, negative item) triples
+     */
+    protected transient PairwiseSampler sampler;
+
     @Override
     protected void setup() throws LibrecException {
         super.setup();
+        sampler = new PairwiseSampler(trainMatrix, conf);
+        sampler.setItemScorer(this::score);
     }
 
     @Override
     public void trainModel() throws LibrecException {
-
-        IntOpenHashSet[] userItemsSet = getUserItemsSet(trainMatrix);
         int maxSample = trainMatrix.size();
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
 
-        for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0d;
-            for (int sampleCount = 0; sampleCount < maxSample; sampleCount++) {
-
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
+            float rate = learnRate;
+            loss = sampler.runEpoch(maxSample, (sampleIdx, random) -> {
                 // randomly draw (userIdx, posItemIdx, negItemIdx)
-                int userIdx, posItemIdx, negItemIdx;
-                while (true) {
-                    userIdx = Randoms.uniform(numUsers);
-                    Set<Integer> itemSet = userItemsSet[userIdx];
-                    if (itemSet.size() == 0 || itemSet.size() == numItems)
-                        continue;
+                int userIdx = sampler.sampleUser(random);
+                int posItemIdx = sampler.samplePositive(userIdx, random);
+                int negItemIdx = sampler.sampleNegative(userIdx, random);
 
-                    int[] itemIndices = trainMatrix.row(userIdx).getIndices();
-                    posItemIdx = itemIndices[Randoms.uniform(itemIndices.length)];
-                    do {
-                        negItemIdx = Randoms.uniform(numItems);
-                    } while (itemSet.contains(negItemIdx));
-
-                    break;
-                }
+                double[] userFactor = userFactorValues[userIdx];
+                double[] posItemFactor = itemFactorValues[posItemIdx];
+                double[] negItemFactor = itemFactorValues[negItemIdx];
 
                 // update parameters
-                double posPredictRating = predict(userIdx, posItemIdx);
-                double negPredictRating = predict(userIdx, negItemIdx);
-                double diffValue = posPredictRating - negPredictRating;
-
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
+                double diffValue = 0.0d;
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    diffValue += userFactor[factorIdx] * (posItemFactor[factorIdx] - negItemFactor[factorIdx]);
+                }
 
+                double sampleLoss = -Math.log(Maths.logistic(diffValue));
                 double deriValue = Maths.logistic(-diffValue);
 
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                    double userFactorValue = userFactor[factorIdx];
+                    double posItemFactorValue = posItemFactor[factorIdx];
+                    double negItemFactorValue = negItemFactor[factorIdx];
 
-                    userFactors.plus(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                    itemFactors.plus(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
-                    itemFactors.plus(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
+                    userFactor[factorIdx] += rate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue);
+                    posItemFactor[factorIdx] += rate * (deriValue * userFactorValue - regItem * posItemFactorValue);
+                    negItemFactor[factorIdx] += rate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue);
 
-                    loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
+                    sampleLoss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
                 }
-            }
+                return sampleLoss;
+            });
             if (isConverged(iter) && earlyStop) {
                 break;
             }
@@ -98,16 +93,20 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
-    private IntOpenHashSet[] getUserItemsSet(SequentialAccessSparseMatrix sparseMatrix) {
-        IntOpenHashSet[] tempUserItemsSet = new IntOpenHashSet[numUsers];
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            int[] itemIndices = sparseMatrix.row(userIdx).getIndices();
-            IntOpenHashSet itemSet = new IntOpenHashSet(itemIndices.length);
-            for(int index = 0; index< itemIndices.length; index++){
-                itemSet.add(itemIndices[index]);
-            }
-            tempUserItemsSet[userIdx] = itemSet;
+    /**
+     * Score of an item for a user on the current factors, without locking.
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return inner product of the user and item factors
+     */
+    protected double score(int userIdx, int itemIdx) {
+        double[] userFactor = userFactors.getValues()[userIdx];
+        double[] itemFactor = itemFactors.getValues()[itemIdx];
+        double score = 0.0d;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            score += userFactor[factorIdx] * itemFactor[factorIdx];
         }
-        return tempUserItemsSet;
+        return score;
     }
 }
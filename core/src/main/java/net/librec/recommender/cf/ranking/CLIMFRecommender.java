@@ -35,7 +35,7 @@ import java.util.*;
 @ModelData({"isRanking", "climf", "userFactors", "itemFactors"})
 public class CLIMFRecommender extends MatrixFactorizationRecommender {
 
-    private List<Set<Integer>> userItemsSet;
+    private transient List<Set<Integer>> userItemsSet;
 
 
     @Override
@@ -47,7 +47,8 @@ public class CLIMFRecommender extends MatrixFactorizationRecommender {
     public void trainModel() throws LibrecException {
         userItemsSet = getUserItemsSet(trainMatrix);
 
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
             loss = 0.0f;
             for (int userIdx = 0; userIdx < numUsers; userIdx++) {
@@ -57,7 +57,7 @@ public class CoFiSetRecommender extends MatrixFactorizationRecommender {
      */
     protected int aSetSize;
 
-    private List<Set<Integer>> userItemsSet;
+    private transient List<Set<Integer>> userItemsSet;
 
     @Override
     protected void setup() throws LibrecException {
@@ -80,7 +80,8 @@ public class CoFiSetRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             loss = 0.0d;
             for (int iter_rand = 0; iter_rand < numUsers; iter_rand++) {
                 // randomly sample a user
@@ -119,6 +119,7 @@ public class EALSRecommender extends MatrixFactorizationRecommender {
 
         userFactors = new DenseMatrix(numUsers, numFactors);
         for (int iter = 1; iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             // Update the Sq cache
             for (int factorIdx1 = 0; factorIdx1 < numFactors; factorIdx1++) {
                 for (int factorIdx2 = 0; factorIdx2 <= factorIdx1; factorIdx2++) {
@@ -17,22 +17,22 @@
  */
 package net.librec.recommender.cf.ranking;
 
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.*;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.Vector;
+import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixFactorizationRecommender;
+import net.librec.recommender.PairwiseSampler;
 
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
+import java.util.SplittableRandom;
 
 /**
  * Kabbur et al., <strong>FISM: Factored Item Similarity Models for Top-N Recommender Systems</strong>, KDD 2013.
+ * <p>
+ * Users are processed in parallel on {@code rec.thread.count} threads, updating P, Q and the biases without locking.
  *
  * @author SunYatong
  */
@@ -60,14 +60,16 @@ public class FISMaucRecommender extends MatrixFactorizationRecommender {
     private DenseMatrix P, Q;
 
     /**
-     * user-items cache, item-users cache
+     * rated items of the users and the parallel epochs
      */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache;
+    protected transient PairwiseSampler sampler;
 
     /**
-     * Guava cache configuration
+     * per-thread buffers: the vectors t and x, the sampled negatives and the marks of sampled items
      */
-    protected static String cacheSpec;
+    private transient ThreadLocal<double[][]> vectorBuffer;
+    private transient ThreadLocal<int[]> negativeBuffer;
+    private transient ThreadLocal<int[]> itemMarkBuffer;
 
     @Override
     protected void setup() throws LibrecException {
@@ -85,99 +87,114 @@ public class FISMaucRecommender extends MatrixFactorizationRecommender {
         beta = conf.getFloat("rec.recommender.beta", 0.6f);
         gamma = conf.getFloat("rec.recommender.gamma", 0.1f);
         lRate = conf.getDouble("rec.iteration.learnrate", 0.0001);
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
 
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+        sampler = new PairwiseSampler(trainMatrix, conf);
+        vectorBuffer = ThreadLocal.withInitial(() -> new double[2][numFactors]);
+        negativeBuffer = ThreadLocal.withInitial(() -> new int[numItems]);
+        itemMarkBuffer = ThreadLocal.withInitial(() -> new int[numItems]);
     }
 
     @Override
     public void trainModel() throws LibrecException {
+        double[][] pValues = P.getValues();
+        double[][] qValues = Q.getValues();
+        double[] itemBiasValues = itemBiases.getValues();
 
-        for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0;
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             // for all u in C
-            for (int u = 0; u < numUsers; u++) {
+            loss = sampler.runEpoch(numUsers, (u, random) -> {
+                double userLoss = 0.0d;
                 SequentialSparseVector Ru = trainMatrix.row(u);
-                Set<Integer> u_items = Arrays.stream(Ru.getIndices()).boxed().collect(Collectors.toSet());
-                int Ru_p_size = Ru.getNumEntries();
+                int userStart = sampler.userStart(u), userEnd = sampler.userEnd(u);
+                int Ru_p_size = userEnd - userStart;
                 if (Ru_p_size == 0 || Ru_p_size == 1) {
                     Ru_p_size = 2;
                 }
+                double[][] vectors = vectorBuffer.get();
+                double[] t = vectors[0], x = vectors[1];
+                double tScale = Math.pow(Ru_p_size - 1, -alpha);
+                double pScale = Math.pow(rho, -1) * tScale;
+
                 // for all i in Ru+
                 for (Vector.VectorEntry ve : Ru) {
                     int i = ve.index();
                     // x <- 0
-                    DenseVector x = new VectorBasedDenseVector(numFactors);
-                    x.init(0);
+                    Arrays.fill(x, 0.0d);
                     // t <- (n - 1)^(-alpha) Σ pj    (j!=i)
-                    DenseVector t = new VectorBasedDenseVector(numFactors);
-                    t.init(0);
-                    for (int j : u_items) {
+                    Arrays.fill(t, 0.0d);
+                    for (int position = userStart; position < userEnd; position++) {
+                        int j = sampler.itemAt(position);
                         if (i != j) {
-                            t = t.plus(P.row(j));
+                            double[] pj = pValues[j];
+                            for (int f = 0; f < numFactors; f++) {
+                                t[f] += pj[f];
+                            }
                         }
                     }
-                    t = t.times(Math.pow(Ru_p_size - 1, -alpha));
+                    for (int f = 0; f < numFactors; f++) {
+                        t[f] *= tScale;
+                    }
 
                     // Z <- SampleZeros(rho)
-                    int sampleSize = (int) (rho * Ru_p_size);
-                    // make a random sample of negative feedback for Ru-
-                    List<Integer> negative_indices = null;
-                    try {
-                        negative_indices = Randoms.randInts(sampleSize, 0, numItems);
-                        Iterator<Integer> iterator = negative_indices.iterator(); // Thanks for Zhaohua hong's fix
-                        while(iterator.hasNext()){
-                            int index = iterator.next();
-                            if(u_items.contains(index)){
-                                iterator.remove();
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                    int sampleSize = Math.min((int) (rho * Ru_p_size), numItems);
+                    int[] negatives = negativeBuffer.get();
+                    int numNegatives = sampleNegatives(u, sampleSize, random, negatives);
+
                     // for all j in Z
-                    for (int j : negative_indices) {
-                        double bi = itemBiases.get(i);
-                        double bj = itemBiases.get(j);
+                    double[] qi = qValues[i];
+                    for (int negative = 0; negative < numNegatives; negative++) {
+                        int j = negatives[negative];
+                        double[] qj = qValues[j];
+                        double bi = itemBiasValues[i];
+                        double bj = itemBiasValues[j];
 
                         // update pui  puj  rui  ruj
                         double rui = ve.get();
-                        double pui = bi + Q.row(i).dot(t);
-                        double puj = bj + Q.row(j).dot(t);
+                        double pui = bi, puj = bj;
+                        for (int f = 0; f < numFactors; f++) {
+                            pui += qi[f] * t[f];
+                            puj += qj[f] * t[f];
+                        }
                         double ruj = 0.0;
                         double e = (rui - ruj) - (pui - puj);
-                        loss += e * e;
+                        userLoss += e * e;
 
                         // update bi  bj
-                        itemBiases.plus(i, lRate * (e - gamma * bi));
-                        itemBiases.plus(j, lRate * (e - gamma * bj));
-
-                        // update qi qj
-                        DenseVector delta_qi = t.times(e).minus(Q.row(i).times(beta));
-                        DenseVector qi = Q.row(i).plus(delta_qi.times(lRate));
-                        Q.set(i, qi);
-                        DenseVector delta_qj = t.times(e).minus(Q.row(j).times(beta));
-                        DenseVector qj = Q.row(j).minus(delta_qj.times(lRate));
-                        Q.set(j, qj);
-
-                        // update x
-                        x = x.plus(qi.minus(qj).times(e));
+                        itemBiasValues[i] += lRate * (e - gamma * bi);
+                        itemBiasValues[j] += lRate * (e - gamma * bj);
+
+                        // update qi qj, then x
+                        for (int f = 0; f < numFactors; f++) {
+                            double qif = qi[f], qjf = qj[f];
+                            qif += lRate * (t[f] * e - qif * beta);
+                            qjf -= lRate * (t[f] * e - qjf * beta);
+                            qi[f] = qif;
+                            qj[f] = qjf;
+                            x[f] += (qif - qjf) * e;
+                        }
                     }
                     // for all j in Ru+\{i}
-                    for (int j : u_items) {
+                    for (int position = userStart; position < userEnd; position++) {
+                        int j = sampler.itemAt(position);
                         if (j != i) {
                             // update pj
-                            DenseVector delta_pj = x.times(Math.pow(rho, -1) * Math.pow(Ru_p_size - 1, -alpha)).minus(P.row(j).times(beta));
-                            P.set(j, P.row(j).plus(delta_pj.times(lRate)));
+                            double[] pj = pValues[j];
+                            for (int f = 0; f < numFactors; f++) {
+                                pj[f] += lRate * (x[f] * pScale - pj[f] * beta);
+                            }
                         }
                     }
                 }
-            }
+                return userLoss;
+            });
             for (int i = 0; i < numItems; i++) {
-                double bi = itemBiases.get(i);
+                double bi = itemBiasValues[i];
                 loss += gamma * bi * bi;
-                loss += beta * Q.row(i).dot(Q.row(i));
-                loss += beta * P.row(i).dot(P.row(i));
+                for (int f = 0; f < numFactors; f++) {
+                    loss += beta * qValues[i][f] * qValues[i][f];
+                    loss += beta * pValues[i][f] * pValues[i][f];
+                }
             }
             loss *= 0.5;
             if (isConverged(iter) && earlyStop) {
@@ -187,18 +204,43 @@ public class FISMaucRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * Draw {@code sampleSize} distinct items with Floyd's algorithm and keep those the user did not rate.
+     *
+     * @param u          user index
+     * @param sampleSize number of distinct items to draw, at most numItems
+     * @param random     random stream
+     * @param negatives  output, the unrated items drawn
+     * @return number of unrated items drawn
+     */
+    private int sampleNegatives(int u, int sampleSize, SplittableRandom random, int[] negatives) {
+        int[] itemMarks = itemMarkBuffer.get();
+        int numNegatives = 0, numDrawn = 0;
+        for (int bound = numItems - sampleSize; bound < numItems; bound++) {
+            int item = random.nextInt(bound + 1);
+            if (itemMarks[item] != 0) {
+                item = bound;
+            }
+            itemMarks[item] = 1;
+            negatives[numDrawn++] = item;
+        }
+        for (int drawn = 0; drawn < numDrawn; drawn++) {
+            int item = negatives[drawn];
+            itemMarks[item] = 0;
+            if (!sampler.isRated(u, item)) {
+                negatives[numNegatives++] = item;
+            }
+        }
+        return numNegatives;
+    }
+
     @Override
     protected double predict(int u, int j) throws LibrecException {
         double pred = itemBiases.get(j);
         double sum = 0;
         int count = 0;
-        List<Integer> ratedItems = null;
-        try {
-            ratedItems = userItemsCache.get(u);
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-        for (int i : ratedItems) {
+        for (int position = sampler.userStart(u); position < sampler.userEnd(u); position++) {
+            int i = sampler.itemAt(position);
             // for test, i and j will be always unequal as j is unrated
             if (i != j) {
                 sum += P.row(i).dot(Q.row(j));
@@ -65,12 +65,12 @@ public class FISMrmseRecommender extends MatrixFactorizationRecommender {
 	/**
 	 * user-items cache, item-users cache
 	 */
-	protected LoadingCache<Integer, List<Integer>> userItemsCache;
+	protected transient LoadingCache<Integer, List<Integer>> userItemsCache;
 
 	/**
 	 * Guava cache configuration
 	 */
-	protected static String cacheSpec;
+	protected String cacheSpec;
 
 	@Override
 	protected void setup() throws LibrecException {
@@ -101,7 +101,8 @@ public class FISMrmseRecommender extends MatrixFactorizationRecommender {
 
 		int sampleSize = (int) (rho * nnz);
 		int totalSize = numUsers * numItems;
-		for (int iter = 1; iter <= numIterations; iter++) {
+		for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+			saveCheckpoint(iter);
 			loss = 0;
 			// new training data by sampling negative values
 			Table<Integer, Integer, Double> R = trainMatrix.getDataTable();
@@ -17,19 +17,14 @@
  */
 package net.librec.recommender.cf.ranking;
 
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixFactorizationRecommender;
+import net.librec.recommender.PairwiseSampler;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.Arrays;
 
 /**
  * Pan and Chen, <strong>GBPR: Group Preference Based Bayesian Personalized Ranking for One-Class Collaborative
@@ -53,14 +48,15 @@ public class GBPRRecommender extends MatrixFactorizationRecommender {
     private VectorBasedDenseVector itemBiases;
 
     /**
-     * user-items cache, item-users cache
+     * sampler of (user, positive item, negative item) triples
      */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache, itemUsersCache;
+    protected PairwiseSampler sampler;
 
     /**
-     * Guava cache configuration
+     * per-thread user group and factor sums of the group
      */
-    protected static String cacheSpec;
+    private ThreadLocal<int[]> groupBuffer;
+    private ThreadLocal<double[]> sumGroupBuffer;
 
     @Override
     protected void setup() throws LibrecException {
@@ -73,114 +69,120 @@ public class GBPRRecommender extends MatrixFactorizationRecommender {
         gLen = conf.getInt("rec.gpbr.gsize", 2);
         regBias = conf.getDouble("rec.bias.regularization", 0.01);
 
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-        itemUsersCache = trainMatrix.columnRowsCache(cacheSpec);
+        sampler = new PairwiseSampler(trainMatrix, conf);
+        groupBuffer = ThreadLocal.withInitial(() -> new int[Math.max(gLen, 1)]);
+        sumGroupBuffer = ThreadLocal.withInitial(() -> new double[numFactors]);
     }
 
     @Override
     public void trainModel() throws LibrecException {
         int maxSample = trainMatrix.size();
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        double[] itemBiasValues = itemBiases.getValues();
+        double[][] tempUserFactors = new double[numUsers][numFactors];
+        double[][] tempItemFactors = new double[numItems][numFactors];
+
         for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
-            DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
-            DenseMatrix tempItemFactors = new DenseMatrix(numItems, numFactors);
-
-            for (int sample = 0; sample < maxSample; sample++) {
-                // uniformly draw (userIdx, posItemIdx, userGroupSet, negItemIdx)
-                int userIdx, posItemIdx, negItemIdx;
-                // userIdx
-                List<Integer> ratedItems = null; // row userIdx itemList
-                do {
-                    userIdx = Randoms.uniform(numUsers);
-                    try {
-                        ratedItems = userItemsCache.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
+            float rate = learnRate;
+            loss = sampler.runEpoch(maxSample, (sampleIdx, random) -> {
+                // uniformly draw (userIdx, posItemIdx, userGroup, negItemIdx)
+                int userIdx = sampler.sampleUser(random);
+                int posItemIdx = sampler.samplePositive(userIdx, random);
+                int negItemIdx = sampler.sampleNegative(userIdx, random);
+
+                // users group, including userIdx
+                int[] group = groupBuffer.get();
+                int groupSize;
+                int itemStart = sampler.itemStart(posItemIdx), numRaters = sampler.itemEnd(posItemIdx) - itemStart;
+                if (numRaters <= gLen) {
+                    for (groupSize = 0; groupSize < numRaters; groupSize++) {
+                        group[groupSize] = sampler.raterAt(itemStart + groupSize);
                     }
-                } while (ratedItems.size() == 0);
-
-                // positive item
-                posItemIdx = Randoms.random(ratedItems);
-
-                // users group Set
-                List<Integer> posRatedUserList = null; // column i
-                try {
-                    posRatedUserList = itemUsersCache.get(posItemIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
-                }
-                Set<Integer> groupSet = new HashSet<>();
-                if (posRatedUserList.size() <= gLen) {
-                    groupSet.addAll(posRatedUserList);
                 } else {
-                    groupSet.add(userIdx); // u in G
-                    while (groupSet.size() < gLen) {
-                        int tempUserIdx = Randoms.random(posRatedUserList);
-                        if (!groupSet.contains(tempUserIdx))
-                            groupSet.add(tempUserIdx);
+                    group[0] = userIdx;
+                    groupSize = 1;
+                    while (groupSize < gLen) {
+                        int tempUserIdx = sampler.raterAt(itemStart + random.nextInt(numRaters));
+                        boolean contained = false;
+                        for (int member = 0; member < groupSize && !contained; member++) {
+                            contained = group[member] == tempUserIdx;
+                        }
+                        if (!contained) {
+                            group[groupSize++] = tempUserIdx;
+                        }
                     }
                 }
 
-                double posPredictRating = predict(userIdx, posItemIdx, groupSet);
+                double[] userFactor = userFactorValues[userIdx];
+                double[] posItemFactor = itemFactorValues[posItemIdx];
+                double[] negItemFactor = itemFactorValues[negItemIdx];
 
-                // negative item index
-                do {
-                    negItemIdx = Randoms.uniform(numItems);
-                } while (ratedItems.contains(negItemIdx));
-
-                double negPredictRating = predict(userIdx, negItemIdx);
+                double groupRating = 0.0d;
+                for (int member = 0; member < groupSize; member++) {
+                    groupRating += dot(userFactorValues[group[member]], posItemFactor);
+                }
+                groupRating /= groupSize;
+                double posPredictRating = itemBiasValues[posItemIdx]
+                        + rho * groupRating + (1 - rho) * dot(userFactor, posItemFactor);
+                double negPredictRating = itemBiasValues[negItemIdx] + dot(userFactor, negItemFactor);
 
                 double diffValue = posPredictRating - negPredictRating;
 
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
+                double sampleLoss = -Math.log(Maths.logistic(diffValue));
 
                 double deriValue = Maths.logistic(-diffValue);
 
                 // update bi, bj
-                double posBiasValue = itemBiases.get(posItemIdx);
-                itemBiases.plus(posItemIdx, learnRate * (deriValue - regBias * posBiasValue));
-                loss += regBias * posBiasValue * posBiasValue;
+                double posBiasValue = itemBiasValues[posItemIdx];
+                itemBiasValues[posItemIdx] += rate * (deriValue - regBias * posBiasValue);
+                sampleLoss += regBias * posBiasValue * posBiasValue;
 
-                double negBiasValue = itemBiases.get(negItemIdx);
-                itemBiases.plus(negItemIdx, learnRate * (-deriValue - regBias * negBiasValue));
-                loss += regBias * negBiasValue * negBiasValue;
+                double negBiasValue = itemBiasValues[negItemIdx];
+                itemBiasValues[negItemIdx] += rate * (-deriValue - regBias * negBiasValue);
+                sampleLoss += regBias * negBiasValue * negBiasValue;
 
                 // update Pw
-                double averageWeight = 1.0 / groupSet.size();
-                double sumGroup[] = new double[numFactors];
-                for (int groupUserIdx : groupSet) {
+                double averageWeight = 1.0 / groupSize;
+                double[] sumGroup = sumGroupBuffer.get();
+                Arrays.fill(sumGroup, 0.0d);
+                for (int member = 0; member < groupSize; member++) {
+                    int groupUserIdx = group[member];
                     double delta = groupUserIdx == userIdx ? 1 : 0;
+                    double[] groupUserFactor = userFactorValues[groupUserIdx];
+                    double[] tempGroupUserFactor = tempUserFactors[groupUserIdx];
                     for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double groupUserFactorValue = userFactors.get(groupUserIdx, factorIdx);
-                        double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                        double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                        double groupUserFactorValue = groupUserFactor[factorIdx];
+                        double posItemFactorValue = posItemFactor[factorIdx];
+                        double negItemFactorValue = negItemFactor[factorIdx];
 
                         double deltaGroup = rho * averageWeight * posItemFactorValue + (1 - rho) * delta * posItemFactorValue - delta * negItemFactorValue;
-                        tempUserFactors.plus(groupUserIdx, factorIdx, learnRate * (deriValue * deltaGroup - regUser * groupUserFactorValue));
-                        loss += regUser * groupUserFactorValue * groupUserFactorValue;
+                        tempGroupUserFactor[factorIdx] += rate * (deriValue * deltaGroup - regUser * groupUserFactorValue);
+                        sampleLoss += regUser * groupUserFactorValue * groupUserFactorValue;
                         sumGroup[factorIdx] += groupUserFactorValue;
                     }
                 }
 
                 // update itemFactors
+                double[] tempPosItemFactor = tempItemFactors[posItemIdx];
+                double[] tempNegItemFactor = tempItemFactors[negItemIdx];
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                    double userFactorValue = userFactor[factorIdx];
+                    double posItemFactorValue = posItemFactor[factorIdx];
+                    double negItemFactorValue = negItemFactor[factorIdx];
 
                     double posDelta = rho * averageWeight * sumGroup[factorIdx] + (1 - rho) * userFactorValue;
-                    tempItemFactors.plus(posItemIdx, factorIdx, learnRate * (deriValue * posDelta - regItem * posItemFactorValue));
-                    loss += regItem * posItemFactorValue * posItemFactorValue;
-                    loss += regItem * negItemFactorValue * negItemFactorValue;
+                    tempPosItemFactor[factorIdx] += rate * (deriValue * posDelta - regItem * posItemFactorValue);
+                    sampleLoss += regItem * posItemFactorValue * posItemFactorValue;
+                    sampleLoss += regItem * negItemFactorValue * negItemFactorValue;
                     double negDelta = -userFactorValue;
-                    tempItemFactors.plus(negItemIdx, factorIdx, learnRate * (deriValue * negDelta - regItem * negItemFactorValue));
+                    tempNegItemFactor[factorIdx] += rate * (deriValue * negDelta - regItem * negItemFactorValue);
                 }
-            }
+                return sampleLoss;
+            });
 
-            userFactors.assign(userFactors.plus(tempUserFactors));
-            itemFactors.assign(itemFactors.plus(tempItemFactors));
+            applyUpdates(userFactorValues, tempUserFactors);
+            applyUpdates(itemFactorValues, tempItemFactors);
 
             if (isConverged(iter) && earlyStop) {
                 break;
@@ -189,17 +191,27 @@ public class GBPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * Add the updates accumulated in an epoch to the factors and reset them.
+     *
+     * @param factors factors
+     * @param updates accumulated updates
+     */
+    private void applyUpdates(double[][] factors, double[][] updates) {
+        for (int row = 0; row < factors.length; row++) {
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                factors[row][factorIdx] += updates[row][factorIdx];
+            }
+            Arrays.fill(updates[row], 0.0d);
+        }
+    }
 
-    protected double predict(int userIdx, int itemIdx, Set<Integer> groupSet) throws LibrecException {
-        double predictRating = predict(userIdx, itemIdx);
-
-        double sum = 0;
-        for (int groupUserIdx : groupSet)
-            sum += userFactors.row(groupUserIdx).dot(itemFactors.row(itemIdx));
-
-        double groupRating = sum / groupSet.size() + itemBiases.get(itemIdx);
-
-        return rho * groupRating + (1 - rho) * predictRating;
+    private double dot(double[] userFactor, double[] itemFactor) {
+        double product = 0.0d;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            product += userFactor[factorIdx] * itemFactor[factorIdx];
+        }
+        return product;
     }
 
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
@@ -27,6 +27,7 @@ import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
+import net.librec.recommender.TopicSampler;
 import net.librec.util.RatingContext;
 import org.apache.commons.lang.ArrayUtils;
 
@@ -171,7 +172,7 @@ public class ItemBigramRecommender extends MatrixProbabilisticGraphicalRecommend
             for (int itemIdxIndex = 0; itemIdxIndex < itemIdxList.size(); itemIdxIndex++) {
                 int itemIdx = itemIdxList.get(itemIdxIndex);
 
-                int topicIdx = (int) (Math.random() * numTopics);
+                int topicIdx = Randoms.uniform(numTopics);
                 topicAssignments.put(userIdx, itemIdx, topicIdx);
 
                 userTopicNumbers.plus(userIdx, topicIdx, 1.0);
@@ -189,6 +190,13 @@ public class ItemBigramRecommender extends MatrixProbabilisticGraphicalRecommend
         double sumAlpha = alpha.sum();
         double tempValue1, tempValue2;
 
+        // beta only changes in the M step
+        double[] betaSums = new double[numTopics];
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            betaSums[topicIdx] = beta.row(topicIdx).sum();
+        }
+        double[] tempUserProbs = new double[numTopics];
+
         for (Map.Entry<Integer, List<Integer>> userItemEntry : userItemsMap.entrySet()) {
             int userIdx = userItemEntry.getKey();
             List<Integer> items = userItemEntry.getValue();
@@ -204,24 +212,15 @@ public class ItemBigramRecommender extends MatrixProbabilisticGraphicalRecommend
                 topicPreItemCurItemNum[topicIdx][preItemIdx][itemIdx]--;
                 topicItemProbs.plus(topicIdx, preItemIdx, -1);
 
-                double[] tempUserProbs = new double[numTopics];
                 for (int topicInIdx = 0; topicInIdx < numTopics; topicInIdx++) {
-                    tempValue1 = (userTopicNumbers.get(userIdx, topicIdx) + alpha.get(topicInIdx)) / (userTokenNumbers.get(userIdx) + sumAlpha);
+                    tempValue1 = (userTopicNumbers.get(userIdx, topicInIdx) + alpha.get(topicInIdx)) / (userTokenNumbers.get(userIdx) + sumAlpha);
                     tempValue2 = (topicPreItemCurItemNum[topicInIdx][preItemIdx][itemIdx] + beta.get(topicInIdx, preItemIdx))
-                            / (topicItemProbs.get(topicInIdx, preItemIdx) + beta.row(topicInIdx).sum());
+                            / (topicItemProbs.get(topicInIdx, preItemIdx) + betaSums[topicInIdx]);
 
                     tempUserProbs[topicInIdx] = tempValue1 * tempValue2;
                 }
 
-                for (int topicInIdx = 1; topicInIdx < numTopics; topicInIdx++) {
-                    tempUserProbs[topicInIdx] += tempUserProbs[topicInIdx - 1];
-                }
-
-                double rand = Randoms.uniform() * tempUserProbs[numTopics - 1];
-                for (topicIdx = 0; topicIdx < numTopics; topicIdx++) {
-                    if (rand < tempUserProbs[topicIdx])
-                        break;
-                }
+                topicIdx = TopicSampler.sample(tempUserProbs, numTopics, Randoms.uniform());
 
                 topicAssignments.put(userIdx, itemIdx, topicIdx);
 
@@ -20,11 +20,11 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Gamma;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
+import net.librec.recommender.TopicSampler;
 
 
 /**
@@ -52,29 +52,9 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
      */
     protected float initBeta;
     /**
-     * entry[k, i]: number of tokens assigned to topic k, given item i.
+     * collapsed Gibbs sampler of the topic assignments, users as documents and items as words
      */
-    protected DenseMatrix topicItemNumbers;
-
-    /**
-     * entry[u, k]: number of tokens assigned to topic k, given user u.
-     */
-    protected DenseMatrix userTopicNumbers;
-
-    /**
-     * topic assignment as list from the iterator of trainMatrix
-     */
-    protected int[] topicAssignments;
-
-    /**
-     * entry[u]: number of tokens rated by user u.
-     */
-    protected VectorBasedDenseVector userTokenNumbers;
-
-    /**
-     * entry[k]: number of tokens assigned to topic t.
-     */
-    protected VectorBasedDenseVector topicTokenNumbers;
+    protected TopicSampler topicSampler;
 
     /**
      * number of topics
@@ -96,6 +76,11 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
      */
     protected DenseMatrix userTopicProbs, topicItemProbs;
 
+    /**
+     * item-major copy of topicItemProbs
+     */
+    private transient double[][] itemTopicValues;
+
     /**
      * size of statistics
      */
@@ -114,13 +99,6 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
         userTopicProbsSum = new DenseMatrix(numUsers, numTopics);
         topicItemProbsSum = new DenseMatrix(numTopics, numItems);
 
-        // initialize count variables.
-        userTopicNumbers = new DenseMatrix(numUsers, numTopics);
-        userTokenNumbers = new VectorBasedDenseVector(numUsers);
-
-        topicItemNumbers = new DenseMatrix(numTopics, numItems);
-        topicTokenNumbers = new VectorBasedDenseVector(numTopics);
-
         // default value:
         // homas L Griffiths and Mark Steyvers. Finding scientific topics.
         // Proceedings of the National Academy of Sciences, 101(suppl 1):5228–5235, 2004.
@@ -133,79 +111,30 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
         beta = new VectorBasedDenseVector(numItems);
         beta.assign((index, value) -> initBeta);
 
-        // The z_u,i are initialized to values in [0, K-1] to determine the initial state of the Markov chain.
-        topicAssignments = new int[trainMatrix.size()];
-        int topicAssignmentsIndex = 0;
+        // tokens of the users in order, every item repeated as many times as its count
+        int numTokens = 0;
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            numTokens += (int) (matrixEntry.get());
+        }
+        int[] tokenUsers = new int[numTokens], tokenItems = new int[numTokens];
+        int tokenIdx = 0;
         for (MatrixEntry matrixEntry : trainMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
             int num = (int) (matrixEntry.get());
             for (int numIdx = 0; numIdx < num; numIdx++) {
-                int topicIdx = Randoms.uniform(numTopics); // 0 ~ k-1
-
-                // assign a topic t to pair (u, i)
-                topicAssignments[topicAssignmentsIndex++] = topicIdx;
-
-                // number of items of user u assigned to topic t.
-                userTopicNumbers.plus(userIdx, topicIdx, 1);
-                // total number of items of user u
-                userTokenNumbers.plus(userIdx, 1);
-                // number of instances of item i assigned to topic t
-                topicItemNumbers.plus(topicIdx, itemIdx, 1);
-                // total number of words assigned to topic t.
-                topicTokenNumbers.plus(topicIdx, 1);
+                tokenUsers[tokenIdx] = matrixEntry.row();
+                tokenItems[tokenIdx++] = matrixEntry.column();
             }
         }
+
+        // The z_u,i are initialized to values in [0, K-1] to determine the initial state of the Markov chain.
+        topicSampler = new TopicSampler(numUsers, numItems, numTopics, tokenUsers, tokenItems,
+                alpha.getValues(), beta.getValues(), conf);
     }
 
     @Override
     protected void eStep() {
-        double sumAlpha = alpha.sum();
-        double sumBeta = beta.sum();
-
         // Gibbs sampling from full conditional distribution
-        int topicAssignmentsIdx = 0;
-        for (MatrixEntry matrixEntry : trainMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
-
-            int num = (int) (matrixEntry.get());
-            for (int numIdx = 0; numIdx < num; numIdx++) {
-                int topicIdx = topicAssignments[topicAssignmentsIdx]; // topic
-
-                userTopicNumbers.plus(userIdx, topicIdx, -1);
-                userTokenNumbers.plus(userIdx, -1);
-                topicItemNumbers.plus(topicIdx, itemIdx, -1);
-                topicTokenNumbers.plus(topicIdx, -1);
-
-                // do multinomial sampling via cumulative method:
-                double[] p = new double[numTopics];
-                for (topicIdx = 0; topicIdx < numTopics; topicIdx++) {
-                    p[topicIdx] = (userTopicNumbers.get(userIdx, topicIdx) + alpha.get(topicIdx)) / (userTokenNumbers.get(userIdx)
-                            + sumAlpha) * (topicItemNumbers.get(topicIdx, itemIdx) + beta.get(itemIdx))
-                            / (topicTokenNumbers.get(topicIdx) + sumBeta);
-                }
-                // cumulating multinomial parameters
-                for (topicIdx = 1; topicIdx < p.length; topicIdx++) {
-                    p[topicIdx] += p[topicIdx - 1];
-                }
-                // scaled sample because of unnormalized p[], randomly sampled a new topic t
-                double rand = Randoms.uniform() * p[numTopics - 1];
-                for (topicIdx = 0; topicIdx < p.length; topicIdx++) {
-                    if (rand < p[topicIdx])
-                        break;
-                }
-
-                // plus newly estimated z_i to count variables
-                userTopicNumbers.plus(userIdx, topicIdx, 1);
-                userTokenNumbers.plus(userIdx, 1);
-                topicItemNumbers.plus(topicIdx, itemIdx, 1);
-                topicTokenNumbers.plus(topicIdx, 1);
-
-                topicAssignments[topicAssignmentsIdx] = topicIdx;
-                topicAssignmentsIdx++;
-            }
-        }
+        topicSampler.sweep();
     }
 
     @Override
@@ -217,7 +146,7 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
 
         double denominator = 0.0d;
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            denominator += Gamma.digamma(userTokenNumbers.get(userIdx) + sumAlpha) - digammaAlphaSum;
+            denominator += Gamma.digamma(topicSampler.getDocLength(userIdx) + sumAlpha) - digammaAlphaSum;
         }
 
         // update alpha vector
@@ -226,7 +155,10 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
             digammaTopicAlpha = Gamma.digamma(topicAlpha);
             double numerator = 0.0;
             for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-                numerator += Gamma.digamma(userTopicNumbers.get(userIdx, topicIdx) + topicAlpha) - digammaTopicAlpha;
+                // zero counts contribute digamma(alpha) - digamma(alpha) = 0
+                int count = topicSampler.getDocTopicCount(userIdx, topicIdx);
+                if (count > 0)
+                    numerator += Gamma.digamma(count + topicAlpha) - digammaTopicAlpha;
             }
             if (numerator != 0)
                 alpha.set(topicIdx, topicAlpha * (numerator / denominator));
@@ -236,7 +168,7 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
         denominator = 0.0d;
         double digammaBetaSum = Gamma.digamma(sumBeta);
         for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
-            denominator += Gamma.digamma(topicTokenNumbers.get(topicIdx) + sumBeta) - digammaBetaSum;
+            denominator += Gamma.digamma(topicSampler.getTopicCount(topicIdx) + sumBeta) - digammaBetaSum;
         }
 
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
@@ -244,7 +176,9 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
             digammaItemBeta = Gamma.digamma(itemBeta);
             double numerator = 0;
             for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
-                numerator += Gamma.digamma(topicItemNumbers.get(topicIdx, itemIdx) + itemBeta) - digammaItemBeta;
+                int count = topicSampler.getWordTopicCount(itemIdx, topicIdx);
+                if (count > 0)
+                    numerator += Gamma.digamma(count + itemBeta) - digammaItemBeta;
             }
             if (numerator != 0)
                 beta.set(itemIdx, itemBeta * (numerator / denominator));
@@ -257,19 +191,21 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
     protected void readoutParams() {
         double sumAlpha = alpha.sum();
         double sumBeta = beta.sum();
+        double[] alphaValues = alpha.getValues(), betaValues = beta.getValues();
+        double[][] userTopicSums = userTopicProbsSum.getValues();
+        double[][] topicItemSums = topicItemProbsSum.getValues();
 
-        double val;
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            double userDenominator = topicSampler.getDocLength(userIdx) + sumAlpha;
             for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
-                val = (userTopicNumbers.get(userIdx, factorIdx) + alpha.get(factorIdx)) / (userTokenNumbers.get(userIdx) + sumAlpha);
-                userTopicProbsSum.plus(userIdx, factorIdx, val);
+                userTopicSums[userIdx][factorIdx] += (topicSampler.getDocTopicCount(userIdx, factorIdx) + alphaValues[factorIdx]) / userDenominator;
             }
         }
 
         for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
+            double topicDenominator = topicSampler.getTopicCount(factorIdx) + sumBeta;
             for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                val = (topicItemNumbers.get(factorIdx, itemIdx) + beta.get(itemIdx)) / (topicTokenNumbers.get(factorIdx) + sumBeta);
-                topicItemProbsSum.plus(factorIdx, itemIdx, val);
+                topicItemSums[factorIdx][itemIdx] += (topicSampler.getWordTopicCount(itemIdx, factorIdx) + betaValues[itemIdx]) / topicDenominator;
             }
         }
         numStats++;
@@ -279,11 +215,29 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
     protected void estimateParams() {
         userTopicProbs = userTopicProbsSum.times(1.0 / numStats);
         topicItemProbs = topicItemProbsSum.times(1.0 / numStats);
+
+        // item-major copy of phi for contiguous dot products in predict
+        double[][] topicItemValues = topicItemProbs.getValues();
+        itemTopicValues = new double[numItems][numTopics];
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                itemTopicValues[itemIdx][topicIdx] = topicItemValues[topicIdx][itemIdx];
+            }
+        }
     }
 
 
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        return userTopicProbs.row(userIdx).dot(topicItemProbs.column(itemIdx));
+        if (itemTopicValues == null) {
+            return userTopicProbs.row(userIdx).dot(topicItemProbs.column(itemIdx));
+        }
+        double[] userValues = userTopicProbs.getValues()[userIdx];
+        double[] itemValues = itemTopicValues[itemIdx];
+        double prediction = 0.0d;
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            prediction += userValues[topicIdx] * itemValues[topicIdx];
+        }
+        return prediction;
     }
 }
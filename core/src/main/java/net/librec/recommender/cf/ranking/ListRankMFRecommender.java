@@ -43,6 +43,7 @@ public class ListRankMFRecommender extends MatrixFactorizationRecommender {
     @Override
     public void trainModel() throws LibrecException {
         for (int iter = 1; iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             loss = 0;
             for(int u=0;u<numUsers;u++){
                 double uexp = 0;
@@ -19,14 +19,17 @@ package net.librec.recommender.cf.ranking;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
+import net.librec.math.algorithm.LeastSquaresSolver;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.Vector.VectorEntry;
+import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Takacs and Tikk,
@@ -44,11 +47,18 @@ public class RankALSRecommender extends MatrixFactorizationRecommender {
 
     private double sumSupport;
 
+    /**
+     * solver of the per-user and per-item systems
+     */
+    protected transient LeastSquaresSolver solver;
+
     @Override
     protected void setup() throws LibrecException {
         super.setup();
 
         isSupportWeight = conf.getBoolean("rec.rankals.support.weight", true);
+        solver = new LeastSquaresSolver(numFactors, conf.get("rec.als.solver", "cholesky"),
+                conf.getInt("rec.als.cg.iterations", 3));
 
         supportVector = new VectorBasedDenseVector(numItems);
         sumSupport = 0;
@@ -61,26 +71,29 @@ public class RankALSRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter < numIterations; iter++) {
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        double[] support = supportVector.getValues();
+        int[] cus = nonEmptyRows(trainMatrix).stream().mapToInt(Integer::intValue).toArray(); // list of users with$c_ui=1$
 
-            // P step: update user vectors
-            DenseVector sum_sq = new VectorBasedDenseVector(numFactors);
-            DenseMatrix sum_sqq = new DenseMatrix(numFactors, numFactors);
+        for (int iter = restoreCheckpoint(1); iter < numIterations; iter++) {
+            saveCheckpoint(iter);
 
+            // P step: update user vectors
+            double[] sum_sq = new double[numFactors];
             for (int j = 0; j < numItems; j++) {
-                DenseVector qj = itemFactors.row(j);
-                double sj = supportVector.get(j);
-                sum_sq = sum_sq.plus(qj.times(sj));
-                sum_sqq = sum_sqq.plus(qj.outer(qj).times(sj));
+                addScaled(sum_sq, itemFactorValues[j], support[j]);
             }
+            double[] sum_sqq = solver.gram(itemFactorValues, support);
 
-            List<Integer> cus = nonEmptyRows(trainMatrix); // list of users with$c_ui=1$
-            for (int u : cus) {
+            Arrays.stream(cus).parallel().forEach(u -> {
                 // for each user
-                DenseMatrix sum_cqq = new DenseMatrix(numFactors, numFactors);
-                DenseVector sum_cq = new VectorBasedDenseVector(numFactors);
-                DenseVector sum_cqr = new VectorBasedDenseVector(numFactors);
-                DenseVector sum_sqr = new VectorBasedDenseVector(numFactors);
+                double[] M = solver.matrix();
+                double[] y = solver.vector();
+                double[] sum_cq = new double[numFactors];
+                double[] sum_cqr = new double[numFactors];
+                double[] sum_sqr = new double[numFactors];
+                Arrays.fill(M, 0.0d);
 
                 SequentialSparseVector Ru = trainMatrix.row(u);
                 double sum_c = Ru.getNumEntries();
@@ -90,99 +103,131 @@ public class RankALSRecommender extends MatrixFactorizationRecommender {
                     int i = ve.index();
                     double rui = ve.get();
                     // double cui = 1;
-                    DenseVector qi = itemFactors.row(i);
+                    double[] qi = itemFactorValues[i];
 
-                    sum_cqq = sum_cqq.plus(qi.outer(qi));
-                    sum_cq = sum_cq.plus(qi);
-                    sum_cqr = sum_cqr.plus(qi.times(rui));
+                    // sum_cqq, scaled by sumSupport
+                    solver.addOuter(M, qi, sumSupport);
+                    addScaled(sum_cq, qi, 1.0d);
+                    addScaled(sum_cqr, qi, rui);
 
                     // ratings of unrated items will be 0
-                    double si = supportVector.get(i);
+                    double si = support[i];
                     sum_sr += si * rui;
                     sum_cr += rui;
-                    sum_sqr = sum_sqr.plus(qi.times(si * rui));
+                    addScaled(sum_sqr, qi, si * rui);
+                }
+                solver.symmetrize(M);
+
+                // M = sum_cqq * sumSupport - sum_cq sum_sq^T - sum_sq sum_cq^T + sum_sqq * sum_c
+                for (int row = 0; row < numFactors; row++) {
+                    int offset = row * numFactors;
+                    for (int column = 0; column < numFactors; column++) {
+                        M[offset + column] += sum_sqq[offset + column] * sum_c
+                                - sum_cq[row] * sum_sq[column] - sum_sq[row] * sum_cq[column];
+                    }
+                    y[row] = sum_cqr[row] * sumSupport - sum_cq[row] * sum_sr - sum_sq[row] * sum_cr
+                            + sum_sqr[row] * sum_c;
                 }
 
-                DenseMatrix M = sum_cqq.times(sumSupport).minus(sum_cq.outer(sum_sq)).minus(sum_sq.outer(sum_cq))
-                        .plus(sum_sqq.times(sum_c));
-
-                DenseVector y = sum_cqr.times(sumSupport).minus(sum_cq.times(sum_sr)).minus(sum_sq.times(sum_cr))
-                        .plus(sum_sqr.times(sum_c));
-
-                DenseVector pu = M.inverse().times(y);
-                userFactors.row(u).assign((index, value) -> {
-                    return pu.get(index);
-                });
-            }
+                solver.solve(M, y, userFactorValues[u]);
+            });
 
             // Q step: update item vectors
-            Map<Integer, Double> m_sum_sr = new HashMap<>();
-            Map<Integer, Double> m_sum_cr = new HashMap<>();
-            Map<Integer, Double> m_sum_c = new HashMap<>();
-            Map<Integer, DenseVector> m_sum_cq = new HashMap<>();
+            double[] m_sum_sr = new double[numUsers];
+            double[] m_sum_cr = new double[numUsers];
+            double[] m_sum_c = new double[numUsers];
+            double[][] m_sum_cq = new double[numUsers][];
 
-            for (int u : cus) {
+            Arrays.stream(cus).parallel().forEach(u -> {
                 SequentialSparseVector Ru = trainMatrix.row(u);
 
                 double sum_sr = 0, sum_cr = 0, sum_c = Ru.getNumEntries();
-                DenseVector sum_cq = new VectorBasedDenseVector(numFactors);
+                double[] sum_cq = new double[numFactors];
 
                 for (VectorEntry ve : Ru) {
                     int j = ve.index();
                     double ruj = ve.get();
-                    double sj = supportVector.get(j);
+                    double sj = support[j];
 
                     sum_sr += sj * ruj;
                     sum_cr += ruj;
-                    sum_cq = sum_cq.plus(itemFactors.row(j));
+                    addScaled(sum_cq, itemFactorValues[j], 1.0d);
                 }
 
-                m_sum_sr.put(u, sum_sr);
-                m_sum_cr.put(u, sum_cr);
-                m_sum_c.put(u, sum_c);
-                m_sum_cq.put(u, sum_cq);
+                m_sum_sr[u] = sum_sr;
+                m_sum_cr[u] = sum_cr;
+                m_sum_c[u] = sum_c;
+                m_sum_cq[u] = sum_cq;
+            });
+
+            // the sums over all users do not depend on the item
+            double[][] cusFactors = new double[cus.length][];
+            double[] cusCounts = new double[cus.length];
+            double[] sum_p_p_cq = new double[numFactors];
+            double[] sum_cr_p = new double[numFactors];
+            for (int index = 0; index < cus.length; index++) {
+                int u = cus[index];
+                double[] pu = userFactorValues[u];
+                cusFactors[index] = pu;
+                cusCounts[index] = m_sum_c[u];
+                addScaled(sum_p_p_cq, pu, dot(pu, m_sum_cq[u]));
+                addScaled(sum_cr_p, pu, m_sum_cr[u]);
             }
+            double[] sum_cpp = solver.gram(cusFactors, null);
+            double[] sum_p_p_c = solver.gram(cusFactors, cusCounts);
+            double[] sum_cpp_sq = new double[numFactors];
+            solver.times(sum_cpp, sum_sq, sum_cpp_sq);
 
-            for (int i = 0; i < numItems; i++) {
+            IntStream.range(0, numItems).parallel().forEach(i -> {
                 // for each item
-                DenseMatrix sum_cpp = new DenseMatrix(numFactors, numFactors);
-                DenseMatrix sum_p_p_c = new DenseMatrix(numFactors, numFactors);
-                DenseVector sum_p_p_cq = new VectorBasedDenseVector(numFactors);
-                DenseVector sum_cpr = new VectorBasedDenseVector(numFactors);
-                DenseVector sum_c_sr_p = new VectorBasedDenseVector(numFactors);
-                DenseVector sum_cr_p = new VectorBasedDenseVector(numFactors);
-                DenseVector sum_p_r_c = new VectorBasedDenseVector(numFactors);
-
-                double si = supportVector.get(i);
-                DenseVector itemVector = new VectorBasedDenseVector(trainMatrix.column(i));
-
-                for (int u : cus) {
-                    DenseVector pu = userFactors.row(u);
-                    // double rui = trainMatrix.get(u, i);
-                    double rui = itemVector.get(u);
-
-                    DenseMatrix pp = pu.outer(pu);
-                    sum_cpp = sum_cpp.plus(pp);
-                    sum_p_p_cq = sum_p_p_cq.plus(pp.times(m_sum_cq.get(u)));
-                    sum_p_p_c = sum_p_p_c.plus(pp.times(m_sum_c.get(u)));
-                    sum_cr_p = sum_cr_p.plus(pu.times(m_sum_cr.get(u)));
-
+                double[] M = solver.matrix();
+                double[] y = solver.vector();
+                double[] sum_cpr = new double[numFactors];
+                double[] sum_c_sr_p = new double[numFactors];
+                double[] sum_p_r_c = new double[numFactors];
+
+                double si = support[i];
+                for (VectorEntry ve : trainMatrix.viewColumn(i)) {
+                    int u = ve.index();
+                    double rui = ve.get();
                     if (rui > 0) {
-                        sum_cpr = sum_cpr.plus(pu.times(rui));
-                        sum_c_sr_p = sum_c_sr_p.plus(pu.times(m_sum_sr.get(u)));
-                        sum_p_r_c = sum_p_r_c.plus(pu.times(rui * m_sum_c.get(u)));
+                        double[] pu = userFactorValues[u];
+                        addScaled(sum_cpr, pu, rui);
+                        addScaled(sum_c_sr_p, pu, m_sum_sr[u]);
+                        addScaled(sum_p_r_c, pu, rui * m_sum_c[u]);
                     }
                 }
-                DenseMatrix subtract = sum_cpp.times(si + 1);
-                DenseMatrix M = sum_cpp.times(sumSupport).plus(sum_p_p_c.times(si)).minus(subtract);
-                DenseVector y = sum_cpp.times(sum_sq).plus(sum_cpr.times(sumSupport)).minus(sum_c_sr_p)
-                        .plus(sum_p_p_cq.times(si)).minus(sum_cr_p.times(si)).plus(sum_p_r_c.times(si));
-                DenseVector qi = M.inverse().times(y.minus(subtract.times(itemFactors.row(i))));
-                itemFactors.row(i).assign((index, value) -> {
-                    return qi.get(index);
-                });
-            }
+
+                // subtract = sum_cpp * (si + 1), M = sum_cpp * sumSupport + sum_p_p_c * si - subtract
+                double[] qiOld = itemFactorValues[i];
+                for (int row = 0; row < numFactors; row++) {
+                    int offset = row * numFactors;
+                    double subtractQi = 0.0d;
+                    for (int column = 0; column < numFactors; column++) {
+                        M[offset + column] = sum_cpp[offset + column] * (sumSupport - si - 1)
+                                + sum_p_p_c[offset + column] * si;
+                        subtractQi += sum_cpp[offset + column] * (si + 1) * qiOld[column];
+                    }
+                    y[row] = sum_cpp_sq[row] + sum_cpr[row] * sumSupport - sum_c_sr_p[row]
+                            + sum_p_p_cq[row] * si - sum_cr_p[row] * si + sum_p_r_c[row] * si - subtractQi;
+                }
+                solver.solve(M, y, qiOld);
+            });
+        }
+    }
+
+    private static void addScaled(double[] sum, double[] vector, double scale) {
+        for (int index = 0; index < sum.length; index++) {
+            sum[index] += vector[index] * scale;
+        }
+    }
+
+    private static double dot(double[] left, double[] right) {
+        double product = 0.0d;
+        for (int index = 0; index < left.length; index++) {
+            product += left[index] * right[index];
         }
+        return product;
     }
 
     /**
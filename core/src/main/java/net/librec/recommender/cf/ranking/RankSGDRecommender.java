@@ -36,7 +36,7 @@ import java.util.*;
 @ModelData({"isRanking", "ranksgd", "userFactors", "itemFactors", "trainMatrix"})
 public class RankSGDRecommender extends MatrixFactorizationRecommender {
     // item sampling probabilities sorted ascendingly
-    protected List<Map.Entry<Integer, Double>> itemProbs;
+    protected transient List<Map.Entry<Integer, Double>> itemProbs;
 
     @Override
     protected void setup() throws LibrecException {
@@ -58,7 +58,8 @@ public class RankSGDRecommender extends MatrixFactorizationRecommender {
     @Override
     public void trainModel() throws LibrecException {
         List<Set<Integer>> userItemsSet = getUserItemsSet(trainMatrix);
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
             loss = 0.0d;
 
@@ -17,16 +17,16 @@
  */
 package net.librec.recommender.cf.ranking;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.SymmMatrix;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.CompactSymmMatrix;
 import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixFactorizationRecommender;
-import net.librec.util.Lists;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Xia Ning and George Karypis, <strong>SLIM: Sparse Linear Methods for Top-N Recommender Systems</strong>, ICDM 2011. <br>
@@ -38,10 +38,14 @@ import java.util.*;
  * <li>Friedman et al., Regularization Paths for Generalized Linear Models via Coordinate Descent, Journal of
  * Statistical Software, 2010.</li>
  * </ul>
+ * <p>
+ * Every column of W is an independent elastic-net problem over the neighbours of its item, so columns are solved
+ * in parallel. Within a column the coordinate descent keeps the residual of every user up to date instead of
+ * recomputing predictions.
  *
  * @author guoguibing and Keqiang Wang
  */
-@ModelData({"isRanking", "slim", "coefficientMatrix", "trainMatrix", "similarityMatrix", "knn"})
+@ModelData({"isRanking", "slim", "neighborPtr", "neighborItems", "coefficients", "trainMatrix", "knn"})
 public class SLIMRecommender extends MatrixFactorizationRecommender {
     /**
      * the number of iterations
@@ -49,14 +53,21 @@ public class SLIMRecommender extends MatrixFactorizationRecommender {
     protected int numIterations;
 
     /**
-     * W in original paper, a sparse matrix of aggregation coefficients
+     * W in original paper, a sparse matrix of aggregation coefficients, stored by column:
+     * the coefficients of column itemIdx are {@code coefficients[neighborPtr[itemIdx], neighborPtr[itemIdx + 1])},
+     * aligned with the neighbours in {@code neighborItems}
      */
-    private DenseMatrix coefficientMatrix;
+    private double[] coefficients;
 
     /**
-     * item's nearest neighbors for kNN > 0
+     * start position of every item's neighbours, length numItems + 1
      */
-    private Set<Integer>[] itemNNs;
+    private transient int[] neighborPtr;
+
+    /**
+     * item's nearest neighbors, sorted ascending within an item; all other items for kNN <= 0
+     */
+    private transient int[] neighborItems;
 
     /**
      * regularization parameters for the L1 or L2 term
@@ -66,17 +77,34 @@ public class SLIMRecommender extends MatrixFactorizationRecommender {
     /**
      * number of nearest neighbors
      */
-    protected static int knn;
+    protected int knn;
 
     /**
      * item similarity matrix
      */
-    private SymmMatrix similarityMatrix;
+    private transient CompactSymmMatrix similarityMatrix;
+
+    /**
+     * users and ratings of every item, in compressed sparse column layout
+     */
+    private transient int[] itemUserPtr, itemUsers;
+    private transient double[] itemRatings;
+
+    /**
+     * items and ratings of every user, in compressed sparse row layout
+     */
+    private transient int[] userItemPtr, userItems;
+    private transient double[] userRatings;
 
     /**
-     * item's nearest neighbors for kNN <=0, i.e., all other items
+     * mean squared rating of every item
      */
-    private Set<Integer> allItems;
+    private transient double[] itemSquaredMeans;
+
+    /**
+     * per-thread residuals of all users for the column under update
+     */
+    private transient ThreadLocal<double[]> residualBuffer;
 
     /**
      * initialization
@@ -91,16 +119,56 @@ public class SLIMRecommender extends MatrixFactorizationRecommender {
         regL1Norm = conf.getFloat("rec.slim.regularization.l1", 1.0f);
         regL2Norm = conf.getFloat("rec.slim.regularization.l2", 1.0f);
 
-        coefficientMatrix = new DenseMatrix(numItems, numItems);
-        // initial guesses: make smaller guesses (e.g., W.init(0.01)) to speed up training
-        coefficientMatrix.init();
-        similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        similarityMatrix = context.getSimilarity().getCompactSimilarityMatrix();
+
+        buildRatingIndices();
+        createItemNNs();
 
+        // initial guesses: make smaller guesses (e.g., 0.01) to speed up training
+        coefficients = new double[neighborItems.length];
+        for (int position = 0; position < coefficients.length; position++) {
+            coefficients[position] = Randoms.uniform();
+        }
+        residualBuffer = ThreadLocal.withInitial(() -> new double[numUsers]);
+    }
+
+    /**
+     * Copy the training ratings into primitive row and column indices.
+     */
+    private void buildRatingIndices() {
+        itemUserPtr = new int[numItems + 1];
+        userItemPtr = new int[numUsers + 1];
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            coefficientMatrix.set(itemIdx, itemIdx, 0.0d);
+            itemUserPtr[itemIdx + 1] = itemUserPtr[itemIdx] + trainMatrix.column(itemIdx).getNumEntries();
+        }
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            userItemPtr[userIdx + 1] = userItemPtr[userIdx] + trainMatrix.row(userIdx).getNumEntries();
         }
 
-        createItemNNs();
+        itemUsers = new int[itemUserPtr[numItems]];
+        itemRatings = new double[itemUserPtr[numItems]];
+        itemSquaredMeans = new double[numItems];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            int position = itemUserPtr[itemIdx];
+            double rateSum = 0.0d;
+            for (Vector.VectorEntry ve : trainMatrix.column(itemIdx)) {
+                itemUsers[position] = ve.index();
+                itemRatings[position++] = ve.get();
+                rateSum += ve.get() * ve.get();
+            }
+            int count = itemUserPtr[itemIdx + 1] - itemUserPtr[itemIdx];
+            itemSquaredMeans[itemIdx] = count > 0 ? rateSum / count : 0.0d;
+        }
+
+        userItems = new int[userItemPtr[numUsers]];
+        userRatings = new double[userItemPtr[numUsers]];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int position = userItemPtr[userIdx];
+            for (Vector.VectorEntry ve : trainMatrix.row(userIdx)) {
+                userItems[position] = ve.index();
+                userRatings[position++] = ve.get();
+            }
+        }
     }
 
     /**
@@ -110,81 +178,105 @@ public class SLIMRecommender extends MatrixFactorizationRecommender {
      */
     @Override
     public void trainModel() throws LibrecException {
+        double[] columnLosses = new double[numItems];
         // number of iteration cycles
-        for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0d;
-            // each cycle iterates through one coordinate direction
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                // find k-nearest neighbors
-                Set<Integer> nearestNeighborCollection = knn > 0 ? itemNNs[itemIdx] : allItems;
-
-                double[] userRatingEntries = new double[numUsers];
-
-                SequentialSparseVector itemRatingVec = trainMatrix.column(itemIdx);
-                for (Vector.VectorEntry ve : itemRatingVec) {
-                    userRatingEntries[ve.index()] = ve.get();
-                }
-
-                // for each nearest neighbor nearestNeighborItemIdx, update coefficienMatrix by the coordinate
-                // descent update rule
-                for (Integer nearestNeighborItemIdx : nearestNeighborCollection) {
-                    if (nearestNeighborItemIdx != itemIdx) {
-                        double gradSum = 0.0d, rateSum = 0.0d, errors = 0.0d;
-
-                        SequentialSparseVector nnUserRatingVec = trainMatrix.column(nearestNeighborItemIdx);
-                        if (nnUserRatingVec.size() == 0) {
-                            continue;
-                        }
-
-                        int nnCount = 0;
-
-                        for (Vector.VectorEntry nnUserVectorEntry : nnUserRatingVec) {
-                            int nnUserIdx = nnUserVectorEntry.index();
-                            double nnRating = nnUserVectorEntry.get();
-                            double rating = userRatingEntries[nnUserIdx];
-                            double error = rating - predict(nnUserIdx, itemIdx, nearestNeighborItemIdx);
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
-                            gradSum += nnRating * error;
-                            rateSum += nnRating * nnRating;
+            // each cycle iterates through one coordinate direction, columns are independent
+            IntStream.range(0, numItems).parallel().forEach(itemIdx -> columnLosses[itemIdx] = updateColumn(itemIdx));
 
-                            errors += error * error;
-                            nnCount++;
-                        }
+            loss = 0.0d;
+            for (double columnLoss : columnLosses) {
+                loss += columnLoss;
+            }
 
+            if (isConverged(iter) && earlyStop) {
+                break;
+            }
+        }
+    }
 
-                        gradSum /= nnCount;
-                        rateSum /= nnCount;
+    /**
+     * One coordinate descent cycle over the coefficients of column itemIdx.
+     *
+     * @param itemIdx item index
+     * @return the loss of the column
+     */
+    private double updateColumn(int itemIdx) {
+        double[] residuals = residualBuffer.get();
+        int neighborStart = neighborPtr[itemIdx], neighborEnd = neighborPtr[itemIdx + 1];
 
-                        errors /= nnCount;
+        // residual of every user: rating minus the prediction from all neighbours
+        for (int position = itemUserPtr[itemIdx]; position < itemUserPtr[itemIdx + 1]; position++) {
+            residuals[itemUsers[position]] = itemRatings[position];
+        }
+        for (int neighborPosition = neighborStart; neighborPosition < neighborEnd; neighborPosition++) {
+            int nearestNeighborItemIdx = neighborItems[neighborPosition];
+            double coefficient = coefficients[neighborPosition];
+            for (int position = itemUserPtr[nearestNeighborItemIdx]; position < itemUserPtr[nearestNeighborItemIdx + 1]; position++) {
+                residuals[itemUsers[position]] -= itemRatings[position] * coefficient;
+            }
+        }
 
-                        double coefficient = coefficientMatrix.get(nearestNeighborItemIdx, itemIdx);
-                        loss += errors + 0.5 * regL2Norm * coefficient * coefficient + regL1Norm * coefficient;
+        double columnLoss = 0.0d;
+        // for each nearest neighbor nearestNeighborItemIdx, update the coefficient by the coordinate descent update rule
+        for (int neighborPosition = neighborStart; neighborPosition < neighborEnd; neighborPosition++) {
+            int nearestNeighborItemIdx = neighborItems[neighborPosition];
+            int userStart = itemUserPtr[nearestNeighborItemIdx], userEnd = itemUserPtr[nearestNeighborItemIdx + 1];
+            if (userStart == userEnd) {
+                continue;
+            }
+            double coefficient = coefficients[neighborPosition];
+            double gradSum = 0.0d, errors = 0.0d;
+            for (int position = userStart; position < userEnd; position++) {
+                double nnRating = itemRatings[position];
+                // error of the prediction without the contribution of the neighbour
+                double error = residuals[itemUsers[position]] + nnRating * coefficient;
+
+                gradSum += nnRating * error;
+                errors += error * error;
+            }
+            int nnCount = userEnd - userStart;
+            gradSum /= nnCount;
+            errors /= nnCount;
+            double rateSum = itemSquaredMeans[nearestNeighborItemIdx];
 
+            columnLoss += errors + 0.5 * regL2Norm * coefficient * coefficient + regL1Norm * coefficient;
 
-                        double update = 0.0d;
-                        if (regL1Norm < Math.abs(gradSum)) {
-                            if (gradSum > 0) {
-                                update = (gradSum - regL1Norm) / (regL2Norm + rateSum);
-                            } else {
-                                // One doubt: in this case, wij<0, however, the
-                                // paper says wij>=0. How to gaurantee that?
-                                update = (gradSum + regL1Norm) / (regL2Norm + rateSum);
-                            }
-                        }
+            double update = 0.0d;
+            if (regL1Norm < Math.abs(gradSum)) {
+                if (gradSum > 0) {
+                    update = (gradSum - regL1Norm) / (regL2Norm + rateSum);
+                } else {
+                    // One doubt: in this case, wij<0, however, the
+                    // paper says wij>=0. How to gaurantee that?
+                    update = (gradSum + regL1Norm) / (regL2Norm + rateSum);
+                }
+            }
 
-                        coefficientMatrix.set(nearestNeighborItemIdx, itemIdx, update);
-                    }
+            coefficients[neighborPosition] = update;
+            double delta = update - coefficient;
+            if (delta != 0.0d) {
+                for (int position = userStart; position < userEnd; position++) {
+                    residuals[itemUsers[position]] -= itemRatings[position] * delta;
                 }
             }
+        }
 
-            if (isConverged(iter) && earlyStop) {
-                break;
+        // clear the residuals touched by this column
+        for (int position = itemUserPtr[itemIdx]; position < itemUserPtr[itemIdx + 1]; position++) {
+            residuals[itemUsers[position]] = 0.0d;
+        }
+        for (int neighborPosition = neighborStart; neighborPosition < neighborEnd; neighborPosition++) {
+            int nearestNeighborItemIdx = neighborItems[neighborPosition];
+            for (int position = itemUserPtr[nearestNeighborItemIdx]; position < itemUserPtr[nearestNeighborItemIdx + 1]; position++) {
+                residuals[itemUsers[position]] = 0.0d;
             }
         }
+        return columnLoss;
     }
 
-
     /**
      * predict a specific ranking score for user userIdx on item itemIdx.
      *
@@ -195,12 +287,22 @@ public class SLIMRecommender extends MatrixFactorizationRecommender {
      */
     protected double predict(int userIdx, int itemIdx, int excludedItemIdx) {
         double predictRating = 0;
-        SequentialSparseVector userRatingVec = trainMatrix.row(userIdx);
-        for (Vector.VectorEntry itemEntry : userRatingVec) {
-            int nearestNeighborItemIdx = itemEntry.index();
-            double nearestNeighborPredictRating = itemEntry.get();
-            if (itemNNs[itemIdx].contains(nearestNeighborItemIdx) && nearestNeighborItemIdx != excludedItemIdx) {
-                predictRating += nearestNeighborPredictRating * coefficientMatrix.get(nearestNeighborItemIdx, itemIdx);
+        // both the rated items and the neighbours are sorted ascending
+        int position = userItemPtr[userIdx], userEnd = userItemPtr[userIdx + 1];
+        int neighborPosition = neighborPtr[itemIdx], neighborEnd = neighborPtr[itemIdx + 1];
+        while (position < userEnd && neighborPosition < neighborEnd) {
+            int ratedItemIdx = userItems[position];
+            int nearestNeighborItemIdx = neighborItems[neighborPosition];
+            if (ratedItemIdx < nearestNeighborItemIdx) {
+                position++;
+            } else if (ratedItemIdx > nearestNeighborItemIdx) {
+                neighborPosition++;
+            } else {
+                if (nearestNeighborItemIdx != excludedItemIdx) {
+                    predictRating += userRatings[position] * coefficients[neighborPosition];
+                }
+                position++;
+                neighborPosition++;
             }
         }
 
@@ -233,47 +335,62 @@ public class SLIMRecommender extends MatrixFactorizationRecommender {
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
 //        create item knn list if not exists,  for local offline model
-        if (!(null != itemNNs && itemNNs.length > 0)) {
+        if (neighborPtr == null) {
             createItemNNs();
         }
         return predict(userIdx, itemIdx, -1);
     }
 
 
+    /**
+     * Get the coefficient of a nearest neighbor in the column of an item.
+     *
+     * @param nearestNeighborItemIdx nearest neighbor item index
+     * @param itemIdx                item index
+     * @return the coefficient, 0 if nearestNeighborItemIdx is not a nearest neighbor of itemIdx
+     */
+    public double getCoefficient(int nearestNeighborItemIdx, int itemIdx) {
+        int position = Arrays.binarySearch(neighborItems, neighborPtr[itemIdx], neighborPtr[itemIdx + 1],
+                nearestNeighborItemIdx);
+        return position >= 0 ? coefficients[position] : 0.0d;
+    }
+
     /**
      * Create item KNN list.
      */
     public void createItemNNs() {
-        itemNNs = new HashSet[numItems];
+        int[][] itemNNs = new int[numItems][];
 
         // find the nearest neighbors for each item based on item similarity
-        List<Map.Entry<Integer, Double>> tempItemSimList;
-        if (knn > 0) {
-            for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                Map<Integer, Double> similarityVector = similarityMatrix.row(itemIdx);
-                int vecSize = similarityVector.size();
-                if (knn < vecSize) {
-                    tempItemSimList = new ArrayList<>(similarityVector.size() + 1);
-                    for (Map.Entry<Integer, Double> ve : similarityVector.entrySet()) {
-                        tempItemSimList.add(new AbstractMap.SimpleImmutableEntry<>(ve.getKey(), ve.getValue()));
-                    }
-
-                    tempItemSimList = Lists.sortListTopK(tempItemSimList, true, knn);
-                    itemNNs[itemIdx] = new HashSet<>((int) (tempItemSimList.size() / 0.5));
-                    for (Map.Entry<Integer, Double> tempItemSimEntry : tempItemSimList) {
-                        itemNNs[itemIdx].add(tempItemSimEntry.getKey());
-                    }
-                } else {
-                    if (vecSize > 0) {
-                        Set<Integer> simSet = similarityVector.keySet();
-                        itemNNs[itemIdx] = new HashSet<>(simSet);
-                    } else {
-                        itemNNs[itemIdx] = new HashSet<>();
-                    }
+        IntStream.range(0, numItems).parallel().forEach(itemIdx -> {
+            if (knn > 0) {
+                int rowStart = similarityMatrix.rowStart(itemIdx);
+                int[] positions = IntStream.range(rowStart, similarityMatrix.rowEnd(itemIdx))
+                        .filter(position -> similarityMatrix.columnAt(position) != itemIdx)
+                        .toArray();
+                if (knn < positions.length) {
+                    IntArrays.quickSort(positions, (left, right) ->
+                            Double.compare(similarityMatrix.valueAt(right), similarityMatrix.valueAt(left)));
+                    positions = Arrays.copyOf(positions, knn);
+                }
+                int[] neighbors = new int[positions.length];
+                for (int index = 0; index < positions.length; index++) {
+                    neighbors[index] = similarityMatrix.columnAt(positions[index]);
                 }
+                Arrays.sort(neighbors);
+                itemNNs[itemIdx] = neighbors;
+            } else {
+                itemNNs[itemIdx] = IntStream.range(0, numItems).filter(otherItemIdx -> otherItemIdx != itemIdx).toArray();
             }
-        } else {
-            allItems = userMappingData.values();
+        });
+
+        neighborPtr = new int[numItems + 1];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            neighborPtr[itemIdx + 1] = neighborPtr[itemIdx] + itemNNs[itemIdx].length;
+        }
+        neighborItems = new int[neighborPtr[numItems]];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            System.arraycopy(itemNNs[itemIdx], 0, neighborItems, neighborPtr[itemIdx], itemNNs[itemIdx].length);
         }
     }
 }
@@ -17,46 +17,26 @@
  */
 package net.librec.recommender.cf.ranking;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixFactorizationRecommender;
-import net.librec.util.Lists;
-
-import java.util.*;
-import java.util.concurrent.ExecutionException;
+import net.librec.recommender.PairwiseSampler;
 
 /**
  * Gantner et al., <strong>Bayesian Personalized Ranking for Non-Uniformly Sampled Items</strong>, JMLR, 2012.
+ * <p>
+ * Negative items are drawn in proportion to their popularity from an alias table, rejecting rated items.
  *
  * @author guoguibing and Keqiang Wang
  */
 @ModelData({"isRanking", "wbpr", "userFactors", "itemFactors", "itemBiases", "trainMatrix"})
 public class WBPRRecommender extends MatrixFactorizationRecommender {
     /**
-     * user items Set
-     */
-    private LoadingCache<Integer, Set<Integer>> userItemsSet;
-
-    /**
-     * pre-compute and sort by item's popularity
-     */
-    private List<Map.Entry<Integer, Double>> sortedItemPops;
-
-    /**
-     * cache each user's candidate items with probabilities
+     * sampler of (user, positive item, negative item) triples, negatives by popularity
      */
-    private LoadingCache<Integer, List<Map.Entry<Integer, Double>>> cacheItemProbs;
-
-    /**
-     * user-items cache, item-users cache
-     */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache;
+    protected transient PairwiseSampler sampler;
 
     /**
      * items biases
@@ -68,11 +48,6 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
      */
     protected float regBias;
 
-    /**
-     * Guava cache configuration
-     */
-    protected static String cacheSpec;
-
     @Override
     protected void setup() throws LibrecException {
         super.setup();
@@ -82,94 +57,58 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
         itemBiases = new VectorBasedDenseVector(numItems);
         itemBiases.init(0.01);
 
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-        userItemsSet = trainMatrix.rowColumnsSetCache(cacheSpec);
-
-        // pre-compute and sort by item's popularity
-        sortedItemPops = new ArrayList<>();
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            sortedItemPops.add(new AbstractMap.SimpleEntry<>(itemIdx, Double.valueOf(trainMatrix.column(itemIdx).getNumEntries())));
-        }
-        Lists.sortList(sortedItemPops, true);
-
-        // cache each user's candidate items with probabilities
-        cacheItemProbs = getCacheItemProbs();
+        sampler = new PairwiseSampler(trainMatrix, conf).setNegativeSampling(PairwiseSampler.NegativeSampling.POPULARITY);
     }
 
     @Override
     public void trainModel() throws LibrecException {
         int maxSample = trainMatrix.size();
-        for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0d;
-            for (int sampleCount = 0; sampleCount < maxSample; sampleCount++) {
-                // randomly draw (userIdx, posItemIdx, negItemIdx)
-                int userIdx = 0, posItemIdx = 0, negItemIdx = 0;
-                List<Integer> ratedItems = null;
-                List<Map.Entry<Integer, Double>> itemProbs = null;
-
-                while (true) {
-                    userIdx = Randoms.uniform(numUsers);
-                    try {
-                        ratedItems = userItemsCache.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-
-                    if (ratedItems.size() == 0)
-                        continue;
-
-                    posItemIdx = Randoms.random(ratedItems);
-
-                    // sample j by popularity (probability)
-                    try {
-                        itemProbs = cacheItemProbs.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-
-                    double rand = Randoms.random();
-                    double sum = 0;
-                    for (Map.Entry<Integer, Double> itemProb : itemProbs) {
-                        sum += itemProb.getValue();
-                        if (sum >= rand) {
-                            negItemIdx = itemProb.getKey();
-                            break;
-                        }
-                    }
-
-                    break;
-                }
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        double[] itemBiasValues = itemBiases.getValues();
+
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
+            float rate = learnRate;
+            loss = sampler.runEpoch(maxSample, (sampleIdx, random) -> {
+                // randomly draw (userIdx, posItemIdx, negItemIdx), negItemIdx by popularity
+                int userIdx = sampler.sampleUser(random);
+                int posItemIdx = sampler.samplePositive(userIdx, random);
+                int negItemIdx = sampler.sampleNegative(userIdx, random);
+
+                double[] userFactor = userFactorValues[userIdx];
+                double[] posItemFactor = itemFactorValues[posItemIdx];
+                double[] negItemFactor = itemFactorValues[negItemIdx];
 
                 // update parameters
-                double posPredictRating = predict(userIdx, posItemIdx);
-                double negPredictRating = predict(userIdx, negItemIdx);
-                double diffValue = posPredictRating - negPredictRating;
+                double posItemBiasValue = itemBiasValues[posItemIdx], negItemBiasValue = itemBiasValues[negItemIdx];
+                double diffValue = posItemBiasValue - negItemBiasValue;
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    diffValue += userFactor[factorIdx] * (posItemFactor[factorIdx] - negItemFactor[factorIdx]);
+                }
 
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
+                double sampleLoss = -Math.log(Maths.logistic(diffValue));
                 double deriValue = Maths.logistic(-diffValue);
 
                 // update bias
-                double posItemBiasValue = itemBiases.get(posItemIdx), negItemBiasValue = itemBiases.get(negItemIdx);
-                itemBiases.plus(posItemIdx, learnRate * (deriValue - regBias * posItemBiasValue));
-                itemBiases.plus(negItemIdx, learnRate * (-deriValue - regBias * negItemBiasValue));
-                loss += regBias * (posItemBiasValue * posItemBiasValue + negItemBiasValue * negItemBiasValue);
+                itemBiasValues[posItemIdx] += rate * (deriValue - regBias * posItemBiasValue);
+                itemBiasValues[negItemIdx] += rate * (-deriValue - regBias * negItemBiasValue);
+                sampleLoss += regBias * (posItemBiasValue * posItemBiasValue + negItemBiasValue * negItemBiasValue);
 
                 // update user/item vectors
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                    double userFactorValue = userFactor[factorIdx];
+                    double posItemFactorValue = posItemFactor[factorIdx];
+                    double negItemFactorValue = negItemFactor[factorIdx];
 
-                    userFactors.plus(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                    itemFactors.plus(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
-                    itemFactors.plus(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
+                    userFactor[factorIdx] += rate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue);
+                    posItemFactor[factorIdx] += rate * (deriValue * userFactorValue - regItem * posItemFactorValue);
+                    negItemFactor[factorIdx] += rate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue);
 
-                    loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
+                    sampleLoss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
                 }
-            }
+                return sampleLoss;
+            });
             if (isConverged(iter) && earlyStop) {
                 break;
             }
@@ -188,42 +127,4 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         return itemBiases.get(itemIdx) + super.predict(userIdx, itemIdx);
     }
-
-    /**
-     * cache each user's candidate items with probabilities
-     *
-     * @return cache each user's candidate items with probabilities
-     */
-    private LoadingCache<Integer, List<Map.Entry<Integer, Double>>> getCacheItemProbs() {
-        LoadingCache<Integer, List<Map.Entry<Integer, Double>>> cache = CacheBuilder.from(cacheSpec).build(new CacheLoader<Integer, List<Map.Entry<Integer, Double>>>() {
-
-            @Override
-            public List<Map.Entry<Integer, Double>> load(Integer u) throws Exception {
-                List<Map.Entry<Integer, Double>> itemProbs = new ArrayList<>();
-
-                Set<Integer> ratedItemsSet = userItemsSet.get(u);
-
-                // filter candidate items
-                double sum = 0;
-                for (Map.Entry<Integer, Double> itemPop : sortedItemPops) {
-                    Integer itemIdx = itemPop.getKey();
-                    double popularity = itemPop.getValue();
-
-                    if (!ratedItemsSet.contains(itemIdx) && popularity > 0) {
-                        // make a clone to prevent bugs from normalization
-                        itemProbs.add(itemPop);
-                        sum += popularity;
-                    }
-                }
-
-                // normalization
-                for (Map.Entry<Integer, Double> itemProb : itemProbs) {
-                    itemProb.setValue(itemProb.getValue() / sum);
-                }
-
-                return itemProbs;
-            }
-        });
-        return cache;
-    }
 }
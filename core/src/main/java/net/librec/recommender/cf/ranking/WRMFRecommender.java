@@ -20,12 +20,15 @@ package net.librec.recommender.cf.ranking;
 import it.unimi.dsi.fastutil.doubles.Double2DoubleOpenHashMap;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
+import net.librec.math.algorithm.LeastSquaresSolver;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * <h3>WRMF: Weighted Regularized Matrix Factorization.</h3>
@@ -46,10 +49,17 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
     protected float weightCoefficient;
 
 
+    /**
+     * solver of the per-user and per-item systems
+     */
+    protected transient LeastSquaresSolver solver;
+
     @Override
     public void setup() throws LibrecException {
         super.setup();
         weightCoefficient = conf.getFloat("rec.wrmf.weight.coefficient", 4.0f);
+        solver = new LeastSquaresSolver(numFactors, conf.get("rec.als.solver", "cholesky"),
+                conf.getInt("rec.als.cg.iterations", 3));
 
         // weighted the train rating matrix as confidence matrix
         weightMatrix();
@@ -74,104 +84,82 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
     @Override
     public void trainModel() throws LibrecException {
         // To be consistent with the symbols in the paper
-        DenseMatrix X = userFactors, Y = itemFactors;
+        double[][] X = userFactors.getValues(), Y = itemFactors.getValues();
 
-//        DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
-//        DenseVector userFactorVector;
-//        DenseVector itemFactorVector;
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
+            // Step 1: update user factors;
+            double[] YtY = solver.gram(Y, null);
+            IntStream.range(0, numUsers).parallel().forEach(userIndex ->
+                    updateFactors(trainMatrix.row(userIndex), X[userIndex], Y, YtY, regUser));
 
-        List<Integer> userList = new ArrayList<>(numUsers);
-        List<Integer> itemList = new ArrayList<>(numItems);
-        for (int userIndex=0; userIndex <  numUsers; userIndex++){
-            userList.add(userIndex);
-        }
+            // Step 2: update item factors;
+            double[] XtX = solver.gram(X, null);
+            IntStream.range(0, numItems).parallel().forEach(itemIndex ->
+                    updateFactors(trainMatrix.viewColumn(itemIndex), Y[itemIndex], X, XtX, regItem));
 
-        for (int itemIndex=0; itemIndex <  numItems; itemIndex++){
-            itemList.add(itemIndex);
+            if (verbose) {
+                LOG.info(getClass() + " runs at iteration = " + iter + " " + new Date());
+            }
         }
+    }
 
-        for (int iter = 1; iter <= numIterations; iter++) {
-            // Step 1: update user factors;
-            DenseMatrix YtY = Y.transpose().times(Y);
-            userList.parallelStream().forEach(userIndex->{
-//            for (int userIndex = 0; userIndex < numUsers; userIndex++) {
-                DenseVector itemFactorVector;
-                SequentialSparseVector itemRatingVector = trainMatrix.row(userIndex);
-                DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
-
-                DenseVector YtCuPu = new VectorBasedDenseVector(numFactors);
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    int itemIndex = vectorEntry.index();
-                    double weight = vectorEntry.get() + 1.0D;
-                    itemFactorVector = itemFactors.row(itemIndex);
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        YtCuPu.plus(factorIndex, itemFactorVector.get(factorIndex) * weight);
-                    }
-                }
+    /**
+     * Solve (Y^T C Y + reg I) x = Y^T C p for the factors x of one user (or item), where the confidence
+     * c = 1 + weight and the preference p = 1 on the rated entries, c = 1 and p = 0 elsewhere.
+     * Y^T C Y is the shared Gram matrix Y^T Y plus a rank-one update per rated entry.
+     *
+     * @param ratingVector the weighted ratings of the user (or item)
+     * @param x            output, the factors of the user (or item)
+     * @param Y            the fixed factors of the other side
+     * @param YtY          the Gram matrix of Y
+     * @param reg          regularization
+     */
+    private void updateFactors(SequentialSparseVector ratingVector, double[] x, double[][] Y, double[] YtY, double reg) {
+        double[] YtCp = solver.vector();
+        Arrays.fill(YtCp, 0.0d);
+        for (Vector.VectorEntry vectorEntry : ratingVector) {
+            double[] y = Y[vectorEntry.index()];
+            double weight = vectorEntry.get() + 1.0D;
+            for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                YtCp[factorIndex] += y[factorIndex] * weight;
+            }
+        }
 
-                factorMatrix.assign((rowIndex, columnIndex, value) -> YtY.get(rowIndex, columnIndex) + regUser);
-
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    int itemIndex = vectorEntry.index();
-                    double weight = vectorEntry.get();
-                    itemFactorVector = itemFactors.row(itemIndex);
-                    for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
-                        double temp = itemFactorVector.get(rowIndex) * weight;
-                        for (int columnIndex = 0; columnIndex < numFactors; columnIndex++) {
-                            factorMatrix.plus(rowIndex, columnIndex, temp * itemFactorVector.get(columnIndex));
-                        }
+        if (solver.isConjugateGradient()) {
+            // never build the system: (Y^T Y + reg I) v + sum weight * y (y^T v)
+            solver.solve((v, result) -> {
+                for (int row = 0; row < numFactors; row++) {
+                    double sum = reg * v[row];
+                    for (int column = 0, offset = row * numFactors; column < numFactors; column++) {
+                        sum += YtY[offset + column] * v[column];
                     }
+                    result[row] = sum;
                 }
-
-                DenseMatrix Wu = factorMatrix.inverse();
-                DenseVector xu = Wu.times(YtCuPu);
-                // udpate user factors
-                X.set(userIndex, xu);
-            });
-
-            // Step 2: update item factors;
-            DenseMatrix XtX = X.transpose().times(X);
-
-            itemList.parallelStream().forEach(itemIndex->{
-//            for (int itemIndex = 0; itemIndex < numItems; itemIndex++) {
-
-                SequentialSparseVector userRatingVector = trainMatrix.viewColumn(itemIndex);
-                DenseVector XtCiPu = new VectorBasedDenseVector(numFactors);
-                DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
-                DenseVector userFactorVector;
-                for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                    int userIndex = vectorEntry.index();
-                    double weight = vectorEntry.get() + 1.0D;
-                    userFactorVector = userFactors.row(userIndex);
+                for (Vector.VectorEntry vectorEntry : ratingVector) {
+                    double[] y = Y[vectorEntry.index()];
+                    double product = 0.0d;
                     for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        XtCiPu.plus(factorIndex, userFactorVector.get(factorIndex) * weight);
+                        product += y[factorIndex] * v[factorIndex];
                     }
-                }
-
-                factorMatrix.assign((rowIndex, columnIndex, value) -> XtX.get(rowIndex, columnIndex) + regItem);
-
-                for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                    int userIndex = vectorEntry.index();
-                    double weight = vectorEntry.get();
-                    userFactorVector = userFactors.row(userIndex);
-                    for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
-                        double temp = userFactorVector.get(rowIndex) * weight;
-                        for (int columnIndex = 0; columnIndex < numFactors; columnIndex++) {
-                            factorMatrix.plus(rowIndex, columnIndex, temp * userFactorVector.get(columnIndex));
-                        }
+                    product *= vectorEntry.get();
+                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                        result[factorIndex] += product * y[factorIndex];
                     }
                 }
+            }, YtCp, x);
+            return;
+        }
 
-                DenseMatrix Wi = factorMatrix.inverse();
-
-                DenseVector yi = Wi.times(XtCiPu);
-                // udpate item factors
-                Y.set(itemIndex, yi);
-            });
-
-            if (verbose) {
-                LOG.info(getClass() + " runs at iteration = " + iter + " " + new Date());
-            }
+        double[] factorMatrix = solver.matrix();
+        System.arraycopy(YtY, 0, factorMatrix, 0, YtY.length);
+        for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+            factorMatrix[factorIndex * numFactors + factorIndex] += reg;
+        }
+        for (Vector.VectorEntry vectorEntry : ratingVector) {
+            solver.addOuter(factorMatrix, Y[vectorEntry.index()], vectorEntry.get());
         }
+        solver.symmetrize(factorMatrix);
+        solver.solve(factorMatrix, YtCp, x);
     }
 }
@@ -41,7 +41,7 @@ public class ASVDPlusPlusRecommender extends BiasedMFRecommender {
     /**
      * user items list
      */
-    protected List<List<Integer>> userItemsList;
+    protected transient List<List<Integer>> userItemsList;
 
     protected void setup() throws LibrecException {
         super.setup();
@@ -55,7 +55,8 @@ public class ASVDPlusPlusRecommender extends BiasedMFRecommender {
     @Override
     public void trainModel() throws LibrecException {
 
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             loss = 0.0d;
 
             for (MatrixEntry matrixEntry : trainMatrix) {
@@ -140,13 +140,13 @@ public class AspectModelRecommender extends MatrixProbabilisticGraphicalRecommen
     @Override
     protected void eStep() {
         // variational inference to compute Q
+        double[] numerator = new double[numTopics];
         for (MatrixEntry me : trainMatrix) {
             int u = me.row();
             int i = me.column();
             double r = me.get();
 
             double denominator = 0;
-            double[] numerator = new double[numTopics];
             for (int z = 0; z < numTopics; z++) {
                 double val = topicProbs.get(z) * topicUserProbs.get(z, u) * topicItemProbs.get(z, i)
                         * Gaussian.pdf(r, topicProbsMean.get(z), topicProbsVariance.get(z));
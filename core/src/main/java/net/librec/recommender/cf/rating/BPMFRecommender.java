@@ -134,6 +134,7 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
         HyperParameters userHyperParameters = new HyperParameters(mu_u, variance_u);
         HyperParameters itemHyperParameters = new HyperParameters(mu_m, variance_m);
         for (int iter = 0; iter < numIterations; iter++) {
+            saveCheckpoint(iter);
             userHyperParameters = samplingHyperParameters(userHyperParameters, userFactors, userMu, userBeta, userWishartScale, userWishartNu);
             itemHyperParameters = samplingHyperParameters(itemHyperParameters, itemFactors, itemMu, itemBeta, itemWishartScale, itemWishartNu);
 
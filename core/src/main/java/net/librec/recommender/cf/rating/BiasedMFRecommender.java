@@ -65,7 +65,8 @@ public class BiasedMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             loss = 0.0d;
 
             for (MatrixEntry matrixEntry : trainMatrix) {
@@ -18,15 +18,14 @@
 
 package net.librec.recommender.cf.rating;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleSortedMap;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.TensorEntry;
-import net.librec.math.structure.Vector.VectorEntry;
-import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.FactorizationMachineRecommender;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * Field-aware Factorization Machines
@@ -45,7 +44,7 @@ public class FFMRecommender extends FactorizationMachineRecommender {
     /**
      * record the <feature: filed>
      */
-    private HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+    private int[] fieldOfFeature;
 
     @Override
     protected void setup() throws LibrecException {
@@ -58,12 +57,9 @@ public class FFMRecommender extends FactorizationMachineRecommender {
 
 
         //init the map for feature of filed
-        int colindex = 0;
+        fieldOfFeature = new int[p];
         for (int dim = 0; dim < trainTensor.numDimensions; dim++) {
-            for (int index = 0; index < trainTensor.dimensions[dim]; index++) {
-                map.put(colindex + index, dim);
-            }
-            colindex += trainTensor.dimensions[dim];
+            Arrays.fill(fieldOfFeature, featureOffsets[dim], featureOffsets[dim] + trainTensor.dimensions[dim], dim);
         }
 
         learnRate = conf.getDouble("rec.iterator.learnRate");
@@ -77,17 +73,16 @@ public class FFMRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double[] factorSums = new double[k];
+
         for (int iter = 0; iter < numIterations; iter++) {
             loss = 0.0;
 
-            int userDimension = trainTensor.getUserDimension();
-            int itemDimension = trainTensor.getItemDimension();
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                VectorBasedSequentialSparseVector vector = tenserKeysToFeatureVector(entryKeys);
-
-                double rate = me.get();
-                double pred = predict(entryKeys[userDimension], entryKeys[itemDimension], vector);
+            for (int index = 0, from = 0; index < n; index++, from += numDimensions) {
+                double rate = trainRatings[index];
+                double pred = predictFieldAware(trainFeatureIndices, from);
 
                 double err = pred - rate;
                 loss += err * err;
@@ -102,29 +97,33 @@ public class FFMRecommender extends FactorizationMachineRecommender {
                 // update w0
                 w0 += -learnRate * gradW0;
 
-                // 1-way interactions
-                for (VectorEntry ve : vector) {
-                    int l = ve.index();
-                    double oldWl = W.get(l);
-                    double hWl = ve.get();
+                // sums of the first k factors of the active features, taken before the updates of this entry
+                Arrays.fill(factorSums, 0.0d);
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    double[] factorsOfJ = factors[trainFeatureIndices[from + dim]];
+                    for (int f = 0; f < k; f++) {
+                        factorSums[f] += factorsOfJ[f];
+                    }
+                }
+
+                // 1-way interactions, x_l = 1 for the active features
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    int l = trainFeatureIndices[from + dim];
+                    double oldWl = weights[l];
+                    double hWl = 1;
                     double gradWl = gradLoss * hWl + regW * oldWl;
-                    W.plus(l, -learnRate * gradWl);
+                    weights[l] += -learnRate * gradWl;
 
                     loss += regW * oldWl * oldWl;
 
                     // 2-way interactions
+                    double[] factorsOfL = factors[l];
+                    int fieldOfL = fieldOfFeature[l];
                     for (int f = 0; f < k; f++) {
-                        double oldVlf = V.get(l, map.get(l) + f);
-                        double hVlf = 0;
-                        double xl = ve.get();
-                        for (VectorEntry ve2 : vector) {
-                            int j = ve2.index();
-                            if (j != l) {
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
-                        }
+                        double oldVlf = factorsOfL[fieldOfL + f];
+                        double hVlf = factorSums[f] - factorsOfL[f];
                         double gradVlf = gradLoss * hVlf + regF * oldVlf;
-                        V.plus(l, map.get(l) + f, -learnRate * gradVlf);
+                        factorsOfL[fieldOfL + f] += -learnRate * gradVlf;
                         loss += regF * oldVlf * oldVlf;
                     }
 
@@ -140,42 +139,146 @@ public class FFMRecommender extends FactorizationMachineRecommender {
         }
     }
 
-    protected double predict(int userId, int itemId, VectorBasedSequentialSparseVector x) throws LibrecException {
+    /**
+     * Field-aware prediction of a one-hot appender vector given by its active indices
+     * {@code featureIndices[from, from + numDimensions)}.
+     *
+     * @param featureIndices appender indices
+     * @param from           position of the first index of the entry
+     * @return predicted rating
+     */
+    protected double predictFieldAware(int[] featureIndices, int from) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
         double res = 0;
         // global bias
         res += w0;
 
         // 1-way interaction
-        for (VectorEntry ve : x) {
-            double val = ve.get();
-            int ind = ve.index();
-            res += val * W.get(ind);
+        for (int dim = 0; dim < numDimensions; dim++) {
+            res += weights[featureIndices[from + dim]];
         }
 
         // 2-way interaction
-        for (int f = 0; f < k; f++) {
-            double sum = 0;
-            for (VectorEntry vi : x) {
-                for (VectorEntry vj : x) {
-                    double xi = vi.get();
-                    double xj = vj.get();
-                    int i = vi.index();
-                    int j = vj.index();
-                    if (i == j) continue;
-                    double vifj = V.get(i, map.get(j) + f);
-                    double vjfi = V.get(j, map.get(i) + f);
-                    sum += vifj * vjfi * xi * xj;
+        for (int dimI = 0; dimI < numDimensions; dimI++) {
+            int i = featureIndices[from + dimI];
+            double[] factorsOfI = factors[i];
+            int fieldOfI = fieldOfFeature[i];
+            for (int dimJ = 0; dimJ < numDimensions; dimJ++) {
+                if (dimI == dimJ) continue;
+                int j = featureIndices[from + dimJ];
+                double[] factorsOfJ = factors[j];
+                int fieldOfJ = fieldOfFeature[j];
+                for (int f = 0; f < k; f++) {
+                    res += factorsOfI[fieldOfJ + f] * factorsOfJ[fieldOfI + f];
                 }
             }
-            res += sum;
         }
 
         return res;
     }
 
 
-    @Deprecated
+    /**
+     * Rating predictions of the recommender are field-aware as well.
+     */
+    @Override
+    protected double predict(int[] featureIndices, int from, double[] factorSums) {
+        return predictFieldAware(featureIndices, from);
+    }
+
+    /**
+     * The part of the field-aware ranking prediction of a user that does not depend on the item: the prediction of
+     * the user feature and the user's context features without the item, and for every field g the sum
+     * {@code fieldSums[g]} of the factors towards the item field of the features of g, weighted by their values.
+     * The item i then adds w_i + 2 sum_g &lt;v_i of field g, fieldSums[g]&gt;. A user beyond the training tensor has
+     * no user feature.
+     *
+     * @param userIdx   user index
+     * @param fieldSums output, numDimensions x k
+     * @return the prediction without the item
+     */
+    private double predictFieldAwareUserPart(int userIdx, double[][] fieldSums) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        Int2DoubleSortedMap contextFeatures = userContextFeatures(userIdx);
+        boolean hasUserFeature = userIdx < dimensions[userDimension];
+        int[] features = new int[contextFeatures.size() + (hasUserFeature ? 1 : 0)];
+        double[] values = new double[features.length];
+        int position = 0;
+        if (hasUserFeature) {
+            features[position] = featureOffsets[userDimension] + userIdx;
+            values[position++] = 1.0d;
+        }
+        for (Int2DoubleMap.Entry feature : contextFeatures.int2DoubleEntrySet()) {
+            features[position] = feature.getIntKey();
+            values[position++] = feature.getDoubleValue();
+        }
+
+        double res = w0;
+        for (int a = 0; a < features.length; a++) {
+            double[] factorsOfA = factors[features[a]];
+            int fieldOfA = fieldOfFeature[features[a]];
+            res += values[a] * weights[features[a]];
+            for (int b = 0; b < features.length; b++) {
+                if (a == b) continue;
+                double[] factorsOfB = factors[features[b]];
+                int fieldOfB = fieldOfFeature[features[b]];
+                double interaction = 0;
+                for (int f = 0; f < k; f++) {
+                    interaction += factorsOfA[fieldOfB + f] * factorsOfB[fieldOfA + f];
+                }
+                res += values[a] * values[b] * interaction;
+            }
+        }
+
+        for (double[] sums : fieldSums) {
+            Arrays.fill(sums, 0.0d);
+        }
+        for (int a = 0; a < features.length; a++) {
+            double[] factorsOfA = factors[features[a]];
+            double[] sums = fieldSums[fieldOfFeature[features[a]]];
+            for (int f = 0; f < k; f++) {
+                sums[f] += values[a] * factorsOfA[itemDimension + f];
+            }
+        }
+        return res;
+    }
+
+    private double predictItem(double userPart, double[][] fieldSums, int itemIdx) {
+        int i = featureOffsets[itemDimension] + itemIdx;
+        double[] factorsOfI = V.getValues()[i];
+        double res = userPart + W.getValues()[i];
+        for (int field = 0; field < numDimensions; field++) {
+            if (field == itemDimension) continue;
+            double[] sums = fieldSums[field];
+            for (int f = 0; f < k; f++) {
+                res += 2 * factorsOfI[field + f] * sums[f];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Predict the field-aware ranking scores of all items for a user in O(k * numDimensions) per item.
+     *
+     * @param userIdx user index
+     * @param scores  output, the score of every item, length numItems
+     */
+    @Override
+    protected void predictItems(int userIdx, double[] scores) {
+        double[][] fieldSums = new double[numDimensions][k];
+        double userPart = predictFieldAwareUserPart(userIdx, fieldSums);
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            scores[itemIdx] = predictItem(userPart, fieldSums, itemIdx);
+        }
+    }
+
+    @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        return 0.0;
+        double[][] fieldSums = new double[numDimensions][k];
+        return predictItem(predictFieldAwareUserPart(userIdx, fieldSums), fieldSums, itemIdx);
     }
 }
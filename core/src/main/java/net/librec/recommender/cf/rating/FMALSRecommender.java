@@ -17,15 +17,11 @@
  */
 package net.librec.recommender.cf.rating;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
-import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.recommender.FactorizationMachineRecommender;
 
-import java.util.Iterator;
+import java.util.Arrays;
 
 /**
  * Factorization Machine Recommender via Alternating Least Square
@@ -36,60 +32,52 @@ import java.util.Iterator;
 @ModelData({"isRanking", "fmals", "W", "V", "W0", "k"})
 public class FMALSRecommender extends FactorizationMachineRecommender {
     /**
-     * parameter matrix
+     * cached per-factor sums q_if = sum_l v_lf x_il of every training entry, n x k
      */
-    private DenseMatrix Q; //  n x k
+    private double[][] Q;
     /**
-     * train appender matrix
+     * start position of the training entries of each appender index, length p + 1
      */
-    private SequentialAccessSparseMatrix trainFeatureMatrix;
+    private int[] featureEntryPtr;
+    /**
+     * training entries containing each appender index, grouped by appender index
+     */
+    private int[] featureEntries;
 
     @Override
     protected void setup() throws LibrecException {
         super.setup();
 
         // init Q
-        Q = new DenseMatrix(n, k);
-
-        // construct training appender matrix
-        Table<Integer, Integer, Double> trainTable = HashBasedTable.create();
-        for (int i = 0; i < n; i++) {
-            int[] ratingKeys = trainTensor.keys(i);
-            int colPrefix = 0;
-            for (int j = 0; j < ratingKeys.length; j++) {
-                int indexOfFeatureVector = colPrefix + ratingKeys[j];
-                colPrefix += trainTensor.dimensions[j];
-                trainTable.put(i, indexOfFeatureVector, 1.0);
+        Q = new double[n][k];
+
+        // construct the column view of the training appender matrix, all values are 1
+        featureEntryPtr = new int[p + 1];
+        for (int feature : trainFeatureIndices) {
+            featureEntryPtr[feature + 1]++;
+        }
+        for (int l = 0; l < p; l++) {
+            featureEntryPtr[l + 1] += featureEntryPtr[l];
+        }
+        featureEntries = new int[trainFeatureIndices.length];
+        int[] fill = Arrays.copyOf(featureEntryPtr, p);
+        for (int i = 0, from = 0; i < n; i++, from += numDimensions) {
+            for (int dim = 0; dim < numDimensions; dim++) {
+                featureEntries[fill[trainFeatureIndices[from + dim]]++] = i;
             }
         }
-        trainFeatureMatrix = new SequentialAccessSparseMatrix(n, p, trainTable);
     }
 
     @Override
     public void trainModel() throws LibrecException {
-        // precomputing Q and errors, for efficiency
-        VectorBasedDenseVector errors = new VectorBasedDenseVector(n);
-        int ind = 0;
-        for (TensorEntry me : trainTensor) {
-            int[] entryKeys = me.keys();
-            VectorBasedSequentialSparseVector x = tenserKeysToFeatureVector(entryKeys);
-
-            double rate = me.get();
-            double pred = predict(entryKeys);
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
 
-            double err = rate - pred;
-            errors.set(ind, err);
-
-            for (int f = 0; f < k; f++) {
-                double sum_q = 0;
-                for (VectorEntry ve : x) {
-                    int l = ve.index();
-                    double x_val = ve.get();
-                    sum_q += V.get(l, f) * x_val;
-                }
-                Q.set(ind, f, sum_q);
-            }
-            ind++;
+        // precomputing Q and errors, for efficiency
+        double[] errors = new double[n];
+        for (int i = 0, from = 0; i < n; i++, from += numDimensions) {
+            double pred = predict(trainFeatureIndices, from, Q[i]);
+            errors[i] = trainRatings[i] - pred;
         }
 
         /**
@@ -106,19 +94,16 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
             double denominator = 0;
             for (int i = 0; i < n; i++) {
                 double h_theta = 1;
-                numerator += w0 * h_theta * h_theta + h_theta * errors.get(i);
+                numerator += w0 * h_theta * h_theta + h_theta * errors[i];
                 denominator += h_theta;
             }
             denominator += regW0;
             double newW0 = numerator / denominator;
 
-            // System.out.println("original:" + errors.sum());
-
             // update errors
             for (int i = 0; i < n; i++) {
-                double oldErr = errors.get(i);
-                double newErr = oldErr + (w0 - newW0);
-                errors.set(i, newErr);
+                double oldErr = errors[i];
+                errors[i] = oldErr + (w0 - newW0);
 
                 loss += oldErr * oldErr;
             }
@@ -128,100 +113,66 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
 
             loss += regW0 * w0 * w0;
 
-            // System.out.println("after 0-way:" + errors.sum());
-
-            // 1-way interactions
+            // 1-way interactions, h_theta = x_il = 1 for every entry containing l
             for (int l = 0; l < p; l++) {
-                double oldWl = W.get(l);
+                double oldWl = weights[l];
+                int entryStart = featureEntryPtr[l], entryEnd = featureEntryPtr[l + 1];
                 numerator = 0;
-                denominator = 0;
-
-                Iterator<VectorEntry> iterator = trainFeatureMatrix.column(l).iterator();
-                while (iterator.hasNext()) {
-                    VectorEntry vectorEntry = iterator.next();
-                    double h_theta = vectorEntry.get();
-                    int i = vectorEntry.index();
-                    numerator += oldWl * h_theta * h_theta + h_theta * errors.get(i);
-                    denominator += h_theta * h_theta;
-
+                for (int position = entryStart; position < entryEnd; position++) {
+                    numerator += oldWl + errors[featureEntries[position]];
                 }
-
-                denominator += regW;
+                denominator = (entryEnd - entryStart) + regW;
                 double newWl = numerator / denominator;
 
-
                 // update errors
-                iterator = trainFeatureMatrix.column(l).iterator();
-                while (iterator.hasNext()) {
-                    VectorEntry vectorEntry = iterator.next();
-                    int i = vectorEntry.index();
-
-                    double oldErr = errors.get(i);
-                    double newErr = oldErr + (oldWl - newWl) * vectorEntry.get();
-                    errors.set(i, newErr);
-
+                double update = oldWl - newWl;
+                for (int position = entryStart; position < entryEnd; position++) {
+                    errors[featureEntries[position]] += update;
                 }
 
                 // update W
-                W.set(l, newWl);
+                weights[l] = newWl;
 
                 loss += regW * oldWl * oldWl;
             }
 
-            // System.out.println("after 1-way:" + errors.sum());
-
-            // 2-way interactions
+            // 2-way interactions, h_theta = x_il * (q_if - v_lf * x_il) with x_il = 1
             for (int f = 0; f < k; f++) {
                 for (int l = 0; l < p; l++) {
-                    double oldVlf = V.get(l, f);
+                    double oldVlf = factors[l][f];
+                    int entryStart = featureEntryPtr[l], entryEnd = featureEntryPtr[l + 1];
                     numerator = 0;
                     denominator = 0;
-                    Iterator<VectorEntry> rowIter = trainFeatureMatrix.column(l).iterator();
-                    while (rowIter.hasNext()) {
-                        VectorEntry vectorEntry = rowIter.next();
-                        int i = vectorEntry.index();
-                        double x_val = vectorEntry.get();
-                        double h_theta = x_val * (Q.get(i, f) - oldVlf * x_val);
-                        numerator += oldVlf * h_theta * h_theta + h_theta * errors.get(i);
+                    for (int position = entryStart; position < entryEnd; position++) {
+                        int i = featureEntries[position];
+                        double h_theta = Q[i][f] - oldVlf;
+                        numerator += oldVlf * h_theta * h_theta + h_theta * errors[i];
                         denominator += h_theta * h_theta;
-
                     }
                     denominator += regF;
                     double newVlf = numerator / denominator;
 
                     // update errors and Q
-                    rowIter = trainFeatureMatrix.column(l).iterator();
-                    while (rowIter.hasNext()) {
-                        VectorEntry vectorEntry = rowIter.next();
-                        int i = vectorEntry.index();
-                        double x_val = vectorEntry.get();
-
-                        double oldQif = Q.get(i, f);
-                        double update = (newVlf - oldVlf) * x_val;
+                    double update = newVlf - oldVlf;
+                    for (int position = entryStart; position < entryEnd; position++) {
+                        int i = featureEntries[position];
+                        double oldQif = Q[i][f];
                         double newQif = oldQif + update;
 
-                        double h_theta_old = x_val * (oldQif - oldVlf * x_val);
-                        double h_theta_new = x_val * (newQif - newVlf * x_val);
-
-                        double oldErr = errors.get(i);
-                        double newErr = oldErr + oldVlf * h_theta_old - newVlf * h_theta_new;
+                        double h_theta_old = oldQif - oldVlf;
+                        double h_theta_new = newQif - newVlf;
 
-                        errors.set(i, newErr);
-                        Q.set(i, f, newQif);
+                        errors[i] += oldVlf * h_theta_old - newVlf * h_theta_new;
+                        Q[i][f] = newQif;
                     }
 
-
                     // update V
-                    V.set(l, f, newVlf);
+                    factors[l][f] = newVlf;
 
-//                    VectorBasedDenseVector errorGround = computeGroundError();
-//                    errors = errorGround;
                     loss += regF * oldVlf * oldVlf;
                 }
-                //System.out.println("temp:" + errors.sum());
             }
 
-            // System.out.println("after 2-way:" + errors.sum());
             if (isConverged(iter) && earlyStop){
 
                 break;
@@ -229,14 +180,4 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
             lastLoss = loss;
         }
     }
-
-    /**
-     * This kind of prediction function cannot be applied to Factorization Machine.
-     * <p>
-     * Using the predict() in FactorizationMachineRecommender class instead of this method.
-     */
-    @Deprecated
-    protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        return 0.0;
-    }
 }
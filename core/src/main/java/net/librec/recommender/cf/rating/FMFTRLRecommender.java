@@ -1,7 +1,6 @@
 package net.librec.recommender.cf.rating;
 
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
 import net.librec.recommender.FactorizationMachineRecommender;
 
 /**
@@ -51,37 +50,27 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double[] factorSums = new double[k];
+
         double zW0 = 0;
-        VectorBasedDenseVector zW = new VectorBasedDenseVector(p);
-        DenseMatrix zV = new DenseMatrix(p, k);
-        zW.init(0);
-        zV.init(0);
+        double[] zW = new double[p];
+        double[][] zV = new double[p][k];
 
         double nW0 = 0;
-        VectorBasedDenseVector nW = new VectorBasedDenseVector(p);
-        DenseMatrix nV = new DenseMatrix(p, k);
-        nW.init(0);
-        nV.init(0);
+        double[] nW = new double[p];
+        double[][] nV = new double[p][k];
 
         double gW0, thetaW0;
 
-        VectorBasedDenseVector gW = new VectorBasedDenseVector(p);
-        VectorBasedDenseVector thetaW = new VectorBasedDenseVector(p);
-
-        DenseMatrix gV = new DenseMatrix(p, k);
-        DenseMatrix thetaV = new DenseMatrix(p, k);
-
         for (int iter=0; iter < numIterations; ++iter){
             loss = 0.0;
-//            int userDimension = trainTensor.getUserDimension();
-//            int itemDimension = trainTensor.getItemDimension();
-            for (TensorEntry me: trainTensor) {
-                int[] entryKeys = me.keys();
-                SequentialSparseVector x = tenserKeysToFeatureVector(entryKeys);
-                double rate = me.get();
+            for (int index = 0, from = 0; index < n; index++, from += numDimensions) {
+                double rate = trainRatings[index];
 
                 // compute rating value
-                double pred = predict(x);
+                double pred = predict(trainFeatureIndices, from, factorSums);
 
                 double err = pred - rate;
                 loss += err * err;
@@ -92,9 +81,9 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
                 // compute w0 gradient
                 double hW0 = 1;
                 gW0 = gradLoss * hW0;
-                thetaW0 = 1 / alpha * (Math.sqrt(nW0 + Math.pow(gW0, 2)) - Math.sqrt(nW0));
+                thetaW0 = 1 / alpha * (Math.sqrt(nW0 + gW0 * gW0) - Math.sqrt(nW0));
                 zW0 += gW0 - thetaW0 * w0;
-                nW0 += Math.pow(gW0, 2);
+                nW0 += gW0 * gW0;
 
                 // update w0
                 if (Math.abs(zW0) <= lambda1) {
@@ -103,47 +92,40 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
                     w0 = -1 / ((beta + Math.sqrt(nW0)) / alpha + lambda2) * (zW0 - sgn(zW0) * lambda1);
                 }
 
-                for(Vector.VectorEntry ve: x){
-                    int l = ve.index();
-                    // compute W gradient
-                    double hWl = ve.get();
-                    gW.set(l, gradLoss * hWl);
-                    thetaW.set(l, 1 / alpha * (Math.sqrt(nW.get(l) + Math.pow(gW.get(l), 2)) - Math.sqrt(nW.get(l))));
-                    zW.plus(l, gW.get(l) - thetaW.get(l) * W.get(l));
-                    nW.plus(l, Math.pow(gW.get(l), 2));
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    int l = trainFeatureIndices[from + dim];
+                    // compute W gradient, x_l = 1 for the active features
+                    double hWl = 1;
+                    double gWl = gradLoss * hWl;
+                    double thetaWl = 1 / alpha * (Math.sqrt(nW[l] + gWl * gWl) - Math.sqrt(nW[l]));
+                    zW[l] += gWl - thetaWl * weights[l];
+                    nW[l] += gWl * gWl;
 
                     // update W
-                    if (Math.abs(zW.get(l)) <= lambda1) {
-                        W.set(l, 0);
+                    if (Math.abs(zW[l]) <= lambda1) {
+                        weights[l] = 0;
                     } else {
-                        double value = -1 / ((beta + Math.sqrt(nW.get(l))) / alpha + lambda2) * (zW.get(l) - sgn(zW.get(l)) * lambda1);
-                        W.set(l, value);
+                        weights[l] = -1 / ((beta + Math.sqrt(nW[l])) / alpha + lambda2) * (zW[l] - sgn(zW[l]) * lambda1);
                     }
 
+                    double[] factorsOfL = factors[l];
+                    double[] zVOfL = zV[l];
+                    double[] nVOfL = nV[l];
                     for (int f = 0; f < k; ++f) {
-                        double hVlf = 0;
-                        double xl =ve.get();
-                        for (Vector.VectorEntry ve2: x){
-                            int j = ve2.index();
-                            if(j!=l){
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
-                        }
+                        // h_lf = sum_{j != l} v_jf from the cached factor sums
+                        double hVlf = factorSums[f] - factorsOfL[f];
 
                         // compute V gradient
-                        double gradVlf = gradLoss * hVlf;
-
-                        gV.set(l, f, gradVlf);
-                        thetaV.set(l, f, 1 / alpha * (Math.sqrt(nV.get(l, f) + Math.pow(gV.get(l, f), 2)) - Math.sqrt(nV.get(l, f))));
-                        zV.plus(l, f, gV.get(l, f) - thetaV.get(l, f) * V.get(l, f));
-                        nV.plus(l, f, Math.pow(gV.get(l, f), 2));
+                        double gVlf = gradLoss * hVlf;
+                        double thetaVlf = 1 / alpha * (Math.sqrt(nVOfL[f] + gVlf * gVlf) - Math.sqrt(nVOfL[f]));
+                        zVOfL[f] += gVlf - thetaVlf * factorsOfL[f];
+                        nVOfL[f] += gVlf * gVlf;
 
                         // update V
-                        if (Math.abs(zV.get(l, f)) <= lambda1) {
-                            V.set(l, f, 0);
+                        if (Math.abs(zVOfL[f]) <= lambda1) {
+                            factorsOfL[f] = 0;
                         } else {
-                            double value = -1 / ((beta + Math.sqrt(nV.get(l, f))) / alpha + lambda2) * (zV.get(l, f) - sgn(zV.get(l, f)) * lambda1);
-                            V.set(l, f, value);
+                            factorsOfL[f] = -1 / ((beta + Math.sqrt(nVOfL[f])) / alpha + lambda2) * (zVOfL[f] - sgn(zVOfL[f]) * lambda1);
                         }
                     }
                 }
@@ -160,14 +142,4 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
     private int sgn(double value){
         return value > 0? 1: value==0? 0 : -1;
     }
-
-    /**
-     * This kind of prediction function cannot be applied to Factorization Machine.
-     *
-     * Using the predict() in FactorizationMachineRecommender class instead of this method.
-     */
-    @Deprecated
-    protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        return 0;
-    }
 }
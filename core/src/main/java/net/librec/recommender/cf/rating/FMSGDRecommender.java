@@ -20,9 +20,6 @@ package net.librec.recommender.cf.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.TensorEntry;
-import net.librec.math.structure.Vector.VectorEntry;
-import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.FactorizationMachineRecommender;
 
 
@@ -55,15 +52,16 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double[] factorSums = new double[k];
+
         for (int iter = 0; iter < numIterations; iter++) {
             loss = 0.0;
 
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                VectorBasedSequentialSparseVector vector = tenserKeysToFeatureVector(entryKeys);
-
-                double rate = me.get();
-                double pred = predict(entryKeys);
+            for (int index = 0, from = 0; index < n; index++, from += numDimensions) {
+                double rate = trainRatings[index];
+                double pred = predict(trainFeatureIndices, from, factorSums);
 
                 double err = pred - rate;
                 loss += err * err;
@@ -78,30 +76,24 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
                 // update w0
                 w0 += -learnRate * gradW0;
 
-                // 1-way interactions
-                for (VectorEntry ve : vector) {
-                    int l = ve.index();
-                    double oldWl = W.get(l);
-                    double hWl = ve.get();
+                // 1-way interactions, x_l = 1 for the active features
+                for (int dim = 0; dim < numDimensions; dim++) {
+                    int l = trainFeatureIndices[from + dim];
+                    double oldWl = weights[l];
+                    double hWl = 1;
                     double gradWl = gradLoss * hWl + regW * oldWl;
-                    W.plus(l, -learnRate * gradWl);
+                    weights[l] += -learnRate * gradWl;
 
                     loss += regW * oldWl * oldWl;
 
-                    // 2-way interactions
+                    // 2-way interactions, h_lf = sum_{j != l} v_jf from the cached factor sums
+                    double[] factorsOfL = factors[l];
                     for (int f = 0; f < k; f++) {
-                        double oldVlf = V.get(l, f);
-                        double hVlf = 0;
-                        double xl = ve.get();
-                        for (VectorEntry ve2 : vector) {
-                            int j = ve2.index();
-                            if (j != l) {
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
-                        }
+                        double oldVlf = factorsOfL[f];
+                        double hVlf = factorSums[f] - oldVlf;
 
                         double gradVlf = gradLoss * hVlf + regF * oldVlf;
-                        V.plus(l, f, -learnRate * gradVlf);
+                        factorsOfL[f] += -learnRate * gradVlf;
                         loss += regF * oldVlf * oldVlf;
                     }
                 }
@@ -165,13 +165,13 @@ public class GPLSARecommender extends MatrixProbabilisticGraphicalRecommender {
     @Override
     protected void eStep() {
         // variational inference to compute Q
+        double[] numerator = new double[numTopics];
         for (MatrixEntry me : trainMatrix) {
             int u = me.row();
             int i = me.column();
             double rating = me.get();
 
             double denominator = 0.0;
-            double[] numerator = new double[numTopics];
             for (int z = 0; z < numTopics; z++) {
                 double pdf = Gaussian.pdf(rating, topicItemMu.get(i, z), topicItemSigma.get(i, z));
                 double val = Math.pow(userTopicProbs.get(u, z) * pdf, b); // Tempered EM
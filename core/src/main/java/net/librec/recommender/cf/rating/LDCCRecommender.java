@@ -26,6 +26,7 @@ import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
+import net.librec.recommender.TopicSampler;
 
 /**
  * LDCC: Bayesian Co-clustering (BCC) with Gibbs sampling
@@ -117,6 +118,8 @@ public class LDCCRecommender extends MatrixProbabilisticGraphicalRecommender {
 
     @Override
     protected void eStep() {
+        // joint distribution of the user and item factors, row-major
+        double[] probs = new double[numUserTopics * numItemTopics];
         for (MatrixEntry me : trainMatrix) {
             int u = me.row();
             int v = me.column();
@@ -138,55 +141,20 @@ public class LDCCRecommender extends MatrixProbabilisticGraphicalRecommender {
             numUserItemTopics.plus(i, j, -1);
 
             // Compute P(i, j)
-            DenseMatrix probs = new DenseMatrix(numUserTopics, numItemTopics);
-            double sum = 0;
             for (int m = 0; m < numUserTopics; m++) {
+                double v1 = (numEachUserTopics.get(u, m) + userAlpha) / (numEachUserRatings.get(u) + numUserTopics * userAlpha);
                 for (int n = 0; n < numItemTopics; n++) {
-                    // Compute Pmn
-                    double v1 = (numEachUserTopics.get(u, m) + userAlpha) / (numEachUserRatings.get(u) + numUserTopics * userAlpha);
-                    double v2 = (numEachUserTopics.get(i, n) + itemAlpha) / (numEachItemRatings.get(v) + numItemTopics * itemAlpha);
+                    double v2 = (numEachItemTopics.get(v, n) + itemAlpha) / (numEachItemRatings.get(v) + numItemTopics * itemAlpha);
                     double v3 = (numUserItemRatingTopics[m][n][r] + ratingBeta) / (numUserItemTopics.get(m, n) + numRatingLevels * ratingBeta);
 
-                    double prob = v1 * v2 * v3;
-                    probs.set(m, n, prob);
-                    sum += prob;
+                    probs[m * numItemTopics + n] = v1 * v2 * v3;
                 }
             }
 
-            // probs = probs.scale(1.0 / sum);
-            probs.assign(probs.times(1.0 / sum));
-
-            // Re-sample user factor
-            double[] Pu = new double[numUserTopics];
-            for (int m = 0; m < numUserTopics; m++) {
-                Pu[m] = probs.row(m).sum();
-            }
-            for (int m = 1; m < numUserTopics; m++) {
-                Pu[m] += Pu[m - 1];
-            }
-
-            double rand = Randoms.uniform();
-            for (i = 0; i < numUserTopics; i++) {
-                if (rand < Pu[i]) {
-                    break;
-                }
-            }
-
-            // Re-sample item factor
-            double[] Pv = new double[numItemTopics];
-            for (int n = 0; n < numItemTopics; n++) {
-                Pv[n] = probs.column(n).sum();
-            }
-            for (int n = 1; n < numItemTopics; n++) {
-                Pv[n] += Pv[n - 1];
-            }
-
-            rand = Randoms.uniform();
-            for (j = 0; j < numItemTopics; j++) {
-                if (rand < Pv[j]) {
-                    break;
-                }
-            }
+            // Re-sample the user and item factors jointly
+            int factorPair = TopicSampler.sample(probs, probs.length, Randoms.uniform());
+            i = factorPair / numItemTopics;
+            j = factorPair % numItemTopics;
 
             // Add statistics
             numEachUserTopics.plus(u, i, 1);
@@ -1,14 +1,21 @@
 package net.librec.recommender.cf.rating;
 
-import com.google.common.collect.Table;
-import com.google.common.primitives.Ints;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.KernelSmoothing;
 import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.*;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 /**
  * <h3> Local Low-Rank Matrix Approximation</h3>
@@ -17,6 +24,10 @@ import java.util.List;
  * <p>
  * <strong>Lcoal Structure:</strong> Joonseok Lee, <strong>Local Low-Rank Matrix Approximation
  * </strong>, ICML. 2013: 82-90.
+ * <p>
+ * Local models are trained as tasks on a work-stealing pool of {@code rec.thread.count} threads (all cores by
+ * default). At most two models per thread are kept in memory; finished models are folded, in anchor order,
+ * into weighted prediction sums aligned with the entries of the test matrix.
  *
  * @author GuoGuibing and Keqiang Wang
  */
@@ -26,10 +37,37 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
     private int numThreads;
     protected double globalRegUser, globalRegItem, localRegUser, localRegItem;
     private double globalLearnRate, localLearnRate;
-    private SequentialAccessSparseMatrix predictMatrix;
+    private transient SequentialAccessSparseMatrix predictMatrix;
     private int numLocalModels;
     private DenseMatrix globalUserFactors, globalItemFactors;
 
+    /**
+     * global factors scaled to unit length, so that the similarity of two users (or items) is a dot product
+     */
+    private double[][] unitUserFactors, unitItemFactors;
+
+    /**
+     * kernel weights of every anchor user (or item) used so far
+     */
+    private transient Map<Integer, double[]> userKernelCache, itemKernelCache;
+
+    /**
+     * anchor points and random seeds of the local models
+     */
+    private int[] anchorArrayUser, anchorArrayItem;
+    private long[] seeds;
+
+    /**
+     * weighted prediction sums of the models accumulated so far, aligned with the entries of the test matrix
+     */
+    private double[] cumPredictions, cumWeights;
+
+    /**
+     * number of local models trained so far, and the training time of each in milliseconds
+     */
+    private volatile int numCompletedModels;
+    private long[] modelTrainingTimes;
+
     /*
      * (non-Javadoc)
      *
@@ -52,10 +90,11 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
         globalLearnRate = conf.getDouble("rec.global.iteration.learnrate", 0.01);
         localLearnRate = conf.getDouble("rec.iteration.learnrate", 0.01);
 
-        numThreads = conf.getInt("rec.thread.count", 4);
+        numThreads = conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors());
         numLocalModels = conf.getInt("rec.model.num", 50);
 
         numThreads = numThreads > numLocalModels ? numLocalModels : numThreads;
+        numThreads = Math.max(numThreads, 1);
 
         //global svd P Q to calculate the kernel value between users (or items)
         globalUserFactors = new DenseMatrix(numUsers, globalNumFactors);
@@ -65,6 +104,8 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
         globalUserFactors.init(initMean, initStd);
         globalItemFactors.init(initMean, initStd);
         this.buildGlobalModel();
+        unitUserFactors = unitRows(globalUserFactors);
+        unitItemFactors = unitRows(globalItemFactors);
 
         predictMatrix = new SequentialAccessSparseMatrix(testMatrix);
     }
@@ -72,22 +113,29 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
 
     //global svd P Q
     private void buildGlobalModel() {
+        double[][] userFactorValues = globalUserFactors.getValues();
+        double[][] itemFactorValues = globalItemFactors.getValues();
         for (int globalIter = 1; globalIter <= globalNumIterations; globalIter++) {
             for (MatrixEntry matrixEntry : trainMatrix) {
                 int userIdx = matrixEntry.row(); // user
                 int itemIdx = matrixEntry.column(); // item
                 double rating = matrixEntry.get();
+                double[] userFactor = userFactorValues[userIdx];
+                double[] itemFactor = itemFactorValues[itemIdx];
 
-                double predictRating = globalUserFactors.row(userIdx).dot(globalItemFactors.row(itemIdx));
+                double predictRating = 0.0d;
+                for (int factorIdx = 0; factorIdx < globalNumFactors; factorIdx++) {
+                    predictRating += userFactor[factorIdx] * itemFactor[factorIdx];
+                }
                 double error = rating - predictRating;
 
                 // update factors
                 for (int factorIdx = 0; factorIdx < globalNumFactors; factorIdx++) {
-                    double puf = globalUserFactors.get(userIdx, factorIdx);
-                    double qif = globalItemFactors.get(itemIdx, factorIdx);
+                    double puf = userFactor[factorIdx];
+                    double qif = itemFactor[factorIdx];
 
-                    globalUserFactors.plus(userIdx, factorIdx, globalLearnRate * (error * qif - globalRegUser * puf));
-                    globalItemFactors.plus(itemIdx, factorIdx, globalLearnRate * (error * puf - globalRegItem * qif));
+                    userFactor[factorIdx] += globalLearnRate * (error * qif - globalRegUser * puf);
+                    itemFactor[factorIdx] += globalLearnRate * (error * puf - globalRegItem * qif);
                 }
             }
         }// end of training
@@ -95,100 +143,189 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        // Pre-calculating similarity:
-        int completeModelCount = 0;
+        // The ratings shared by all local models:
+        int numRatings = trainMatrix.size();
+        int[] trainUsers = new int[numRatings], trainItems = new int[numRatings];
+        double[] trainRatings = new double[numRatings];
+        int entryIdx = 0;
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            trainUsers[entryIdx] = matrixEntry.row();
+            trainItems[entryIdx] = matrixEntry.column();
+            trainRatings[entryIdx++] = matrixEntry.get();
+        }
 
-        LLORMAUpdater[] learners = new LLORMAUpdater[numThreads];
-        int[] anchorArrayUser = new int[numLocalModels];
-        int[] anchorArrayItem = new int[numLocalModels];
+        // The test entries and their cumulative predictions and weights:
+        int numTestEntries = testMatrix.size();
+        int[] testUsers = new int[numTestEntries], testItems = new int[numTestEntries];
+        entryIdx = 0;
+        for (MatrixEntry matrixEntry : testMatrix) {
+            testUsers[entryIdx] = matrixEntry.row();
+            testItems[entryIdx++] = matrixEntry.column();
+        }
 
-        int modelCount = 0;
-        int[] runningThreadList = new int[numThreads];
-        int runningThreadCount = 0;
-        int waitingThreadPointer = 0;
-        int nextRunningSlot = 0;
+        anchorArrayUser = new int[numLocalModels];
+        anchorArrayItem = new int[numLocalModels];
+        seeds = new long[numLocalModels];
+        cumPredictions = new double[numTestEntries];
+        cumWeights = new double[numTestEntries];
+        numCompletedModels = 0;
+        modelTrainingTimes = new long[numLocalModels];
+
+        // A checkpoint is taken after every accumulated model, resuming from it skips the models accumulated before
+        int firstModelIdx = restoreCheckpoint(0);
+        if (firstModelIdx == 0) {
+            // Selecting the anchor points:
+            for (int modelIdx = 0; modelIdx < numLocalModels; modelIdx++) {
+                int[] itemIndices;
+                do {
+                    anchorArrayUser[modelIdx] = Randoms.uniform(numUsers);
+                    itemIndices = trainMatrix.row(anchorArrayUser[modelIdx]).getIndices();
+                } while (itemIndices.length == 0);
+                anchorArrayItem[modelIdx] = itemIndices[Randoms.uniform(itemIndices.length)];
+                seeds[modelIdx] = ((long) Randoms.uniform(Integer.MAX_VALUE) << 31) ^ Randoms.uniform(Integer.MAX_VALUE);
+            }
+        }
 
-        SequentialAccessSparseMatrix cumPredictionMatrix = new SequentialAccessSparseMatrix(testMatrix);
-        SequentialAccessSparseMatrix cumWeightMatrix = new SequentialAccessSparseMatrix(testMatrix);
-        for (MatrixEntry matrixEntry : testMatrix) {
-            int userIdx = matrixEntry.row();
-//            int itemIdx = matrixEntry.column();
-            int columnPosition = matrixEntry.columnPosition();
-            cumPredictionMatrix.setAtColumnPosition(userIdx, columnPosition, 0.0);
-            cumWeightMatrix.setAtColumnPosition(userIdx, columnPosition, 0.0);
+        userKernelCache = new ConcurrentHashMap<>();
+        itemKernelCache = new ConcurrentHashMap<>();
+
+        // Parallel training, keeping at most two models per thread in memory:
+        int maxPendingModels = 2 * numThreads;
+        Deque<Future<LLORMAUpdater>> pendingModels = new ArrayDeque<>(maxPendingModels);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            for (int modelIdx = firstModelIdx; modelIdx < numLocalModels; modelIdx++) {
+                int currentModelIdx = modelIdx;
+                pendingModels.add(pool.submit(() -> {
+                    LLORMAUpdater learner = new LLORMAUpdater(currentModelIdx, localNumFactors, numUsers, numItems,
+                            anchorArrayUser[currentModelIdx], anchorArrayItem[currentModelIdx], localLearnRate,
+                            localRegUser, localRegItem, localNumIterations,
+                            kernelWeights(anchorArrayUser[currentModelIdx], false),
+                            kernelWeights(anchorArrayItem[currentModelIdx], true),
+                            trainUsers, trainItems, trainRatings, seeds[currentModelIdx]);
+                    learner.run();
+                    return learner;
+                }));
+                if (pendingModels.size() >= maxPendingModels) {
+                    accumulate(pendingModels.poll().get(), testUsers, testItems, cumPredictions, cumWeights);
+                    saveCheckpoint(numCompletedModels);
+                }
+            }
+            while (!pendingModels.isEmpty()) {
+                accumulate(pendingModels.poll().get(), testUsers, testItems, cumPredictions, cumWeights);
+                saveCheckpoint(numCompletedModels);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new LibrecException(e);
+        } finally {
+            pool.shutdownNow();
+            userKernelCache = null;
+            itemKernelCache = null;
+        }
+
+        // Predicting with all local models:
+        predictMatrix = new SequentialAccessSparseMatrix(testMatrix);
+        entryIdx = 0;
+        for (MatrixEntry matrixEntry : predictMatrix) {
+            double prediction = cumPredictions[entryIdx] / cumWeights[entryIdx];
+            entryIdx++;
+
+            prediction = Double.isNaN(prediction) || prediction == 0.0 ? globalMean : prediction;
+            prediction = prediction < minRate ? minRate : prediction;
+            prediction = prediction > maxRate ? maxRate : prediction;
+
+            matrixEntry.set(prediction);
+        }
+    }
+
+    /**
+     * Add the weighted predictions of a local model to the cumulative predictions of the test entries.
+     *
+     * @param learner        the trained local model
+     * @param testUsers      the users of the test entries
+     * @param testItems      the items of the test entries
+     * @param cumPredictions the cumulative weighted predictions
+     * @param cumWeights     the cumulative weights
+     */
+    private void accumulate(LLORMAUpdater learner, int[] testUsers, int[] testItems,
+                            double[] cumPredictions, double[] cumWeights) {
+        double[] userWeights = learner.getUserWeights(), itemWeights = learner.getItemWeights();
+        IntStream.range(0, testUsers.length).parallel().forEach(entryIdx -> {
+            double weight = userWeights[testUsers[entryIdx]] * itemWeights[testItems[entryIdx]];
+            cumWeights[entryIdx] += weight;
+            cumPredictions[entryIdx] += learner.predict(testUsers[entryIdx], testItems[entryIdx]) * weight;
+        });
+
+        modelTrainingTimes[learner.getThreadId()] = learner.getTrainingTime();
+        numCompletedModels++;
+        if (verbose) {
+            LOG.info(String.format("local model %d/%d (anchor user %d, item %d) trained in %d ms", numCompletedModels,
+                    numLocalModels, learner.getUserAnchor(), learner.getItemAnchor(), learner.getTrainingTime()));
         }
+    }
+
+    /**
+     * @return the number of local models trained so far
+     */
+    public int getNumCompletedModels() {
+        return numCompletedModels;
+    }
+
+    /**
+     * @return the training time of every local model in milliseconds, 0 for models not trained yet
+     */
+    public long[] getModelTrainingTimes() {
+        return modelTrainingTimes;
+    }
 
-        // Parallel training:
-        while (completeModelCount < numLocalModels) {
-            int anchorUser = Randoms.uniform(numUsers);
-            List<Integer> itemList = Ints.asList(trainMatrix.row(anchorUser).getIndices());
-
-            if (itemList != null && itemList.size() > 0) {
-                if (runningThreadCount < numThreads && modelCount < numLocalModels) {
-                    // Selecting a new anchor point:
-                    int itemListIdx = Randoms.uniform(itemList.size());
-                    int anchorItem = itemList.get(itemListIdx);
-
-                    anchorArrayUser[modelCount] = anchorUser;
-                    anchorArrayItem[modelCount] = anchorItem;
-
-                    // Preparing weight vectors:
-                    DenseVector userWeights = kernelSmoothing(numUsers, anchorUser, KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8, false);
-                    DenseVector itemWeights = kernelSmoothing(numItems, anchorItem, KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8, true);
-
-                    // Starting a new local model learning:
-                    learners[nextRunningSlot] = new LLORMAUpdater(modelCount, localNumFactors, numUsers, numItems, anchorUser,
-                            anchorItem, localLearnRate, localRegUser, localRegItem, localNumIterations, userWeights, itemWeights, trainMatrix);
-                    learners[nextRunningSlot].start();
-
-                    runningThreadList[runningThreadCount] = modelCount;
-                    runningThreadCount++;
-                    modelCount++;
-                    nextRunningSlot++;
-                } else if (runningThreadCount > 0) {
-                    // Joining a local model which was done with learning:
-                    try {
-                        learners[waitingThreadPointer].join();
-                    } catch (InterruptedException ie) {
-                        System.out.println("Join failed: " + ie);
-                    }
-
-                    int currentModelThreadIdx = waitingThreadPointer;
-                    int currentModelAnchorIdx = completeModelCount;
-                    completeModelCount++;
-
-                    // Predicting with the new local model and all previous models:
-                    predictMatrix = new SequentialAccessSparseMatrix(testMatrix);
-                    for (MatrixEntry matrixEntry : testMatrix) {
-                        int userIdx = matrixEntry.row();
-                        int itemIdx = matrixEntry.column();
-
-                        double weight = KernelSmoothing.kernelize(getUserSimilarity(anchorArrayUser[currentModelAnchorIdx], userIdx),
-                                0.8, KernelSmoothing.EPANECHNIKOV_KERNEL) * KernelSmoothing.kernelize(getItemSimilarity(anchorArrayItem[currentModelAnchorIdx],
-                                itemIdx), 0.8, KernelSmoothing.EPANECHNIKOV_KERNEL);
-
-                        double newPrediction = (learners[currentModelThreadIdx].getLocalUserFactors().viewRow(userIdx)
-                                .dot(learners[currentModelThreadIdx].getLocalItemFactors().viewRow(itemIdx))) * weight;
-
-                        int columnPosition = matrixEntry.columnPosition();
-                        cumWeightMatrix.setAtColumnPosition(userIdx, columnPosition, cumWeightMatrix.getAtColumnPosition(userIdx, columnPosition) + weight);
-                        cumPredictionMatrix.setAtColumnPosition(userIdx, columnPosition, cumPredictionMatrix.getAtColumnPosition(userIdx, columnPosition) + newPrediction);
-
-                        double prediction = cumPredictionMatrix.getAtColumnPosition(userIdx, columnPosition) / cumWeightMatrix.getAtColumnPosition(userIdx, columnPosition);
-
-                        prediction = Double.isNaN(prediction) || prediction == 0.0 ? globalMean : prediction;
-                        prediction = prediction < minRate ? minRate : prediction;
-                        prediction = prediction > maxRate ? maxRate : prediction;
-
-                        predictMatrix.setAtColumnPosition(userIdx, columnPosition, prediction);
-                    }
-
-                    nextRunningSlot = waitingThreadPointer;
-                    waitingThreadPointer = (waitingThreadPointer + 1) % numThreads;
-                    runningThreadCount--;
+    /**
+     * Scale the rows of a factor matrix to unit length, leaving zero rows at zero.
+     *
+     * @param factors factor matrix
+     * @return the unit rows
+     */
+    private static double[][] unitRows(DenseMatrix factors) {
+        double[][] values = factors.getValues();
+        double[][] unitValues = new double[values.length][];
+        for (int row = 0; row < values.length; row++) {
+            double norm = 0.0d;
+            for (double value : values[row]) {
+                norm += value * value;
+            }
+            norm = Math.sqrt(norm);
+            unitValues[row] = new double[values[row].length];
+            if (norm > 0.0d) {
+                for (int column = 0; column < values[row].length; column++) {
+                    unitValues[row][column] = values[row][column] / norm;
                 }
             }
         }
+        return unitValues;
+    }
+
+    /**
+     * Similarity of two unit vectors, 1 - 2 / pi * arccos(cosine).
+     */
+    private static double similarity(double[] unitVector1, double[] unitVector2) {
+        double cosine = 0.0d;
+        for (int index = 0; index < unitVector1.length; index++) {
+            cosine += unitVector1[index] * unitVector2[index];
+        }
+        double sim = 1 - 2.0 / Math.PI * Math.acos(cosine);
+        return Double.isNaN(sim) ? 0.0 : sim;
+    }
+
+    /**
+     * Kernel weights of all users (or items) around an anchor, cached per anchor.
+     *
+     * @param anchorIdx     The identifier of anchor point.
+     * @param isItemFeature return item kernel if yes, return user kernel otherwise.
+     * @return The kernel-smoothed values for all users or all items.
+     */
+    private double[] kernelWeights(int anchorIdx, boolean isItemFeature) {
+        Map<Integer, double[]> cache = isItemFeature ? itemKernelCache : userKernelCache;
+        return cache.computeIfAbsent(anchorIdx, anchor -> kernelSmoothing(isItemFeature ? numItems : numUsers, anchor,
+                KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8, isItemFeature));
     }
 
     /**
@@ -199,18 +336,7 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
      * @return The similarity value between two users idx1 and idx2.
      */
     private double getUserSimilarity(int userIdx1, int userIdx2) {
-        double sim;
-
-        DenseVector userVector1 = globalUserFactors.row(userIdx1);
-        DenseVector userVector2 = globalUserFactors.row(userIdx2);
-
-        sim = 1 - 2.0 / Math.PI * Math.acos(userVector1.dot(userVector2) / (Math.sqrt(userVector1.dot(userVector1))
-                * Math.sqrt(userVector2.dot(userVector2))));
-
-        if (Double.isNaN(sim)) {
-            sim = 0.0;
-        }
-        return sim;
+        return similarity(unitUserFactors[userIdx1], unitUserFactors[userIdx2]);
     }
 
     /**
@@ -221,18 +347,7 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
      * @return The similarity value between two items idx1 and idx2.
      */
     private double getItemSimilarity(int itemIdx1, int itemIdx2) {
-        double sim;
-
-        DenseVector itemVector1 = globalItemFactors.row(itemIdx1);
-        DenseVector itemVector2 = globalItemFactors.row(itemIdx2);
-
-        sim = 1 - 2.0 / Math.PI * Math.acos(itemVector1.dot(itemVector2) / (Math.sqrt(itemVector1.dot(itemVector1))
-                * Math.sqrt(itemVector2.dot(itemVector2))));
-        if (Double.isNaN(sim)) {
-            sim = 0.0;
-        }
-
-        return sim;
+        return similarity(unitItemFactors[itemIdx1], unitItemFactors[itemIdx2]);
     }
 
     /**
@@ -246,9 +361,8 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
      * @param isItemFeature return item kernel if yes, return user kernel otherwise.
      * @return The kernel-smoothed values for all users or all items.
      */
-    private DenseVector kernelSmoothing(int size, int anchorIdx, int kernelType, double width, boolean isItemFeature) {
-        DenseVector newFeatureVector = new VectorBasedDenseVector(size);
-        newFeatureVector.set(anchorIdx, 1.0);
+    private double[] kernelSmoothing(int size, int anchorIdx, int kernelType, double width, boolean isItemFeature) {
+        double[] newFeatureVector = new double[size];
 
         for (int index = 0; index < size; index++) {
             double sim;
@@ -257,7 +371,7 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
             } else { // userFeature
                 sim = getUserSimilarity(index, anchorIdx);
             }
-            newFeatureVector.set(index, KernelSmoothing.kernelize(sim, width, kernelType));
+            newFeatureVector[index] = KernelSmoothing.kernelize(sim, width, kernelType);
         }
         return newFeatureVector;
     }
@@ -1,10 +1,8 @@
 package net.librec.recommender.cf.rating;
 
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+import java.util.Random;
 
 /**
  * <h3> Local Low-Rank Matrix Approximation</h3>
@@ -16,9 +14,9 @@ import net.librec.math.structure.SequentialAccessSparseMatrix;
  *
  * @author GuoGuibing and Keqiang Wang
  */
-public class LLORMAUpdater extends Thread {
+public class LLORMAUpdater implements Runnable {
     /**
-     * The unique identifier of the thread.
+     * The unique identifier of the local model.
      */
     private int threadId;
 
@@ -65,12 +63,12 @@ public class LLORMAUpdater extends Thread {
     /**
      * The vector containing each user's weight.
      */
-    private DenseVector userWeights;
+    private double[] userWeights;
 
     /**
      * The vector containing each item's weight.
      */
-    private DenseVector itemWeights;
+    private double[] itemWeights;
 
     /**
      * User profile in low-rank matrix form.
@@ -83,30 +81,45 @@ public class LLORMAUpdater extends Thread {
     private DenseMatrix localItemFactors;
 
     /**
-     * The rating matrix used for learning.
+     * The ratings used for learning, as aligned (user, item, rating) arrays shared by all local models.
+     */
+    private int[] trainUsers, trainItems;
+    private double[] trainRatings;
+
+    /**
+     * Seed of the random initialization of this local model.
      */
-    private SequentialAccessSparseMatrix trainMatrix;
+    private long seed;
+
+    /**
+     * Wall-clock training time of this local model in milliseconds.
+     */
+    private long trainingTime;
 
     /**
      * Construct a local model for singleton LLORMA.
      *
-     * @param threadIDParam       A unique thread ID.
+     * @param threadIDParam       A unique local model ID.
      * @param numFactorsParam     The rank which will be used in this local model.
      * @param numUsersParam       The number of users.
      * @param numItemsParam       The number of items.
      * @param anchorUserParam     The anchor user used to learn this local model.
      * @param anchorItemParam     The anchor item used to learn this local model.
      * @param learnRateParam      Learning rate parameter.
-     * @param userWeightsParam    Initial vector containing each user's weight.
-     * @param itemWeightsParam    Initial vector containing each item's weight.
-     * @param trainMatrixParam    The rating matrix used for learning.
-     * @param localIterationParam localIterationParam
-     * @param localRegItemParam   localRegItemParam
      * @param localRegUserParam   localRegUserParam
+     * @param localRegItemParam   localRegItemParam
+     * @param localIterationParam localIterationParam
+     * @param userWeightsParam    Vector containing each user's weight.
+     * @param itemWeightsParam    Vector containing each item's weight.
+     * @param trainUsersParam     The users of the ratings used for learning.
+     * @param trainItemsParam     The items of the ratings used for learning.
+     * @param trainRatingsParam   The ratings used for learning.
+     * @param seedParam           Seed of the random initialization.
      */
     public LLORMAUpdater(int threadIDParam, int numFactorsParam, int numUsersParam, int numItemsParam, int anchorUserParam,
                          int anchorItemParam, double learnRateParam, double localRegUserParam, double localRegItemParam,
-                         int localIterationParam, DenseVector userWeightsParam, DenseVector itemWeightsParam, SequentialAccessSparseMatrix trainMatrixParam) {
+                         int localIterationParam, double[] userWeightsParam, double[] itemWeightsParam,
+                         int[] trainUsersParam, int[] trainItemsParam, double[] trainRatingsParam, long seedParam) {
         threadId = threadIDParam;
         numFactors = numFactorsParam;
         numUsers = numUsersParam;
@@ -119,15 +132,16 @@ public class LLORMAUpdater extends Thread {
         localIteration = localIterationParam;
         userWeights = userWeightsParam;
         itemWeights = itemWeightsParam;
-        localUserFactors = new DenseMatrix(numUsers, numFactors);
-        localItemFactors = new DenseMatrix(numItems, numFactors);
-        trainMatrix = trainMatrixParam;
+        trainUsers = trainUsersParam;
+        trainItems = trainItemsParam;
+        trainRatings = trainRatingsParam;
+        seed = seedParam;
     }
 
     /**
-     * Getter method for thread ID.
+     * Getter method for local model ID.
      *
-     * @return The thread ID of this local model.
+     * @return The ID of this local model.
      */
     public int getThreadId() {
         return threadId;
@@ -178,6 +192,33 @@ public class LLORMAUpdater extends Thread {
         return localItemFactors;
     }
 
+    /**
+     * Getter method for the kernel weight of each user.
+     *
+     * @return The user weights of this local model.
+     */
+    public double[] getUserWeights() {
+        return userWeights;
+    }
+
+    /**
+     * Getter method for the kernel weight of each item.
+     *
+     * @return The item weights of this local model.
+     */
+    public double[] getItemWeights() {
+        return itemWeights;
+    }
+
+    /**
+     * Getter method for the training time of this local model.
+     *
+     * @return The wall-clock training time in milliseconds.
+     */
+    public long getTrainingTime() {
+        return trainingTime;
+    }
+
     /**
      * Learn this local model based on similar users to the anchor user
      * and similar items to the anchor item.
@@ -185,43 +226,58 @@ public class LLORMAUpdater extends Thread {
      */
     @Override
     public void run() {
+        long startTime = System.currentTimeMillis();
+        Random random = new Random(seed);
+        double[][] userFactors = new double[numUsers][numFactors];
+        double[][] itemFactors = new double[numItems][numFactors];
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
             for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                double rdm = Randoms.gaussian(0.0, 0.01);
-                localUserFactors.set(userIdx, factorIdx, rdm);
+                userFactors[userIdx][factorIdx] = 0.01 * random.nextGaussian();
             }
         }
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
             for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                double rdm = Randoms.gaussian(0.0, 0.01);
-                localItemFactors.set(itemIdx, factorIdx, rdm);
+                itemFactors[itemIdx][factorIdx] = 0.01 * random.nextGaussian();
             }
         }
 
         // Learn by Weighted RegSVD
         for (int iter = 0; iter < localIteration; iter++) {
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row(); // user
-                int itemIdx = matrixEntry.column(); // item
-                double rating = matrixEntry.get();
+            for (int entryIdx = 0; entryIdx < trainRatings.length; entryIdx++) {
+                int userIdx = trainUsers[entryIdx]; // user
+                int itemIdx = trainItems[entryIdx]; // item
+                double[] userFactor = userFactors[userIdx];
+                double[] itemFactor = itemFactors[itemIdx];
 
-                double predictRating = predict(userIdx, itemIdx);
-                double error = rating - predictRating;
-                double weight = userWeights.get(userIdx) * itemWeights.get(itemIdx);
+                double predictRating = 0.0d;
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    predictRating += userFactor[factorIdx] * itemFactor[factorIdx];
+                }
+                double error = trainRatings[entryIdx] - predictRating;
+                double weight = userWeights[userIdx] * itemWeights[itemIdx];
 
                 // update factors
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = localUserFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = localItemFactors.get(itemIdx, factorIdx);
+                    double userFactorValue = userFactor[factorIdx];
+                    double itemFactorValue = itemFactor[factorIdx];
 
-                    localUserFactors.plus(userIdx, factorIdx, learnRate * (error * itemFactorValue * weight - localRegUser * userFactorValue));
-                    localItemFactors.plus(itemIdx, factorIdx, learnRate * (error * userFactorValue * weight - localRegItem * itemFactorValue));
+                    userFactor[factorIdx] += learnRate * (error * itemFactorValue * weight - localRegUser * userFactorValue);
+                    itemFactor[factorIdx] += learnRate * (error * userFactorValue * weight - localRegItem * itemFactorValue);
                 }
             }
         }
+        localUserFactors = new DenseMatrix(userFactors, true);
+        localItemFactors = new DenseMatrix(itemFactors, true);
+        trainingTime = System.currentTimeMillis() - startTime;
     }
 
     protected double predict(int userIdx, int itemIdx) {
-        return localUserFactors.row(userIdx).dot(localItemFactors.row(itemIdx));
+        double[] userFactor = localUserFactors.getValues()[userIdx];
+        double[] itemFactor = localItemFactors.getValues()[itemIdx];
+        double predictRating = 0.0d;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            predictRating += userFactor[factorIdx] * itemFactor[factorIdx];
+        }
+        return predictRating;
     }
 }
@@ -19,9 +19,15 @@ package net.librec.recommender.cf.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
+import net.librec.math.algorithm.LeastSquaresSolver;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
 /**
  * The class implementing the Alternating Least Squares algorithm
  * <p>
@@ -36,51 +42,65 @@ import net.librec.recommender.MatrixFactorizationRecommender;
  */
 @ModelData({"isRating", "biasedMF", "userFactors", "itemFactors"})
 public class MFALSRecommender extends MatrixFactorizationRecommender {
+    /**
+     * solver of the per-user and per-item systems
+     */
+    protected transient LeastSquaresSolver solver;
+
+    @Override
+    protected void setup() throws LibrecException {
+        super.setup();
+        solver = new LeastSquaresSolver(numFactors, conf.get("rec.als.solver", "cholesky"),
+                conf.getInt("rec.als.cg.iterations", 3));
+    }
+
     @Override
     public void trainModel() throws LibrecException {
-        DenseMatrix identify = BuildEyeMatrix(numFactors);
-        for (int iter = 1; iter <= numIterations; iter++) {
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             // fix item matrix M, solve user matrix U
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-                // number of items rated by user userIdx
-                SequentialSparseVector userRatingVec = trainMatrix.row(userIdx);
-                int numItemOfUser = userRatingVec.size();
-                DenseMatrix M = new DenseMatrix(numItemOfUser, numFactors);
-                DenseVector uservector = new VectorBasedDenseVector(numItemOfUser);
-                int index = 0;
-                for (Vector.VectorEntry ve : userRatingVec) {
-                    int itemIdx = ve.index();
-                    double rating = ve.get();
-                    M.set(index, itemFactors.row(itemIdx));
-                    uservector.set(index, rating);
-                    index += 1;
-                }
-
-                DenseMatrix A = M.transpose().times(M).plus(identify.times(regUser).times(numItemOfUser));
-
-                userFactors.set(userIdx, A.inverse().times(M.transpose().times(uservector)));
-            }
+            IntStream.range(0, numUsers).parallel().forEach(userIdx ->
+                    updateFactors(trainMatrix.row(userIdx), userFactorValues[userIdx], itemFactorValues, regUser));
             // fix user matrix U, solve item matrix M
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                // latent factor of users that have rated item itemIdx
-                // number of users rate item j
-                SequentialSparseVector itemRatingVec = trainMatrix.column(itemIdx);
-                int numusers = itemRatingVec.size();
-                DenseMatrix U = new DenseMatrix(numusers, numFactors);
-                DenseVector itemvector = new VectorBasedDenseVector(numusers);
-                int index = 0;
-                for (Vector.VectorEntry ve : itemRatingVec) {
-                    int userIdx = ve.index();
-                    double rating = ve.get();
-                    U.set(index, userFactors.row(userIdx));
-                    itemvector.set(index, rating);
-                    index += 1;
-                }
+            IntStream.range(0, numItems).parallel().forEach(itemIdx ->
+                    updateFactors(trainMatrix.viewColumn(itemIdx), itemFactorValues[itemIdx], userFactorValues, regItem));
+        }
+    }
 
-                DenseMatrix A = U.transpose().times(U).plus(identify.times(regItem).times(numusers));
-                itemFactors.set(itemIdx, A.inverse().times(U.transpose().times(itemvector)));
+    /**
+     * Solve (M^T M + reg * n * I) x = M^T r for the factors x of one user (or item), where M holds the factors
+     * of the n rated items (or users) and r their ratings.
+     *
+     * @param ratingVector the ratings of the user (or item)
+     * @param x            output, the factors of the user (or item)
+     * @param factors      the fixed factors of the other side
+     * @param reg          regularization
+     */
+    private void updateFactors(SequentialSparseVector ratingVector, double[] x, double[][] factors, double reg) {
+        int numRatings = ratingVector.getNumEntries();
+        if (numRatings == 0) {
+            Arrays.fill(x, 0.0d);
+            return;
+        }
+        double[] A = solver.matrix();
+        double[] b = solver.vector();
+        Arrays.fill(A, 0.0d);
+        Arrays.fill(b, 0.0d);
+        for (Vector.VectorEntry ve : ratingVector) {
+            double[] m = factors[ve.index()];
+            double rating = ve.get();
+            solver.addOuter(A, m, 1.0d);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                b[factorIdx] += m[factorIdx] * rating;
             }
         }
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            A[factorIdx * numFactors + factorIdx] += reg * numRatings;
+        }
+        solver.symmetrize(A);
+        solver.solve(A, b, x);
     }
 
     protected DenseMatrix BuildEyeMatrix(int numDim) throws LibrecException {
@@ -64,7 +64,8 @@ public class NMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 0; iter <= numIterations; ++iter) {
+        for (int iter = restoreCheckpoint(0); iter <= numIterations; ++iter) {
+            saveCheckpoint(iter);
             // update userFactors by fixing itemFactors
             for (int userIdx = 0; userIdx < numUsers; userIdx++) {
                 SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
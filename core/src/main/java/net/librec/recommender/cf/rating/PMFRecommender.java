@@ -39,7 +39,8 @@ public class PMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
             loss = 0.0d;
             for (MatrixEntry me : trainMatrix) {
@@ -49,12 +49,12 @@ public class RFRecRecommender extends MatrixFactorizationRecommender {
     /**
      * The number of ratings per rating value per user
      */
-    private DenseMatrix userRatingFrequencies;
+    private transient DenseMatrix userRatingFrequencies;
 
     /**
      * The number of ratings per rating value per item
      */
-    private DenseMatrix itemRatingFrequencies;
+    private transient DenseMatrix itemRatingFrequencies;
 
     /**
      * User weights learned by the gradient solver
@@ -99,7 +99,8 @@ public class RFRecRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             for (MatrixEntry matrixEntry : trainMatrix) {
                 int userIdx = matrixEntry.row();
                 int itemIdx = matrixEntry.column();
@@ -79,7 +79,7 @@ public class ReMFRecommender extends MatrixFactorizationRecommender {
     private Map<Integer, String> ConverseMap = new HashMap<>();
 
     /** save the hierarchy information */
-    protected static Map<String, ArrayList<String>> hierarchy = new HashMap<>();
+    protected Map<String, ArrayList<String>> hierarchy = new HashMap<>();
 
     /** map userIdx to userId */
     private Map<Integer, String> userIdxToUserId;
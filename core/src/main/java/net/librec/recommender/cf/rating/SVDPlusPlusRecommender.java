@@ -60,7 +60,8 @@ public class SVDPlusPlusRecommender extends BiasedMFRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iterationStep = 1; iterationStep <= numIterations; iterationStep++) {
+        for (int iterationStep = restoreCheckpoint(1); iterationStep <= numIterations; iterationStep++) {
+            saveCheckpoint(iterationStep);
             loss = 0D;
             for (int userIndex = 0; userIndex < numUsers; userIndex++) {
                 SequentialSparseVector userVector = trainMatrix.row(userIndex);
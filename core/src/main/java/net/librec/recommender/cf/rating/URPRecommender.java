@@ -26,6 +26,7 @@ import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
+import net.librec.recommender.TopicSampler;
 
 import java.util.Iterator;
 import java.util.Set;
@@ -161,6 +162,7 @@ public class URPRecommender extends MatrixProbabilisticGraphicalRecommender {
         double sumBeta = beta.sum();
 
         // collapse Gibbs sampling
+        double[] p = new double[numTopics];
         for (MatrixEntry me : trainMatrix) {
             int u = me.row();
             int i = me.column();
@@ -175,21 +177,12 @@ public class URPRecommender extends MatrixProbabilisticGraphicalRecommender {
             topicItemNum.plus(t, i, -1);
 
             // do multinomial sampling via cumulative method:
-            double[] p = new double[numTopics];
             for (int k = 0; k < numTopics; k++) {
                 p[k] = (userTopicNum.get(u, k) + alpha.get(k)) / (userNum.get(u) + sumAlpha) * (topicItemRatingNum[k][i][r] + beta.get(r))
                         / (topicItemNum.get(k, i) + sumBeta);
             }
-            // cumulate multinomial parameters
-            for (int k = 1; k < p.length; k++) {
-                p[k] += p[k - 1];
-            }
             // scaled sample because of unnormalized p[], randomly sampled a new topic t
-            double rand = Randoms.uniform() * p[numTopics - 1];
-            for (t = 0; t < p.length; t++) {
-                if (rand < p[t])
-                    break;
-            }
+            t = TopicSampler.sample(p, numTopics, Randoms.uniform());
 
             // new topic t
             topics.put(u, i, t);
@@ -0,0 +1,331 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.checkpoint;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.SocialRecommender;
+import net.librec.recommender.TensorRecommender;
+import net.librec.recommender.hybrid.MemberModelCache;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic checkpoints of the training of an iterative recommender, to resume an interrupted training
+ * where it stopped.
+ * <p>
+ * A checkpoint holds the training state of the recommender at the start of an iteration: the fields of
+ * the recommender class and its super classes below the framework classes, apart from static and
+ * transient ones, the primitive fields of the framework classes, e.g. the loss, and the state of
+ * {@link net.librec.math.algorithm.Randoms}. Resuming from it therefore continues the very trajectory
+ * of the interrupted training. Fields holding data or scratch space rather than training state are
+ * declared transient by the recommenders.
+ * <p>
+ * The state is copied into one of two reused snapshots on the training thread and written to disk by a
+ * background thread, so training only waits for the copy. If both snapshots are still being written the
+ * checkpoint is skipped.
+ * <p>
+ * Checkpoints are enabled by setting {@code rec.checkpoint.dir}. One is written every
+ * {@code rec.checkpoint.iterations} iterations, 10 by default, and every {@code rec.checkpoint.seconds}
+ * seconds if set; 0 disables either. The checkpoint of a training is keyed by the configuration and the
+ * data of its fold like the {@link MemberModelCache}, read unless {@code rec.checkpoint.resume} is false,
+ * and deleted when the training completes.
+ */
+public class TrainingCheckpointer implements Closeable {
+    private static final Log LOG = LogFactory.getLog(TrainingCheckpointer.class);
+
+    public static final String CONF_DIR = "rec.checkpoint.dir";
+
+    public static final String CONF_ITERATIONS = "rec.checkpoint.iterations";
+
+    public static final String CONF_SECONDS = "rec.checkpoint.seconds";
+
+    public static final String CONF_RESUME = "rec.checkpoint.resume";
+
+    private static final int MAGIC = 0x4c52434b;
+
+    /**
+     * version of the checkpoint layout, change it when it changes
+     */
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".checkpoint";
+
+    /**
+     * classes whose fields other than primitives hold data or job state, not training state
+     */
+    private static final Set<Class<?>> FRAMEWORK_CLASSES = new HashSet<>(Arrays.asList(
+            AbstractRecommender.class, MatrixRecommender.class, TensorRecommender.class, SocialRecommender.class));
+
+    private final AbstractRecommender recommender;
+
+    private final File file;
+
+    private final String key;
+
+    private final int numIterations;
+
+    private final long intervalNanos;
+
+    private final boolean resume;
+
+    private final Field[] fields;
+
+    private final MetricRegistry metrics;
+
+    /**
+     * snapshots not being written
+     */
+    private final BlockingQueue<TrainingSnapshot> snapshots = new ArrayBlockingQueue<>(2);
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "librec-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int lastIteration = Integer.MIN_VALUE;
+
+    private long lastNanos;
+
+    private boolean disabled;
+
+    TrainingCheckpointer(AbstractRecommender recommender, File file, String key, int numIterations, long intervalNanos,
+                         boolean resume, Field[] fields, MetricRegistry metrics) {
+        this.recommender = recommender;
+        this.file = file;
+        this.key = key;
+        this.numIterations = numIterations;
+        this.intervalNanos = intervalNanos;
+        this.resume = resume;
+        this.fields = fields;
+        this.metrics = metrics;
+        snapshots.add(new TrainingSnapshot(fields));
+        snapshots.add(new TrainingSnapshot(fields));
+    }
+
+    /**
+     * Create the checkpointer configured for a recommender.
+     *
+     * @param recommender recommender set up for training
+     * @param conf        configuration of the recommender
+     * @param dataModel   data model at the fold the recommender is trained on
+     * @param metrics     metrics of the job training the recommender
+     * @return the checkpointer, or null if the configuration does not enable checkpoints or the
+     * recommender can not be checkpointed
+     */
+    public static TrainingCheckpointer fromConfiguration(AbstractRecommender recommender, Configuration conf,
+                                                         DataModel dataModel, MetricRegistry metrics) {
+        String directory = conf.get(CONF_DIR);
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+        Field[] fields;
+        try {
+            fields = stateFields(recommender);
+        } catch (IllegalStateException e) {
+            LOG.warn("Not checkpointing " + recommender.getClass().getSimpleName() + ": " + e.getMessage());
+            return null;
+        }
+        String dataDigest = MemberModelCache.digest(dataModel);
+        if (dataDigest == null) {
+            LOG.warn("Not checkpointing " + recommender.getClass().getSimpleName() + ": the data can not be digested");
+            return null;
+        }
+        String key = MemberModelCache.key(conf, dataDigest, null, conf.getBoolean("rec.recommender.isranking"));
+        File dir = new File(directory);
+        dir.mkdirs();
+        return new TrainingCheckpointer(recommender, new File(dir, key + SUFFIX), key,
+                conf.getInt(CONF_ITERATIONS, 10), TimeUnit.SECONDS.toNanos(conf.getLong(CONF_SECONDS, 0L)),
+                conf.getBoolean(CONF_RESUME, true), fields, metrics);
+    }
+
+    /**
+     * The fields holding the training state of a recommender, in a stable order.
+     *
+     * @param recommender recommender set up for training
+     * @return the state fields
+     * @throws IllegalStateException if the value of a state field can not be checkpointed
+     */
+    static Field[] stateFields(AbstractRecommender recommender) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> type = recommender.getClass(); type != Object.class; type = type.getSuperclass()) {
+            Field[] declaredFields = type.getDeclaredFields();
+            Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+            for (Field field : declaredFields) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                        || (Modifier.isFinal(modifiers) && field.getType().isPrimitive())
+                        || (FRAMEWORK_CLASSES.contains(type) && !field.getType().isPrimitive())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                try {
+                    TrainingSnapshot.checkSupported(field, field.get(recommender));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+                fields.add(field);
+            }
+            if (type == AbstractRecommender.class) {
+                break;
+            }
+        }
+        return fields.toArray(new Field[0]);
+    }
+
+    /**
+     * Resume from the checkpoint of the training, if there is one.
+     *
+     * @param firstIteration first iteration of a training from scratch
+     * @return the iteration to continue with, {@code firstIteration} if there is no checkpoint
+     */
+    public int restore(int firstIteration) {
+        lastIteration = firstIteration;
+        lastNanos = System.nanoTime();
+        if (!resume || !file.isFile()) {
+            return firstIteration;
+        }
+        Timer.Context timing = metrics.timer("train.checkpoint.restore").time();
+        TrainingSnapshot snapshot = new TrainingSnapshot(fields);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !key.equals(input.readUTF())) {
+                throw new IOException("not a checkpoint of version " + VERSION + " of this training");
+            }
+            snapshot.read(input);
+            snapshot.restore(recommender);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Training from scratch, can not resume from " + file + ": " + e.getMessage());
+            return firstIteration;
+        } finally {
+            timing.stop();
+        }
+        lastIteration = snapshot.getIteration();
+        LOG.info("Resuming " + recommender.getClass().getSimpleName() + " at iteration " + lastIteration + " from " + file);
+        return lastIteration;
+    }
+
+    /**
+     * Write a checkpoint if one is due.
+     *
+     * @param iteration iteration the recommender is about to start
+     */
+    public void save(int iteration) {
+        if (disabled || iteration <= lastIteration) {
+            return;
+        }
+        long now = System.nanoTime();
+        if ((numIterations <= 0 || iteration - lastIteration < numIterations)
+                && (intervalNanos <= 0L || now - lastNanos < intervalNanos)) {
+            return;
+        }
+        TrainingSnapshot snapshot = snapshots.poll();
+        if (snapshot == null) {
+            metrics.counter("train.checkpoint.skipped").inc();
+            return;
+        }
+        lastIteration = iteration;
+        lastNanos = now;
+        Timer.Context timing = metrics.timer("train.checkpoint.snapshot").time();
+        try {
+            snapshot.capture(recommender, iteration);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Not checkpointing " + recommender.getClass().getSimpleName() + " any more: " + e.getMessage());
+            disabled = true;
+            snapshots.add(snapshot);
+            return;
+        } finally {
+            timing.stop();
+        }
+        writer.execute(() -> {
+            try {
+                write(snapshot);
+            } catch (IOException e) {
+                LOG.warn("Can not write checkpoint " + file + ": " + e.getMessage());
+            } finally {
+                snapshots.add(snapshot);
+            }
+        });
+    }
+
+    private void write(TrainingSnapshot snapshot) throws IOException {
+        Timer.Context timing = metrics.timer("train.checkpoint.write").time();
+        File temporary = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(key);
+            snapshot.write(output);
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+        metrics.counter("train.checkpoint.bytes").inc(temporary.length());
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        timing.stop();
+    }
+
+    /**
+     * Wait for the pending checkpoints to be written.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1L, TimeUnit.MINUTES)) {
+                LOG.info("Waiting for checkpoint " + file + " to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the pending checkpoints and delete the checkpoint of the completed training.
+     */
+    public void complete() {
+        close();
+        if (file.isFile() && !file.delete()) {
+            LOG.warn("Can not delete checkpoint " + file);
+        }
+    }
+
+    /**
+     * @return file of the checkpoint of the training
+     */
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,510 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.checkpoint;
+
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.VectorBasedDenseVector;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Random;
+
+/**
+ * Copy of the training state of a recommender at the start of an iteration: the values of its
+ * state fields and the state of {@link Randoms}.
+ * <p>
+ * Capturing the state again reuses the buffers of the previous copy where the shapes still match,
+ * so the factors of a model are copied, not allocated, at every checkpoint.
+ */
+class TrainingSnapshot {
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte FLOAT = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte ARRAY = 6;
+    private static final byte MATRIX = 7;
+    private static final byte VECTOR = 8;
+    private static final byte SERIALIZED = 9;
+
+    private final Field[] fields;
+
+    private final Object[] values;
+
+    private int iteration;
+
+    private byte[] randomState;
+
+    TrainingSnapshot(Field[] fields) {
+        this.fields = fields;
+        this.values = new Object[fields.length];
+    }
+
+    int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * Copy the state of a recommender.
+     *
+     * @param recommender recommender to copy
+     * @param iteration   iteration the recommender is about to start
+     * @throws IOException if a value can not be serialized
+     */
+    void capture(Object recommender, int iteration) throws IOException {
+        this.iteration = iteration;
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = captureValue(fields[i].get(recommender), values[i]);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        randomState = serialize(Randoms.getGenerator());
+    }
+
+    /**
+     * Set the copied state on a recommender, in place where the shapes match.
+     *
+     * @param recommender recommender to set the state on
+     * @throws IOException if a value can not be deserialized
+     */
+    void restore(Object recommender) throws IOException {
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                Object current = fields[i].get(recommender);
+                Object restored = restoreValue(current, values[i]);
+                if (restored != current) {
+                    fields[i].set(recommender, restored);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        Randoms.setGenerator((Random) deserialize(randomState));
+    }
+
+    /**
+     * Check that a value of a state field can be captured.
+     *
+     * @param field field of the value
+     * @param value value of the field
+     * @throws IllegalStateException if the value is not supported
+     */
+    static void checkSupported(Field field, Object value) {
+        if (value == null || value instanceof DenseMatrix || value instanceof DenseVector
+                || value instanceof Serializable) {
+            if (value != null && value.getClass().isArray() && !value.getClass().getComponentType().isPrimitive()) {
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    checkSupported(field, Array.get(value, i));
+                }
+            }
+            return;
+        }
+        throw new IllegalStateException("can not checkpoint " + field.getDeclaringClass().getSimpleName() + "."
+                + field.getName() + " of type " + value.getClass().getName() + ", declare it transient if it is not training state");
+    }
+
+    private static Object captureValue(Object value, Object buffer) throws IOException {
+        if (value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Double) {
+            return value;
+        }
+        if (value instanceof DenseMatrix) {
+            double[][] rows = ((DenseMatrix) value).getValues();
+            MatrixValue matrix = buffer instanceof MatrixValue ? (MatrixValue) buffer : new MatrixValue();
+            matrix.values = (double[][]) copyArray(rows, matrix.values);
+            return matrix;
+        }
+        if (value instanceof DenseVector) {
+            DenseVector vector = (DenseVector) value;
+            VectorValue copy = buffer instanceof VectorValue ? (VectorValue) buffer : new VectorValue();
+            if (copy.values == null || copy.values.length != vector.cardinality()) {
+                copy.values = new double[vector.cardinality()];
+            }
+            for (int i = 0; i < copy.values.length; i++) {
+                copy.values[i] = vector.get(i);
+            }
+            return copy;
+        }
+        if (value.getClass().isArray()) {
+            if (value.getClass().getComponentType().isPrimitive()) {
+                return copyArray(value, buffer);
+            }
+            int length = Array.getLength(value);
+            ArrayValue array = buffer instanceof ArrayValue && ((ArrayValue) buffer).type == value.getClass()
+                    && ((ArrayValue) buffer).elements.length == length ? (ArrayValue) buffer : new ArrayValue(value.getClass(), length);
+            for (int i = 0; i < length; i++) {
+                array.elements[i] = captureValue(Array.get(value, i), array.elements[i]);
+            }
+            return array;
+        }
+        SerializedValue serialized = new SerializedValue();
+        serialized.bytes = serialize(value);
+        return serialized;
+    }
+
+    /**
+     * Copy a primitive array, into the buffer if it has the same shape.
+     */
+    private static Object copyArray(Object source, Object buffer) {
+        int length = Array.getLength(source);
+        Object copy = buffer != null && buffer.getClass() == source.getClass() && Array.getLength(buffer) == length
+                ? buffer : Array.newInstance(source.getClass().getComponentType(), length);
+        if (source.getClass().getComponentType().isPrimitive()) {
+            System.arraycopy(source, 0, copy, 0, length);
+        } else {
+            Object[] sourceElements = (Object[]) source, copyElements = (Object[]) copy;
+            for (int i = 0; i < length; i++) {
+                copyElements[i] = sourceElements[i] == null ? null : copyArray(sourceElements[i], copyElements[i]);
+            }
+        }
+        return copy;
+    }
+
+    private static Object restoreValue(Object current, Object captured) throws IOException {
+        if (captured instanceof MatrixValue) {
+            double[][] rows = ((MatrixValue) captured).values;
+            if (current instanceof DenseMatrix && sameShape(((DenseMatrix) current).getValues(), rows)) {
+                copyArray(rows, ((DenseMatrix) current).getValues());
+                return current;
+            }
+            return new DenseMatrix(rows);
+        }
+        if (captured instanceof VectorValue) {
+            double[] values = ((VectorValue) captured).values;
+            if (current instanceof DenseVector && ((DenseVector) current).cardinality() == values.length) {
+                DenseVector vector = (DenseVector) current;
+                for (int i = 0; i < values.length; i++) {
+                    vector.set(i, values[i]);
+                }
+                return current;
+            }
+            return new VectorBasedDenseVector(values.clone());
+        }
+        if (captured instanceof ArrayValue) {
+            ArrayValue array = (ArrayValue) captured;
+            Object[] restored = current != null && current.getClass() == array.type && Array.getLength(current) == array.elements.length
+                    ? (Object[]) current : (Object[]) Array.newInstance(array.type.getComponentType(), array.elements.length);
+            for (int i = 0; i < restored.length; i++) {
+                restored[i] = restoreValue(restored[i], array.elements[i]);
+            }
+            return restored;
+        }
+        if (captured instanceof SerializedValue) {
+            return deserialize(((SerializedValue) captured).bytes);
+        }
+        if (captured != null && captured.getClass().isArray()) {
+            return current != null && sameShape(current, captured) ? copyArray(captured, current) : copyArray(captured, null);
+        }
+        return captured;
+    }
+
+    private static boolean sameShape(Object array, Object other) {
+        if (array.getClass() != other.getClass() || Array.getLength(array) != Array.getLength(other)) {
+            return false;
+        }
+        if (!array.getClass().getComponentType().isPrimitive()) {
+            Object[] elements = (Object[]) array, otherElements = (Object[]) other;
+            for (int i = 0; i < elements.length; i++) {
+                if (elements[i] == null ? otherElements[i] != null : otherElements[i] == null || !sameShape(elements[i], otherElements[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the snapshot, each value under the name of its field.
+     *
+     * @param output stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(iteration);
+        output.writeInt(randomState.length);
+        output.write(randomState);
+        output.writeInt(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            output.writeUTF(fieldName(fields[i]));
+            writeValue(output, values[i]);
+        }
+    }
+
+    /**
+     * Read a snapshot written for the same state fields.
+     *
+     * @param input stream to read from
+     * @throws IOException if an I/O error occurs or the snapshot has other fields
+     */
+    void read(DataInputStream input) throws IOException {
+        iteration = input.readInt();
+        randomState = new byte[input.readInt()];
+        input.readFully(randomState);
+        if (input.readInt() != fields.length) {
+            throw new IOException("checkpoint of other fields");
+        }
+        for (int i = 0; i < fields.length; i++) {
+            String name = input.readUTF();
+            if (!name.equals(fieldName(fields[i]))) {
+                throw new IOException("checkpoint of field " + name + " instead of " + fieldName(fields[i]));
+            }
+            values[i] = readValue(input);
+        }
+    }
+
+    static String fieldName(Field field) {
+        return field.getDeclaringClass().getSimpleName() + "." + field.getName();
+    }
+
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(INT);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof MatrixValue) {
+            output.writeByte(MATRIX);
+            writeValue(output, ((MatrixValue) value).values);
+        } else if (value instanceof VectorValue) {
+            output.writeByte(VECTOR);
+            writeValue(output, ((VectorValue) value).values);
+        } else if (value instanceof SerializedValue) {
+            output.writeByte(SERIALIZED);
+            byte[] bytes = ((SerializedValue) value).bytes;
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        } else if (value instanceof ArrayValue) {
+            ArrayValue array = (ArrayValue) value;
+            output.writeByte(ARRAY);
+            output.writeUTF(array.type.getName());
+            output.writeInt(array.elements.length);
+            for (Object element : array.elements) {
+                writeValue(output, element);
+            }
+        } else {
+            output.writeByte(ARRAY);
+            output.writeUTF(value.getClass().getName());
+            int length = Array.getLength(value);
+            output.writeInt(length);
+            Class<?> componentType = value.getClass().getComponentType();
+            if (componentType == double.class) {
+                for (double element : (double[]) value) {
+                    output.writeDouble(element);
+                }
+            } else if (componentType == int.class) {
+                for (int element : (int[]) value) {
+                    output.writeInt(element);
+                }
+            } else if (componentType == float.class) {
+                for (float element : (float[]) value) {
+                    output.writeFloat(element);
+                }
+            } else if (componentType == long.class) {
+                for (long element : (long[]) value) {
+                    output.writeLong(element);
+                }
+            } else if (componentType == boolean.class) {
+                for (boolean element : (boolean[]) value) {
+                    output.writeBoolean(element);
+                }
+            } else if (componentType == byte.class) {
+                output.write((byte[]) value);
+            } else if (componentType == short.class) {
+                for (short element : (short[]) value) {
+                    output.writeShort(element);
+                }
+            } else if (componentType == char.class) {
+                for (char element : (char[]) value) {
+                    output.writeChar(element);
+                }
+            } else {
+                for (Object element : (Object[]) value) {
+                    writeValue(output, element);
+                }
+            }
+        }
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte tag = input.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return input.readBoolean();
+            case INT:
+                return input.readInt();
+            case LONG:
+                return input.readLong();
+            case FLOAT:
+                return input.readFloat();
+            case DOUBLE:
+                return input.readDouble();
+            case MATRIX:
+                MatrixValue matrix = new MatrixValue();
+                matrix.values = (double[][]) readValue(input);
+                return matrix;
+            case VECTOR:
+                VectorValue vector = new VectorValue();
+                vector.values = (double[]) readValue(input);
+                return vector;
+            case SERIALIZED:
+                SerializedValue serialized = new SerializedValue();
+                serialized.bytes = new byte[input.readInt()];
+                input.readFully(serialized.bytes);
+                return serialized;
+            case ARRAY:
+                return readArray(input);
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private static Object readArray(DataInputStream input) throws IOException {
+        Class<?> type;
+        try {
+            type = Class.forName(input.readUTF());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        int length = input.readInt();
+        Class<?> componentType = type.getComponentType();
+        if (!componentType.isPrimitive()) {
+            Object[] elements = new Object[length];
+            for (int i = 0; i < length; i++) {
+                elements[i] = readValue(input);
+            }
+            if (!componentType.isArray()) {
+                ArrayValue array = new ArrayValue(type, 0);
+                array.elements = elements;
+                return array;
+            }
+            Object array = Array.newInstance(componentType, length);
+            System.arraycopy(elements, 0, array, 0, length);
+            return array;
+        }
+        Object array = Array.newInstance(componentType, length);
+        if (componentType == double.class) {
+            double[] elements = (double[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readDouble();
+            }
+        } else if (componentType == int.class) {
+            int[] elements = (int[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readInt();
+            }
+        } else if (componentType == float.class) {
+            float[] elements = (float[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readFloat();
+            }
+        } else if (componentType == long.class) {
+            long[] elements = (long[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readLong();
+            }
+        } else if (componentType == boolean.class) {
+            boolean[] elements = (boolean[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readBoolean();
+            }
+        } else if (componentType == byte.class) {
+            input.readFully((byte[]) array);
+        } else if (componentType == short.class) {
+            short[] elements = (short[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readShort();
+            }
+        } else {
+            char[] elements = (char[]) array;
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readChar();
+            }
+        }
+        return array;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Copy of the values of a {@link DenseMatrix}.
+     */
+    private static class MatrixValue {
+        private double[][] values;
+    }
+
+    /**
+     * Copy of the values of a {@link DenseVector}.
+     */
+    private static class VectorValue {
+        private double[] values;
+    }
+
+    /**
+     * Copy of an array of objects, each element copied as a value of its own.
+     */
+    private static class ArrayValue {
+        private final Class<?> type;
+        private Object[] elements;
+
+        private ArrayValue(Class<?> type, int length) {
+            this.type = type;
+            this.elements = new Object[length];
+        }
+    }
+
+    /**
+     * Serialized copy of any other value.
+     */
+    private static class SerializedValue {
+        private byte[] bytes;
+    }
+}
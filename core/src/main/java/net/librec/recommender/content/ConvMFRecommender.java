@@ -17,7 +17,6 @@
  */
 package net.librec.recommender.content;
 
-import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configured;
 import net.librec.math.structure.*;
@@ -41,9 +40,7 @@ import org.nd4j.linalg.lossfunctions.LossFunctions;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * ConvMF Recommender
@@ -94,15 +91,10 @@ public class ConvMFRecommender extends TensorRecommender {
      */
     protected int featureMapNum;
 
-    /**
-     * review index in tensor and its string content
-     */
-    public BiMap<Integer, String> reviewMappingData;
-
     /**
      * Each itemIdx mapping to a String of its all reviews
      */
-    protected Map<Integer, StringBuilder> itemIdx2document;
+    protected String[] itemIdx2document;
 
     /**
      * The CNN module
@@ -112,7 +104,6 @@ public class ConvMFRecommender extends TensorRecommender {
     @Override
     protected void setup() throws LibrecException {
         super.setup();
-        reviewMappingData = DataFrame.getInnerMapping("review").inverse();
         lambda_u = conf.getFloat("rec.user.regularization", 0.1f);
         lambda_v = conf.getFloat("rec.item.regularization", 0.1f);
         trainTensor = (SparseTensor) getDataModel().getTrainDataSet();
@@ -128,27 +119,21 @@ public class ConvMFRecommender extends TensorRecommender {
 
         trainMatrix = trainTensor.rateMatrix();
 
-        itemIdx2document = new HashMap<>();
+        // words of the reviews separated by ':' or '#', every review ends with a full stop
+        ReviewCorpus corpus = new ReviewCorpus("review", 2, "[:#]");
+        StringBuilder[] itemDocuments = new StringBuilder[numItems];
         for (int i=0; i<numItems; i++) {
-            itemIdx2document.put(i, new StringBuilder());
+            itemDocuments[i] = new StringBuilder();
         }
-
-        for (TensorEntry te : trainTensor) {
-            int[] entryKeys = te.keys();
-            int itemIndex = entryKeys[1];
-            int reviewIndex = entryKeys[2];
-            String reviewContent = reviewMappingData.get(reviewIndex);
-            String reviewContentString = reviewContent.replaceAll(":", " ").replaceAll("#", " ");
-            itemIdx2document.get(itemIndex).append(reviewContentString).append(".");
+        for (SparseTensor tensor : new SparseTensor[]{trainTensor, testTensor}) {
+            ReviewCorpus.Documents reviews = corpus.tokenize(tensor, true);
+            for (int documentIdx = 0; documentIdx < reviews.size(); documentIdx++) {
+                itemDocuments[reviews.getItems()[documentIdx]].append(reviews.text(documentIdx)).append(".");
+            }
         }
-
-        for (TensorEntry te : testTensor) {
-            int[] entryKeys = te.keys();
-            int itemIndex = entryKeys[1];
-            int reviewIndex = entryKeys[2];
-            String reviewContent = reviewMappingData.get(reviewIndex);
-            String reviewContentString = reviewContent.replaceAll(":", " ").replaceAll("#", " ");
-            itemIdx2document.get(itemIndex).append(reviewContentString).append(".");
+        itemIdx2document = new String[numItems];
+        for (int i=0; i<numItems; i++) {
+            itemIdx2document[i] = itemDocuments[i].toString();
         }
 
         cnn_module = new CNN_Module();
@@ -217,7 +202,7 @@ public class ConvMFRecommender extends TensorRecommender {
                     itemVector.set(index1++, realRating);
                 }
                 // step 3: the updated item matrix wrt item j
-                itemFactors.set(itemIdx, A.inverse().times(U.transpose().times(itemVector).plus(cnn_module.getOutput(itemIdx2document.get(itemIdx).toString()).times(lambda_v))));
+                itemFactors.set(itemIdx, A.inverse().times(U.transpose().times(itemVector).plus(cnn_module.getOutput(itemIdx2document[itemIdx]).times(lambda_v))));
             }
 
             // compute rating loss
@@ -321,7 +306,7 @@ public class ConvMFRecommender extends TensorRecommender {
         private ConvMFDocumentDataSetIterator getDataSetIterator(WordVectors wordVectors, int minibatchSize, int maxSentenceLength) {
             List<String> documents = new ArrayList<>();
             for (int i=0; i<numItems; i++) {
-                documents.add(itemIdx2document.get(i).toString());
+                documents.add(itemIdx2document[i]);
             }
 
             List<double[]> labelsForDocuments = new ArrayList<>();
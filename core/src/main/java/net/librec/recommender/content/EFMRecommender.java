@@ -17,14 +17,11 @@
  */
 package net.librec.recommender.content;
 
-import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
 import net.librec.recommender.TensorRecommender;
-import org.apache.commons.lang.StringUtils;
 
 import java.util.*;
 
@@ -53,12 +50,13 @@ public class EFMRecommender extends TensorRecommender {
     protected double lambdaU;
     protected double lambdaH;
     protected double lambdaV;
-    protected BiMap<String, Integer> featureDict;
+    /**
+     * vocabulary of the features of the feature:sentiment pairs
+     */
+    protected ReviewCorpus featureCorpus;
 
     protected SequentialAccessSparseMatrix trainMatrix;
 
-    public BiMap<Integer, String> featureSentimemtPairsMappingData;
-
     boolean doExplain;
 
     /*
@@ -78,41 +76,13 @@ public class EFMRecommender extends TensorRecommender {
         lambdaH = conf.getDouble("rec.regularization.lambdah", 0.001);
         lambdaV = conf.getDouble("rec.regularization.lambdav", 0.001);
 
-        featureSentimemtPairsMappingData = DataFrame.getInnerMapping("sentiment").inverse();
         trainMatrix = trainTensor.rateMatrix();
 
-        featureDict = HashBiMap.create();
-        Map<Integer, String> userFeatureDict = new HashMap<Integer, String>();
-        Map<Integer, String> itemFeatureDict = new HashMap<Integer, String>();
-
-        numberOfFeatures = 0;
-
-        for (TensorEntry te : trainTensor) {
-            int[] entryKeys = te.keys();
-            int userIndex = entryKeys[0];
-            int itemIndex = entryKeys[1];
-            int featureSentimentPairsIndex = entryKeys[2];
-            String featureSentimentPairsString = featureSentimemtPairsMappingData.get(featureSentimentPairsIndex);
-            String[] fSPList = featureSentimentPairsString.split(" ");
-
-            for (String p : fSPList) {
-                String k = p.split(":")[0];
-                if (!featureDict.containsKey(k) && !StringUtils.isEmpty(k)) {
-                    featureDict.put(k, numberOfFeatures);
-                    numberOfFeatures++;
-                }
-                if (userFeatureDict.containsKey(userIndex)) {
-                    userFeatureDict.put(userIndex, userFeatureDict.get(userIndex) + " " + p);
-                } else {
-                    userFeatureDict.put(userIndex, p);
-                }
-                if (itemFeatureDict.containsKey(itemIndex)) {
-                    itemFeatureDict.put(itemIndex, itemFeatureDict.get(itemIndex) + " " + p);
-                } else {
-                    itemFeatureDict.put(itemIndex, p);
-                }
-            }
-        }
+        // feature:sentiment pairs separated by blanks, tokenized once
+        int numThreads = conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors());
+        featureCorpus = new ReviewCorpus("sentiment", 2, " ", ":");
+        ReviewCorpus.Documents featureSentimentPairs = featureCorpus.tokenize(trainTensor, true);
+        numberOfFeatures = featureCorpus.getNumWords();
 
         // Create V,U1,H1,U2,H2
         featureMatrix = new DenseMatrix(numberOfFeatures, explicitFeatureNum);
@@ -127,40 +97,30 @@ public class EFMRecommender extends TensorRecommender {
         itemHiddenMatrix.init(1);
 
         // compute UserFeatureAttention
+        ReviewCorpus.Vectors userFeatureCounts = featureSentimentPairs.termCounts(numThreads)
+                .groupBy(featureSentimentPairs.getUsers(), numUsers, false, numThreads);
         Table<Integer, Integer, Double> userFeatureAttentionTable = HashBasedTable.create();
-        for (int u : userFeatureDict.keySet()) {
-            double[] featureValues = new double[numberOfFeatures];
-            String[] fList = userFeatureDict.get(u).split(" ");
-            for (String a : fList) {
-                if (!StringUtils.isEmpty(a)) {
-                    int fin = featureDict.get(a.split(":")[0]);
-                    featureValues[fin] += 1;
-                }
-            }
-            for (int i = 0; i < numberOfFeatures; i++) {
-                if (featureValues[i] != 0.0) {
-                    double v = 1 + (scoreScale - 1) * (2 / (1 + Math.exp(-featureValues[i])) - 1);
-                    userFeatureAttentionTable.put(u, i, v);
+        for (int u = 0; u < numUsers; u++) {
+            for (int position = userFeatureCounts.start(u); position < userFeatureCounts.end(u); position++) {
+                double featureValue = userFeatureCounts.value(position);
+                if (featureValue != 0.0) {
+                    double v = 1 + (scoreScale - 1) * (2 / (1 + Math.exp(-featureValue)) - 1);
+                    userFeatureAttentionTable.put(u, userFeatureCounts.index(position), v);
                 }
             }
         }
         userFeatureAttention = new SequentialAccessSparseMatrix(numUsers, numberOfFeatures, userFeatureAttentionTable);
 
         // Compute ItemFeatureQuality
+        ReviewCorpus.Vectors itemFeatureSentiments = featureSentimentPairs.termValues(numThreads)
+                .groupBy(featureSentimentPairs.getItems(), numItems, false, numThreads);
         Table<Integer, Integer, Double> itemFeatureQualityTable = HashBasedTable.create();
-        for (int p : itemFeatureDict.keySet()) {
-            double[] featureValues = new double[numberOfFeatures];
-            String[] fList = itemFeatureDict.get(p).split(" ");
-            for (String a : fList) {
-                if (!StringUtils.isEmpty(a)) {
-                    int fin = featureDict.get(a.split(":")[0]);
-                    featureValues[fin] += Double.parseDouble(a.split(":")[1]);
-                }
-            }
-            for (int i = 0; i < numberOfFeatures; i++) {
-                if (featureValues[i] != 0.0) {
-                    double v = 1 + (scoreScale - 1) / (1 + Math.exp(-featureValues[i]));
-                    itemFeatureQualityTable.put(p, i, v);
+        for (int p = 0; p < numItems; p++) {
+            for (int position = itemFeatureSentiments.start(p); position < itemFeatureSentiments.end(p); position++) {
+                double featureValue = itemFeatureSentiments.value(position);
+                if (featureValue != 0.0) {
+                    double v = 1 + (scoreScale - 1) / (1 + Math.exp(-featureValue));
+                    itemFeatureQualityTable.put(p, itemFeatureSentiments.index(position), v);
                 }
             }
         }
@@ -403,7 +363,7 @@ public class EFMRecommender extends TensorRecommender {
             userTopFeatureValues[i] = userFeatureValues[featureIdx];
             recItemTopFeatureValues[i] = recItemFeatureValues[featureIdx];
             disRecItemTopFeatureIdValues[i] = disRecItemFeatureValues[featureIdx];
-            userTopFeatureIds[i] = featureDict.inverse().get(featureIdx);
+            userTopFeatureIds[i] = featureCorpus.getWord(featureIdx);
         }
 
         StringBuilder userFeatureSb = new StringBuilder();
@@ -17,19 +17,15 @@
  */
 package net.librec.recommender.content;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
 import net.librec.recommender.TensorRecommender;
+import net.librec.recommender.TopicSampler;
 import net.librec.util.StringUtil;
-import org.apache.commons.lang.StringUtils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * HFT Recommender
@@ -41,9 +37,20 @@ import java.util.Map;
 public class HFTRecommender extends TensorRecommender {
 
     protected SequentialAccessSparseMatrix trainMatrix;
-    protected SparseStringMatrix reviewMatrix;
+    /**
+     * tokenized reviews of the training entries
+     */
+    protected ReviewCorpus.Documents reviews;
     protected DenseMatrix topicToWord;
-    protected SparseStringMatrix topicAssignment;
+    /**
+     * topic of every token of the reviews
+     */
+    protected int[] topicAssignments;
+    /**
+     * users, items, ratings and reviews of the training entries, in the iteration order of trainMatrix
+     */
+    protected int[] entryUsers, entryItems, entryDocuments;
+    protected double[] entryRatings;
     protected int K = 10;
     protected int numberOfWords;
     /**
@@ -87,8 +94,6 @@ public class HFTRecommender extends TensorRecommender {
      */
     protected float regItem;
 
-    public BiMap<Integer, String> reviewMappingData;
-
     protected StringUtil str = new StringUtil();
     protected Randoms rn = new Randoms();
     protected double[][] thetaus;
@@ -97,7 +102,6 @@ public class HFTRecommender extends TensorRecommender {
     @Override
     protected void setup() throws LibrecException {
         super.setup();
-        reviewMappingData = DataFrame.getInnerMapping("review").inverse();
         regBias = conf.getDouble("rec.bias.regularization", 0.01);
         regUser = conf.getFloat("rec.user.regularization", 0.01f);
         regItem = conf.getFloat("rec.item.regularization", 0.01f);
@@ -117,60 +121,37 @@ public class HFTRecommender extends TensorRecommender {
         // build rating matrix
         trainMatrix = trainTensor.rateMatrix();
 
-        // build review matrix and counting the number of words
-        Table<Integer, Integer, String> res = HashBasedTable.create();
-        Map<String, String> iwDict = new HashMap<String, String>();
-        for (TensorEntry te : trainTensor) {
-            int[] entryKeys = te.keys();
-            int userIndex = entryKeys[0];
-            int itemIndex = entryKeys[1];
-            int reviewIndex = entryKeys[2];
-            String reviewContent = reviewMappingData.get(reviewIndex);
-            String[] fReviewContent = reviewContent.split(":");
-            for (String word : fReviewContent) {
-                if (!iwDict.containsKey(word) && StringUtils.isNotEmpty(word)) {
-                    iwDict.put(word, String.valueOf(numberOfWords));
-                    numberOfWords++;
-                }
-            }
-            res.put(userIndex, itemIndex, reviewContent);
-        }
-
-        for (TensorEntry te : testTensor) {
-            int[] entryKeys = te.keys();
-            int reviewIndex = entryKeys[2];
-            String reviewContent = reviewMappingData.get(reviewIndex);
-            String[] fReviewContent = reviewContent.split(":");
-            for (String word : fReviewContent) {
-                if (!iwDict.containsKey(word) && StringUtils.isNotEmpty(word)) {
-                    iwDict.put(word, String.valueOf(numberOfWords));
-                    numberOfWords++;
-                }
-            }
+        // tokenize the reviews once, words of the test reviews are counted in the vocabulary
+        ReviewCorpus corpus = new ReviewCorpus("review", 2, ":");
+        reviews = corpus.tokenize(trainTensor, true);
+        corpus.tokenize(testTensor, true);
+        numberOfWords = corpus.getNumWords();
+
+        int numEntries = trainMatrix.size();
+        entryUsers = new int[numEntries];
+        entryItems = new int[numEntries];
+        entryRatings = new double[numEntries];
+        entryDocuments = reviews.documentsOf(trainMatrix);
+        int entryIdx = 0;
+        for (MatrixEntry me : trainMatrix) {
+            entryUsers[entryIdx] = me.row();
+            entryItems[entryIdx] = me.column();
+            entryRatings[entryIdx] = me.get();
+            entryIdx++;
         }
 
         LOG.info("number of users : " + numUsers);
         LOG.info("number of Items : " + numItems);
         LOG.info("number of words : " + numberOfWords);
 
-        reviewMatrix = new SparseStringMatrix(numUsers, numItems, res);
         topicToWord = new DenseMatrix(K, numberOfWords);
         topicToWord.init(0.1);
-        topicAssignment = new SparseStringMatrix(reviewMatrix);
         thetaus = new double[numUsers][K];
         phiks = new double[K][numberOfWords];
 
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row(); // user
-            int j = me.column(); // item
-            String words = reviewMatrix.get(u, j);
-            String[] wordsList = words.split(":");
-            String[] topicList = new String[wordsList.length];
-            for (int i = 0; i < wordsList.length; i++) {
-                topicList[i] = Integer.toString(Randoms.uniform(K));
-            }
-            String s = StringUtil.toString(topicList, ":");
-            topicAssignment.set(u, j, s);
+        topicAssignments = new int[reviews.getNumTokens()];
+        for (int position = 0; position < topicAssignments.length; position++) {
+            topicAssignments[position] = Randoms.uniform(K);
         }
         calculateThetas();
         calculatePhis();
@@ -179,16 +160,12 @@ public class HFTRecommender extends TensorRecommender {
     protected void sampleZ() throws Exception {
         calculateThetas();
         calculatePhis();
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row(); // user
-            int j = me.column(); // item
-            String words = reviewMatrix.get(u, j);
-            if (!StringUtils.isEmpty(words)) {
-                String[] wordsList = words.split(":");
-                String s = sampleTopicsToWords(wordsList, u);
-                topicAssignment.set(u, j, s);
+        double[] topicDistribute = new double[K];
+        for (int entryIdx = 0; entryIdx < entryDocuments.length; entryIdx++) {
+            int documentIdx = entryDocuments[entryIdx];
+            if (documentIdx >= 0) {
+                sampleTopicsToWords(documentIdx, entryUsers[entryIdx], topicDistribute);
             }
-            // LOG.info("user:" + u + ", item:" + j + ", topics:" + s);
         }
     }
 
@@ -238,17 +215,21 @@ public class HFTRecommender extends TensorRecommender {
         }
     }
 
-    protected String sampleTopicsToWords(String[] wordsList, int u) throws Exception {
-        String[] topicList = new String[wordsList.length];
-        for (int i = 0; i < wordsList.length; i++) {
-            double[] topicDistribute = new double[K];
+    /**
+     * Sample the topics of the words of a review.
+     *
+     * @param documentIdx     review
+     * @param u               user of the review
+     * @param topicDistribute buffer of length K
+     */
+    protected void sampleTopicsToWords(int documentIdx, int u, double[] topicDistribute) {
+        for (int position = reviews.start(documentIdx); position < reviews.end(documentIdx); position++) {
+            int w = reviews.word(position);
             for (int s = 0; s < K; s++) {
-                topicDistribute[s] = thetaus[u][s] * phiks[s][Integer.parseInt(wordsList[i])];
+                topicDistribute[s] = thetaus[u][s] * phiks[s][w];
             }
-            topicDistribute = Maths.norm(topicDistribute);
-            topicList[i] = Integer.toString(Randoms.discrete(topicDistribute));
+            topicAssignments[position] = TopicSampler.sample(topicDistribute, K, Randoms.uniform());
         }
-        return StringUtil.toString(topicList, ":");
     }
 
     /**
@@ -259,15 +240,15 @@ public class HFTRecommender extends TensorRecommender {
     public void trainModel() {
         for (int iter = 1; iter <= conf.getDouble("rec.iterator.maximum"); iter++) {
             // SGD training
+            int[] topicCounts = new int[numFactors];
             for (int sgditer = 1; sgditer <= 5; sgditer++) {
                 loss = 0.0;
-                for (MatrixEntry me : trainMatrix) {
+                for (int entryIdx = 0; entryIdx < entryRatings.length; entryIdx++) {
 
-                    int u = me.row(); // user
-                    int j = me.column(); // item
-                    double ruj = me.get();
-                    String[] ws = reviewMatrix.get(u, j).split(":");
-                    String[] wk = topicAssignment.get(u, j).split(":");
+                    int u = entryUsers[entryIdx]; // user
+                    int j = entryItems[entryIdx]; // item
+                    double ruj = entryRatings[entryIdx];
+                    int documentIdx = entryDocuments[entryIdx];
 
                     double pred = predict(u, j);
                     double euj = ruj - pred;
@@ -284,10 +265,21 @@ public class HFTRecommender extends TensorRecommender {
                     itemBiases.plus(j, learnRate * sgd);
                     // loss += regB * bj * bj;
 
-                    if (StringUtils.isEmpty(ws[0])) {
+                    if (documentIdx < 0 || reviews.start(documentIdx) == reviews.end(documentIdx)) {
                         continue;
                     }
 
+                    // gradient of the topic likelihood of the words on the user factors:
+                    // sum over words of [f == k] - theta_uk, i.e. count of topic f - sum of theta_uk
+                    Arrays.fill(topicCounts, 0);
+                    double thetaSum = 0.0, wordLoss = 0.0;
+                    for (int x = reviews.start(documentIdx); x < reviews.end(documentIdx); x++) {
+                        int k = topicAssignments[x];
+                        topicCounts[k]++;
+                        thetaSum += thetaus[u][k];
+                        wordLoss -= Maths.log(thetaus[u][k] * phiks[k][reviews.word(x)], 2);
+                    }
+
                     for (int f = 0; f < numFactors; f++) {
                         double puf = userFactors.get(u, f);
                         double qjf = itemFactors.get(j, f);
@@ -299,26 +291,16 @@ public class HFTRecommender extends TensorRecommender {
 
                         itemFactors.plus(j, f, learnRate * sgd_j);
 
-                        for (int x = 0; x < ws.length; x++) {
-
-                            int k = Integer.parseInt(wk[x]);
-                            if (f == k)
-                                userFactors.plus(u, f, learnRate * (1 - thetaus[u][k]));
-                            else
-                                userFactors.plus(u, f, learnRate * (-thetaus[u][k]));
+                        userFactors.plus(u, f, learnRate * (topicCounts[f] - thetaSum));
 
-                            loss -= Maths.log(thetaus[u][k] * phiks[k][Integer.parseInt(ws[x])], 2);
-                        }
+                        loss += wordLoss;
                     }
 
-                    for (int x = 0; x < ws.length; x++) {
-                        int k = Integer.parseInt(wk[x]);
-                        for (int ss = 0; ss < numberOfWords; ss++) {
-                            if (ss == Integer.parseInt(ws[x]))
-                                topicToWord.plus(k, Integer.parseInt(ws[x]), learnRate * (-1 + phiks[k][Integer.parseInt(ws[x])]));
-                            else
-                                topicToWord.plus(k, Integer.parseInt(ws[x]), learnRate * (phiks[k][Integer.parseInt(ws[x])]));
-                        }
+                    // the gradient -1 + phi_kw on the observed word, phi_kw once for every other word of the vocabulary
+                    for (int x = reviews.start(documentIdx); x < reviews.end(documentIdx); x++) {
+                        int k = topicAssignments[x];
+                        int w = reviews.word(x);
+                        topicToWord.plus(k, w, learnRate * (numberOfWords * phiks[k][w] - 1));
                     }
                 }
                 loss *= 0.5;
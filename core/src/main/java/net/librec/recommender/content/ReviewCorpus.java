@@ -0,0 +1,595 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.content;
+
+import com.google.common.collect.BiMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SparseTensor;
+import net.librec.math.structure.TensorEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Texts of a string column, such as reviews, tokenized once into an integer vocabulary.
+ * <p>
+ * Every entry of a tensor is a document: the text of a user on an item. Documents keep their words in order,
+ * so that topic models can assign a topic to every occurrence, and are stored in compressed sparse rows of
+ * primitive arrays. Term counts, term frequencies and TF-IDF weights are derived as sparse rows as well, see
+ * {@link Vectors}. A token may carry a value, e.g. {@code feature:sentiment} pairs.
+ */
+public class ReviewCorpus {
+
+    /**
+     * texts of the column by their inner index
+     */
+    private final BiMap<Integer, String> texts;
+
+    /**
+     * tensor dimension holding the inner index of the text
+     */
+    private final int dimension;
+
+    private final Pattern wordSeparator;
+
+    /**
+     * separator of a word and its value inside a token, or null if tokens carry no value
+     */
+    private final String valueSeparator;
+
+    private final Object2IntOpenHashMap<String> wordIndices = new Object2IntOpenHashMap<>();
+    private final List<String> words = new ArrayList<>();
+
+    /**
+     * tokenized texts by inner index, texts shared by several entries are split once
+     */
+    private final Int2ObjectOpenHashMap<String[]> tokenCache = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * @param column        name of the string column
+     * @param dimension     tensor dimension of the column
+     * @param wordSeparator regular expression separating the tokens of a text
+     */
+    public ReviewCorpus(String column, int dimension, String wordSeparator) {
+        this(column, dimension, wordSeparator, null);
+    }
+
+    /**
+     * @param column         name of the string column
+     * @param dimension      tensor dimension of the column
+     * @param wordSeparator  regular expression separating the tokens of a text
+     * @param valueSeparator separator of the word and the value of a token, or null if tokens are plain words
+     */
+    public ReviewCorpus(String column, int dimension, String wordSeparator, String valueSeparator) {
+        this.texts = DataFrame.getInnerMapping(column).inverse();
+        this.dimension = dimension;
+        this.wordSeparator = Pattern.compile(wordSeparator);
+        this.valueSeparator = valueSeparator;
+        wordIndices.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return number of words in the vocabulary
+     */
+    public int getNumWords() {
+        return words.size();
+    }
+
+    /**
+     * @param wordIdx index of a word
+     * @return the word
+     */
+    public String getWord(int wordIdx) {
+        return words.get(wordIdx);
+    }
+
+    /**
+     * @param word a word
+     * @return index of the word, -1 if not in the vocabulary
+     */
+    public int getWordIndex(String word) {
+        return wordIndices.getInt(word);
+    }
+
+    /**
+     * Tokenize the texts of all entries of a tensor, in iteration order. Words are indexed in order of first
+     * occurrence; empty words are dropped.
+     *
+     * @param tensor   tensor whose entries reference the texts
+     * @param addWords whether unknown words are added to the vocabulary, or dropped
+     * @return the documents of the entries
+     */
+    public Documents tokenize(SparseTensor tensor, boolean addWords) {
+        int numDocuments = tensor.size();
+        int[] users = new int[numDocuments];
+        int[] items = new int[numDocuments];
+        int[] textIndices = new int[numDocuments];
+        int documentIdx = 0;
+        for (TensorEntry tensorEntry : tensor) {
+            int[] keys = tensorEntry.keys();
+            users[documentIdx] = keys[0];
+            items[documentIdx] = keys[1];
+            textIndices[documentIdx] = keys[dimension];
+            documentIdx++;
+        }
+
+        // split the new texts in parallel, index the words in document order
+        int[] newTexts = Arrays.stream(textIndices).distinct().filter(textIdx -> !tokenCache.containsKey(textIdx)).toArray();
+        String[][] newTokens = new String[newTexts.length][];
+        IntStream.range(0, newTexts.length).parallel().forEach(position -> {
+            String text = texts.get(newTexts[position]);
+            newTokens[position] = text == null || text.isEmpty() ? new String[0] : wordSeparator.split(text);
+        });
+        for (int position = 0; position < newTexts.length; position++) {
+            tokenCache.put(newTexts[position], newTokens[position]);
+        }
+
+        int[] pointers = new int[numDocuments + 1];
+        for (documentIdx = 0; documentIdx < numDocuments; documentIdx++) {
+            pointers[documentIdx + 1] = pointers[documentIdx] + tokenCache.get(textIndices[documentIdx]).length;
+        }
+        int[] documentWords = new int[pointers[numDocuments]];
+        double[] documentValues = valueSeparator == null ? null : new double[pointers[numDocuments]];
+        int numTokens = 0;
+        for (documentIdx = 0; documentIdx < numDocuments; documentIdx++) {
+            int start = numTokens;
+            for (String token : tokenCache.get(textIndices[documentIdx])) {
+                String word = token;
+                double value = 1.0d;
+                if (valueSeparator != null) {
+                    int separator = token.indexOf(valueSeparator);
+                    if (separator >= 0) {
+                        word = token.substring(0, separator);
+                        value = Double.parseDouble(token.substring(separator + valueSeparator.length()));
+                    }
+                }
+                if (word.isEmpty()) {
+                    continue;
+                }
+                int wordIdx = wordIndices.getInt(word);
+                if (wordIdx < 0) {
+                    if (!addWords) {
+                        continue;
+                    }
+                    wordIdx = words.size();
+                    wordIndices.put(word, wordIdx);
+                    words.add(word);
+                }
+                documentWords[numTokens] = wordIdx;
+                if (documentValues != null) {
+                    documentValues[numTokens] = value;
+                }
+                numTokens++;
+            }
+            pointers[documentIdx] = start;
+        }
+        pointers[numDocuments] = numTokens;
+        return new Documents(users, items, pointers, Arrays.copyOf(documentWords, numTokens),
+                documentValues == null ? null : Arrays.copyOf(documentValues, numTokens));
+    }
+
+    /**
+     * Tokenized documents, the words of document d at positions start(d) ~ end(d) - 1.
+     */
+    public class Documents {
+        private final int[] users, items, pointers, documentWords;
+        private final double[] documentValues;
+
+        private Documents(int[] users, int[] items, int[] pointers, int[] documentWords, double[] documentValues) {
+            this.users = users;
+            this.items = items;
+            this.pointers = pointers;
+            this.documentWords = documentWords;
+            this.documentValues = documentValues;
+        }
+
+        /**
+         * @return number of documents
+         */
+        public int size() {
+            return users.length;
+        }
+
+        /**
+         * @return number of tokens of all documents
+         */
+        public int getNumTokens() {
+            return documentWords.length;
+        }
+
+        /**
+         * @return entry[d]: user of document d
+         */
+        public int[] getUsers() {
+            return users;
+        }
+
+        /**
+         * @return entry[d]: item of document d
+         */
+        public int[] getItems() {
+            return items;
+        }
+
+        /**
+         * @param documentIdx document
+         * @return position of the first token of the document
+         */
+        public int start(int documentIdx) {
+            return pointers[documentIdx];
+        }
+
+        /**
+         * @param documentIdx document
+         * @return position after the last token of the document
+         */
+        public int end(int documentIdx) {
+            return pointers[documentIdx + 1];
+        }
+
+        /**
+         * @param position position of a token
+         * @return word of the token
+         */
+        public int word(int position) {
+            return documentWords[position];
+        }
+
+        /**
+         * @param position position of a token
+         * @return value of the token, 1 if tokens carry no value
+         */
+        public double value(int position) {
+            return documentValues == null ? 1.0d : documentValues[position];
+        }
+
+        /**
+         * @param documentIdx document
+         * @return the words of the document joined by blanks
+         */
+        public String text(int documentIdx) {
+            StringBuilder text = new StringBuilder();
+            for (int position = start(documentIdx); position < end(documentIdx); position++) {
+                if (position > start(documentIdx)) {
+                    text.append(' ');
+                }
+                text.append(words.get(documentWords[position]));
+            }
+            return text.toString();
+        }
+
+        /**
+         * Map the entries of a user-item matrix to documents.
+         *
+         * @param matrix user-item matrix
+         * @return entry[e]: document of the e-th entry in iteration order, the last one if the entry has several,
+         * -1 if it has none
+         */
+        public int[] documentsOf(SequentialAccessSparseMatrix matrix) {
+            int numRows = matrix.rowSize();
+            int[] rowPointers = new int[numRows + 1];
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                rowPointers[rowIdx + 1] = rowPointers[rowIdx] + matrix.row(rowIdx).getNumEntries();
+            }
+            int[] entryDocuments = new int[rowPointers[numRows]];
+            Arrays.fill(entryDocuments, -1);
+            for (int documentIdx = 0; documentIdx < size(); documentIdx++) {
+                int position = Arrays.binarySearch(matrix.row(users[documentIdx]).getIndices(), items[documentIdx]);
+                if (position >= 0) {
+                    entryDocuments[rowPointers[users[documentIdx]] + position] = documentIdx;
+                }
+            }
+            return entryDocuments;
+        }
+
+        /**
+         * @param numThreads number of threads
+         * @return entry[d][w]: number of occurrences of word w in document d
+         */
+        public Vectors termCounts(int numThreads) {
+            return terms(false, false, numThreads);
+        }
+
+        /**
+         * @param numThreads number of threads
+         * @return entry[d][w]: sum of the values of word w in document d
+         */
+        public Vectors termValues(int numThreads) {
+            return terms(true, false, numThreads);
+        }
+
+        /**
+         * @param numThreads number of threads
+         * @return entry[d][w]: occurrences of word w in document d divided by the length of d
+         */
+        public Vectors termFrequencies(int numThreads) {
+            return terms(false, true, numThreads);
+        }
+
+        /**
+         * TF-IDF weights tf(w, d) * log10(D / (df(w) + smooth)), where D is the number of documents and df(w) the
+         * number of documents containing w.
+         *
+         * @param smooth     smoothing of the document frequencies
+         * @param numThreads number of threads
+         * @return entry[d][w]: TF-IDF weight of word w in document d
+         */
+        public Vectors tfidf(double smooth, int numThreads) {
+            Vectors frequencies = termFrequencies(numThreads);
+            int[] documentFrequencies = new int[getNumWords()];
+            for (int position = 0; position < frequencies.indices.length; position++) {
+                documentFrequencies[frequencies.indices[position]]++;
+            }
+            double[] idf = new double[getNumWords()];
+            for (int wordIdx = 0; wordIdx < idf.length; wordIdx++) {
+                idf[wordIdx] = Math.log10(size() / (documentFrequencies[wordIdx] + smooth));
+            }
+            for (int position = 0; position < frequencies.indices.length; position++) {
+                frequencies.values[position] *= idf[frequencies.indices[position]];
+            }
+            return frequencies;
+        }
+
+        private Vectors terms(boolean sumValues, boolean normalize, int numThreads) {
+            int numDocuments = size();
+            int numWords = getNumWords();
+            int[][] rowIndices = new int[numDocuments][];
+            double[][] rowValues = new double[numDocuments][];
+            int threads = Math.max(1, numThreads);
+            IntStream.range(0, threads).parallel().forEach(thread -> {
+                double[] accumulator = new double[numWords];
+                boolean[] seen = new boolean[numWords];
+                int[] touched = new int[numWords];
+                for (int documentIdx = thread; documentIdx < numDocuments; documentIdx += threads) {
+                    int numTouched = 0;
+                    for (int position = start(documentIdx); position < end(documentIdx); position++) {
+                        int wordIdx = documentWords[position];
+                        if (!seen[wordIdx]) {
+                            seen[wordIdx] = true;
+                            touched[numTouched++] = wordIdx;
+                        }
+                        accumulator[wordIdx] += sumValues ? value(position) : 1.0d;
+                    }
+                    double scale = normalize && end(documentIdx) > start(documentIdx) ?
+                            1.0d / (end(documentIdx) - start(documentIdx)) : 1.0d;
+                    Arrays.sort(touched, 0, numTouched);
+                    rowIndices[documentIdx] = Arrays.copyOf(touched, numTouched);
+                    rowValues[documentIdx] = new double[numTouched];
+                    for (int position = 0; position < numTouched; position++) {
+                        rowValues[documentIdx][position] = accumulator[touched[position]] * scale;
+                        accumulator[touched[position]] = 0.0d;
+                        seen[touched[position]] = false;
+                    }
+                }
+            });
+            return new Vectors(numWords, rowIndices, rowValues);
+        }
+    }
+
+    /**
+     * Sparse rows over the vocabulary, stored in compressed sparse rows with sorted indices.
+     */
+    public static class Vectors {
+        private final int numColumns;
+        private final int[] pointers, indices;
+        private final double[] values;
+
+        /**
+         * @param numColumns number of columns
+         * @param rowIndices sorted column indices of every row
+         * @param rowValues  values of every row
+         */
+        public Vectors(int numColumns, int[][] rowIndices, double[][] rowValues) {
+            int numRows = rowIndices.length;
+            this.numColumns = numColumns;
+            pointers = new int[numRows + 1];
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                pointers[rowIdx + 1] = pointers[rowIdx] + rowIndices[rowIdx].length;
+            }
+            indices = new int[pointers[numRows]];
+            values = new double[pointers[numRows]];
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                System.arraycopy(rowIndices[rowIdx], 0, indices, pointers[rowIdx], rowIndices[rowIdx].length);
+                System.arraycopy(rowValues[rowIdx], 0, values, pointers[rowIdx], rowValues[rowIdx].length);
+            }
+        }
+
+        private Vectors(int numColumns, int[] pointers, int[] indices, double[] values) {
+            this.numColumns = numColumns;
+            this.pointers = pointers;
+            this.indices = indices;
+            this.values = values;
+        }
+
+        /**
+         * @return number of rows
+         */
+        public int numRows() {
+            return pointers.length - 1;
+        }
+
+        /**
+         * @return number of columns
+         */
+        public int numColumns() {
+            return numColumns;
+        }
+
+        /**
+         * @return number of nonzero entries
+         */
+        public int size() {
+            return indices.length;
+        }
+
+        /**
+         * @param rowIdx row
+         * @return position of the first entry of the row
+         */
+        public int start(int rowIdx) {
+            return pointers[rowIdx];
+        }
+
+        /**
+         * @param rowIdx row
+         * @return position after the last entry of the row
+         */
+        public int end(int rowIdx) {
+            return pointers[rowIdx + 1];
+        }
+
+        /**
+         * @param position position of an entry
+         * @return column of the entry
+         */
+        public int index(int position) {
+            return indices[position];
+        }
+
+        /**
+         * @param position position of an entry
+         * @return value of the entry
+         */
+        public double value(int position) {
+            return values[position];
+        }
+
+        /**
+         * @param rowIdx row
+         * @return Euclidean norm of the row
+         */
+        public double norm(int rowIdx) {
+            double sum = 0.0d;
+            for (int position = pointers[rowIdx]; position < pointers[rowIdx + 1]; position++) {
+                sum += values[position] * values[position];
+            }
+            return Math.sqrt(sum);
+        }
+
+        /**
+         * @param rowIdx      row of this matrix
+         * @param other       other matrix
+         * @param otherRowIdx row of the other matrix
+         * @return dot product of the two rows
+         */
+        public double dot(int rowIdx, Vectors other, int otherRowIdx) {
+            int position = pointers[rowIdx], end = pointers[rowIdx + 1];
+            int otherPosition = other.pointers[otherRowIdx], otherEnd = other.pointers[otherRowIdx + 1];
+            double sum = 0.0d;
+            while (position < end && otherPosition < otherEnd) {
+                int index = indices[position], otherIndex = other.indices[otherPosition];
+                if (index == otherIndex) {
+                    sum += values[position++] * other.values[otherPosition++];
+                } else if (index < otherIndex) {
+                    position++;
+                } else {
+                    otherPosition++;
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Sum the rows by owner, e.g. the documents of every user.
+         *
+         * @param owners     entry[r]: owner of row r
+         * @param numOwners  number of owners
+         * @param average    whether to divide the sums by the number of rows of the owner
+         * @param numThreads number of threads
+         * @return entry[o]: sum or mean of the rows of owner o, empty if o has no rows
+         */
+        public Vectors groupBy(int[] owners, int numOwners, boolean average, int numThreads) {
+            int[] ownerPointers = new int[numOwners + 1];
+            for (int owner : owners) {
+                ownerPointers[owner + 1]++;
+            }
+            for (int owner = 0; owner < numOwners; owner++) {
+                ownerPointers[owner + 1] += ownerPointers[owner];
+            }
+            int[] ownerRows = new int[owners.length];
+            int[] ownerFill = Arrays.copyOf(ownerPointers, numOwners);
+            for (int rowIdx = 0; rowIdx < owners.length; rowIdx++) {
+                ownerRows[ownerFill[owners[rowIdx]]++] = rowIdx;
+            }
+
+            int[][] rowIndices = new int[numOwners][];
+            double[][] rowValues = new double[numOwners][];
+            int threads = Math.max(1, numThreads);
+            IntStream.range(0, threads).parallel().forEach(thread -> {
+                double[] accumulator = new double[numColumns];
+                boolean[] seen = new boolean[numColumns];
+                int[] touched = new int[numColumns];
+                for (int owner = thread; owner < numOwners; owner += threads) {
+                    int numTouched = 0;
+                    for (int rowPosition = ownerPointers[owner]; rowPosition < ownerPointers[owner + 1]; rowPosition++) {
+                        int rowIdx = ownerRows[rowPosition];
+                        for (int position = pointers[rowIdx]; position < pointers[rowIdx + 1]; position++) {
+                            if (!seen[indices[position]]) {
+                                seen[indices[position]] = true;
+                                touched[numTouched++] = indices[position];
+                            }
+                            accumulator[indices[position]] += values[position];
+                        }
+                    }
+                    int numRows = ownerPointers[owner + 1] - ownerPointers[owner];
+                    double scale = average && numRows > 0 ? 1.0d / numRows : 1.0d;
+                    Arrays.sort(touched, 0, numTouched);
+                    rowIndices[owner] = Arrays.copyOf(touched, numTouched);
+                    rowValues[owner] = new double[numTouched];
+                    for (int position = 0; position < numTouched; position++) {
+                        rowValues[owner][position] = accumulator[touched[position]] * scale;
+                        accumulator[touched[position]] = 0.0d;
+                        seen[touched[position]] = false;
+                    }
+                }
+            });
+            return new Vectors(numColumns, rowIndices, rowValues);
+        }
+
+        /**
+         * @return the transposed rows, i.e. the columns of this matrix
+         */
+        public Vectors transpose() {
+            int numRows = numRows();
+            int[] columnPointers = new int[numColumns + 1];
+            for (int index : indices) {
+                columnPointers[index + 1]++;
+            }
+            for (int columnIdx = 0; columnIdx < numColumns; columnIdx++) {
+                columnPointers[columnIdx + 1] += columnPointers[columnIdx];
+            }
+            int[] columnIndices = new int[indices.length];
+            double[] columnValues = new double[indices.length];
+            int[] columnFill = Arrays.copyOf(columnPointers, numColumns);
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                for (int position = pointers[rowIdx]; position < pointers[rowIdx + 1]; position++) {
+                    int target = columnFill[indices[position]]++;
+                    columnIndices[target] = rowIdx;
+                    columnValues[target] = values[position];
+                }
+            }
+            return new Vectors(numRows, columnPointers, columnIndices, columnValues);
+        }
+    }
+}
@@ -17,17 +17,13 @@
  */
 package net.librec.recommender.content;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
 import net.librec.recommender.TensorRecommender;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * TopicMF-AT Recommender
@@ -38,9 +34,16 @@ import java.util.List;
  */
 public class TopicMFATRecommender extends TensorRecommender {
 
-    protected SequentialAccessSparseMatrix trainMatrix;
-    protected SequentialAccessSparseMatrix W;
+    protected transient SequentialAccessSparseMatrix trainMatrix;
+    /**
+     * term frequencies of the reviews, one row per document
+     */
+    protected transient ReviewCorpus.Vectors W;
     protected DenseMatrix theta;
+    /**
+     * topic-word distribution stored column-major, i.e. numWords x numTopics,
+     * so that the topic weights of a word are contiguous
+     */
     protected DenseMatrix phi;
     protected double K1, K2;
     protected VectorBasedDenseVector userBiases;
@@ -50,19 +53,45 @@ public class TopicMFATRecommender extends TensorRecommender {
     protected int numTopics;
     protected int numWords;
     protected int numDocuments;
-    protected BiMap<Integer, String> reviewMappingData;
     protected double lambda, lambdaU, lambdaV, lambdaB;
-    protected BiMap<String, Integer> wordIdToWordIndex;
-    protected Table<Integer, Integer, Integer> userItemToDocument;
+    protected transient ReviewCorpus corpus;
+    protected transient ReviewCorpus.Documents documents;
     protected float initMean;
     protected float initStd;
     protected int[][] documentTopWordIdices;
     protected int topNum = 5;
 
+    /**
+     * user, item, document and rating of every training rating, in the order of trainMatrix
+     */
+    protected transient int[] ratingUsers, ratingItems, ratingDocuments;
+    protected transient double[] ratingValues;
+
+    /**
+     * rows of W in compressed sparse row layout
+     */
+    protected transient int[] documentWordPtr, documentWords;
+    protected transient double[] documentWordValues;
+
+    /**
+     * columns of W in compressed sparse column layout, documents sorted ascending
+     */
+    protected transient int[] wordDocumentPtr, wordDocuments;
+    protected transient double[] wordDocumentValues;
+
+    /**
+     * the longest document, in words
+     */
+    protected int maxDocumentLength;
+
+    /**
+     * ratings of each partition; ratings of a user never span two partitions
+     */
+    protected transient int[][] ratingPartitions;
+
     @Override
     protected void setup() throws LibrecException {
         super.setup();
-        reviewMappingData = DataFrame.getInnerMapping("review").inverse();
         // init hyper-parameters
         lambda = conf.getDouble("rec.regularization.lambda", 0.001);
         lambdaU = conf.getDouble("rec.regularization.lambdaU", 0.001);
@@ -73,45 +102,16 @@ public class TopicMFATRecommender extends TensorRecommender {
         numIterations = conf.getInt("rec.iterator.maximum", 10);
         trainTensor = (SparseTensor) getDataModel().getTrainDataSet();
         trainMatrix = trainTensor.rateMatrix();
-        numDocuments = trainMatrix.size();
-
-        // count the number of words, build the word dictionary and userItemToDoc dictionary
-        wordIdToWordIndex = HashBiMap.create();
-        Table<Integer, Integer, Double> res = HashBasedTable.create();
-        int rowCount = 0;
-        userItemToDocument = HashBasedTable.create();
-        for (TensorEntry te : trainTensor) {
-            int[] entryKeys = te.keys();
-            int userIndex = entryKeys[0];
-            int itemIndex = entryKeys[1];
-            int reviewIndex = entryKeys[2];
-            userItemToDocument.put(userIndex, itemIndex, rowCount);
-            // convert wordIds to wordIndices
-            String reviewContent = reviewMappingData.get(reviewIndex);
-            String[] fReviewContent = reviewContent.split(":");
-            for (String word : fReviewContent) {
-                if (!wordIdToWordIndex.containsKey(word)) {
-                    wordIdToWordIndex.put(word, numWords);
-                    numWords++;
-                }
-            }
-            List<Integer> wordIndexList = new ArrayList<>();
-            for (String word : fReviewContent) {
-                wordIndexList.add(wordIdToWordIndex.get(word));
-            }
-            double denominator = wordIndexList.size();
-            for (int wordIdx : wordIndexList) {
-                Double oldValue = res.get(rowCount, wordIdx);
-                if (oldValue == null) {
-                    oldValue = 0.0;
-                }
-                double newValue = oldValue + 1 / denominator;
-                res.put(rowCount, wordIdx, newValue);
-            }
-            rowCount++;
-        }
+
+        // tokenize the reviews, one document per training entry
+        int numThreads = conf.getInt("rec.thread.count", 1);
+        corpus = new ReviewCorpus("review", 2, ":");
+        documents = corpus.tokenize(trainTensor, true);
+        numDocuments = documents.size();
+        numWords = corpus.getNumWords();
         // build W
-        W = new SequentialAccessSparseMatrix(numDocuments, numWords, res);
+        W = documents.termFrequencies(numThreads);
+        buildTrainingIndices(numThreads);
 
         // init parameters
         initMean = conf.getFloat("rec.init.mean", 0.0f);
@@ -127,97 +127,273 @@ public class TopicMFATRecommender extends TensorRecommender {
         K1 = initStd;
         K2 = initStd;
 
-        // init theta and phi
+        // init theta and phi, phi drawn topic by topic
         theta = new DenseMatrix(numDocuments, numTopics);
         calculateTheta();
-        phi = new DenseMatrix(numTopics, numWords);
-        phi.init(0.01);
+        phi = new DenseMatrix(numWords, numTopics);
+        double[][] phiValues = phi.getValues();
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            for (int wordIdx = 0; wordIdx < numWords; wordIdx++) {
+                phiValues[wordIdx][topicIdx] = Randoms.uniform(0.0, 0.01);
+            }
+        }
 
         LOG.info("number of users : " + numUsers);
         LOG.info("number of Items : " + numItems);
-        LOG.info("number of words : " + wordIdToWordIndex.size());
+        LOG.info("number of words : " + numWords);
+    }
+
+    /**
+     * Flatten the training ratings and both orientations of W into primitive arrays,
+     * and partition the ratings by user for parallel training.
+     *
+     * @param numThreads number of rating partitions
+     */
+    private void buildTrainingIndices(int numThreads) {
+        int numRatings = trainMatrix.size();
+        ratingUsers = new int[numRatings];
+        ratingItems = new int[numRatings];
+        ratingDocuments = documents.documentsOf(trainMatrix);
+        ratingValues = new double[numRatings];
+        int ratingIdx = 0;
+        for (MatrixEntry me : trainMatrix) {
+            ratingUsers[ratingIdx] = me.row();
+            ratingItems[ratingIdx] = me.column();
+            ratingValues[ratingIdx] = me.get();
+            ratingIdx++;
+        }
+
+        documentWordPtr = new int[numDocuments + 1];
+        for (int documentIdx = 0; documentIdx < numDocuments; documentIdx++) {
+            documentWordPtr[documentIdx + 1] = W.end(documentIdx);
+            maxDocumentLength = Math.max(maxDocumentLength, W.end(documentIdx) - W.start(documentIdx));
+        }
+        int numEntries = W.size();
+        documentWords = new int[numEntries];
+        documentWordValues = new double[numEntries];
+        for (int position = 0; position < numEntries; position++) {
+            documentWords[position] = W.index(position);
+            documentWordValues[position] = W.value(position);
+        }
+
+        ReviewCorpus.Vectors wordDocumentMatrix = W.transpose();
+        wordDocumentPtr = new int[numWords + 1];
+        for (int wordIdx = 0; wordIdx < numWords; wordIdx++) {
+            wordDocumentPtr[wordIdx + 1] = wordDocumentMatrix.end(wordIdx);
+        }
+        wordDocuments = new int[numEntries];
+        wordDocumentValues = new double[numEntries];
+        for (int position = 0; position < numEntries; position++) {
+            wordDocuments[position] = wordDocumentMatrix.index(position);
+            wordDocumentValues[position] = wordDocumentMatrix.value(position);
+        }
+
+        int numPartitions = Math.max(1, Math.min(numThreads, numUsers));
+        int[] partitionSizes = new int[numPartitions];
+        for (int userIdx : ratingUsers) {
+            partitionSizes[userIdx % numPartitions]++;
+        }
+        ratingPartitions = new int[numPartitions][];
+        for (int partition = 0; partition < numPartitions; partition++) {
+            ratingPartitions[partition] = new int[partitionSizes[partition]];
+        }
+        int[] partitionFill = new int[numPartitions];
+        for (ratingIdx = 0; ratingIdx < numRatings; ratingIdx++) {
+            int partition = ratingUsers[ratingIdx] % numPartitions;
+            ratingPartitions[partition][partitionFill[partition]++] = ratingIdx;
+        }
     }
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             loss = 0.0;
             double wordLoss = 0.0;
-            for (MatrixEntry me : trainMatrix) {
-                int i = me.row();     // userIdx
-                int j = me.column();  // itemIdx
-                int documentId = userItemToDocument.get(i, j);
-                double y_true = me.get();
-                double y_pred = predict(i, j);
-
-                double error = y_true - y_pred;
-                loss += error * error;
-
-                // update user item biases
-                double userBiasValue = userBiases.get(i);
-                userBiases.plus(i, learnRate * (error - lambdaB * userBiasValue));
-                loss += lambdaB * userBiasValue * userBiasValue;
-
-                double itemBiasValue = itemBiases.get(j);
-                itemBiases.plus(j, learnRate * (error - lambdaB * itemBiasValue));
-                loss += lambdaB * itemBiasValue * itemBiasValue;
-
-                // update user item factors
-                for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
-                    double userFactorValue = userFactors.get(i, factorIdx);
-                    double itemFactorValue = itemFactors.get(j, factorIdx);
-
-                    userFactors.plus(i, factorIdx, learnRate * (error * itemFactorValue - lambdaU * userFactorValue));
-                    itemFactors.plus(j, factorIdx, learnRate * (error * userFactorValue - lambdaV * itemFactorValue));
-                    loss += lambdaU * userFactorValue * userFactorValue + lambdaV * itemFactorValue * itemFactorValue;
-
-                    SequentialSparseVector wordVec = W.row(documentId);
-                    for (Vector.VectorEntry ve : wordVec) {
-                        int wordIdx = ve.index();
-                        double w_true = ve.get();
-                        double w_pred = theta.row(documentId).dot(phi.column(wordIdx));
-                        double w_error = w_true - w_pred;
-                        wordLoss += w_error;
-
-                        double derivative = 0.0;
-                        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
-                            if (factorIdx == topicIdx) {
-                                derivative += w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (1 - theta.get(documentId, topicIdx));
-                            } else {
-                                derivative += w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (-theta.get(documentId, factorIdx));
-                            }
-                            //update K1 K2
-                            K1 += learnRate * lambda * w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (1 - theta.get(documentId, topicIdx)) * Math.abs(userFactors.get(i, topicIdx));
-                            K2 += learnRate * lambda * w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (1 - theta.get(documentId, topicIdx)) * Math.abs(itemFactors.get(j, topicIdx));
-                        }
-                        userFactors.plus(i, factorIdx, learnRate * K1 * derivative);
-                        itemFactors.plus(j, factorIdx, learnRate * K2 * derivative);
-
-                    }
-                }
+
+            // partitions share items and the scalars K1, K2; each partition starts from the
+            // current K1, K2 and their changes are summed afterwards. One partition is plain SGD.
+            double[][] partitionResults = new double[ratingPartitions.length][];
+            IntStream.range(0, ratingPartitions.length).parallel().forEach(partition ->
+                    partitionResults[partition] = updateRatings(ratingPartitions[partition], K1, K2));
+            double newK1 = K1, newK2 = K2;
+            for (double[] partitionResult : partitionResults) {
+                loss += partitionResult[0];
+                wordLoss += partitionResult[1];
+                newK1 += partitionResult[2] - K1;
+                newK2 += partitionResult[3] - K2;
             }
+            K1 = newK1;
+            K2 = newK2;
+
             // calculate theta
             LOG.info(" iter:" + iter + ", finish factors update");
             calculateTheta();
             LOG.info(" iter:" + iter + ", finish theta update");
             // update phi by NMF
-            DenseMatrix thetaTW = theta.transpose().times(W);
-            DenseMatrix denominatorMatrix = theta.transpose().times(theta).times(phi);
-            for (int i = 0; i < numTopics; i++) {
-                for (int j = 0; j < numWords; j++) {
-                    double numerator = phi.get(i, j) * (thetaTW.get(i, j));
-                    double denominator = denominatorMatrix.get(i, j);
-                    phi.set(i, j, numerator / denominator);
-                }
-            }
+            updatePhi();
             LOG.info(" iter:" + iter + ", finish phi update");
 
             // calculate wordLoss and loss
-            wordLoss = wordLoss / numTopics;
             loss += wordLoss;
             loss *= 0.5d;
             LOG.info(" iter:" + iter + ", loss:" + loss + ", wordLoss:" + wordLoss / 2);
+            if (isConverged(iter) && earlyStop) {
+                break;
+            }
+            lastLoss = loss;
+        }
+    }
+
+    /**
+     * One SGD pass over the given ratings.
+     * <p>
+     * theta and phi are fixed during the pass, so the reconstruction of every word of a
+     * document, its error and the per-topic weights phi_t * theta_t * (1 - theta_t) are
+     * computed once per rating instead of once per factor. The weighted sums of |u| and |v|
+     * behind the K1, K2 gradients are kept up to date as the factors change.
+     *
+     * @param ratings indices of the ratings to update, in training order
+     * @param k1      value of K1 at the start of the pass
+     * @param k2      value of K2 at the start of the pass
+     * @return rating loss, word loss, K1 and K2 after the pass
+     */
+    private double[] updateRatings(int[] ratings, double k1, double k2) {
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        double[] userBiasValues = userBiases.getValues();
+        double[] itemBiasValues = itemBiases.getValues();
+        double[][] thetaValues = theta.getValues();
+        double[][] phiValues = phi.getValues();
+
+        double[] reconstructions = new double[maxDocumentLength];
+        double[] wordErrors = new double[maxDocumentLength];
+        double[] topicWeights = new double[maxDocumentLength * numTopics];
+        double[] userSums = new double[maxDocumentLength];
+        double[] itemSums = new double[maxDocumentLength];
+
+        double ratingLoss = 0.0, wordLoss = 0.0;
+        for (int ratingIdx : ratings) {
+            int i = ratingUsers[ratingIdx];     // userIdx
+            int j = ratingItems[ratingIdx];     // itemIdx
+            int documentId = ratingDocuments[ratingIdx];
+            double[] userFactorsOfI = userFactorValues[i];
+            double[] itemFactorsOfJ = itemFactorValues[j];
+            double[] thetaOfDocument = thetaValues[documentId];
+
+            double y_pred = 0.0;
+            for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
+                y_pred += userFactorsOfI[factorIdx] * itemFactorsOfJ[factorIdx];
+            }
+            y_pred += userBiasValues[i] + itemBiasValues[j] + globalMean;
+            double error = ratingValues[ratingIdx] - y_pred;
+            ratingLoss += error * error;
+
+            // update user item biases
+            double userBiasValue = userBiasValues[i];
+            userBiasValues[i] += learnRate * (error - lambdaB * userBiasValue);
+            ratingLoss += lambdaB * userBiasValue * userBiasValue;
+
+            double itemBiasValue = itemBiasValues[j];
+            itemBiasValues[j] += learnRate * (error - lambdaB * itemBiasValue);
+            ratingLoss += lambdaB * itemBiasValue * itemBiasValue;
+
+            // reconstruct the document once for all factors
+            int wordStart = documentWordPtr[documentId];
+            int documentLength = documentWordPtr[documentId + 1] - wordStart;
+            for (int position = 0; position < documentLength; position++) {
+                double[] phiOfWord = phiValues[documentWords[wordStart + position]];
+                double w_pred = 0.0, userSum = 0.0, itemSum = 0.0;
+                int weightOffset = position * numTopics;
+                for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                    double thetaValue = thetaOfDocument[topicIdx];
+                    double weight = phiOfWord[topicIdx] * thetaValue * (1 - thetaValue);
+                    w_pred += thetaValue * phiOfWord[topicIdx];
+                    topicWeights[weightOffset + topicIdx] = weight;
+                    userSum += weight * Math.abs(userFactorsOfI[topicIdx]);
+                    itemSum += weight * Math.abs(itemFactorsOfJ[topicIdx]);
+                }
+                reconstructions[position] = w_pred;
+                wordErrors[position] = documentWordValues[wordStart + position] - w_pred;
+                userSums[position] = userSum;
+                itemSums[position] = itemSum;
+                wordLoss += wordErrors[position];
+            }
+
+            // update user item factors
+            for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
+                double userFactorValue = userFactorsOfI[factorIdx];
+                double itemFactorValue = itemFactorsOfJ[factorIdx];
+
+                userFactorsOfI[factorIdx] += learnRate * (error * itemFactorValue - lambdaU * userFactorValue);
+                itemFactorsOfJ[factorIdx] += learnRate * (error * userFactorValue - lambdaV * itemFactorValue);
+                ratingLoss += lambdaU * userFactorValue * userFactorValue + lambdaV * itemFactorValue * itemFactorValue;
+
+                double thetaValue = thetaOfDocument[factorIdx];
+                double absUserValue = Math.abs(userFactorValue);
+                double absItemValue = Math.abs(itemFactorValue);
+                for (int position = 0; position < documentLength; position++) {
+                    double w_error = wordErrors[position];
+                    double weight = topicWeights[position * numTopics + factorIdx];
+                    // only the factor under update differs from the sums of the previous factor
+                    k1 += learnRate * lambda * w_error * (userSums[position] + weight * (Math.abs(userFactorsOfI[factorIdx]) - absUserValue));
+                    k2 += learnRate * lambda * w_error * (itemSums[position] + weight * (Math.abs(itemFactorsOfJ[factorIdx]) - absItemValue));
+
+                    double phiValue = phiValues[documentWords[wordStart + position]][factorIdx];
+                    double derivative = w_error * thetaValue * (phiValue - reconstructions[position]);
+                    userFactorsOfI[factorIdx] += learnRate * k1 * derivative;
+                    itemFactorsOfJ[factorIdx] += learnRate * k2 * derivative;
+                }
+
+                double userDelta = Math.abs(userFactorsOfI[factorIdx]) - absUserValue;
+                double itemDelta = Math.abs(itemFactorsOfJ[factorIdx]) - absItemValue;
+                for (int position = 0; position < documentLength; position++) {
+                    double weight = topicWeights[position * numTopics + factorIdx];
+                    userSums[position] += weight * userDelta;
+                    itemSums[position] += weight * itemDelta;
+                }
+            }
         }
+        return new double[]{ratingLoss, wordLoss, k1, k2};
+    }
+
+    /**
+     * Multiplicative NMF update of phi: phi = phi .* (theta^T W) ./ (theta^T theta phi).
+     * theta^T W is a sparse-dense product over the documents of each word, and words are
+     * updated in parallel since every column of phi only depends on itself.
+     */
+    private void updatePhi() {
+        double[][] thetaValues = theta.getValues();
+        double[][] phiValues = phi.getValues();
+
+        double[][] thetaTTheta = new double[numTopics][numTopics];
+        IntStream.range(0, numTopics).parallel().forEach(topicIdx -> {
+            double[] row = thetaTTheta[topicIdx];
+            for (double[] thetaOfDocument : thetaValues) {
+                double thetaValue = thetaOfDocument[topicIdx];
+                for (int otherTopicIdx = 0; otherTopicIdx < numTopics; otherTopicIdx++) {
+                    row[otherTopicIdx] += thetaValue * thetaOfDocument[otherTopicIdx];
+                }
+            }
+        });
+
+        IntStream.range(0, numWords).parallel().forEach(wordIdx -> {
+            double[] phiOfWord = phiValues[wordIdx];
+            double[] oldPhiOfWord = phiOfWord.clone();
+            for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                double thetaTW = 0.0;
+                for (int position = wordDocumentPtr[wordIdx]; position < wordDocumentPtr[wordIdx + 1]; position++) {
+                    thetaTW += thetaValues[wordDocuments[position]][topicIdx] * wordDocumentValues[position];
+                }
+                double denominator = 0.0;
+                double[] thetaTThetaRow = thetaTTheta[topicIdx];
+                for (int otherTopicIdx = 0; otherTopicIdx < numTopics; otherTopicIdx++) {
+                    denominator += thetaTThetaRow[otherTopicIdx] * oldPhiOfWord[otherTopicIdx];
+                }
+                double numerator = oldPhiOfWord[topicIdx] * thetaTW;
+                phiOfWord[topicIdx] = numerator / denominator;
+            }
+        });
     }
 
     @Override
@@ -234,20 +410,21 @@ public class TopicMFATRecommender extends TensorRecommender {
      * thetaVector = softmax( exp(K1|u| + K2|v|) )
      */
     private void calculateTheta() {
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row();
-            int i = me.column();
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        double[][] thetaValues = theta.getValues();
+        IntStream.range(0, ratingDocuments.length).parallel().forEach(ratingIdx -> {
+            double[] userFactorsOfU = userFactorValues[ratingUsers[ratingIdx]];
+            double[] itemFactorsOfI = itemFactorValues[ratingItems[ratingIdx]];
             double[] k1uAddk2v = new double[numTopics];
             for (int k = 0; k < numTopics; k++) {
-                k1uAddk2v[k] = Math.abs(userFactors.get(u, k)) * K1 + Math.abs(itemFactors.get(i, k)) * K2;
+                k1uAddk2v[k] = Math.abs(userFactorsOfU[k]) * K1 + Math.abs(itemFactorsOfI[k]) * K2;
             }
-            int documentIdx = userItemToDocument.get(u, i);
             try {
-                VectorBasedDenseVector newValues = new VectorBasedDenseVector(Maths.softmax(k1uAddk2v));
-                theta.set(documentIdx, newValues);
+                System.arraycopy(Maths.softmax(k1uAddk2v), 0, thetaValues[ratingDocuments[ratingIdx]], 0, numTopics);
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }
+        });
     }
 }
@@ -323,4 +323,28 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
         int featureIdx = itemFeatureMapping.get(itemIdx);
         return predict(new int[]{userIdx, itemIdx, featureIdx});
     }
+
+    /**
+     * The context of an item is its own feature rather than the user's, so every item is predicted from its three
+     * appender indices, in O(k) and without allocation. Items without a feature are not ranked.
+     *
+     * @param userIdx user index
+     * @param scores  output, the score of every item, length numItems
+     */
+    @Override
+    protected void predictItems(int userIdx, double[] scores) {
+        int[] featureIndices = new int[numDimensions];
+        double[] factorSums = new double[k];
+        featureIndices[0] = featureOffsets[0] + userIdx;
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            Integer featureIdx = itemFeatureMapping.get(itemIdx);
+            if (featureIdx == null) {
+                scores[itemIdx] = Double.NaN;
+                continue;
+            }
+            featureIndices[1] = featureOffsets[1] + itemIdx;
+            featureIndices[2] = featureOffsets[2] + featureIdx;
+            scores[itemIdx] = predict(featureIndices, 0, factorSums);
+        }
+    }
 }
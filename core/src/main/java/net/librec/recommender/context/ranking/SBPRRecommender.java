@@ -17,18 +17,14 @@
  */
 package net.librec.recommender.context.ranking;
 
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.VectorBasedDenseVector;
+import net.librec.recommender.PairwiseSampler;
 import net.librec.recommender.SocialRecommender;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Social Bayesian Personalized Ranking (SBPR)
@@ -51,196 +47,184 @@ public class SBPRRecommender extends SocialRecommender {
     protected float regBias;
 
     /**
-     * user-items cache, item-users cache
+     * sampler of (user, positive item, negative item) triples
      */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache;
+    protected transient PairwiseSampler sampler;
 
     /**
-     * Guava cache configuration
+     * trusted users of every user
      */
-    protected static String cacheSpec;
+    private transient int[][] userTrustedUsers;
 
     /**
-     * find items rated by trusted neighbors only
+     * items rated by trusted neighbors only, sorted ascending
      */
-    private List<List<Integer>> userSocialItemsSetList;
+    private transient int[][] userSocialItems;
 
     @Override
     public void setup() throws LibrecException {
         super.setup();
         regBias = conf.getFloat("rec.bias.regularization", 0.01f);
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=5000,expireAfterAccess=50m");
 
         itemBiases = new VectorBasedDenseVector(numItems);
         itemBiases.init();
 
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+        sampler = new PairwiseSampler(trainMatrix, conf);
 
         // find items rated by trusted neighbors only
-        userSocialItemsSetList = new ArrayList<>(numUsers);
+        userTrustedUsers = new int[numUsers][];
+        userSocialItems = new int[numUsers][];
+        int[] itemMarks = new int[numItems];
+        int[] items = new int[numItems];
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            userSocialItemsSetList.add(new ArrayList<Integer>());
-        }
-
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-
-            List<Integer> uRatedItems = null;
-            try {
-                uRatedItems = userItemsCache.get(userIdx);
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
-            if (uRatedItems.size() == 0)
-                continue; // no rated items
-
-            // find items rated by trusted neighbors only
-            int[] trustedUsers = socialMatrix.row(userIdx).getIndices();
-            List<Integer> items = new ArrayList<>();
-            for (int trustedUserIdx : trustedUsers) {
-
-                List<Integer> trustedRatedItems = null;
-                try {
-                    trustedRatedItems = userItemsCache.get(trustedUserIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
+            userTrustedUsers[userIdx] = userIdx < socialMatrix.rowSize()
+                    ? socialMatrix.row(userIdx).getIndices() : new int[0];
+
+            int numSocialItems = 0;
+            if (sampler.userEnd(userIdx) > sampler.userStart(userIdx)) {
+                // mark the rated items of u with u + 1, then collect the unmarked items of its neighbors
+                int mark = userIdx + 1;
+                for (int position = sampler.userStart(userIdx); position < sampler.userEnd(userIdx); position++) {
+                    itemMarks[sampler.itemAt(position)] = mark;
                 }
-                for (int trustedRatedItemIdx : trustedRatedItems) {
-                    // v's rated items
-                    if (!uRatedItems.contains(trustedRatedItemIdx) && !items.contains(trustedRatedItemIdx)) // if not rated by user u and not already added to item list
-                        items.add(trustedRatedItemIdx);
+                for (int trustedUserIdx : userTrustedUsers[userIdx]) {
+                    if (trustedUserIdx >= numUsers) {
+                        continue;
+                    }
+                    for (int position = sampler.userStart(trustedUserIdx); position < sampler.userEnd(trustedUserIdx); position++) {
+                        int trustedRatedItemIdx = sampler.itemAt(position);
+                        if (itemMarks[trustedRatedItemIdx] != mark) {
+                            itemMarks[trustedRatedItemIdx] = mark;
+                            items[numSocialItems++] = trustedRatedItemIdx;
+                        }
+                    }
                 }
             }
-            userSocialItemsSetList.set(userIdx, items);
+            userSocialItems[userIdx] = Arrays.copyOf(items, numSocialItems);
+            Arrays.sort(userSocialItems[userIdx]);
         }
     }
 
     @Override
     public void trainModel() throws LibrecException {
         int maxSample = trainMatrix.size();
-        for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0d;
-
-            for (int sample = 0; sample < maxSample; sample++) {
+        double[][] userFactorValues = userFactors.getValues();
+        double[][] itemFactorValues = itemFactors.getValues();
+        double[] itemBiasValues = itemBiases.getValues();
+
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
+            float rate = learnRate;
+            loss = sampler.runEpoch(maxSample, (sampleIdx, random) -> {
                 // uniformly draw (userIdx, posItemIdx, k, negItemIdx)
-                int userIdx, posItemIdx, negItemIdx;
-                // userIdx
-                List<Integer> ratedItems = null;
-                do {
-                    userIdx = Randoms.uniform(numUsers);
-                    try {
-                        ratedItems = userItemsCache.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-                } while (ratedItems.size() == 0);
-
-                // positive item index
-                posItemIdx = Randoms.random(ratedItems);
-
-                double posPredictRating = predict(userIdx, posItemIdx);
+                int userIdx = sampler.sampleUser(random);
+                int posItemIdx = sampler.samplePositive(userIdx, random);
 
                 // social Items List
-                List<Integer> socialItemsList = userSocialItemsSetList.get(userIdx);
+                int[] socialItems = userSocialItems[userIdx];
 
                 // negative item index
+                int negItemIdx;
                 do {
-                    negItemIdx = Randoms.uniform(numItems);
-                } while (ratedItems.contains(negItemIdx) || socialItemsList.contains(negItemIdx));
+                    negItemIdx = sampler.sampleNegative(userIdx, random);
+                } while (Arrays.binarySearch(socialItems, negItemIdx) >= 0);
 
-                double negPredictRating = predict(userIdx, negItemIdx);
+                double[] userFactor = userFactorValues[userIdx];
+                double[] posItemFactor = itemFactorValues[posItemIdx];
+                double[] negItemFactor = itemFactorValues[negItemIdx];
 
-                if (socialItemsList.size() > 0) {
+                double posPredictRating = itemBiasValues[posItemIdx] + dot(userFactor, posItemFactor);
+                double negPredictRating = itemBiasValues[negItemIdx] + dot(userFactor, negItemFactor);
+
+                double sampleLoss = 0.0d;
+                if (socialItems.length > 0) {
                     // if having social neighbors
-                    int socialItemIdx = Randoms.random(socialItemsList);
-                    double socialPredictRating = predict(userIdx, socialItemIdx);
+                    int socialItemIdx = socialItems[random.nextInt(socialItems.length)];
+                    double[] socialItemFactor = itemFactorValues[socialItemIdx];
+                    double socialPredictRating = itemBiasValues[socialItemIdx] + dot(userFactor, socialItemFactor);
 
-                    int[] trustedUserIdices = socialMatrix.row(userIdx).getIndices();
                     double socialWeight = 0;
-                    for (int trustedUserIdx : trustedUserIdices) {
-
-                        int[] indices = trainMatrix.row(trustedUserIdx).getIndices();
-                        int socialRating = Arrays.binarySearch(indices, socialItemIdx);
-                        if (socialRating > 0)
+                    for (int trustedUserIdx : userTrustedUsers[userIdx]) {
+                        if (trustedUserIdx < numUsers && sampler.isRated(trustedUserIdx, socialItemIdx))
                             socialWeight += 1;
-
                     }
 
                     double posSocialDiffValue = (posPredictRating - socialPredictRating) / (1 + socialWeight);
                     double socialNegDiffValue = socialPredictRating - negPredictRating;
 
                     double error = -Math.log(Maths.logistic(posSocialDiffValue)) - Math.log(Maths.logistic(socialNegDiffValue));
-                    loss += error;
+                    sampleLoss += error;
 
                     double posSocialGradient = Maths.logistic(-posSocialDiffValue), socialNegGradient = Maths.logistic(-socialNegDiffValue);
 
                     // update bi, bk, bj
-                    double posItemBiasValue = itemBiases.get(posItemIdx);
-                    itemBiases.plus(posItemIdx, learnRate * (posSocialGradient / (1 + socialWeight) - regBias * posItemBiasValue));
-                    loss += regBias * posItemBiasValue * posItemBiasValue;
+                    double posItemBiasValue = itemBiasValues[posItemIdx];
+                    itemBiasValues[posItemIdx] += rate * (posSocialGradient / (1 + socialWeight) - regBias * posItemBiasValue);
+                    sampleLoss += regBias * posItemBiasValue * posItemBiasValue;
 
-                    double socialItemBiasValue = itemBiases.get(socialItemIdx);
-                    itemBiases.plus(socialItemIdx, learnRate * (-posSocialGradient / (1 + socialWeight) + socialNegGradient - regBias * socialItemBiasValue));
-                    loss += regBias * socialItemBiasValue * socialItemBiasValue;
+                    double socialItemBiasValue = itemBiasValues[socialItemIdx];
+                    itemBiasValues[socialItemIdx] += rate * (-posSocialGradient / (1 + socialWeight) + socialNegGradient - regBias * socialItemBiasValue);
+                    sampleLoss += regBias * socialItemBiasValue * socialItemBiasValue;
 
-                    double negItemBiasValue = itemBiases.get(negItemIdx);
-                    itemBiases.plus(negItemIdx, learnRate * (-socialNegGradient - regBias * negItemBiasValue));
-                    loss += regBias * negItemBiasValue * negItemBiasValue;
+                    double negItemBiasValue = itemBiasValues[negItemIdx];
+                    itemBiasValues[negItemIdx] += rate * (-socialNegGradient - regBias * negItemBiasValue);
+                    sampleLoss += regBias * negItemBiasValue * negItemBiasValue;
 
                     // update P, Q
                     for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                        double socialItemFactorValue = itemFactors.get(socialItemIdx, factorIdx);
-                        double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                        double userFactorValue = userFactor[factorIdx];
+                        double posItemFactorValue = posItemFactor[factorIdx];
+                        double socialItemFactorValue = socialItemFactor[factorIdx];
+                        double negItemFactorValue = negItemFactor[factorIdx];
 
                         double delta_puf = posSocialGradient * (posItemFactorValue - socialItemFactorValue) / (1 + socialWeight)
                                 + socialNegGradient * (socialItemFactorValue - negItemFactorValue);
-                        userFactors.plus(userIdx, factorIdx, learnRate * (delta_puf - regUser * userFactorValue));
+                        userFactor[factorIdx] += rate * (delta_puf - regUser * userFactorValue);
 
-                        itemFactors.plus(posItemIdx, factorIdx, learnRate * (posSocialGradient * userFactorValue / (1 + socialWeight)
-                                - regItem * posItemFactorValue));
+                        posItemFactor[factorIdx] += rate * (posSocialGradient * userFactorValue / (1 + socialWeight)
+                                - regItem * posItemFactorValue);
 
                         double delta_qkf = posSocialGradient * (-userFactorValue / (1 + socialWeight)) + socialNegGradient * userFactorValue;
-                        itemFactors.plus(socialItemIdx, factorIdx, learnRate * (delta_qkf - regItem * socialItemFactorValue));
+                        socialItemFactor[factorIdx] += rate * (delta_qkf - regItem * socialItemFactorValue);
 
-                        itemFactors.plus(negItemIdx, factorIdx, learnRate * (socialNegGradient * (-userFactorValue) -
-                                regItem * negItemFactorValue));
+                        negItemFactor[factorIdx] += rate * (socialNegGradient * (-userFactorValue) -
+                                regItem * negItemFactorValue);
 
-                        loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
+                        sampleLoss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
                                 regItem * negItemFactorValue * negItemFactorValue + regItem * socialItemFactorValue * socialItemFactorValue;
                     }
                 } else {
                     // if no social neighbors, the same as BPR
                     double posNegDiffValue = posPredictRating - negPredictRating;
-                    loss += posNegDiffValue;
+                    sampleLoss += -Math.log(Maths.logistic(posNegDiffValue));
 
                     double posNegGradient = Maths.logistic(-posNegDiffValue);
 
                     // update bi, bj
-                    double posItemBiasValue = itemBiases.get(posItemIdx);
-                    itemBiases.plus(posItemIdx, learnRate * (posNegGradient - regBias * posItemBiasValue));
-                    loss += regBias * posItemBiasValue * posItemBiasValue;
+                    double posItemBiasValue = itemBiasValues[posItemIdx];
+                    itemBiasValues[posItemIdx] += rate * (posNegGradient - regBias * posItemBiasValue);
+                    sampleLoss += regBias * posItemBiasValue * posItemBiasValue;
 
-                    double negItemBiasValue = itemBiases.get(negItemIdx);
-                    itemBiases.plus(negItemIdx, learnRate * (-posNegGradient - regBias * negItemBiasValue));
-                    loss += regBias * negItemBiasValue * negItemBiasValue;
+                    double negItemBiasValue = itemBiasValues[negItemIdx];
+                    itemBiasValues[negItemIdx] += rate * (-posNegGradient - regBias * negItemBiasValue);
+                    sampleLoss += regBias * negItemBiasValue * negItemBiasValue;
 
                     // update user factors, item factors
                     for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                        double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+                        double userFactorValue = userFactor[factorIdx];
+                        double posItemFactorValue = posItemFactor[factorIdx];
+                        double negItemFactorValue = negItemFactor[factorIdx];
 
-                        userFactors.plus(userIdx, factorIdx, learnRate * (posNegGradient * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                        itemFactors.plus(posItemIdx, factorIdx, learnRate * (posNegGradient * userFactorValue - regItem * posItemFactorValue));
-                        itemFactors.plus(negItemIdx, factorIdx, learnRate * (posNegGradient * (-userFactorValue) - regItem * negItemFactorValue));
+                        userFactor[factorIdx] += rate * (posNegGradient * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue);
+                        posItemFactor[factorIdx] += rate * (posNegGradient * userFactorValue - regItem * posItemFactorValue);
+                        negItemFactor[factorIdx] += rate * (posNegGradient * (-userFactorValue) - regItem * negItemFactorValue);
 
-                        loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
+                        sampleLoss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
                                 regItem * negItemFactorValue * negItemFactorValue;
                     }
                 }
-            }
+                return sampleLoss;
+            });
 
             if (isConverged(iter) && earlyStop) {
                 break;
@@ -249,6 +233,13 @@ public class SBPRRecommender extends SocialRecommender {
         }
     }
 
+    private double dot(double[] userFactor, double[] itemFactor) {
+        double product = 0.0d;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            product += userFactor[factorIdx] * itemFactor[factorIdx];
+        }
+        return product;
+    }
 
     /**
      * predict a specific ranking score for user userIdx on item itemIdx.
@@ -46,7 +46,8 @@ public class RSTERecommender extends SocialRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
             loss = 0.0d;
 
@@ -20,17 +20,23 @@ package net.librec.recommender.context.rating;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
-import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.recommender.cf.rating.BiasedMFRecommender;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 /**
  * TimeSVD++ Recommender
  * Koren, <strong>Collaborative Filtering with Temporal Dynamics</strong>, KDD 2009.
+ * <p>
+ * The day-specific parameters b_{u,t}, c_{u,t} and p_{u,t} only exist for the days a user has ratings on. They are
+ * kept in a time-bucket store: the rating days of every user, sorted, in compressed sparse rows, and the parameters
+ * of every (user, day) slot in contiguous arrays. Memory is linear in the number of ratings instead of users times
+ * days, so multi-year timestamps are practical.
+ * <p>
+ * Users can be trained on {@code rec.thread.count} threads (all cores by default): every thread owns the users of
+ * one partition and the item parameters are shared without locks.
  *
  * @author Guo Guibing and Ma Chen
  */
@@ -38,19 +44,19 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
     /**
      * the span of days of rating timestamps
      */
-    private static int numDays;
+    private int numDays;
     /**
      * minimum, maximum timestamp
      */
-    private static long minTimestamp, maxTimestamp;
+    private long minTimestamp, maxTimestamp;
     /**
      * matrix of time stamp
      */
-    private static SequentialAccessSparseMatrix instantMatrix;
+    private SequentialAccessSparseMatrix instantMatrix;
     /**
      * {user, mean date}
      */
-    private DenseVector userMeanDays;
+    private double[] userMeanDays;
     /**
      * number of bins over all the items
      */
@@ -69,33 +75,45 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
      * {item, bin(t)} bias matrix
      */
     private DenseMatrix itemSectionBiases;
-    /**
-     * {user, day, bias} table
-     */
-    private  DenseMatrix userDayBiases;
-//    private Table<Integer, Integer, Double> userDayBiases;
     /**
      * user bias weight parameters
      */
     private DenseVector userBiasWeights;
     /**
-     * {user, {appender, day, value} } map
+     * {user, user scaling stable part}
      */
-//    private Table<Integer, Integer, double[]> userDayFactors;
-    private Map<Integer, double[]>[] userDayFactors;
+    private DenseVector userScales;
 
     /**
-     * {user, user scaling stable part}
+     * rating days of every user, sorted: slots userDayPointers[u] ~ userDayPointers[u + 1] - 1
      */
-    private DenseVector userScales;
+    private int[] userDayPointers, userDays;
+    /**
+     * day bias b_{u,t} and day-specific scaling c_{u,t} of every slot
+     */
+    private double[] userDayBiases, userDayScales;
     /**
-     * {user, day, day-specific scaling part}
+     * day factors p_{u,t} of every slot, slot s at s * numFactors
      */
-    private DenseMatrix userDayScales;
+    private double[] userDayFactors;
+
+    /**
+     * training ratings in row order: ratings of user u at ratingPointers[u] ~ ratingPointers[u + 1] - 1,
+     * with their items, values, days and slots
+     */
+    private int[] ratingPointers, ratingItems, ratingDays, ratingSlots;
+    private double[] ratingValues;
+
+    /**
+     * sum of the implicit factors y_j of the items rated by every user, filled after training
+     */
+    private double[][] userImplicitSums;
 
     private double beta = 0.4;
 
-    private RowSequentialAccessSparseMatrix trainTimeMatrix, testTimeMatrix;
+    private int numThreads;
+
+    private RowSequentialAccessSparseMatrix testTimeMatrix;
 
     /**
      * get the number of days for a given time difference
@@ -127,6 +145,7 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         super.setup();
         beta = conf.getDouble("rec.timesvd.beta", 0.1D);
         numSections = conf.getInt("rec.numBins", 20);
+        numThreads = Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
         instantMatrix = (SequentialAccessSparseMatrix) getDataModel().getDatetimeDataSet();
         getMaxAndMinTimeStamp();
         numDays = days(maxTimestamp, minTimestamp) + 1;
@@ -143,215 +162,100 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         userImplicitFactors = new DenseMatrix(numUsers, numFactors);
         userImplicitFactors.init(initMean, initStd);
 
-        userDayBiases = new DenseMatrix(numUsers, numDays);
-
-        userDayFactors = new Map[numUsers];
-        for(int userIndex=0; userIndex< numUsers;userIndex++){
-            userDayFactors[userIndex] = new HashMap<>();
-        }
-
         userScales = new VectorBasedDenseVector(numUsers);
         userScales.init(initMean, initStd);
 
-        userDayScales = new DenseMatrix(numUsers, numDays);
-        userDayScales.init(initMean, initStd);
-
         userExplicitFactors = new DenseMatrix(numUsers, numFactors);
         userExplicitFactors.init(initMean, initStd);
 
         itemExplicitFactors = new DenseMatrix(numItems, numFactors);
         itemExplicitFactors.init(initMean, initStd);
 
-        // global average date
-        double mean;
-        double sum = 0D;
-        int count = 0;
-        trainTimeMatrix = new RowSequentialAccessSparseMatrix(trainMatrix, true);
-
-        for (MatrixEntry matrixEntry : trainTimeMatrix) {
-            int userIndex = matrixEntry.row();
-            int itemIndex = matrixEntry.column();
-            int tempDay = days((long) instantMatrix.get(userIndex, itemIndex), minTimestamp);
-            matrixEntry.set(tempDay);
-            sum += tempDay;
-            double[] dayFactors = new double[numFactors];
-            for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                dayFactors[factorIndex] = Randoms.uniform(initMean, initStd);
+        // training ratings and their days
+        ratingPointers = new int[numUsers + 1];
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            ratingPointers[userIndex + 1] = ratingPointers[userIndex] + trainMatrix.row(userIndex).getNumEntries();
+        }
+        int numRatings = ratingPointers[numUsers];
+        ratingItems = new int[numRatings];
+        ratingValues = new double[numRatings];
+        ratingDays = new int[numRatings];
+        ratingSlots = new int[numRatings];
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            SequentialSparseVector rateVector = trainMatrix.row(userIndex);
+            int ratingIndex = ratingPointers[userIndex];
+            for (Vector.VectorEntry vectorEntry : rateVector) {
+                ratingItems[ratingIndex] = vectorEntry.index();
+                ratingValues[ratingIndex] = vectorEntry.get();
+                ratingDays[ratingIndex] = days((long) instantMatrix.get(userIndex, vectorEntry.index()), minTimestamp);
+                ratingIndex++;
             }
-            userDayFactors[userIndex].put(tempDay, dayFactors);
-            userDayBiases.set(userIndex, tempDay, Randoms.uniform(initMean, initStd));
-            count++;
         }
 
-        double[] dayFactors = new double[numFactors];
         testTimeMatrix = new RowSequentialAccessSparseMatrix(testMatrix, true);
-
         for (MatrixEntry matrixEntry : testTimeMatrix) {
-            int userIndex = matrixEntry.row();
-            int itemIndex = matrixEntry.column();
-            int tempDay = days((long) instantMatrix.get(userIndex, itemIndex), minTimestamp);
-            matrixEntry.set(tempDay);
-            if (!userDayFactors[userIndex].containsKey(tempDay)){
-                userDayFactors[userIndex].put(tempDay, dayFactors);
+            matrixEntry.set(days((long) instantMatrix.get(matrixEntry.row(), matrixEntry.column()), minTimestamp));
+        }
+
+        // slots of the distinct days of every user, training and test days
+        userDayPointers = new int[numUsers + 1];
+        int[][] distinctDays = new int[numUsers][];
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            SequentialSparseVector timeVector = testTimeMatrix.row(userIndex);
+            int numTrainDays = ratingPointers[userIndex + 1] - ratingPointers[userIndex];
+            int[] days = Arrays.copyOf(Arrays.copyOfRange(ratingDays, ratingPointers[userIndex], ratingPointers[userIndex + 1]),
+                    numTrainDays + timeVector.getNumEntries());
+            for (int position = 0; position < timeVector.getNumEntries(); position++) {
+                days[numTrainDays + position] = (int) timeVector.getAtPosition(position);
+            }
+            distinctDays[userIndex] = Arrays.stream(days).sorted().distinct().toArray();
+            userDayPointers[userIndex + 1] = userDayPointers[userIndex] + distinctDays[userIndex].length;
+        }
+        int numSlots = userDayPointers[numUsers];
+        userDays = new int[numSlots];
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            System.arraycopy(distinctDays[userIndex], 0, userDays, userDayPointers[userIndex], distinctDays[userIndex].length);
+        }
+
+        // day parameters of the training days are drawn at random, those of test-only days stay zero
+        userDayBiases = new double[numSlots];
+        userDayScales = new double[numSlots];
+        userDayFactors = new double[numSlots * numFactors];
+        boolean[] trained = new boolean[numSlots];
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            for (int ratingIndex = ratingPointers[userIndex]; ratingIndex < ratingPointers[userIndex + 1]; ratingIndex++) {
+                int slot = slot(userIndex, ratingDays[ratingIndex]);
+                ratingSlots[ratingIndex] = slot;
+                trained[slot] = true;
+            }
+        }
+        for (int slot = 0; slot < numSlots; slot++) {
+            userDayScales[slot] = Randoms.gaussian(initMean, initStd);
+            if (trained[slot]) {
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    userDayFactors[slot * numFactors + factorIndex] = Randoms.uniform(initMean, initStd);
+                }
+                userDayBiases[slot] = Randoms.uniform(initMean, initStd);
             }
         }
-        System.gc();
 
-        double globalMeanDays = sum / count;
         // compute user's mean of rating timestamps
-        userMeanDays = new VectorBasedDenseVector(numUsers);
+        double globalMeanDays = numRatings > 0 ? Arrays.stream(ratingDays).asDoubleStream().sum() / numRatings : 0D;
+        userMeanDays = new double[numUsers];
         for (int userIndex = 0; userIndex < numUsers; userIndex++) {
-            sum = 0D;
-            SequentialSparseVector userVector = trainTimeMatrix.row(userIndex);
-            for (VectorEntry vectorEntry: userVector) {
-                sum += days((long) vectorEntry.get(), minTimestamp);
+            int size = ratingPointers[userIndex + 1] - ratingPointers[userIndex];
+            double sum = 0D;
+            for (int ratingIndex = ratingPointers[userIndex]; ratingIndex < ratingPointers[userIndex + 1]; ratingIndex++) {
+                sum += days((long) ratingDays[ratingIndex], minTimestamp);
             }
-            mean = (userVector.size() > 0) ? (sum + 0D) / userVector.size() : globalMeanDays;
-            userMeanDays.set(userIndex, mean);
+            userMeanDays[userIndex] = size > 0 ? sum / size : globalMeanDays;
         }
     }
 
     public void trainModel() throws LibrecException {
-        DenseVector factorVector = new VectorBasedDenseVector(numFactors);
-
-        for (int iterationStep = 1; iterationStep <= numIterations; iterationStep++) {
-            loss = 0D;
-            for (int userIndex = 0; userIndex < numUsers; userIndex++) {
-                SequentialSparseVector rateVector = trainMatrix.row(userIndex);
-                SequentialSparseVector timeVector = trainTimeMatrix.row(userIndex);
-                int size = rateVector.size();
-                if (size == 0) {
-                    continue;
-                }
-
-                double[] step = new double[numFactors];
-
-                for (VectorEntry vectorEntry : rateVector) {
-                    factorVector.assign((index, value) -> itemImplicitFactors.row(vectorEntry.index()).get(index) + value);
-                }
-                double scale = Math.pow(size, -0.5);
-                factorVector.assign((index, value) -> value * scale);
-
-                for (VectorEntry vectorEntry : rateVector) {
-                    int itemExplicitIndex = vectorEntry.index();
-                    double rate = vectorEntry.get();
-                    int days = (int) timeVector.getAtPosition(vectorEntry.position());
-                    // day t
-                    int section = section(days);
-                    double deviation = deviation(userIndex, days);
-                    double userBias = userBiases.get(userIndex);
-                    double itemBias = itemBiases.get(itemExplicitIndex);
-
-                    double userScale = userScales.get(userIndex);
-                    double dayScale = userDayScales.get(userIndex, days);
-                    // lazy initialization
-                    double userDayBias = userDayBiases.get(userIndex, days);
-                    double itemSectionBias = itemSectionBiases.get(itemExplicitIndex, section);
-                    // alpha_u
-                    double userWeight = userBiasWeights.get(userIndex);
-                    // mu bi(t)
-                    double predict = globalMean + (itemBias + itemSectionBias) * (userScale + dayScale);
-                    // bu(t)
-                    predict += userBias + userWeight * deviation + userDayBias;
-                    // qi * yj
-                    DenseVector itemExplicitVector = itemExplicitFactors.row(itemExplicitIndex);
-                    double sum = factorVector.dot(itemExplicitVector);
-                    predict += sum;
-                    // qi * pu(t)
-                    double[] dayFactors = userDayFactors[userIndex].get(days);
-//
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        double qik = itemExplicitFactors.get(itemExplicitIndex, factorIndex);
-                        double puk = userExplicitFactors.get(userIndex, factorIndex) + userImplicitFactors.get(userIndex, factorIndex) * deviation + dayFactors[factorIndex];
-                        predict += puk * qik;
-                    }
-                    double error = predict - rate;
-                    loss += error * error;
-
-                    // update bi
-                    double sgd = error * (userScale + dayScale) + regBias * itemBias;
-                    itemBiases.plus(itemExplicitIndex, -learnRate * sgd);
-                    loss += regBias * itemBias * itemBias;
-
-                    // update bi,bin(t)
-                    sgd = error * (userScale + dayScale) + regBias * itemSectionBias;
-                    itemSectionBiases.plus(itemExplicitIndex, section, -learnRate * sgd);
-                    loss += regBias * itemSectionBias * itemSectionBias;
-
-                    // update cu
-                    sgd = error * (itemBias + itemSectionBias) + regBias * userScale;
-                    userScales.plus(userIndex, -learnRate * sgd);
-                    loss += regBias * userScale * userScale;
-
-                    // update cut
-                    sgd = error * (itemBias + itemSectionBias) + regBias * dayScale;
-                    userDayScales.plus(userIndex, days, -learnRate * sgd);
-                    loss += regBias * dayScale * dayScale;
-
-                    // update bu
-                    sgd = error + regBias * userBias;
-                    userBiases.plus(userIndex, -learnRate * sgd);
-                    loss += regBias * userBias * userBias;
-
-                    // update au
-                    sgd = error * deviation + regBias * userWeight;
-                    userBiasWeights.plus(userIndex, -learnRate * sgd);
-                    loss += regBias * userWeight * userWeight;
-
-                    // update but
-                    sgd = error + regBias * userDayBias;
-                    double delta = userDayBias - learnRate * sgd;
-//
-                    userDayBiases.set(userIndex, days, delta);
-                    loss += regBias * userDayBias * userDayBias;
-
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        double userExplicitFactor = userExplicitFactors.get(userIndex, factorIndex);
-                        double itemExplicitFactor = itemExplicitFactors.get(itemExplicitIndex, factorIndex);
-                        double userImplicitFactor = userImplicitFactors.get(userIndex, factorIndex);
-                        delta = dayFactors[factorIndex];
-
-                        sum = 0D;
-                        // update userExplicitFactor
-                        sgd = error * itemExplicitFactor + regUser * userExplicitFactor;
-                        userExplicitFactors.plus(userIndex, factorIndex, -learnRate * sgd);
-                        loss += regUser * userExplicitFactor * userExplicitFactor;
-
-                        // update itemExplicitFactors
-                        for (VectorEntry explicitVectorEntry : rateVector) {
-                            int itemImplicitIndex = explicitVectorEntry.index();
-                            sum += itemImplicitFactors.get(itemImplicitIndex, factorIndex);
-                        }
-                        sgd = error * (userExplicitFactor + userImplicitFactor * deviation + delta + scale * sum) + regItem * itemExplicitFactor;
-                        itemExplicitFactors.plus(itemExplicitIndex, factorIndex, -learnRate * sgd);
-                        loss += regItem * itemExplicitFactor * itemExplicitFactor;
-
-                        // update userImplicitFactors
-                        sgd = error * itemExplicitFactor * deviation + regUser * userImplicitFactor;
-                        userImplicitFactors.plus(userIndex, factorIndex, -learnRate * sgd);
-                        loss += regUser * userImplicitFactor * userImplicitFactor;
-
-                        // update pkt
-                        sgd = error * itemExplicitFactor + regUser * delta;
-                        loss += regUser * delta * delta;
-                        delta = delta - learnRate * sgd;
-                        dayFactors[factorIndex] = delta;
-
-                        step[factorIndex] += error * scale * itemExplicitFactor;
-
-                    }
-                }
-                double sgd;
-                for (VectorEntry vectorEntry : rateVector) {
-                    int itemImplicitIndex = vectorEntry.index();
-                    for(int factorIndex=0; factorIndex< numFactors; factorIndex++) {
-                        double itemImplicitFactor = itemImplicitFactors.get(itemImplicitIndex, factorIndex);
-                        sgd = step[factorIndex] + regItem * itemImplicitFactor * size;
-                        itemImplicitFactors.plus(itemImplicitIndex, factorIndex, -learnRate * sgd);
-                        loss += regItem * itemImplicitFactor * itemImplicitFactor * size;
-                    }
-                }
-            }
+        for (int iterationStep = restoreCheckpoint(1); iterationStep <= numIterations; iterationStep++) {
+            saveCheckpoint(iterationStep);
+            loss = IntStream.range(0, numThreads).parallel().mapToDouble(this::trainPartition).sum();
 
             loss *= 0.5D;
             if (isConverged(iterationStep)) {
@@ -360,6 +264,168 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
             updateLRate(iterationStep);
             lastLoss = loss;
         }
+
+        userImplicitSums = new double[numUsers][];
+        double[][] itemImplicitValues = itemImplicitFactors.getValues();
+        IntStream.range(0, numUsers).parallel().forEach(userIndex -> {
+            double[] implicitSum = new double[numFactors];
+            for (int ratingIndex = ratingPointers[userIndex]; ratingIndex < ratingPointers[userIndex + 1]; ratingIndex++) {
+                double[] itemImplicitFactor = itemImplicitValues[ratingItems[ratingIndex]];
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    implicitSum[factorIndex] += itemImplicitFactor[factorIndex];
+                }
+            }
+            userImplicitSums[userIndex] = implicitSum;
+        });
+    }
+
+    /**
+     * One SGD pass over the users u with u % numThreads == partition.
+     *
+     * @param partition partition of the users
+     * @return loss of the pass
+     */
+    private double trainPartition(int partition) {
+        double[] userBiasValues = userBiases.getValues(), itemBiasValues = itemBiases.getValues();
+        double[] userScaleValues = userScales.getValues(), userBiasWeightValues = userBiasWeights.getValues();
+        double[][] itemSectionBiasValues = itemSectionBiases.getValues();
+        double[][] userExplicitValues = userExplicitFactors.getValues(), itemExplicitValues = itemExplicitFactors.getValues();
+        double[][] userImplicitValues = userImplicitFactors.getValues(), itemImplicitValues = itemImplicitFactors.getValues();
+
+        double[] factorVector = new double[numFactors];
+        double[] step = new double[numFactors];
+        double loss = 0D;
+        for (int userIndex = partition; userIndex < numUsers; userIndex += numThreads) {
+            int start = ratingPointers[userIndex], end = ratingPointers[userIndex + 1];
+            int size = end - start;
+            if (size == 0) {
+                continue;
+            }
+            double[] userExplicitFactor = userExplicitValues[userIndex];
+            double[] userImplicitFactor = userImplicitValues[userIndex];
+
+            // |R(u)|^-0.5 * sum_j y_j, fixed while the ratings of the user are visited
+            double scale = Math.pow(size, -0.5);
+            Arrays.fill(factorVector, 0D);
+            Arrays.fill(step, 0D);
+            for (int ratingIndex = start; ratingIndex < end; ratingIndex++) {
+                double[] itemImplicitFactor = itemImplicitValues[ratingItems[ratingIndex]];
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    factorVector[factorIndex] += itemImplicitFactor[factorIndex];
+                }
+            }
+            for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                factorVector[factorIndex] *= scale;
+            }
+
+            for (int ratingIndex = start; ratingIndex < end; ratingIndex++) {
+                int itemExplicitIndex = ratingItems[ratingIndex];
+                double rate = ratingValues[ratingIndex];
+                // day t
+                int days = ratingDays[ratingIndex];
+                int slot = ratingSlots[ratingIndex];
+                int section = section(days);
+                double deviation = deviation(userIndex, days);
+                double userBias = userBiasValues[userIndex];
+                double itemBias = itemBiasValues[itemExplicitIndex];
+
+                double userScale = userScaleValues[userIndex];
+                double dayScale = userDayScales[slot];
+                double userDayBias = userDayBiases[slot];
+                double itemSectionBias = itemSectionBiasValues[itemExplicitIndex][section];
+                // alpha_u
+                double userWeight = userBiasWeightValues[userIndex];
+                // mu bi(t)
+                double predict = globalMean + (itemBias + itemSectionBias) * (userScale + dayScale);
+                // bu(t)
+                predict += userBias + userWeight * deviation + userDayBias;
+                // qi * yj, qi * pu(t)
+                double[] itemExplicitFactor = itemExplicitValues[itemExplicitIndex];
+                int dayOffset = slot * numFactors;
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    double qik = itemExplicitFactor[factorIndex];
+                    double puk = userExplicitFactor[factorIndex] + userImplicitFactor[factorIndex] * deviation
+                            + userDayFactors[dayOffset + factorIndex];
+                    predict += (factorVector[factorIndex] + puk) * qik;
+                }
+                double error = predict - rate;
+                loss += error * error;
+
+                // update bi
+                double sgd = error * (userScale + dayScale) + regBias * itemBias;
+                itemBiasValues[itemExplicitIndex] += -learnRate * sgd;
+                loss += regBias * itemBias * itemBias;
+
+                // update bi,bin(t)
+                sgd = error * (userScale + dayScale) + regBias * itemSectionBias;
+                itemSectionBiasValues[itemExplicitIndex][section] += -learnRate * sgd;
+                loss += regBias * itemSectionBias * itemSectionBias;
+
+                // update cu
+                sgd = error * (itemBias + itemSectionBias) + regBias * userScale;
+                userScaleValues[userIndex] += -learnRate * sgd;
+                loss += regBias * userScale * userScale;
+
+                // update cut
+                sgd = error * (itemBias + itemSectionBias) + regBias * dayScale;
+                userDayScales[slot] += -learnRate * sgd;
+                loss += regBias * dayScale * dayScale;
+
+                // update bu
+                sgd = error + regBias * userBias;
+                userBiasValues[userIndex] += -learnRate * sgd;
+                loss += regBias * userBias * userBias;
+
+                // update au
+                sgd = error * deviation + regBias * userWeight;
+                userBiasWeightValues[userIndex] += -learnRate * sgd;
+                loss += regBias * userWeight * userWeight;
+
+                // update but
+                sgd = error + regBias * userDayBias;
+                userDayBiases[slot] = userDayBias - learnRate * sgd;
+                loss += regBias * userDayBias * userDayBias;
+
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    double userExplicitValue = userExplicitFactor[factorIndex];
+                    double itemExplicitValue = itemExplicitFactor[factorIndex];
+                    double userImplicitValue = userImplicitFactor[factorIndex];
+                    double delta = userDayFactors[dayOffset + factorIndex];
+
+                    // update userExplicitFactor
+                    sgd = error * itemExplicitValue + regUser * userExplicitValue;
+                    userExplicitFactor[factorIndex] += -learnRate * sgd;
+                    loss += regUser * userExplicitValue * userExplicitValue;
+
+                    // update itemExplicitFactors
+                    sgd = error * (userExplicitValue + userImplicitValue * deviation + delta + factorVector[factorIndex]) + regItem * itemExplicitValue;
+                    itemExplicitFactor[factorIndex] += -learnRate * sgd;
+                    loss += regItem * itemExplicitValue * itemExplicitValue;
+
+                    // update userImplicitFactors
+                    sgd = error * itemExplicitValue * deviation + regUser * userImplicitValue;
+                    userImplicitFactor[factorIndex] += -learnRate * sgd;
+                    loss += regUser * userImplicitValue * userImplicitValue;
+
+                    // update pkt
+                    sgd = error * itemExplicitValue + regUser * delta;
+                    loss += regUser * delta * delta;
+                    userDayFactors[dayOffset + factorIndex] = delta - learnRate * sgd;
+
+                    step[factorIndex] += error * scale * itemExplicitValue;
+                }
+            }
+            for (int ratingIndex = start; ratingIndex < end; ratingIndex++) {
+                double[] itemImplicitFactor = itemImplicitValues[ratingItems[ratingIndex]];
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    double itemImplicitValue = itemImplicitFactor[factorIndex];
+                    double sgd = step[factorIndex] + regItem * itemImplicitValue * size;
+                    itemImplicitFactor[factorIndex] += -learnRate * sgd;
+                    loss += regItem * itemImplicitValue * itemImplicitValue * size;
+                }
+            }
+        }
+        return loss;
     }
 
     /**
@@ -374,40 +440,48 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
     protected double predict(int userIndex, int itemIndex) {
         // retrieve the test rating timestamp
         int days = (int) testTimeMatrix.get(userIndex, itemIndex);
-//        int days = days(instant, minTimestamp);
+        int slot = slot(userIndex, days);
         int section = section(days);
         double deviation = deviation(userIndex, days);
         double value = globalMean;
 
         // bi(t): eq. (12)
-        value += (itemBiases.get(itemIndex) + itemSectionBiases.get(itemIndex, section)) * (userScales.get(userIndex) + userDayScales.get(userIndex, days));
+        double dayScale = slot >= 0 ? userDayScales[slot] : 0D;
+        value += (itemBiases.get(itemIndex) + itemSectionBiases.get(itemIndex, section)) * (userScales.get(userIndex) + dayScale);
         // bu(t): eq. (9)
-        value += (userBiases.get(userIndex) + userBiasWeights.get(userIndex) * deviation + userDayBiases.get(userIndex, days));
-        // qi * yj
-        SequentialSparseVector userVector = trainMatrix.row(userIndex);
-
-        double sum = 0;
-        DenseVector itemExplicitVector = itemExplicitFactors.row(itemIndex);
-        for (VectorEntry vectorEntry : userVector) {
-            DenseVector itemImplicitVector = itemImplicitFactors.row(vectorEntry.index());
-            sum += itemImplicitVector.dot(itemExplicitVector);
-        }
-        double weight = userVector.size() > 0 ? Math.pow(userVector.size(), -0.5D) : 0D;
-        value += sum * weight;
-
-        // qi * pu(t)
-        double[] dayFactors = userDayFactors[userIndex].get(days);
-
+        double userDayBias = slot >= 0 ? userDayBiases[slot] : 0D;
+        value += (userBiases.get(userIndex) + userBiasWeights.get(userIndex) * deviation + userDayBias);
+
+        // qi * yj and qi * pu(t), eq. (13)
+        int size = ratingPointers[userIndex + 1] - ratingPointers[userIndex];
+        double weight = size > 0 ? Math.pow(size, -0.5D) : 0D;
+        double[] implicitSum = userImplicitSums[userIndex];
+        double[] itemExplicitFactor = itemExplicitFactors.getValues()[itemIndex];
+        double[] userExplicitFactor = userExplicitFactors.getValues()[userIndex];
+        double[] userImplicitFactor = userImplicitFactors.getValues()[userIndex];
         for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-            double itemExplicitFactor = itemExplicitFactors.get(itemIndex, factorIndex);
-            // eq. (13)
-            double userExplicitFactor = userExplicitFactors.get(userIndex, factorIndex) + userImplicitFactors.get(userIndex, factorIndex) * deviation;
-            userExplicitFactor += dayFactors[factorIndex];
-            value += userExplicitFactor * itemExplicitFactor;
+            double userFactor = userExplicitFactor[factorIndex] + userImplicitFactor[factorIndex] * deviation
+                    + implicitSum[factorIndex] * weight;
+            if (slot >= 0) {
+                userFactor += userDayFactors[slot * numFactors + factorIndex];
+            }
+            value += userFactor * itemExplicitFactor[factorIndex];
         }
         return value;
     }
 
+    /**
+     * get the slot of a user day in the time-bucket store
+     *
+     * @param userIndex the inner id of a user
+     * @param days      the day
+     * @return the slot, or -1 if the user has no rating on the day
+     */
+    private int slot(int userIndex, int days) {
+        int slot = Arrays.binarySearch(userDays, userDayPointers[userIndex], userDayPointers[userIndex + 1], days);
+        return slot >= 0 ? slot : -1;
+    }
+
     /**
      * get the time deviation for a specific timestamp
      *
@@ -417,7 +491,7 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
      * tu
      */
     private double deviation(int userIndex, int days) {
-        double mean = userMeanDays.get(userIndex);
+        double mean = userMeanDays[userIndex];
         // date difference in days
         double deviation = days - mean;
         return Math.signum(deviation) * Math.pow(Math.abs(deviation), beta);
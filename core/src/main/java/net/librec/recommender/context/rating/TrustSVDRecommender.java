@@ -80,7 +80,7 @@ public class TrustSVDRecommender extends SocialRecommender {
     /**
      * Guava cache configuration
      */
-    protected static String cacheSpec;
+    protected String cacheSpec;
 
     /**
      * initial the model
@@ -137,7 +137,8 @@ public class TrustSVDRecommender extends SocialRecommender {
      */
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
             loss = 0.0d;
 
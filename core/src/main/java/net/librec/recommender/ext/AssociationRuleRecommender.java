@@ -17,20 +17,11 @@
  */
 package net.librec.recommender.ext;
 
-import com.clearspring.analytics.util.Lists;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
-import net.librec.recommender.AbstractRecommender;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.recommender.ItemCooccurrence;
 import net.librec.recommender.MatrixRecommender;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * Choonho Kim and Juntae Kim, <strong>A Recommendation Algorithm Using Multi-Level Association Rules</strong>, WI 2003.
  * <p>
@@ -43,21 +34,30 @@ import java.util.Map;
 public class AssociationRuleRecommender extends MatrixRecommender {
 
     /**
-     * confidence matrix of association rules
+     * confidences of the association rules, grouped by consequent
      */
-    private SequentialAccessSparseMatrix associations;
+    private ItemCooccurrence.Rules associations;
 
-    private DenseMatrix userItemRates;
+    /**
+     * rated items and ratings of every user, items sorted
+     */
+    private int[][] userItems;
+    private double[][] userRatings;
 
-    // /**
-    // * user-vector cache, item-vector cache
-    // */
-    // protected LoadingCache<Integer, SparseVector> userCache;
+    /**
+     * ratings of the last predicted user of every thread, scattered over all items
+     */
+    private ThreadLocal<UserRatings> denseUserRatings;
 
-    // /**
-    // * Guava cache configuration
-    // */
-    // protected static String cacheSpec;
+    /**
+     * number of rules kept per item, all if not positive
+     */
+    private int numRules;
+
+    /**
+     * number of threads counting the co-occurrences
+     */
+    private int numThreads;
 
     /**
      * setup
@@ -67,56 +67,28 @@ public class AssociationRuleRecommender extends MatrixRecommender {
     @Override
     protected void setup() throws LibrecException {
         super.setup();
-        // cacheSpec = conf.get("guava.cache.spec",
-        // "maximumSize=200,expireAfterAccess=2m");
+        numRules = conf.getInt("rec.association.rule.topk", 0);
+        numThreads = conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors());
 
-        userItemRates = new DenseMatrix(trainMatrix.rowSize(), trainMatrix.columnSize());
-        for (MatrixEntry entry : trainMatrix) {
-            userItemRates.set(entry.row(), entry.column(), entry.get());
+        userItems = new int[numUsers][];
+        userRatings = new double[numUsers][];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            SequentialSparseVector userVector = trainMatrix.row(userIdx);
+            userItems[userIdx] = userVector.getIndices().clone();
+            userRatings[userIdx] = new double[userItems[userIdx].length];
+            for (int position = 0; position < userItems[userIdx].length; position++) {
+                userRatings[userIdx][position] = userVector.getAtPosition(position);
+            }
         }
-        // userCache = trainMatrix.rowCache(cacheSpec);
+        denseUserRatings = ThreadLocal.withInitial(() -> new UserRatings(numItems));
     }
 
     @Override
     public void trainModel() throws LibrecException {
-        // plus to adapt to 3.0
-        List<Map<Integer, Integer>> userItemsPosList = Lists.newArrayList();
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            Map<Integer, Integer> itemIndexPosMap = Maps.newHashMap();
-            int[] itemIndices = trainMatrix.row(userIdx).getIndices();
-            for (int i = 0; i < itemIndices.length; i++) {
-                itemIndexPosMap.put(itemIndices[i], i);
-            }
-            userItemsPosList.add(itemIndexPosMap);
-        }
-
-        // simple rule: X => Y, given that each user vector is regarded as a
-        // transaction
-        Table<Integer, Integer, Double> associationTable = HashBasedTable.create(numItems, numItems);
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            // all transactions for item itemIdx
-            SequentialSparseVector userRatingsVector = trainMatrix.column(itemIdx);
-            int userCount = userRatingsVector.size();
-
-            for (int assoItemIdx = 0; assoItemIdx < numItems; assoItemIdx++) {
-                // compute confidence where containing item assoItemIdx among
-                // userRatingsVector
-                int count = 0;
-                for (Vector.VectorEntry vectorEntry : userRatingsVector) {
-                    int userIdx = vectorEntry.index();
-                    Map<Integer, Integer> currItemIndexPosMap = userItemsPosList.get(userIdx);
-                    if (currItemIndexPosMap.get(assoItemIdx) != null) {
-                        count++;
-                    }
-                }
-
-                if (count > 0) {
-                    double confidence = (count + 0.0) / userCount;
-                    associationTable.put(itemIdx, assoItemIdx, confidence);
-                }
-            }
-        }
-        associations = new SequentialAccessSparseMatrix(numItems, numItems, associationTable);
+        // simple rule: X => Y, given that each user vector is regarded as a transaction
+        ItemCooccurrence cooccurrence = new ItemCooccurrence(trainMatrix, numThreads);
+        associations = cooccurrence.rules((antecedent, consequent, count) ->
+                (count + 0.0) / cooccurrence.getSupport(antecedent), numRules, true, numThreads);
     }
 
     /**
@@ -129,15 +101,40 @@ public class AssociationRuleRecommender extends MatrixRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
+        double[] ratings = denseUserRatings.get().of(userIdx);
 
         double predictRatings = 0;
-        for (Vector.VectorEntry mapEntry : associations.column(itemIdx)) {
-            int assoItemIdx = mapEntry.index();
-            double support = mapEntry.get();
-            double value = userItemRates.get(userIdx, assoItemIdx);
-            predictRatings += value * support;
+        for (int position = associations.start(itemIdx); position < associations.end(itemIdx); position++) {
+            predictRatings += ratings[associations.antecedent(position)] * associations.score(position);
         }
 
         return predictRatings;
     }
+
+    /**
+     * Dense ratings of one user, replaced when another user is predicted.
+     */
+    private class UserRatings {
+        private final double[] ratings;
+        private int userIdx = -1;
+
+        private UserRatings(int numItems) {
+            ratings = new double[numItems];
+        }
+
+        private double[] of(int newUserIdx) {
+            if (newUserIdx != userIdx) {
+                if (userIdx >= 0) {
+                    for (int itemIdx : userItems[userIdx]) {
+                        ratings[itemIdx] = 0.0d;
+                    }
+                }
+                for (int position = 0; position < userItems[newUserIdx].length; position++) {
+                    ratings[userItems[newUserIdx][position]] = userRatings[newUserIdx][position];
+                }
+                userIdx = newUserIdx;
+            }
+            return ratings;
+        }
+    }
 }
@@ -97,7 +97,8 @@ public class PRankDRecommender extends RankSGDRecommender {
      */
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
 
             loss = 0.0d;
             // for each rated user-item (u,i) pair
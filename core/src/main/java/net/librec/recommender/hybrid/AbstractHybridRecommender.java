@@ -6,6 +6,7 @@ import net.librec.conf.HybridConfiguration;
 import net.librec.data.model.AbstractDataModel;
 import net.librec.data.structure.AbstractBaseDataEntry;
 import net.librec.data.structure.LibrecDataList;
+import net.librec.eval.EvalStatistics;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.SequentialSparseVector;
@@ -363,6 +364,16 @@ public abstract class AbstractHybridRecommender extends AbstractRecommender {
         return hybridConf;
     }
 
+    /**
+     * Synchronized data models share their folds, so the statistics of the first recommender hold for all.
+     *
+     * @return evaluation statistics of the first recommender
+     */
+    @Override
+    public EvalStatistics getEvalStatistics() {
+        return recommenders == null || recommenders.isEmpty() ? null : recommenders.get(0).getEvalStatistics();
+    }
+
     protected abstract double handleSingleRecommendedItem(int i, double value);
 
     protected abstract ArrayList<RecommendedItem> handleRecommendedItems(AbstractRecommender recommender, ArrayList<RecommendedItem> commonElements) throws LibrecException;
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.hybrid;
+
+import net.librec.common.LibrecException;
+import net.librec.data.structure.AbstractBaseDataEntry;
+import net.librec.data.structure.LibrecDataList;
+import net.librec.eval.EvalStatistics;
+import net.librec.math.structure.DataSet;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * A member of a synchronized hybrid replaying the predictions a trained member made on its fold,
+ * as stored by the {@link MemberModelCache}.
+ * <p>
+ * A hybrid only asks its members for their ranking or for their ratings of the test set,
+ * so these predictions stand in for the trained model. They are read by absolute position from
+ * buffers, views of the memory-mapped cache entry or of the arrays just stored.
+ */
+public class CachedMemberRecommender extends AbstractRecommender {
+    private final boolean ranking;
+
+    /**
+     * the predictions of context {@code c} are at positions {@code contextOffsets[c]} to {@code contextOffsets[c + 1]}
+     */
+    private final IntBuffer contextOffsets;
+    private final IntBuffer keys;
+    private final DoubleBuffer values;
+
+    private final EvalStatistics cachedEvalStatistics;
+
+    CachedMemberRecommender(boolean ranking, IntBuffer contextOffsets, IntBuffer keys, DoubleBuffer values, EvalStatistics evalStatistics) {
+        this.ranking = ranking;
+        this.contextOffsets = contextOffsets;
+        this.keys = keys;
+        this.values = values;
+        this.cachedEvalStatistics = evalStatistics;
+    }
+
+    @Override
+    protected void setup() throws LibrecException {
+        super.setup();
+        evalStatistics = cachedEvalStatistics;
+    }
+
+    @Override
+    public void trainModel() throws LibrecException {
+    }
+
+    /**
+     * @return a new list of the cached predictions, hybrids modify the lists of their members
+     */
+    private RecommendedList toRecommendedList() {
+        int numContexts = contextOffsets.limit() - 1;
+        RecommendedList recommendedList = new RecommendedList(numContexts);
+        for (int contextIdx = 0; contextIdx < numContexts; contextIdx++) {
+            int start = contextOffsets.get(contextIdx), end = contextOffsets.get(contextIdx + 1);
+            ArrayList<KeyValue<Integer, Double>> elements = new ArrayList<>(end - start);
+            for (int position = start; position < end; position++) {
+                elements.add(new KeyValue<>(keys.get(position), values.get(position)));
+            }
+            recommendedList.addList(elements);
+        }
+        return recommendedList;
+    }
+
+    @Override
+    public RecommendedList recommendRating(DataSet predictDataSet) throws LibrecException {
+        if (ranking) {
+            throw new LibrecException("the cached member holds a ranking, not ratings");
+        }
+        return toRecommendedList();
+    }
+
+    @Override
+    public RecommendedList recommendRank() throws LibrecException {
+        if (!ranking) {
+            throw new LibrecException("the cached member holds ratings, not a ranking");
+        }
+        return toRecommendedList();
+    }
+
+    @Override
+    public RecommendedList recommendRating(LibrecDataList<AbstractBaseDataEntry> dataList) throws LibrecException {
+        throw new LibrecException("the cached member only predicts its test set");
+    }
+
+    @Override
+    public RecommendedList recommendRank(LibrecDataList<AbstractBaseDataEntry> dataList) throws LibrecException {
+        throw new LibrecException("the cached member only predicts its test set");
+    }
+
+    boolean isRanking() {
+        return ranking;
+    }
+
+    IntBuffer getContextOffsets() {
+        return contextOffsets;
+    }
+
+    IntBuffer getKeys() {
+        return keys;
+    }
+
+    DoubleBuffer getValues() {
+        return values;
+    }
+
+    EvalStatistics getCachedEvalStatistics() {
+        return cachedEvalStatistics;
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.hybrid;
+
+import com.google.common.collect.BiMap;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.eval.EvalStatistics;
+import net.librec.math.structure.DataSet;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SparseTensor;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.util.FileUtil;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Content addressed on-disk cache of the members of synchronized hybrids, shared between runs.
+ * <p>
+ * A member is keyed by the SHA-256 of its configuration, of the train, test and validation data and
+ * id mappings of its fold and of the data its similarities are built on. The entry of a key holds the
+ * predictions the trained member made on its fold, its ranking or its ratings of the test set, and its
+ * evaluation statistics, which is all a hybrid asks its members for. Re-running a hybrid with one
+ * changed member therefore trains that member only. A loaded member reads its predictions from the
+ * memory-mapped entry, an unreadable entry is dropped and its member trained again.
+ * <p>
+ * The cache is enabled by setting {@code rec.hybrid.cache.dir} in the hybrid configuration; the entries
+ * not read for the longest time are dropped when they exceed {@code rec.hybrid.cache.size} MB, 1024 by default.
+ * Jobs sharing the directory, in this or other processes, evict one at a time under a lock on the directory.
+ */
+public class MemberModelCache {
+    private static final Log LOG = LogFactory.getLog(MemberModelCache.class);
+
+    public static final String CONF_CACHE_DIR = "rec.hybrid.cache.dir";
+
+    public static final String CONF_CACHE_SIZE = "rec.hybrid.cache.size";
+
+    private static final int MAGIC = 0x4c52434d;
+
+    /**
+     * version of the entry layout and of the key, change it when either changes
+     */
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".member";
+
+    private static final String LOCK_FILE = ".lock";
+
+    /**
+     * file locks are held by processes, the jobs of this process take turns on this monitor first
+     */
+    private static final Object EVICTION_LOCK = new Object();
+
+    /**
+     * properties the jobs and recommenders set while running
+     */
+    private static final Set<String> RUNTIME_PROPERTIES = new HashSet<>(Arrays.asList(
+            "rec.job.id", "rec.recommender.similarity.key", "train.current.progress"));
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    public MemberModelCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+    }
+
+    /**
+     * Create the cache configured in the given hybrid configuration.
+     *
+     * @param conf hybrid configuration
+     * @return the cache, or null if the configuration does not enable it
+     */
+    public static MemberModelCache fromConfiguration(Configuration conf) {
+        String directory = conf.get(CONF_CACHE_DIR);
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+        return new MemberModelCache(new File(directory), conf.getLong(CONF_CACHE_SIZE, 1024L) * FileUtil.ONE_MB);
+    }
+
+    /**
+     * Digest of the data a member is trained and evaluated on.
+     *
+     * @param dataModel data model at the fold of the member
+     * @return the digest, or null if the data sets can not be digested
+     */
+    public static String digest(DataModel dataModel) {
+        Digester digester = new Digester();
+        if (!digester.update(dataModel.getTrainDataSet()) || !digester.update(dataModel.getTestDataSet())
+                || !digester.update(dataModel.getValidDataSet())) {
+            return null;
+        }
+        digester.update(dataModel.getUserMappingData());
+        digester.update(dataModel.getItemMappingData());
+        return digester.hex();
+    }
+
+    /**
+     * Digest of the data similarities are built on.
+     *
+     * @param trainMatrix train matrix of the fold the similarities are built on
+     * @return the digest
+     */
+    public static String digest(SequentialAccessSparseMatrix trainMatrix) {
+        Digester digester = new Digester();
+        digester.update(trainMatrix);
+        return digester.hex();
+    }
+
+    /**
+     * Key of a member.
+     *
+     * @param memberConf       configuration of the member
+     * @param dataDigest       digest of the data model of the member, see {@link #digest(DataModel)}
+     * @param similarityDigest digest of the data the similarities of the member are built on, or null
+     * @param ranking          whether the hybrid ranks or rates
+     * @return the key
+     */
+    public static String key(Configuration memberConf, String dataDigest, String similarityDigest, boolean ranking) {
+        Map<String, String> properties = new TreeMap<>();
+        for (Map.Entry<String, String> entry : memberConf) {
+            // the metrics and checkpoints of a job do not change what its members predict
+            if (!entry.getKey().endsWith(".read.ready") && !RUNTIME_PROPERTIES.contains(entry.getKey())
+                    && !entry.getKey().startsWith("rec.metrics.") && !entry.getKey().startsWith("rec.checkpoint.")) {
+                properties.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Digester digester = new Digester();
+        digester.update("version=" + VERSION + "\nconf=" + properties + "\ndata=" + dataDigest
+                + "\nsimilarities=" + similarityDigest + "\nranking=" + ranking);
+        return digester.hex();
+    }
+
+    /**
+     * Key of a member trained on the given data model. Jobs key the members they share in memory
+     * with the same key, so the in-memory cache of a sweep sits in front of this one.
+     *
+     * @param memberConf       configuration of the member
+     * @param dataModel        data model at the fold of the member
+     * @param similarityDigest digest of the data the similarities of the member are built on, or null
+     * @param ranking          whether the hybrid ranks or rates
+     * @return the key, or null if the data sets can not be digested
+     */
+    public static String key(Configuration memberConf, DataModel dataModel, String similarityDigest, boolean ranking) {
+        String dataDigest = digest(dataModel);
+        return dataDigest == null ? null : key(memberConf, dataDigest, similarityDigest, ranking);
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    /**
+     * Load the member of a key.
+     *
+     * @param key     key of the member
+     * @param context context the member would be trained with
+     * @return the cached member, or null if the key is not cached
+     * @throws LibrecException if the cached member can not be set up with the context
+     */
+    public AbstractRecommender load(String key, RecommenderContext context) throws LibrecException {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        CachedMemberRecommender member;
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            member = read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Dropping the unreadable cached member " + file, e);
+            file.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        member.train(context);
+        LOG.info("Loaded the cached member " + key + " of " + context.getConf().get("rec.recommender.class"));
+        return member;
+    }
+
+    /**
+     * Store the predictions of a trained member under a key.
+     *
+     * @param key     key of the member
+     * @param member  the trained member
+     * @param context context the member was trained with
+     * @param ranking whether the hybrid ranks or rates
+     * @return a cached member replaying the predictions of the trained member
+     * @throws LibrecException if the member fails to predict
+     */
+    public AbstractRecommender store(String key, AbstractRecommender member, RecommenderContext context, boolean ranking) throws LibrecException {
+        RecommendedList recommendedList = ranking ? member.recommendRank()
+                : member.recommendRating(context.getDataModel().getTestDataSet());
+        int numContexts = recommendedList.size();
+        int[] contextOffsets = new int[numContexts + 1];
+        for (int contextIdx = 0; contextIdx < numContexts; contextIdx++) {
+            contextOffsets[contextIdx + 1] = contextOffsets[contextIdx] + recommendedList.getKeyValueListByContext(contextIdx).size();
+        }
+        int[] keys = new int[contextOffsets[numContexts]];
+        double[] values = new double[contextOffsets[numContexts]];
+        for (int contextIdx = 0; contextIdx < numContexts; contextIdx++) {
+            int position = contextOffsets[contextIdx];
+            for (KeyValue<Integer, Double> element : recommendedList.getKeyValueListByContext(contextIdx)) {
+                keys[position] = element.getKey();
+                values[position++] = element.getValue();
+            }
+        }
+        CachedMemberRecommender cachedMember = new CachedMemberRecommender(ranking, IntBuffer.wrap(contextOffsets),
+                IntBuffer.wrap(keys), DoubleBuffer.wrap(values), member.getEvalStatistics());
+        try {
+            write(cachedMember, file(key));
+            evict(key);
+        } catch (IOException e) {
+            LOG.warn("Could not cache the member " + key, e);
+        }
+        cachedMember.train(context);
+        return cachedMember;
+    }
+
+    private void write(CachedMemberRecommender member, File file) throws IOException {
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeBoolean(member.isRanking());
+            EvalStatistics evalStatistics = member.getCachedEvalStatistics();
+            output.writeBoolean(evalStatistics != null);
+            if (evalStatistics != null) {
+                output.writeInt(evalStatistics.getMaxNumTestItems());
+                output.writeInt(evalStatistics.getNumItems());
+                writeInts(output, evalStatistics.getNumDroppedItems());
+                writeInts(output, evalStatistics.getItemPurchaseCounts());
+            }
+            writeInts(output, member.getContextOffsets());
+            writeInts(output, member.getKeys());
+            DoubleBuffer values = member.getValues();
+            output.writeInt(values.limit());
+            for (int position = 0; position < values.limit(); position++) {
+                output.writeDouble(values.get(position));
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeInts(DataOutputStream output, int[] array) throws IOException {
+        writeInts(output, IntBuffer.wrap(array));
+    }
+
+    private static void writeInts(DataOutputStream output, IntBuffer ints) throws IOException {
+        output.writeInt(ints.limit());
+        for (int position = 0; position < ints.limit(); position++) {
+            output.writeInt(ints.get(position));
+        }
+    }
+
+    /**
+     * Read an entry, the predictions are views of the given buffer.
+     *
+     * @param buffer the entry
+     * @return the cached member
+     * @throws IOException if the entry is not a complete entry of this version
+     */
+    private static CachedMemberRecommender read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("not a cached member of version " + VERSION);
+        }
+        boolean ranking = buffer.get() != 0;
+        EvalStatistics evalStatistics = null;
+        if (buffer.get() != 0) {
+            int maxNumTestItems = buffer.getInt();
+            int numItems = buffer.getInt();
+            int[] numDroppedItems = readInts(buffer);
+            int[] itemPurchaseCounts = readInts(buffer);
+            evalStatistics = new EvalStatistics(numDroppedItems, maxNumTestItems, numItems, itemPurchaseCounts);
+        }
+        IntBuffer contextOffsets = sliceInts(buffer);
+        IntBuffer keys = sliceInts(buffer);
+        int numValues = checkLength(buffer, 8);
+        DoubleBuffer values = buffer.slice().asDoubleBuffer();
+        values.limit(numValues);
+        buffer.position(buffer.position() + 8 * numValues);
+        if (buffer.hasRemaining() || contextOffsets.limit() == 0 || contextOffsets.get(0) != 0
+                || contextOffsets.get(contextOffsets.limit() - 1) != keys.limit() || keys.limit() != numValues) {
+            throw new IOException("inconsistent cached member");
+        }
+        return new CachedMemberRecommender(ranking, contextOffsets, keys, values, evalStatistics);
+    }
+
+    /**
+     * Read the length of the next array of the buffer.
+     *
+     * @param buffer      the buffer
+     * @param elementSize bytes per element of the array
+     * @return the length
+     * @throws IOException if the buffer is too short for the array
+     */
+    private static int checkLength(ByteBuffer buffer, int elementSize) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || buffer.remaining() < (long) elementSize * length) {
+            throw new IOException("truncated cached member");
+        }
+        return length;
+    }
+
+    private static IntBuffer sliceInts(ByteBuffer buffer) throws IOException {
+        int length = checkLength(buffer, 4);
+        IntBuffer ints = buffer.slice().asIntBuffer();
+        ints.limit(length);
+        buffer.position(buffer.position() + 4 * length);
+        return ints;
+    }
+
+    private static int[] readInts(ByteBuffer buffer) throws IOException {
+        int[] array = new int[checkLength(buffer, 4)];
+        buffer.asIntBuffer().get(array);
+        buffer.position(buffer.position() + 4 * array.length);
+        return array;
+    }
+
+    /**
+     * Drop the entries read least recently until the cache fits its size, keeping the given key.
+     *
+     * @param keep key of the entry just written
+     * @throws IOException if the directory can not be locked
+     */
+    void evict(String keep) throws IOException {
+        synchronized (EVICTION_LOCK) {
+            try (FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+                if (files == null) {
+                    return;
+                }
+                long totalBytes = 0L;
+                for (File file : files) {
+                    totalBytes += file.length();
+                }
+                if (totalBytes <= maxBytes) {
+                    return;
+                }
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                for (File file : files) {
+                    if (totalBytes <= maxBytes) {
+                        break;
+                    }
+                    if (!file.getName().equals(keep + SUFFIX)) {
+                        long length = file.length();
+                        if (file.delete()) {
+                            totalBytes -= length;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * SHA-256 over data sets and id mappings, fed through a buffer.
+     */
+    private static class Digester {
+        private final MessageDigest messageDigest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        Digester() {
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void flush(int needed) {
+            if (buffer.remaining() < needed) {
+                messageDigest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+
+        private void putInt(int value) {
+            flush(4);
+            buffer.putInt(value);
+        }
+
+        private void putDouble(double value) {
+            flush(8);
+            buffer.putDouble(value);
+        }
+
+        void update(String text) {
+            flush(buffer.capacity());
+            messageDigest.update(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return false if the data set is of a type that can not be digested
+         */
+        boolean update(DataSet dataSet) {
+            if (dataSet == null) {
+                putInt(-1);
+            } else if (dataSet instanceof SequentialAccessSparseMatrix) {
+                SequentialAccessSparseMatrix matrix = (SequentialAccessSparseMatrix) dataSet;
+                putInt(matrix.rowSize());
+                putInt(matrix.columnSize());
+                for (MatrixEntry matrixEntry : matrix) {
+                    putInt(matrixEntry.row());
+                    putInt(matrixEntry.column());
+                    putDouble(matrixEntry.get());
+                }
+            } else if (dataSet instanceof SparseTensor) {
+                SparseTensor tensor = (SparseTensor) dataSet;
+                for (int dimension : tensor.dimensions()) {
+                    putInt(dimension);
+                }
+                for (int index = 0; index < tensor.size(); index++) {
+                    for (int key : tensor.keys(index)) {
+                        putInt(key);
+                    }
+                    putDouble(tensor.value(index));
+                }
+            } else {
+                return false;
+            }
+            putInt(-2);
+            return true;
+        }
+
+        void update(BiMap<String, Integer> mapping) {
+            if (mapping == null) {
+                update("null");
+                return;
+            }
+            BiMap<Integer, String> inverse = mapping.inverse();
+            StringBuilder ids = new StringBuilder();
+            for (int innerId = 0; innerId < mapping.size(); innerId++) {
+                ids.append(inverse.get(innerId)).append('\n');
+            }
+            update(ids.toString());
+        }
+
+        String hex() {
+            flush(buffer.capacity());
+            StringBuilder hex = new StringBuilder();
+            for (byte b : messageDigest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.nn;
+
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+
+/**
+ * Rows of a sparse training matrix served as dense minibatches to the autoencoder recommenders.
+ * <p>
+ * The rows are kept in compressed sparse rows and only the rows of one minibatch are expanded at a time, so
+ * the dense {@code numRows x numColumns} matrix is never built unless the whole matrix is a single batch.
+ * The same expansion serves the batched forward passes that cache the predictions after training.
+ */
+public class SparseRowBatches {
+    private final int numRows, numColumns;
+
+    /**
+     * compressed sparse rows of the matrix
+     */
+    private final int[] rowPointers, columnIndices;
+    private final double[] values;
+
+    private final int batchSize;
+
+    /**
+     * order in which the rows are batched, shuffled between epochs
+     */
+    private final int[] order;
+
+    /**
+     * @param matrix    sparse matrix
+     * @param byColumn  whether the rows of the batches are the columns of the matrix
+     * @param batchSize number of rows per batch, all rows if not positive
+     */
+    public SparseRowBatches(SequentialAccessSparseMatrix matrix, boolean byColumn, int batchSize) {
+        numRows = byColumn ? matrix.columnSize() : matrix.rowSize();
+        numColumns = byColumn ? matrix.rowSize() : matrix.columnSize();
+
+        rowPointers = new int[numRows + 1];
+        for (MatrixEntry matrixEntry : matrix) {
+            rowPointers[(byColumn ? matrixEntry.column() : matrixEntry.row()) + 1]++;
+        }
+        for (int row = 0; row < numRows; row++) {
+            rowPointers[row + 1] += rowPointers[row];
+        }
+        columnIndices = new int[rowPointers[numRows]];
+        values = new double[rowPointers[numRows]];
+        int[] rowFill = Arrays.copyOf(rowPointers, numRows);
+        for (MatrixEntry matrixEntry : matrix) {
+            int position = rowFill[byColumn ? matrixEntry.column() : matrixEntry.row()]++;
+            columnIndices[position] = byColumn ? matrixEntry.row() : matrixEntry.column();
+            values[position] = matrixEntry.get();
+        }
+
+        this.batchSize = batchSize > 0 ? Math.min(batchSize, Math.max(1, numRows)) : Math.max(1, numRows);
+        order = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            order[row] = row;
+        }
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return number of columns, the width of a batch
+     */
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @return number of batches of an epoch
+     */
+    public int getNumBatches() {
+        return (numRows + batchSize - 1) / batchSize;
+    }
+
+    /**
+     * Shuffle the rows among the batches, nothing to do with a single batch.
+     */
+    public void shuffle() {
+        if (getNumBatches() < 2) {
+            return;
+        }
+        for (int position = numRows - 1; position > 0; position--) {
+            int other = Randoms.uniform(position + 1);
+            int row = order[position];
+            order[position] = order[other];
+            order[other] = row;
+        }
+    }
+
+    /**
+     * @param batch batch of the current epoch
+     * @return the rows of the batch
+     */
+    public int[] getBatchRows(int batch) {
+        return Arrays.copyOfRange(order, batch * batchSize, Math.min(numRows, (batch + 1) * batchSize));
+    }
+
+    /**
+     * @param rows rows to expand
+     * @return the values of the rows, dense {@code rows.length x numColumns}
+     */
+    public INDArray features(int[] rows) {
+        return dense(rows, false);
+    }
+
+    /**
+     * @param rows rows to expand
+     * @return the indicator of the non-zero entries of the rows, dense {@code rows.length x numColumns}
+     */
+    public INDArray mask(int[] rows) {
+        return dense(rows, true);
+    }
+
+    private INDArray dense(int[] rows, boolean indicator) {
+        double[] data = new double[rows.length * numColumns];
+        for (int position = 0; position < rows.length; position++) {
+            int row = rows[position];
+            int offset = position * numColumns;
+            for (int entry = rowPointers[row]; entry < rowPointers[row + 1]; entry++) {
+                data[offset + columnIndices[entry]] = indicator ? 1.0d : values[entry];
+            }
+        }
+        return Nd4j.create(data, new int[]{rows.length, numColumns});
+    }
+}
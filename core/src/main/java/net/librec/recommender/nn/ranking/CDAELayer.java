@@ -81,8 +81,7 @@ public class CDAELayer extends FeedForwardLayer {
         //For more complex layers, you may need to implement a custom parameter initializer
         //See the various parameter initializers here:
         //https://github.com/deeplearning4j/deeplearning4j/tree/master/deeplearning4j-core/src/main/java/org/deeplearning4j/nn/params
-        CDAEParamInitializer.numUsers = this.numUsers;
-        return CDAEParamInitializer.getInstance();
+        return new CDAEParamInitializer(numUsers);
     }
 
     @Override
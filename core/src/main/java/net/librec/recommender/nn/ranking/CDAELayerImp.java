@@ -35,11 +35,22 @@ import java.util.Arrays;
  * @author Ma Chen
  */
 public class CDAELayerImp extends BaseLayer<CDAELayer> {
+    /**
+     * users of the rows of the current input, all users in order if null
+     */
+    private int[] batchUsers;
 
     public CDAELayerImp(NeuralNetConfiguration conf) {
         super(conf);
     }
 
+    /**
+     * @param batchUsers users of the rows of the next input, all users in order if null
+     */
+    public void setBatchUsers(int[] batchUsers) {
+        this.batchUsers = batchUsers;
+    }
+
     @Override
     public INDArray preOutput(INDArray x, boolean training) {
         if (x == null) {
@@ -82,8 +93,8 @@ public class CDAELayerImp extends BaseLayer<CDAELayer> {
             W = Dropout.applyDropConnect(this, CDAEParamInitializer.WEIGHT_KEY);
         }
 
-        // modified preOut: WX + V + b
-        INDArray ret = input.mmul(W).addi(U).addiRowVector(b);
+        // modified preOut: WX + V + b, V the user weights of the batch
+        INDArray ret = input.mmul(W).addi(batchUsers == null ? U : U.getRows(batchUsers)).addiRowVector(b);
 
         if (maskArray != null) {
             applyMask(ret);
@@ -122,7 +133,14 @@ public class CDAELayerImp extends BaseLayer<CDAELayer> {
         INDArray weightGrad = gradientViews.get(CDAEParamInitializer.WEIGHT_KEY); //f order
         Nd4j.gemm(input, delta, weightGrad, true, false, 1.0, 0.0);
         INDArray userWeightGrad = gradientViews.get(CDAEParamInitializer.USER_WEIGHT_KEY); //f order
-        userWeightGrad.assign(delta);
+        if (batchUsers == null) {
+            userWeightGrad.assign(delta);
+        } else {
+            userWeightGrad.assign(0);
+            for (int position = 0; position < batchUsers.length; position++) {
+                userWeightGrad.putRow(batchUsers[position], delta.getRow(position));
+            }
+        }
         INDArray biasGrad = gradientViews.get(CDAEParamInitializer.BIAS_KEY);
         biasGrad.assign(delta.sum(0)); //biasGrad is initialized/zeroed first
 
@@ -33,15 +33,14 @@ import java.util.Map;
  * @author Ma Chen
  */
 public class CDAEParamInitializer extends DefaultParamInitializer {
-    private static final CDAEParamInitializer INSTANCE = new CDAEParamInitializer();
     public static final String USER_WEIGHT_KEY = "uw";
-    public static int numUsers = 0;
+    private final int numUsers;
 
-    public CDAEParamInitializer() {
-    }
-
-    public static CDAEParamInitializer getInstance() {
-        return INSTANCE;
+    /**
+     * @param numUsers number of users, the rows of the user weight matrix
+     */
+    public CDAEParamInitializer(int numUsers) {
+        this.numUsers = numUsers;
     }
 
     public int numParams(NeuralNetConfiguration conf) {
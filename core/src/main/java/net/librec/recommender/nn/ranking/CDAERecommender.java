@@ -21,6 +21,7 @@ import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.nn.SparseRowBatches;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -30,9 +31,11 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
 /**
  * Yao et al., <strong>Collaborative Denoising Auto-Encoders for Top-N Recommender Systems, WSDM 2016.
  *
@@ -40,6 +43,11 @@ import org.nd4j.linalg.lossfunctions.LossFunctions;
  */
 @ModelData({"isRanking", "cdae", "CDAEModel", "predictedMatrix"})
 public class CDAERecommender extends MatrixRecommender {
+    /**
+     * number of users reconstructed per forward pass when caching the predictions
+     */
+    private static final int PREDICT_BATCH_SIZE = 256;
+
     /**
      * the dimension of input units
      */
@@ -86,14 +94,19 @@ public class CDAERecommender extends MatrixRecommender {
     private MultiLayerNetwork CDAEModel;
 
     /**
-     * the data structure that stores the training data
+     * the number of users per minibatch, all users if not positive
+     */
+    private int batchSize;
+
+    /**
+     * the rating vectors of the users, expanded to dense minibatches on demand
      */
-    private INDArray trainSet;
+    private SparseRowBatches trainSet;
 
     /**
-     * the data structure that stores the predicted data
+     * the predicted scores of all users, indexed [user][item], zero for the training items
      */
-    private INDArray predictedMatrix;
+    private float[][] predictedMatrix;
 
 
     @Override
@@ -106,14 +119,10 @@ public class CDAERecommender extends MatrixRecommender {
         numIterations = conf.getInt("rec.iterator.maximum");
         hiddenActivation = conf.get("rec.hidden.activation");
         outputActivation = conf.get("rec.output.activation");
+        batchSize = conf.getInt("rec.iterator.batch.size", 0);
 
-        // transform the sparse matrix to INDArray
-        // the sparse training matrix has been binarized
-        int[] matrixShape = {numUsers, numItems};
-        trainSet = Nd4j.zeros(matrixShape);
-        for (MatrixEntry me: trainMatrix) {
-            trainSet.put(me.row(), me.column(), me.get());
-        }
+        // user rows of the sparse matrix, which has been binarized
+        trainSet = new SparseRowBatches(trainMatrix, false, batchSize);
     }
 
     @Override
@@ -141,12 +150,23 @@ public class CDAERecommender extends MatrixRecommender {
 
         CDAEModel = new MultiLayerNetwork(conf);
         CDAEModel.init();
+        CDAELayerImp userLayer = (CDAELayerImp) CDAEModel.getLayer(0);
+
+        // a single batch is expanded once, its rows are all users in order
+        int numBatches = trainSet.getNumBatches();
+        INDArray fullRatings = numBatches == 1 ? trainSet.features(trainSet.getBatchRows(0)) : null;
 
         for (int iter = 1; iter <= numIterations; iter++) {
             loss = 0.0d;
 
-            CDAEModel.fit(trainSet, trainSet);
-            loss = CDAEModel.score();
+            trainSet.shuffle();
+            for (int batch = 0; batch < numBatches; batch++) {
+                int[] users = trainSet.getBatchRows(batch);
+                INDArray ratings = numBatches == 1 ? fullRatings : trainSet.features(users);
+                userLayer.setBatchUsers(numBatches == 1 ? null : users);
+                CDAEModel.fit(ratings, ratings);
+                loss += CDAEModel.score() * users.length / numUsers;
+            }
 
             if (isConverged(iter) && earlyStop) {
                 break;
@@ -155,15 +175,24 @@ public class CDAERecommender extends MatrixRecommender {
             lastLoss = loss;
         }
 
-        // calculate the predicted ratings and filter out the items that appear in training set
-        predictedMatrix = CDAEModel.output(trainSet);
+        // calculate the predicted ratings in blocks of users and filter out the items that appear in training set
+        predictedMatrix = new float[numUsers][];
+        for (int start = 0; start < numUsers; start += PREDICT_BATCH_SIZE) {
+            int[] users = IntStream.range(start, Math.min(numUsers, start + PREDICT_BATCH_SIZE)).toArray();
+            userLayer.setBatchUsers(users);
+            float[] outputs = CDAEModel.output(trainSet.features(users)).dup('c').data().asFloat();
+            for (int position = 0; position < users.length; position++) {
+                predictedMatrix[users[position]] = Arrays.copyOfRange(outputs, position * numItems, (position + 1) * numItems);
+            }
+        }
+        userLayer.setBatchUsers(null);
         for (MatrixEntry me: trainMatrix) {
-            predictedMatrix.put(me.row(), me.column(), 0);
+            predictedMatrix[me.row()][me.column()] = 0;
         }
     }
 
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        return predictedMatrix.getDouble(userIdx, itemIdx);
+        return predictedMatrix[userIdx][itemIdx];
     }
 }
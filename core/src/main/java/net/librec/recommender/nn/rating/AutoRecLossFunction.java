@@ -29,7 +29,17 @@ import org.nd4j.linalg.primitives.Pair;
  * @author Ma Chen
  */
 public class AutoRecLossFunction implements ILossFunction {
-    public static INDArray trainMask;
+    /**
+     * indicator of the observed ratings of the current batch, only these are reconstructed
+     */
+    private INDArray trainMask;
+
+    /**
+     * @param trainMask indicator of the observed ratings of the next batch to fit
+     */
+    public void setTrainMask(INDArray trainMask) {
+        this.trainMask = trainMask;
+    }
 
     private INDArray scoreArray(INDArray labels, INDArray preOutput, IActivation activationFn, INDArray mask) {
         INDArray scoreArr;
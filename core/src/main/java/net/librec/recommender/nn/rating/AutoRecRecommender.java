@@ -19,27 +19,35 @@ package net.librec.recommender.nn.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.nn.SparseRowBatches;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.Updater;
+import org.deeplearning4j.nn.conf.layers.BaseOutputLayer;
 import org.deeplearning4j.nn.conf.layers.DenseLayer;
 import org.deeplearning4j.nn.conf.layers.OutputLayer;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Suvash et al., <strong>AutoRec: Autoencoders Meet Collaborative Filtering</strong>, WWW Companion 2015.
  *
  * @author Ma Chen
  */
-@ModelData({"isRating", "autorec", "autoRecModel", "trainSet"})
+@ModelData({"isRating", "autorec", "autoRecModel", "predictedMatrix"})
 public class AutoRecRecommender extends MatrixRecommender {
+    /**
+     * number of items reconstructed per forward pass when caching the predictions
+     */
+    private static final int PREDICT_BATCH_SIZE = 256;
+
     /**
      * the dimension of input units
      */
@@ -86,14 +94,19 @@ public class AutoRecRecommender extends MatrixRecommender {
     private MultiLayerNetwork autoRecModel;
 
     /**
-     * the data structure that stores the training data
+     * the number of items per minibatch, all items if not positive
+     */
+    private int batchSize;
+
+    /**
+     * the rating vectors of the items, expanded to dense minibatches on demand
      */
-    private INDArray trainSet;
+    private SparseRowBatches trainSet;
 
     /**
-     * the data structure that indicates which element in the user-item is non-zero
+     * the reconstructed rating vectors of all items, indexed [item][user]
      */
-    private INDArray trainSetMask;
+    private float[][] predictedMatrix;
 
 
     @Override
@@ -106,15 +119,10 @@ public class AutoRecRecommender extends MatrixRecommender {
         numIterations = conf.getInt("rec.iterator.maximum");
         hiddenActivation = conf.get("rec.hidden.activation");
         outputActivation = conf.get("rec.output.activation");
+        batchSize = conf.getInt("rec.iterator.batch.size", 0);
 
-        // transform the sparse matrix to INDArray
-        int[] matrixShape = {numItems, numUsers};
-        trainSet = Nd4j.zeros(matrixShape);
-        trainSetMask = Nd4j.zeros(matrixShape);
-        for (MatrixEntry me: trainMatrix) {
-            trainSet.put(me.column(), me.row(), me.get());
-            trainSetMask.put(me.column(), me.row(), 1);
-        }
+        // item rows of the sparse matrix
+        trainSet = new SparseRowBatches(trainMatrix, true, batchSize);
     }
 
     @Override
@@ -143,24 +151,49 @@ public class AutoRecRecommender extends MatrixRecommender {
 
         autoRecModel = new MultiLayerNetwork(conf);
         autoRecModel.init();
+        AutoRecLossFunction lossFunction = (AutoRecLossFunction)
+                ((BaseOutputLayer) autoRecModel.getOutputLayer().conf().getLayer()).getLossFn();
+
+        // a single batch is expanded once
+        int numBatches = trainSet.getNumBatches();
+        INDArray fullRatings = null, fullMask = null;
+        if (numBatches == 1) {
+            int[] items = trainSet.getBatchRows(0);
+            fullRatings = trainSet.features(items);
+            fullMask = trainSet.mask(items);
+        }
 
         for (int iter = 1; iter <= numIterations; iter++) {
             loss = 0.0d;
 
-            AutoRecLossFunction.trainMask = trainSetMask;
-            autoRecModel.fit(trainSet, trainSet);
-            loss = autoRecModel.score();
+            trainSet.shuffle();
+            for (int batch = 0; batch < numBatches; batch++) {
+                int[] items = trainSet.getBatchRows(batch);
+                INDArray ratings = numBatches == 1 ? fullRatings : trainSet.features(items);
+                lossFunction.setTrainMask(numBatches == 1 ? fullMask : trainSet.mask(items));
+                autoRecModel.fit(ratings, ratings);
+                loss += autoRecModel.score() * items.length / numItems;
+            }
 
             if (isConverged(iter) && earlyStop) {
                 break;
             }
             lastLoss = loss;
         }
+
+        // reconstruct all items once, blocks of items per forward pass
+        predictedMatrix = new float[numItems][];
+        for (int start = 0; start < numItems; start += PREDICT_BATCH_SIZE) {
+            int[] items = IntStream.range(start, Math.min(numItems, start + PREDICT_BATCH_SIZE)).toArray();
+            float[] outputs = autoRecModel.output(trainSet.features(items)).dup('c').data().asFloat();
+            for (int position = 0; position < items.length; position++) {
+                predictedMatrix[items[position]] = Arrays.copyOfRange(outputs, position * numUsers, (position + 1) * numUsers);
+            }
+        }
     }
 
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        INDArray predictedRatingVector = autoRecModel.output(trainSet.getRow(itemIdx));
-        return predictedRatingVector.getDouble(userIdx);
+        return predictedMatrix[itemIdx][userIdx];
     }
 }
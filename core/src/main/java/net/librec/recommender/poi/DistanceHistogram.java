@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.poi;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of distances in bins of equal width, built in one pass over a stream of distances.
+ * Counts are kept in a primitive array grown on demand; histograms of disjoint streams, e.g. one per thread, are
+ * combined by {@link #merge(DistanceHistogram)}.
+ */
+public class DistanceHistogram {
+    private final double binWidth;
+    private long[] counts = new long[64];
+    private int numBins;
+    private long total;
+
+    /**
+     * @param binWidth width of a bin, bin b counts the distances in [b * binWidth, (b + 1) * binWidth)
+     */
+    public DistanceHistogram(double binWidth) {
+        this.binWidth = binWidth;
+    }
+
+    /**
+     * Count a distance.
+     *
+     * @param distance distance, not negative
+     */
+    public void add(double distance) {
+        int bin = (int) (distance / binWidth);
+        if (bin >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(2 * counts.length, bin + 1));
+        }
+        counts[bin]++;
+        numBins = Math.max(numBins, bin + 1);
+        total++;
+    }
+
+    /**
+     * Add the counts of another histogram of the same bin width.
+     *
+     * @param other other histogram
+     * @return this
+     */
+    public DistanceHistogram merge(DistanceHistogram other) {
+        if (other.numBins > counts.length) {
+            counts = Arrays.copyOf(counts, other.numBins);
+        }
+        for (int bin = 0; bin < other.numBins; bin++) {
+            counts[bin] += other.counts[bin];
+        }
+        numBins = Math.max(numBins, other.numBins);
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * @return width of a bin
+     */
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * @return number of bins up to the last one counted
+     */
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * @param bin bin
+     * @return number of distances in the bin
+     */
+    public long getCount(int bin) {
+        return bin < numBins ? counts[bin] : 0L;
+    }
+
+    /**
+     * @return number of distances counted
+     */
+    public long getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.poi;
+
+import net.librec.recommender.item.KeyValue;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index over the locations of the POIs, for exact k nearest neighbor and radius queries by great-circle
+ * distance.
+ * <p>
+ * Every location (latitude, longitude) is stored as a point on the unit sphere. The chord between two points grows
+ * with their great-circle distance, so a k-d tree over the three coordinates answers the queries exactly without a
+ * single trigonometric call. The tree is implicit: the points of a range are ordered so that the median on the axis
+ * of the largest spread sits in the middle, with the smaller half before and the larger after it.
+ */
+public class GeoIndex {
+
+    /**
+     * mean radius of the earth in km
+     */
+    public static final double EARTH_RADIUS = 6371.0d;
+
+    /**
+     * coordinates x, y, z on the unit sphere of every point
+     */
+    private final double[] coordinates;
+
+    /**
+     * points in the order of the implicit tree and the split axis of every node
+     */
+    private final int[] tree;
+    private final byte[] splitAxes;
+
+    /**
+     * Index the locations of a data appender.
+     *
+     * @param locations (latitude, longitude) in degrees of every POI
+     */
+    public GeoIndex(KeyValue<Double, Double>[] locations) {
+        int size = locations.length;
+        coordinates = new double[3 * size];
+        for (int pointIdx = 0; pointIdx < size; pointIdx++) {
+            double latitude = Math.toRadians(locations[pointIdx].getKey());
+            double longitude = Math.toRadians(locations[pointIdx].getValue());
+            coordinates[3 * pointIdx] = Math.cos(latitude) * Math.cos(longitude);
+            coordinates[3 * pointIdx + 1] = Math.cos(latitude) * Math.sin(longitude);
+            coordinates[3 * pointIdx + 2] = Math.sin(latitude);
+        }
+        tree = new int[size];
+        for (int pointIdx = 0; pointIdx < size; pointIdx++) {
+            tree[pointIdx] = pointIdx;
+        }
+        splitAxes = new byte[size];
+        build(0, size);
+    }
+
+    /**
+     * @return number of points
+     */
+    public int size() {
+        return tree.length;
+    }
+
+    /**
+     * @param pointIdx point
+     * @param otherIdx other point
+     * @return great-circle distance in km between the points
+     */
+    public double distance(int pointIdx, int otherIdx) {
+        return toDistance(squaredChord(pointIdx, otherIdx));
+    }
+
+    /**
+     * Find the k points nearest to a point, the point itself excluded.
+     *
+     * @param pointIdx point
+     * @param k        number of neighbors
+     * @return the neighbors, nearest first and ties by ascending index
+     */
+    public int[] nearest(int pointIdx, int k) {
+        Neighbors neighbors = new Neighbors(Math.min(k, size() - 1));
+        if (neighbors.capacity > 0) {
+            searchNearest(0, size(), coordinates[3 * pointIdx], coordinates[3 * pointIdx + 1],
+                    coordinates[3 * pointIdx + 2], pointIdx, neighbors);
+        }
+        return neighbors.sorted();
+    }
+
+    /**
+     * Find the points within a great-circle distance of a point, the point itself excluded.
+     *
+     * @param pointIdx point
+     * @param radius   distance in km
+     * @return the points in range, in ascending order
+     */
+    public int[] withinRadius(int pointIdx, double radius) {
+        double chord = 2.0d * Math.sin(Math.min(radius / EARTH_RADIUS, Math.PI) / 2.0d);
+        int[] found = new int[16];
+        int numFound = 0;
+        // explicit stack of the ranges to visit
+        int[] stack = new int[128];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size();
+        while (top > 0) {
+            int high = stack[--top];
+            int low = stack[--top];
+            if (low >= high) {
+                continue;
+            }
+            int middle = (low + high) >>> 1;
+            int otherIdx = tree[middle];
+            if (otherIdx != pointIdx && squaredChord(pointIdx, otherIdx) <= chord * chord) {
+                if (numFound == found.length) {
+                    found = Arrays.copyOf(found, 2 * numFound);
+                }
+                found[numFound++] = otherIdx;
+            }
+            int axis = splitAxes[middle];
+            double difference = coordinates[3 * pointIdx + axis] - coordinates[3 * otherIdx + axis];
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            if (difference <= chord) {
+                stack[top++] = low;
+                stack[top++] = middle;
+            }
+            if (difference >= -chord) {
+                stack[top++] = middle + 1;
+                stack[top++] = high;
+            }
+        }
+        found = Arrays.copyOf(found, numFound);
+        Arrays.sort(found);
+        return found;
+    }
+
+    private void searchNearest(int low, int high, double x, double y, double z, int pointIdx, Neighbors neighbors) {
+        if (low >= high) {
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        int otherIdx = tree[middle];
+        if (otherIdx != pointIdx) {
+            double dx = x - coordinates[3 * otherIdx];
+            double dy = y - coordinates[3 * otherIdx + 1];
+            double dz = z - coordinates[3 * otherIdx + 2];
+            neighbors.offer(otherIdx, dx * dx + dy * dy + dz * dz);
+        }
+        int axis = splitAxes[middle];
+        double difference = (axis == 0 ? x : axis == 1 ? y : z) - coordinates[3 * otherIdx + axis];
+        if (difference < 0.0d) {
+            searchNearest(low, middle, x, y, z, pointIdx, neighbors);
+            if (difference * difference <= neighbors.bound()) {
+                searchNearest(middle + 1, high, x, y, z, pointIdx, neighbors);
+            }
+        } else {
+            searchNearest(middle + 1, high, x, y, z, pointIdx, neighbors);
+            if (difference * difference <= neighbors.bound()) {
+                searchNearest(low, middle, x, y, z, pointIdx, neighbors);
+            }
+        }
+    }
+
+    private double squaredChord(int pointIdx, int otherIdx) {
+        double dx = coordinates[3 * pointIdx] - coordinates[3 * otherIdx];
+        double dy = coordinates[3 * pointIdx + 1] - coordinates[3 * otherIdx + 1];
+        double dz = coordinates[3 * pointIdx + 2] - coordinates[3 * otherIdx + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double toDistance(double squaredChord) {
+        return 2.0d * EARTH_RADIUS * Math.asin(Math.min(1.0d, Math.sqrt(squaredChord) / 2.0d));
+    }
+
+    /**
+     * Order the points of a range as a subtree.
+     */
+    private void build(int low, int high) {
+        if (high - low <= 1) {
+            return;
+        }
+        int axis = 0;
+        double maxSpread = -1.0d;
+        for (int dimension = 0; dimension < 3; dimension++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int position = low; position < high; position++) {
+                double value = coordinates[3 * tree[position] + dimension];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > maxSpread) {
+                maxSpread = max - min;
+                axis = dimension;
+            }
+        }
+        int middle = (low + high) >>> 1;
+        select(low, high - 1, middle, axis);
+        splitAxes[middle] = (byte) axis;
+        build(low, middle);
+        build(middle + 1, high);
+    }
+
+    /**
+     * Quickselect: move the point of rank {@code target} on the axis to its position in [left, right].
+     */
+    private void select(int left, int right, int target, int axis) {
+        while (left < right) {
+            double pivot = coordinates[3 * tree[(left + right) >>> 1] + axis];
+            int low = left, high = right;
+            while (low <= high) {
+                while (coordinates[3 * tree[low] + axis] < pivot) {
+                    low++;
+                }
+                while (coordinates[3 * tree[high] + axis] > pivot) {
+                    high--;
+                }
+                if (low <= high) {
+                    int pointIdx = tree[low];
+                    tree[low++] = tree[high];
+                    tree[high--] = pointIdx;
+                }
+            }
+            if (target <= high) {
+                right = high;
+            } else if (target >= low) {
+                left = low;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap of the nearest points found so far, by squared chord and then by index.
+     */
+    private static class Neighbors {
+        private final int capacity;
+        private final int[] indices;
+        private final double[] distances;
+        private int size;
+
+        Neighbors(int capacity) {
+            this.capacity = Math.max(0, capacity);
+            indices = new int[this.capacity];
+            distances = new double[this.capacity];
+        }
+
+        /**
+         * @return squared chord a point must not exceed to enter
+         */
+        double bound() {
+            return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(int index, double distance) {
+            if (size < capacity) {
+                indices[size] = index;
+                distances[size] = distance;
+                int position = size++;
+                while (position > 0) {
+                    int parent = (position - 1) / 2;
+                    if (!farther(position, parent)) {
+                        break;
+                    }
+                    swap(position, parent);
+                    position = parent;
+                }
+            } else if (capacity > 0 && (distance < distances[0] || (distance == distances[0] && index < indices[0]))) {
+                indices[0] = index;
+                distances[0] = distance;
+                int position = 0;
+                while (2 * position + 1 < size) {
+                    int child = 2 * position + 1;
+                    if (child + 1 < size && farther(child + 1, child)) {
+                        child++;
+                    }
+                    if (!farther(child, position)) {
+                        break;
+                    }
+                    swap(position, child);
+                    position = child;
+                }
+            }
+        }
+
+        int[] sorted() {
+            Integer[] order = new Integer[size];
+            for (int position = 0; position < size; position++) {
+                order[position] = position;
+            }
+            Arrays.sort(order, (left, right) -> farther(right, left) ? -1 : farther(left, right) ? 1 : 0);
+            int[] result = new int[size];
+            for (int position = 0; position < size; position++) {
+                result[position] = indices[order[position]];
+            }
+            return result;
+        }
+
+        private boolean farther(int position, int other) {
+            return distances[position] > distances[other]
+                    || (distances[position] == distances[other] && indices[position] > indices[other]);
+        }
+
+        private void swap(int position, int other) {
+            int index = indices[position];
+            indices[position] = indices[other];
+            indices[other] = index;
+            double distance = distances[position];
+            distances[position] = distances[other];
+            distances[other] = distance;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package net.librec.recommender.poi;
 
-import com.google.common.collect.*;
 import net.librec.common.LibrecException;
 import net.librec.data.convertor.appender.LocationDataAppender;
 import net.librec.math.algorithm.Maths;
@@ -10,13 +9,16 @@ import net.librec.math.structure.Vector;
 import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.recommender.MatrixFactorizationRecommender;
 import net.librec.recommender.item.KeyValue;
-import net.librec.util.Lists;
 import org.apache.commons.lang.ArrayUtils;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Li, Xutao,Gao Cong, et al. "Rank-geofm: A ranking based geographical factorization method for point of interest recommendation." SIGIR2015
+ * <p>
+ * The {@code rec.item.knn} geographical neighbors of every POI are found in a {@link GeoIndex}, and the neighbors and
+ * the geographical influence are computed for blocks of POIs on {@code rec.thread.count} threads.
  * @author Yuanyuan Jin
  */
 public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
@@ -78,6 +80,16 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
     protected List<Set<Integer>> userPoisSet;
     KeyValue<Double, Double>[] locationCoordinates;
 
+    /**
+     * spatial index over the locations of the pois
+     */
+    protected GeoIndex geoIndex;
+
+    /**
+     * number of threads for the neighbors and the geographical influence
+     */
+    int numThreads;
+
 
     @Override
     protected void setup() throws LibrecException {
@@ -87,6 +99,7 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
         C = conf.getDouble("rec.regularization.C", 1.0d);
         alpha = conf.getDouble("rec.regularization.alpha", 0.2d);
         knn = conf.getInt("rec.item.knn", 300);
+        numThreads = Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
 
         geoInfluenceMatrix = new DenseMatrix(numPois, numFactors);
 
@@ -101,6 +114,7 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
 
         userPoisSet = getUserPoisSet(trainMatrix);
         locationCoordinates = ((LocationDataAppender) getDataModel().getDataAppender()).getLocationAppender();
+        geoIndex = new GeoIndex(locationCoordinates);
         poiKNNWeightMatrix = getPoiKNNWeightMatrix(knn);
 
         E = new double[numPois + 1];
@@ -111,7 +125,8 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
 
     @Override
     public void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = restoreCheckpoint(1); iter <= numIterations; iter++) {
+            saveCheckpoint(iter);
             geoInfluenceMatrix = updateGeoInfluenceMatrix();
             loss = 0.0d;
             DenseMatrix tempUserFactors = new DenseMatrix(userFactors);
@@ -138,17 +153,11 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
                     negPoiIdx = Randoms.uniform(0, numPois);
                     negPredictRating = tempUserFactors.row(userIdx).dot(tempPoiFactors.row(negPoiIdx))
                             + tempGeoUserFactors.row(userIdx).dot(geoInfluenceMatrix.row(negPoiIdx));
-                    Set<Integer> poisSet = userPoisSet.get(userIdx);
-
-                    Map<Integer, Integer> poisPosList = new HashMap<>();
-                    int[] poiIndices = trainMatrix.row(userIdx).getIndices();
-                    for (int i = 0; i < poiIndices.length; i++) {
-                        poisPosList.put(poiIndices[i], i);
-                    }
-
-                    if(poisSet.contains(negPoiIdx)) {
-                        negRealRating = trainMatrix.row(userIdx).getAtPosition(poisPosList.get(negPoiIdx));
-                    }else{
+                    // the indices of a row are sorted
+                    int negPosition = Arrays.binarySearch(trainMatrix.row(userIdx).getIndices(), negPoiIdx);
+                    if (negPosition >= 0) {
+                        negRealRating = trainMatrix.row(userIdx).getAtPosition(negPosition);
+                    } else {
                         negRealRating = 0.0;
                     }
 
@@ -208,58 +217,46 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
     }
 
     public SequentialAccessSparseMatrix getPoiKNNWeightMatrix(Integer kNearest) {
-        SequentialAccessSparseMatrix poiKNNWeightMatrix;
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        for (int poiIdx = 0; poiIdx < numPois; poiIdx++) {
-            List<Map.Entry<Integer, Double>> locationNeighbors = new ArrayList<>(numPois);
-            KeyValue location = locationCoordinates[poiIdx];
-            for (int neighborItemIdx = 0; neighborItemIdx < numPois; neighborItemIdx++) {
-                if (poiIdx != neighborItemIdx) {
-                    KeyValue neighborLocation = locationCoordinates[neighborItemIdx];
-                    double distance = getDistance((double) location.getKey(), (double) location.getValue(), (double) neighborLocation.getKey(), (double) neighborLocation.getValue());
-                    locationNeighbors.add(new AbstractMap.SimpleImmutableEntry<>(neighborItemIdx, distance));
+        VectorBasedSequentialSparseVector[] rowVectors = new VectorBasedSequentialSparseVector[numPois];
+        IntStream.range(0, numThreads).parallel().forEach(thread -> {
+            for (int poiIdx = thread; poiIdx < numPois; poiIdx += numThreads) {
+                int[] neighbors = geoIndex.nearest(poiIdx, kNearest);
+                Arrays.sort(neighbors);
+                double[] weights = new double[neighbors.length];
+                double rowSum = 0.0d;
+                KeyValue<Double, Double> location = locationCoordinates[poiIdx];
+                for (int index = 0; index < neighbors.length; index++) {
+                    KeyValue<Double, Double> neighborLocation = locationCoordinates[neighbors[index]];
+                    double distance = getDistance(location.getKey(), location.getValue(), neighborLocation.getKey(), neighborLocation.getValue());
+                    weights[index] = distance < 0.5 ? 1 / 0.5 : 1 / distance;
+                    rowSum += weights[index];
                 }
-            }
-            locationNeighbors = Lists.sortListTopK(locationNeighbors, false, kNearest);
-
-            for (int index = 0; index < locationNeighbors.size(); index++) {
-                int neighborItemIdx = locationNeighbors.get(index).getKey();
-                double weight;
-                if (locationNeighbors.get(index).getValue() < 0.5) {
-                    weight = 1 / 0.5;
-                } else {
-                    weight = 1 / (locationNeighbors.get(index).getValue());
+                //normalize the weights of each row
+                for (int index = 0; index < neighbors.length; index++) {
+                    weights[index] /= rowSum;
                 }
-
-                dataTable.put(poiIdx, neighborItemIdx, weight);
-            }
-        }
-
-        poiKNNWeightMatrix = new SequentialAccessSparseMatrix(numPois, numPois, dataTable);
-        //normalize poiKNNWeightMatrix for each row
-        Table<Integer, Integer, Double> normalizedDataTable = HashBasedTable.create();
-        for (int itemIdx = 0; itemIdx < numPois; itemIdx++) {
-            double rowSum = poiKNNWeightMatrix.row(itemIdx).sum();
-            Iterator<VectorEntry> colIterator = poiKNNWeightMatrix.row(itemIdx).iterator();
-            while (colIterator.hasNext()) {
-                Vector.VectorEntry vectorEntry = colIterator.next();
-                normalizedDataTable.put(itemIdx, vectorEntry.index(), vectorEntry.get() / rowSum);
+                rowVectors[poiIdx] = new VectorBasedSequentialSparseVector(numPois, neighbors, weights);
             }
-        }
-        poiKNNWeightMatrix = new SequentialAccessSparseMatrix(numPois, numPois, normalizedDataTable);
-        return poiKNNWeightMatrix;
+        });
+        return new SequentialAccessSparseMatrix(new RowSequentialAccessSparseMatrix(numPois, numPois, rowVectors, true), true);
     }
 
     public DenseMatrix updateGeoInfluenceMatrix() throws LibrecException {
-        DenseMatrix geoInfluenceMatrix = new DenseMatrix(numPois, numFactors);
-        for (int poiIdx = 0; poiIdx < numPois; poiIdx++) {
-            Iterator<VectorEntry> colItr = poiKNNWeightMatrix.row(poiIdx).iterator();
-            while (colItr.hasNext()) {
-                VectorEntry vectorEntry = colItr.next();
-                geoInfluenceMatrix.set(poiIdx, geoInfluenceMatrix.row(poiIdx).plus(poiFactors.row(vectorEntry.index()).times(vectorEntry.get())));
+        double[][] poiValues = poiFactors.getValues();
+        double[][] geoInfluenceValues = new double[numPois][numFactors];
+        IntStream.range(0, numThreads).parallel().forEach(thread -> {
+            for (int poiIdx = thread; poiIdx < numPois; poiIdx += numThreads) {
+                double[] geoInfluence = geoInfluenceValues[poiIdx];
+                for (VectorEntry vectorEntry : poiKNNWeightMatrix.row(poiIdx)) {
+                    double[] neighborFactors = poiValues[vectorEntry.index()];
+                    double weight = vectorEntry.get();
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        geoInfluence[factorIdx] += weight * neighborFactors[factorIdx];
+                    }
+                }
             }
-        }
-        return  geoInfluenceMatrix;
+        });
+        return new DenseMatrix(geoInfluenceValues, true);
     }
 
     /**
@@ -8,6 +8,7 @@ import net.librec.common.LibrecException;
 import net.librec.data.convertor.appender.LocationDataAppender;
 import net.librec.data.structure.AbstractBaseDataEntry;
 import net.librec.data.structure.LibrecDataList;
+import net.librec.eval.EvalStatistics;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -25,6 +26,7 @@ import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Ye M, Yin P, Lee W C, et al. Exploiting geographical influence for collaborative point-of-interest recommendation[C]//
@@ -41,6 +43,9 @@ import java.util.*;
  * data.testset.path = poi/Gowalla/checkin/testDataFor101users.txt
  * rec.limit.userNum = 101
  * In EntropyEvaluator and NoveltyEvaluator, you also need to reset the variable "numUsers" = your limited userNum
+ *
+ * 3. distances are taken from a {@link GeoIndex}, and the distances between the check-ins of every user are counted
+ * in a {@link DistanceHistogram} of 1 km bins on rec.thread.count threads.
  */
 public class USGRecommender extends AbstractRecommender {
     private SequentialAccessSparseMatrix socialSimilarityMatrix;
@@ -88,6 +93,16 @@ public class USGRecommender extends AbstractRecommender {
     private String socialPath;
     private KeyValue<Double, Double>[] locationCoordinates;
 
+    /**
+     * spatial index over the locations of the pois
+     */
+    private GeoIndex geoIndex;
+
+    /**
+     * number of threads for fitting the power law
+     */
+    private int numThreads;
+
     @Override
     protected void setup() throws LibrecException {
         super.setup();
@@ -107,6 +122,8 @@ public class USGRecommender extends AbstractRecommender {
         //default value is numUsers
         limitUserNum = conf.getInt("rec.limit.userNum", numUsers);
         locationCoordinates = ((LocationDataAppender) getDataModel().getDataAppender()).getLocationAppender();
+        geoIndex = new GeoIndex(locationCoordinates);
+        numThreads = Math.max(1, conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors()));
         userSimilarityMatrix = context.getSimilarity().getSimilarityMatrix().toSparseMatrix();
         socialPath = conf.get("dfs.data.dir") + "/" + conf.get("data.social.path");
 
@@ -118,12 +135,6 @@ public class USGRecommender extends AbstractRecommender {
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
-        conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser);
-
-        // for EntropyEvaluator
-        conf.setInt("rec.eval.item.num", testMatrix.columnSize());
-
         // for NoveltyEvaluator
         int[] itemPurchasedCount = new int[numPois];
         for (int itemIdx = 0; itemIdx < numPois; ++itemIdx) {
@@ -142,7 +153,8 @@ public class USGRecommender extends AbstractRecommender {
             }
             itemPurchasedCount[itemIdx] = userNum;
         }
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount);
+        evalStatistics = new EvalStatistics(numDroppedItemsArray, maxNumTestItemsByUser, testMatrix.columnSize(),
+                itemPurchasedCount);
     }
 
     @Override
@@ -223,8 +235,7 @@ public class USGRecommender extends AbstractRecommender {
             geoScore = 0.0d;
         } else {
             for (int visitedPOI : itemList) {
-                double distance = getDistance(locationCoordinates[visitedPOI].getKey(), locationCoordinates[visitedPOI].getValue(),
-                        locationCoordinates[itemIdx].getKey(), locationCoordinates[itemIdx].getValue());
+                double distance = geoIndex.distance(visitedPOI, itemIdx);
                 if (distance < 0.01) {
                     distance = 0.01;
                 }
@@ -268,34 +279,36 @@ public class USGRecommender extends AbstractRecommender {
      * fit the "log-log" scale power law distribution
      */
     public void fitPowerLaw() {
-        Map<Integer, Double> distanceMap = new HashMap<>();
-        Map<Double, Double> logdistanceMap = new HashMap<>();
-        int pairNum = 0;
-
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            int[] itemList = trainMatrix.row(userIdx).getIndices();
-            if (itemList.length == 0) {
-                continue;
-            }
-
-            for (int i = 0; i < itemList.length - 1; i++) {
-                for (int j = i + 1; j < itemList.length; j++) {
-                    double distance = getDistance(locationCoordinates[itemList[i]].getKey(), locationCoordinates[itemList[i]].getValue(),
-                            locationCoordinates[itemList[j]].getKey(), locationCoordinates[itemList[j]].getValue());
-                    if ((int) distance > 0) {
-                        int intDistance = (int) distance;
-                        if (!distanceMap.containsKey(intDistance)) {
-                            distanceMap.put(intDistance, 0.0d);
-                        }
-                        distanceMap.put(intDistance, distanceMap.get(intDistance) + 1.0d);
+        DistanceHistogram[] threadHistograms = new DistanceHistogram[numThreads];
+        IntStream.range(0, numThreads).parallel().forEach(thread -> {
+            DistanceHistogram histogram = new DistanceHistogram(1.0d);
+            for (int userIdx = thread; userIdx < numUsers; userIdx += numThreads) {
+                int[] itemList = trainMatrix.row(userIdx).getIndices();
+                for (int i = 0; i < itemList.length - 1; i++) {
+                    for (int j = i + 1; j < itemList.length; j++) {
+                        histogram.add(geoIndex.distance(itemList[i], itemList[j]));
                     }
-                    pairNum++;
                 }
             }
+            threadHistograms[thread] = histogram;
+        });
+        DistanceHistogram distanceHistogram = new DistanceHistogram(1.0d);
+        for (DistanceHistogram histogram : threadHistograms) {
+            distanceHistogram.merge(histogram);
         }
 
-        for (Map.Entry<Integer, Double> distanceEntry : distanceMap.entrySet()) {
-            logdistanceMap.put(Math.log10(distanceEntry.getKey()), Math.log10(distanceEntry.getValue() * 1.0 / pairNum));
+        // log10 of the distances of at least 1 km and of their probabilities over all pairs
+        long pairNum = distanceHistogram.getTotal();
+        double[] logDistances = new double[distanceHistogram.getNumBins()];
+        double[] logProbabilities = new double[distanceHistogram.getNumBins()];
+        int numPoints = 0;
+        for (int bin = 1; bin < distanceHistogram.getNumBins(); bin++) {
+            long count = distanceHistogram.getCount(bin);
+            if (count > 0) {
+                logDistances[numPoints] = Math.log10(bin * distanceHistogram.getBinWidth());
+                logProbabilities[numPoints] = Math.log10(count * 1.0 / pairNum);
+                numPoints++;
+            }
         }
 
         /*-------start gradient descent--------*/
@@ -313,9 +326,9 @@ public class USGRecommender extends AbstractRecommender {
             double w0Gradient = 0.0d;
             double w1Gradient = 0.0d;
 
-            for (Map.Entry<Double, Double> distanceEntry : logdistanceMap.entrySet()) {
-                double distance = distanceEntry.getKey();
-                double probability = distanceEntry.getValue();
+            for (int point = 0; point < numPoints; point++) {
+                double distance = logDistances[point];
+                double probability = logProbabilities[point];
                 w0Gradient += (w0 + w1 * distance - probability);
                 w1Gradient += (w0 + w1 * distance - probability) * distance;
             }
@@ -20,6 +20,9 @@ package net.librec.similarity;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
 import net.librec.data.convertor.appender.SocialDataAppender;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.metrics.Timer;
+import net.librec.math.structure.CompactSymmMatrix;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.SymmMatrix;
@@ -46,6 +49,10 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
      * Similarity Matrix
      */
     protected SymmMatrix similarityMatrix;
+    /**
+     * Primitive copy of the similarity matrix, built on first request
+     */
+    private volatile CompactSymmMatrix compactSimilarityMatrix;
 
     /**
      * Build social similarity matrix with trainMatrix in dataModel.
@@ -55,6 +62,8 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
     @Override
     public void buildSimilarityMatrix(DataModel dataModel) {
         conf = dataModel.getContext().getConf();
+        Timer.Context timing = MetricRegistry.of(conf).timer("similarity." + getClass().getSimpleName()).time();
+        compactSimilarityMatrix = null;
         String similarityKey = conf.get("rec.recommender.similarity.key", "user");
         if (StringUtils.isNotBlank(similarityKey)) {
             if (StringUtils.equals(similarityKey, "social")) {
@@ -92,6 +101,7 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
                 });
             }
         }
+        timing.stop();
     }
 
     /**
@@ -105,6 +115,7 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         SequentialAccessSparseMatrix socialMatrix = ((SocialDataAppender) dataModel.getDataAppender()).getUserAppender();
         int numUsers = trainMatrix.rowSize();
 
+        compactSimilarityMatrix = null;
         similarityMatrix = new SymmMatrix(numUsers);
 
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
@@ -209,4 +220,25 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         return similarityMatrix;
     }
 
+    /**
+     * Return the similarity matrix as a primitive, read-only structure. The copy
+     * is built once from the current similarity matrix and reused afterwards.
+     *
+     * @return the compact similarity matrix
+     */
+    @Override
+    public CompactSymmMatrix getCompactSimilarityMatrix() {
+        CompactSymmMatrix compactMatrix = compactSimilarityMatrix;
+        if (compactMatrix == null && similarityMatrix != null) {
+            synchronized (this) {
+                compactMatrix = compactSimilarityMatrix;
+                if (compactMatrix == null) {
+                    compactMatrix = new CompactSymmMatrix(similarityMatrix);
+                    compactSimilarityMatrix = compactMatrix;
+                }
+            }
+        }
+        return compactMatrix;
+    }
+
 }
@@ -18,6 +18,7 @@
 package net.librec.similarity;
 
 import net.librec.data.DataModel;
+import net.librec.math.structure.CompactSymmMatrix;
 import net.librec.math.structure.SymmMatrix;
 
 /**
@@ -40,4 +41,15 @@ public interface RecommenderSimilarity {
      * @return Similarity Matrix
      */
     SymmMatrix getSimilarityMatrix();
+
+    /**
+     * get similarity matrix as a primitive, read-only CompactSymmMatrix,
+     * copied from the similarity matrix on every call unless an implementation caches it
+     *
+     * @return Compact Similarity Matrix, null if the similarity matrix is not built
+     */
+    default CompactSymmMatrix getCompactSimilarityMatrix() {
+        SymmMatrix similarityMatrix = getSimilarityMatrix();
+        return similarityMatrix == null ? null : new CompactSymmMatrix(similarityMatrix);
+    }
 }
@@ -444,6 +444,76 @@ public class Lists {
         return topKDataList;
     }
 
+    /**
+     * select the k keys of the largest scores with a bounded heap on primitive arrays, skipping NaN scores and the
+     * excluded keys. Ties are broken by the smaller key.
+     *
+     * @param scores       score of every key
+     * @param excludedKeys ascending keys to skip
+     * @param numExcluded  number of keys used in {@code excludedKeys}
+     * @param k            k
+     * @return a descending sorted list of the top k keys and their scores
+     */
+    public static List<KeyValue<Integer, Double>> sortTopKByScore(double[] scores, int[] excludedKeys, int numExcluded, int k) {
+        int[] heap = new int[Math.max(0, Math.min(k, scores.length))];
+        int heapSize = 0;
+        for (int key = 0, excludedIndex = 0; key < scores.length && heap.length > 0; key++) {
+            if (excludedIndex < numExcluded && excludedKeys[excludedIndex] == key) {
+                excludedIndex++;
+                continue;
+            }
+            if (Double.isNaN(scores[key])) {
+                continue;
+            }
+            if (heapSize < heap.length) {
+                // sift up
+                int child = heapSize++;
+                while (child > 0 && isWorse(scores, key, heap[(child - 1) >>> 1])) {
+                    heap[child] = heap[(child - 1) >>> 1];
+                    child = (child - 1) >>> 1;
+                }
+                heap[child] = key;
+            } else if (isWorse(scores, heap[0], key)) {
+                siftDown(scores, heap, heapSize, key);
+            }
+        }
+
+        // pop the worst key to the end until the heap is empty
+        for (int end = heapSize - 1; end > 0; end--) {
+            int worst = heap[0];
+            siftDown(scores, heap, end, heap[end]);
+            heap[end] = worst;
+        }
+        List<KeyValue<Integer, Double>> topKDataList = new ArrayList<>(heapSize);
+        for (int position = 0; position < heapSize; position++) {
+            topKDataList.add(new KeyValue<>(heap[position], scores[heap[position]]));
+        }
+        return topKDataList;
+    }
+
+    private static boolean isWorse(double[] scores, int key, int other) {
+        return scores[key] < scores[other] || (scores[key] == scores[other] && key > other);
+    }
+
+    private static void siftDown(double[] scores, int[] heap, int heapSize, int key) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && isWorse(scores, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!isWorse(scores, heap[child], key)) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = key;
+    }
+
 
     /**
      * sort a list of objects: {@code List<KeyValue<K, V extends Comparable<? extends V>>}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecRuntimeException;
+import net.librec.data.model.TextDataModel;
+import net.librec.eval.ranking.AUCEvaluator;
+import net.librec.eval.ranking.NoveltyEvaluator;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the EvalStatistics class
+ * {@link net.librec.eval.EvalStatistics}
+ */
+public class EvalStatisticsTestCase extends BaseTestCase {
+
+    private TextDataModel buildDataModel() throws Exception {
+        conf.set("dfs.data.dir", "../data");
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.random.seed", "1");
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        return dataModel;
+    }
+
+    /**
+     * The first ten items of every user not rated in the training data.
+     */
+    private static RecommendedList unratedItems(SequentialAccessSparseMatrix trainMatrix) {
+        RecommendedList recommendedList = new RecommendedList(trainMatrix.rowSize());
+        for (int userIdx = 0; userIdx < trainMatrix.rowSize(); userIdx++) {
+            ArrayList<KeyValue<Integer, Double>> list = new ArrayList<>();
+            for (int itemIdx = 0; itemIdx < trainMatrix.columnSize() && list.size() < 10; itemIdx++) {
+                if (trainMatrix.get(userIdx, itemIdx) == 0.0) {
+                    list.add(new KeyValue<>(itemIdx, 1.0 - list.size() * 0.01));
+                }
+            }
+            recommendedList.addList(list);
+        }
+        return recommendedList;
+    }
+
+    @Test
+    public void testCompute() throws Exception {
+        TextDataModel dataModel = buildDataModel();
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        SequentialAccessSparseMatrix testMatrix = (SequentialAccessSparseMatrix) dataModel.getTestDataSet();
+        EvalStatistics statistics = EvalStatistics.compute(dataModel);
+
+        int numItems = trainMatrix.columnSize();
+        assertEquals(numItems, statistics.getNumItems());
+        int maxNumTestItems = 0;
+        for (int userIdx = 0; userIdx < trainMatrix.rowSize(); userIdx++) {
+            assertEquals(numItems - trainMatrix.row(userIdx).getNumEntries(), statistics.getNumDroppedItems()[userIdx]);
+            maxNumTestItems = Math.max(maxNumTestItems, testMatrix.row(userIdx).getNumEntries());
+        }
+        assertEquals(maxNumTestItems, statistics.getMaxNumTestItems());
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            int numUsers = 0;
+            for (int userIdx = 0; userIdx < trainMatrix.rowSize(); userIdx++) {
+                if (trainMatrix.get(userIdx, itemIdx) != 0.0) {
+                    numUsers++;
+                }
+                if (testMatrix.get(userIdx, itemIdx) != 0.0) {
+                    numUsers++;
+                }
+            }
+            assertEquals(numUsers, statistics.getItemPurchaseCounts()[itemIdx]);
+        }
+    }
+
+    @Test
+    public void testEvaluators() throws Exception {
+        TextDataModel dataModel = buildDataModel();
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        SequentialAccessSparseMatrix testMatrix = (SequentialAccessSparseMatrix) dataModel.getTestDataSet();
+        RecommendedList recommendedList = unratedItems(trainMatrix);
+
+        for (AbstractRecommenderEvaluator evaluator : new AbstractRecommenderEvaluator[]{new AUCEvaluator(), new NoveltyEvaluator()}) {
+            evaluator.setTopN(10);
+            EvalContext evalContext = new EvalContext(conf, recommendedList, testMatrix);
+            // without the statistics of the fold the evaluators fail
+            try {
+                evaluator.evaluate(evalContext);
+                fail(evaluator.getClass().getSimpleName() + " evaluated without statistics");
+            } catch (LibrecRuntimeException e) {
+                // expected
+            }
+
+            evalContext.setEvalStatistics(EvalStatistics.compute(trainMatrix, testMatrix));
+            double value = evaluator.evaluate(evalContext);
+            assertTrue(value > 0.0);
+
+            // the statistics of a recommender context are computed from its data model
+            RecommenderContext context = new RecommenderContext(conf, dataModel);
+            assertEquals(value, evaluator.evaluate(context, evalContext.getGroundTruthList(), recommendedList), 0.0);
+        }
+    }
+}
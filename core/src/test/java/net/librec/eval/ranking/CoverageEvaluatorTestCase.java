@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import net.librec.BaseTestCase;
+import net.librec.eval.EvalContext;
+import net.librec.eval.EvalStatistics;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the CoverageEvaluator class
+ * {@link net.librec.eval.ranking.CoverageEvaluator}
+ */
+public class CoverageEvaluatorTestCase extends BaseTestCase {
+
+    /**
+     * Coverage computed on the set of the recommended items.
+     */
+    private double setCoverage(RecommendedList recommendedList, int topN) {
+        Set<Integer> recommended = new HashSet<>();
+        for (int contextIdx = 0; contextIdx < recommendedList.size(); ++contextIdx) {
+            List<KeyValue<Integer, Double>> list = recommendedList.getKeyValueListByContext(contextIdx);
+            for (int position = 0; position < Math.min(topN, list.size()); ++position) {
+                recommended.add(list.get(position).getKey());
+            }
+        }
+        return ((double) recommended.size()) / DiversityEvaluatorTestCase.NUM_ITEMS;
+    }
+
+    @Test
+    public void testSameAsSet() {
+        RecommendedList recommendedList = DiversityEvaluatorTestCase.randomLists(new Random(5));
+        for (int topN : new int[]{1, 3, 10, 20}) {
+            CoverageEvaluator evaluator = new CoverageEvaluator();
+            evaluator.setTopN(topN);
+            EvalContext evalContext = new EvalContext(conf, recommendedList, DiversityEvaluatorTestCase.testMatrix(
+                    DiversityEvaluatorTestCase.NUM_USERS, DiversityEvaluatorTestCase.NUM_ITEMS));
+            evalContext.setEvalStatistics(new EvalStatistics(null, 0, DiversityEvaluatorTestCase.NUM_ITEMS, null));
+            double coverage = evaluator.evaluate(evalContext);
+            assertEquals(setCoverage(recommendedList, topN), coverage, 1e-12);
+        }
+    }
+
+    @Test
+    public void testNumItemsFromConf() {
+        RecommendedList recommendedList = new RecommendedList(2);
+        for (int[] items : new int[][]{{0, 1, 2}, {2, 3}}) {
+            ArrayList<KeyValue<Integer, Double>> list = new ArrayList<>();
+            for (int item : items) {
+                list.add(new KeyValue<>(item, 1.0));
+            }
+            recommendedList.addList(list);
+        }
+        conf.setInt("rec.eval.item.num", 8);
+        CoverageEvaluator evaluator = new CoverageEvaluator();
+        evaluator.setTopN(2);
+        EvalContext evalContext = new EvalContext(conf, recommendedList, DiversityEvaluatorTestCase.testMatrix(2, 8));
+        // items 0, 1, 2 and 3 of 8 at the cutoff of 2
+        assertEquals(0.5, evaluator.evaluate(evalContext), 1e-12);
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval.ranking;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.data.DataModel;
+import net.librec.eval.EvalContext;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SymmMatrix;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.similarity.RecommenderSimilarity;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the DiversityEvaluator class
+ * {@link net.librec.eval.ranking.DiversityEvaluator}
+ */
+public class DiversityEvaluatorTestCase extends BaseTestCase {
+
+    static final int NUM_USERS = 30, NUM_ITEMS = 50;
+
+    /**
+     * Build lists of 0 to 14 distinct random items, so some lists are shorter than the cutoff.
+     */
+    static RecommendedList randomLists(Random random) {
+        RecommendedList recommendedList = new RecommendedList(NUM_USERS);
+        List<Integer> items = new ArrayList<>();
+        for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+            items.add(itemIdx);
+        }
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            Collections.shuffle(items, random);
+            ArrayList<KeyValue<Integer, Double>> list = new ArrayList<>();
+            int length = random.nextInt(15);
+            for (int position = 0; position < length; position++) {
+                list.add(new KeyValue<>(items.get(position), 1.0 - position * 0.01));
+            }
+            recommendedList.addList(list);
+        }
+        return recommendedList;
+    }
+
+    /**
+     * A test matrix with one rating per user, the ground truth only fixes the number of contexts.
+     */
+    static SequentialAccessSparseMatrix testMatrix(int numUsers, int numItems) {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            table.put(userIdx, userIdx % numItems, 1.0);
+        }
+        return new SequentialAccessSparseMatrix(numUsers, numItems, table);
+    }
+
+    /**
+     * The dense implementation the evaluator replaced: the dissimilarity of every ordered pair read from the SymmMatrix.
+     */
+    private double denseDiversity(SymmMatrix itemSimilarity, RecommendedList recommendedList, int topN) {
+        double totalDiversity = 0.0;
+        int nonZeroContext = 0;
+        for (int contextIdx = 0; contextIdx < recommendedList.size(); ++contextIdx) {
+            List<KeyValue<Integer, Double>> list = recommendedList.getKeyValueListByContext(contextIdx);
+            if (list.size() > 1) {
+                double totalDisSimilarityPerContext = 0.0;
+                int topK = topN <= list.size() ? topN : list.size();
+                for (int indexOut = 0; indexOut < topK; ++indexOut) {
+                    for (int indexIn = 0; indexIn < topK; ++indexIn) {
+                        if (indexOut != indexIn) {
+                            totalDisSimilarityPerContext += 1.0 - itemSimilarity.get(list.get(indexOut).getKey(), list.get(indexIn).getKey());
+                        }
+                    }
+                }
+                totalDiversity += totalDisSimilarityPerContext / (topK * (topK - 1));
+                nonZeroContext++;
+            }
+        }
+        return nonZeroContext > 0 ? totalDiversity / nonZeroContext : 0.0d;
+    }
+
+    @Test
+    public void testSameAsDense() {
+        Random random = new Random(11);
+        SymmMatrix itemSimilarity = new SymmMatrix(NUM_ITEMS);
+        for (int row = 0; row < NUM_ITEMS; row++) {
+            for (int col = 0; col < row; col++) {
+                // mostly sparse rows, and a few dense ones so both lookups of the evaluator are taken
+                if (random.nextInt(4) == 0 || row % 10 == 0) {
+                    itemSimilarity.set(row, col, random.nextDouble() * 2.0 - 1.0);
+                }
+            }
+        }
+        Map<String, RecommenderSimilarity> similarities = new HashMap<>();
+        similarities.put("item", new RecommenderSimilarity() {
+            @Override
+            public void buildSimilarityMatrix(DataModel dataModel) {
+            }
+
+            @Override
+            public SymmMatrix getSimilarityMatrix() {
+                return itemSimilarity;
+            }
+        });
+
+        RecommendedList recommendedList = randomLists(random);
+        for (int topN : new int[]{2, 10, 20}) {
+            DiversityEvaluator evaluator = new DiversityEvaluator();
+            evaluator.setTopN(topN);
+            double diversity = evaluator.evaluate(new EvalContext(conf, recommendedList,
+                    testMatrix(NUM_USERS, NUM_ITEMS), itemSimilarity, similarities));
+            assertEquals(denseDiversity(itemSimilarity, recommendedList, topN), diversity, 1e-12);
+        }
+
+        // no pairs at a cutoff of 1, where the dense implementation divided by zero
+        DiversityEvaluator evaluator = new DiversityEvaluator();
+        evaluator.setTopN(1);
+        assertEquals(0.0, evaluator.evaluate(new EvalContext(conf, recommendedList,
+                testMatrix(NUM_USERS, NUM_ITEMS), itemSimilarity, similarities)), 0.0);
+    }
+
+    @Test
+    public void testWithoutItemSimilarity() {
+        DiversityEvaluator evaluator = new DiversityEvaluator();
+        evaluator.setTopN(10);
+        assertEquals(0.0, evaluator.evaluate(new EvalContext(conf, randomLists(new Random(1)), testMatrix(NUM_USERS, NUM_ITEMS))), 0.0);
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job;
+
+import net.librec.conf.Configuration;
+import net.librec.conf.ConfigurationParser;
+import net.librec.math.structure.DataFrame;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the SweepRunner class
+ * {@link net.librec.job.SweepRunner}
+ */
+public class SweepRunnerTestCase {
+
+    private static File write(File file, String... lines) throws Exception {
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Write the configuration of a run on the filmtrust ratings.
+     */
+    private static File writeConfig(File directory, String name, String inputPath, String recommender,
+                                    String... properties) throws Exception {
+        List<String> lines = new ArrayList<>(Arrays.asList("dfs.data.dir=../data",
+                "dfs.result.dir=" + new File(directory, "result").getPath(), "data.input.path=" + inputPath,
+                "data.column.format=UIR", "data.model.format=text", "data.model.splitter=ratio",
+                "data.splitter.trainset.ratio=0.8", "rec.random.seed=1", "rec.recommender.class=" + recommender,
+                "rec.recommender.isranking=false", "rec.iterator.maximum=5", "rec.recommender.verbose=false",
+                "rec.eval.enable=true", "rec.eval.classes=rmse"));
+        lines.addAll(Arrays.asList(properties));
+        return write(new File(directory, name), lines.toArray(new String[0]));
+    }
+
+    /**
+     * Run the sweep and read the result rows by run path.
+     */
+    private static Map<String, String[]> runSweep(File manifest, File results) throws Exception {
+        new SweepRunner(manifest.getPath()).run();
+        List<String> lines = Files.readAllLines(results.toPath(), StandardCharsets.UTF_8);
+        assertEquals("run\tstatus\telapsed_ms\tmeasure\tvalue", lines.get(0));
+        Map<String, String[]> rows = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = line.split("\t", -1);
+            assertEquals(line, 5, columns.length);
+            assertTrue(Long.parseLong(columns[2]) >= 0L);
+            assertNull(rows.put(columns[0], columns));
+        }
+        return rows;
+    }
+
+    /**
+     * Assert that the run succeeded with the RMSE of a standalone job of its configuration.
+     */
+    private static void assertSameAsStandalone(File conf, String[] row) throws Exception {
+        assertEquals("ok", row[1]);
+        assertEquals("RMSEEvaluator", row[3]);
+        Configuration standaloneConf = new Configuration();
+        ConfigurationParser.parse(conf.getPath(), standaloneConf);
+        DataFrame.clearInnerMapping();
+        RecommenderJob standalone = new RecommenderJob(standaloneConf);
+        standalone.runJob();
+        assertEquals(standalone.getEvaluationResults().get("RMSEEvaluator"), Double.parseDouble(row[4]), 1e-12);
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        File directory = Files.createTempDirectory("sweep").toFile();
+        File manifest = write(new File(directory, "runs.txt"),
+                "# comment",
+                "// comment",
+                "sweep.thread.count=1",
+                "  sweep.result.path = results/sweep.tsv  ",
+                "",
+                "conf/first.properties",
+                "  conf/hybridsecond.properties",
+                "conf/third=value.properties");
+        SweepRunner runner = new SweepRunner(manifest.getPath());
+
+        // only sweep.* lines are settings, any other line is the path of a run
+        assertEquals(Arrays.asList("conf/first.properties", "conf/hybridsecond.properties", "conf/third=value.properties"),
+                runner.getRunPaths());
+        Map<String, String> settings = new HashMap<>();
+        settings.put("sweep.thread.count", "1");
+        settings.put("sweep.result.path", "results/sweep.tsv");
+        assertEquals(settings, runner.getSettings());
+    }
+
+    @Test
+    public void testGroupRuns() throws Exception {
+        File directory = Files.createTempDirectory("sweep").toFile();
+        File first = writeConfig(directory, "first.properties", "filmtrust/rating", "itemaverage");
+        File second = writeConfig(directory, "second.properties", "filmtrust/rating/ratings_0.txt", "itemaverage");
+        File third = writeConfig(directory, "third.properties", "filmtrust/rating", "useraverage");
+        File manifest = write(new File(directory, "runs.txt"), first.getPath(), second.getPath(), third.getPath());
+
+        // runs reading the same input files form a group, in the order of their first run
+        List<List<String>> groups = new ArrayList<>();
+        for (List<SweepRunner.Run> group : new SweepRunner(manifest.getPath()).groupRuns()) {
+            List<String> paths = new ArrayList<>();
+            for (SweepRunner.Run run : group) {
+                paths.add(run.getPath());
+            }
+            groups.add(paths);
+        }
+        assertEquals(Arrays.asList(Arrays.asList(first.getPath(), third.getPath()), Collections.singletonList(second.getPath())),
+                groups);
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        File directory = Files.createTempDirectory("sweep").toFile();
+        File first = writeConfig(directory, "first.properties", "filmtrust/rating", "itemaverage");
+        File second = writeConfig(directory, "second.properties", "filmtrust/rating", "biasedmf");
+        File missing = new File(directory, "missing.properties");
+        File results = new File(directory, "results.tsv");
+        File manifest = write(new File(directory, "runs.txt"), "sweep.thread.count=1",
+                "sweep.result.path=" + results.getPath(), first.getPath(), missing.getPath(), second.getPath());
+        Map<String, String[]> rows = runSweep(manifest, results);
+        assertEquals(3, rows.size());
+
+        // a run that can not be read is recorded as failed without stopping the sweep
+        String[] failed = rows.get(missing.getPath());
+        assertEquals("failed", failed[1]);
+        assertTrue(failed[3].contains("FileNotFoundException"));
+        assertEquals("", failed[4]);
+
+        // the runs sharing their input train as standalone jobs with the same seed do
+        for (File conf : new File[]{first, second}) {
+            assertSameAsStandalone(conf, rows.get(conf.getPath()));
+        }
+    }
+
+    @Test
+    public void testConcurrentRuns() throws Exception {
+        File directory = Files.createTempDirectory("sweep").toFile();
+        File[] confs = {
+                writeConfig(directory, "first.properties", "filmtrust/rating", "biasedmf"),
+                writeConfig(directory, "second.properties", "filmtrust/rating", "pmf"),
+                writeConfig(directory, "third.properties", "filmtrust/rating", "biasedmf", "rec.iterator.learnrate=0.02")};
+        File results = new File(directory, "results.tsv");
+        List<String> lines = new ArrayList<>(Arrays.asList("sweep.thread.count=3", "sweep.job.memory=0",
+                "sweep.result.path=" + results.getPath()));
+        for (File conf : confs) {
+            lines.add(conf.getPath());
+        }
+        Map<String, String[]> rows = runSweep(write(new File(directory, "runs.txt"), lines.toArray(new String[0])), results);
+
+        // every job draws from a generator of its own, so jobs running side by side train as standalone jobs
+        assertEquals(3, rows.size());
+        for (File conf : confs) {
+            assertSameAsStandalone(conf, rows.get(conf.getPath()));
+        }
+    }
+}
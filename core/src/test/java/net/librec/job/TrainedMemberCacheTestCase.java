@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job;
+
+import net.librec.common.LibrecException;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.baseline.GlobalAverageRecommender;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the TrainedMemberCache class
+ * {@link net.librec.job.TrainedMemberCache}
+ */
+public class TrainedMemberCacheTestCase {
+
+    @Test
+    public void testTrainOnce() throws Exception {
+        TrainedMemberCache cache = new TrainedMemberCache();
+        AtomicInteger trainings = new AtomicInteger();
+        for (int job = 0; job < 8; job++) {
+            cache.register("member#fold=0");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<AbstractRecommender>> members = new ArrayList<>();
+        for (int job = 0; job < 8; job++) {
+            members.add(executor.submit(() -> cache.get("member#fold=0", () -> {
+                trainings.incrementAndGet();
+                return new GlobalAverageRecommender();
+            })));
+        }
+        AbstractRecommender member = members.get(0).get();
+        for (Future<AbstractRecommender> other : members) {
+            assertSame(member, other.get());
+        }
+        executor.shutdown();
+        assertEquals(1, trainings.get());
+
+        // the member is dropped after its last registered use only
+        for (int job = 0; job < 7; job++) {
+            cache.release("member#fold=0");
+        }
+        assertSame(member, cache.get("member#fold=0", GlobalAverageRecommender::new));
+        cache.release("member#fold=0");
+        assertNotSame(member, cache.get("member#fold=0", GlobalAverageRecommender::new));
+    }
+
+    @Test
+    public void testFailedTraining() {
+        TrainedMemberCache cache = new TrainedMemberCache();
+        cache.register("member");
+        cache.register("member");
+        for (int job = 0; job < 2; job++) {
+            try {
+                cache.get("member", () -> {
+                    throw new LibrecException("no data");
+                });
+                fail();
+            } catch (LibrecException e) {
+                assertTrue(e.getMessage().contains("no data") || e.getCause().getMessage().contains("no data"));
+            }
+        }
+    }
+
+    @Test
+    public void testLockOrder() throws Exception {
+        TrainedMemberCache cache = new TrainedMemberCache();
+        List<String> keys = Arrays.asList("b", "a", "c");
+        List<String> reversed = Arrays.asList("c", "b", "a");
+        for (String key : keys) {
+            cache.register(key);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<?>> jobs = new ArrayList<>();
+        for (int job = 0; job < 200; job++) {
+            List<String> jobKeys = job % 2 == 0 ? keys : reversed;
+            jobs.add(executor.submit(() -> {
+                cache.lock(jobKeys);
+                cache.unlock(jobKeys);
+            }));
+        }
+        for (Future<?> job : jobs) {
+            job.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import net.librec.conf.Configuration;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the MetricRegistry class
+ * {@link net.librec.job.metrics.MetricRegistry}
+ */
+public class MetricRegistryTestCase {
+
+    @Test
+    public void testDisabled() {
+        Configuration conf = new Configuration();
+        MetricRegistry metrics = MetricRegistry.open(conf, "disabled");
+        assertSame(MetricRegistry.DISABLED, metrics);
+        assertSame(MetricRegistry.DISABLED, MetricRegistry.of(conf));
+        assertNull(conf.get(MetricRegistry.CONF_REGISTRY));
+
+        // disabled metrics are shared and keep nothing
+        assertSame(metrics.timer("train"), metrics.timer("evaluate"));
+        assertSame(metrics.timer("train").time(), metrics.timer("train").time());
+        metrics.counter("folds").inc();
+        assertEquals(0L, metrics.counter("folds").getCount());
+        metrics.close();
+    }
+
+    @Test
+    public void testOpenAndClose() throws Exception {
+        File directory = Files.createTempDirectory("metrics").toFile();
+        Configuration conf = new Configuration();
+        conf.setBoolean(MetricRegistry.CONF_ENABLED, true);
+        conf.set(MetricRegistry.CONF_OUTPUT_PATH, directory.getPath());
+        MetricRegistry metrics = MetricRegistry.open(conf, "job");
+        assertTrue(metrics.isEnabled());
+        assertSame(metrics, MetricRegistry.of(conf));
+
+        Configuration memberConf = new Configuration();
+        metrics.attach(memberConf);
+        assertSame(metrics, MetricRegistry.of(memberConf));
+
+        Meter iterations = metrics.meter("train.iterations", "train.model");
+        for (int iter = 0; iter < 3; iter++) {
+            Timer.Context timing = metrics.timer("train.model").time();
+            iterations.mark();
+            assertTrue(timing.stop() >= 0L);
+        }
+        metrics.counter("job.folds").inc(2);
+        assertEquals(3L, metrics.timer("train.model").getCount());
+        assertEquals(3L, iterations.getCount());
+        assertTrue(iterations.getRate() > 0.0);
+        assertEquals(2L, metrics.counter("job.folds").getCount());
+
+        metrics.close();
+        assertSame(MetricRegistry.DISABLED, MetricRegistry.of(conf));
+        File[] summaries = directory.listFiles();
+        assertNotNull(summaries);
+        assertEquals(1, summaries.length);
+        String json = new String(Files.readAllBytes(summaries[0].toPath()), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"name\": \"job\""));
+        assertTrue(json.contains("\"train.model\": {\"count\": 3"));
+        assertTrue(json.contains("\"job.folds\": 2"));
+        assertTrue(json.contains("\"train.iterations\": {\"count\": 3"));
+        assertTrue(json.contains("\"jvm.heap.used.bytes\""));
+        summaries[0].delete();
+        directory.delete();
+    }
+}
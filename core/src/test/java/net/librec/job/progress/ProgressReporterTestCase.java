@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.progress;
+
+import net.librec.conf.Configuration;
+import net.librec.job.JobStatus;
+import net.librec.job.RecommenderJob;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the ProgressReporter class
+ * {@link net.librec.job.progress.ProgressReporter}
+ */
+public class ProgressReporterTestCase {
+
+    @Test
+    public void testCancelAndFinish() throws Exception {
+        ProgressReporter reporter = new ProgressReporter() {
+            @Override
+            public void progress() {
+            }
+        };
+        reporter.checkCancelled();
+        Thread thread = new Thread(reporter);
+        thread.start();
+
+        reporter.cancel();
+        assertTrue(reporter.isCancelled());
+        try {
+            reporter.checkCancelled();
+            fail("a cancelled reporter should stop the job");
+        } catch (JobCancelledException e) {
+            // expected
+        }
+        reporter.finish();
+        thread.join(10000L);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testTrainingProgress() {
+        JobStatus jobStatus = new JobStatus();
+        assertEquals(-1L, jobStatus.getEstimatedRemainingTime(System.currentTimeMillis()));
+
+        jobStatus.setStartTime(1000L);
+        jobStatus.setFold(2, 4);
+        jobStatus.setTrainingProgress(0.5);
+        assertEquals(0.375f, jobStatus.getProgress(), 1e-6f);
+        assertEquals(5000L, jobStatus.getEstimatedRemainingTime(4000L));
+
+        // without known folds the progress is the training progress
+        jobStatus.setFold(1, 0);
+        jobStatus.setTrainingProgress(2.0);
+        assertEquals(1.0f, jobStatus.getProgress(), 1e-6f);
+        assertEquals(0L, jobStatus.getEstimatedRemainingTime(4000L));
+    }
+
+    @Test
+    public void testCancelJob() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("dfs.data.dir", "../data");
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.recommender.class", "biasedmf");
+        conf.set("rec.iterator.maximum", "10");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.random.seed", "1");
+        // cancel once the second iteration is reached, as if the user cancelled the job meanwhile
+        ProgressReporter reporter = new ProgressReporter() {
+            @Override
+            public void progress() {
+            }
+
+            @Override
+            public void checkCancelled() {
+                if (getJobStatus().getIteration() >= 2) {
+                    cancel();
+                }
+                super.checkCancelled();
+            }
+        };
+        RecommenderJob job = new RecommenderJob(conf);
+        job.setProgressReporter(reporter);
+        try {
+            job.runJob();
+            fail("the job should stop when cancelled");
+        } catch (JobCancelledException e) {
+            // expected
+        }
+        JobStatus jobStatus = reporter.getJobStatus();
+        assertEquals(JobStatus.KILLED, jobStatus.getRunState());
+        assertEquals("train", jobStatus.getJobStage());
+        assertEquals(2, jobStatus.getIteration());
+        assertEquals(10, jobStatus.getMaxIterations());
+        assertEquals(1, jobStatus.getFold());
+        assertEquals(0.2f, jobStatus.getProgress(), 1e-6f);
+        assertFalse(Double.isNaN(jobStatus.getLoss()));
+        assertTrue(jobStatus.getFinishTime() >= jobStatus.getStartTime());
+    }
+
+    @Test
+    public void testCancelWRMF() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("dfs.data.dir", "../data");
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.recommender.class", "wrmf");
+        conf.set("rec.recommender.isranking", "true");
+        conf.set("rec.iterator.maximum", "10");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.random.seed", "1");
+        // WRMF never checks its loss, the job is cancelled at the start of the second iteration: the
+        // checks entering the train phase and before and after the setup come first
+        final int[] numChecks = new int[1];
+        ProgressReporter reporter = new ProgressReporter() {
+            @Override
+            public void progress() {
+            }
+
+            @Override
+            public void checkCancelled() {
+                if ("train".equals(getJobStatus().getJobStage()) && ++numChecks[0] == 5) {
+                    cancel();
+                }
+                super.checkCancelled();
+            }
+        };
+        RecommenderJob job = new RecommenderJob(conf);
+        job.setProgressReporter(reporter);
+        try {
+            job.runJob();
+            fail("the job should stop when cancelled");
+        } catch (JobCancelledException e) {
+            // expected
+        }
+        assertEquals(5, numChecks[0]);
+        JobStatus jobStatus = reporter.getJobStatus();
+        assertEquals(JobStatus.KILLED, jobStatus.getRunState());
+        assertEquals("train", jobStatus.getJobStage());
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases about the CompactSymmMatrix class
+ * {@link net.librec.math.structure.CompactSymmMatrix}
+ */
+public class CompactSymmMatrixTestCase extends BaseTestCase {
+
+    /**
+     * Build a random symmetric matrix with about a third of the cells set, the diagonal included.
+     */
+    private SymmMatrix randomSymmMatrix(int dim, long seed) {
+        Random random = new Random(seed);
+        SymmMatrix symmMatrix = new SymmMatrix(dim);
+        for (int row = 0; row < dim; row++) {
+            for (int col = 0; col <= row; col++) {
+                if (random.nextInt(3) == 0) {
+                    symmMatrix.set(row, col, random.nextDouble() * 2.0 - 1.0);
+                }
+            }
+        }
+        return symmMatrix;
+    }
+
+    @Test
+    public void testSameAsSymmMatrix() {
+        SymmMatrix symmMatrix = randomSymmMatrix(40, 3L);
+        // an empty row and column
+        for (int col = 0; col < 40; col++) {
+            symmMatrix.getData().remove(Math.max(col, 7), Math.min(col, 7));
+        }
+        CompactSymmMatrix compactMatrix = new CompactSymmMatrix(symmMatrix);
+
+        assertEquals(40, compactMatrix.getDim());
+        int numEntries = 0;
+        for (int row = 0; row < 40; row++) {
+            for (int col = 0; col < 40; col++) {
+                assertEquals(symmMatrix.get(row, col), compactMatrix.get(row, col), 0.0);
+            }
+
+            // a row holds the cells of both triangles, sorted by column
+            int rowLength = compactMatrix.rowEnd(row) - compactMatrix.rowStart(row);
+            int expectedLength = 0;
+            for (int col = 0; col < 40; col++) {
+                if (symmMatrix.contains(row, col)) {
+                    expectedLength++;
+                }
+            }
+            assertEquals(expectedLength, rowLength);
+            for (int position = compactMatrix.rowStart(row); position < compactMatrix.rowEnd(row); position++) {
+                if (position > compactMatrix.rowStart(row)) {
+                    assertTrue(compactMatrix.columnAt(position - 1) < compactMatrix.columnAt(position));
+                }
+                assertEquals(symmMatrix.get(row, compactMatrix.columnAt(position)), compactMatrix.valueAt(position), 0.0);
+            }
+            numEntries += rowLength;
+        }
+        assertEquals(0, compactMatrix.rowEnd(7) - compactMatrix.rowStart(7));
+        assertEquals(numEntries, compactMatrix.getNumEntries());
+    }
+}
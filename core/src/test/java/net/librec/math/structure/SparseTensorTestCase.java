@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the SparseTensor class
+ * {@link net.librec.math.structure.SparseTensor}
+ */
+public class SparseTensorTestCase extends BaseTestCase {
+
+    /**
+     * entries of a random user x item x tag tensor, keyed by their keys
+     */
+    private Map<List<Integer>, Double> randomEntries(Random random, int numEntries) {
+        Map<List<Integer>, Double> entries = new LinkedHashMap<>();
+        while (entries.size() < numEntries) {
+            entries.put(Arrays.asList(random.nextInt(50), random.nextInt(40), random.nextInt(5)), random.nextDouble());
+        }
+        return entries;
+    }
+
+    private SparseTensor build(Map<List<Integer>, Double> entries) {
+        SparseTensor.Builder builder = new SparseTensor.Builder(50, 40, 5).setUserDimension(0).setItemDimension(1);
+        for (Map.Entry<List<Integer>, Double> entry : entries.entrySet()) {
+            List<Integer> keys = entry.getKey();
+            builder.add(entry.getValue(), keys.get(0), keys.get(1), keys.get(2));
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testBuilderAndLookup() throws Exception {
+        Map<List<Integer>, Double> entries = randomEntries(new Random(1), 2000);
+        SparseTensor tensor = build(entries);
+
+        assertEquals(entries.size(), tensor.size());
+        for (Map.Entry<List<Integer>, Double> entry : entries.entrySet()) {
+            List<Integer> keys = entry.getKey();
+            assertEquals(entry.getValue(), tensor.get(keys.get(0), keys.get(1), keys.get(2)), 0.0);
+        }
+        assertEquals(0.0, tensor.get(50, 0, 0), 0.0);
+
+        // entries are in key order
+        for (int index = 1; index < tensor.size(); index++) {
+            int[] previous = tensor.keys(index - 1), current = tensor.keys(index);
+            assertTrue(compare(previous, current) < 0);
+        }
+    }
+
+    @Test
+    public void testIndices() throws Exception {
+        Map<List<Integer>, Double> entries = randomEntries(new Random(2), 2000);
+        SparseTensor tensor = build(entries);
+
+        for (int d = 0; d < 3; d++) {
+            for (int key = 0; key < tensor.dimensions[d]; key++) {
+                List<Integer> expected = new ArrayList<>();
+                for (int index = 0; index < tensor.size(); index++) {
+                    if (tensor.key(d, index) == key) {
+                        expected.add(index);
+                    }
+                }
+                List<Integer> actual = new ArrayList<>(tensor.getIndex(d, key));
+                Collections.sort(actual);
+                assertEquals(expected, actual);
+            }
+            assertTrue(tensor.isIndexed(d));
+        }
+
+        for (int user = 0; user < 50; user++) {
+            for (int item = 0; item < 40; item++) {
+                List<Integer> expected = new ArrayList<>();
+                for (int index = 0; index < tensor.size(); index++) {
+                    if (tensor.key(0, index) == user && tensor.key(1, index) == item) {
+                        expected.add(index);
+                    }
+                }
+                assertEquals(expected, tensor.getIndices(user, item));
+            }
+        }
+    }
+
+    @Test
+    public void testUpdates() throws Exception {
+        Map<List<Integer>, Double> entries = randomEntries(new Random(3), 500);
+        SparseTensor tensor = new SparseTensor(50, 40, 5);
+        for (Map.Entry<List<Integer>, Double> entry : entries.entrySet()) {
+            List<Integer> keys = entry.getKey();
+            tensor.set(entry.getValue(), keys.get(0), keys.get(1), keys.get(2));
+        }
+        assertEquals(build(entries).toString(), tensor.toString());
+
+        tensor.add(1.0, 0, 0, 0);
+        tensor.add(1.0, 0, 0, 0);
+        assertEquals(entries.getOrDefault(Arrays.asList(0, 0, 0), 0.0) + 2.0, tensor.get(0, 0, 0), 1e-12);
+
+        // build the index, then remove half of the entries through the iterator
+        tensor.buildIndices();
+        int size = tensor.size();
+        Iterator<TensorEntry> iterator = tensor.iterator();
+        int position = 0;
+        while (iterator.hasNext()) {
+            TensorEntry entry = iterator.next();
+            if (position++ % 2 == 0) {
+                entry.remove();
+            }
+        }
+        assertEquals(size / 2, tensor.size());
+        assertTrue(tensor.remove(tensor.keys(0)));
+        assertFalse(tensor.contains(tensor.keys(0)[0], tensor.keys(0)[1], 5));
+        assertEquals(size / 2 - 1, tensor.size());
+
+        int numEntries = 0;
+        for (int key = 0; key < 5; key++) {
+            numEntries += tensor.getIndex(2, key).size();
+        }
+        assertEquals(tensor.size(), numEntries);
+    }
+
+    @Test
+    public void testRateMatrix() throws Exception {
+        Map<List<Integer>, Double> entries = randomEntries(new Random(4), 1000);
+        SparseTensor tensor = build(entries);
+        SequentialAccessSparseMatrix rateMatrix = tensor.rateMatrix();
+
+        Map<List<Integer>, Double> expected = new HashMap<>();
+        for (int index = 0; index < tensor.size(); index++) {
+            expected.put(Arrays.asList(tensor.key(0, index), tensor.key(1, index)), tensor.value(index));
+        }
+        assertEquals(expected.size(), rateMatrix.size());
+        for (Map.Entry<List<Integer>, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), rateMatrix.get(entry.getKey().get(0), entry.getKey().get(1)), 0.0);
+        }
+
+        // a tag x item projection sorts the columns of every tag fiber
+        SequentialAccessSparseMatrix tagItemMatrix = tensor.projection(2, 1);
+        for (int index = 0; index < tensor.size(); index++) {
+            assertTrue(tagItemMatrix.get(tensor.key(2, index), tensor.key(1, index)) != 0.0);
+        }
+    }
+
+    private int compare(int[] keys, int[] other) {
+        for (int d = 0; d < keys.length; d++) {
+            if (keys[d] != other[d]) {
+                return Integer.compare(keys[d], other[d]);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,436 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.data.DataAppender;
+import net.librec.data.DataContext;
+import net.librec.data.DataModel;
+import net.librec.data.DataSplitter;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataSet;
+import net.librec.math.structure.SparseTensor;
+import net.librec.math.structure.VectorBasedSequentialSparseVector;
+import net.librec.recommender.cf.rating.FFMRecommender;
+import net.librec.recommender.cf.rating.FMFTRLRecommender;
+import net.librec.recommender.cf.rating.FMSGDRecommender;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases about the FactorizationMachineRecommender class
+ * {@link net.librec.recommender.FactorizationMachineRecommender}
+ */
+public class FactorizationMachineRecommenderTestCase extends BaseTestCase {
+
+    static final int NUM_USERS = 20, NUM_ITEMS = 15, NUM_CONTEXTS = 3;
+
+    /**
+     * A data model of a train and a test tensor.
+     */
+    static class TensorDataModel implements DataModel {
+        private final SparseTensor trainTensor, testTensor;
+        private final BiMap<String, Integer> userMapping = HashBiMap.create(), itemMapping = HashBiMap.create();
+
+        TensorDataModel(SparseTensor trainTensor, SparseTensor testTensor) {
+            this.trainTensor = trainTensor;
+            this.testTensor = testTensor;
+            for (int userIdx = 0; userIdx < trainTensor.dimensions()[0]; userIdx++) {
+                userMapping.put("u" + userIdx, userIdx);
+            }
+            for (int itemIdx = 0; itemIdx < trainTensor.dimensions()[1]; itemIdx++) {
+                itemMapping.put("i" + itemIdx, itemIdx);
+            }
+        }
+
+        @Override
+        public void buildDataModel() throws LibrecException {
+        }
+
+        @Override
+        public void loadDataModel() throws LibrecException {
+        }
+
+        @Override
+        public void saveDataModel() throws LibrecException {
+        }
+
+        @Override
+        public DataSplitter getDataSplitter() {
+            return null;
+        }
+
+        @Override
+        public DataSet getTrainDataSet() {
+            return trainTensor;
+        }
+
+        @Override
+        public DataSet getTestDataSet() {
+            return testTensor;
+        }
+
+        @Override
+        public DataSet getValidDataSet() {
+            return null;
+        }
+
+        @Override
+        public DataSet getDatetimeDataSet() {
+            return null;
+        }
+
+        @Override
+        public BiMap<String, Integer> getUserMappingData() {
+            return userMapping;
+        }
+
+        @Override
+        public BiMap<String, Integer> getItemMappingData() {
+            return itemMapping;
+        }
+
+        @Override
+        public DataAppender getDataAppender() {
+            return null;
+        }
+
+        @Override
+        public DataContext getContext() {
+            return null;
+        }
+
+        @Override
+        public void nextFold() {
+        }
+
+        @Override
+        public boolean hasNextFold() {
+            return false;
+        }
+    }
+
+    private static SparseTensor tensor(List<int[]> keys, List<Double> ratings) {
+        int[][] nds = new int[3][keys.size()];
+        double[] values = new double[keys.size()];
+        for (int index = 0; index < keys.size(); index++) {
+            for (int dim = 0; dim < 3; dim++) {
+                nds[dim][index] = keys.get(index)[dim];
+            }
+            values[index] = ratings.get(index);
+        }
+        SparseTensor tensor = new SparseTensor(new int[]{NUM_USERS, NUM_ITEMS, NUM_CONTEXTS}, nds, values);
+        tensor.setUserDimension(0);
+        tensor.setItemDimension(1);
+        return tensor;
+    }
+
+    /**
+     * Random ratings of users in a context of one dimension, the last user has no training entries.
+     */
+    static DataModel randomDataModel(long seed) {
+        Random random = new Random(seed);
+        List<int[]> trainKeys = new ArrayList<>(), testKeys = new ArrayList<>();
+        List<Double> trainRatings = new ArrayList<>(), testRatings = new ArrayList<>();
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+                int draw = random.nextInt(10);
+                int[] keys = {userIdx, itemIdx, random.nextInt(NUM_CONTEXTS)};
+                double rating = 1 + random.nextInt(5);
+                if (draw < 3 && userIdx < NUM_USERS - 1) {
+                    trainKeys.add(keys);
+                    trainRatings.add(rating);
+                } else if (draw == 3) {
+                    testKeys.add(keys);
+                    testRatings.add(rating);
+                }
+            }
+        }
+        return new TensorDataModel(tensor(trainKeys, trainRatings), tensor(testKeys, testRatings));
+    }
+
+    /**
+     * Train a recommender with a fixed seed on a rating task.
+     */
+    FactorizationMachineRecommender train(FactorizationMachineRecommender recommender, DataModel dataModel,
+                                          int numIterations) throws LibrecException {
+        conf.set("rec.recommender.isranking", "false");
+        conf.set("rec.recommender.verbose", "false");
+        conf.setInt("rec.factor.number", 4);
+        conf.setInt("rec.iterator.maximum", numIterations);
+        conf.set("rec.iterator.learnRate", "0.01");
+        conf.set("rec.fm.regF", "0.01");
+        conf.set("rec.regularization.lambda1", "0.01");
+        conf.set("rec.regularization.lambda2", "0.01");
+        conf.set("rec.learningRate.alpha", "0.1");
+        conf.set("rec.learningRate.beta", "1");
+        Randoms.seed(1L);
+        recommender.train(new RecommenderContext(conf, dataModel));
+        return recommender;
+    }
+
+    /**
+     * The appender vector of a user and an item in the user's context: the user feature, if the user is in the
+     * training tensor, and every context value of the user's training entries valued by its frequency among them,
+     * or among all training entries for a user without any.
+     *
+     * @return the ascending appender indices in {@code [0]} and their values in {@code [1]}
+     */
+    static double[][] rankingFeatures(SparseTensor trainTensor, int userIdx, int itemIdx) {
+        int numEntries = 0;
+        for (int index = 0; index < trainTensor.size(); index++) {
+            if (trainTensor.key(0, index) == userIdx) {
+                numEntries++;
+            }
+        }
+        boolean allEntries = numEntries == 0;
+        if (allEntries) {
+            numEntries = trainTensor.size();
+        }
+        TreeMap<Integer, Double> features = new TreeMap<>();
+        for (int index = 0; index < trainTensor.size(); index++) {
+            if (allEntries || trainTensor.key(0, index) == userIdx) {
+                features.merge(NUM_USERS + NUM_ITEMS + trainTensor.key(2, index), 1.0d / numEntries, Double::sum);
+            }
+        }
+        if (userIdx < NUM_USERS) {
+            features.put(userIdx, 1.0d);
+        }
+        features.put(NUM_USERS + itemIdx, 1.0d);
+
+        double[][] indicesAndValues = new double[2][features.size()];
+        int position = 0;
+        for (Map.Entry<Integer, Double> feature : features.entrySet()) {
+            indicesAndValues[0][position] = feature.getKey();
+            indicesAndValues[1][position++] = feature.getValue();
+        }
+        return indicesAndValues;
+    }
+
+    private static int field(int feature) {
+        return feature < NUM_USERS ? 0 : feature < NUM_USERS + NUM_ITEMS ? 1 : 2;
+    }
+
+    /**
+     * The brute force field-aware prediction of an appender vector, every ordered pair of features
+     * interacting through the factors of each other's field.
+     */
+    private static double fieldAwarePredict(FactorizationMachineRecommender ffm, double[][] features) {
+        double[][] factors = ffm.V.getValues();
+        double res = ffm.w0;
+        for (int a = 0; a < features[0].length; a++) {
+            int i = (int) features[0][a];
+            res += features[1][a] * ffm.W.get(i);
+            for (int b = 0; b < features[0].length; b++) {
+                int j = (int) features[0][b];
+                if (i == j) continue;
+                for (int f = 0; f < ffm.k; f++) {
+                    res += features[1][a] * features[1][b] * factors[i][field(j) + f] * factors[j][field(i) + f];
+                }
+            }
+        }
+        return res;
+    }
+
+    private static int[] keys(SparseTensor tensor, int index) {
+        int[] keys = new int[tensor.numDimensions];
+        for (int dim = 0; dim < keys.length; dim++) {
+            keys[dim] = tensor.key(dim, index);
+        }
+        return keys;
+    }
+
+    /**
+     * Copy the factors of the active features of an appender vector, the values the gradients of an entry use.
+     */
+    private static double[][] activeFactors(FactorizationMachineRecommender fm, VectorBasedSequentialSparseVector x) {
+        double[][] factors = new double[x.getNumEntries()][];
+        for (int position = 0; position < factors.length; position++) {
+            factors[position] = fm.V.getValues()[x.getIndexAtPosition(position)].clone();
+        }
+        return factors;
+    }
+
+    /**
+     * h_lf = x_l * sum_{j != l} v_jf x_j of an appender vector over the factors of its active features.
+     */
+    private static double interaction(VectorBasedSequentialSparseVector x, double[][] factors, int position, int f) {
+        double hVlf = 0;
+        for (int other = 0; other < factors.length; other++) {
+            if (other != position) {
+                hVlf += x.getAtPosition(position) * factors[other][f] * x.getAtPosition(other);
+            }
+        }
+        return hVlf;
+    }
+
+    /**
+     * One epoch of stochastic gradient descent over the sparse appender vectors of the training entries.
+     */
+    private static void sgdEpoch(FactorizationMachineRecommender fm, double learnRate) throws LibrecException {
+        for (int index = 0; index < fm.trainTensor.size(); index++) {
+            VectorBasedSequentialSparseVector x = fm.tenserKeysToFeatureVector(keys(fm.trainTensor, index));
+            double gradLoss = fm.predict(x) - fm.trainTensor.value(index);
+            double[][] factors = activeFactors(fm, x);
+
+            fm.w0 += -learnRate * (gradLoss + fm.regW0 * fm.w0);
+            for (int position = 0; position < factors.length; position++) {
+                int l = x.getIndexAtPosition(position);
+                double oldWl = fm.W.get(l);
+                fm.W.set(l, oldWl - learnRate * (gradLoss * x.getAtPosition(position) + fm.regW * oldWl));
+                for (int f = 0; f < fm.k; f++) {
+                    double gradVlf = gradLoss * interaction(x, factors, position, f) + fm.regF * factors[position][f];
+                    fm.V.set(l, f, factors[position][f] - learnRate * gradVlf);
+                }
+            }
+        }
+    }
+
+    /**
+     * The FTRL-proximal update of a parameter given its gradient, z and n are updated in place at position.
+     */
+    private static double ftrl(double value, double gradient, double[] z, double[] n, int position) {
+        double alpha = 0.1, beta = 1, lambda1 = 0.01, lambda2 = 0.01;
+        double theta = 1 / alpha * (Math.sqrt(n[position] + gradient * gradient) - Math.sqrt(n[position]));
+        z[position] += gradient - theta * value;
+        n[position] += gradient * gradient;
+        if (Math.abs(z[position]) <= lambda1) {
+            return 0;
+        }
+        return -1 / ((beta + Math.sqrt(n[position])) / alpha + lambda2) * (z[position] - Math.signum(z[position]) * lambda1);
+    }
+
+    /**
+     * Epochs of FTRL-proximal over the sparse appender vectors of the training entries.
+     */
+    private static void ftrlEpochs(FactorizationMachineRecommender fm, int numIterations) throws LibrecException {
+        double[] zW0 = new double[1], nW0 = new double[1];
+        double[] zW = new double[fm.p], nW = new double[fm.p];
+        double[][] zV = new double[fm.p][fm.k], nV = new double[fm.p][fm.k];
+        for (int iter = 0; iter < numIterations; iter++) {
+            for (int index = 0; index < fm.trainTensor.size(); index++) {
+                VectorBasedSequentialSparseVector x = fm.tenserKeysToFeatureVector(keys(fm.trainTensor, index));
+                double gradLoss = fm.predict(x) - fm.trainTensor.value(index);
+                double[][] factors = activeFactors(fm, x);
+
+                fm.w0 = ftrl(fm.w0, gradLoss, zW0, nW0, 0);
+                for (int position = 0; position < factors.length; position++) {
+                    int l = x.getIndexAtPosition(position);
+                    fm.W.set(l, ftrl(fm.W.get(l), gradLoss * x.getAtPosition(position), zW, nW, l));
+                    for (int f = 0; f < fm.k; f++) {
+                        double gradVlf = gradLoss * interaction(x, factors, position, f);
+                        fm.V.set(l, f, ftrl(factors[position][f], gradVlf, zV[l], nV[l], f));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameParameters(FactorizationMachineRecommender expected,
+                                             FactorizationMachineRecommender actual, double delta) {
+        assertEquals(expected.w0, actual.w0, delta);
+        for (int l = 0; l < expected.p; l++) {
+            assertEquals(expected.W.get(l), actual.W.get(l), delta);
+            for (int f = 0; f < expected.k; f++) {
+                assertEquals(expected.V.get(l, f), actual.V.get(l, f), delta);
+            }
+        }
+    }
+
+    @Test
+    public void testKernels() throws LibrecException {
+        DataModel dataModel = randomDataModel(11L);
+        int numIterations = 3;
+        FactorizationMachineRecommender fm = train(new FMSGDRecommender(), dataModel, numIterations);
+        SparseTensor trainTensor = fm.trainTensor;
+        assertTrue(trainTensor.size() > 0);
+
+        // the flattened appender indices are those of the sparse appender vectors
+        assertEquals(Arrays.toString(new int[]{0, NUM_USERS, NUM_USERS + NUM_ITEMS}), Arrays.toString(fm.featureOffsets));
+        assertEquals(trainTensor.size() * 3, fm.trainFeatureIndices.length);
+        double[] factorSums = new double[fm.k];
+        for (int index = 0, from = 0; index < trainTensor.size(); index++, from += 3) {
+            VectorBasedSequentialSparseVector x = fm.tenserKeysToFeatureVector(keys(trainTensor, index));
+            assertEquals(3, x.getNumEntries());
+            for (int position = 0; position < 3; position++) {
+                assertEquals(x.getIndexAtPosition(position), fm.trainFeatureIndices[from + position]);
+            }
+            assertEquals(trainTensor.value(index), fm.trainRatings[index], 0.0);
+
+            assertEquals(fm.predict(x), fm.predict(fm.trainFeatureIndices, from, factorSums), 1e-13);
+            for (int f = 0; f < fm.k; f++) {
+                double factorSum = 0;
+                for (int position = 0; position < 3; position++) {
+                    factorSum += fm.V.get(x.getIndexAtPosition(position), f);
+                }
+                assertEquals(factorSum, factorSums[f], 1e-13);
+            }
+        }
+
+        // the kernels train as gradient steps over the sparse appender vectors from the same initial parameters
+        FactorizationMachineRecommender reference = train(new FMSGDRecommender(), dataModel, 0);
+        for (int iter = 0; iter < numIterations; iter++) {
+            sgdEpoch(reference, 0.01);
+        }
+        assertSameParameters(reference, fm, 1e-12);
+
+        FactorizationMachineRecommender ftrl = train(new FMFTRLRecommender(), dataModel, numIterations);
+        reference = train(new FMFTRLRecommender(), dataModel, 0);
+        ftrlEpochs(reference, numIterations);
+        assertSameParameters(reference, ftrl, 1e-12);
+        assertTrue(ftrl.w0 != 0.0);
+    }
+
+    @Test
+    public void testPredictItems() throws LibrecException {
+        DataModel dataModel = randomDataModel(7L);
+        SparseTensor trainTensor = (SparseTensor) dataModel.getTrainDataSet();
+        FactorizationMachineRecommender fm = train(new FMSGDRecommender(), dataModel, 3);
+        FactorizationMachineRecommender ffm = train(new FFMRecommender(), dataModel, 3);
+
+        // the last user has no training entries, the user after it is not in the training tensor
+        double[] scores = new double[NUM_ITEMS];
+        for (int userIdx = 0; userIdx <= NUM_USERS; userIdx++) {
+            fm.predictItems(userIdx, scores);
+            for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+                double[][] features = rankingFeatures(trainTensor, userIdx, itemIdx);
+                int[] indices = new int[features[0].length];
+                for (int position = 0; position < indices.length; position++) {
+                    indices[position] = (int) features[0][position];
+                }
+                double expected = fm.predict(new VectorBasedSequentialSparseVector(fm.p, indices, features[1]));
+                assertEquals(expected, scores[itemIdx], 1e-13);
+                assertEquals(expected, fm.predict(userIdx, itemIdx), 1e-13);
+            }
+
+            ffm.predictItems(userIdx, scores);
+            for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+                double expected = fieldAwarePredict(ffm, rankingFeatures(trainTensor, userIdx, itemIdx));
+                assertEquals(expected, scores[itemIdx], 1e-13);
+                assertEquals(expected, ffm.predict(userIdx, itemIdx), 1e-13);
+            }
+        }
+    }
+}
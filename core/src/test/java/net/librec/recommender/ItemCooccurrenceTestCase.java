@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the ItemCooccurrence class
+ * {@link net.librec.recommender.ItemCooccurrence}
+ */
+public class ItemCooccurrenceTestCase extends BaseTestCase {
+
+    /**
+     * users 0: {0, 1, 2}, 1: {0, 2}, 2: {1, 2, 3}, 3: {0, 1, 2, 3}, item 4 is not rated
+     */
+    private static final int[][] TRANSACTIONS = {{0, 1, 2}, {0, 2}, {1, 2, 3}, {0, 1, 2, 3}};
+
+    /**
+     * X^T X of the transactions, the supports on the diagonal
+     */
+    private static final int[][] COUNTS = {
+            {3, 2, 3, 1, 0},
+            {2, 3, 3, 2, 0},
+            {3, 3, 4, 2, 0},
+            {1, 2, 2, 2, 0},
+            {0, 0, 0, 0, 0}
+    };
+
+    private static SequentialAccessSparseMatrix trainMatrix(int[][] transactions, int numItems) {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        for (int userIdx = 0; userIdx < transactions.length; userIdx++) {
+            for (int itemIdx : transactions[userIdx]) {
+                table.put(userIdx, itemIdx, 5.0);
+            }
+        }
+        return new SequentialAccessSparseMatrix(transactions.length, numItems, table);
+    }
+
+    @Test
+    public void testCounts() {
+        for (int numThreads : new int[]{1, 3}) {
+            ItemCooccurrence cooccurrence = new ItemCooccurrence(trainMatrix(TRANSACTIONS, 5), numThreads);
+            assertEquals(5, cooccurrence.getNumItems());
+            assertEquals(16, cooccurrence.getNumPairs());
+            for (int itemIdx = 0; itemIdx < 5; itemIdx++) {
+                assertEquals(COUNTS[itemIdx][itemIdx], cooccurrence.getSupport(itemIdx));
+                for (int otherIdx = 0; otherIdx < 5; otherIdx++) {
+                    assertEquals(COUNTS[itemIdx][otherIdx], cooccurrence.getCount(itemIdx, otherIdx));
+                }
+            }
+
+            assertEquals(2, cooccurrence.getCount(0, 1, 2));
+            assertEquals(1, cooccurrence.getCount(3, 0, 1));
+            assertEquals(2, cooccurrence.getCount(1, 2, 3));
+            assertEquals(1, cooccurrence.getCount(0, 2, 3));
+            assertEquals(2, cooccurrence.getCount(2, 2, 3));
+            assertEquals(0, cooccurrence.getCount(0, 1, 4));
+        }
+    }
+
+    @Test
+    public void testRules() {
+        ItemCooccurrence cooccurrence = new ItemCooccurrence(trainMatrix(TRANSACTIONS, 5), 1);
+
+        // scored by count, ties in antecedent order
+        ItemCooccurrence.Rules rules = cooccurrence.rules((antecedent, consequent, count) -> count, 2, false, 2);
+        assertEquals(5, rules.getNumItems());
+        assertEquals(8, rules.size());
+        int[][] antecedents = {{2, 1}, {2, 0}, {0, 1}, {1, 2}, {}};
+        double[][] scores = {{3, 2}, {3, 2}, {3, 3}, {2, 2}, {}};
+        for (int consequent = 0; consequent < 5; consequent++) {
+            assertEquals(antecedents[consequent].length, rules.end(consequent) - rules.start(consequent));
+            for (int offset = 0; offset < antecedents[consequent].length; offset++) {
+                assertEquals(antecedents[consequent][offset], rules.antecedent(rules.start(consequent) + offset));
+                assertEquals(scores[consequent][offset], rules.score(rules.start(consequent) + offset), 0.0);
+            }
+        }
+
+        // all rules, the item itself included, rules scored zero are dropped
+        rules = cooccurrence.rules((antecedent, consequent, count) -> antecedent == 0 ? 0.0 : count, 0, true, 1);
+        int[] expected = {1, 2, 3};
+        int[] actual = new int[rules.end(3) - rules.start(3)];
+        for (int offset = 0; offset < actual.length; offset++) {
+            actual[offset] = rules.antecedent(rules.start(3) + offset);
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSameAsDense() {
+        // more items than one counting block
+        int numUsers = 60, numItems = 150;
+        Random random = new Random(3);
+        int[][] transactions = new int[numUsers][];
+        boolean[][] rated = new boolean[numUsers][numItems];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int numRated = 0;
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                if (random.nextInt(10) == 0) {
+                    rated[userIdx][itemIdx] = true;
+                    numRated++;
+                }
+            }
+            transactions[userIdx] = new int[numRated];
+            for (int itemIdx = 0, position = 0; itemIdx < numItems; itemIdx++) {
+                if (rated[userIdx][itemIdx]) {
+                    transactions[userIdx][position++] = itemIdx;
+                }
+            }
+        }
+
+        ItemCooccurrence cooccurrence = new ItemCooccurrence(trainMatrix(transactions, numItems), 3);
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            for (int otherIdx = 0; otherIdx < numItems; otherIdx++) {
+                int count = 0;
+                for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                    if (rated[userIdx][itemIdx] && rated[userIdx][otherIdx]) {
+                        count++;
+                    }
+                }
+                assertEquals(count, cooccurrence.getCount(itemIdx, otherIdx));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.conf.Configuration;
+import net.librec.math.algorithm.Randoms;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the TopicSampler class
+ * {@link net.librec.recommender.TopicSampler}
+ */
+public class TopicSamplerTestCase {
+
+    private static final int NUM_DOCS = 40, NUM_WORDS = 30, NUM_TOPICS = 8;
+
+    /**
+     * Sweep a random corpus and check that the counts agree with the topic assignments after every sweep.
+     */
+    private void assertConsistentCounts(String method, int numThreads) {
+        Random random = new Random(7);
+        int[] tokenDocs = new int[600], tokenWords = new int[600];
+        for (int tokenIdx = 0; tokenIdx < tokenDocs.length; tokenIdx++) {
+            tokenDocs[tokenIdx] = tokenIdx * NUM_DOCS / tokenDocs.length;
+            // two groups of documents drawing from two halves of the vocabulary
+            tokenWords[tokenIdx] = random.nextInt(NUM_WORDS / 2) + (tokenDocs[tokenIdx] % 2) * NUM_WORDS / 2;
+        }
+        double[] alpha = new double[NUM_TOPICS], beta = new double[NUM_WORDS];
+        Arrays.fill(alpha, 0.5);
+        Arrays.fill(beta, 0.1);
+        Configuration conf = new Configuration();
+        conf.set("rec.pgm.sampler", method);
+        conf.setInt("rec.thread.count", numThreads);
+        Randoms.seed(1L);
+        TopicSampler sampler = new TopicSampler(NUM_DOCS, NUM_WORDS, NUM_TOPICS, tokenDocs, tokenWords, alpha, beta, conf);
+        assertEquals(numThreads, sampler.getNumThreads());
+
+        for (int sweep = 0; sweep < 5; sweep++) {
+            sampler.sweep();
+            int[][] docTopics = new int[NUM_DOCS][NUM_TOPICS], wordTopics = new int[NUM_WORDS][NUM_TOPICS];
+            int[] topics = new int[NUM_TOPICS];
+            for (int tokenIdx = 0; tokenIdx < tokenDocs.length; tokenIdx++) {
+                int topicIdx = sampler.getAssignment(tokenIdx);
+                docTopics[tokenDocs[tokenIdx]][topicIdx]++;
+                wordTopics[tokenWords[tokenIdx]][topicIdx]++;
+                topics[topicIdx]++;
+            }
+            for (int topicIdx = 0; topicIdx < NUM_TOPICS; topicIdx++) {
+                assertEquals(topics[topicIdx], sampler.getTopicCount(topicIdx));
+                for (int docIdx = 0; docIdx < NUM_DOCS; docIdx++) {
+                    assertEquals(docTopics[docIdx][topicIdx], sampler.getDocTopicCount(docIdx, topicIdx));
+                }
+                for (int wordIdx = 0; wordIdx < NUM_WORDS; wordIdx++) {
+                    assertEquals(wordTopics[wordIdx][topicIdx], sampler.getWordTopicCount(wordIdx, topicIdx));
+                }
+            }
+        }
+        assertEquals(tokenDocs.length / NUM_DOCS, sampler.getDocLength(0));
+    }
+
+    @Test
+    public void testDense() {
+        assertConsistentCounts("dense", 1);
+        assertConsistentCounts("dense", 3);
+    }
+
+    @Test
+    public void testSparse() {
+        assertConsistentCounts("sparse", 1);
+        assertConsistentCounts("sparse", 3);
+    }
+
+    @Test
+    public void testAlias() {
+        assertConsistentCounts("alias", 1);
+        assertConsistentCounts("alias", 3);
+    }
+}
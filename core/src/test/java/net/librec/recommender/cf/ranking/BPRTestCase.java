@@ -53,4 +53,21 @@ public class BPRTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * test BPR trained on several threads with adaptive negative sampling
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testParallelAdaptiveSampling() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/cf/ranking/bpr-test.properties");
+        conf.addResource(resource);
+        conf.set("rec.thread.count", "4");
+        conf.set("rec.sampler.negative", "adaptive");
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
@@ -53,4 +53,21 @@ public class LDATestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * test LDA sampled by alias tables on several partitions
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testParallelAliasSampling() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/cf/ranking/lda-test.properties");
+        conf.addResource(resource);
+        conf.set("rec.thread.count", "4");
+        conf.set("rec.pgm.sampler", "alias");
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
@@ -20,12 +20,23 @@ package net.librec.recommender.cf.ranking;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
+import net.librec.data.model.TextDataModel;
 import net.librec.job.RecommenderJob;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.Vector;
+import net.librec.recommender.RecommenderContext;
+import net.librec.similarity.CosineSimilarity;
+import net.librec.similarity.RecommenderSimilarity;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * SLIM Test Case corresponds to SLIMRecommender
  * {@link SLIMRecommender}
@@ -53,4 +64,128 @@ public class SLIMTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    private SLIMRecommender train(RecommenderContext context, int numIterations) throws LibrecException {
+        conf.setInt("rec.iterator.maximum", numIterations);
+        Randoms.seed(1L);
+        SLIMRecommender recommender = new SLIMRecommender();
+        recommender.train(context);
+        return recommender;
+    }
+
+    /**
+     * A prediction of the sequential coordinate descent, walking the ratings of the user.
+     */
+    private static double predict(SequentialAccessSparseMatrix trainMatrix, double[][] coefficients,
+                                  int userIdx, int itemIdx, int excludedItemIdx) {
+        double predictRating = 0;
+        for (Vector.VectorEntry itemEntry : trainMatrix.row(userIdx)) {
+            if (itemEntry.index() != excludedItemIdx) {
+                predictRating += itemEntry.get() * coefficients[itemEntry.index()][itemIdx];
+            }
+        }
+        return predictRating;
+    }
+
+    /**
+     * The coefficients of the parallel columns with a maintained residual are those of the sequential
+     * coordinate descent recomputing every prediction, from the same initial coefficients on FilmTrust.
+     */
+    @Test
+    public void testSameAsSequential() throws Exception {
+        conf.set("dfs.data.dir", "../data");
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.random.seed", "1");
+        conf.set("rec.recommender.isranking", "true");
+        conf.set("rec.recommender.similarity.key", "item");
+        conf.set("rec.similarity.shrinkage", "10");
+        conf.setInt("rec.neighbors.knn.number", 50);
+        conf.set("rec.recommender.earlystop", "false");
+        conf.set("rec.slim.regularization.l1", "1");
+        conf.set("rec.slim.regularization.l2", "5");
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        RecommenderSimilarity similarity = new CosineSimilarity();
+        similarity.buildSimilarityMatrix(dataModel);
+        RecommenderContext context = new RecommenderContext(conf, dataModel, similarity);
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        int numUsers = trainMatrix.rowSize(), numItems = trainMatrix.columnSize();
+
+        // the initial coefficients are drawn in (0, 1), zero only for the items out of the neighbors
+        SLIMRecommender initial = train(context, 0);
+        double[][] coefficients = new double[numItems][numItems];
+        boolean[][] neighbors = new boolean[numItems][numItems];
+        int numNeighbors = 0;
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            for (int nearestNeighborItemIdx = 0; nearestNeighborItemIdx < numItems; nearestNeighborItemIdx++) {
+                coefficients[nearestNeighborItemIdx][itemIdx] = initial.getCoefficient(nearestNeighborItemIdx, itemIdx);
+                if (coefficients[nearestNeighborItemIdx][itemIdx] != 0.0d) {
+                    neighbors[itemIdx][nearestNeighborItemIdx] = true;
+                    numNeighbors++;
+                }
+            }
+        }
+        assertTrue(numNeighbors > 0);
+
+        int numIterations = 3;
+        double regL1Norm = 1.0d, regL2Norm = 5.0d;
+        for (int iter = 1; iter <= numIterations; iter++) {
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                double[] userRatingEntries = new double[numUsers];
+                for (Vector.VectorEntry ve : trainMatrix.column(itemIdx)) {
+                    userRatingEntries[ve.index()] = ve.get();
+                }
+
+                // neighbors in ascending order, as the parallel columns visit them
+                for (int nearestNeighborItemIdx = 0; nearestNeighborItemIdx < numItems; nearestNeighborItemIdx++) {
+                    if (!neighbors[itemIdx][nearestNeighborItemIdx]) {
+                        continue;
+                    }
+                    SequentialSparseVector nnUserRatingVec = trainMatrix.column(nearestNeighborItemIdx);
+                    double gradSum = 0.0d, rateSum = 0.0d;
+                    for (Vector.VectorEntry nnUserVectorEntry : nnUserRatingVec) {
+                        int nnUserIdx = nnUserVectorEntry.index();
+                        double nnRating = nnUserVectorEntry.get();
+                        double error = userRatingEntries[nnUserIdx]
+                                - predict(trainMatrix, coefficients, nnUserIdx, itemIdx, nearestNeighborItemIdx);
+                        gradSum += nnRating * error;
+                        rateSum += nnRating * nnRating;
+                    }
+                    gradSum /= nnUserRatingVec.getNumEntries();
+                    rateSum /= nnUserRatingVec.getNumEntries();
+
+                    double update = 0.0d;
+                    if (regL1Norm < Math.abs(gradSum)) {
+                        update = gradSum > 0 ? (gradSum - regL1Norm) / (regL2Norm + rateSum)
+                                : (gradSum + regL1Norm) / (regL2Norm + rateSum);
+                    }
+                    coefficients[nearestNeighborItemIdx][itemIdx] = update;
+                }
+            }
+        }
+
+        SLIMRecommender recommender = train(context, numIterations);
+        int numNonZeros = 0;
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            for (int nearestNeighborItemIdx = 0; nearestNeighborItemIdx < numItems; nearestNeighborItemIdx++) {
+                double expected = coefficients[nearestNeighborItemIdx][itemIdx];
+                assertEquals(expected, recommender.getCoefficient(nearestNeighborItemIdx, itemIdx), 1e-10);
+                if (expected != 0.0d) {
+                    numNonZeros++;
+                }
+            }
+        }
+        assertTrue(numNonZeros > 0);
+
+        // so are the ranking scores
+        for (int userIdx = 0; userIdx < numUsers; userIdx += 7) {
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                assertEquals(predict(trainMatrix, coefficients, userIdx, itemIdx, -1),
+                        recommender.predict(userIdx, itemIdx), 1e-9);
+            }
+        }
+    }
 }
@@ -53,4 +53,20 @@ public class WRMFTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * test WRMF with the conjugate gradient solver
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testConjugateGradient() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/cf/ranking/wrmf-test.properties");
+        conf.addResource(resource);
+        conf.set("rec.als.solver", "cg");
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
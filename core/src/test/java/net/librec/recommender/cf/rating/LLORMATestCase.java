@@ -20,12 +20,20 @@ package net.librec.recommender.cf.rating;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration.Resource;
+import net.librec.data.model.TextDataModel;
 import net.librec.job.RecommenderJob;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.RecommenderContext;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * LLORMA Test Case correspond to LLORMARecommender
  * {@link net.librec.recommender.cf.rating.LLORMARecommender}
@@ -55,4 +63,57 @@ public class LLORMATestCase extends BaseTestCase {
 		job.runJob();
 	}
 
+	private LLORMARecommender train(TextDataModel dataModel, int numThreads) throws LibrecException {
+		conf.setInt("rec.thread.count", numThreads);
+		Randoms.seed(1L);
+		LLORMARecommender recommender = new LLORMARecommender();
+		recommender.train(new RecommenderContext(conf, dataModel));
+		return recommender;
+	}
+
+	private static double rmse(LLORMARecommender recommender, SequentialAccessSparseMatrix testMatrix) {
+		double sum = 0.0d;
+		for (MatrixEntry matrixEntry : testMatrix) {
+			double error = recommender.predict(matrixEntry.row(), matrixEntry.column()) - matrixEntry.get();
+			sum += error * error;
+		}
+		return Math.sqrt(sum / testMatrix.size());
+	}
+
+	/**
+	 * The local models give the same test RMSE on one thread and on several for a fixed seed,
+	 * and every model records its training time.
+	 */
+	@Test
+	public void testThreadCount() throws Exception {
+		conf.set("dfs.data.dir", "../data");
+		conf.set("data.input.path", "filmtrust/rating");
+		conf.set("data.column.format", "UIR");
+		conf.set("data.model.splitter", "ratio");
+		conf.set("data.splitter.trainset.ratio", "0.8");
+		conf.set("rec.random.seed", "1");
+		conf.setInt("rec.global.factors.num", 10);
+		conf.setInt("rec.global.iteration.maximum", 20);
+		conf.setInt("rec.iterator.maximum", 20);
+		conf.setInt("rec.factor.number", 5);
+		conf.setInt("rec.model.num", 6);
+		TextDataModel dataModel = new TextDataModel(conf);
+		dataModel.buildDataModel();
+		SequentialAccessSparseMatrix testMatrix = (SequentialAccessSparseMatrix) dataModel.getTestDataSet();
+
+		LLORMARecommender sequential = train(dataModel, 1);
+		double expected = rmse(sequential, testMatrix);
+		assertTrue(expected > 0.0d && expected < 2.0d);
+		for (int numThreads : new int[]{3, 8}) {
+			LLORMARecommender recommender = train(dataModel, numThreads);
+			assertEquals(expected, rmse(recommender, testMatrix), 1e-10);
+
+			assertEquals(6, recommender.getNumCompletedModels());
+			assertEquals(6, recommender.getModelTrainingTimes().length);
+			for (long modelTrainingTime : recommender.getModelTrainingTimes()) {
+				assertTrue(modelTrainingTime > 0);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.checkpoint;
+
+import net.librec.conf.Configuration;
+import net.librec.data.model.TextDataModel;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.job.progress.JobCancelledException;
+import net.librec.job.progress.ProgressReporter;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.RecommenderContext;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.ReflectionUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the TrainingCheckpointer class
+ * {@link net.librec.recommender.checkpoint.TrainingCheckpointer}
+ */
+public class TrainingCheckpointerTestCase {
+
+    @Test
+    public void testResumeBiasedMF() throws Exception {
+        assertResumes("rec/cf/rating/biasedmf-test.properties");
+    }
+
+    @Test
+    public void testResumeBPR() throws Exception {
+        assertResumes("rec/cf/ranking/bpr-test.properties");
+    }
+
+    @Test
+    public void testResumeSVDPlusPlus() throws Exception {
+        assertResumes("rec/cf/rating/svdpp-test.properties");
+    }
+
+    /**
+     * Train a recommender without checkpoints, then train it again interrupted after 7 iterations and resume
+     * the interrupted training: the resumed training ends in the very state of the uninterrupted one.
+     */
+    private void assertResumes(String resource) throws Exception {
+        File directory = Files.createTempDirectory("checkpoint").toFile();
+        Configuration conf = configuration(resource, directory, false);
+        byte[] expectedState = state(train(conf, null));
+
+        // interrupt the training as soon as the 7th iteration is done
+        conf = configuration(resource, directory, true);
+        ProgressReporter reporter = new ProgressReporter() {
+            @Override
+            public void progress() {
+            }
+
+            @Override
+            public void checkCancelled() {
+                if (getJobStatus().getIteration() >= 7) {
+                    cancel();
+                }
+                super.checkCancelled();
+            }
+        };
+        MetricRegistry metrics = MetricRegistry.open(conf, "interrupted");
+        try {
+            train(conf, reporter);
+            fail("the training should stop when cancelled");
+        } catch (JobCancelledException e) {
+            // expected
+        }
+        assertEquals(2L, metrics.timer("train.checkpoint.snapshot").getCount());
+        assertEquals(2L, metrics.timer("train.checkpoint.write").getCount());
+        assertTrue(metrics.counter("train.checkpoint.bytes").getCount() > 0L);
+        metrics.close();
+        File[] checkpoints = directory.listFiles((dir, name) -> name.endsWith(".checkpoint"));
+        assertEquals(1, checkpoints.length);
+
+        conf = configuration(resource, directory, true);
+        metrics = MetricRegistry.open(conf, "resumed");
+        AbstractRecommender recommender = train(conf, null);
+        assertEquals(1L, metrics.timer("train.checkpoint.restore").getCount());
+        metrics.close();
+        assertArrayEquals(expectedState, state(recommender));
+        // the checkpoint of a completed training is deleted
+        assertFalse(checkpoints[0].exists());
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static Configuration configuration(String resource, File directory, boolean checkpoints) {
+        Configuration conf = new Configuration();
+        conf.addResource(new Configuration.Resource(resource));
+        conf.set("dfs.data.dir", "../data");
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.iterator.maximum", "10");
+        conf.set("rec.recommender.earlystop", "false");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.random.seed", "1");
+        conf.setBoolean(MetricRegistry.CONF_ENABLED, true);
+        conf.set(MetricRegistry.CONF_OUTPUT_PATH, directory.getPath());
+        if (checkpoints) {
+            conf.set(TrainingCheckpointer.CONF_DIR, directory.getPath());
+            conf.setInt(TrainingCheckpointer.CONF_ITERATIONS, 3);
+        }
+        return conf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AbstractRecommender train(Configuration conf, ProgressReporter reporter) throws Exception {
+        DataFrame.clearInnerMapping();
+        Randoms.seed(conf.getLong("rec.random.seed"));
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        dataModel.nextFold();
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        context.setProgressReporter(reporter);
+        AbstractRecommender recommender = ReflectionUtil.newInstance(
+                (Class<AbstractRecommender>) DriverClassUtil.getClass(conf.get("rec.recommender.class")), conf);
+        recommender.train(context);
+        return recommender;
+    }
+
+    /**
+     * @return the checkpointed state of a recommender and of the random numbers
+     */
+    private static byte[] state(AbstractRecommender recommender) throws Exception {
+        TrainingSnapshot snapshot = new TrainingSnapshot(TrainingCheckpointer.stateFields(recommender));
+        snapshot.capture(recommender, 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.content;
+
+import net.librec.BaseTestCase;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SparseTensor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the ReviewCorpus class
+ * {@link net.librec.recommender.content.ReviewCorpus}
+ */
+public class ReviewCorpusTestCase extends BaseTestCase {
+
+    private static final double DELTA = 1e-12;
+
+    /**
+     * Build a user x item x text tensor, the texts registered in the inner mapping of the column.
+     *
+     * @param column  name of the text column
+     * @param entries entry[e]: user, item and text of the e-th entry
+     * @param texts   the texts
+     * @return the tensor
+     */
+    private SparseTensor buildTensor(String column, int[][] entries, String... texts) {
+        for (String text : texts) {
+            DataFrame.setId(text, column);
+        }
+        int[][] keys = new int[3][entries.length];
+        double[] values = new double[entries.length];
+        for (int entryIdx = 0; entryIdx < entries.length; entryIdx++) {
+            for (int d = 0; d < 3; d++) {
+                keys[d][entryIdx] = entries[entryIdx][d];
+            }
+            values[entryIdx] = 1.0d;
+        }
+        return new SparseTensor(new int[]{2, 2, texts.length}, keys, values);
+    }
+
+    /**
+     * documents in order: (0, 0) "good film good", (0, 1) "bad film", (1, 0) "good plot", (1, 1) "good film good"
+     */
+    private ReviewCorpus.Documents tokenizeFixture(ReviewCorpus corpus) {
+        SparseTensor tensor = buildTensor("review_corpus_fixture",
+                new int[][]{{1, 1, 0}, {1, 0, 2}, {0, 1, 1}, {0, 0, 0}},
+                "good  film good", "bad film", "good plot");
+        return corpus.tokenize(tensor, true);
+    }
+
+    /**
+     * Assert the entries of a row of the vectors.
+     */
+    private void assertRow(ReviewCorpus.Vectors vectors, int rowIdx, int[] indices, double[] values) {
+        assertEquals(indices.length, vectors.end(rowIdx) - vectors.start(rowIdx));
+        for (int offset = 0; offset < indices.length; offset++) {
+            assertEquals(indices[offset], vectors.index(vectors.start(rowIdx) + offset));
+            assertEquals(values[offset], vectors.value(vectors.start(rowIdx) + offset), DELTA);
+        }
+    }
+
+    @Test
+    public void testTokenize() throws Exception {
+        ReviewCorpus corpus = new ReviewCorpus("review_corpus_fixture", 2, " ");
+        ReviewCorpus.Documents documents = tokenizeFixture(corpus);
+
+        // words are indexed by first occurrence, the empty token of the double blank is dropped
+        assertEquals(4, corpus.getNumWords());
+        assertEquals("good", corpus.getWord(0));
+        assertEquals("film", corpus.getWord(1));
+        assertEquals("bad", corpus.getWord(2));
+        assertEquals("plot", corpus.getWord(3));
+        assertEquals(-1, corpus.getWordIndex("missing"));
+
+        assertEquals(4, documents.size());
+        assertEquals(10, documents.getNumTokens());
+        assertArrayEquals(new int[]{0, 0, 1, 1}, documents.getUsers());
+        assertArrayEquals(new int[]{0, 1, 0, 1}, documents.getItems());
+        assertEquals("good film good", documents.text(0));
+        assertEquals("bad film", documents.text(1));
+        assertEquals("good plot", documents.text(2));
+        assertEquals("good film good", documents.text(3));
+        assertEquals(1.0d, documents.value(documents.start(0)), DELTA);
+
+        // unknown words are dropped without growing the vocabulary
+        SparseTensor unseen = buildTensor("review_corpus_fixture", new int[][]{{0, 0, 3}},
+                "good  film good", "bad film", "good plot", "bad acting");
+        ReviewCorpus.Documents unseenDocuments = corpus.tokenize(unseen, false);
+        assertEquals(4, corpus.getNumWords());
+        assertEquals("bad", unseenDocuments.text(0));
+    }
+
+    @Test
+    public void testTokenValues() throws Exception {
+        SparseTensor tensor = buildTensor("review_corpus_values", new int[][]{{0, 0, 0}, {1, 1, 1}},
+                "screen:0.5 battery:-1 screen:2", "battery");
+        ReviewCorpus corpus = new ReviewCorpus("review_corpus_values", 2, " ", ":");
+        ReviewCorpus.Documents documents = corpus.tokenize(tensor, true);
+
+        assertEquals(2, corpus.getNumWords());
+        assertEquals(-1.0d, documents.value(documents.start(0) + 1), DELTA);
+        ReviewCorpus.Vectors values = documents.termValues(2);
+        assertRow(values, 0, new int[]{0, 1}, new double[]{2.5, -1.0});
+        assertRow(values, 1, new int[]{1}, new double[]{1.0});
+    }
+
+    @Test
+    public void testTermWeights() throws Exception {
+        ReviewCorpus corpus = new ReviewCorpus("review_corpus_fixture", 2, " ");
+        ReviewCorpus.Documents documents = tokenizeFixture(corpus);
+
+        ReviewCorpus.Vectors counts = documents.termCounts(2);
+        assertEquals(4, counts.numRows());
+        assertEquals(4, counts.numColumns());
+        assertEquals(8, counts.size());
+        assertRow(counts, 0, new int[]{0, 1}, new double[]{2, 1});
+        assertRow(counts, 1, new int[]{1, 2}, new double[]{1, 1});
+        assertRow(counts, 2, new int[]{0, 3}, new double[]{1, 1});
+        assertRow(counts, 3, new int[]{0, 1}, new double[]{2, 1});
+
+        ReviewCorpus.Vectors frequencies = documents.termFrequencies(3);
+        assertRow(frequencies, 0, new int[]{0, 1}, new double[]{2.0 / 3, 1.0 / 3});
+        assertRow(frequencies, 1, new int[]{1, 2}, new double[]{0.5, 0.5});
+
+        // good and film occur in 3 of 4 documents, bad and plot in 1
+        double common = Math.log10(4.0 / (3 + 0.5)), rare = Math.log10(4.0 / (1 + 0.5));
+        ReviewCorpus.Vectors tfidf = documents.tfidf(0.5, 1);
+        assertRow(tfidf, 0, new int[]{0, 1}, new double[]{2.0 / 3 * common, 1.0 / 3 * common});
+        assertRow(tfidf, 1, new int[]{1, 2}, new double[]{0.5 * common, 0.5 * rare});
+        assertRow(tfidf, 2, new int[]{0, 3}, new double[]{0.5 * common, 0.5 * rare});
+        assertRow(tfidf, 3, new int[]{0, 1}, new double[]{2.0 / 3 * common, 1.0 / 3 * common});
+    }
+
+    @Test
+    public void testGroupBy() throws Exception {
+        ReviewCorpus corpus = new ReviewCorpus("review_corpus_fixture", 2, " ");
+        ReviewCorpus.Documents documents = tokenizeFixture(corpus);
+        ReviewCorpus.Vectors counts = documents.termCounts(1);
+
+        // sums by user, the third user has no documents
+        ReviewCorpus.Vectors users = counts.groupBy(documents.getUsers(), 3, false, 2);
+        assertEquals(3, users.numRows());
+        assertRow(users, 0, new int[]{0, 1, 2}, new double[]{2, 2, 1});
+        assertRow(users, 1, new int[]{0, 1, 3}, new double[]{3, 1, 1});
+        assertRow(users, 2, new int[0], new double[0]);
+
+        // means by item
+        ReviewCorpus.Vectors items = counts.groupBy(documents.getItems(), 2, true, 1);
+        assertRow(items, 0, new int[]{0, 1, 3}, new double[]{1.5, 0.5, 0.5});
+        assertRow(items, 1, new int[]{0, 1, 2}, new double[]{1.0, 1.0, 0.5});
+
+        ReviewCorpus.Vectors words = users.transpose();
+        assertEquals(4, words.numRows());
+        assertEquals(3, words.numColumns());
+        assertRow(words, 0, new int[]{0, 1}, new double[]{2, 3});
+        assertRow(words, 3, new int[]{1}, new double[]{1});
+    }
+
+    @Test
+    public void testDotAndNorm() throws Exception {
+        ReviewCorpus.Vectors left = new ReviewCorpus.Vectors(6,
+                new int[][]{{0, 2, 5}, {1, 3}, {}},
+                new double[][]{{1.0, 2.0, 3.0}, {4.0, -1.0}, {}});
+        ReviewCorpus.Vectors right = new ReviewCorpus.Vectors(6,
+                new int[][]{{2, 3, 5}, {0, 4}},
+                new double[][]{{0.5, 7.0, -2.0}, {3.0, 1.0}});
+
+        assertEquals(2.0 * 0.5 + 3.0 * -2.0, left.dot(0, right, 0), DELTA);
+        assertEquals(-1.0 * 7.0, left.dot(1, right, 0), DELTA);
+        assertEquals(0.0d, left.dot(1, right, 1), DELTA);
+        assertEquals(0.0d, left.dot(2, right, 0), DELTA);
+        assertEquals(left.dot(0, right, 1), right.dot(1, left, 0), DELTA);
+        assertEquals(Math.sqrt(14.0), left.norm(0), DELTA);
+        assertEquals(0.0d, left.norm(2), DELTA);
+
+        ReviewCorpus corpus = new ReviewCorpus("review_corpus_fixture", 2, " ");
+        ReviewCorpus.Documents documents = tokenizeFixture(corpus);
+        ReviewCorpus.Vectors users = documents.termCounts(1).groupBy(documents.getUsers(), 2, false, 1);
+        assertEquals(2 * 3 + 2 * 1, users.dot(0, users, 1), DELTA);
+    }
+}
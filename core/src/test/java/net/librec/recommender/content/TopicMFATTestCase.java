@@ -20,11 +20,25 @@ package net.librec.recommender.content;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
+import net.librec.data.model.ArffDataModel;
 import net.librec.job.RecommenderJob;
+import net.librec.math.algorithm.Maths;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.*;
+import net.librec.recommender.RecommenderContext;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * TopicMF-AT TestCase corresponds to TopicMFATRecommender
@@ -52,4 +66,233 @@ public class TopicMFATTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * The restructured training must follow the loss trajectory of the original
+     * per-factor, per-word implementation.
+     *
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testLossTrajectory() throws LibrecException, IOException {
+        RecommenderContext context = buildContext(1);
+
+        LossRecordingTopicMFAT recommender = new LossRecordingTopicMFAT();
+        Randoms.seed(1L);
+        recommender.train(context);
+
+        ReferenceTopicMFAT reference = new ReferenceTopicMFAT();
+        Randoms.seed(1L);
+        reference.train(context);
+
+        assertEquals(reference.losses.size(), recommender.losses.size());
+        for (int iter = 0; iter < reference.losses.size(); iter++) {
+            double expected = reference.losses.get(iter);
+            assertEquals(expected, recommender.losses.get(iter), Math.abs(expected) * 1e-8);
+        }
+    }
+
+    /**
+     * Training on several rating partitions in parallel must stay finite and decrease the loss.
+     *
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testParallelTraining() throws LibrecException, IOException {
+        RecommenderContext context = buildContext(4);
+
+        LossRecordingTopicMFAT recommender = new LossRecordingTopicMFAT();
+        Randoms.seed(1L);
+        recommender.train(context);
+
+        List<Double> losses = recommender.losses;
+        assertTrue(losses.get(losses.size() - 1) < losses.get(0));
+    }
+
+    /**
+     * Build a context over a small synthetic review data set.
+     *
+     * @param numThreads number of rating partitions
+     * @return recommender context
+     */
+    private RecommenderContext buildContext(int numThreads) throws LibrecException, IOException {
+        File dataDir = Files.createTempDirectory("topicmfat").toFile();
+        dataDir.deleteOnExit();
+        File dataFile = new File(dataDir, "reviews.arff");
+        dataFile.deleteOnExit();
+        Random random = new Random(7);
+        try (PrintWriter writer = new PrintWriter(dataFile, "UTF-8")) {
+            writer.println("@RELATION reviews");
+            writer.println("@ATTRIBUTE user STRING");
+            writer.println("@ATTRIBUTE item STRING");
+            writer.println("@ATTRIBUTE review STRING");
+            writer.println("@ATTRIBUTE rating NUMERIC");
+            writer.println("@DATA");
+            for (int userIdx = 0; userIdx < 40; userIdx++) {
+                for (int itemIdx = 0; itemIdx < 30; itemIdx++) {
+                    if (random.nextInt(3) != 0) {
+                        continue;
+                    }
+                    StringBuilder review = new StringBuilder();
+                    int length = 3 + random.nextInt(8);
+                    for (int wordIdx = 0; wordIdx < length; wordIdx++) {
+                        review.append(wordIdx == 0 ? "" : ":").append("w").append(random.nextInt(60));
+                    }
+                    writer.println("u" + userIdx + ",i" + itemIdx + "," + review + "," + (1 + random.nextInt(5)));
+                }
+            }
+        }
+
+        conf.set("dfs.data.dir", dataDir.getAbsolutePath());
+        conf.set("data.input.path", dataFile.getName());
+        conf.set("data.model.format", "arff");
+        conf.set("data.convertor.format", "arff");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.recommender.isranking", "false");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.topic.number", "5");
+        conf.set("rec.iterator.maximum", "5");
+        conf.set("rec.thread.count", String.valueOf(numThreads));
+
+        Randoms.seed(1L);
+        ArffDataModel dataModel = new ArffDataModel(conf);
+        dataModel.buildDataModel();
+        dataModel.nextFold();
+        return new RecommenderContext(conf, dataModel);
+    }
+
+    /**
+     * TopicMF-AT recording the loss of every iteration.
+     */
+    private static class LossRecordingTopicMFAT extends TopicMFATRecommender {
+        private List<Double> losses = new ArrayList<>();
+
+        @Override
+        protected boolean isConverged(int iter) throws LibrecException {
+            losses.add(loss);
+            return super.isConverged(iter);
+        }
+    }
+
+    /**
+     * The original training loop, kept as reference. phi is used as numTopics x numWords here.
+     */
+    private static class ReferenceTopicMFAT extends TopicMFATRecommender {
+        private List<Double> losses = new ArrayList<>();
+        private DenseMatrix denseW;
+
+        @Override
+        protected void setup() throws LibrecException {
+            super.setup();
+            phi = phi.transpose();
+            denseW = new DenseMatrix(numDocuments, numWords);
+            for (int documentIdx = 0; documentIdx < numDocuments; documentIdx++) {
+                for (int position = W.start(documentIdx); position < W.end(documentIdx); position++) {
+                    denseW.set(documentIdx, W.index(position), W.value(position));
+                }
+            }
+        }
+
+        @Override
+        public void trainModel() throws LibrecException {
+            for (int iter = 1; iter <= numIterations; iter++) {
+                loss = 0.0;
+                double wordLoss = 0.0;
+                int entryIdx = 0;
+                for (MatrixEntry me : trainMatrix) {
+                    int i = me.row();     // userIdx
+                    int j = me.column();  // itemIdx
+                    int documentId = ratingDocuments[entryIdx++];
+                    double y_true = me.get();
+                    double y_pred = predict(i, j);
+
+                    double error = y_true - y_pred;
+                    loss += error * error;
+
+                    // update user item biases
+                    double userBiasValue = userBiases.get(i);
+                    userBiases.plus(i, learnRate * (error - lambdaB * userBiasValue));
+                    loss += lambdaB * userBiasValue * userBiasValue;
+
+                    double itemBiasValue = itemBiases.get(j);
+                    itemBiases.plus(j, learnRate * (error - lambdaB * itemBiasValue));
+                    loss += lambdaB * itemBiasValue * itemBiasValue;
+
+                    // update user item factors
+                    for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
+                        double userFactorValue = userFactors.get(i, factorIdx);
+                        double itemFactorValue = itemFactors.get(j, factorIdx);
+
+                        userFactors.plus(i, factorIdx, learnRate * (error * itemFactorValue - lambdaU * userFactorValue));
+                        itemFactors.plus(j, factorIdx, learnRate * (error * userFactorValue - lambdaV * itemFactorValue));
+                        loss += lambdaU * userFactorValue * userFactorValue + lambdaV * itemFactorValue * itemFactorValue;
+
+                        for (int position = W.start(documentId); position < W.end(documentId); position++) {
+                            int wordIdx = W.index(position);
+                            double w_true = W.value(position);
+                            double w_pred = theta.row(documentId).dot(phi.column(wordIdx));
+                            double w_error = w_true - w_pred;
+                            wordLoss += w_error;
+
+                            double derivative = 0.0;
+                            for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                                if (factorIdx == topicIdx) {
+                                    derivative += w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (1 - theta.get(documentId, topicIdx));
+                                } else {
+                                    derivative += w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (-theta.get(documentId, factorIdx));
+                                }
+                                //update K1 K2
+                                K1 += learnRate * lambda * w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (1 - theta.get(documentId, topicIdx)) * Math.abs(userFactors.get(i, topicIdx));
+                                K2 += learnRate * lambda * w_error * phi.get(topicIdx, wordIdx) * theta.get(documentId, topicIdx) * (1 - theta.get(documentId, topicIdx)) * Math.abs(itemFactors.get(j, topicIdx));
+                            }
+                            userFactors.plus(i, factorIdx, learnRate * K1 * derivative);
+                            itemFactors.plus(j, factorIdx, learnRate * K2 * derivative);
+
+                        }
+                    }
+                }
+                // calculate theta
+                calculateReferenceTheta();
+                // update phi by NMF
+                DenseMatrix thetaTW = theta.transpose().times(denseW);
+                DenseMatrix denominatorMatrix = theta.transpose().times(theta).times(phi);
+                for (int i = 0; i < numTopics; i++) {
+                    for (int j = 0; j < numWords; j++) {
+                        double numerator = phi.get(i, j) * (thetaTW.get(i, j));
+                        double denominator = denominatorMatrix.get(i, j);
+                        phi.set(i, j, numerator / denominator);
+                    }
+                }
+
+                // calculate wordLoss and loss
+                wordLoss = wordLoss / numTopics;
+                loss += wordLoss;
+                loss *= 0.5d;
+                losses.add(loss);
+            }
+        }
+
+        private void calculateReferenceTheta() {
+            int entryIdx = 0;
+            for (MatrixEntry me : trainMatrix) {
+                int u = me.row();
+                int i = me.column();
+                double[] k1uAddk2v = new double[numTopics];
+                for (int k = 0; k < numTopics; k++) {
+                    k1uAddk2v[k] = Math.abs(userFactors.get(u, k)) * K1 + Math.abs(itemFactors.get(i, k)) * K2;
+                }
+                int documentIdx = ratingDocuments[entryIdx++];
+                try {
+                    theta.set(documentIdx, new VectorBasedDenseVector(Maths.softmax(k1uAddk2v)));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 }
@@ -53,4 +53,20 @@ public class TimeSVDTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * Test TimeSVD Recommender trained on several threads
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testParallelTraining() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/context/rating/timesvd-test.properties");
+        conf.addResource(resource);
+        conf.set("rec.thread.count", "4");
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.hybrid;
+
+import net.librec.conf.Configuration;
+import net.librec.conf.HybridConfiguration;
+import net.librec.data.DataModel;
+import net.librec.data.model.FoldDataModel;
+import net.librec.data.model.TextDataModel;
+import net.librec.job.HybridRecommenderJob;
+import net.librec.job.TrainedMemberCache;
+import net.librec.job.metrics.MetricRegistry;
+import net.librec.math.algorithm.Randoms;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.baseline.ItemAverageRecommender;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases about the MemberModelCache class
+ * {@link net.librec.recommender.hybrid.MemberModelCache}
+ */
+public class MemberModelCacheTestCase {
+
+    private static void writeProperties(File file, String... lines) throws Exception {
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a synchronized weighted hybrid of an item average and the given second member on two folds with the cache directory.
+     *
+     * @param directory    working directory of the runs
+     * @param secondMember recommender of the second member
+     * @return the hybrid configuration file
+     */
+    private File writeHybrid(File directory, String secondMember) throws Exception {
+        File configs = new File(directory, "configs");
+        configs.mkdirs();
+        String[] member = {"dfs.data.dir=../data", "dfs.result.dir=" + new File(directory, "result").getPath(),
+                "data.input.path=filmtrust/rating", "data.column.format=UIR", "data.model.format=text",
+                "data.model.splitter=kcv", "data.splitter.cv.number=2", "rec.recommender.isranking=false"};
+        List<String> first = new ArrayList<>(Arrays.asList(member));
+        first.add("rec.recommender.class=itemaverage");
+        writeProperties(new File(configs, "1.first.properties"), first.toArray(new String[0]));
+        List<String> second = new ArrayList<>(Arrays.asList(member));
+        second.add("rec.recommender.class=" + secondMember);
+        writeProperties(new File(configs, "2.second.properties"), second.toArray(new String[0]));
+
+        File hybrid = new File(directory, "hybrid.properties");
+        writeProperties(hybrid, "rec.hybrid.class=weightedHybrid", "rec.hybrid.weights=0.5:0.5",
+                "data.model.sync=true", "data.hybrid.configs.path=" + configs.getPath(), "rec.random.seed=42",
+                "rec.recommender.isranking=false", "rec.eval.enable=false",
+                MemberModelCache.CONF_CACHE_DIR + "=" + new File(directory, "cache").getPath(),
+                MetricRegistry.CONF_ENABLED + "=true", MetricRegistry.CONF_OUTPUT_PATH + "=" + new File(directory, "metrics").getPath());
+        return hybrid;
+    }
+
+    /**
+     * Run the hybrid of {@link #writeHybrid(File, String)}.
+     *
+     * @param directory    working directory of the runs
+     * @param secondMember recommender of the second member
+     * @return the exported metrics of the run
+     */
+    private String runHybrid(File directory, String secondMember) throws Exception {
+        File hybrid = writeHybrid(directory, secondMember);
+        File metrics = new File(directory, "metrics");
+        File[] previous = metrics.listFiles();
+        new HybridRecommenderJob(new HybridConfiguration(hybrid.getPath())).runJob();
+
+        List<File> summaries = new ArrayList<>(Arrays.asList(metrics.listFiles()));
+        if (previous != null) {
+            summaries.removeAll(Arrays.asList(previous));
+        }
+        assertEquals(1, summaries.size());
+        return new String(Files.readAllBytes(summaries.get(0).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static long counter(String metrics, String name) {
+        Matcher matcher = Pattern.compile("\"" + Pattern.quote(name) + "\": (\\d+)").matcher(metrics);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0L;
+    }
+
+    private static void assertHitsAndMisses(String metrics, int memberIndex, long hits, long misses) {
+        assertEquals(hits, counter(metrics, "hybrid.member." + memberIndex + ".cache.hit"));
+        assertEquals(misses, counter(metrics, "hybrid.member." + memberIndex + ".cache.miss"));
+    }
+
+    @Test
+    public void testChangedMember() throws Exception {
+        File directory = Files.createTempDirectory("member-cache").toFile();
+        String metrics = runHybrid(directory, "useraverage");
+        assertHitsAndMisses(metrics, 0, 0, 2);
+        assertHitsAndMisses(metrics, 1, 0, 2);
+
+        // only the changed member is trained again
+        metrics = runHybrid(directory, "globalaverage");
+        assertHitsAndMisses(metrics, 0, 2, 0);
+        assertHitsAndMisses(metrics, 1, 0, 2);
+        assertEquals(2L, counter(metrics, "hybrid.member.cache.hit"));
+        assertEquals(2L, counter(metrics, "hybrid.member.cache.miss"));
+
+        // truncated entries are dropped and their members trained again
+        File[] entries = new File(directory, "cache").listFiles((dir, name) -> name.endsWith(".member"));
+        assertNotNull(entries);
+        assertEquals(6, entries.length);
+        for (File entry : entries) {
+            try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+                file.setLength(file.length() / 2);
+            }
+        }
+        metrics = runHybrid(directory, "globalaverage");
+        assertHitsAndMisses(metrics, 0, 0, 2);
+        assertHitsAndMisses(metrics, 1, 0, 2);
+    }
+
+    @Test
+    public void testSharedKeys() throws Exception {
+        File directory = Files.createTempDirectory("member-cache").toFile();
+        HybridConfiguration hybridConf = new HybridConfiguration(writeHybrid(directory, "useraverage").getPath());
+        List<List<DataModel>> memberFolds = new ArrayList<>();
+        for (Configuration memberConf : hybridConf.getConfigs()) {
+            Randoms.seed(42L);
+            TextDataModel dataModel = new TextDataModel(memberConf);
+            dataModel.buildDataModel();
+            memberFolds.add(FoldDataModel.snapshotFolds(dataModel));
+        }
+
+        // the member cache of a sweep keys the members as this cache does
+        TrainedMemberCache memberCache = new TrainedMemberCache();
+        HybridRecommenderJob job = new HybridRecommenderJob(hybridConf, memberFolds, memberCache);
+        List<String> expected = new ArrayList<>();
+        for (int fold = 0; fold < 2; fold++) {
+            for (int memberIndex = 0; memberIndex < 2; memberIndex++) {
+                expected.add(MemberModelCache.key(hybridConf.getConfigs().get(memberIndex),
+                        memberFolds.get(memberIndex).get(fold), null, false));
+            }
+        }
+        assertEquals(expected, job.getCachedMemberKeys());
+        for (String key : job.getCachedMemberKeys()) {
+            memberCache.register(key);
+        }
+        job.runJob();
+
+        // members missing from the member cache are stored under the same keys
+        String[] entries = new File(directory, "cache").list((dir, name) -> name.endsWith(".member"));
+        assertNotNull(entries);
+        List<String> stored = new ArrayList<>();
+        for (String entry : entries) {
+            stored.add(entry.substring(0, entry.length() - ".member".length()));
+        }
+        assertEquals(new TreeSet<>(expected), new TreeSet<>(stored));
+    }
+
+    @Test
+    public void testEvictionOrder() throws Exception {
+        File directory = Files.createTempDirectory("member-cache").toFile();
+        MemberModelCache cache = new MemberModelCache(directory, 250L);
+        String[] keys = {"newer", "oldest", "older", "written"};
+        long[] modified = {3000000L, 1000000L, 2000000L, 500000L};
+        for (int index = 0; index < keys.length; index++) {
+            File entry = new File(directory, keys[index] + ".member");
+            Files.write(entry.toPath(), new byte[100]);
+            assertTrue(entry.setLastModified(modified[index]));
+        }
+
+        // the oldest entries are dropped first until the cache fits, the entry just written is kept
+        cache.evict("written");
+        assertFalse(new File(directory, "oldest.member").exists());
+        assertFalse(new File(directory, "older.member").exists());
+        assertTrue(new File(directory, "newer.member").exists());
+        assertTrue(new File(directory, "written.member").exists());
+
+        cache.evict("written");
+        assertTrue(new File(directory, "newer.member").exists());
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("dfs.data.dir", "../data");
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.random.seed", "1");
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        AbstractRecommender member = new ItemAverageRecommender();
+        member.train(context);
+        RecommendedList expected = member.recommendRating(dataModel.getTestDataSet());
+
+        File directory = Files.createTempDirectory("member-cache").toFile();
+        MemberModelCache cache = new MemberModelCache(directory, Long.MAX_VALUE);
+        cache.store("member", member, context, false);
+        File entry = new File(directory, "member.member");
+        long length = entry.length();
+
+        // the loaded member replays the predictions of the trained member
+        RecommendedList loaded = cache.load("member", context).recommendRating(dataModel.getTestDataSet());
+        assertEquals(expected.size(), loaded.size());
+        for (int contextIdx = 0; contextIdx < expected.size(); contextIdx++) {
+            List<KeyValue<Integer, Double>> expectedList = expected.getKeyValueListByContext(contextIdx);
+            List<KeyValue<Integer, Double>> loadedList = loaded.getKeyValueListByContext(contextIdx);
+            assertEquals(expectedList.size(), loadedList.size());
+            for (int position = 0; position < expectedList.size(); position++) {
+                assertEquals(expectedList.get(position).getKey(), loadedList.get(position).getKey());
+                assertEquals(expectedList.get(position).getValue(), loadedList.get(position).getValue(), 0.0);
+            }
+        }
+
+        // truncated or corrupt entries are dropped instead of failing the job
+        for (long truncatedLength : new long[]{length - 4, length / 2, 5}) {
+            cache.store("member", member, context, false);
+            try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+                file.setLength(truncatedLength);
+            }
+            assertNull(cache.load("member", context));
+            assertFalse(entry.exists());
+        }
+        cache.store("member", member, context, false);
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.writeInt(0);
+        }
+        assertNull(cache.load("member", context));
+        assertFalse(entry.exists());
+    }
+}
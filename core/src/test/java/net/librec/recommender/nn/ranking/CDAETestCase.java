@@ -53,4 +53,20 @@ public class CDAETestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * test CDAE trained on minibatches
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testMinibatchTraining() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/nn/ranking/cdae-test.properties");
+        conf.addResource(resource);
+        conf.set("rec.iterator.batch.size", "256");
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.poi;
+
+import net.librec.recommender.item.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the GeoIndex and DistanceHistogram classes, against a scan over all pairs.
+ */
+public class GeoIndexTestCase {
+
+    /**
+     * venues of a city and a few far away, with repeated locations
+     */
+    @SuppressWarnings("unchecked")
+    private KeyValue<Double, Double>[] randomLocations(int size, Random random) {
+        KeyValue<Double, Double>[] locations = new KeyValue[size];
+        for (int pointIdx = 0; pointIdx < size; pointIdx++) {
+            if (pointIdx % 10 == 9) {
+                locations[pointIdx] = locations[random.nextInt(pointIdx)];
+            } else if (pointIdx % 10 == 8) {
+                locations[pointIdx] = new KeyValue<>(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+            } else {
+                locations[pointIdx] = new KeyValue<>(37.7 + random.nextDouble() * 0.2, -122.5 + random.nextDouble() * 0.2);
+            }
+        }
+        return locations;
+    }
+
+    @Test
+    public void testNearestAndRadius() {
+        Random random = new Random(42);
+        KeyValue<Double, Double>[] locations = randomLocations(2000, random);
+        GeoIndex geoIndex = new GeoIndex(locations);
+
+        for (int pointIdx = 0; pointIdx < locations.length; pointIdx += 37) {
+            List<Integer> others = new ArrayList<>();
+            for (int otherIdx = 0; otherIdx < locations.length; otherIdx++) {
+                if (otherIdx != pointIdx) {
+                    others.add(otherIdx);
+                }
+            }
+            final int queryIdx = pointIdx;
+            others.sort(Comparator.<Integer>comparingDouble(otherIdx -> geoIndex.distance(queryIdx, otherIdx))
+                    .thenComparingInt(otherIdx -> otherIdx));
+            for (int k : new int[]{1, 10, 300, 5000}) {
+                int[] expected = others.stream().limit(k).mapToInt(Integer::intValue).toArray();
+                assertArrayEquals(expected, geoIndex.nearest(pointIdx, k));
+            }
+
+            double radius = 2.0d;
+            int[] expected = others.stream().filter(otherIdx -> geoIndex.distance(queryIdx, otherIdx) <= radius)
+                    .mapToInt(Integer::intValue).sorted().toArray();
+            assertArrayEquals(expected, geoIndex.withinRadius(pointIdx, radius));
+        }
+    }
+
+    @Test
+    public void testDistance() {
+        // San Francisco to New York, about 4130 km
+        @SuppressWarnings("unchecked")
+        KeyValue<Double, Double>[] locations = new KeyValue[]{new KeyValue<>(37.7749, -122.4194),
+                new KeyValue<>(40.7128, -74.0060)};
+        GeoIndex geoIndex = new GeoIndex(locations);
+        assertEquals(4130.0d, geoIndex.distance(0, 1), 10.0d);
+        assertEquals(0.0d, geoIndex.distance(1, 1), 1e-9);
+    }
+
+    @Test
+    public void testHistogram() {
+        Random random = new Random(7);
+        DistanceHistogram histogram = new DistanceHistogram(1.0d);
+        DistanceHistogram other = new DistanceHistogram(1.0d);
+        long[] expected = new long[1000];
+        for (int sample = 0; sample < 10000; sample++) {
+            double distance = random.nextDouble() * 1000.0d;
+            expected[(int) distance]++;
+            (sample % 2 == 0 ? histogram : other).add(distance);
+        }
+        histogram.merge(other);
+        assertEquals(10000L, histogram.getTotal());
+        for (int bin = 0; bin < expected.length; bin++) {
+            assertEquals(expected[bin], histogram.getCount(bin));
+        }
+        assertEquals(0L, histogram.getCount(expected.length));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.util;
+
+import net.librec.BaseTestCase;
+import net.librec.recommender.item.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the Lists class
+ * {@link net.librec.util.Lists}
+ */
+public class ListsTestCase extends BaseTestCase {
+
+    private static int[] keys(List<KeyValue<Integer, Double>> list) {
+        int[] keys = new int[list.size()];
+        for (int position = 0; position < keys.length; position++) {
+            keys[position] = list.get(position).getKey();
+        }
+        return keys;
+    }
+
+    private static void assertKeys(int[] expected, List<KeyValue<Integer, Double>> actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(keys(actual)));
+    }
+
+    @Test
+    public void testSortTopKByScore() {
+        double[] scores = {0.5, 0.9, Double.NaN, 0.9, 0.1, 0.7, 0.9, Double.NaN};
+        int[] excluded = {3, 5, -1};
+
+        // ties broken by the smaller key, the excluded keys and NaN scores skipped
+        assertKeys(new int[]{1, 6, 0}, Lists.sortTopKByScore(scores, excluded, 2, 3));
+        List<KeyValue<Integer, Double>> topK = Lists.sortTopKByScore(scores, excluded, 2, 3);
+        assertEquals(0.9, topK.get(0).getValue(), 0.0);
+        assertEquals(0.5, topK.get(2).getValue(), 0.0);
+
+        // only the used part of the excluded keys counts
+        assertKeys(new int[]{1, 3, 6, 5}, Lists.sortTopKByScore(scores, excluded, 0, 4));
+
+        // k beyond the number of keys returns all scored keys
+        assertKeys(new int[]{1, 6, 0, 4}, Lists.sortTopKByScore(scores, excluded, 2, 20));
+        assertKeys(new int[]{}, Lists.sortTopKByScore(scores, excluded, 2, 0));
+        assertKeys(new int[]{}, Lists.sortTopKByScore(new double[]{Double.NaN, Double.NaN}, new int[0], 0, 2));
+    }
+
+    @Test
+    public void testSameAsSort() {
+        Random random = new Random(5);
+        for (int round = 0; round < 50; round++) {
+            int numKeys = 1 + random.nextInt(60);
+            double[] scores = new double[numKeys];
+            for (int key = 0; key < numKeys; key++) {
+                // few distinct scores, so many ties
+                scores[key] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(8);
+            }
+            List<Integer> excludedList = new ArrayList<>();
+            for (int key = 0; key < numKeys; key++) {
+                if (random.nextInt(4) == 0) {
+                    excludedList.add(key);
+                }
+            }
+            int[] excluded = new int[excludedList.size()];
+            for (int position = 0; position < excluded.length; position++) {
+                excluded[position] = excludedList.get(position);
+            }
+            int k = random.nextInt(numKeys + 5);
+
+            List<KeyValue<Integer, Double>> expected = new ArrayList<>();
+            for (int key = 0; key < numKeys; key++) {
+                if (!excludedList.contains(key) && !Double.isNaN(scores[key])) {
+                    expected.add(new KeyValue<>(key, scores[key]));
+                }
+            }
+            expected.sort((a, b) -> a.getValue().equals(b.getValue()) ? Integer.compare(a.getKey(), b.getKey())
+                    : Double.compare(b.getValue(), a.getValue()));
+            expected = expected.subList(0, Math.min(k, expected.size()));
+
+            assertKeys(keys(expected), Lists.sortTopKByScore(scores, excluded, excluded.length, k));
+        }
+    }
+}
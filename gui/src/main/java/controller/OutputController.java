@@ -17,24 +17,46 @@
  */
 package controller;
 
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import net.librec.conf.Configuration;
+import net.librec.conf.HybridConfiguration;
+import net.librec.job.HybridRecommenderJob;
+import net.librec.job.JobStatus;
 import net.librec.job.RecommenderJob;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import util.FxProgressReporter;
 import util.MyCustomAppender;
 
 import java.io.FileInputStream;
 import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * <tt>OutputController</tt> controls the functions of the output scene.
+ * <p>
+ * Jobs run one after another on a background thread, reporting their phase, fold, iteration,
+ * loss and remaining time to the scene, and can be cancelled from it.
  *
  * @author SunYatong
  */
 public class OutputController {
 
-    // protected final Log LOG = LogFactory.getLog(OutputController.class);
+    protected final Log LOG = LogFactory.getLog(OutputController.class);
+
+    private static final ExecutorService JOB_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "librec-job");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @FXML
     TextField confPath;
@@ -42,19 +64,136 @@ public class OutputController {
     @FXML
     TextArea trainLog;
 
+    @FXML
+    Button runButton;
+
+    @FXML
+    Button cancelButton;
+
+    @FXML
+    ProgressBar jobProgress;
+
+    @FXML
+    Label jobState;
+
+    @FXML
+    ResourceBundle resources;
+
+    /**
+     * path of the last loaded configuration if it configures a hybrid job, read again as hybrid configuration
+     */
+    private String hybridConfPath;
+
+    /**
+     * reporter of the running job, or null if no job is running
+     */
+    private FxProgressReporter progressReporter;
+
 
     public void initialize() {
         MyCustomAppender.logTextArea = trainLog;
     }
 
     @FXML
-    public void execRec() throws Exception {
-
+    public void execRec() {
+        if (progressReporter != null) {
+            return;
+        }
         Configuration conf = Main.conf;
-        RecommenderJob job = new RecommenderJob(conf);
+        String hybridConfPath = this.hybridConfPath;
+        FxProgressReporter reporter = new FxProgressReporter(this::showProgress);
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                Thread reporterThread = new Thread(reporter, "librec-job-progress");
+                reporterThread.setDaemon(true);
+                reporterThread.start();
+                try {
+                    RecommenderJob job = hybridConfPath != null
+                            ? new HybridRecommenderJob(new HybridConfiguration(hybridConfPath))
+                            : new RecommenderJob(conf);
+                    job.setProgressReporter(reporter);
+                    job.runJob();
+                } finally {
+                    reporter.finish();
+                    conf.setBoolean("data.convert.read.ready", false);
+                }
+                return null;
+            }
+        };
+        task.setOnSucceeded(event -> finishJob(reporter, null));
+        task.setOnFailed(event -> finishJob(reporter, task.getException()));
+
+        progressReporter = reporter;
+        runButton.setDisable(true);
+        cancelButton.setDisable(false);
+        jobProgress.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        jobState.setText(resources.getString("output.state.prep"));
+        JOB_EXECUTOR.submit(task);
+    }
+
+    @FXML
+    public void cancelRec() {
+        if (progressReporter != null) {
+            progressReporter.cancel();
+            cancelButton.setDisable(true);
+            jobState.setText(resources.getString("output.state.cancelling"));
+        }
+    }
 
-        job.runJob();
-        conf.setBoolean("data.convert.read.ready", false);
+    /**
+     * Show the status of the running job, called on the application thread.
+     *
+     * @param status status of the running job
+     */
+    private void showProgress(JobStatus status) {
+        if (progressReporter == null || progressReporter.isCancelled() || status.getJobStage() == null) {
+            return;
+        }
+        String phaseKey = "output.phase." + status.getJobStage();
+        StringBuilder text = new StringBuilder(resources.containsKey(phaseKey) ? resources.getString(phaseKey) : status.getJobStage());
+        if (status.getNumFolds() > 1) {
+            text.append("    ").append(String.format(resources.getString("output.progress.fold"), status.getFold(), status.getNumFolds()));
+        }
+        if ("train".equals(status.getJobStage()) && status.getIteration() > 0) {
+            String iteration = status.getMaxIterations() > 0
+                    ? status.getIteration() + "/" + status.getMaxIterations()
+                    : String.valueOf(status.getIteration());
+            text.append("    ").append(String.format(resources.getString("output.progress.iteration"), iteration));
+            if (!Double.isNaN(status.getLoss())) {
+                text.append("    ").append(String.format(resources.getString("output.progress.loss"), status.getLoss()));
+            }
+        }
+        long remainingTime = status.getEstimatedRemainingTime(System.currentTimeMillis());
+        if (remainingTime >= 0L) {
+            text.append("    ").append(String.format(resources.getString("output.progress.eta"), remainingTime / 1000L));
+            jobProgress.setProgress(status.getProgress());
+        }
+        jobState.setText(text.toString());
+    }
+
+    /**
+     * Show the final state of the job and accept the next one, called on the application thread.
+     *
+     * @param reporter  reporter of the finished job
+     * @param exception the exception the job failed with, or null
+     */
+    private void finishJob(FxProgressReporter reporter, Throwable exception) {
+        JobStatus status = reporter.getJobStatus();
+        String stateKey;
+        if (status.getRunState() == JobStatus.SUCCEEDED) {
+            stateKey = "output.state.succeeded";
+        } else if (status.getRunState() == JobStatus.KILLED) {
+            stateKey = "output.state.killed";
+        } else {
+            stateKey = "output.state.failed";
+            LOG.error("Job failed", exception);
+        }
+        jobProgress.setProgress(status.getProgress());
+        jobState.setText(resources.getString(stateKey));
+        progressReporter = null;
+        runButton.setDisable(false);
+        cancelButton.setDisable(true);
     }
 
     @FXML
@@ -70,6 +209,7 @@ public class OutputController {
         for (String name : prop.stringPropertyNames()) {
             Main.conf.set(name, prop.getProperty(name));
         }
+        hybridConfPath = prop.getProperty("rec.hybrid.class") != null ? confFilePath : null;
     }
 
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package util;
+
+import javafx.application.Platform;
+import net.librec.job.JobStatus;
+import net.librec.job.progress.ProgressReporter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * <tt>FxProgressReporter</tt> hands the status of a job running off the JavaFX application thread
+ * to a listener on the application thread, with at most one update waiting at a time.
+ */
+public class FxProgressReporter extends ProgressReporter {
+
+    private static final long PROGRESS_INTERVAL = 200L;
+
+    private final Consumer<JobStatus> listener;
+
+    private final AtomicBoolean updatePending = new AtomicBoolean(false);
+
+    public FxProgressReporter(Consumer<JobStatus> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void progress() {
+        if (updatePending.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                updatePending.set(false);
+                listener.accept(getJobStatus());
+            });
+        }
+    }
+
+    @Override
+    protected long getProgressInterval() {
+        return PROGRESS_INTERVAL;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package util;
 
+import javafx.application.Platform;
 import javafx.scene.control.TextArea;
 import org.apache.log4j.WriterAppender;
 import org.apache.log4j.spi.LoggingEvent;
@@ -35,7 +36,11 @@ public class MyCustomAppender extends WriterAppender {
 
         final String logMessage = this.layout.format( loggingEvent );
 
-        logTextArea.setText( logTextArea.getText() + logMessage );
+        // jobs log from their own thread, the text area is only touched on the application thread
+        final TextArea textArea = logTextArea;
+        if ( textArea != null ) {
+            Platform.runLater( () -> textArea.appendText( logMessage ) );
+        }
     }
 
 }
@@ -1,10 +1,12 @@
 package net.librec.spark
 
 import net.librec.common.LibrecException
-import net.librec.eval.AbstractRecommenderEvaluator
+import net.librec.eval.{AbstractRecommenderEvaluator, EvalStatistics}
 import net.librec.eval.ranking._
 import net.librec.eval.rating._
 import net.librec.recommender.item.RecommendedList
+import net.librec.spark.data.Rating
+import org.apache.spark.rdd.RDD
 
 /**
   * Recommender Evaluator
@@ -26,7 +28,7 @@ object Evaluator {
   private var cache = Map[Measure, AbstractRecommenderEvaluator]()
 
   /**
-    * Evaluate the recommended result
+    * Evaluate the recommended result. AUC and Novelty need the statistics of the data, see statistics.
     *
     * @param measure
     * @param groundTruthList
@@ -34,7 +36,21 @@ object Evaluator {
     * @param conf
     * @return evaluate result
     */
-  def eval(measure: Measure, groundTruthList: RecommendedList, recommendedList: RecommendedList, conf: LibrecConf = new LibrecConf()): Double = {
+  def eval(measure: Measure, groundTruthList: RecommendedList, recommendedList: RecommendedList, conf: LibrecConf = new LibrecConf()): Double =
+    eval(measure, groundTruthList, recommendedList, conf, null)
+
+  /**
+    * Evaluate the recommended result with the statistics of the data, needed by AUC and Novelty.
+    *
+    * @param measure
+    * @param groundTruthList
+    * @param recommendedList
+    * @param conf
+    * @param statistics statistics of the training and test data, may be null for the other measures
+    * @return evaluate result
+    */
+  def eval(measure: Measure, groundTruthList: RecommendedList, recommendedList: RecommendedList, conf: LibrecConf,
+           statistics: EvalStatistics): Double = {
     if (!cache.contains(measure)) {
       measure match {
         case AUC => cache += (AUC ->new AUCEvaluator())
@@ -54,6 +70,28 @@ object Evaluator {
         case _ => throw new LibrecException("No matching Measure, please refer to net.librec.spark.Measure!")
       }
     }
-    cache(measure).evaluateIndependently(conf, groundTruthList, recommendedList)
+    cache(measure).evaluateIndependently(conf, statistics, groundTruthList, recommendedList)
+  }
+
+  /**
+    * Build the statistics of the training and test data needed by AUC and Novelty. The lists are evaluated per user
+    * in ascending user order, so the dropped items are counted for the given users in that order.
+    *
+    * @param trainData training ratings
+    * @param testData  test ratings
+    * @param users     users of the evaluated lists
+    * @return the statistics of the data
+    */
+  def statistics(trainData: RDD[Rating], testData: RDD[Rating], users: Seq[Int]): EvalStatistics = {
+    val ratings = trainData.union(testData)
+    val numItems = if (ratings.isEmpty()) 0 else ratings.map(_.item).max() + 1
+    val numTrainItems = trainData.map(rating => (rating.user, 1)).reduceByKey(_ + _).collectAsMap()
+    val numTestItems = testData.map(rating => (rating.user, 1)).reduceByKey(_ + _).values.collect()
+    val numDroppedItems = users.distinct.sorted.map(user => numItems - numTrainItems.getOrElse(user, 0)).toArray
+    val itemPurchaseCounts = new Array[Int](numItems)
+    ratings.map(rating => (rating.item, 1)).reduceByKey(_ + _).collect().foreach { case (item, count) =>
+      itemPurchaseCounts(item) = count
+    }
+    new EvalStatistics(numDroppedItems, if (numTestItems.isEmpty) 0 else numTestItems.max, numItems, itemPurchaseCounts)
   }
 }
@@ -45,6 +45,16 @@ class LibrecConf extends Configuration with Serializable {
     this
   }
 
+  /** Copy this configuration, to set values of a single job without changing the shared one */
+  def copy(): LibrecConf = {
+    val cloned = new LibrecConf()
+    iterator().asScala.foreach {
+      e =>
+        cloned.set(e.getKey, e.getValue)
+    }
+    cloned
+  }
+
   /** Copy this object to spark configuration */
   def toSparkConf: SparkConf = {
     val cloned = new SparkConf()
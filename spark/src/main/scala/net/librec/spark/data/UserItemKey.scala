@@ -0,0 +1,44 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.data
+
+/**
+  * A (user, item) pair packed into one Long, the user in the high and the item in the low 32 bits.
+  * Cheaper to hash, shuffle and compare than a tuple or a concatenated string key.
+  */
+object UserItemKey {
+
+  /**
+    * @param user user index
+    * @param item item index
+    * @return the packed key
+    */
+  def apply(user: Int, item: Int): Long = (user.toLong << 32) | (item & 0xFFFFFFFFL)
+
+  /**
+    * @param key packed key
+    * @return user index of the key
+    */
+  def user(key: Long): Int = (key >>> 32).toInt
+
+  /**
+    * @param key packed key
+    * @return item index of the key
+    */
+  def item(key: Long): Int = key.toInt
+}
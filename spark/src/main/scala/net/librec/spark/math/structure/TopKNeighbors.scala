@@ -0,0 +1,161 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.math.structure
+
+/**
+  * The k best scored neighbors seen so far, kept in a bounded min-heap of primitive arrays.
+  * Scores are ordered descending, ties by ascending index, so the result does not depend on the order of insertion.
+  * Every neighbor may carry a value, e.g. the rating it contributes to a prediction.
+  *
+  * @param k maximum number of neighbors
+  */
+class TopKNeighbors(val k: Int) extends Serializable {
+  // grown on demand, most heaps of a prediction hold far fewer than k neighbors
+  private var indices = new Array[Int](math.max(0, math.min(k, 8)))
+  private var scores = new Array[Double](indices.length)
+  private var values = new Array[Double](indices.length)
+  private var count = 0
+
+  /**
+    * @return number of neighbors kept
+    */
+  def size: Int = count
+
+  /**
+    * Offer a neighbor.
+    *
+    * @param index index of the neighbor
+    * @param score score of the neighbor
+    * @return this
+    */
+  def add(index: Int, score: Double): TopKNeighbors = add(index, score, 0.0D)
+
+  /**
+    * Offer a neighbor carrying a value.
+    *
+    * @param index index of the neighbor
+    * @param score score of the neighbor
+    * @param value value of the neighbor
+    * @return this
+    */
+  def add(index: Int, score: Double, value: Double): TopKNeighbors = {
+    if (count < k) {
+      if (count == indices.length) {
+        val capacity = math.min(k, 2 * count)
+        indices = java.util.Arrays.copyOf(indices, capacity)
+        scores = java.util.Arrays.copyOf(scores, capacity)
+        values = java.util.Arrays.copyOf(values, capacity)
+      }
+      indices(count) = index
+      scores(count) = score
+      values(count) = value
+      count += 1
+      siftUp(count - 1)
+    } else if (count > 0 && better(index, score, indices(0), scores(0))) {
+      // the root is the worst neighbor kept
+      indices(0) = index
+      scores(0) = score
+      values(0) = value
+      siftDown(0)
+    }
+    this
+  }
+
+  /**
+    * Offer all neighbors of another heap.
+    *
+    * @param other other heap
+    * @return this
+    */
+  def merge(other: TopKNeighbors): TopKNeighbors = {
+    var position = 0
+    while (position < other.count) {
+      add(other.indices(position), other.scores(position), other.values(position))
+      position += 1
+    }
+    this
+  }
+
+  /**
+    * @return the neighbors kept as (index, score), best first
+    */
+  def toArray: Array[(Int, Double)] = {
+    val neighbors = new Array[(Int, Double)](count)
+    var position = 0
+    while (position < count) {
+      neighbors(position) = (indices(position), scores(position))
+      position += 1
+    }
+    neighbors.sortWith((left, right) => better(left._1, left._2, right._1, right._2))
+  }
+
+  /**
+    * Apply a function to the neighbors kept, in no particular order.
+    *
+    * @param f function of the index, score and value of a neighbor
+    */
+  def foreach(f: (Int, Double, Double) => Unit): Unit = {
+    var position = 0
+    while (position < count) {
+      f(indices(position), scores(position), values(position))
+      position += 1
+    }
+  }
+
+  private def better(index: Int, score: Double, otherIndex: Int, otherScore: Double): Boolean =
+    score > otherScore || (score == otherScore && index < otherIndex)
+
+  private def siftUp(start: Int): Unit = {
+    var position = start
+    while (position > 0) {
+      val parent = (position - 1) / 2
+      if (!better(indices(parent), scores(parent), indices(position), scores(position))) {
+        return
+      }
+      swap(parent, position)
+      position = parent
+    }
+  }
+
+  private def siftDown(start: Int): Unit = {
+    var position = start
+    while (2 * position + 1 < count) {
+      var child = 2 * position + 1
+      if (child + 1 < count && better(indices(child), scores(child), indices(child + 1), scores(child + 1))) {
+        child += 1
+      }
+      if (!better(indices(position), scores(position), indices(child), scores(child))) {
+        return
+      }
+      swap(position, child)
+      position = child
+    }
+  }
+
+  private def swap(left: Int, right: Int): Unit = {
+    val index = indices(left)
+    indices(left) = indices(right)
+    indices(right) = index
+    val score = scores(left)
+    scores(left) = scores(right)
+    scores(right) = score
+    val value = values(left)
+    values(left) = values(right)
+    values(right) = value
+  }
+}
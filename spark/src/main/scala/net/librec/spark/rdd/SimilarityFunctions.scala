@@ -17,14 +17,25 @@
   */
 package net.librec.spark.rdd
 
+import it.unimi.dsi.fastutil.ints.{Int2ObjectOpenHashMap, IntArrayList}
 import net.librec.math.structure.SequentialSparseVector
 import net.librec.spark.Correlation.Correlation
-import net.librec.spark.math.structure.IndexedVector
+import net.librec.spark.math.structure.{IndexedVector, TopKNeighbors}
 import net.librec.spark.{LibrecConf, Similarity}
+import org.apache.spark.HashPartitioner
+import org.apache.spark.mllib.linalg.distributed.{CoordinateMatrix, MatrixEntry}
 import org.apache.spark.rdd.RDD
 
 import scala.collection.mutable.ArrayBuffer
 
+/**
+  * Distributed similarity of indexed vectors, e.g. of the item vectors for ItemKNN or of the user vectors for UserKNN.
+  *
+  * The vectors are hashed into blocks by index and every pair of blocks is joined in one task, so a task holds at most
+  * two blocks and nothing is collected to the driver. Within a pair of blocks, an inverted index from coordinates to
+  * vectors yields the co-rated pairs, the only pairs with a defined similarity, and the correlation is evaluated for
+  * these pairs only.
+  */
 class SimilarityFunctions(rdd: RDD[IndexedVector]) {
 
   /**
@@ -33,38 +44,167 @@ class SimilarityFunctions(rdd: RDD[IndexedVector]) {
     *
     * @param correlation the method of calculate similarity between thisVector and thatVector.
     * @param conf
-    * @return all recommender similarity
+    * @return all recommender similarity, (i, (j, similarity)) with i &lt; j
     */
-  def computeSimilarity(correlation: Correlation, conf: LibrecConf): RDD[(Int, (Int, Double))] = {
-    val vectorRDD = rdd.mapPartitions({iter =>
-      val localVectors = ArrayBuffer[(Int, SequentialSparseVector)]()
-      while (iter.hasNext) {
-        val indexedVector = iter.next()
-        localVectors.+=((indexedVector.getIndex, indexedVector.asLocalVector.asInstanceOf[SequentialSparseVector]))
-      }
-      localVectors.iterator
-    }, true)
-    val ratingVectors = rdd.sparkContext.broadcast(vectorRDD.collect())
-    vectorRDD.mapPartitions({ iter =>
-      val vectors = ratingVectors.value
-      val similarities = ArrayBuffer[(Int, (Int, Double))]()
-      while (iter.hasNext) {
-        val thisVector = iter.next()
-        vectors.map { thatVector =>
-          if (thisVector._1 < thatVector._1) {
-            val sim = Similarity.getCorrelation(correlation, thisVector._2, thatVector._2, conf)
-            if (sim == sim && sim != 0.0D) { // Return the specified number is Not-a-Number (NaN) value and unequals 0.0D
-              similarities.+=((thisVector._1, (thatVector._1, sim)))
-            }
-          }
-        }
+  def computeSimilarity(correlation: Correlation, conf: LibrecConf): RDD[(Int, (Int, Double))] =
+    computeSimilarity(correlation, conf, SimilarityFunctions.defaultNumBlocks(rdd))
+
+  /**
+    * Calculate Recommender Similarity with the vectors hashed into the given number of blocks.
+    * Every vector is shuffled once per block, and numBlocks * (numBlocks + 1) / 2 tasks compare the pairs of blocks.
+    *
+    * @param correlation the method of calculate similarity between thisVector and thatVector.
+    * @param conf
+    * @param numBlocks   number of blocks of vectors
+    * @return all recommender similarity, (i, (j, similarity)) with i &lt; j
+    */
+  def computeSimilarity(correlation: Correlation, conf: LibrecConf, numBlocks: Int): RDD[(Int, (Int, Double))] = {
+    val blocks = math.max(1, numBlocks)
+    val blockPairs = rdd.flatMap { indexedVector =>
+      val index = indexedVector.getIndex
+      val vector = indexedVector.asLocalVector.asInstanceOf[SequentialSparseVector]
+      val block = SimilarityFunctions.blockOf(index, blocks)
+      (0 until blocks).iterator.map(other => (SimilarityFunctions.blockPairOf(block, other, blocks), (index, vector)))
+    }
+    blockPairs.groupByKey(new HashPartitioner(blocks * (blocks + 1) / 2)).flatMap { case (blockPair, members) =>
+      val vectors = members.toArray
+      val leftBlock = blockPair / blocks
+      val rightBlock = blockPair % blocks
+      if (leftBlock == rightBlock) {
+        SimilarityFunctions.coRatedSimilarities(correlation, conf, vectors, vectors, diagonal = true)
+      } else {
+        val (left, right) = vectors.partition(vector => SimilarityFunctions.blockOf(vector._1, blocks) == leftBlock)
+        SimilarityFunctions.coRatedSimilarities(correlation, conf, left, right, diagonal = false)
       }
-      similarities.iterator
-    }, true)
+    }
+  }
+
+  /**
+    * Calculate the k most similar neighbors of every vector.
+    *
+    * @param correlation the method of calculate similarity between thisVector and thatVector.
+    * @param conf
+    * @param topK        number of neighbors kept per vector
+    * @return the neighbors of every vector, (i, (j, similarity)) for both orders of a pair
+    */
+  def computeTopKSimilarity(correlation: Correlation, conf: LibrecConf, topK: Int): RDD[(Int, (Int, Double))] =
+    SimilarityFunctions.topK(computeSimilarity(correlation, conf), topK)
+
+  /**
+    * Calculate the binary cosine similarity (cosine of the whole vectors, Correlation.BCOS) by DIMSUM sampling,
+    * see Zadeh and Goel, Dimension Independent Similarity Computation, JMLR 2013. Pairs with a similarity above the
+    * threshold are estimated accurately, the products of less similar pairs are sampled away. A threshold of zero
+    * computes all similarities exactly.
+    *
+    * @param threshold similarity threshold, non-negative
+    * @return estimated similarities, (i, (j, similarity)) with i &lt; j
+    */
+  def computeCosineSimilarity(threshold: Double): RDD[(Int, (Int, Double))] = {
+    require(threshold >= 0.0D, s"Threshold cannot be negative: $threshold")
+    // the vectors are the columns of the matrix sampled by DIMSUM
+    val entries = rdd.flatMap { indexedVector =>
+      val index = indexedVector.getIndex
+      val columnEntries = ArrayBuffer[MatrixEntry]()
+      indexedVector.foreachActive((coordinate, value) => columnEntries += MatrixEntry(coordinate, index, value))
+      columnEntries
+    }
+    new CoordinateMatrix(entries).toRowMatrix().columnSimilarities(threshold).entries
+      .filter(entry => entry.value == entry.value && entry.value != 0.0D)
+      .map(entry => (entry.i.toInt, (entry.j.toInt, entry.value)))
   }
 
 }
 
 object SimilarityFunctions {
   implicit def addSimilarityFunctions(rdd: RDD[IndexedVector]) = new SimilarityFunctions(rdd)
+
+  /**
+    * Keep the k most similar neighbors of every index.
+    *
+    * @param similarities similarities (i, (j, similarity)) with i &lt; j
+    * @param k            number of neighbors kept per index
+    * @return the neighbors of every index, (i, (j, similarity)) for both orders of a pair
+    */
+  def topK(similarities: RDD[(Int, (Int, Double))], k: Int): RDD[(Int, (Int, Double))] = {
+    similarities.flatMap { case (thisIndex, (thatIndex, sim)) =>
+      Iterator((thisIndex, (thatIndex, sim)), (thatIndex, (thisIndex, sim)))
+    }.aggregateByKey(new TopKNeighbors(k))(
+      (neighbors, neighbor) => neighbors.add(neighbor._1, neighbor._2),
+      (left, right) => left.merge(right)
+    ).flatMap { case (index, neighbors) =>
+      neighbors.toArray.map(neighbor => (index, neighbor))
+    }
+  }
+
+  /**
+    * About two blocks per core: the block pairs then give one task per core.
+    */
+  private def defaultNumBlocks(rdd: RDD[_]): Int =
+    math.max(1, math.sqrt(2.0D * rdd.sparkContext.defaultParallelism).toInt)
+
+  private def blockOf(index: Int, numBlocks: Int): Int = ((index % numBlocks) + numBlocks) % numBlocks
+
+  private def blockPairOf(block: Int, other: Int, numBlocks: Int): Int =
+    math.min(block, other) * numBlocks + math.max(block, other)
+
+  /**
+    * Similarities of the co-rated pairs of two blocks of vectors.
+    *
+    * @param diagonal whether both blocks are the same, each pair is then compared once
+    */
+  private def coRatedSimilarities(correlation: Correlation, conf: LibrecConf,
+                                  left: Array[(Int, SequentialSparseVector)],
+                                  right: Array[(Int, SequentialSparseVector)],
+                                  diagonal: Boolean): Iterator[(Int, (Int, Double))] = {
+    // coordinate -> positions of the right vectors rating it
+    val postings = new Int2ObjectOpenHashMap[IntArrayList]()
+    for (position <- right.indices) {
+      val vector = right(position)._2
+      var entry = 0
+      while (entry < vector.getNumEntries) {
+        val coordinate = vector.getIndexAtPosition(entry)
+        var vectors = postings.get(coordinate)
+        if (vectors == null) {
+          vectors = new IntArrayList()
+          postings.put(coordinate, vectors)
+        }
+        vectors.add(position)
+        entry += 1
+      }
+    }
+
+    val similarities = ArrayBuffer[(Int, (Int, Double))]()
+    val lastVisitor = Array.fill(right.length)(-1)
+    for (leftPosition <- left.indices) {
+      val (thisIndex, thisVector) = left(leftPosition)
+      var entry = 0
+      while (entry < thisVector.getNumEntries) {
+        val vectors = postings.get(thisVector.getIndexAtPosition(entry))
+        if (vectors != null) {
+          var posting = 0
+          while (posting < vectors.size) {
+            val rightPosition = vectors.getInt(posting)
+            if (lastVisitor(rightPosition) != leftPosition) {
+              lastVisitor(rightPosition) = leftPosition
+              val (thatIndex, thatVector) = right(rightPosition)
+              if (!diagonal || thisIndex < thatIndex) {
+                // the smaller index first, as in the pairs (i, (j, similarity))
+                val sim = if (thisIndex < thatIndex) {
+                  Similarity.getCorrelation(correlation, thisVector, thatVector, conf)
+                } else {
+                  Similarity.getCorrelation(correlation, thatVector, thisVector, conf)
+                }
+                if (sim == sim && sim != 0.0D) { // Return the specified number is Not-a-Number (NaN) value and unequals 0.0D
+                  similarities += ((math.min(thisIndex, thatIndex), (math.max(thisIndex, thatIndex), sim)))
+                }
+              }
+            }
+            posting += 1
+          }
+        }
+        entry += 1
+      }
+    }
+    similarities.iterator
+  }
 }
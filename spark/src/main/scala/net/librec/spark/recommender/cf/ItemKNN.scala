@@ -1,14 +1,15 @@
 package net.librec.spark.recommender.cf
 
+import it.unimi.dsi.fastutil.ints.{Int2DoubleOpenHashMap, IntOpenHashSet}
+import org.apache.spark.HashPartitioner
 import org.apache.spark.rdd.RDD
-import net.librec.spark.data.Rating
-import net.librec.spark.math.structure.IndexedVector
+import net.librec.spark.data.{Rating, UserItemKey}
+import net.librec.spark.math.structure.{IndexedVector, TopKNeighbors}
 import net.librec.spark.rdd.StatisticalFunctions
 import net.librec.spark.rdd.StatisticalFunctions._
 import net.librec.spark.recommender.Recommender
 
 import scala.collection.mutable
-import scala.collection.mutable.ArrayBuffer
 
 /**
   * ItemKNNRecommender
@@ -37,6 +38,10 @@ class ItemKNN(val knn: Int,
     * All training sample denoted by Vectors
     */
   var trainVectors: RDD[IndexedVector] = _
+  /**
+    * Training ratings RDD[(item, (user, rate))], hash partitioned by item
+    */
+  var itemRatings: RDD[(Int, (Int, Double))] = _
 
   /**
     * @see net.librec.spark.recommender.Recommender#train()
@@ -45,6 +50,10 @@ class ItemKNN(val knn: Int,
     trainVectors = StatisticalFunctions.toIndexedSparseVectors(trainData, "item")
     globalMean = trainVectors.mean()
     itemMeans = trainVectors.indexedMeans()
+    // partitioned once, so predict only shuffles the similarities of the predicted items
+    itemRatings = trainData.map(rat => (rat.item, (rat.user, rat.rate)))
+      .partitionBy(new HashPartitioner(trainData.partitions.length))
+      .cache()
   }
 
   /**
@@ -52,56 +61,55 @@ class ItemKNN(val knn: Int,
     */
   override def predict(userItems: Array[(Int, Int)]): RDD[Rating] = {
     val sc = similarityData.sparkContext
-    val predUsersBC = sc.broadcast(userItems.map(_._1).toSet)
-    val predItemsBC = sc.broadcast(userItems.map(_._2).toSet)
+    val predUsersBC = sc.broadcast(new IntOpenHashSet(userItems.map(_._1)))
+    val predItemsBC = sc.broadcast(new IntOpenHashSet(userItems.map(_._2)))
 
-    // get all <predItem, simiItem> pairs of predItems
-    val predItemSimiItemPairs = similarityData.filter { similarity =>
-      val predItems = predItemsBC.value
-      if (predItems.contains(similarity._1)) {
-        if (similarity._2._2 > 0) true else false
-      } else false
+    // get all <simiItem, (predItem, score)> pairs of predItems
+    val predItemSimiItemPairs = similarityData.filter { case (predItem, (simiItem, score)) =>
+      score > 0 && predItemsBC.value.contains(predItem)
     }.map { case (predItem, (simiItem, score)) => (simiItem, (predItem, score)) }
 
-    // get all <predUser, ratedItem> pairs of predUsers
-    val predUserRatedItemPairs = trainData.filter { rating =>
-      val predUsers = predUsersBC.value
-      if (predUsers.contains(rating.user)) true else false
-    }.map(rat => (rat.item, (rat.user, rat.rate)))
+    // get all <ratedItem, (predUser, rate)> pairs of predUsers, filtering keeps the partitioning by item
+    val predUserRatedItemPairs = itemRatings.filter { case (ratedItem, (user, rate)) =>
+      predUsersBC.value.contains(user)
+    }
+    val neighborPairs = predItemSimiItemPairs.join(predUserRatedItemPairs, predUserRatedItemPairs.partitioner.get)
 
     if (isRanking) {
-      predItemSimiItemPairs.join(predUserRatedItemPairs)
-        .map { case (simiItem, ((predItem, score), (predUser, rate))) =>
-          (predUser + "_" + predItem, score)
-        }.aggregateByKey(ArrayBuffer[Double]())(_ += _, _ ++ _)
-        .map { case (predUserItem, scores) =>
-          val predUserItemArr = predUserItem.split("_", 2)
-          Rating(predUserItemArr(0).toInt, predUserItemArr(1).toInt, scores.sortWith(_ < _).take(knn).sum)
-        }
+      neighborPairs.map { case (simiItem, ((predItem, score), (predUser, rate))) =>
+        (UserItemKey(predUser, predItem), (simiItem, score))
+      }.aggregateByKey(new TopKNeighbors(knn))(
+        (neighbors, neighbor) => neighbors.add(neighbor._1, neighbor._2),
+        (left, right) => left.merge(right)
+      ).map { case (predUserItem, neighbors) =>
+        var sum = 0.0
+        neighbors.foreach((simiItem, score, deviation) => sum += score)
+        Rating(UserItemKey.user(predUserItem), UserItemKey.item(predUserItem), sum)
+      }
     } else {
-      val itemMeansBC = sc.broadcast(itemMeans.toMap)
-      predItemSimiItemPairs.join(predUserRatedItemPairs)
-        .mapPartitions { iter =>
-          val itemMeans = itemMeansBC.value
-          iter.map { case (simiItem, ((predItem, score), (predUser, rate))) =>
-            val mean = itemMeans.getOrElse(simiItem, 0.0)
-            (predUser + "_" + predItem, (rate, score, mean))
-          }
-        }.aggregateByKey(ArrayBuffer[(Double, Double, Double)]())(_ += _, _ ++ _)
-        .mapPartitions { iter =>
-          val itemMeans = itemMeansBC.value
-          iter.map { case (predUserItem, rateScores) =>
-            val predUserItemArr = predUserItem.split("_", 2)
-            val (predUser, predItem) = (predUserItemArr(0).toInt, predUserItemArr(1).toInt)
-            var sum, ws = 0.0
-            rateScores.sortWith((rateScore1, rateScore2) => rateScore1._2.compareTo(rateScore2._2) > 0).take(knn).foreach { case (rate, score, mean) =>
-              sum += score * (rate - mean)
-              ws += Math.abs(score)
-            }
-            val predRate = if (ws > 0) itemMeans.getOrElse(predItem, 0.0) + sum / ws else globalMean
-            Rating(predUser, predItem, predRate)
+      val itemMeansBC = sc.broadcast(KNN.toPrimitiveMap(itemMeans))
+      val globalMean = this.globalMean
+      neighborPairs.mapPartitions { iter =>
+        val itemMeans = itemMeansBC.value
+        iter.map { case (simiItem, ((predItem, score), (predUser, rate))) =>
+          (UserItemKey(predUser, predItem), (simiItem, score, rate - itemMeans.get(simiItem)))
+        }
+      }.aggregateByKey(new TopKNeighbors(knn))(
+        (neighbors, neighbor) => neighbors.add(neighbor._1, neighbor._2, neighbor._3),
+        (left, right) => left.merge(right)
+      ).mapPartitions { iter =>
+        val itemMeans = itemMeansBC.value
+        iter.map { case (predUserItem, neighbors) =>
+          val predItem = UserItemKey.item(predUserItem)
+          var sum, ws = 0.0
+          neighbors.foreach { (simiItem, score, deviation) =>
+            sum += score * deviation
+            ws += Math.abs(score)
           }
+          val predRate = if (ws > 0) itemMeans.get(predItem) + sum / ws else globalMean
+          Rating(UserItemKey.user(predUserItem), predItem, predRate)
         }
+      }
     }
 
   }
@@ -0,0 +1,40 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender.cf
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap
+
+import scala.collection.mutable
+
+/**
+  * Helpers shared by ItemKNN and UserKNN.
+  */
+private[cf] object KNN {
+
+  /**
+    * Copy means to a primitive map for broadcasting, absent indices get the mean 0.0.
+    *
+    * @param means mean of every index
+    * @return the primitive map
+    */
+  def toPrimitiveMap(means: mutable.Map[Int, Double]): Int2DoubleOpenHashMap = {
+    val primitiveMeans = new Int2DoubleOpenHashMap(means.size)
+    means.foreach { case (index, mean) => primitiveMeans.put(index, mean) }
+    primitiveMeans
+  }
+}
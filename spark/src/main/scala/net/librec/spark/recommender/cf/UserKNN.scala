@@ -18,15 +18,16 @@
 
 package net.librec.spark.recommender.cf
 
+import it.unimi.dsi.fastutil.ints.{Int2DoubleOpenHashMap, IntOpenHashSet}
+import org.apache.spark.HashPartitioner
 import org.apache.spark.rdd.RDD
-import net.librec.spark.data.Rating
-import net.librec.spark.math.structure.IndexedVector
+import net.librec.spark.data.{Rating, UserItemKey}
+import net.librec.spark.math.structure.{IndexedVector, TopKNeighbors}
 import net.librec.spark.rdd.StatisticalFunctions
 import net.librec.spark.rdd.StatisticalFunctions._
 import net.librec.spark.recommender.Recommender
 
 import scala.collection.mutable
-import scala.collection.mutable.ArrayBuffer
 
 /**
   * UserKNNRecommender
@@ -56,6 +57,10 @@ class UserKNN(val knn: Int,
     * All training sample denoted by Vectors
     */
   var trainVectors: RDD[IndexedVector] = _
+  /**
+    * Training ratings RDD[(user, (item, rate))], hash partitioned by user
+    */
+  var userRatings: RDD[(Int, (Int, Double))] = _
 
   /**
     * @see net.librec.spark.recommender.Recommender#train()
@@ -64,6 +69,10 @@ class UserKNN(val knn: Int,
     trainVectors = StatisticalFunctions.toIndexedSparseVectors(trainData)
     globalMean = trainVectors.mean()
     userMeans = trainVectors.indexedMeans()
+    // partitioned once, so predict only shuffles the similarities of the predicted users
+    userRatings = trainData.map(rat => (rat.user, (rat.item, rat.rate)))
+      .partitionBy(new HashPartitioner(trainData.partitions.length))
+      .cache()
   }
 
   /**
@@ -71,54 +80,55 @@ class UserKNN(val knn: Int,
     */
   override def predict(userItems: Array[(Int, Int)]): RDD[Rating] = {
     val sc = similarityData.sparkContext
-    val predUsersBC = sc.broadcast(userItems.map(_._1).toSet)
-    val predItemsBC = sc.broadcast(userItems.map(_._2).toSet)
+    val predUsersBC = sc.broadcast(new IntOpenHashSet(userItems.map(_._1)))
+    val predItemsBC = sc.broadcast(new IntOpenHashSet(userItems.map(_._2)))
 
-    // get all <predUser, simiUser> pairs of predUsers
-    val predUserSimiUserPairs = similarityData.filter { similarity =>
-      val predUsers = predUsersBC.value
-      if (predUsers.contains(similarity._1)) true else false
+    // get all <simiUser, (predUser, score)> pairs of predUsers
+    val predUserSimiUserPairs = similarityData.filter { case (predUser, (simiUser, score)) =>
+      predUsersBC.value.contains(predUser)
     }.map { case (predUser, (simiUser, score)) => (simiUser, (predUser, score)) }
 
-    // get all <predItem, ratingUser> pairs of predItems
-    val predItemRatingUserPairs = trainData.filter { rating =>
-      val predItems = predItemsBC.value
-      if (predItems.contains(rating.item)) true else false
-    }.map(rat => (rat.user, (rat.item, rat.rate)))
+    // get all <ratingUser, (predItem, rate)> pairs of predItems, filtering keeps the partitioning by user
+    val predItemRatingUserPairs = userRatings.filter { case (ratingUser, (item, rate)) =>
+      predItemsBC.value.contains(item)
+    }
+    val neighborPairs = predUserSimiUserPairs.join(predItemRatingUserPairs, predItemRatingUserPairs.partitioner.get)
 
     if (isRanking) {
-      predUserSimiUserPairs.join(predItemRatingUserPairs)
-        .map { case (simiRatingUser, ((predUser, score), (predItem, rate))) =>
-          (predUser + "_" + predItem, score)
-        }.aggregateByKey(ArrayBuffer[Double]())(_ += _, _ ++ _)
-        .map { case (predUserItem, scores) =>
-          val predUserItemArr = predUserItem.split("_", 2)
-          Rating(predUserItemArr(0).toInt, predUserItemArr(1).toInt, scores.sortWith(_ < _).take(knn).sum)
-        }
+      neighborPairs.map { case (simiRatingUser, ((predUser, score), (predItem, rate))) =>
+        (UserItemKey(predUser, predItem), (simiRatingUser, score))
+      }.aggregateByKey(new TopKNeighbors(knn))(
+        (neighbors, neighbor) => neighbors.add(neighbor._1, neighbor._2),
+        (left, right) => left.merge(right)
+      ).map { case (predUserItem, neighbors) =>
+        var sum = 0.0
+        neighbors.foreach((simiRatingUser, score, deviation) => sum += score)
+        Rating(UserItemKey.user(predUserItem), UserItemKey.item(predUserItem), sum)
+      }
     } else {
-      val userMeansBC = sc.broadcast(userMeans.toMap)
-      predUserSimiUserPairs.join(predItemRatingUserPairs)
-        .mapPartitions { iter =>
-          val userMeans = userMeansBC.value
-          iter.map { case (simiRatingUser, ((predUser, score), (predItem, rate))) =>
-            val mean = userMeans.getOrElse(simiRatingUser, 0.0)
-            (predUser + "_" + predItem, (rate, score, mean))
-          }
-        }.aggregateByKey(ArrayBuffer[(Double, Double, Double)]())(_ += _, _ ++ _)
-        .mapPartitions { iter =>
-          val userMeans = userMeansBC.value
-          iter.map { case (predUserItem, rateScores) =>
-            val predUserItemArr = predUserItem.split("_", 2)
-            val (predUser, predItem) = (predUserItemArr(0).toInt, predUserItemArr(1).toInt)
-            var sum, ws = 0.0
-            rateScores.sortWith((rateScore1, rateScore2) => rateScore1._2.compareTo(rateScore2._2) > 0).take(knn).foreach { case (rate, score, mean) =>
-              sum += score * (rate - mean)
-              ws += Math.abs(score)
-            }
-            val predRate = if (ws > 0) userMeans.getOrElse(predUser, 0.0) + sum / ws else globalMean
-            Rating(predUser, predItem, predRate)
+      val userMeansBC = sc.broadcast(KNN.toPrimitiveMap(userMeans))
+      val globalMean = this.globalMean
+      neighborPairs.mapPartitions { iter =>
+        val userMeans = userMeansBC.value
+        iter.map { case (simiRatingUser, ((predUser, score), (predItem, rate))) =>
+          (UserItemKey(predUser, predItem), (simiRatingUser, score, rate - userMeans.get(simiRatingUser)))
+        }
+      }.aggregateByKey(new TopKNeighbors(knn))(
+        (neighbors, neighbor) => neighbors.add(neighbor._1, neighbor._2, neighbor._3),
+        (left, right) => left.merge(right)
+      ).mapPartitions { iter =>
+        val userMeans = userMeansBC.value
+        iter.map { case (predUserItem, neighbors) =>
+          val predUser = UserItemKey.user(predUserItem)
+          var sum, ws = 0.0
+          neighbors.foreach { (simiRatingUser, score, deviation) =>
+            sum += score * deviation
+            ws += Math.abs(score)
           }
+          val predRate = if (ws > 0) userMeans.get(predUser) + sum / ws else globalMean
+          Rating(predUser, UserItemKey.item(predUserItem), predRate)
         }
+      }
     }
   }
 
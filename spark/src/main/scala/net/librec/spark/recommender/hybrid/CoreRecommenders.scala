@@ -0,0 +1,144 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender.hybrid
+
+import net.librec.conf.Configuration
+import net.librec.data.DataModel
+import net.librec.math.algorithm.Randoms
+import net.librec.data.structure.{AbstractBaseDataEntry, BaseDataList, BaseRatingDataEntry}
+import net.librec.recommender.{MatrixRecommender, Recommender, RecommenderContext}
+import net.librec.similarity.RecommenderSimilarity
+import net.librec.spark.data.Rating
+import net.librec.util.{DriverClassUtil, ReflectionUtil}
+import org.apache.spark.SparkContext
+import org.apache.spark.rdd.RDD
+
+import scala.collection.JavaConverters._
+
+/**
+  * Recommenders of librec-core as members of a Spark hybrid job. Every member is described by the properties of
+  * its configuration and runs as one task: it builds its data model, trains and predicts within a single JVM, as
+  * RecommenderJob does, and only its predictions are shuffled. The data files must be readable by the executors.
+  * User and item ids are expected to be numeric, as in the data read by DataConverter.
+  *
+  * Given (user, item) pairs, e.g. the test ratings of a hybrid job with Spark members, every member scores these
+  * pairs instead of its own test set, so that the predictions of all members can be fused pair by pair. Pairs of
+  * users or items unknown to a member are not scored by it.
+  */
+object CoreRecommenders {
+
+  /**
+    * Train the members, one task each, and predict the given pairs, or their test sets if no pairs are given.
+    *
+    * @param sc          spark context
+    * @param memberConfs configuration properties of every member
+    * @param userItems   (user, item) pairs to predict, empty to predict the test set of every member
+    * @return (member, prediction) of all members, ranking scores if a member is configured for ranking
+    */
+  def trainAndPredict(sc: SparkContext, memberConfs: Seq[Map[String, String]],
+                      userItems: Array[(Int, Int)] = Array.empty): RDD[(Int, Rating)] = {
+    if (memberConfs.isEmpty) {
+      sc.emptyRDD[(Int, Rating)]
+    } else {
+      val userItemsBC = sc.broadcast(userItems)
+      sc.parallelize(memberConfs.zipWithIndex, memberConfs.length).flatMap { case (properties, member) =>
+        recommend(properties, userItemsBC.value).map(rating => (member, rating))
+      }
+    }
+  }
+
+  /**
+    * Train a recommender on the first fold of its data model and predict the given pairs, or its test set if no
+    * pairs are given.
+    *
+    * @param properties configuration properties of the recommender
+    * @param userItems  (user, item) pairs to predict, empty to predict the test set
+    * @return the predictions, or the recommended lists if the recommender is configured for ranking and predicts
+    *         its test set
+    */
+  def recommend(properties: Map[String, String], userItems: Array[(Int, Int)] = Array.empty): Seq[Rating] = {
+    val conf = new Configuration()
+    properties.foreach { case (key, value) => conf.set(key, value) }
+
+    val dataModel = ReflectionUtil.newInstance(
+      DriverClassUtil.getClass(conf.get("data.model.format")).asInstanceOf[Class[DataModel]], conf)
+    // Randoms is shared by the members running in one executor, seed and split under a lock to get the same folds
+    this.synchronized {
+      val seed = conf.getLong("rec.random.seed")
+      if (seed != null) {
+        Randoms.seed(seed)
+      }
+      dataModel.buildDataModel()
+      dataModel.nextFold()
+    }
+    val context = new RecommenderContext(conf, dataModel)
+    val similarityKeys = conf.getStrings("rec.recommender.similarities")
+    if (conf.get("rec.similarity.class") != null && similarityKeys != null) {
+      val similarityClass = DriverClassUtil.getClass(conf.get("rec.similarity.class")).asInstanceOf[Class[RecommenderSimilarity]]
+      for ((similarityKey, keyIdx) <- similarityKeys.zipWithIndex) {
+        val similarity = ReflectionUtil.newInstance(similarityClass, conf)
+        conf.set("rec.recommender.similarity.key", similarityKey)
+        similarity.buildSimilarityMatrix(dataModel)
+        if (keyIdx == 0) {
+          context.setSimilarity(similarity)
+        }
+        context.addSimilarities(similarityKey, similarity)
+      }
+    }
+
+    val recommender = ReflectionUtil.newInstance(
+      DriverClassUtil.getClass(conf.get("rec.recommender.class")).asInstanceOf[Class[Recommender]], conf)
+    recommender.train(context)
+    val recommendedList = if (userItems.nonEmpty) {
+      require(recommender.isInstanceOf[MatrixRecommender],
+        "Only matrix recommenders can predict given pairs: " + conf.get("rec.recommender.class"))
+      recommender.recommendRating(toDataList(dataModel, userItems))
+    } else if (conf.getBoolean("rec.recommender.isranking")) {
+      recommender.recommendRank()
+    } else {
+      recommender.recommendRating(dataModel.getTestDataSet)
+    }
+    val recommendedItems = recommender.getRecommendedList(recommendedList)
+    if (recommendedItems == null) {
+      Seq.empty
+    } else {
+      recommendedItems.asScala.map(item => Rating(item.getUserId.toInt, item.getItemId.toInt, item.getValue))
+    }
+  }
+
+  /**
+    * The pairs as data entries of a matrix recommender, one entry per user, as the rating entries of a test set.
+    */
+  private def toDataList(dataModel: DataModel, userItems: Array[(Int, Int)]): BaseDataList[AbstractBaseDataEntry] = {
+    val userMapping = dataModel.getUserMappingData
+    val itemMapping = dataModel.getItemMappingData
+    val userItemIndices = Array.fill(userMapping.size)(Array.newBuilder[Int])
+    userItems.foreach { case (user, item) =>
+      val userIdx = userMapping.get(user.toString)
+      val itemIdx = itemMapping.get(item.toString)
+      if (userIdx != null && itemIdx != null) {
+        userItemIndices(userIdx) += itemIdx
+      }
+    }
+    val dataList = new BaseDataList[AbstractBaseDataEntry]()
+    for (userIdx <- userItemIndices.indices) {
+      dataList.addDataEntry(new BaseRatingDataEntry(userIdx, userItemIndices(userIdx).result().distinct.sorted))
+    }
+    dataList
+  }
+}
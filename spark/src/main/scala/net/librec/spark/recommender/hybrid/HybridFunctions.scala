@@ -0,0 +1,101 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender.hybrid
+
+import net.librec.spark.data.{Rating, UserItemKey}
+import net.librec.spark.math.structure.TopKNeighbors
+import org.apache.spark.rdd.RDD
+
+/**
+  * Distributed combiners of the predictions of the members of a hybrid recommender.
+  */
+object HybridFunctions {
+
+  /**
+    * Smoothing constant of reciprocal rank fusion, see Cormack et al., Reciprocal Rank Fusion outperforms Condorcet
+    * and individual Rank Learning Methods, SIGIR 2009.
+    */
+  val RankConstant = 60.0D
+
+  /**
+    * Equal weights of the given number of members.
+    *
+    * @param numMembers number of members
+    * @return the weights
+    */
+  def equalWeights(numMembers: Int): Array[Double] = Array.fill(numMembers)(1.0D / numMembers)
+
+  /**
+    * Check that there is one weight per member and that the weights sum up to 1.0, as WeightedHybridRecommender.
+    *
+    * @param weights    weights of the members
+    * @param numMembers number of members
+    */
+  def checkWeights(weights: Array[Double], numMembers: Int): Unit = {
+    require(weights.length == numMembers, "Each given recommender must have it's own weight!")
+    require(math.abs(weights.sum - 1.0D) < 1e-9, "The combined weights must have a value of 1.0. Given: " + weights.mkString(", "))
+  }
+
+  /**
+    * Weighted sum of the rating predictions of all members, for the (user, item) pairs predicted by every member.
+    *
+    * @param predictions predictions of every member
+    * @param weights     weights of the members
+    * @return the fused predictions
+    */
+  def weighted(predictions: Seq[RDD[Rating]], weights: Array[Double]): RDD[Rating] = {
+    checkWeights(weights, predictions.length)
+    val numMembers = predictions.length
+    val weightedPredictions = predictions.zip(weights).map { case (memberPredictions, weight) =>
+      memberPredictions.map(rating => (UserItemKey(rating.user, rating.item), (weight * rating.rate, 1)))
+    }
+    predictions.head.sparkContext.union(weightedPredictions)
+      .reduceByKey((left, right) => (left._1 + right._1, left._2 + right._2))
+      .filter { case (userItem, (rate, numPredictions)) => numPredictions == numMembers }
+      .map { case (userItem, (rate, numPredictions)) => Rating(UserItemKey.user(userItem), UserItemKey.item(userItem), rate) }
+  }
+
+  /**
+    * Weighted reciprocal rank fusion of the rankings of all members: the items of a user are ranked by every member,
+    * an item scores the weighted sum of weight / (RankConstant + rank) and the topN best items are kept.
+    *
+    * @param predictions ranking scores of every member
+    * @param weights     weights of the members
+    * @param topN        number of items kept per user
+    * @return the fused rankings, the rate of an item is its fused score
+    */
+  def ranked(predictions: Seq[RDD[Rating]], weights: Array[Double], topN: Int): RDD[Rating] = {
+    checkWeights(weights, predictions.length)
+    val rankScores = predictions.zip(weights).map { case (memberPredictions, weight) =>
+      memberPredictions.map(rating => (rating.user, (rating.item, rating.rate))).groupByKey().flatMap { case (user, items) =>
+        items.toArray.sortBy(item => (-item._2, item._1)).iterator.zipWithIndex.map { case ((item, score), rank) =>
+          (UserItemKey(user, item), weight / (RankConstant + rank + 1))
+        }
+      }
+    }
+    predictions.head.sparkContext.union(rankScores)
+      .reduceByKey(_ + _)
+      .map { case (userItem, score) => (UserItemKey.user(userItem), (UserItemKey.item(userItem), score)) }
+      .aggregateByKey(new TopKNeighbors(topN))(
+        (items, item) => items.add(item._1, item._2),
+        (left, right) => left.merge(right)
+      ).flatMap { case (user, items) =>
+        items.toArray.map { case (item, score) => Rating(user, item, score) }
+      }
+  }
+}
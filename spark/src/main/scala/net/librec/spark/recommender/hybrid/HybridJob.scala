@@ -0,0 +1,111 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender.hybrid
+
+import net.librec.recommender.item.RecommendedList
+import net.librec.spark.Measure.Measure
+import net.librec.spark.data.Rating
+import net.librec.spark.recommender.Recommender
+import net.librec.spark.{Evaluator, LibrecContext}
+import org.apache.spark.rdd.RDD
+
+/**
+  * Distributed counterpart of HybridRecommenderJob: the members are trained and predict separately and their
+  * predictions are fused by a distributed weighted (rating) or reciprocal rank (ranking) combiner.
+  *
+  * Spark members, e.g. ItemKNN and UserKNN, run as their own Spark stages; core members are librec-core
+  * recommenders given by their configuration properties, trained as one task each, see CoreRecommenders. All
+  * members predict the (user, item) pairs of the test ratings; a job of core members only may run without test
+  * ratings, each member then predicts its own test set.
+  *
+  * @param lc          librec context
+  * @param members     Spark recommenders
+  * @param coreMembers configuration properties of librec-core recommenders
+  * @param weights     weights of the members, Spark members first, equal weights if null
+  * @param isRanking   whether to fuse rankings instead of ratings
+  * @param topN        number of items recommended per user when ranking
+  */
+class HybridJob(val lc: LibrecContext,
+                val members: Seq[Recommender[Array[(Int, Int)]]],
+                val coreMembers: Seq[Map[String, String]] = Seq.empty,
+                val weights: Array[Double] = null,
+                val isRanking: Boolean = false,
+                val topN: Int = 10) {
+
+  /**
+    * Train all members and fuse their predictions of the test pairs.
+    *
+    * @param testData test ratings, their (user, item) pairs are predicted by all members
+    * @return the fused predictions, or the fused recommended lists when ranking
+    */
+  def run(testData: RDD[Rating]): RDD[Rating] = {
+    val numMembers = members.length + coreMembers.length
+    require(numMembers > 0, "A hybrid job needs at least one member!")
+    val memberWeights = if (weights == null) HybridFunctions.equalWeights(numMembers) else weights
+    HybridFunctions.checkWeights(memberWeights, numMembers)
+
+    val userItems = testData.map(rating => (rating.user, rating.item)).collect()
+    require(members.isEmpty || userItems.nonEmpty, "Spark members need test ratings to predict!")
+    val sparkPredictions = members.map { member =>
+      member.train()
+      member.predict(userItems).cache()
+    }
+    val corePredictions = CoreRecommenders.trainAndPredict(lc.sparkContext, coreMembers, userItems).cache()
+    val predictions = sparkPredictions ++ coreMembers.indices.map { member =>
+      corePredictions.filter(_._1 == member).values
+    }
+
+    if (isRanking) {
+      HybridFunctions.ranked(predictions, memberWeights, topN)
+    } else {
+      HybridFunctions.weighted(predictions, memberWeights)
+    }
+  }
+
+  /**
+    * Evaluate the fused predictions with net.librec.spark.Evaluator. The lists are joined per user by position, so
+    * only the test ratings of the predicted pairs, or of the users with a recommended list when ranking, are
+    * evaluated, and rating predictions are compared in the same item order as the test ratings. Rankings are cut
+    * to topN items per user. AUC and Novelty need the training ratings.
+    *
+    * @param predictions fused predictions, as returned by run
+    * @param testData    test ratings
+    * @param measures    measures to evaluate
+    * @param trainData   training ratings, for the statistics of AUC and Novelty
+    * @return the value of every measure
+    */
+  def evaluate(predictions: RDD[Rating], testData: RDD[Rating], measures: Seq[Measure],
+               trainData: RDD[Rating] = null): Map[Measure, Double] = {
+    val predictedRatings = predictions.collect()
+    val testRatings = if (isRanking) {
+      val predictedUsers = predictedRatings.map(_.user).toSet
+      testData.collect().filter(rating => predictedUsers.contains(rating.user))
+    } else {
+      val predictedPairs = predictedRatings.map(rating => (rating.user, rating.item)).toSet
+      testData.collect().filter(rating => predictedPairs.contains((rating.user, rating.item)))
+    }
+    val groundTruthList = new RecommendedList(testRatings.length, isRanking)
+    testRatings.foreach(rating => groundTruthList.addIndependently(rating.user, rating.item, rating.rate))
+    val recommendedList = new RecommendedList(predictedRatings.length)
+    predictedRatings.foreach(rating => recommendedList.addIndependently(rating.user, rating.item, rating.rate))
+    val conf = lc.conf.copy()
+    conf.setInt("rec.recommender.ranking.topn", if (isRanking) topN else -1)
+    val statistics = if (trainData == null) null else Evaluator.statistics(trainData, testData, testRatings.map(_.user))
+    measures.map(measure => measure -> Evaluator.eval(measure, groundTruthList, recommendedList, conf, statistics)).toMap
+  }
+}
@@ -1,6 +1,9 @@
 package net.librec.spark
 
+import net.librec.common.LibrecRuntimeException
+import net.librec.eval.EvalStatistics
 import net.librec.recommender.item.RecommendedList
+import net.librec.spark.data.Rating
 import net.librec.spark.{Evaluator, Measure}
 
 /**
@@ -11,13 +14,41 @@ import net.librec.spark.{Evaluator, Measure}
 class EvaluatorTestCase extends BaseTestSuite{
   override val appName: String = "EvaluatorTestCase"
 
-  test("EvaluatorTestCase") {
+  /**
+    * The lists of two users with one item each, new lists for every evaluation as evaluating transforms them.
+    */
+  private def lists(): (RecommendedList, RecommendedList) = {
     val groundTruthList: RecommendedList = new RecommendedList(2)
     groundTruthList.addIndependently(1,2,0.0)
     groundTruthList.addIndependently(2,1,4.0)
     val recommendedList: RecommendedList = new RecommendedList(2)
     recommendedList.addIndependently(1,2,0.1)
     recommendedList.addIndependently(2,1,5.2)
-    println(Evaluator.eval(Measure.AUC,groundTruthList,recommendedList))
+    (groundTruthList, recommendedList)
+  }
+
+  private def eval(measure: Measure.Measure, conf: LibrecConf, statistics: EvalStatistics = null): Double = {
+    val (groundTruthList, recommendedList) = lists()
+    Evaluator.eval(measure, groundTruthList, recommendedList, conf, statistics)
+  }
+
+  test("EvaluatorTestCase") {
+    conf.setInt("rec.recommender.ranking.topn", 10)
+
+    // AUC and Novelty need the statistics of the data
+    intercept[LibrecRuntimeException](eval(Measure.AUC, conf))
+    intercept[LibrecRuntimeException](eval(Measure.Novelty, conf))
+
+    // items 0 to 6, user 1 rated two of them and user 2 one in the training data
+    val trainData = lc.sparkContext.parallelize(Seq(Rating(1, 0, 1.0), Rating(1, 6, 2.0), Rating(2, 3, 3.0), Rating(3, 0, 1.0)))
+    val testData = lc.sparkContext.parallelize(Seq(Rating(1, 2, 0.0), Rating(2, 1, 4.0)))
+    val statistics = Evaluator.statistics(trainData, testData, Seq(2, 1))
+    assert(statistics.getNumItems === 7)
+    assert(statistics.getNumDroppedItems === Array(5, 6))
+    assert(statistics.getMaxNumTestItems === 1)
+    assert(statistics.getItemPurchaseCounts === Array(2, 1, 1, 1, 0, 0, 1))
+
+    assert(eval(Measure.AUC, conf, statistics) === 1.0)
+    assert(!eval(Measure.Novelty, conf, statistics).isNaN)
   }
 }
@@ -1,29 +1,98 @@
 package net.librec.spark
 
-import net.librec.spark.data.DataConverter
+import net.librec.math.structure.SequentialSparseVector
+import net.librec.spark.math.structure.{IndexedSparseVector, IndexedVector}
 import net.librec.spark.rdd.SimilarityFunctions._
-import net.librec.spark.rdd.StatisticalFunctions
+
+import scala.util.Random
 
 /**
-  * Librec Context Test Case
+  * Similarity Test Case
   *
   * @author WangYuFeng
   */
 class SimilarityTestCase extends BaseTestSuite{
   override val appName: String = "SimilarityTestCase"
-  var dataConverter:DataConverter = _
 
-  override protected def beforeAll(): Unit = {
-    super.beforeAll()
-    dataConverter = new DataConverter(lc)
+  /**
+    * Random sparse rating vectors of the given density.
+    */
+  private def randomVectors(numVectors: Int, size: Int, density: Double, seed: Long): Seq[IndexedVector] = {
+    val random = new Random(seed)
+    (0 until numVectors).map { index =>
+      val indices = (0 until size).filter(_ => random.nextDouble() < density).toArray
+      IndexedSparseVector(index, size, indices, indices.map(_ => (1 + random.nextInt(5)).toDouble))
+    }
+  }
+
+  /**
+    * All pairs compared on the driver, as the similarities were computed before.
+    */
+  private def bruteForce(vectors: Seq[IndexedVector], correlation: Correlation.Correlation): Map[(Int, Int), Double] = {
+    val localVectors = vectors.map(vector => (vector.getIndex, vector.asLocalVector.asInstanceOf[SequentialSparseVector]))
+    (for (thisVector <- localVectors; thatVector <- localVectors if thisVector._1 < thatVector._1) yield {
+      ((thisVector._1, thatVector._1), Similarity.getCorrelation(correlation, thisVector._2, thatVector._2, conf))
+    }).filter(pair => pair._2 == pair._2 && pair._2 != 0.0D).toMap
+  }
+
+  /**
+    * Cosines of the whole vectors, computed on the driver. The merge in SequentialSparseVector.dot stops before the
+    * last entries of the vectors, so the reference is computed here.
+    */
+  private def bruteForceCosine(vectors: Seq[IndexedVector]): Map[(Int, Int), Double] = {
+    val localVectors = vectors.map { vector =>
+      val entries = scala.collection.mutable.Map[Int, Double]()
+      vector.foreachActive((coordinate, value) => entries(coordinate) = value)
+      (vector.getIndex, entries.toMap)
+    }
+    (for (thisVector <- localVectors; thatVector <- localVectors if thisVector._1 < thatVector._1) yield {
+      val dot = thisVector._2.map { case (coordinate, value) => value * thatVector._2.getOrElse(coordinate, 0.0D) }.sum
+      val norms = scala.math.sqrt(thisVector._2.values.map(value => value * value).sum) *
+        scala.math.sqrt(thatVector._2.values.map(value => value * value).sum)
+      ((thisVector._1, thatVector._1), dot / norms)
+    }).filter(pair => pair._2 == pair._2 && pair._2 != 0.0D).toMap
   }
 
   test("SimilarityTestCase") {
-//    IndexedRow
-//
-//    val a = lc.sparkContext.parallelize(List((1,5),(2,6),(3,7)))
-//    a.join(a).collect().foreach(print)
-    val rdd = dataConverter.convertText("file:///E:/workspace/my_workspace/librec/librec/data/spark/rating/ratings.txt")
-    val similarity = StatisticalFunctions.toIndexedSparseVectors(rdd).computeSimilarity(Correlation.BCOS, conf).foreach(println)
+    val vectors = randomVectors(60, 40, 0.15, 1L)
+    val rdd = lc.sparkContext.parallelize(vectors, 4)
+    for (correlation <- Seq(Correlation.BCOS, Correlation.COS, Correlation.PCC, Correlation.JACCARD); numBlocks <- Seq(1, 3)) {
+      val expected = bruteForce(vectors, correlation)
+      val similarities = rdd.computeSimilarity(correlation, conf, numBlocks).collect()
+      assert(similarities.forall { case (thisIndex, (thatIndex, _)) => thisIndex < thatIndex })
+      val actual = similarities.map { case (thisIndex, (thatIndex, sim)) => ((thisIndex, thatIndex), sim) }.toMap
+      assert(actual.size === similarities.length)
+      assert(actual.keySet === expected.keySet)
+      actual.foreach { case (pair, sim) => assert(scala.math.abs(sim - expected(pair)) < 1e-10) }
+    }
+  }
+
+  test("TopKSimilarityTestCase") {
+    val vectors = randomVectors(60, 40, 0.15, 2L)
+    val expected = bruteForce(vectors, Correlation.PCC).toSeq
+      .flatMap { case ((thisIndex, thatIndex), sim) => Seq((thisIndex, (thatIndex, sim)), (thatIndex, (thisIndex, sim))) }
+      .groupBy(_._1)
+      .map { case (index, neighbors) => (index, neighbors.map(_._2).sortBy(neighbor => (-neighbor._2, neighbor._1)).take(5)) }
+    val actual = lc.sparkContext.parallelize(vectors, 4).computeTopKSimilarity(Correlation.PCC, conf, 5).collect()
+      .groupBy(_._1)
+      .map { case (index, neighbors) => (index, neighbors.map(_._2).toSeq) }
+    assert(actual.keySet === expected.keySet)
+    actual.foreach { case (index, neighbors) =>
+      assert(neighbors.map(_._1) === expected(index).map(_._1))
+    }
+  }
+
+  test("CosineSimilarityTestCase") {
+    val vectors = randomVectors(60, 40, 0.15, 3L)
+    val rdd = lc.sparkContext.parallelize(vectors, 4)
+    val expected = bruteForceCosine(vectors)
+    val exact = rdd.computeCosineSimilarity(0.0D).collect()
+      .map { case (thisIndex, (thatIndex, sim)) => ((thisIndex, thatIndex), sim) }.toMap
+    assert(exact.keySet === expected.keySet)
+    exact.foreach { case (pair, sim) => assert(scala.math.abs(sim - expected(pair)) < 1e-10) }
+
+    // sampling may only drop or perturb pairs, never invent them
+    val sampled = rdd.computeCosineSimilarity(0.5D).collect()
+    assert(sampled.forall { case (thisIndex, (thatIndex, _)) => expected.contains((thisIndex, thatIndex)) })
   }
 }
@@ -0,0 +1,152 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender
+
+import net.librec.common.LibrecRuntimeException
+import net.librec.spark.data.{DataConverter, Rating}
+import net.librec.spark.rdd.SimilarityFunctions._
+import net.librec.spark.rdd.StatisticalFunctions
+import net.librec.spark.recommender.cf.{ItemKNN, UserKNN}
+import net.librec.spark.recommender.hybrid.{CoreRecommenders, HybridFunctions, HybridJob}
+import net.librec.spark.{BaseTestSuite, Correlation, Measure}
+
+import scala.util.Random
+
+/**
+  * HybridJob Test Case
+  */
+class HybridJobTestCase extends BaseTestSuite {
+  override val appName: String = "HybridJobTestCase"
+
+  test("SparkMembersHybridJobTestCase") {
+    val random = new Random(1L)
+    val ratings = (0 until 100).flatMap { user =>
+      Seq.fill(15)(random.nextInt(60)).distinct.map(item => Rating(user, item, 1 + random.nextInt(5)))
+    }
+    val (trainRatings, testRatings) = ratings.partition(_ => random.nextDouble() < 0.8)
+    val trainData = lc.sparkContext.parallelize(trainRatings, 4)
+    val testData = lc.sparkContext.parallelize(testRatings, 4)
+
+    val itemSimilarity = StatisticalFunctions.toIndexedSparseVectors(trainData, "item").computeTopKSimilarity(Correlation.PCC, conf, 20)
+    val userSimilarity = StatisticalFunctions.toIndexedSparseVectors(trainData).computeTopKSimilarity(Correlation.PCC, conf, 20)
+    val itemKNN = new ItemKNN(knn = 10, isRanking = false, trainData = trainData, similarityData = itemSimilarity)
+    val userKNN = new UserKNN(knn = 10, isRanking = false, trainData = trainData, similarityData = userSimilarity)
+    val job = new HybridJob(lc, Seq(itemKNN, userKNN), weights = Array(0.25, 0.75))
+    val fused = job.run(testData).collect()
+
+    val userItems = testRatings.map(rating => (rating.user, rating.item)).toArray
+    val itemPredictions = itemKNN.predict(userItems).collect().map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    val userPredictions = userKNN.predict(userItems).collect().map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    assert(fused.length === itemPredictions.keySet.intersect(userPredictions.keySet).size)
+    fused.foreach { rating =>
+      val key = (rating.user, rating.item)
+      assert(math.abs(rating.rate - (0.25 * itemPredictions(key) + 0.75 * userPredictions(key))) < 1e-9)
+    }
+
+    val results = job.evaluate(lc.sparkContext.parallelize(fused), testData, Seq(Measure.RMSE, Measure.MAE))
+    results.foreach { case (measure, value) =>
+      println("---Evaluator " + measure + ": " + value)
+      assert(!value.isNaN)
+    }
+  }
+
+  test("CoreMembersHybridJobTestCase") {
+    val coreMember = Map(
+      "dfs.data.dir" -> "../data",
+      "data.input.path" -> "filmtrust/rating",
+      "data.column.format" -> "UIR",
+      "data.model.splitter" -> "ratio",
+      "data.splitter.ratio" -> "rating",
+      "data.splitter.trainset.ratio" -> "0.8",
+      "rec.random.seed" -> "1",
+      "rec.recommender.isranking" -> "false")
+    val itemAverage = coreMember + ("rec.recommender.class" -> "itemaverage")
+    val userAverage = coreMember + ("rec.recommender.class" -> "useraverage")
+    val job = new HybridJob(lc, Seq.empty, coreMembers = Seq(itemAverage, userAverage))
+    val fused = job.run(lc.sparkContext.emptyRDD[Rating]).collect()
+
+    val itemPredictions = CoreRecommenders.recommend(itemAverage).map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    val userPredictions = CoreRecommenders.recommend(userAverage).map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    assert(fused.nonEmpty)
+    fused.foreach { rating =>
+      val key = (rating.user, rating.item)
+      assert(math.abs(rating.rate - 0.5 * (itemPredictions(key) + userPredictions(key))) < 1e-9)
+    }
+  }
+
+  test("MixedMembersHybridJobTestCase") {
+    val ratings = new DataConverter(lc).convertText("../data/filmtrust/rating").collect()
+    val random = new Random(1L)
+    val (trainRatings, testRatings) = ratings.partition(_ => random.nextDouble() < 0.8)
+    val trainData = lc.sparkContext.parallelize(trainRatings, 4)
+    val testData = lc.sparkContext.parallelize(testRatings.filter(_.user < 100), 4)
+
+    val itemSimilarity = StatisticalFunctions.toIndexedSparseVectors(trainData, "item").computeTopKSimilarity(Correlation.PCC, conf, 20)
+    val itemKNN = new ItemKNN(knn = 10, isRanking = false, trainData = trainData, similarityData = itemSimilarity)
+    val itemAverage = Map(
+      "dfs.data.dir" -> "../data",
+      "data.input.path" -> "filmtrust/rating",
+      "data.column.format" -> "UIR",
+      "data.model.splitter" -> "ratio",
+      "data.splitter.ratio" -> "rating",
+      "data.splitter.trainset.ratio" -> "0.8",
+      "rec.random.seed" -> "1",
+      "rec.recommender.isranking" -> "false",
+      "rec.recommender.class" -> "itemaverage")
+    val job = new HybridJob(lc, Seq(itemKNN), coreMembers = Seq(itemAverage))
+    val fused = job.run(testData).collect()
+
+    // the core member scores the test pairs of the job, so every test pair scored by ItemKNN is fused
+    val userItems = testData.map(rating => (rating.user, rating.item)).collect()
+    val itemPredictions = itemKNN.predict(userItems).collect().map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    val corePredictions = CoreRecommenders.recommend(itemAverage, userItems).map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    assert(corePredictions.keySet.subsetOf(userItems.toSet))
+    assert(fused.length === itemPredictions.keySet.intersect(corePredictions.keySet).size)
+    assert(fused.nonEmpty)
+    assert(fused.length === itemPredictions.keySet.intersect(userItems.toSet).size)
+    fused.foreach { rating =>
+      val key = (rating.user, rating.item)
+      assert(math.abs(rating.rate - 0.5 * (itemPredictions(key) + corePredictions(key))) < 1e-9)
+    }
+
+    // the test ratings are compared with the fused predictions of the same pairs, without changing the shared conf
+    val topN = conf.get("rec.recommender.ranking.topn")
+    val rmse = job.evaluate(lc.sparkContext.parallelize(fused), testData, Seq(Measure.RMSE))(Measure.RMSE)
+    val testRates = testRatings.map(rating => ((rating.user, rating.item), rating.rate)).toMap
+    val expectedRmse = math.sqrt(fused.map(rating => math.pow(rating.rate - testRates((rating.user, rating.item)), 2)).sum / fused.length)
+    assert(math.abs(rmse - expectedRmse) < 1e-9)
+    assert(conf.get("rec.recommender.ranking.topn") === topN)
+  }
+
+  test("RankedFusionTestCase") {
+    val first = lc.sparkContext.parallelize(Seq(Rating(0, 1, 0.9), Rating(0, 2, 0.5), Rating(0, 3, 0.1)))
+    val second = lc.sparkContext.parallelize(Seq(Rating(0, 3, 0.8), Rating(0, 1, 0.7), Rating(0, 2, 0.6)))
+    val fused = HybridFunctions.ranked(Seq(first, second), HybridFunctions.equalWeights(2), 2).collect()
+      .sortBy(rating => -rating.rate)
+    assert(fused.map(_.item).toSeq === Seq(1, 3))
+    assert(math.abs(fused(0).rate - (0.5 / 61 + 0.5 / 62)) < 1e-12)
+
+    // AUC is evaluated on the statistics of the training ratings
+    val job = new HybridJob(lc, Seq.empty, isRanking = true, topN = 2)
+    val testData = lc.sparkContext.parallelize(Seq(Rating(0, 3, 1.0)))
+    val trainData = lc.sparkContext.parallelize(Seq(Rating(0, 0, 1.0), Rating(1, 4, 1.0)))
+    intercept[LibrecRuntimeException](job.evaluate(lc.sparkContext.parallelize(fused), testData, Seq(Measure.AUC)))
+    val auc = job.evaluate(lc.sparkContext.parallelize(fused), testData, Seq(Measure.AUC), trainData)(Measure.AUC)
+    assert(auc >= 0.0 && auc <= 1.0)
+  }
+}
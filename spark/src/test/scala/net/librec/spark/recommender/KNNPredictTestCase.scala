@@ -0,0 +1,110 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender
+
+import net.librec.spark.data.Rating
+import net.librec.spark.rdd.SimilarityFunctions._
+import net.librec.spark.rdd.StatisticalFunctions
+import net.librec.spark.recommender.cf.{ItemKNN, UserKNN}
+import net.librec.spark.{BaseTestSuite, Correlation}
+
+import scala.util.Random
+
+/**
+  * KNN prediction Test Case, the distributed predictions against neighbors selected on the driver
+  */
+class KNNPredictTestCase extends BaseTestSuite {
+  override val appName: String = "KNNPredictTestCase"
+
+  private val random = new Random(1L)
+  private val ratings = (0 until 80).flatMap { user =>
+    Seq.fill(12)(random.nextInt(50)).distinct.map(item => Rating(user, item, 1 + random.nextInt(5)))
+  }
+  private val (trainRatings, testRatings) = ratings.partition(_ => random.nextDouble() < 0.8)
+  private val userItems = testRatings.map(rating => (rating.user, rating.item)).toArray
+
+  private def means(groups: Map[Int, Seq[Rating]]): Map[Int, Double] =
+    groups.map { case (index, group) => (index, group.map(_.rate).sum / group.length) }
+
+  /**
+    * Prediction of every pair of a predicted user and a predicted item with neighbors.
+    *
+    * @param neighbors neighbors (index, similarity, rating) of a pair
+    * @param mean      mean rating of the predicted user or item
+    * @param means     mean rating of the neighbors
+    */
+  private def expected(knn: Int, isRanking: Boolean,
+                       neighbors: (Int, Int) => Seq[(Int, Double, Double)],
+                       mean: (Int, Int) => Double, means: Map[Int, Double]): Map[(Int, Int), Double] = {
+    (for (user <- userItems.map(_._1).distinct; item <- userItems.map(_._2).distinct) yield {
+      val kept = neighbors(user, item).sortBy(neighbor => (-neighbor._2, neighbor._1)).take(knn)
+      if (kept.isEmpty) {
+        None
+      } else if (isRanking) {
+        Some(((user, item), kept.map(_._2).sum))
+      } else {
+        val sum = kept.map { case (index, score, rate) => score * (rate - means(index)) }.sum
+        Some(((user, item), mean(user, item) + sum / kept.map(neighbor => Math.abs(neighbor._2)).sum))
+      }
+    }).flatten.toMap
+  }
+
+  private def assertPredictions(expected: Map[(Int, Int), Double], actual: Array[Rating]): Unit = {
+    assert(expected.nonEmpty)
+    assert(actual.length === expected.size)
+    actual.foreach(rating => assert(scala.math.abs(rating.rate - expected((rating.user, rating.item))) < 1e-10))
+  }
+
+  test("ItemKNNPredictTestCase") {
+    val trainData = lc.sparkContext.parallelize(trainRatings, 3)
+    val similarity = StatisticalFunctions.toIndexedSparseVectors(trainData, "item").computeSimilarity(Correlation.PCC, conf)
+    val similarities = similarity.collect().groupBy(_._1).map { case (item, pairs) => (item, pairs.map(_._2).toSeq) }
+    val userRatings = trainRatings.groupBy(_.user).map { case (user, group) => (user, group.map(rating => (rating.item, rating.rate)).toMap) }
+    val itemMeans = means(trainRatings.groupBy(_.item))
+    val neighbors = (user: Int, item: Int) => similarities.getOrElse(item, Seq.empty).collect {
+      case (simiItem, score) if score > 0 && userRatings.getOrElse(user, Map.empty[Int, Double]).contains(simiItem) =>
+        (simiItem, score, userRatings(user)(simiItem))
+    }
+
+    for (knn <- Seq(3, 50); isRanking <- Seq(false, true)) {
+      val itemKNN = new ItemKNN(knn = knn, isRanking = isRanking, trainData = trainData, similarityData = similarity)
+      itemKNN.train()
+      assertPredictions(expected(knn, isRanking, neighbors, (_, item) => itemMeans(item), itemMeans),
+        itemKNN.predict(userItems).collect())
+    }
+  }
+
+  test("UserKNNPredictTestCase") {
+    val trainData = lc.sparkContext.parallelize(trainRatings, 3)
+    val similarity = StatisticalFunctions.toIndexedSparseVectors(trainData, "user").computeSimilarity(Correlation.PCC, conf)
+    val similarities = similarity.collect().groupBy(_._1).map { case (user, pairs) => (user, pairs.map(_._2).toSeq) }
+    val itemRatings = trainRatings.groupBy(_.item).map { case (item, group) => (item, group.map(rating => (rating.user, rating.rate)).toMap) }
+    val userMeans = means(trainRatings.groupBy(_.user))
+    val neighbors = (user: Int, item: Int) => similarities.getOrElse(user, Seq.empty).collect {
+      case (simiUser, score) if itemRatings.getOrElse(item, Map.empty[Int, Double]).contains(simiUser) =>
+        (simiUser, score, itemRatings(item)(simiUser))
+    }
+
+    for (knn <- Seq(3, 50); isRanking <- Seq(false, true)) {
+      val userKNN = new UserKNN(knn = knn, isRanking = isRanking, trainData = trainData, similarityData = similarity)
+      userKNN.train()
+      assertPredictions(expected(knn, isRanking, neighbors, (user, _) => userMeans(user), userMeans),
+        userKNN.predict(userItems).collect())
+    }
+  }
+}